@@ -12,6 +12,7 @@ header {
   import edu.caltech.nanodb.expressions.*;
   import edu.caltech.nanodb.queryast.*;
   import edu.caltech.nanodb.relations.*;
+  import edu.caltech.nanodb.storage.AnalyzeSample;
 }
 
 /**
@@ -40,31 +41,41 @@ tokens {
   BETWEEN     = "between";
   BY          = "by";
   CASCADE     = "cascade";
+  CLOSE       = "close";
   COLUMN      = "column";
   COMMIT      = "commit";
   CONSTRAINT  = "constraint";
+  COPY        = "copy";
   CRASH       = "crash";
   CREATE      = "create";
   CROSS       = "cross";
+  CURSOR      = "cursor";
+  DEALLOCATE  = "deallocate";
+  DECLARE     = "declare";
   DEFAULT     = "default";
   DELETE      = "delete";
+  DELIMITER   = "delimiter";
   DESC        = "desc";
   DISTINCT    = "distinct";
   DROP        = "drop";
   DUMP        = "dump";
   EXCEPT      = "except";
+  EXECUTE     = "execute";
   EXISTS      = "exists";
   EXIT        = "exit";
   EXPLAIN     = "explain";
   FALSE       = "false";
+  FETCH       = "fetch";
   FILE        = "file";
   FLUSH       = "flush";
+  FOR         = "for";
   FOREIGN     = "foreign";
   FORMAT      = "format";
   FROM        = "from";
   FULL        = "full";
   GROUP       = "group";
   HAVING      = "having";
+  HEADER      = "header";
   IF          = "if";
   IN          = "in";
   INDEX       = "index";
@@ -88,6 +99,8 @@ tokens {
   OR          = "or";
   ORDER       = "order";
   OUTER       = "outer";
+  PERCENT     = "percent";
+  PREPARE     = "prepare";
   PRIMARY     = "primary";
   PROPERTIES  = "properties";
   QUIT        = "quit";
@@ -96,6 +109,8 @@ tokens {
   RESTRICT    = "restrict";
   RIGHT       = "right";
   ROLLBACK    = "rollback";
+  ROWS        = "rows";
+  SAMPLE      = "sample";
   SELECT      = "select";
   SET         = "set";
   SHOW        = "show";
@@ -162,6 +177,102 @@ tokens {
   PERIOD;
 }
 
+{
+  /**
+   * The normalized text of the tokens consumed since the start of the
+   * current command.  Tokens are separated by single spaces, and keywords
+   * and unquoted identifiers are in upper case, so that commands that differ
+   * only in whitespace, comments, or keyword case have the same text.  This
+   * is used as the key for caching the command's execution plan.
+   */
+  private StringBuilder normalizedText = new StringBuilder();
+
+  /** The number of <tt>?</tt> parameters seen in the current command. */
+  private int paramCount;
+
+  /** True if a <tt>$n</tt> parameter has been seen in the current command. */
+  private boolean numberedParams;
+
+  /** The largest parameter index seen in the current command. */
+  private int maxParamIndex;
+
+
+  /** Resets the per-command state at the start of each command. */
+  private void startCommand() {
+    normalizedText.setLength(0);
+    paramCount = 0;
+    numberedParams = false;
+    maxParamIndex = 0;
+  }
+
+
+  /**
+   * Consumes the current token, after appending its normalized text to the
+   * text of the current command.
+   */
+  public void consume() throws TokenStreamException {
+    if (inputState.guessing == 0) {
+      Token t = LT(1);
+      if (normalizedText.length() > 0)
+        normalizedText.append(' ');
+
+      switch (t.getType()) {
+      case STRING_LITERAL:
+        normalizedText.append('\'');
+        normalizedText.append(t.getText().replace("'", "''"));
+        normalizedText.append('\'');
+        break;
+
+      case QUOTED_IDENT:
+        normalizedText.append('"').append(t.getText()).append('"');
+        break;
+
+      case LONG_LITERAL:
+        normalizedText.append(t.getText()).append('L');
+        break;
+
+      case FLOAT_LITERAL:
+        normalizedText.append(t.getText()).append('F');
+        break;
+
+      case PARAM:
+        normalizedText.append('$').append(t.getText());
+        break;
+
+      default:
+        normalizedText.append(t.getText().toUpperCase());
+      }
+    }
+
+    super.consume();
+  }
+
+
+  /**
+   * Records a parameter of the current command.
+   *
+   * @param index the position of the parameter, or 0 for a <tt>?</tt>
+   *        parameter, which takes the next position
+   *
+   * @return an expression for the parameter
+   *
+   * @throws SemanticException if <tt>?</tt> and <tt>$n</tt> parameters are
+   *         both used in the same command
+   */
+  private ParameterValue makeParameter(int index) throws SemanticException {
+    if (index == 0)
+      index = ++paramCount;
+    else
+      numberedParams = true;
+
+    if (paramCount > 0 && numberedParams)
+      throw new SemanticException("Cannot use both ? and $n parameters in one command");
+
+    maxParamIndex = Math.max(maxParamIndex, index);
+    return new ParameterValue(index);
+  }
+}
+
 /* A list of one or more statements, separated by semicolons.  Multiple
  * semicolons without statements are fine, as is a single statement with
  * a semicolon and no subsequent statement.
@@ -182,16 +293,23 @@ command_semicolon returns [Command c] { c = null; } : c=command SEMICOLON ;
  * this command is not followed by a semicolon, which allows it to be used in the
  * "commands" rule.
  */
-command returns [Command c] { c = null; } :
+command returns [Command c] { c = null; startCommand(); } :
   ( c=create_stmt /* | alter_stmt */ | c=drop_stmt                 // DDL
   | c=select_stmt | c=insert_stmt | c=update_stmt | c=delete_stmt  // DML
+  | c=copy_stmt                                                    // DML
   | c=begin_txn_stmt | c=commit_txn_stmt | c=rollback_txn_stmt     // Transactions
   | c=analyze_stmt | c=explain_stmt | c=exit_stmt | c=crash_stmt   // Utility
   | c=dump_table_stmt // | c=dump_index_stmt                       // Utility
   | c=flush_stmt | c=verify_stmt | c=optimize_stmt                 // Utility
   | c=show_stats_stmt | c=show_tables_stmt                         // Utility
   | c=show_vars_stmt | c=set_var_stmt                              // Utility
+  | c=prepare_stmt | c=execute_stmt | c=deallocate_stmt            // Prepared
+  | c=declare_cursor_stmt | c=fetch_stmt | c=close_cursor_stmt    // Cursors
   )
+  {
+    if (c instanceof QueryCommand)
+      ((QueryCommand) c).setPlanCacheKey(normalizedText.toString());
+  }
   ;
 
 
@@ -646,12 +764,12 @@ insert_stmt returns [QueryCommand c]
     c = null;
     String name = null;
     ArrayList<String> cols = null;
-    ArrayList<Expression> exprs = null;
+    ArrayList<List<Expression>> rows = null;
     SelectClause sc = null;
   } :
   INSERT INTO name=dbobj_ident cols=insert_cols
-  ( exprs=insert_vals { c = new InsertCommand(name, cols, exprs); }
-  | sc=select_clause  { c = new InsertCommand(name, cols, sc);    } ) ;
+  ( rows=insert_vals { c = new InsertCommand(name, cols, rows); }
+  | sc=select_clause { c = new InsertCommand(name, cols, sc);   } ) ;
 
 // Optional list of columns that can appear within an INSERT command.  If the
 // list isn't specified, this parse rule evaluates to null.
@@ -664,15 +782,48 @@ insert_cols returns [ArrayList<String> cols]
            ( COMMA name=dbobj_ident { cols.add(name); } )* RPAREN )?
   ;
 
-insert_vals returns [ArrayList<Expression> exprs]
+// One or more rows of values, each of which is a parenthesized list of
+// expressions.
+insert_vals returns [ArrayList<List<Expression>> rows]
+  {
+    rows = new ArrayList<List<Expression>>();
+    ArrayList<Expression> exprs = null;
+  } :
+  VALUES exprs=insert_row { rows.add(exprs); }
+  ( COMMA exprs=insert_row { rows.add(exprs); } )* ;
+
+insert_row returns [ArrayList<Expression> exprs]
   {
     exprs = new ArrayList<Expression>();
     Expression e = null;
   } :
-  VALUES LPAREN e=expression { exprs.add(e); }
+  LPAREN e=expression { exprs.add(e); }
   ( COMMA e=expression { exprs.add(e); } )* RPAREN ;
 
 
+/* COPY Statements */
+
+copy_stmt returns [CopyCommand c]
+  {
+    c = null;
+    String name = null;
+    boolean header = false;
+    char delimiter = ',';
+  } :
+  COPY name=dbobj_ident FROM f:STRING_LITERAL
+  ( HEADER { header = true; } )?
+  ( DELIMITER d:STRING_LITERAL
+    {
+      if (d.getText().length() != 1)
+        throw new SemanticException("COPY delimiter must be a single character");
+
+      delimiter = d.getText().charAt(0);
+    }
+  )?
+  { c = new CopyCommand(name, f.getText(), header, delimiter); }
+  ;
+
+
 /* UPDATE Statements */
 
 update_stmt returns [QueryCommand c]
@@ -702,6 +853,88 @@ delete_stmt returns [QueryCommand c]
   ;
 
 
+/* Prepared statements */
+
+prepare_stmt returns [PrepareCommand c]
+  {
+    c = null;
+    String name = null;
+    QueryCommand qc = null;
+    int start = 0;
+  } :
+  PREPARE name=dbobj_ident AS { start = normalizedText.length(); }
+  ( qc=select_stmt | qc=insert_stmt | qc=update_stmt | qc=delete_stmt )
+  {
+    qc.setPlanCacheKey(normalizedText.substring(start).trim());
+    c = new PrepareCommand(name, qc, maxParamIndex);
+  }
+  ;
+
+execute_stmt returns [ExecuteCommand c]
+  {
+    c = null;
+    String name = null;
+    ArrayList<Expression> args = new ArrayList<Expression>();
+  } :
+  EXECUTE name=dbobj_ident ( args=expr_list )?
+  {
+    if (maxParamIndex > 0)
+      throw new SemanticException("EXECUTE arguments cannot contain parameters");
+
+    c = new ExecuteCommand(name, args);
+  }
+  ;
+
+deallocate_stmt returns [DeallocateCommand c]
+  {
+    c = null;
+    String name = null;
+  } :
+  DEALLOCATE ( PREPARE )? name=dbobj_ident
+  { c = new DeallocateCommand(name); }
+  ;
+
+
+/* Cursors */
+
+declare_cursor_stmt returns [DeclareCursorCommand c]
+  {
+    c = null;
+    String name = null;
+    QueryCommand qc = null;
+  } :
+  DECLARE name=dbobj_ident CURSOR FOR qc=select_stmt
+  {
+    if (maxParamIndex > 0)
+      throw new SemanticException("Cursor queries cannot contain parameters");
+
+    c = new DeclareCursorCommand(name, (SelectCommand) qc);
+  }
+  ;
+
+fetch_stmt returns [FetchCommand c]
+  {
+    c = null;
+    String name = null;
+    long count = 1;
+  } :
+  FETCH ( n:INT_LITERAL { count = Long.parseLong(n.getText()); }
+        | ALL { count = Long.MAX_VALUE; }
+        )?
+  ( FROM | IN )? name=dbobj_ident
+  { c = new FetchCommand(name, count); }
+  ;
+
+close_cursor_stmt returns [CloseCursorCommand c]
+  {
+    c = null;
+    String name = null;
+  } :
+  CLOSE name=dbobj_ident
+  { c = new CloseCursorCommand(name); }
+  ;
+
+
 /* Transaction-processing statements */
 
 begin_txn_stmt returns [BeginTransactionCommand c] { c = null; } :
@@ -730,10 +963,27 @@ analyze_stmt returns [AnalyzeCommand c]
     c = null;
     boolean verbose = false;
     String tblName = null;
+    String sizeText = null;
+    AnalyzeSample.Unit unit = null;
   } :
   ANALYZE (VERBOSE { verbose = true; } )?
   tblName=dbobj_ident { c = new AnalyzeCommand(tblName, verbose); }
   ( COMMA tblName=dbobj_ident { c.addTable(tblName); } )*
+  ( SAMPLE
+    ( ival:INT_LITERAL { sizeText = ival.getText(); }
+    | dval:DEC_LITERAL { sizeText = dval.getText(); }
+    )
+    ( PERCENT { unit = AnalyzeSample.Unit.PERCENT; }
+    | ROWS    { unit = AnalyzeSample.Unit.ROWS; }
+    )
+    {
+      double size = Double.parseDouble(sizeText);
+      if (size <= 0 || (unit == AnalyzeSample.Unit.PERCENT && size > 100))
+        throw new SemanticException("Invalid sample size " + sizeText + " " + unit);
+
+      c.setSample(new AnalyzeSample(size, unit));
+    }
+  )?
   ;
 
 
@@ -1088,6 +1338,15 @@ base_expr returns [Expression e]
     e=literal_expr
   | cn=column_name { e = new ColumnValue(cn); }
   | e=function_call
+  | QUESTION { e = makeParameter(0); }
+  | p:PARAM
+    {
+      int index = Integer.parseInt(p.getText());
+      if (index < 1)
+        throw new SemanticException("Invalid parameter $" + p.getText());
+
+      e = makeParameter(index);
+    }
   | LPAREN
     ( e=logical_or_expr
     | sc=select_clause { e = new ScalarSubquery(sc); }
@@ -1198,6 +1457,7 @@ SEMICOLON : ';' ;
 STAR      : '*' ;
 SLASH     : '/' ;
 PERCENT   : '%' ;
+QUESTION  : '?' ;
 PLUS      : '+' ;
 MINUS     : '-' ;
 
@@ -1266,3 +1526,6 @@ NUM_LITERAL_OR_SYMBOL :
   ;
 
 STRING_LITERAL : '\''! ( ~( '\'' | '\r' | '\n' ))* '\''! ;
+
+/** Numbered parameters of prepared statements, such as <tt>$1</tt>. */
+PARAM : '$'! ('0'..'9')+ ;
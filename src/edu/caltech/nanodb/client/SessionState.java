@@ -2,8 +2,11 @@ package edu.caltech.nanodb.client;
 
 
 import java.io.PrintStream;
+import java.util.HashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import edu.caltech.nanodb.commands.Cursor;
+import edu.caltech.nanodb.commands.PreparedStatement;
 import edu.caltech.nanodb.transactions.TransactionState;
 
 
@@ -48,6 +51,23 @@ public class SessionState {
     }
 
 
+    /**
+     * Stores the specified session-state in the thread's thread-local
+     * storage, so that a worker thread can act on behalf of another thread's
+     * session.  For example, the workers of a parallel query use the
+     * session of the thread that runs the query, so that the pages they pin
+     * and the parameter values they see belong to that session.
+     *
+     * @param state the session-state for this local thread
+     */
+    public static void set(SessionState state) {
+        if (state == null)
+            throw new IllegalArgumentException("state cannot be null");
+
+        threadLocalState.set(state);
+    }
+
+
     /**
      * Removes the session-state from the thread's thread-local storage.
      */
@@ -77,6 +97,28 @@ public class SessionState {
     private TransactionState txnState;
 
 
+    /**
+     * The prepared statements created in this session with <tt>PREPARE</tt>,
+     * keyed by statement name.
+     */
+    private HashMap<String, PreparedStatement> preparedStatements =
+        new HashMap<>();
+
+
+    /**
+     * The cursors declared in this session with <tt>DECLARE</tt>, keyed by
+     * cursor name.
+     */
+    private HashMap<String, Cursor> cursors = new HashMap<>();
+
+
+    /**
+     * The values bound to the parameters of the prepared statement being
+     * executed, or <tt>null</tt> if no prepared statement is executing.
+     */
+    private Object[] parameterValues;
+
+
     private SessionState(int sessionID) {
         this.sessionID = sessionID;
         txnState = new TransactionState();
@@ -116,6 +158,114 @@ public class SessionState {
     }
 
 
+    /**
+     * Returns the prepared statement with the specified name, or
+     * <tt>null</tt> if this session has no such statement.
+     *
+     * @param name the name of the prepared statement
+     *
+     * @return the prepared statement, or <tt>null</tt> if there is none
+     */
+    public PreparedStatement getPreparedStatement(String name) {
+        return preparedStatements.get(name);
+    }
+
+
+    /**
+     * Records a prepared statement for this session, replacing any previous
+     * statement with the same name.
+     *
+     * @param stmt the prepared statement
+     */
+    public void addPreparedStatement(PreparedStatement stmt) {
+        preparedStatements.put(stmt.getName(), stmt);
+    }
+
+
+    /**
+     * Removes the prepared statement with the specified name from this
+     * session.
+     *
+     * @param name the name of the prepared statement
+     *
+     * @return the removed statement, or <tt>null</tt> if there was none
+     */
+    public PreparedStatement removePreparedStatement(String name) {
+        return preparedStatements.remove(name);
+    }
+
+
+    /**
+     * Returns the cursor with the specified name, or <tt>null</tt> if this
+     * session has no such cursor.
+     *
+     * @param name the name of the cursor
+     *
+     * @return the cursor, or <tt>null</tt> if there is none
+     */
+    public Cursor getCursor(String name) {
+        return cursors.get(name);
+    }
+
+
+    /**
+     * Records a cursor for this session.
+     *
+     * @param cursor the cursor
+     */
+    public void addCursor(Cursor cursor) {
+        cursors.put(cursor.getName(), cursor);
+    }
+
+
+    /**
+     * Removes the cursor with the specified name from this session.  The
+     * cursor is not closed.
+     *
+     * @param name the name of the cursor
+     *
+     * @return the removed cursor, or <tt>null</tt> if there was none
+     */
+    public Cursor removeCursor(String name) {
+        return cursors.remove(name);
+    }
+
+
+    /**
+     * Closes and removes all of this session's cursors.  This is done when
+     * the session ends.
+     */
+    public void closeAllCursors() {
+        for (Cursor cursor : cursors.values())
+            cursor.close();
+
+        cursors.clear();
+    }
+
+
+    /**
+     * Returns the values bound to the parameters of the prepared statement
+     * being executed, where parameter <em>n</em> is at index <em>n</em> - 1.
+     *
+     * @return the parameter values, or <tt>null</tt> if no prepared
+     *         statement is executing
+     */
+    public Object[] getParameterValues() {
+        return parameterValues;
+    }
+
+
+    /**
+     * Sets the values bound to the parameters of the prepared statement
+     * being executed.
+     *
+     * @param values the parameter values, or <tt>null</tt> to clear them
+     */
+    public void setParameterValues(Object[] values) {
+        parameterValues = values;
+    }
+
+
     @Override
     public int hashCode() {
         return sessionID;
@@ -3,10 +3,7 @@ package edu.caltech.nanodb.client;
 
 import java.io.EOFException;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.PrintStream;
-import java.net.Socket;
 import java.net.SocketException;
 import java.nio.channels.ClosedByInterruptException;
 import java.util.concurrent.Semaphore;
@@ -19,6 +16,8 @@ import edu.caltech.nanodb.relations.Schema;
 import edu.caltech.nanodb.relations.Tuple;
 import edu.caltech.nanodb.server.CommandState;
 import edu.caltech.nanodb.server.SharedServer;
+import edu.caltech.nanodb.server.protocol.MessageChannel;
+import edu.caltech.nanodb.server.protocol.WireProtocol;
 
 
 /**
@@ -30,21 +29,11 @@ public class SharedServerClient extends InteractiveClient {
     private static Logger logger = Logger.getLogger(SharedServerClient.class);
 
 
-    /** The socket used to communicate with the shared server. */
-    private Socket socket;
-
-
-    /**
-     * This stream is used to receive objects (tuples, messages, etc.) from
-     * the server. */
-    private ObjectInputStream objectInput;
-
-
     /**
-     * This stream is used to send objects (commands, specifically) to the
-     * server.
+     * The channel used to send commands to the shared server, and to receive
+     * objects (tuples, messages, etc.) from it.
      */
-    private ObjectOutputStream objectOutput;
+    private MessageChannel channel;
 
 
     /**
@@ -94,7 +83,7 @@ public class SharedServerClient extends InteractiveClient {
             done = false;
             while (true) {
                 try {
-                    Object obj = objectInput.readObject();
+                    Object obj = channel.receive();
                     if (obj instanceof String) {
                         // Just print strings to the console
                         System.out.print(obj);
@@ -155,10 +144,29 @@ public class SharedServerClient extends InteractiveClient {
 
 
     public SharedServerClient(String hostname, int port) throws IOException {
+        this(hostname, port, true);
+    }
+
+
+    /**
+     * Connects to a shared database server.
+     *
+     * @param hostname the name of the server's host
+     *
+     * @param port the port the server listens on
+     *
+     * @param binary true to use the binary protocol if the server supports
+     *        it, or false to use Java serialization
+     *
+     * @throws IOException if the connection can't be made
+     */
+    public SharedServerClient(String hostname, int port, boolean binary)
+        throws IOException {
+
         // Try to establish a connection to the shared database server.
-        socket = new Socket(hostname, port);
-        objectOutput = new ObjectOutputStream(socket.getOutputStream());
-        objectInput = new ObjectInputStream(socket.getInputStream());
+        channel = WireProtocol.connect(hostname, port, binary);
+        logger.debug("Connected using the " +
+            (channel.isBinary() ? "binary" : "serialization") + " protocol");
 
         semCommandDone = new Semaphore(0);
     }
@@ -178,7 +186,8 @@ public class SharedServerClient extends InteractiveClient {
         // command.  We want to send that string, since the Command object
         // itself is too complicated to send across the wire.
         String commandString = typedBytes.toString();
-        objectOutput.writeObject(commandString);
+        channel.send(commandString);
+        channel.flush();
 
         // Wait for the command to be completed.
         semCommandDone.acquire();
@@ -189,9 +198,7 @@ public class SharedServerClient extends InteractiveClient {
         receiver.shutdown();
         receiverThread.interrupt();
 
-        objectInput.close();
-        objectOutput.close();
-        socket.close();
+        channel.close();
     }
 
 
@@ -8,6 +8,7 @@ import java.util.LinkedHashSet;
 
 import edu.caltech.nanodb.relations.TableInfo;
 import edu.caltech.nanodb.server.NanoDBServer;
+import edu.caltech.nanodb.storage.AnalyzeSample;
 import edu.caltech.nanodb.storage.StorageManager;
 import edu.caltech.nanodb.storage.TableManager;
 
@@ -17,6 +18,11 @@ import edu.caltech.nanodb.storage.TableManager;
  * analyzes a table's internal data and updates its cached statistics to be as
  * up-to-date as possible.  This is not a standard SQL command, but virtually
  * every good database has a mechanism to manually perform this task.
+ * <p>
+ * By default, every page of each table is read.  A <tt>SAMPLE</tt> clause
+ * (e.g. <tt>ANALYZE t SAMPLE 10 PERCENT</tt> or
+ * <tt>ANALYZE t SAMPLE 50000 ROWS</tt>) causes only a random sample of each
+ * table's pages to be read, and the statistics to be estimated from them.
  */
 public class AnalyzeCommand extends Command {
 
@@ -30,6 +36,13 @@ public class AnalyzeCommand extends Command {
     private boolean verbose = false;
 
 
+    /**
+     * How much of each table to examine, or <tt>null</tt> if every table
+     * should be analyzed in its entirety.
+     */
+    private AnalyzeSample sample = null;
+
+
     /**
      * Construct a new <tt>ANALYZE</tt> command with an empty table list.
      * Tables can be added to the internal list using the {@link #addTable}
@@ -91,6 +104,28 @@ public class AnalyzeCommand extends Command {
     }
 
 
+    /**
+     * Sets how much of each table should be examined.
+     *
+     * @param sample how much of each table to examine, or <tt>null</tt> to
+     *        analyze every table in its entirety
+     */
+    public void setSample(AnalyzeSample sample) {
+        this.sample = sample;
+    }
+
+
+    /**
+     * Returns how much of each table will be examined.
+     *
+     * @return how much of each table will be examined, or <tt>null</tt> if
+     *         every table will be analyzed in its entirety
+     */
+    public AnalyzeSample getSample() {
+        return sample;
+    }
+
+
     @Override
     public void execute(NanoDBServer server) throws ExecutionException {
 
@@ -115,8 +150,14 @@ public class AnalyzeCommand extends Command {
 
         for (TableInfo tableInfo : tableInfos) {
             try {
-                out.println("Analyzing table " + tableInfo.getTableName());
-                tableManager.analyzeTable(tableInfo);
+                if (sample != null) {
+                    out.printf("Analyzing table %s (%s)%n",
+                        tableInfo.getTableName(), sample);
+                }
+                else {
+                    out.println("Analyzing table " + tableInfo.getTableName());
+                }
+                tableManager.analyzeTable(tableInfo, sample);
 
                 if (verbose) {
                     // TODO:  Implement
@@ -140,6 +181,9 @@ public class AnalyzeCommand extends Command {
      */
     @Override
     public String toString() {
+        if (sample != null)
+            return "Analyze[" + tableNames + ", " + sample + "]";
+
         return "Analyze[" + tableNames + "]";
     }
 }
@@ -0,0 +1,41 @@
+package edu.caltech.nanodb.commands;
+
+
+import edu.caltech.nanodb.client.SessionState;
+import edu.caltech.nanodb.server.NanoDBServer;
+
+
+/**
+ * This Command class represents the <tt>CLOSE</tt> SQL command, which closes
+ * a cursor declared with the <tt>DECLARE</tt> command, whether or not all of
+ * its tuples have been fetched.
+ *
+ * @see Cursor
+ */
+public class CloseCursorCommand extends Command {
+
+    /** The name of the cursor to close. */
+    private String name;
+
+
+    public CloseCursorCommand(String name) {
+        super(Command.Type.UTILITY);
+
+        if (name == null)
+            throw new IllegalArgumentException("name cannot be null");
+
+        this.name = name;
+    }
+
+
+    @Override
+    public void execute(NanoDBServer server) throws ExecutionException {
+        Cursor cursor = SessionState.get().removeCursor(name);
+        if (cursor == null)
+            throw new ExecutionException("No cursor named \"" + name + "\".");
+
+        cursor.close();
+        out.printf("Closed cursor \"%s\" after fetching %d rows.%n", name,
+            cursor.getNumFetched());
+    }
+}
@@ -62,6 +62,16 @@ public abstract class Command {
     }
 
 
+    /**
+     * Returns the general category of this command.
+     *
+     * @return the general category of this command
+     */
+    public Type getCommandType() {
+        return cmdType;
+    }
+
+
     /**
      * Actually performs the command.
      *
@@ -0,0 +1,412 @@
+package edu.caltech.nanodb.commands;
+
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.apache.log4j.Logger;
+
+import edu.caltech.nanodb.expressions.TupleLiteral;
+import edu.caltech.nanodb.expressions.TypeCastException;
+import edu.caltech.nanodb.expressions.TypeConverter;
+import edu.caltech.nanodb.relations.ColumnInfo;
+import edu.caltech.nanodb.relations.TableInfo;
+import edu.caltech.nanodb.relations.TableSchema;
+import edu.caltech.nanodb.relations.Tuple;
+import edu.caltech.nanodb.server.EventDispatcher;
+import edu.caltech.nanodb.server.NanoDBServer;
+import edu.caltech.nanodb.storage.TupleFile;
+import edu.caltech.nanodb.storage.columnfile.ColumnarTupleFile;
+import edu.caltech.nanodb.storage.heapfile.HeapTupleFile;
+
+
+/**
+ * <p>
+ * This command object represents a <tt>COPY ... FROM</tt> command, which
+ * bulk-loads the rows of a CSV file into a table.  The command has the form
+ * <tt>COPY tbl FROM 'file' [HEADER] [DELIMITER 'c']</tt>; the first line of
+ * the file is skipped if <tt>HEADER</tt> is specified, and fields are
+ * separated by commas unless another delimiter is given.  Fields may be
+ * quoted with double-quotes, and an empty unquoted field is a <tt>NULL</tt>.
+ * </p>
+ * <p>
+ * The file is read and parsed on a separate thread, which converts each
+ * row's values to the types of the table's columns, and hands the rows to
+ * the command in batches of {@link #BATCH_SIZE} rows.  Each batch is loaded
+ * in passes:  the before-insert handlers, which check constraints, run for
+ * all of the batch's rows first, then the rows are appended to the end of
+ * the table's heap file with {@link HeapTupleFile#appendTuples}, which logs
+ * each page it fills once (or to a columnar file with
+ * {@link ColumnarTupleFile#addTuples}), and finally the after-insert handlers
+ * (such as index maintenance) run for all of the new rows.
+ * </p>
+ */
+public class CopyCommand extends Command {
+
+    /** A logging object for reporting anything interesting that happens. */
+    private static Logger logger = Logger.getLogger(CopyCommand.class);
+
+
+    /** The number of rows that are parsed and loaded together. */
+    public static final int BATCH_SIZE = 1000;
+
+
+    /** The number of parsed batches that may wait to be loaded. */
+    private static final int QUEUE_SIZE = 4;
+
+
+    /**
+     * This class reads and parses a CSV file on its own thread, and puts
+     * batches of rows onto a queue for the command to load.  An empty batch
+     * marks the end of the input; if parsing fails, the error is recorded
+     * before the empty batch is queued.
+     */
+    private static class CsvReader implements Runnable {
+        /** The schema of the table being loaded. */
+        private TableSchema schema;
+
+
+        /** The path of the file to read. */
+        private String fileName;
+
+
+        /** If true, the first line of the file is skipped. */
+        private boolean header;
+
+
+        /** The character that separates the fields of a line. */
+        private char delimiter;
+
+
+        /** The queue that parsed batches are handed over through. */
+        private BlockingQueue<List<TupleLiteral>> queue =
+            new ArrayBlockingQueue<>(QUEUE_SIZE);
+
+
+        /** The error that stopped the reader, or <tt>null</tt> if none. */
+        private volatile Exception error;
+
+
+        public CsvReader(TableSchema schema, String fileName, boolean header,
+                         char delimiter) {
+            this.schema = schema;
+            this.fileName = fileName;
+            this.header = header;
+            this.delimiter = delimiter;
+        }
+
+
+        @Override
+        public void run() {
+            try {
+                try (BufferedReader reader =
+                         new BufferedReader(new FileReader(fileName))) {
+                    readFile(reader);
+                }
+                catch (IOException | RuntimeException e) {
+                    error = e;
+                }
+                queue.put(new ArrayList<>());
+            }
+            catch (InterruptedException e) {
+                // The command stopped loading rows, so nobody is waiting.
+                logger.debug("CSV reader for " + fileName + " was interrupted");
+            }
+        }
+
+
+        private void readFile(BufferedReader reader)
+            throws IOException, InterruptedException {
+
+            int lineNo = 0;
+            if (header && reader.readLine() != null)
+                lineNo++;
+
+            ArrayList<TupleLiteral> batch = new ArrayList<>(BATCH_SIZE);
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNo++;
+                if (line.isEmpty())
+                    continue;
+
+                try {
+                    batch.add(parseLine(line));
+                }
+                catch (IllegalArgumentException e) {
+                    throw new IOException(String.format("%s, line %d:  %s",
+                        fileName, lineNo, e.getMessage()), e);
+                }
+
+                if (batch.size() == BATCH_SIZE) {
+                    queue.put(batch);
+                    batch = new ArrayList<>(BATCH_SIZE);
+                }
+            }
+
+            if (!batch.isEmpty())
+                queue.put(batch);
+        }
+
+
+        /**
+         * Splits a line into its fields, and converts each field to the type
+         * of the corresponding column.
+         */
+        private TupleLiteral parseLine(String line) {
+            ArrayList<String> fields = new ArrayList<>();
+            StringBuilder field = new StringBuilder();
+            boolean quoted = false;
+            boolean wasQuoted = false;
+
+            for (int i = 0; i < line.length(); i++) {
+                char ch = line.charAt(i);
+                if (quoted) {
+                    if (ch == '"') {
+                        if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                            field.append('"');
+                            i++;
+                        }
+                        else {
+                            quoted = false;
+                        }
+                    }
+                    else {
+                        field.append(ch);
+                    }
+                }
+                else if (ch == '"') {
+                    quoted = true;
+                    wasQuoted = true;
+                }
+                else if (ch == delimiter) {
+                    fields.add(wasQuoted || field.length() > 0 ?
+                        field.toString() : null);
+                    field.setLength(0);
+                    wasQuoted = false;
+                }
+                else {
+                    field.append(ch);
+                }
+            }
+
+            if (quoted)
+                throw new IllegalArgumentException("Unterminated quoted field");
+
+            fields.add(wasQuoted || field.length() > 0 ? field.toString() : null);
+
+            if (fields.size() != schema.numColumns()) {
+                throw new IllegalArgumentException(String.format(
+                    "Expected %d fields, found %d", schema.numColumns(),
+                    fields.size()));
+            }
+
+            TupleLiteral tuple = new TupleLiteral();
+            for (int i = 0; i < fields.size(); i++)
+                tuple.addValue(convertValue(schema.getColumnInfo(i), fields.get(i)));
+
+            return tuple;
+        }
+
+
+        /** Converts a field's text to the type of its column. */
+        private Object convertValue(ColumnInfo colInfo, String value) {
+            if (value == null)
+                return null;
+
+            try {
+                switch (colInfo.getType().getBaseType()) {
+                case TINYINT:
+                    return TypeConverter.getByteValue(value.trim());
+
+                case SMALLINT:
+                    return TypeConverter.getShortValue(value.trim());
+
+                case INTEGER:
+                    return TypeConverter.getIntegerValue(value.trim());
+
+                case BIGINT:
+                    return TypeConverter.getLongValue(value.trim());
+
+                case FLOAT:
+                    return TypeConverter.getFloatValue(value.trim());
+
+                case DOUBLE:
+                    return TypeConverter.getDoubleValue(value.trim());
+
+                default:
+                    return value;
+                }
+            }
+            catch (TypeCastException e) {
+                throw new IllegalArgumentException(String.format(
+                    "Invalid value \"%s\" for column %s", value,
+                    colInfo.getName()), e);
+            }
+        }
+
+
+        /**
+         * Returns the next batch of parsed rows, waiting for it if
+         * necessary.
+         *
+         * @return the next batch of rows, or <tt>null</tt> at the end of the
+         *         input
+         *
+         * @throws ExecutionException if the file couldn't be read or parsed
+         */
+        public List<TupleLiteral> nextBatch() throws ExecutionException {
+            List<TupleLiteral> batch;
+            try {
+                batch = queue.take();
+            }
+            catch (InterruptedException e) {
+                throw new ExecutionException("Interrupted while loading rows", e);
+            }
+
+            if (!batch.isEmpty())
+                return batch;
+
+            if (error != null) {
+                throw new ExecutionException("Couldn't load rows:  " +
+                    error.getMessage(), error);
+            }
+
+            return null;
+        }
+    }
+
+
+    /** The name of the table to load the rows into. */
+    private String tableName;
+
+
+    /** The path of the CSV file to load the rows from. */
+    private String fileName;
+
+
+    /** If true, the first line of the file is a header, and is skipped. */
+    private boolean header;
+
+
+    /** The character that separates the fields of each line. */
+    private char delimiter;
+
+
+    /**
+     * Constructs a new copy command.
+     *
+     * @param tableName the name of the table to load the rows into
+     * @param fileName the path of the CSV file to load the rows from
+     * @param header if true, the first line of the file is skipped
+     * @param delimiter the character that separates the fields of each line
+     */
+    public CopyCommand(String tableName, String fileName, boolean header,
+                       char delimiter) {
+        super(Command.Type.DML);
+
+        if (tableName == null)
+            throw new IllegalArgumentException("tableName cannot be null");
+
+        if (fileName == null)
+            throw new IllegalArgumentException("fileName cannot be null");
+
+        if (delimiter == '"' || delimiter == '\r' || delimiter == '\n') {
+            throw new IllegalArgumentException(
+                "Invalid delimiter '" + delimiter + "'");
+        }
+
+        this.tableName = tableName;
+        this.fileName = fileName;
+        this.header = header;
+        this.delimiter = delimiter;
+    }
+
+
+    @Override
+    public void execute(NanoDBServer server) throws ExecutionException {
+        TableInfo tableInfo;
+        try {
+            tableInfo = server.getStorageManager().getTableManager().openTable(
+                tableName);
+        }
+        catch (IOException e) {
+            throw new ExecutionException("Could not open table \"" +
+                tableName + "\".", e);
+        }
+
+        long startTime = System.nanoTime();
+
+        CsvReader reader = new CsvReader(tableInfo.getSchema(), fileName,
+            header, delimiter);
+        Thread readerThread = new Thread(reader, "nanodb-copy-reader");
+        readerThread.setDaemon(true);
+        readerThread.start();
+
+        long numRows = 0;
+        try {
+            List<TupleLiteral> batch;
+            while ((batch = reader.nextBatch()) != null) {
+                loadBatch(server.getEventDispatcher(), tableInfo, batch);
+                numRows += batch.size();
+            }
+        }
+        catch (IOException e) {
+            throw new ExecutionException("Couldn't load rows into table.", e);
+        }
+        finally {
+            // If loading failed, the reader may be waiting to queue a batch.
+            readerThread.interrupt();
+        }
+
+        out.printf("Copied %d rows in %f sec.%n", numRows,
+            (System.nanoTime() - startTime) / 1.0e9);
+    }
+
+
+    /**
+     * Loads one batch of rows into the table.  The before-insert handlers
+     * check all of the rows before any of them are stored, and the
+     * after-insert handlers run once all of them are stored.
+     */
+    private void loadBatch(EventDispatcher eventDispatcher, TableInfo tableInfo,
+                           List<TupleLiteral> batch) throws IOException {
+
+        eventDispatcher.fireBeforeRowsInserted(tableInfo, batch);
+
+        TupleFile tupleFile = tableInfo.getTupleFile();
+        List<? extends Tuple> newTuples;
+        if (tupleFile instanceof HeapTupleFile) {
+            newTuples = ((HeapTupleFile) tupleFile).appendTuples(batch);
+        }
+        else if (tupleFile instanceof ColumnarTupleFile) {
+            newTuples = ((ColumnarTupleFile) tupleFile).addTuples(batch);
+        }
+        else {
+            ArrayList<Tuple> added = new ArrayList<>(batch.size());
+            for (TupleLiteral tuple : batch)
+                added.add(tupleFile.addTuple(tuple));
+
+            newTuples = added;
+        }
+
+        eventDispatcher.fireAfterRowsInserted(tableInfo, newTuples);
+
+        // Release the batch's pages, so a large load doesn't fill the buffer
+        // manager with pinned pages.
+        for (Tuple newTuple : newTuples)
+            newTuple.unpin();
+    }
+
+
+    @Override
+    public String toString() {
+        return String.format(
+            "CopyCommand[table=%s, file=\"%s\", header=%s, delimiter='%c']",
+            tableName, fileName, header, delimiter);
+    }
+}
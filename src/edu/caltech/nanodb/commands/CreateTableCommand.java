@@ -42,6 +42,9 @@ public class CreateTableCommand extends Command {
     public static final String PROP_STORAGE = "storage";
 
 
+    public static final String PROP_COMPRESSION = "compression";
+
+
     /** Name of the table to be created. */
     private String tableName;
 
@@ -180,6 +183,10 @@ public class CreateTableCommand extends Command {
         //  * Verify that all named constraints are uniquely named.
         //  * Open all tables referenced by foreign-key constraints, to ensure
         //    they exist.  (More verification will occur later.)
+        //  * Columnar tables can't have indexes, so they can only have
+        //    NOT NULL constraints.
+        boolean columnar = properties != null &&
+            "columnar".equals(properties.getString("storage", null));
         HashSet<String> constraintNames = new HashSet<>();
         HashMap<String, TableInfo> referencedTables = new HashMap<>();
         for (ConstraintDecl cd: constraints) {
@@ -189,6 +196,11 @@ public class CreateTableCommand extends Command {
                     " appears multiple times.");
             }
 
+            if (columnar && cd.getType() != TableConstraintType.NOT_NULL) {
+                throw new ExecutionException(
+                    "Columnar tables only support NOT NULL constraints.");
+            }
+
             if (cd.getType() == TableConstraintType.FOREIGN_KEY) {
                 String refTableName = cd.getRefTable();
                 try {
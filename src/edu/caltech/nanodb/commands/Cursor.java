@@ -0,0 +1,138 @@
+package edu.caltech.nanodb.commands;
+
+
+import edu.caltech.nanodb.plannodes.PlanNode;
+import edu.caltech.nanodb.queryeval.EvalStats;
+import edu.caltech.nanodb.queryeval.QueryEvaluator;
+import edu.caltech.nanodb.queryeval.TupleProcessor;
+
+
+/**
+ * <p>
+ * This class records a cursor declared with the <tt>DECLARE</tt> command.
+ * A cursor holds the open execution plan of a <tt>SELECT</tt> statement,
+ * and each <tt>FETCH</tt> retrieves the next few tuples from the plan, so
+ * that a large result can be read a piece at a time rather than all at
+ * once.  Between fetches the plan is suspended:  it holds no pinned pages,
+ * since the server unpins a session's pages after every command, so the
+ * pages of any tuples the plan keeps may be evicted before the next fetch.
+ * The plan nodes that read tables therefore continue from the page number
+ * and position recorded in their last tuple rather than from its page, and
+ * nodes that need a tuple's values across calls, such as the outer tuple of
+ * a nested-loop join, keep a copy of the tuple.
+ * </p>
+ * <p>
+ * Cursors belong to the session that declared them, and are closed with the
+ * <tt>CLOSE</tt> command or when the session ends.
+ * </p>
+ *
+ * @see DeclareCursorCommand
+ * @see FetchCommand
+ * @see CloseCursorCommand
+ */
+public class Cursor {
+
+    /** The name of the cursor. */
+    private String name;
+
+
+    /** The open execution plan that produces the cursor's tuples. */
+    private PlanNode plan;
+
+
+    /** The number of tuples fetched from the cursor so far. */
+    private long numFetched;
+
+
+    /** This flag is set once the plan has produced all of its tuples. */
+    private boolean done;
+
+
+    /**
+     * Initializes a cursor, and starts executing its plan.
+     *
+     * @param name the name of the cursor
+     * @param plan the execution plan that produces the cursor's tuples;
+     *        this plan must not be shared with anything else, since it is
+     *        kept open until the cursor is closed
+     */
+    public Cursor(String name, PlanNode plan) {
+        if (name == null)
+            throw new IllegalArgumentException("name cannot be null");
+
+        if (plan == null)
+            throw new IllegalArgumentException("plan cannot be null");
+
+        this.name = name;
+        this.plan = plan;
+
+        QueryEvaluator.openPlan(plan);
+    }
+
+
+    public String getName() {
+        return name;
+    }
+
+
+    /**
+     * Returns the number of tuples fetched from the cursor so far.
+     *
+     * @return the number of tuples fetched from the cursor so far
+     */
+    public long getNumFetched() {
+        return numFetched;
+    }
+
+
+    /**
+     * Returns true if all of the cursor's tuples have been fetched.
+     *
+     * @return true if all of the cursor's tuples have been fetched
+     */
+    public boolean isDone() {
+        return done;
+    }
+
+
+    /**
+     * Fetches the next tuples from the cursor, and feeds them to a tuple
+     * processor.
+     *
+     * @param processor the tuple-processor to receive the tuples
+     * @param maxTuples the maximum number of tuples to fetch
+     *
+     * @return statistics about the fetch, including the number of tuples
+     *         that were fetched
+     *
+     * @throws Exception if an error occurs during query evaluation or during
+     *         tuple-processing.
+     */
+    public EvalStats fetch(TupleProcessor processor, long maxTuples)
+        throws Exception {
+
+        if (plan == null)
+            throw new IllegalStateException("Cursor has been closed");
+
+        if (done) {
+            // Don't ask the plan for more tuples after it has ended.
+            maxTuples = 0;
+        }
+
+        EvalStats stats = QueryEvaluator.fetchTuples(plan, processor, maxTuples);
+        numFetched += stats.getRowsProduced();
+        if (stats.getRowsProduced() < maxTuples)
+            done = true;
+
+        return stats;
+    }
+
+
+    /** Closes the cursor, releasing the resources held by its plan. */
+    public void close() {
+        if (plan != null) {
+            plan.cleanUp();
+            plan = null;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package edu.caltech.nanodb.commands;
+
+
+import edu.caltech.nanodb.client.SessionState;
+import edu.caltech.nanodb.server.NanoDBServer;
+
+
+/**
+ * This Command class represents the <tt>DEALLOCATE</tt> SQL command, which
+ * discards a statement prepared with the <tt>PREPARE</tt> command.
+ */
+public class DeallocateCommand extends Command {
+
+    /** The name of the prepared statement to discard. */
+    private String name;
+
+
+    public DeallocateCommand(String name) {
+        super(Command.Type.UTILITY);
+
+        if (name == null)
+            throw new IllegalArgumentException("name cannot be null");
+
+        this.name = name;
+    }
+
+
+    @Override
+    public void execute(NanoDBServer server) throws ExecutionException {
+        if (SessionState.get().removePreparedStatement(name) == null) {
+            throw new ExecutionException(
+                "No prepared statement named \"" + name + "\".");
+        }
+
+        out.printf("Deallocated prepared statement \"%s\".%n", name);
+    }
+}
@@ -0,0 +1,73 @@
+package edu.caltech.nanodb.commands;
+
+
+import edu.caltech.nanodb.client.SessionState;
+import edu.caltech.nanodb.plannodes.PlanNode;
+import edu.caltech.nanodb.server.NanoDBServer;
+
+
+/**
+ * This Command class represents the <tt>DECLARE ... CURSOR FOR</tt> SQL
+ * command, which starts executing a <tt>SELECT</tt> statement and records
+ * its open plan as a cursor, so that the results can be retrieved a few at
+ * a time with the <tt>FETCH</tt> command.
+ *
+ * @see Cursor
+ * @see FetchCommand
+ */
+public class DeclareCursorCommand extends Command {
+
+    /** The name of the cursor to declare. */
+    private String name;
+
+
+    /** The statement whose results the cursor retrieves. */
+    private SelectCommand command;
+
+
+    /**
+     * Constructs a declare-cursor command.
+     *
+     * @param name the name of the cursor to declare
+     * @param command the statement whose results the cursor retrieves
+     */
+    public DeclareCursorCommand(String name, SelectCommand command) {
+        super(Command.Type.UTILITY);
+
+        if (name == null)
+            throw new IllegalArgumentException("name cannot be null");
+
+        if (command == null)
+            throw new IllegalArgumentException("command cannot be null");
+
+        this.name = name;
+        this.command = command;
+    }
+
+
+    @Override
+    public void execute(NanoDBServer server) throws ExecutionException {
+        SessionState state = SessionState.get();
+        if (state.getCursor(name) != null) {
+            throw new ExecutionException(
+                "Cursor \"" + name + "\" already exists.");
+        }
+
+        PlanNode plan;
+        try {
+            plan = command.prepareCursorPlan(server.getStorageManager());
+        }
+        catch (Exception e) {
+            throw new ExecutionException(e);
+        }
+
+        state.addCursor(new Cursor(name, plan));
+        out.printf("Declared cursor \"%s\".%n", name);
+    }
+
+
+    @Override
+    public String toString() {
+        return "DeclareCursor[" + name + ", " + command + "]";
+    }
+}
@@ -6,6 +6,7 @@ import java.io.IOException;
 import edu.caltech.nanodb.expressions.Expression;
 import edu.caltech.nanodb.expressions.TupleLiteral;
 
+import edu.caltech.nanodb.plannodes.PlanNode;
 import edu.caltech.nanodb.queryeval.Planner;
 import edu.caltech.nanodb.queryeval.PlannerFactory;
 import edu.caltech.nanodb.queryeval.TupleProcessor;
@@ -70,6 +71,12 @@ public class DeleteCommand extends QueryCommand {
             // Ignore.
         }
 
+        /** Tuples must be deleted from the table file, not from copies. */
+        @Override
+        public boolean supportsBatches() {
+            return false;
+        }
+
         /** This implementation simply deletes each tuple it is handed. */
         public void process(Tuple tuple) throws IOException {
 
@@ -137,6 +144,18 @@ public class DeleteCommand extends QueryCommand {
     }
 
 
+    @Override
+    protected void reuseQueryPlan(StorageManager storageManager,
+                                  PlanNode cachedPlan) throws IOException {
+        // The tuple processor needs the table being modified, so open it
+        // just as prepareQueryPlan() would.
+        TableManager tableManager = storageManager.getTableManager();
+        tableInfo = tableManager.openTable(tableName);
+
+        super.reuseQueryPlan(storageManager, cachedPlan);
+    }
+
+
     @Override
     protected TupleProcessor getTupleProcessor(EventDispatcher eventDispatcher) {
         return new TupleRemover(eventDispatcher, tableInfo);
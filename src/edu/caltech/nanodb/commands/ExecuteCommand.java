@@ -0,0 +1,114 @@
+package edu.caltech.nanodb.commands;
+
+
+import java.util.List;
+
+import edu.caltech.nanodb.client.SessionState;
+import edu.caltech.nanodb.expressions.Expression;
+import edu.caltech.nanodb.expressions.ExpressionException;
+import edu.caltech.nanodb.queryeval.TupleProcessor;
+import edu.caltech.nanodb.server.NanoDBServer;
+
+
+/**
+ * This Command class represents the <tt>EXECUTE</tt> SQL command, which runs
+ * a statement prepared with the <tt>PREPARE</tt> command, binding the
+ * specified values to the statement's parameters.
+ *
+ * @see PrepareCommand
+ */
+public class ExecuteCommand extends Command {
+
+    /** The name of the prepared statement to execute. */
+    private String name;
+
+
+    /** The expressions giving the values of the statement's parameters. */
+    private List<Expression> arguments;
+
+
+    /**
+     * The tuple processor to hand the results of a prepared <tt>SELECT</tt>
+     * statement to, or <tt>null</tt> if the results should be printed.
+     */
+    private TupleProcessor tupleProcessor;
+
+
+    /**
+     * Constructs an execute command.
+     *
+     * @param name the name of the prepared statement to execute
+     * @param arguments the expressions giving the values of the statement's
+     *        parameters; these may not reference any columns
+     */
+    public ExecuteCommand(String name, List<Expression> arguments) {
+        super(Command.Type.UTILITY);
+
+        if (name == null)
+            throw new IllegalArgumentException("name cannot be null");
+
+        if (arguments == null)
+            throw new IllegalArgumentException("arguments cannot be null");
+
+        this.name = name;
+        this.arguments = arguments;
+    }
+
+
+    public void setTupleProcessor(TupleProcessor tupleProcessor) {
+        this.tupleProcessor = tupleProcessor;
+    }
+
+
+    @Override
+    public void execute(NanoDBServer server) throws ExecutionException {
+        SessionState state = SessionState.get();
+
+        PreparedStatement stmt = state.getPreparedStatement(name);
+        if (stmt == null) {
+            throw new ExecutionException(
+                "No prepared statement named \"" + name + "\".");
+        }
+
+        if (arguments.size() != stmt.getNumParameters()) {
+            throw new ExecutionException(String.format(
+                "Prepared statement \"%s\" takes %d parameter(s), but %d " +
+                "were given.", name, stmt.getNumParameters(), arguments.size()));
+        }
+
+        Object[] values = new Object[arguments.size()];
+        for (int i = 0; i < values.length; i++) {
+            Expression arg = arguments.get(i);
+            if (arg.hasSymbols()) {
+                throw new ExecutionException(
+                    "EXECUTE arguments cannot contain symbols!");
+            }
+
+            try {
+                values[i] = arg.evaluate();
+            }
+            catch (ExpressionException e) {
+                throw new ExecutionException(
+                    "Couldn't evaluate an EXECUTE argument.", e);
+            }
+        }
+
+        QueryCommand command = stmt.getCommand();
+        if (command instanceof SelectCommand)
+            ((SelectCommand) command).setTupleProcessor(tupleProcessor);
+
+        state.setParameterValues(values);
+        try {
+            command.execute(server);
+        }
+        finally {
+            state.setParameterValues(null);
+        }
+    }
+
+
+    @Override
+    public String toString() {
+        return "Execute[" + name + ", " + arguments + "]";
+    }
+}
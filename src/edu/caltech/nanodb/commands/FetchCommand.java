@@ -0,0 +1,94 @@
+package edu.caltech.nanodb.commands;
+
+
+import edu.caltech.nanodb.client.SessionState;
+import edu.caltech.nanodb.queryeval.EvalStats;
+import edu.caltech.nanodb.queryeval.PrettyTuplePrinter;
+import edu.caltech.nanodb.queryeval.TupleProcessor;
+import edu.caltech.nanodb.server.NanoDBServer;
+
+
+/**
+ * This Command class represents the <tt>FETCH</tt> SQL command, which
+ * retrieves the next tuples from a cursor declared with the
+ * <tt>DECLARE</tt> command.  Only the requested number of tuples are
+ * produced; the rest of the cursor's plan stays suspended until the next
+ * fetch.
+ *
+ * @see Cursor
+ * @see DeclareCursorCommand
+ */
+public class FetchCommand extends Command {
+
+    /** The name of the cursor to fetch from. */
+    private String name;
+
+
+    /**
+     * The maximum number of tuples to fetch, or {@link Long#MAX_VALUE} to
+     * fetch all of the remaining tuples.
+     */
+    private long count;
+
+
+    /**
+     * The tuple processor to hand the fetched tuples to, or <tt>null</tt>
+     * if they should be printed.
+     */
+    private TupleProcessor tupleProcessor;
+
+
+    /**
+     * Constructs a fetch command.
+     *
+     * @param name the name of the cursor to fetch from
+     * @param count the maximum number of tuples to fetch, or
+     *        {@link Long#MAX_VALUE} to fetch all of the remaining tuples
+     */
+    public FetchCommand(String name, long count) {
+        super(Command.Type.UTILITY);
+
+        if (name == null)
+            throw new IllegalArgumentException("name cannot be null");
+
+        if (count < 0)
+            throw new IllegalArgumentException("count cannot be negative");
+
+        this.name = name;
+        this.count = count;
+    }
+
+
+    public void setTupleProcessor(TupleProcessor tupleProcessor) {
+        this.tupleProcessor = tupleProcessor;
+    }
+
+
+    @Override
+    public void execute(NanoDBServer server) throws ExecutionException {
+        Cursor cursor = SessionState.get().getCursor(name);
+        if (cursor == null)
+            throw new ExecutionException("No cursor named \"" + name + "\".");
+
+        TupleProcessor processor = tupleProcessor;
+        if (processor == null)
+            processor = new PrettyTuplePrinter(out);
+
+        EvalStats stats;
+        try {
+            stats = cursor.fetch(processor, count);
+        }
+        catch (Exception e) {
+            throw new ExecutionException(e);
+        }
+
+        out.printf("Fetched %d rows.%n", stats.getRowsProduced());
+    }
+
+
+    @Override
+    public String toString() {
+        return "Fetch[" + name + ", " +
+            (count == Long.MAX_VALUE ? "ALL" : Long.toString(count)) + "]";
+    }
+}
@@ -2,12 +2,15 @@ package edu.caltech.nanodb.commands;
 
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
 import java.util.List;
 
 import edu.caltech.nanodb.expressions.Expression;
 import edu.caltech.nanodb.expressions.ExpressionException;
 import edu.caltech.nanodb.expressions.TupleLiteral;
 
+import edu.caltech.nanodb.plannodes.PlanNode;
 import edu.caltech.nanodb.queryeval.Planner;
 import edu.caltech.nanodb.queryeval.PlannerFactory;
 import edu.caltech.nanodb.queryeval.TupleProcessor;
@@ -21,21 +24,35 @@ import edu.caltech.nanodb.server.NanoDBServer;
 import edu.caltech.nanodb.storage.TableManager;
 import edu.caltech.nanodb.storage.TupleFile;
 import edu.caltech.nanodb.storage.StorageManager;
+import edu.caltech.nanodb.storage.columnfile.ColumnarTupleFile;
 
 
 /**
  * This command object represents a top-level <tt>INSERT</tt> command issued
  * against the database.  <tt>INSERT</tt> commands have two forms.  The first
- * form is <tt>INSERT ... VALUES</tt>, in which case a literal tuple-value is
- * specified and stored.  The second form is <tt>INSERT</tt> ... <tt>SELECT</tt>,
- * in which case a select-clause object is evaluated, and its results are stored
- * into the specified table.
+ * form is <tt>INSERT ... VALUES</tt>, in which case one or more literal
+ * tuple-values are specified and stored.  The second form is
+ * <tt>INSERT</tt> ... <tt>SELECT</tt>, in which case a select-clause object
+ * is evaluated, and its results are stored into the specified table.
+ * <p>
+ * In both forms, rows are inserted in batches:  the before-insert handlers
+ * check all of a batch's rows before any of them are stored, and the
+ * after-insert handlers run once all of them are stored, so that handlers
+ * such as the constraint enforcer can open tables and indexes once per
+ * batch rather than once per row.
  *
  * @see edu.caltech.nanodb.expressions.TupleLiteral
  * @see SelectClause
  */
 public class InsertCommand extends QueryCommand {
 
+    /**
+     * The maximum number of rows that <tt>INSERT</tt> ... <tt>SELECT</tt>
+     * collects before inserting them as a batch.
+     */
+    private static final int BATCH_SIZE = 1000;
+
+
     /**
      * An implementation of the tuple processor interface used by the
      * {@link InsertCommand} to insert tuples into a table, when the command is
@@ -53,6 +70,9 @@ public class InsertCommand extends QueryCommand {
          */
         EventDispatcher eventDispatcher;
 
+        /** The rows that have been produced but not inserted yet. */
+        private ArrayList<TupleLiteral> batch = new ArrayList<>();
+
         /**
          * Initialize the tuple-inserter object with the details it needs to
          * insert tuples into the specified table.
@@ -76,15 +96,32 @@ public class InsertCommand extends QueryCommand {
             // Ignore.
         }
 
-        /** This implementation simply inserts each tuple it is handed. */
+        /**
+         * This implementation collects a copy of each tuple it is handed,
+         * and inserts the tuples once a full batch has been collected.
+         */
         public void process(Tuple tuple) throws IOException {
-            eventDispatcher.fireBeforeRowInserted(tableInfo, tuple);
-            Tuple newTuple = tupleFile.addTuple(tuple);
-            eventDispatcher.fireAfterRowInserted(tableInfo, newTuple);
+            batch.add(new TupleLiteral(tuple));
+            if (batch.size() >= BATCH_SIZE)
+                insertBatch();
         }
 
+        /** Inserts the rows of the last, partial batch. */
         public void finish() {
-            // Not used
+            try {
+                insertBatch();
+            }
+            catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private void insertBatch() throws IOException {
+            if (batch.isEmpty())
+                return;
+
+            insertTuples(eventDispatcher, tableInfo, batch);
+            batch.clear();
         }
     }
 
@@ -103,10 +140,10 @@ public class InsertCommand extends QueryCommand {
 
     /**
      * When the insert command is of the form <code>INSERT ... VALUES</code>,
-     * the literal values are stored in this variable.  Otherwise this will be
-     * set to <code>null</code>.
+     * the literal values of each row are stored in this variable.  Otherwise
+     * this will be set to <code>null</code>.
      */
-    private List<Expression> values;
+    private List<List<Expression>> rows;
 
 
     /**
@@ -122,22 +159,25 @@ public class InsertCommand extends QueryCommand {
 
     /**
      * Constructs a new insert command for <tt>INSERT</tt> ... <tt>VALUES</tt>
-     * statements.
+     * statements, which may specify one or more rows of values.
      */
     public InsertCommand(String tableName, List<String> colNames,
-        List<Expression> values) {
+        List<List<Expression>> rows) {
 
         super(QueryCommand.Type.INSERT);
 
         if (tableName == null)
             throw new NullPointerException("tableName cannot be null");
 
-        if (values == null)
-            throw new NullPointerException("values cannot be null");
+        if (rows == null)
+            throw new NullPointerException("rows cannot be null");
+
+        if (rows.isEmpty())
+            throw new IllegalArgumentException("rows cannot be empty");
 
         this.tableName = tableName;
         this.colNames = colNames;
-        this.values = values;
+        this.rows = rows;
     }
 
 
@@ -164,10 +204,10 @@ public class InsertCommand extends QueryCommand {
 
     @Override
     public void execute(NanoDBServer server) throws ExecutionException {
-        if (values != null) {
-            // Inserting a single row.
+        if (rows != null) {
+            // Inserting literal rows.
             if (!explain)
-                insertSingleRow(server);
+                insertRows(server);
             else
                 out.println("Nothing to explain about INSERT ... VALUES");
         }
@@ -178,9 +218,11 @@ public class InsertCommand extends QueryCommand {
     }
 
 
-    /** This method is used when inserting only a single row of data. */
-    private void insertSingleRow(NanoDBServer server)
-        throws ExecutionException {
+    /**
+     * This method is used when inserting rows of literal values.  All of the
+     * rows are inserted as one batch.
+     */
+    private void insertRows(NanoDBServer server) throws ExecutionException {
 
         StorageManager storageManager = server.getStorageManager();
         TableManager tableManager = storageManager.getTableManager();
@@ -192,31 +234,30 @@ public class InsertCommand extends QueryCommand {
                 tableName + "\".", ioe);
         }
 
-        // Build up a tuple-literal from the values we have.
-        TupleLiteral tuple = new TupleLiteral();
-        for (Expression expr : values) {
-            if (expr.hasSymbols()) {
-                throw new ExecutionException(
-                    "INSERT values cannot contain symbols!");
-            }
-
-            try {
-                tuple.addValue(expr.evaluate());
-            }
-            catch (ExpressionException e) {
-                // This should be rare, but is still possible -- users
-                // can type anything...
-                throw new ExecutionException("Couldn't evaluate an INSERT value.", e);
+        // Build up a tuple-literal from the values of each row.
+        ArrayList<TupleLiteral> tuples = new ArrayList<>(rows.size());
+        for (List<Expression> values : rows) {
+            TupleLiteral tuple = new TupleLiteral();
+            for (Expression expr : values) {
+                if (expr.hasSymbols()) {
+                    throw new ExecutionException(
+                        "INSERT values cannot contain symbols!");
+                }
+
+                try {
+                    tuple.addValue(expr.evaluate());
+                }
+                catch (ExpressionException e) {
+                    // This should be rare, but is still possible -- users
+                    // can type anything...
+                    throw new ExecutionException("Couldn't evaluate an INSERT value.", e);
+                }
             }
+            tuples.add(tuple);
         }
 
-        EventDispatcher eventDispatcher = server.getEventDispatcher();
         try {
-            TupleFile tupleFile = tableInfo.getTupleFile();
-
-            eventDispatcher.fireBeforeRowInserted(tableInfo, tuple);
-            Tuple newTuple = tupleFile.addTuple(tuple);
-            eventDispatcher.fireAfterRowInserted(tableInfo, newTuple);
+            insertTuples(server.getEventDispatcher(), tableInfo, tuples);
         }
         catch (IOException e) {
             throw new ExecutionException("Couldn't insert row into table.", e);
@@ -224,6 +265,43 @@ public class InsertCommand extends QueryCommand {
     }
 
 
+    /**
+     * Inserts a batch of tuples into a table.  The before-insert handlers
+     * are fired for all of the tuples before any of them are stored, and
+     * the after-insert handlers once all of them are stored.  The stored
+     * tuples are unpinned once the handlers are done with them.
+     *
+     * @param eventDispatcher the event-dispatcher to report the inserts to
+     * @param tableInfo the table to insert the tuples into
+     * @param tuples the tuples to insert
+     *
+     * @throws IOException if an IO error occurs while storing the tuples
+     */
+    private static void insertTuples(EventDispatcher eventDispatcher,
+        TableInfo tableInfo, List<? extends Tuple> tuples) throws IOException {
+
+        eventDispatcher.fireBeforeRowsInserted(tableInfo, tuples);
+
+        TupleFile tupleFile = tableInfo.getTupleFile();
+        List<Tuple> newTuples;
+        if (tupleFile instanceof ColumnarTupleFile) {
+            // Columnar files append each column's values for the whole
+            // batch at once.
+            newTuples = ((ColumnarTupleFile) tupleFile).addTuples(tuples);
+        }
+        else {
+            newTuples = new ArrayList<>(tuples.size());
+            for (Tuple tuple : tuples)
+                newTuples.add(tupleFile.addTuple(tuple));
+        }
+
+        eventDispatcher.fireAfterRowsInserted(tableInfo, newTuples);
+
+        for (Tuple newTuple : newTuples)
+            newTuple.unpin();
+    }
+
+
     @Override
     protected void prepareQueryPlan(StorageManager storageManager)
         throws IOException, SchemaNameException {
@@ -241,6 +319,18 @@ public class InsertCommand extends QueryCommand {
     }
 
 
+    @Override
+    protected void reuseQueryPlan(StorageManager storageManager,
+                                  PlanNode cachedPlan) throws IOException {
+        // The tuple processor needs the table being modified, so open it
+        // just as prepareQueryPlan() would.
+        TableManager tableManager = storageManager.getTableManager();
+        tableInfo = tableManager.openTable(tableName);
+
+        super.reuseQueryPlan(storageManager, cachedPlan);
+    }
+
+
     @Override
     protected TupleProcessor getTupleProcessor(EventDispatcher eventDispatcher) {
         return new TupleInserter(eventDispatcher, tableInfo);
@@ -267,18 +357,27 @@ public class InsertCommand extends QueryCommand {
             sb.append("), ");
         }
 
-        if (values != null) {
-            sb.append("values=(");
-            boolean first = true;
-            for (Expression e : values) {
-                if (first)
-                    first = false;
+        if (rows != null) {
+            sb.append("values=");
+            boolean firstRow = true;
+            for (List<Expression> values : rows) {
+                if (firstRow)
+                    firstRow = false;
                 else
                     sb.append(',');
 
-                sb.append(e);
+                sb.append('(');
+                boolean first = true;
+                for (Expression e : values) {
+                    if (first)
+                        first = false;
+                    else
+                        sb.append(',');
+
+                    sb.append(e);
+                }
+                sb.append(')');
             }
-            sb.append(')');
         }
         else {
             sb.append("select=");
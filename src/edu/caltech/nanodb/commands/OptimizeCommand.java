@@ -1,9 +1,15 @@
 package edu.caltech.nanodb.commands;
 
 
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.LinkedHashSet;
 
+import edu.caltech.nanodb.client.SessionState;
+import edu.caltech.nanodb.relations.TableInfo;
 import edu.caltech.nanodb.server.NanoDBServer;
+import edu.caltech.nanodb.storage.StorageManager;
+import edu.caltech.nanodb.storage.TableManager;
 
 
 /**
@@ -58,7 +64,45 @@ public class OptimizeCommand extends Command {
 
     @Override
     public void execute(NanoDBServer server) throws ExecutionException {
-        throw new ExecutionException("Not yet implemented!");
+
+        // Optimizing a table shrinks its files when the enclosing transaction
+        // commits, so later commands in the same transaction must not be
+        // able to reuse the pages being dropped.
+        if (SessionState.get().getTxnState().getUserStartedTxn()) {
+            throw new ExecutionException(
+                "OPTIMIZE cannot be run inside a transaction");
+        }
+
+        // Make sure that all the tables are valid.
+
+        StorageManager storageManager = server.getStorageManager();
+        TableManager tableManager = storageManager.getTableManager();
+
+        ArrayList<TableInfo> tableInfos = new ArrayList<>();
+
+        for (String table : tableNames) {
+            try {
+                TableInfo tableInfo = tableManager.openTable(table);
+                tableInfos.add(tableInfo);
+            }
+            catch (IOException ioe) {
+                throw new ExecutionException("Could not open table " + table, ioe);
+            }
+        }
+
+        // Now, optimize each table.
+
+        for (TableInfo tableInfo : tableInfos) {
+            try {
+                out.println("Optimizing table " + tableInfo.getTableName());
+                tableManager.optimizeTable(tableInfo);
+            }
+            catch (IOException ioe) {
+                throw new ExecutionException("Could not optimize table " +
+                    tableInfo.getTableName(), ioe);
+            }
+        }
+        out.println("Optimization complete.");
     }
 
 
@@ -0,0 +1,74 @@
+package edu.caltech.nanodb.commands;
+
+
+import edu.caltech.nanodb.client.SessionState;
+import edu.caltech.nanodb.server.NanoDBServer;
+
+
+/**
+ * This Command class represents the <tt>PREPARE</tt> SQL command, which
+ * records a <tt>SELECT</tt>, <tt>INSERT</tt>, <tt>UPDATE</tt> or
+ * <tt>DELETE</tt> statement under a name, so that it can be run repeatedly
+ * with the <tt>EXECUTE</tt> command.  The statement may contain parameters,
+ * written as <tt>?</tt> or <tt>$<em>n</em></tt>, whose values are given when
+ * the statement is executed.
+ *
+ * @see ExecuteCommand
+ */
+public class PrepareCommand extends Command {
+
+    /** The name to record the statement under. */
+    private String name;
+
+
+    /** The statement being prepared. */
+    private QueryCommand command;
+
+
+    /** The number of parameters that the statement takes. */
+    private int numParameters;
+
+
+    /**
+     * Constructs a prepare command.
+     *
+     * @param name the name to record the statement under
+     * @param command the statement being prepared
+     * @param numParameters the number of parameters that the statement takes
+     */
+    public PrepareCommand(String name, QueryCommand command, int numParameters) {
+        super(Command.Type.UTILITY);
+
+        if (name == null)
+            throw new IllegalArgumentException("name cannot be null");
+
+        if (command == null)
+            throw new IllegalArgumentException("command cannot be null");
+
+        this.name = name;
+        this.command = command;
+        this.numParameters = numParameters;
+    }
+
+
+    @Override
+    public void execute(NanoDBServer server) throws ExecutionException {
+        SessionState state = SessionState.get();
+        if (state.getPreparedStatement(name) != null) {
+            throw new ExecutionException(
+                "Prepared statement \"" + name + "\" already exists.");
+        }
+
+        state.addPreparedStatement(
+            new PreparedStatement(name, command, numParameters));
+
+        out.printf("Prepared statement \"%s\" with %d parameter(s).%n",
+            name, numParameters);
+    }
+
+
+    @Override
+    public String toString() {
+        return "Prepare[" + name + ", " + command + "]";
+    }
+}
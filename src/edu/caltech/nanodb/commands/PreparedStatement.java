@@ -0,0 +1,64 @@
+package edu.caltech.nanodb.commands;
+
+
+/**
+ * This class records a statement prepared with the <tt>PREPARE</tt> command,
+ * so that it can be run with <tt>EXECUTE</tt> without being parsed again.
+ * Prepared statements belong to the session that created them.  The plan of
+ * the statement is kept in the server's plan cache under the statement's
+ * normalized SQL text, so it is also shared with other sessions that prepare
+ * or issue the same statement.
+ *
+ * @see PrepareCommand
+ * @see ExecuteCommand
+ */
+public class PreparedStatement {
+
+    /** The name of the prepared statement. */
+    private String name;
+
+
+    /** The statement to run when the prepared statement is executed. */
+    private QueryCommand command;
+
+
+    /** The number of parameters that the statement takes. */
+    private int numParameters;
+
+
+    /**
+     * Initializes a prepared statement.
+     *
+     * @param name the name of the prepared statement
+     * @param command the statement to run when the prepared statement is
+     *        executed
+     * @param numParameters the number of parameters that the statement takes
+     */
+    public PreparedStatement(String name, QueryCommand command,
+                             int numParameters) {
+        if (name == null)
+            throw new IllegalArgumentException("name cannot be null");
+
+        if (command == null)
+            throw new IllegalArgumentException("command cannot be null");
+
+        this.name = name;
+        this.command = command;
+        this.numParameters = numParameters;
+    }
+
+
+    public String getName() {
+        return name;
+    }
+
+
+    public QueryCommand getCommand() {
+        return command;
+    }
+
+
+    public int getNumParameters() {
+        return numParameters;
+    }
+}
@@ -8,6 +8,7 @@ import org.apache.log4j.Logger;
 
 import edu.caltech.nanodb.plannodes.PlanNode;
 import edu.caltech.nanodb.queryeval.EvalStats;
+import edu.caltech.nanodb.queryeval.PlanCache;
 import edu.caltech.nanodb.queryeval.QueryEvaluator;
 import edu.caltech.nanodb.queryeval.TupleProcessor;
 import edu.caltech.nanodb.relations.SchemaNameException;
@@ -64,6 +65,14 @@ public abstract class QueryCommand extends Command {
     protected boolean explain = false;
 
 
+    /**
+     * The normalized SQL text of this command, which is used as the key for
+     * caching its execution plan in the server's {@link PlanCache}.  If this
+     * is <tt>null</tt> then the command's plan is not cached.
+     */
+    private String planCacheKey;
+
+
     /**
      * Initializes a new query-command object.
      *
@@ -80,12 +89,51 @@ public abstract class QueryCommand extends Command {
     }
 
 
+    /**
+     * Sets the normalized SQL text of this command, which is used as the key
+     * for caching its execution plan.
+     *
+     * @param planCacheKey the normalized SQL text of this command, or
+     *        <tt>null</tt> if the command's plan should not be cached
+     */
+    public void setPlanCacheKey(String planCacheKey) {
+        this.planCacheKey = planCacheKey;
+    }
+
+
+    /**
+     * Returns the normalized SQL text of this command, which is used as the
+     * key for caching its execution plan.
+     *
+     * @return the normalized SQL text of this command, or <tt>null</tt> if
+     *         the command's plan is not cached
+     */
+    public String getPlanCacheKey() {
+        return planCacheKey;
+    }
+
+
     @Override
     public void execute(NanoDBServer server)
         throws ExecutionException {
 
+        PlanCache planCache = server.getPlanCache();
+        PlanCache.CachedPlan cached = null;
+        long planVersion = 0;
+
         try {
-            prepareQueryPlan(server.getStorageManager());
+            if (planCache != null && planCacheKey != null)
+                cached = planCache.checkOut(planCacheKey);
+
+            if (cached != null) {
+                reuseQueryPlan(server.getStorageManager(), cached.getPlan());
+            }
+            else {
+                if (planCache != null)
+                    planVersion = planCache.getVersion();
+
+                prepareQueryPlan(server.getStorageManager());
+            }
 
             if (!explain) {
                 // Debug:  print out the plan and its costing details.
@@ -163,6 +211,16 @@ public abstract class QueryCommand extends Command {
         catch (Exception e) {
             throw new ExecutionException(e);
         }
+        finally {
+            // Return the plan to the cache so that later executions of the
+            // same statement don't have to plan it again.
+            if (planCache != null && planCacheKey != null && plan != null) {
+                if (cached != null)
+                    planCache.checkIn(planCacheKey, cached);
+                else
+                    planCache.checkIn(planCacheKey, plan, planVersion);
+            }
+        }
     }
 
 
@@ -185,6 +243,24 @@ public abstract class QueryCommand extends Command {
         throws IOException, SchemaNameException;
 
 
+    /**
+     * Reuses an execution plan that was previously prepared for this command,
+     * or for another command with the same SQL text, and retrieved from the
+     * server's plan cache.  Subclasses that need more state than the plan
+     * itself, such as the table that the command modifies, should override
+     * this method to set up that state as well.
+     *
+     * @param storageManager the storage manager to use for opening tables
+     * @param cachedPlan the previously prepared plan
+     *
+     * @throws IOException if an IO error occurs while opening a table
+     */
+    protected void reuseQueryPlan(StorageManager storageManager,
+                                  PlanNode cachedPlan) throws IOException {
+        plan = cachedPlan;
+    }
+
+
     /**
      * Creates a tuple-processor responsible for dealing with the tuples that
      * are generated by the query command.  Depending on the operation being
@@ -6,6 +6,8 @@ import java.io.IOException;
 import org.apache.log4j.Logger;
 
 import edu.caltech.nanodb.client.SessionState;
+import edu.caltech.nanodb.plannodes.Parallelizer;
+import edu.caltech.nanodb.plannodes.PlanNode;
 import edu.caltech.nanodb.queryast.SelectClause;
 import edu.caltech.nanodb.queryeval.Planner;
 import edu.caltech.nanodb.queryeval.PlannerFactory;
@@ -70,6 +72,39 @@ public class SelectCommand extends QueryCommand {
     protected void prepareQueryPlan(StorageManager storageManager)
         throws IOException, SchemaNameException {
 
+        plan = makePlan(storageManager);
+
+        // Run scans over large tables in parallel, if possible.
+        plan = Parallelizer.parallelize(plan);
+    }
+
+
+    /**
+     * Prepares a plan for a cursor over the results of this statement.  The
+     * plan is not parallelized, since the workers of a parallel plan would
+     * keep running while the cursor is suspended between fetches, and it is
+     * not taken from the plan cache, since the cursor keeps it open.
+     *
+     * @param storageManager the storage manager to use for fetching table
+     *        schemas, statistics, and other details relevant for planning
+     *
+     * @return a plan for producing the results of this statement
+     *
+     * @throws IOException if an IO error occurs during planning
+     * @throws SchemaNameException if the statement references unknown
+     *         tables or columns
+     */
+    PlanNode prepareCursorPlan(StorageManager storageManager)
+        throws IOException, SchemaNameException {
+
+        return makePlan(storageManager);
+    }
+
+
+    /** Analyzes the statement, and creates a plan for executing it. */
+    private PlanNode makePlan(StorageManager storageManager)
+        throws IOException, SchemaNameException {
+
         TableManager tableManager = storageManager.getTableManager();
         Schema resultSchema = selClause.computeSchema(tableManager, null);
         logger.debug("Prepared SelectClause:\n" + selClause);
@@ -77,7 +112,7 @@ public class SelectCommand extends QueryCommand {
 
         // Create a plan for executing the SQL query.
         Planner planner = PlannerFactory.getPlanner(storageManager);
-        plan = planner.makePlan(selClause, null);
+        return planner.makePlan(selClause, null);
     }
 
 
@@ -13,6 +13,12 @@ public class ShowSystemStatsCommand extends Command {
     public static final String STORAGE_SYSTEM = "storage";
 
 
+    public static final String PLAN_CACHE_SYSTEM = "plancache";
+
+
+    public static final String PARALLEL_SYSTEM = "parallel";
+
+
     /** The subsystem that we are displaying statistics for. */
     private String systemName;
 
@@ -24,7 +30,14 @@ public class ShowSystemStatsCommand extends Command {
         { STORAGE_SYSTEM, PerformanceCounters.STORAGE_PAGES_READ },
         { STORAGE_SYSTEM, PerformanceCounters.STORAGE_PAGES_WRITTEN },
         { STORAGE_SYSTEM, PerformanceCounters.STORAGE_FILE_CHANGES },
-        { STORAGE_SYSTEM, PerformanceCounters.STORAGE_FILE_DISTANCE_TRAVELED }
+        { STORAGE_SYSTEM, PerformanceCounters.STORAGE_FILE_DISTANCE_TRAVELED },
+        { STORAGE_SYSTEM, PerformanceCounters.STORAGE_COMPRESSION_BYTES_IN },
+        { STORAGE_SYSTEM, PerformanceCounters.STORAGE_COMPRESSION_BYTES_OUT },
+        { STORAGE_SYSTEM, PerformanceCounters.STORAGE_COMPRESSED_FRAME_HITS },
+        { PLAN_CACHE_SYSTEM, PerformanceCounters.PLAN_CACHE_HITS },
+        { PLAN_CACHE_SYSTEM, PerformanceCounters.PLAN_CACHE_MISSES },
+        { PLAN_CACHE_SYSTEM, PerformanceCounters.PLAN_CACHE_INVALIDATIONS },
+        { PARALLEL_SYSTEM, PerformanceCounters.PARALLEL_WORKERS }
     };
 
 
@@ -37,7 +50,9 @@ public class ShowSystemStatsCommand extends Command {
         this.systemName = systemName.trim().toLowerCase();
 
         // Make sure the actual system-name is recognized!
-        if (!this.systemName.equals(STORAGE_SYSTEM)) {
+        if (!this.systemName.equals(STORAGE_SYSTEM) &&
+            !this.systemName.equals(PLAN_CACHE_SYSTEM) &&
+            !this.systemName.equals(PARALLEL_SYSTEM)) {
             throw new IllegalArgumentException(
                 "Unrecognized system-stats argument:  " + this.systemName);
         }
@@ -53,6 +68,19 @@ public class ShowSystemStatsCommand extends Command {
                 out.printf("%s = %d%n", name, value);
             }
         }
+
+        // The compression ratio of compressed files' pages is derived from
+        // two of the counters.
+        if (systemName.equals(STORAGE_SYSTEM)) {
+            long bytesOut = PerformanceCounters.get(
+                PerformanceCounters.STORAGE_COMPRESSION_BYTES_OUT);
+            if (bytesOut > 0) {
+                long bytesIn = PerformanceCounters.get(
+                    PerformanceCounters.STORAGE_COMPRESSION_BYTES_IN);
+                out.printf("storage.compressionRatio = %.2f%n",
+                    (double) bytesIn / bytesOut);
+            }
+        }
     }
 }
 
@@ -41,6 +41,17 @@ public class ShowTableStatsCommand extends Command {
             out.printf("\t%d tuples, %d data pages, avg tuple size is %.1f bytes%n",
                 stats.numTuples, stats.numDataPages, stats.avgTupleSize);
 
+            if (stats.hasTreeStats()) {
+                out.printf("\tB+ tree height is %d, %d leaf pages, " +
+                    "avg leaf fill is %.1f%%%n", stats.treeHeight,
+                    stats.numLeafPages, stats.avgLeafFill * 100);
+            }
+
+            if (stats.numModifications > 0) {
+                out.printf("\t%d rows modified since last analysis%n",
+                    stats.numModifications);
+            }
+
             int numCols = schema.numColumns();
             for (int i = 0; i < numCols; i++) {
                 ColumnName colName = schema.getColumnInfo(i).getColumnName();
@@ -11,6 +11,7 @@ import edu.caltech.nanodb.expressions.Environment;
 import edu.caltech.nanodb.expressions.Expression;
 
 import edu.caltech.nanodb.expressions.TupleLiteral;
+import edu.caltech.nanodb.plannodes.PlanNode;
 import edu.caltech.nanodb.queryeval.Planner;
 import edu.caltech.nanodb.queryeval.PlannerFactory;
 import edu.caltech.nanodb.queryeval.TupleProcessor;
@@ -97,6 +98,15 @@ public class UpdateCommand extends QueryCommand {
          */
         public void setSchema(Schema schema) {
             this.schema = schema;
+
+            for (UpdateValue value : values)
+                value.getExpression().bindColumns(schema);
+        }
+
+        /** Tuples must be updated in the table file, not in copies. */
+        @Override
+        public boolean supportsBatches() {
+            return false;
         }
 
         /**
@@ -208,6 +218,18 @@ public class UpdateCommand extends QueryCommand {
     }
 
 
+    @Override
+    protected void reuseQueryPlan(StorageManager storageManager,
+                                  PlanNode cachedPlan) throws IOException {
+        // The tuple processor needs the table being modified, so open it
+        // just as prepareQueryPlan() would.
+        TableManager tableManager = storageManager.getTableManager();
+        tableInfo = tableManager.openTable(tableName);
+
+        super.reuseQueryPlan(storageManager, cachedPlan);
+    }
+
+
     @Override
     protected TupleProcessor getTupleProcessor(EventDispatcher eventDispatcher) {
         return new TupleUpdater(eventDispatcher, tableInfo, values);
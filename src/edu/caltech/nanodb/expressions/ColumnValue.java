@@ -17,10 +17,41 @@ import edu.caltech.nanodb.relations.Tuple;
  */
 public class ColumnValue extends Expression {
 
+    /**
+     * This class records the position of a column's value in the tuples of
+     * an environment, as computed by {@link #bind}.  Bindings are immutable,
+     * so a binding can be replaced while other threads are using it.
+     */
+    static class ColumnBinding {
+        /** The schema of the tuple that holds the column's value. */
+        final Schema schema;
+
+        /** The index of the tuple in the environment. */
+        final int slot;
+
+        /** The index of the column in the tuple. */
+        final int index;
+
+        ColumnBinding(Schema schema, int slot, int index) {
+            this.schema = schema;
+            this.slot = slot;
+            this.index = index;
+        }
+    }
+
+
     /** The name of the column. */
     private ColumnName columnName;
 
 
+    /**
+     * The position of this column's value in the environment's tuples, or
+     * <tt>null</tt> if the column hasn't been bound and must be looked up by
+     * name.
+     */
+    private ColumnBinding binding;
+
+
     /**
      * Initialize a new column-value expression object with the specified
      * column-name.
@@ -59,6 +90,45 @@ public class ColumnValue extends Expression {
      */
     public void setColumnName(ColumnName columnName) {
         this.columnName = columnName;
+        binding = null;
+    }
+
+
+    /**
+     * Binds this column reference to the position of its value in the
+     * tuples that it will be evaluated against.  If the column appears
+     * exactly once in the specified schemas, evaluation will simply read the
+     * value at that position, as long as the environment holds a tuple with
+     * the same schema object at the same position.  Otherwise, the column is
+     * left unbound and will be looked up by name, so that references to
+     * enclosing queries and ambiguous names behave as before.
+     *
+     * @param schemas the schemas of the tuples that the column will be
+     *        evaluated against, in environment order
+     */
+    public void bind(Schema... schemas) {
+        ColumnBinding newBinding = null;
+
+        if (!columnName.isColumnWildcard()) {
+            for (int slot = 0; slot < schemas.length; slot++) {
+                SortedMap<Integer, ColumnInfo> cols =
+                    schemas[slot].findColumns(columnName);
+
+                if (cols.isEmpty())
+                    continue;
+
+                if (newBinding != null || cols.size() > 1) {
+                    // The name is ambiguous; evaluation will report it.
+                    newBinding = null;
+                    break;
+                }
+
+                newBinding = new ColumnBinding(schemas[slot], slot,
+                    cols.firstKey());
+            }
+        }
+
+        binding = newBinding;
     }
 
 
@@ -94,10 +164,44 @@ public class ColumnValue extends Expression {
             return tuples.get(0);
         }
 
+        ColumnBinding b = binding;
+        if (b != null && env.hasSchemaAt(b.slot, b.schema))
+            return env.getColumnValue(b.slot, b.index);
+
         return env.getColumnValue(columnName);
     }
 
 
+    /**
+     * Returns the position this column was bound to by {@link #bind}, or
+     * <tt>null</tt> if the column isn't bound.
+     *
+     * @return the column's binding, or <tt>null</tt>
+     */
+    ColumnBinding getBinding() {
+        return binding;
+    }
+
+
+    /**
+     * Returns the index of this column in tuples with the specified schema,
+     * if the column is bound to the first tuple of an environment with that
+     * schema.  Plan nodes can use this to read the column's values directly.
+     *
+     * @param schema the schema of the tuples
+     *
+     * @return the index of the column in the tuples, or -1 if the column
+     *         isn't bound to the first tuple with that schema
+     */
+    public int getBoundIndex(Schema schema) {
+        ColumnBinding b = binding;
+        if (b != null && b.slot == 0 && b.schema == schema)
+            return b.index;
+
+        return -1;
+    }
+
+
     @Override
     public Expression traverse(ExpressionProcessor p) {
         // This is a leaf, so we just enter and leave the node.
@@ -129,6 +129,36 @@ public class Environment {
     }
 
 
+    /**
+     * Returns true if the tuple at the specified position in this environment
+     * has exactly the specified schema object.  This is used to check that a
+     * bound column reference can read its value by position.
+     *
+     * @param slot the position of the tuple in this environment
+     * @param schema the expected schema of the tuple
+     *
+     * @return true if the tuple at the position has the specified schema
+     */
+    public boolean hasSchemaAt(int slot, Schema schema) {
+        return slot < currentSchemas.size() && currentSchemas.get(slot) == schema;
+    }
+
+
+    /**
+     * Returns the value of a column in one of the current tuples, given the
+     * position of the tuple and of the column.  The caller is expected to
+     * have verified the tuple's schema with {@link #hasSchemaAt}.
+     *
+     * @param slot the position of the tuple in this environment
+     * @param index the index of the column in the tuple
+     *
+     * @return the value of the column
+     */
+    public Object getColumnValue(int slot, int index) {
+        return currentTuples.get(slot).getColumnValue(index);
+    }
+
+
     /**
      * Get the actual value at the specified column.
      *
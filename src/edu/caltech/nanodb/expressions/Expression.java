@@ -67,6 +67,31 @@ public abstract class Expression implements Cloneable {
     }
 
 
+    /**
+     * This processor binds every column reference in an expression to the
+     * position of its value in the tuples that the expression will be
+     * evaluated against.
+     */
+    private static class ColumnBinder implements ExpressionProcessor {
+
+        private Schema[] schemas;
+
+        public ColumnBinder(Schema[] schemas) {
+            this.schemas = schemas;
+        }
+
+        public void enter(Expression e) {
+            if (e instanceof ColumnValue)
+                ((ColumnValue) e).bind(schemas);
+        }
+
+        public Expression leave(Expression e) {
+            // This function never changes the node that is traversed.
+            return e;
+        }
+    }
+
+
     /**
      * Returns a {@link ColumnInfo} object describing the type (and possibly
      * the name) of the expression's result.
@@ -196,6 +221,28 @@ public abstract class Expression implements Cloneable {
     }
 
 
+    /**
+     * Binds the column references in this expression to the positions of
+     * their values in the tuples the expression will be evaluated against,
+     * so that evaluation doesn't have to look up each column by name.  The
+     * schemas must be given in the same order that the tuples will be added
+     * to the {@link Environment}.  Plan nodes call this method from their
+     * {@code prepare()} methods, once the schemas of their inputs are known.
+     * <p>
+     * Column references that don't appear in the schemas, such as references
+     * to an enclosing query from a correlated subquery, are left unbound and
+     * are still resolved by name during evaluation.
+     *
+     * @param schemas the schemas of the tuples that the expression will be
+     *        evaluated against, in environment order
+     *
+     * @see ColumnValue#bind
+     */
+    public final void bindColumns(Schema... schemas) {
+        traverse(new ColumnBinder(schemas));
+    }
+
+
     /**
      * Returns an <tt>Expression</tt> reference to a (possibly) simplified
      * version of this expression.  If it's not possible to simplify the
@@ -0,0 +1,643 @@
+package edu.caltech.nanodb.expressions;
+
+
+import java.util.function.IntBinaryOperator;
+import java.util.function.IntPredicate;
+import java.util.function.LongBinaryOperator;
+import java.util.function.Predicate;
+
+import org.apache.log4j.Logger;
+
+import edu.caltech.nanodb.relations.Schema;
+import edu.caltech.nanodb.relations.TupleBatch;
+import edu.caltech.nanodb.server.properties.PropertyHandler;
+import edu.caltech.nanodb.server.properties.ReadOnlyPropertyException;
+import edu.caltech.nanodb.server.properties.UnrecognizedPropertyException;
+
+
+/**
+ * This class compiles expression trees into trees of small, specialized
+ * Java closures, so that plan nodes can evaluate their predicates and
+ * projections without walking the expression tree for every row.  Each
+ * closure is chosen for the specific operator and, where possible, for the
+ * specific operand types:  comparisons and arithmetic between two
+ * <tt>Integer</tt>s, <tt>Long</tt>s, <tt>Double</tt>s or <tt>String</tt>s are
+ * computed on primitive values without going through
+ * {@link TypeConverter}, and literal operands are unboxed once, when the
+ * expression is compiled.  Column references use the binding computed by
+ * {@link Expression#bindColumns}, captured at compile time.
+ * <p>
+ * Any operand whose runtime type doesn't match a specialized case is handled
+ * exactly as the interpreter would handle it, and expression types that
+ * the compiler doesn't recognize (subqueries, function calls, parameters,
+ * and so forth) are simply evaluated with {@link Expression#evaluate}.  The
+ * compiled code therefore always produces the same results as the
+ * interpreter.
+ * <p>
+ * Because the closures are small and monomorphic, the JIT compiler can
+ * inline them into the plan node's loop.  Plan nodes compile their
+ * expressions once per prepared plan and keep the results, so plans reused
+ * from the plan cache also reuse their compiled expressions.  Compilation
+ * can be disabled with the {@link #PROP_COMPILE_EXPRESSIONS} property, in
+ * which case the returned closures simply call the interpreter.
+ */
+public class ExpressionCompiler {
+
+    /** A logging object for reporting anything interesting that happens. */
+    private static Logger logger = Logger.getLogger(ExpressionCompiler.class);
+
+
+    /**
+     * This property specifies whether plan nodes compile their expressions.
+     * When it is <tt>false</tt>, expressions are always interpreted.
+     */
+    public static final String PROP_COMPILE_EXPRESSIONS =
+        "nanodb.compileExpressions";
+
+
+    /** An expression compiled into a closure that produces a value. */
+    public interface CompiledExpression {
+        /**
+         * Evaluates the compiled expression.
+         *
+         * @param env the environment to evaluate the expression against
+         *
+         * @return the value of the expression
+         */
+        Object evaluate(Environment env);
+    }
+
+
+    /** An expression compiled into a closure that tests a condition. */
+    public interface CompiledPredicate {
+        /**
+         * Evaluates the compiled predicate.  As with
+         * {@link Expression#evaluatePredicate}, a <tt>NULL</tt> result is
+         * reported as <tt>false</tt>.
+         *
+         * @param env the environment to evaluate the predicate against
+         *
+         * @return the value of the predicate
+         */
+        boolean evaluate(Environment env);
+    }
+
+
+    /** A predicate compiled to filter batches of tuples. */
+    public interface CompiledBatchPredicate {
+        /**
+         * Removes the rows that don't satisfy the predicate from a batch,
+         * by compacting the batch's selection vector.
+         *
+         * @param batch the batch to filter
+         *
+         * @param env the environment to evaluate the predicate in.  Its
+         *        current tuples are replaced by a view of the batch's rows.
+         */
+        void filter(TupleBatch batch, Environment env);
+    }
+
+
+    public static class CompilerPropertyHandler implements PropertyHandler {
+
+        @Override
+        public Object getPropertyValue(String propertyName)
+                throws UnrecognizedPropertyException {
+
+            if (PROP_COMPILE_EXPRESSIONS.equals(propertyName)) {
+                return isEnabled();
+            }
+            else {
+                throw new UnrecognizedPropertyException("No property named " +
+                        propertyName);
+            }
+        }
+
+        @Override
+        public void setPropertyValue(String propertyName, Object value)
+                throws UnrecognizedPropertyException, ReadOnlyPropertyException,
+                TypeCastException {
+
+            if (PROP_COMPILE_EXPRESSIONS.equals(propertyName)) {
+                setEnabled(TypeConverter.getBooleanValue(value));
+            }
+            else {
+                throw new UnrecognizedPropertyException("No property named " +
+                        propertyName);
+            }
+        }
+    }
+
+
+    /**
+     * Returns true if expressions should be compiled, or false if they should
+     * always be interpreted.
+     *
+     * @return the current value of the {@link #PROP_COMPILE_EXPRESSIONS}
+     *         property
+     */
+    public static boolean isEnabled() {
+        return !"false".equalsIgnoreCase(
+            System.getProperty(PROP_COMPILE_EXPRESSIONS));
+    }
+
+
+    /**
+     * Specifies whether expressions should be compiled.  Plans that have
+     * already compiled their expressions are not affected.
+     *
+     * @param enabled true if expressions should be compiled
+     */
+    public static void setEnabled(boolean enabled) {
+        System.setProperty(PROP_COMPILE_EXPRESSIONS, Boolean.toString(enabled));
+    }
+
+
+    /**
+     * Compiles an expression that produces a value, such as one of the
+     * values of a projection.
+     *
+     * @param expr the expression to compile
+     *
+     * @return a closure that evaluates the expression
+     */
+    public static CompiledExpression compile(Expression expr) {
+        if (expr == null)
+            throw new IllegalArgumentException("expr cannot be null");
+
+        if (!isEnabled())
+            return expr::evaluate;
+
+        try {
+            return compileValue(expr);
+        }
+        catch (RuntimeException e) {
+            logger.warn("Couldn't compile expression " + expr +
+                "; it will be interpreted", e);
+            return expr::evaluate;
+        }
+    }
+
+
+    /**
+     * Compiles an expression that is used as a predicate, such as the
+     * predicate of a select or join node.
+     *
+     * @param expr the expression to compile
+     *
+     * @return a closure that evaluates the predicate
+     */
+    public static CompiledPredicate compilePredicate(Expression expr) {
+        if (expr == null)
+            throw new IllegalArgumentException("expr cannot be null");
+
+        if (!isEnabled())
+            return expr::evaluatePredicate;
+
+        try {
+            return compileCondition(expr);
+        }
+        catch (RuntimeException e) {
+            logger.warn("Couldn't compile predicate " + expr +
+                "; it will be interpreted", e);
+            return expr::evaluatePredicate;
+        }
+    }
+
+
+    /**
+     * Compiles a predicate that is used to filter batches of tuples with the
+     * specified schema.  Comparisons between a column and a constant, and
+     * <tt>IS NULL</tt> tests of a column, are evaluated with a loop over the
+     * column's values; the terms of an <tt>AND</tt> are applied one after
+     * another, each to the rows that remain after the previous terms.  Other
+     * predicates are evaluated against each row of the batch in turn.
+     *
+     * @param expr the predicate to compile
+     *
+     * @param schema the schema of the batches that will be filtered, which
+     *        the predicate's column references should be bound to
+     *
+     * @return a closure that filters batches using the predicate
+     */
+    public static CompiledBatchPredicate compileBatchPredicate(Expression expr,
+                                                               Schema schema) {
+        if (expr == null)
+            throw new IllegalArgumentException("expr cannot be null");
+
+        if (schema == null)
+            throw new IllegalArgumentException("schema cannot be null");
+
+        if (!isEnabled())
+            return filterRows(expr::evaluatePredicate, schema);
+
+        try {
+            return compileBatchFilter(expr, schema);
+        }
+        catch (RuntimeException e) {
+            logger.warn("Couldn't compile predicate " + expr +
+                "; it will be interpreted", e);
+            return filterRows(expr::evaluatePredicate, schema);
+        }
+    }
+
+
+    private static CompiledExpression compileValue(Expression expr) {
+        if (expr instanceof LiteralValue) {
+            Object value = expr.evaluate();
+            return env -> value;
+        }
+        else if (expr instanceof ColumnValue) {
+            return compileColumn((ColumnValue) expr);
+        }
+        else if (expr instanceof ArithmeticOperator) {
+            return compileArithmetic((ArithmeticOperator) expr);
+        }
+
+        // Everything else is interpreted.
+        return expr::evaluate;
+    }
+
+
+    private static CompiledExpression compileColumn(ColumnValue colValue) {
+        ColumnValue.ColumnBinding b = colValue.getBinding();
+        if (b == null)
+            return colValue::evaluate;
+
+        // Capture this binding, so that rebinding the column for some other
+        // plan node doesn't affect this compiled code.
+        return env -> env.hasSchemaAt(b.slot, b.schema) ?
+            env.getColumnValue(b.slot, b.index) : colValue.evaluate(env);
+    }
+
+
+    private static CompiledExpression compileArithmetic(ArithmeticOperator op) {
+        ArithmeticOperator.Type type = op.getType();
+        CompiledExpression left = compileValue(op.getLeftExpression());
+        CompiledExpression right = compileValue(op.getRightExpression());
+
+        IntBinaryOperator intOp = null;
+        LongBinaryOperator longOp = null;
+
+        // Division and exponentiation produce non-integer results, so they
+        // are left to ArithmeticOperator.evalObjects().
+        switch (type) {
+        case ADD:
+            intOp = (a, b) -> a + b;
+            longOp = (a, b) -> a + b;
+            break;
+
+        case SUBTRACT:
+            intOp = (a, b) -> a - b;
+            longOp = (a, b) -> a - b;
+            break;
+
+        case MULTIPLY:
+            intOp = (a, b) -> a * b;
+            longOp = (a, b) -> a * b;
+            break;
+
+        case REMAINDER:
+            intOp = (a, b) -> a % b;
+            longOp = (a, b) -> a % b;
+            break;
+
+        default:
+            // No specialized implementation.
+        }
+
+        if (intOp == null) {
+            return env -> {
+                Object l = left.evaluate(env);
+                Object r = right.evaluate(env);
+                if (l == null || r == null)
+                    return null;
+
+                return ArithmeticOperator.evalObjects(type, l, r);
+            };
+        }
+
+        IntBinaryOperator fIntOp = intOp;
+        LongBinaryOperator fLongOp = longOp;
+        return env -> {
+            Object l = left.evaluate(env);
+            Object r = right.evaluate(env);
+            if (l == null || r == null)
+                return null;
+
+            if (l instanceof Integer && r instanceof Integer) {
+                return fIntOp.applyAsInt((Integer) l, (Integer) r);
+            }
+            else if (l instanceof Long && r instanceof Long) {
+                return fLongOp.applyAsLong((Long) l, (Long) r);
+            }
+
+            return ArithmeticOperator.evalObjects(type, l, r);
+        };
+    }
+
+
+    private static CompiledPredicate compileCondition(Expression expr) {
+        if (expr instanceof CompareOperator) {
+            return compileComparison((CompareOperator) expr);
+        }
+        else if (expr instanceof BooleanOperator) {
+            return compileBoolean((BooleanOperator) expr);
+        }
+        else if (expr instanceof IsNullOperator) {
+            IsNullOperator isNull = (IsNullOperator) expr;
+            CompiledExpression value = compileValue(isNull.getExpression());
+            if (isNull.isInverted())
+                return env -> value.evaluate(env) != null;
+            else
+                return env -> value.evaluate(env) == null;
+        }
+
+        // Anything else is evaluated as a value, then converted to a Boolean
+        // in the same way as Expression.evaluatePredicate().
+        CompiledExpression value = compileValue(expr);
+        return env -> {
+            Object result = value.evaluate(env);
+            return result != null && TypeConverter.getBooleanValue(result);
+        };
+    }
+
+
+    private static CompiledPredicate compileBoolean(BooleanOperator boolOp) {
+        int numTerms = boolOp.getNumTerms();
+        BooleanOperator.Type type = boolOp.getType();
+
+        // Let the interpreter report malformed expressions.
+        if (numTerms == 0 || (type == BooleanOperator.Type.NOT_EXPR && numTerms != 1))
+            return boolOp::evaluatePredicate;
+
+        CompiledPredicate[] terms = new CompiledPredicate[numTerms];
+        for (int i = 0; i < numTerms; i++)
+            terms[i] = compileCondition(boolOp.getTerm(i));
+
+        switch (type) {
+        case NOT_EXPR:
+            CompiledPredicate term = terms[0];
+            return env -> !term.evaluate(env);
+
+        case AND_EXPR:
+            if (numTerms == 2) {
+                CompiledPredicate a = terms[0];
+                CompiledPredicate b = terms[1];
+                return env -> a.evaluate(env) && b.evaluate(env);
+            }
+            return env -> {
+                for (CompiledPredicate t : terms) {
+                    if (!t.evaluate(env))
+                        return false;
+                }
+                return true;
+            };
+
+        case OR_EXPR:
+            if (numTerms == 2) {
+                CompiledPredicate a = terms[0];
+                CompiledPredicate b = terms[1];
+                return env -> a.evaluate(env) || b.evaluate(env);
+            }
+            return env -> {
+                for (CompiledPredicate t : terms) {
+                    if (t.evaluate(env))
+                        return true;
+                }
+                return false;
+            };
+
+        default:
+            return boolOp::evaluatePredicate;
+        }
+    }
+
+
+    private static CompiledBatchPredicate compileBatchFilter(Expression expr,
+                                                            Schema schema) {
+        if (expr instanceof BooleanOperator) {
+            BooleanOperator boolOp = (BooleanOperator) expr;
+            if (boolOp.getType() == BooleanOperator.Type.AND_EXPR &&
+                boolOp.getNumTerms() > 0) {
+
+                CompiledBatchPredicate[] terms =
+                    new CompiledBatchPredicate[boolOp.getNumTerms()];
+                for (int i = 0; i < terms.length; i++)
+                    terms[i] = compileBatchFilter(boolOp.getTerm(i), schema);
+
+                return (batch, env) -> {
+                    for (CompiledBatchPredicate term : terms) {
+                        if (batch.size() == 0)
+                            break;
+
+                        term.filter(batch, env);
+                    }
+                };
+            }
+        }
+        else if (expr instanceof CompareOperator) {
+            CompareOperator cmp = (CompareOperator) expr;
+            IntPredicate test = getComparisonTest(cmp.getType());
+            int colIndex = getBatchColumn(cmp.getLeftExpression(), schema);
+
+            if (test != null && colIndex != -1 &&
+                cmp.getRightExpression() instanceof LiteralValue) {
+                Object k = cmp.getRightExpression().evaluate();
+                return filterColumn(colIndex, compileLiteralTest(test, k));
+            }
+        }
+        else if (expr instanceof IsNullOperator) {
+            IsNullOperator isNull = (IsNullOperator) expr;
+            int colIndex = getBatchColumn(isNull.getExpression(), schema);
+
+            if (colIndex != -1) {
+                if (isNull.isInverted())
+                    return filterColumn(colIndex, v -> v != null);
+                else
+                    return filterColumn(colIndex, v -> v == null);
+            }
+        }
+
+        return filterRows(compileCondition(expr), schema);
+    }
+
+
+    /**
+     * If the expression is a reference to a column of the batches with the
+     * specified schema, returns the column's index.
+     *
+     * @return the index of the column, or -1 if the expression isn't a bound
+     *         column reference into the batch
+     */
+    private static int getBatchColumn(Expression expr, Schema schema) {
+        if (expr instanceof ColumnValue)
+            return ((ColumnValue) expr).getBoundIndex(schema);
+
+        return -1;
+    }
+
+
+    /**
+     * Returns a batch filter that applies a test to each value of a single
+     * column, without evaluating an expression for each row.
+     */
+    private static CompiledBatchPredicate filterColumn(int colIndex,
+        Predicate<Object> valueTest) {
+
+        return (batch, env) -> {
+            Object[] values = batch.getColumn(colIndex);
+            int[] selection = batch.getSelection();
+            int size = batch.size();
+
+            int numSelected = 0;
+            for (int i = 0; i < size; i++) {
+                int row = selection[i];
+                if (valueTest.test(values[row]))
+                    selection[numSelected++] = row;
+            }
+            batch.setSize(numSelected);
+        };
+    }
+
+
+    /**
+     * Returns a batch filter that evaluates a predicate against each row of
+     * the batch.
+     */
+    private static CompiledBatchPredicate filterRows(CompiledPredicate pred,
+                                                     Schema schema) {
+        return (batch, env) -> {
+            TupleBatch.RowView row = batch.newRowView();
+            env.clear();
+            env.addTuple(schema, row);
+
+            int[] selection = batch.getSelection();
+            int size = batch.size();
+
+            int numSelected = 0;
+            for (int i = 0; i < size; i++) {
+                row.setRow(selection[i]);
+                if (pred.evaluate(env))
+                    selection[numSelected++] = selection[i];
+            }
+            batch.setSize(numSelected);
+        };
+    }
+
+
+    /**
+     * Returns a test of the result of a <tt>compareTo()</tt>-style comparison
+     * that implements the specified comparison operator.
+     */
+    private static IntPredicate getComparisonTest(CompareOperator.Type type) {
+        switch (type) {
+        case EQUALS:
+            return c -> c == 0;
+
+        case NOT_EQUALS:
+            return c -> c != 0;
+
+        case LESS_THAN:
+            return c -> c < 0;
+
+        case GREATER_THAN:
+            return c -> c > 0;
+
+        case LESS_OR_EQUAL:
+            return c -> c <= 0;
+
+        case GREATER_OR_EQUAL:
+            return c -> c >= 0;
+
+        default:
+            return null;
+        }
+    }
+
+
+    private static CompiledPredicate compileComparison(CompareOperator cmp) {
+        IntPredicate test = getComparisonTest(cmp.getType());
+        if (test == null)
+            return cmp::evaluatePredicate;
+
+        CompiledExpression left = compileValue(cmp.getLeftExpression());
+        Expression rhs = cmp.getRightExpression();
+
+        if (rhs instanceof LiteralValue) {
+            // Comparing a value to a constant is the most common kind of
+            // predicate, so unbox the constant now rather than on every row.
+            Predicate<Object> valueTest = compileLiteralTest(test, rhs.evaluate());
+            return env -> valueTest.test(left.evaluate(env));
+        }
+
+        CompiledExpression right = compileValue(rhs);
+        return env ->
+            compareObjects(test, left.evaluate(env), right.evaluate(env));
+    }
+
+
+    /**
+     * Returns a test that compares a value to a constant with a
+     * <tt>compareTo()</tt>-style comparison test.
+     */
+    private static Predicate<Object> compileLiteralTest(IntPredicate test,
+                                                        Object k) {
+        if (k == null) {
+            // Comparisons with NULL are never true.
+            return v -> false;
+        }
+        else if (k instanceof Integer) {
+            int kInt = (Integer) k;
+            return v -> (v instanceof Integer) ?
+                test.test(Integer.compare((Integer) v, kInt)) :
+                compareObjects(test, v, k);
+        }
+        else if (k instanceof Long) {
+            long kLong = (Long) k;
+            return v -> (v instanceof Long) ?
+                test.test(Long.compare((Long) v, kLong)) :
+                compareObjects(test, v, k);
+        }
+        else if (k instanceof String) {
+            String kStr = (String) k;
+            return v -> (v instanceof String) ?
+                test.test(((String) v).compareTo(kStr)) :
+                compareObjects(test, v, k);
+        }
+
+        return v -> compareObjects(test, v, k);
+    }
+
+
+    /**
+     * Compares two values in the same way as {@link CompareOperator}, but
+     * without coercing values that already have the same common type.
+     */
+    @SuppressWarnings("unchecked")
+    private static boolean compareObjects(IntPredicate test, Object l,
+                                          Object r) {
+        if (l == null || r == null)
+            return false;
+
+        int c;
+        if (l instanceof Integer && r instanceof Integer) {
+            c = Integer.compare((Integer) l, (Integer) r);
+        }
+        else if (l instanceof Long && r instanceof Long) {
+            c = Long.compare((Long) l, (Long) r);
+        }
+        else if (l instanceof Double && r instanceof Double) {
+            c = Double.compare((Double) l, (Double) r);
+        }
+        else if (l instanceof String && r instanceof String) {
+            c = ((String) l).compareTo((String) r);
+        }
+        else {
+            TypeConverter.Pair coerced = TypeConverter.coerceComparison(l, r);
+            c = ((Comparable) coerced.value1).compareTo(coerced.value2);
+        }
+
+        return test.test(c);
+    }
+}
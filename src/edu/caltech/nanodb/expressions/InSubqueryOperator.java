@@ -2,6 +2,7 @@ package edu.caltech.nanodb.expressions;
 
 
 import java.io.IOException;
+import java.util.ArrayList;
 
 import edu.caltech.nanodb.queryast.SelectClause;
 import edu.caltech.nanodb.relations.ColumnInfo;
@@ -15,7 +16,10 @@ import edu.caltech.nanodb.relations.Tuple;
  * <p>
  * This class implements the <tt>expr IN (subquery)</tt> operator.  This
  * operation may be optimized out of a query, but if it is not, it can still
- * be evaluated although it will be slow.
+ * be evaluated.  If the subquery is uncorrelated, its results are computed
+ * once for each execution of the enclosing query into an
+ * {@link InValueSet}, and each value on the lefthand side is looked up in
+ * the set.  A correlated subquery is executed for each evaluation.
  * </p>
  * <p>
  * The <tt>expr NOT IN (...)</tt> operator is translated into <tt>NOT (expr IN
@@ -30,6 +34,16 @@ public class InSubqueryOperator extends SubqueryOperator {
     Expression expr;
 
 
+    /**
+     * The results of the subquery, if it is uncorrelated and its results
+     * have been computed during the current execution of the enclosing
+     * query; otherwise, <tt>null</tt>.  The set is discarded by
+     * {@link #resetResults} before each execution, since the subquery's
+     * tables may change before the plan is executed again.
+     */
+    private InValueSet valueSet;
+
+
     public InSubqueryOperator(Expression expr, SelectClause subquery) {
         if (expr == null)
             throw new IllegalArgumentException("expr must be specified");
@@ -42,6 +56,17 @@ public class InSubqueryOperator extends SubqueryOperator {
     }
 
 
+    /**
+     * Returns the expression on the lefthand side of the <tt>IN</tt>
+     * operator.
+     *
+     * @return the expression on the lefthand side of the <tt>IN</tt> operator
+     */
+    public Expression getExpression() {
+        return expr;
+    }
+
+
     public ColumnInfo getColumnInfo(Schema schema) throws SchemaNameException {
         // Comparisons always return Boolean values, so just pass a Boolean
         // value in to the TypeConverter to get out the corresponding SQL type.
@@ -54,25 +79,23 @@ public class InSubqueryOperator extends SubqueryOperator {
     /**
      * Evaluates this comparison expression and returns either
      * {@link java.lang.Boolean#TRUE} or {@link java.lang.Boolean#FALSE}.  If
-     * either the left-hand or right-hand expression evaluates to
-     * <code>null</code> (representing the SQL <tt>NULL</tt> value), then the
-     * expression's result is always <code>FALSE</code>.
-     *
-     * @design (Donnie) We have to suppress "unchecked operation" warnings on
-     *         this code, since {@link Comparable} is a generic (and thus allows
-     *         us to specify the type of object being compared), but we want to
-     *         use it without specifying any types.
+     * the left-hand expression evaluates to <code>null</code> (representing
+     * the SQL <tt>NULL</tt> value), or it matches none of the subquery's
+     * values but one of the values is <code>null</code>, the expression's
+     * result is <code>null</code>.  However, if the subquery produces no
+     * rows, the result is always <code>FALSE</code>.
      */
-    @SuppressWarnings("unchecked")
     public Object evaluate(Environment env) throws ExpressionException {
-        Object exprObj = expr.evaluate(env);
-        if (exprObj == null)
-            return null;
-
         if (subqueryPlan == null)
             throw new IllegalStateException("No execution plan for subquery");
 
+        Object exprObj = expr.evaluate(env);
+
         try {
+            if (!subquery.isCorrelated())
+                return getValueSet().contains(exprObj);
+
+            boolean sawNull = false;
             subqueryPlan.initialize();
             while (true) {
                 Tuple tup = subqueryPlan.getNextTuple();
@@ -82,16 +105,60 @@ public class InSubqueryOperator extends SubqueryOperator {
                 Object tupObj = tup.getColumnValue(0);
                 tup.unpin();
 
-                if (CompareOperator.areObjectsEqual(exprObj, tupObj))
+                if (exprObj == null || tupObj == null)
+                    sawNull = true;
+                else if (CompareOperator.areObjectsEqual(exprObj, tupObj))
                     return Boolean.TRUE;
             }
+
+            // If we got here, nothing matched.
+            return sawNull ? null : Boolean.FALSE;
         }
         catch (IOException e) {
             throw new ExpressionException("Error while evaluating subquery", e);
         }
+    }
+
 
-        // If we got here, nothing matched.
-        return Boolean.FALSE;
+    /**
+     * Returns the results of an uncorrelated subquery as a set, computing
+     * them if they haven't been computed during the current execution of
+     * the enclosing query.
+     *
+     * @return the results of the subquery
+     *
+     * @throws IOException if an IO error occurs while executing the subquery
+     */
+    private InValueSet getValueSet() throws IOException {
+        if (valueSet == null) {
+            ArrayList<Object> values = new ArrayList<>();
+
+            subqueryPlan.initialize();
+            try {
+                while (true) {
+                    Tuple tup = subqueryPlan.getNextTuple();
+                    if (tup == null)
+                        break;
+
+                    values.add(tup.getColumnValue(0));
+                    tup.unpin();
+                }
+            }
+            finally {
+                subqueryPlan.cleanUp();
+            }
+
+            valueSet = new InValueSet(values);
+        }
+
+        return valueSet;
+    }
+
+
+    @Override
+    public void resetResults() {
+        super.resetResults();
+        valueSet = null;
     }
 
 
@@ -166,6 +233,7 @@ public class InSubqueryOperator extends SubqueryOperator {
         // Clone the subexpressions.  Don't clone the subquery,
         // since subqueries currently aren't cloneable.
         op.expr = (Expression) expr.clone();
+        op.valueSet = null;
 
         return op;
     }
@@ -0,0 +1,225 @@
+package edu.caltech.nanodb.expressions;
+
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+
+/**
+ * <p>
+ * This class holds the values on the righthand side of an <tt>IN</tt>
+ * operator, once they have been computed, so that each value on the
+ * lefthand side can be looked up in constant time instead of being compared
+ * against every value in turn.  It is used for <tt>IN</tt> lists whose
+ * values are all constant, and for uncorrelated <tt>IN</tt> subqueries.
+ * </p>
+ * <p>
+ * The values are stored in a hash set under the keys produced by
+ * {@link TypeConverter#getHashKey}, so that numbers of different types are
+ * found when they are equal.  If the values (or the value being looked up)
+ * aren't all numbers or all of one type, lookups fall back to comparing the
+ * value with each element using
+ * {@link CompareOperator#areObjectsEqual}, which coerces the values the same
+ * way a comparison does.
+ * </p>
+ * <p>
+ * The distinct values are also available in sorted order from
+ * {@link #getSortedValues}, so that a scan that can look up keys, such as a
+ * scan over a sequential file, can probe each value in key order.
+ * </p>
+ * <p>
+ * Instances are immutable, so a set may be shared by copies of an
+ * expression.
+ * </p>
+ */
+public class InValueSet {
+
+    /** The hash keys of the non-<tt>NULL</tt> values. */
+    private final HashSet<Object> keys;
+
+
+    /** The distinct non-<tt>NULL</tt> values, sorted if possible. */
+    private final List<Object> values;
+
+
+    /** True if one of the values is <tt>NULL</tt>. */
+    private final boolean hasNull;
+
+
+    /**
+     * The class of all of the hash keys, or {@link Number} if all of the
+     * keys are numbers, or <tt>null</tt> if the keys are of several
+     * different kinds and can't be used for lookups.
+     */
+    private final Class<?> keyClass;
+
+
+    /**
+     * Constructs a set of values for an <tt>IN</tt> operator.
+     *
+     * @param values the values, which may include <tt>NULL</tt>s (that is,
+     *        <tt>null</tt>) and duplicates
+     */
+    public InValueSet(Collection<?> values) {
+        if (values == null)
+            throw new IllegalArgumentException("values cannot be null");
+
+        keys = new HashSet<>();
+        ArrayList<Object> distinct = new ArrayList<>();
+        boolean sawNull = false;
+        Class<?> commonClass = null;
+        boolean mixed = false;
+
+        for (Object value : values) {
+            if (value == null) {
+                sawNull = true;
+                continue;
+            }
+
+            Object key = TypeConverter.getHashKey(value);
+            if (!keys.add(key))
+                continue;
+
+            distinct.add(value);
+
+            Class<?> kind = getKeyKind(key);
+            if (commonClass == null)
+                commonClass = kind;
+            else if (!commonClass.equals(kind))
+                mixed = true;
+        }
+
+        hasNull = sawNull;
+        keyClass = mixed ? null : commonClass;
+
+        // Values of one kind can be put into key order.
+        if (isSorted())
+            distinct.sort(InValueSet::compareValues);
+
+        this.values = Collections.unmodifiableList(distinct);
+    }
+
+
+    /**
+     * Returns the kind of a hash key, which is {@link Number} for all
+     * numbers, and the key's class otherwise.
+     *
+     * @param key a key produced by {@link TypeConverter#getHashKey}
+     *
+     * @return the kind of the key
+     */
+    private static Class<?> getKeyKind(Object key) {
+        if (key instanceof Long || key instanceof Double)
+            return Number.class;
+
+        return key.getClass();
+    }
+
+
+    /**
+     * Compares two non-<tt>NULL</tt> values of the same kind, coercing
+     * them the same way a comparison does.
+     */
+    @SuppressWarnings("unchecked")
+    private static int compareValues(Object obj1, Object obj2) {
+        TypeConverter.Pair pair = TypeConverter.coerceComparison(obj1, obj2);
+        return ((Comparable) pair.value1).compareTo(pair.value2);
+    }
+
+
+    /**
+     * Looks up a value in the set, following SQL's rules for <tt>IN</tt>:
+     * the result is <tt>TRUE</tt> if the value is in the set, and otherwise
+     * <tt>NULL</tt> if the value is <tt>NULL</tt> or the set contains a
+     * <tt>NULL</tt>, or <tt>FALSE</tt> if not.  Nothing is in an empty set,
+     * not even <tt>NULL</tt>.
+     *
+     * @param value the value to look up
+     *
+     * @return {@link Boolean#TRUE}, {@link Boolean#FALSE}, or <tt>null</tt>
+     *         for <tt>NULL</tt>
+     *
+     * @throws TypeCastException if the value can't be compared with the
+     *         values in the set
+     */
+    public Boolean contains(Object value) {
+        if (values.isEmpty() && !hasNull)
+            return Boolean.FALSE;
+
+        if (value == null)
+            return null;
+
+        boolean found = false;
+        Object key = TypeConverter.getHashKey(value);
+        if (keyClass != null && keyClass.equals(getKeyKind(key))) {
+            found = keys.contains(key);
+        }
+        else {
+            for (Object v : values) {
+                if (CompareOperator.areObjectsEqual(value, v)) {
+                    found = true;
+                    break;
+                }
+            }
+        }
+
+        if (found)
+            return Boolean.TRUE;
+
+        return hasNull ? null : Boolean.FALSE;
+    }
+
+
+    /**
+     * Returns true if one of the values in the set is <tt>NULL</tt>.
+     *
+     * @return true if one of the values in the set is <tt>NULL</tt>
+     */
+    public boolean hasNull() {
+        return hasNull;
+    }
+
+
+    /**
+     * Returns the number of distinct non-<tt>NULL</tt> values in the set.
+     *
+     * @return the number of distinct non-<tt>NULL</tt> values in the set
+     */
+    public int size() {
+        return values.size();
+    }
+
+
+    /**
+     * Returns the distinct non-<tt>NULL</tt> values in the set.  If the
+     * values are all numbers or all of one comparable type, they are in
+     * increasing order.
+     *
+     * @return an unmodifiable list of the distinct non-<tt>NULL</tt> values
+     */
+    public List<Object> getSortedValues() {
+        return values;
+    }
+
+
+    /**
+     * Returns true if the values in the set are in increasing order in
+     * {@link #getSortedValues}.
+     *
+     * @return true if the values are sorted
+     */
+    public boolean isSorted() {
+        return keyClass != null && (keyClass == Number.class ||
+            Comparable.class.isAssignableFrom(keyClass));
+    }
+
+
+    @Override
+    public String toString() {
+        return "InValueSet[" + values.size() + " values" +
+            (hasNull ? ", NULL" : "") + "]";
+    }
+}
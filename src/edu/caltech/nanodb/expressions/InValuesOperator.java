@@ -11,9 +11,11 @@ import edu.caltech.nanodb.relations.SchemaNameException;
 
 /**
  * <p>
- * This class implements the <tt>expr IN (values)</tt> operator.  This
- * operation may be optimized out of a query, but if it is not, it can still
- * be evaluated although it will be slow.
+ * This class implements the <tt>expr IN (values)</tt> operator.  If all of
+ * the values are constants, they are computed once into an
+ * {@link InValueSet}, and each value on the lefthand side is looked up in
+ * the set.  Otherwise, the values are computed and compared for each
+ * evaluation.
  * </p>
  * <p>
  * The <tt>expr NOT IN (...)</tt> operator is translated into <tt>NOT (expr IN
@@ -35,6 +37,20 @@ public class InValuesOperator extends Expression {
     ArrayList<Expression> values;
 
 
+    /**
+     * The values of the righthand side, if they are all constants and have
+     * been computed; otherwise, <tt>null</tt>.
+     */
+    private InValueSet valueSet;
+
+
+    /**
+     * True if the values of the righthand side are known not to be all
+     * constants.
+     */
+    private boolean notConstant;
+
+
     public InValuesOperator(Expression expr, ArrayList<Expression> values) {
         if (expr == null)
             throw new IllegalArgumentException("expr must be specified");
@@ -62,32 +78,93 @@ public class InValuesOperator extends Expression {
     /**
      * Evaluates this comparison expression and returns either
      * {@link java.lang.Boolean#TRUE} or {@link java.lang.Boolean#FALSE}.  If
-     * either the left-hand or right-hand expression evaluates to
-     * <code>null</code> (representing the SQL <tt>NULL</tt> value), then the
-     * expression's result is always <code>FALSE</code>.
-     *
-     * @design (Donnie) We have to suppress "unchecked operation" warnings on
-     *         this code, since {@link Comparable} is a generic (and thus allows
-     *         us to specify the type of object being compared), but we want to
-     *         use it without specifying any types.
+     * the left-hand expression evaluates to <code>null</code> (representing
+     * the SQL <tt>NULL</tt> value), or it matches none of the values but one
+     * of the values is <code>null</code>, the expression's result is
+     * <code>null</code>.
      */
-    @SuppressWarnings("unchecked")
     public Object evaluate(Environment env) throws ExpressionException {
         Object exprObj = expr.evaluate(env);
         if (exprObj == null)
             return null;
 
+        InValueSet set = getValueSet();
+        if (set != null)
+            return set.contains(exprObj);
+
+        boolean sawNull = false;
         for (Expression valueExpr : values) {
             Object valueObj = valueExpr.evaluate(env);
             if (valueObj == null)
-                return null;
-
-            if (CompareOperator.areObjectsEqual(exprObj, valueObj))
+                sawNull = true;
+            else if (CompareOperator.areObjectsEqual(exprObj, valueObj))
                 return Boolean.TRUE;
         }
 
         // If we got here, nothing matched.
-        return Boolean.FALSE;
+        return sawNull ? null : Boolean.FALSE;
+    }
+
+
+    /**
+     * Returns the values of the righthand side as a set, if they are all
+     * constants, computing the set the first time it is needed.  A
+     * constant is an expression that doesn't refer to any columns,
+     * parameters, functions or subqueries.
+     *
+     * @return the values of the righthand side, or <tt>null</tt> if they
+     *         aren't all constants
+     */
+    public InValueSet getValueSet() {
+        if (valueSet == null && !notConstant) {
+            for (Expression valueExpr : values) {
+                if (!isConstant(valueExpr)) {
+                    notConstant = true;
+                    return null;
+                }
+            }
+
+            ArrayList<Object> valueObjs = new ArrayList<>(values.size());
+            Environment env = new Environment();
+            for (Expression valueExpr : values)
+                valueObjs.add(valueExpr.evaluate(env));
+
+            valueSet = new InValueSet(valueObjs);
+        }
+
+        return valueSet;
+    }
+
+
+    /**
+     * Returns true if an expression always produces the same value.
+     *
+     * @param e the expression to examine
+     *
+     * @return true if the expression doesn't refer to any columns,
+     *         parameters, functions or subqueries
+     */
+    private static boolean isConstant(Expression e) {
+        if (e instanceof LiteralValue)
+            return true;
+
+        boolean[] constant = { true };
+        e.traverse(new ExpressionProcessor() {
+            public void enter(Expression node) {
+                if (node instanceof ColumnValue ||
+                    node instanceof ParameterValue ||
+                    node instanceof FunctionCall ||
+                    node instanceof SubqueryOperator) {
+                    constant[0] = false;
+                }
+            }
+
+            public Expression leave(Expression node) {
+                return node;
+            }
+        });
+
+        return constant[0];
     }
 
 
@@ -99,6 +176,10 @@ public class InValuesOperator extends Expression {
 
         expr = expr.traverse(p);
 
+        // The values may be replaced, so the set must be computed again.
+        valueSet = null;
+        notConstant = false;
+
         for (int i = 0; i < values.size(); i++) {
             r = values.get(i).traverse(p);
             values.set(i, r);
@@ -136,6 +217,18 @@ public class InValuesOperator extends Expression {
     }
 
 
+    /**
+     * Returns the expression on the lefthand side of the <tt>IN</tt>
+     * operation.
+     *
+     * @return the expression on the lefthand side of the <tt>IN</tt>
+     *         operation
+     */
+    public Expression getExpression() {
+        return expr;
+    }
+
+
     /**
      * If the <tt>IN</tt> operation has a list of values on the righthand side,
      * this will be the list of values.  Otherwise, this will be <tt>null</tt>.
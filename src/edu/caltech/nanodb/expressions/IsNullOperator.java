@@ -25,6 +25,27 @@ public class IsNullOperator extends Expression {
     }
 
 
+    /**
+     * Returns the expression that is tested for <tt>NULL</tt>.
+     *
+     * @return the expression that is tested for <tt>NULL</tt>
+     */
+    public Expression getExpression() {
+        return expr;
+    }
+
+
+    /**
+     * Returns true if this operator computes <tt>IS NOT NULL</tt>, or false
+     * if it computes <tt>IS NULL</tt>.
+     *
+     * @return true if this operator computes <tt>IS NOT NULL</tt>
+     */
+    public boolean isInverted() {
+        return invert;
+    }
+
+
     @Override
     public ColumnInfo getColumnInfo(Schema schema) throws SchemaNameException {
         // This operator always returns Boolean values, so just pass a Boolean
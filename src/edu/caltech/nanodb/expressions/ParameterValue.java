@@ -0,0 +1,134 @@
+package edu.caltech.nanodb.expressions;
+
+
+import edu.caltech.nanodb.client.SessionState;
+import edu.caltech.nanodb.relations.ColumnInfo;
+import edu.caltech.nanodb.relations.ColumnType;
+import edu.caltech.nanodb.relations.SQLDataType;
+import edu.caltech.nanodb.relations.Schema;
+import edu.caltech.nanodb.relations.SchemaNameException;
+
+
+/**
+ * This expression class represents a parameter of a prepared statement,
+ * written as <tt>?</tt> or <tt>$<em>n</em></tt> in SQL.  Parameters are
+ * numbered from 1.  A parameter has no value of its own; when it is
+ * evaluated, it takes the value bound to its position by the
+ * <tt>EXECUTE</tt> command that is running in the current session.  This
+ * allows a plan containing parameters to be reused with different values.
+ *
+ * @see SessionState#getParameterValues
+ */
+public class ParameterValue extends Expression {
+
+    /** The position of this parameter, starting at 1. */
+    private int index;
+
+
+    /**
+     * Initializes a parameter expression.
+     *
+     * @param index the position of the parameter, starting at 1
+     *
+     * @throws IllegalArgumentException if the index is less than 1
+     */
+    public ParameterValue(int index) {
+        if (index < 1) {
+            throw new IllegalArgumentException(
+                "parameter index must be at least 1, got " + index);
+        }
+
+        this.index = index;
+    }
+
+
+    /**
+     * Returns the position of this parameter, starting at 1.
+     *
+     * @return the position of this parameter
+     */
+    public int getIndex() {
+        return index;
+    }
+
+
+    /**
+     * Returns the value currently bound to this parameter.
+     *
+     * @return the value currently bound to this parameter
+     *
+     * @throws ExpressionException if no value is bound to this parameter
+     */
+    private Object getBoundValue() {
+        Object[] values = SessionState.get().getParameterValues();
+        if (values == null || index > values.length) {
+            throw new ExpressionException("No value is bound to parameter " +
+                this + "; parameters may only be used in prepared statements");
+        }
+
+        return values[index - 1];
+    }
+
+
+    /**
+     * The type of a parameter is the type of the value bound to it, if there
+     * is one.  Otherwise, the parameter is reported as a <tt>VARCHAR</tt>,
+     * since its value will be converted as needed when it is compared.
+     */
+    public ColumnInfo getColumnInfo(Schema schema) throws SchemaNameException {
+        Object[] values = SessionState.get().getParameterValues();
+
+        ColumnType colType;
+        if (values != null && index <= values.length)
+            colType = new ColumnType(TypeConverter.getSQLType(values[index - 1]));
+        else
+            colType = new ColumnType(SQLDataType.VARCHAR);
+
+        return new ColumnInfo(toString(), colType);
+    }
+
+
+    /** Evaluating a parameter returns the value bound to it. */
+    public Object evaluate(Environment env) {
+        return getBoundValue();
+    }
+
+
+    @Override
+    public Expression traverse(ExpressionProcessor p) {
+        p.enter(this);
+        return p.leave(this);
+    }
+
+
+    @Override
+    public String toString() {
+        return "$" + index;
+    }
+
+
+    /**
+     * Parameters cannot be simplified, since their values aren't known until
+     * the statement is executed.
+     */
+    public Expression simplify() {
+        return this;
+    }
+
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj instanceof ParameterValue) {
+            ParameterValue other = (ParameterValue) obj;
+            return index == other.index;
+        }
+
+        return false;
+    }
+
+
+    @Override
+    public int hashCode() {
+        return 31 * 7 + index;
+    }
+}
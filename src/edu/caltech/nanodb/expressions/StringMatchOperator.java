@@ -1,6 +1,7 @@
 package edu.caltech.nanodb.expressions;
 
 
+import java.util.function.Predicate;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
 
@@ -25,6 +26,14 @@ import edu.caltech.nanodb.relations.SchemaNameException;
  * The <tt>a NOT LIKE ...</tt> and <tt>a NOT SIMILAR TO ...</tt> operation is
  * translated into <tt>NOT (a LIKE ...)</tt> etc. by the parser.
  * </p>
+ * <p>
+ * The operator keeps the last pattern it compiled, so that a constant
+ * pattern is only compiled once.  <tt>LIKE</tt> patterns whose only
+ * wildcards are <tt>%</tt> at the start or end are matched with
+ * {@link String#startsWith}, {@link String#endsWith},
+ * {@link String#contains} or {@link String#equals} instead of a regular
+ * expression.
+ * </p>
  */
 public class StringMatchOperator extends Expression {
 
@@ -73,6 +82,17 @@ public class StringMatchOperator extends Expression {
     Expression rightExpr;
 
 
+    /**
+     * The pattern that {@link #matcher} was compiled from, or <tt>null</tt>
+     * if no pattern has been compiled yet.
+     */
+    private String compiledPattern;
+
+
+    /** The compiled form of {@link #compiledPattern}. */
+    private Predicate<String> matcher;
+
+
     public StringMatchOperator(Type type, Expression lhs, Expression rhs) {
         if (type == null || lhs == null || rhs == null)
             throw new NullPointerException();
@@ -102,7 +122,7 @@ public class StringMatchOperator extends Expression {
      *
      * @return a regular expression corresponding to the match-expression
      */
-    private String sqlLikeToRegex(String sqlLike) {
+    private static String sqlLikeToRegex(String sqlLike) {
         StringBuilder buf = new StringBuilder();
 
         boolean inText = false;
@@ -138,48 +158,96 @@ public class StringMatchOperator extends Expression {
 
 
     /**
-     * Evaluates this comparison expression and returns either
-     * {@link java.lang.Boolean#TRUE} or {@link java.lang.Boolean#FALSE}.  If
-     * either the left-hand or right-hand expression evaluates to
-     * <code>null</code> (representing the SQL <tt>NULL</tt> value), then the
-     * expression's result is always <code>FALSE</code>.
+     * Returns the text that every string matching a SQL <tt>LIKE</tt>
+     * pattern must start with, which is the part of the pattern before its
+     * first wildcard.
+     *
+     * @param sqlLike the SQL <tt>LIKE</tt> match-expression
+     *
+     * @return the literal prefix of the pattern, which is the entire pattern
+     *         if it has no wildcards, or an empty string if it starts with a
+     *         wildcard
      */
-    public Object evaluate(Environment env) throws ExpressionException {
+    public static String getLikePrefix(String sqlLike) {
+        for (int i = 0; i < sqlLike.length(); i++) {
+            char ch = sqlLike.charAt(i);
+            if (ch == '%' || ch == '_')
+                return sqlLike.substring(0, i);
+        }
 
-        // Evaluate the left and right subexpressions, and coerce them into
-        // strings.
-        String lhsValue = TypeConverter.getStringValue(leftExpr.evaluate(env));
-        String rhsValue = TypeConverter.getStringValue(rightExpr.evaluate(env));
+        return sqlLike;
+    }
 
-        // If either the LHS value or RHS value is NULL (represented by Java
-        // null value) then the entire expression evaluates to FALSE.
-        if (lhsValue == null || rhsValue == null)
-            return null;
 
-        boolean result;
+    /**
+     * Compiles a SQL <tt>LIKE</tt> pattern into a predicate.  Patterns
+     * without <tt>_</tt>, and with <tt>%</tt> only at the start and end, are
+     * matched with string operations; others are converted into a regular
+     * expression.
+     *
+     * @param sqlLike the SQL <tt>LIKE</tt> match-expression
+     *
+     * @return a predicate that tests strings against the pattern
+     */
+    private static Predicate<String> compileLike(String sqlLike) {
+        int start = 0;
+        while (start < sqlLike.length() && sqlLike.charAt(start) == '%')
+            start++;
+
+        int end = sqlLike.length();
+        while (end > start && sqlLike.charAt(end - 1) == '%')
+            end--;
+
+        String text = sqlLike.substring(start, end);
+        if (text.indexOf('%') == -1 && text.indexOf('_') == -1) {
+            boolean anyStart = start > 0;
+            boolean anyEnd = end < sqlLike.length();
+
+            if (anyStart && anyEnd)
+                return s -> s.contains(text);
+            else if (anyStart)
+                return s -> s.endsWith(text);
+            else if (anyEnd)
+                return s -> s.startsWith(text);
+            else
+                return s -> s.equals(text);
+        }
 
-        switch (type) {
-            case LIKE:
-                // Convert the LIKE pattern into a regular expression.  First,
-                // escape all the characters that could be meaningful in
-                // regex, and then replace the SQL wildcard expressions with
-                // corresponding regex expressions.
-                String rhsRegex = sqlLikeToRegex(rhsValue);
-                rhsRegex = rhsRegex.replaceAll("_", ".").replaceAll("%", ".*");
+        String regex = sqlLikeToRegex(sqlLike);
+        logger.debug("Converted LIKE pattern \"" + sqlLike +
+            "\" to regex \"" + regex + "\".");
+
+        return Pattern.compile(regex, Pattern.DOTALL).asMatchPredicate();
+    }
 
-                logger.info("Received LIKE pattern \"" + rhsValue +
-                    "\", converted to regex \"" + rhsRegex + "\".");
 
-                result = Pattern.matches(rhsRegex, lhsValue);
+    /**
+     * Returns a predicate that tests strings against the specified pattern,
+     * compiling the pattern if it isn't the same as the last one.
+     *
+     * @param pattern the pattern to match strings against
+     *
+     * @return a predicate that tests strings against the pattern
+     *
+     * @throws ExpressionException if the pattern is an invalid regular
+     *         expression
+     */
+    private Predicate<String> getMatcher(String pattern) {
+        if (matcher != null && pattern.equals(compiledPattern))
+            return matcher;
+
+        switch (type) {
+            case LIKE:
+                matcher = compileLike(pattern);
                 break;
 
             case REGEX:
                 try {
-                    result = Pattern.matches(rhsValue, lhsValue);
+                    matcher = Pattern.compile(pattern).asMatchPredicate();
                 }
                 catch (PatternSyntaxException e) {
                     throw new ExpressionException("Regex pattern \"" +
-                        rhsValue + "\" is invalid!", e);
+                        pattern + "\" is invalid!", e);
                 }
                 break;
 
@@ -188,7 +256,31 @@ public class StringMatchOperator extends Expression {
                     "Unrecognized string-matching type " + type);
         }
 
-        return Boolean.valueOf(result);
+        compiledPattern = pattern;
+        return matcher;
+    }
+
+
+    /**
+     * Evaluates this comparison expression and returns either
+     * {@link java.lang.Boolean#TRUE} or {@link java.lang.Boolean#FALSE}.  If
+     * either the left-hand or right-hand expression evaluates to
+     * <code>null</code> (representing the SQL <tt>NULL</tt> value), then the
+     * expression's result is <code>null</code>.
+     */
+    public Object evaluate(Environment env) throws ExpressionException {
+
+        // Evaluate the left and right subexpressions, and coerce them into
+        // strings.
+        String lhsValue = TypeConverter.getStringValue(leftExpr.evaluate(env));
+        String rhsValue = TypeConverter.getStringValue(rightExpr.evaluate(env));
+
+        // If either the LHS value or RHS value is NULL (represented by Java
+        // null value) then the entire expression evaluates to NULL.
+        if (lhsValue == null || rhsValue == null)
+            return null;
+
+        return Boolean.valueOf(getMatcher(rhsValue).test(lhsValue));
     }
 
 
@@ -75,4 +75,16 @@ public abstract class SubqueryOperator extends Expression {
     public PlanNode getSubqueryPlan() {
         return subqueryPlan;
     }
+
+
+    /**
+     * Discards any results of the subquery that the operator has cached,
+     * along with the cached results of the subquery's own subqueries, so
+     * that they are computed again the next time the operator is evaluated.
+     * This is called before each execution of the enclosing query's plan.
+     */
+    public void resetResults() {
+        if (subqueryPlan != null)
+            subqueryPlan.resetSubqueryResults();
+    }
 }
@@ -65,6 +65,9 @@ public class TupleComparator implements Comparator<Tuple> {
 
         this.schema = schema;
         this.orderSpec = new ArrayList<OrderByExpression>(orderSpec);
+
+        for (OrderByExpression entry : this.orderSpec)
+            entry.getExpression().bindColumns(schema);
     }
 
 
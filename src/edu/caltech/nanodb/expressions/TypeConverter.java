@@ -574,4 +574,36 @@ public class TypeConverter {
 
         return colType;
     }
+
+
+    /**
+     * Returns a value that can be used as a hash key in place of the
+     * specified value, so that values which compare as equal with
+     * {@link CompareOperator#areObjectsEqual} have equal keys.  Integral
+     * values, and floating-point values without a fractional part, become
+     * <tt>Long</tt>s; other floating-point values become <tt>Double</tt>s;
+     * and all other values are returned unchanged.
+     *
+     * @param obj the value to produce a hash key for
+     *
+     * @return a hash key for the value, or <tt>null</tt> if the value is
+     *         <tt>null</tt>
+     */
+    public static Object getHashKey(Object obj) {
+        if (obj instanceof Integer || obj instanceof Long ||
+            obj instanceof Short || obj instanceof Byte) {
+            return Long.valueOf(((Number) obj).longValue());
+        }
+
+        if (obj instanceof Double || obj instanceof Float) {
+            double d = ((Number) obj).doubleValue();
+            long l = (long) d;
+            if (l == d && l != Long.MAX_VALUE && l != Long.MIN_VALUE)
+                return Long.valueOf(l);
+
+            return Double.valueOf(d);
+        }
+
+        return obj;
+    }
 }
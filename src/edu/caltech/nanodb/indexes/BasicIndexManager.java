@@ -90,6 +90,14 @@ public class BasicIndexManager implements IndexManager {
         if (indexColRefs == null)
             throw new IllegalArgumentException("indexColRefs cannot be null");
 
+        // Index entries refer to page tuples, which columnar files don't
+        // have.
+        if (tableInfo.getTupleFile().getDBFile().getType() ==
+            DBFileType.COLUMNAR_TUPLE_FILE) {
+            throw new IllegalArgumentException(
+                "Columnar tables can't have indexes");
+        }
+
         // Figure out the schema and other essential details of the index.
 
         String tableName = tableInfo.getTableName();
@@ -169,10 +177,11 @@ public class BasicIndexManager implements IndexManager {
         PageTuple curTuple = (PageTuple) tableTupleFile.getFirstTuple();
         while (curTuple != null) {
             TupleLiteral idxTup;
-            if (unique) {
+            if (unique && !IndexUtils.hasNullKeyValue(columnRefs, curTuple)) {
                 // Check if the index already has a tuple with this value.
                 // The tuple we generate for this shouldn't include a tuple-
                 // pointer since we just want to see if the value is repeated.
+                // Keys containing NULL never conflict.
                 idxTup = IndexUtils.makeTableSearchKey(columnRefs, curTuple,
                     /* findExactTuple */ false);
 
@@ -225,9 +234,14 @@ public class BasicIndexManager implements IndexManager {
         DBFileType type = DBFileType.BTREE_TUPLE_FILE;
         TupleFileManager tupleFileManager = storageManager.getTupleFileManager(type);
 
+        // The index is compressed if its table is.
+        boolean compressed = indexInfo.getTableInfo().getTupleFile()
+            .getDBFile().isCompressed();
+
         // First, create a new DBFile that the tuple file will go into.
         FileManager fileManager = storageManager.getFileManager();
-        DBFile dbFile = fileManager.createDBFile(idxFileName, type, pageSize);
+        DBFile dbFile = fileManager.createDBFile(idxFileName, type, pageSize,
+            compressed);
         logger.debug("Created new DBFile for index " + indexName +
                      " at path " + dbFile.getDataFile());
 
@@ -416,12 +430,18 @@ public class BasicIndexManager implements IndexManager {
 
     @Override
     public void analyzeIndex(IndexInfo indexInfo) throws IOException {
-        throw new UnsupportedOperationException("NYI");
+        logger.info(String.format("Analyzing index %s on table %s",
+            indexInfo.getIndexName(), indexInfo.getTableName()));
+
+        indexInfo.getTupleFile().analyze();
     }
 
     @Override
     public void optimizeIndex(IndexInfo idxFileInfo) throws IOException {
-        throw new UnsupportedOperationException("NYI");
+        logger.info(String.format("Optimizing index %s on table %s",
+            idxFileInfo.getIndexName(), idxFileInfo.getTableName()));
+
+        idxFileInfo.getTupleFile().optimize();
     }
 
     @Override
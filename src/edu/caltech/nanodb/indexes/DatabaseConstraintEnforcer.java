@@ -2,6 +2,9 @@ package edu.caltech.nanodb.indexes;
 
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
@@ -85,41 +88,52 @@ public class DatabaseConstraintEnforcer implements RowEventListener {
     @Override
     public void beforeRowInserted(TableInfo tableInfo, Tuple newTuple)
             throws IOException {
+        beforeRowsInserted(tableInfo, Collections.singletonList(newTuple));
+    }
+
+
+    /**
+     * Perform processing before a batch of rows is inserted into a table.
+     * Each index and referenced table is opened once for the whole batch,
+     * and each distinct foreign-key value is only looked up once.  Since
+     * none of the rows are in the table yet, the rows are also checked
+     * against each other for duplicate keys.
+     *
+     * @param tableInfo the table that the tuples will be inserted into.
+     * @param newTuples the new tuples that will be inserted into the table.
+     */
+    @Override
+    public void beforeRowsInserted(TableInfo tableInfo,
+        List<? extends Tuple> newTuples) throws IOException {
 
         TableSchema schema = tableInfo.getTupleFile().getSchema();
 
         // Check NOT NULL constraints first - they are cheapest.
-        checkNotNullConstraints(tableInfo, newTuple);
+        for (Tuple newTuple : newTuples)
+            checkNotNullConstraints(tableInfo, newTuple);
 
         // Find out all the columns that have UNIQUE constraints and find all
         // of the created indices on these columns.  Call containsTuple() with
         // the indexInfo and tuple for each of these indices.  (These indices
         // should always exist.)
-        List<KeyColumnRefs> candKeyList = schema.getCandidateKeys();
-
-        String idxName;
-        IndexInfo indexInfo;
-
-        // Check primary key
+        ArrayList<KeyColumnRefs> uniqueKeys = new ArrayList<>();
         KeyColumnRefs primaryKey = schema.getPrimaryKey();
-        if (primaryKey != null) {
-            idxName = primaryKey.getIndexName();
-            indexInfo = indexManager.openIndex(tableInfo, idxName);
+        if (primaryKey != null)
+            uniqueKeys.add(primaryKey);
 
-            if (containsTuple(indexInfo, newTuple)) {
-                throw new EventDispatchException(
-                    "Cannot add tuple due to unique constraint.");
-            }
-        }
+        uniqueKeys.addAll(schema.getCandidateKeys());
 
-        // Check candidate keys
-        for (KeyColumnRefs keyColIdx : candKeyList) {
-            idxName = keyColIdx.getIndexName();
-            indexInfo = indexManager.openIndex(tableInfo, idxName);
+        for (KeyColumnRefs uniqueKey : uniqueKeys) {
+            IndexInfo indexInfo =
+                indexManager.openIndex(tableInfo, uniqueKey.getIndexName());
 
-            if (containsTuple(indexInfo, newTuple)) {
-                throw new EventDispatchException(
-                    "Cannot add tuple due to unique constraint.");
+            HashSet<TupleLiteral> batchKeys = new HashSet<>();
+            for (Tuple newTuple : newTuples) {
+                if (containsTuple(indexInfo, newTuple) ||
+                    !addBatchKey(batchKeys, uniqueKey, newTuple)) {
+                    throw new EventDispatchException(
+                        "Cannot add tuple due to unique constraint.");
+                }
             }
         }
 
@@ -127,13 +141,43 @@ public class DatabaseConstraintEnforcer implements RowEventListener {
         // only contains values that appear in any referenced tables.
         List<ForeignKeyColumnRefs> foreignKeys = schema.getForeignKeys();
         for (ForeignKeyColumnRefs foreignKey : foreignKeys)
-            checkReferencedTableForValue(tableInfo, foreignKey, newTuple);
+            checkReferencedTableForValues(tableInfo, foreignKey, newTuples);
     }
 
 
+    /**
+     * Records the values of a unique key for a row of a batch being inserted.
+     *
+     * @return false if another row of the batch has the same key values, or
+     *         true otherwise.  Keys containing <tt>NULL</tt> never conflict.
+     */
+    private boolean addBatchKey(HashSet<TupleLiteral> batchKeys,
+                                KeyColumnRefs key, Tuple tuple) {
+        TupleLiteral keyValues = new TupleLiteral();
+        for (int i = 0; i < key.size(); i++) {
+            if (tuple.isNullValue(key.getCol(i)))
+                return true;
+
+            keyValues.addValue(tuple.getColumnValue(key.getCol(i)));
+        }
+
+        return batchKeys.add(keyValues);
+    }
+
+
+    /**
+     * Returns true if the index contains an entry with the same key values
+     * as the table tuple.  A key containing <tt>NULL</tt> never matches
+     * anything, so the index isn't searched for such keys.
+     */
     private boolean containsTuple(IndexInfo indexInfo, Tuple tableTuple)
         throws IOException {
 
+        if (IndexUtils.hasNullKeyValue(indexInfo.getTableColumnRefs(),
+                                       tableTuple)) {
+            return false;
+        }
+
         Tuple searchKey = IndexUtils.makeTableSearchKey(
             indexInfo.getTableColumnRefs(), tableTuple, false);
 
@@ -181,7 +225,8 @@ public class DatabaseConstraintEnforcer implements RowEventListener {
         // referenced tables.
         List<ForeignKeyColumnRefs> foreignKeys = schema.getForeignKeys();
         for (ForeignKeyColumnRefs foreignKey : foreignKeys)
-            checkReferencedTableForValue(tableInfo, foreignKey, newTuple);
+            checkReferencedTableForValues(tableInfo, foreignKey,
+                Collections.singletonList(newTuple));
 
         // Check if updating this tuple affects children tables via a foreign
         // key constraint.  Since the primary key is also a candidate key but
@@ -294,23 +339,26 @@ public class DatabaseConstraintEnforcer implements RowEventListener {
 
     /**
      * This helper function enforces a foreign key constraint by checking the
-     * referenced table to ensure that the tuple being added has values that
-     * appear in the referenced table.  This constraint enforcement is
+     * referenced table to ensure that the tuples being added have values
+     * that appear in the referenced table.  This constraint enforcement is
      * performed using an index on the referenced table; it is an error if
-     * there is no index to perform the check.
+     * there is no index to perform the check.  The referenced table and its
+     * index are opened once for all of the tuples, and each distinct value
+     * is only looked up once.
      *
-     * @param tableInfo the referencing table, to which the tuple is being
+     * @param tableInfo the referencing table, to which the tuples are being
      *        added
      *
      * @param foreignKey the foreign key constraint, which specifies both the
      *        referencing table's columns and the referenced table's columns
      *
-     * @param tuple the tuple being added to the referencing table
+     * @param tuples the tuples being added to the referencing table
      *
      * @throws IOException if an IO error occurs during the operation
      */
-    private void checkReferencedTableForValue(TableInfo tableInfo,
-        ForeignKeyColumnRefs foreignKey, Tuple tuple) throws IOException {
+    private void checkReferencedTableForValues(TableInfo tableInfo,
+        ForeignKeyColumnRefs foreignKey, List<? extends Tuple> tuples)
+        throws IOException {
 
         String tableName = tableInfo.getTableName();
         String referencedTableName = foreignKey.getRefTable();
@@ -339,17 +387,25 @@ public class DatabaseConstraintEnforcer implements RowEventListener {
 
         TupleFile tupleFile = referencedIndexInfo.getTupleFile();
 
-        // Create a tuple to probe the referenced table's index, so we can
-        // enforce referential integrity.
-        TupleLiteral probeTuple = new TupleLiteral();
-        for (int i = 0; i < foreignKey.size(); i++)
-            probeTuple.addValue(tuple.getColumnValue(foreignKey.getCol(i)));
-
-        if (IndexUtils.findTupleInIndex(probeTuple, tupleFile) == null) {
-            throw new ConstraintViolationException(String.format(
-                "Cannot insert tuple %s into table %s; violates foreign key" +
-                " constraint %s to referenced table %s", tuple, tableName,
-                foreignKey.getConstraintName(), referencedTableName));
+        HashSet<TupleLiteral> foundValues = new HashSet<>();
+        for (Tuple tuple : tuples) {
+            // Create a tuple to probe the referenced table's index, so we
+            // can enforce referential integrity.
+            TupleLiteral probeTuple = new TupleLiteral();
+            for (int i = 0; i < foreignKey.size(); i++)
+                probeTuple.addValue(tuple.getColumnValue(foreignKey.getCol(i)));
+
+            if (foundValues.contains(probeTuple))
+                continue;
+
+            if (IndexUtils.findTupleInIndex(probeTuple, tupleFile) == null) {
+                throw new ConstraintViolationException(String.format(
+                    "Cannot insert tuple %s into table %s; violates foreign key" +
+                    " constraint %s to referenced table %s", tuple, tableName,
+                    foreignKey.getConstraintName(), referencedTableName));
+            }
+
+            foundValues.add(probeTuple);
         }
     }
 
@@ -2,6 +2,9 @@ package edu.caltech.nanodb.indexes;
 
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 import org.apache.log4j.Logger;
 
@@ -52,20 +55,37 @@ public class IndexUpdater implements RowEventListener {
 
     @Override
     public void afterRowInserted(TableInfo tblFileInfo, Tuple newTuple) {
+        afterRowsInserted(tblFileInfo, Collections.singletonList(newTuple));
+    }
 
-        if (!(newTuple instanceof PageTuple)) {
-            throw new IllegalArgumentException(
-                "newTuple must be castable to PageTuple");
+
+    @Override
+    public void afterRowsInserted(TableInfo tblFileInfo,
+                                  List<? extends Tuple> newTuples) {
+
+        if (!hasIndexes(tblFileInfo))
+            return;
+
+        ArrayList<PageTuple> ptups = new ArrayList<>(newTuples.size());
+        for (Tuple newTuple : newTuples) {
+            if (!(newTuple instanceof PageTuple)) {
+                throw new IllegalArgumentException(
+                    "newTuple must be castable to PageTuple");
+            }
+            ptups.add((PageTuple) newTuple);
         }
 
-        // Add the new row to any indexes on the table.
-        addRowToIndexes(tblFileInfo, (PageTuple) newTuple);
+        // Add the new rows to any indexes on the table.
+        addRowsToIndexes(tblFileInfo, ptups);
     }
 
     @Override
     public void beforeRowUpdated(TableInfo tblFileInfo, Tuple oldTuple,
                                  Tuple newValues) {
 
+        if (!hasIndexes(tblFileInfo))
+            return;
+
         if (!(oldTuple instanceof PageTuple)) {
             throw new IllegalArgumentException(
                 "oldTuple must be castable to PageTuple");
@@ -79,17 +99,24 @@ public class IndexUpdater implements RowEventListener {
     public void afterRowUpdated(TableInfo tblFileInfo, Tuple oldValues,
                                 Tuple newTuple) {
 
+        if (!hasIndexes(tblFileInfo))
+            return;
+
         if (!(newTuple instanceof PageTuple)) {
             throw new IllegalArgumentException(
                 "newTuple must be castable to PageTuple");
         }
 
         // Add the new row to any indexes on the table.
-        addRowToIndexes(tblFileInfo, (PageTuple) newTuple);
+        addRowsToIndexes(tblFileInfo,
+            Collections.singletonList((PageTuple) newTuple));
     }
 
     @Override
     public void beforeRowDeleted(TableInfo tblFileInfo, Tuple oldTuple) {
+        if (!hasIndexes(tblFileInfo))
+            return;
+
         if (!(oldTuple instanceof PageTuple)) {
             throw new IllegalArgumentException(
                 "oldTuple must be castable to PageTuple");
@@ -106,17 +133,32 @@ public class IndexUpdater implements RowEventListener {
 
 
     /**
-     * This helper method handles the case when a tuple is being added to the
-     * table, after the row has already been added to the table.  All indexes
-     * on the table are updated to include the new row.
+     * Returns true if the table has any indexes to update.  Tables without
+     * indexes may be stored in files whose tuples aren't page tuples, such
+     * as columnar files, so they are left alone entirely.
      *
      * @param tblFileInfo details of the table being updated
      *
-     * @param ptup the new tuple that was inserted into the table
+     * @return true if the table has any indexes
      */
-    private void addRowToIndexes(TableInfo tblFileInfo, PageTuple ptup) {
-        logger.debug("Adding tuple " + ptup + " to indexes for table " +
-            tblFileInfo.getTableName());
+    private boolean hasIndexes(TableInfo tblFileInfo) {
+        return !tblFileInfo.getSchema().getIndexes().isEmpty();
+    }
+
+
+    /**
+     * This helper method handles the case when tuples are being added to the
+     * table, after the rows have already been added to the table.  All
+     * indexes on the table are updated to include the new rows.  Each index
+     * is opened once for all of the rows.
+     *
+     * @param tblFileInfo details of the table being updated
+     *
+     * @param ptups the new tuples that were inserted into the table
+     */
+    private void addRowsToIndexes(TableInfo tblFileInfo, List<PageTuple> ptups) {
+        logger.debug("Adding " + ptups.size() + " tuples to indexes for " +
+            "table " + tblFileInfo.getTableName());
 
         // Iterate over the indexes in the table.
         TableSchema schema = tblFileInfo.getSchema();
@@ -124,15 +166,38 @@ public class IndexUpdater implements RowEventListener {
             try {
                 IndexInfo indexInfo = indexManager.openIndex(tblFileInfo,
                     indexDef.getIndexName());
-
-                // TODO:  Implement!
-                //
-                // If the index is a unique index, then verify that there
-                // isn't already a tuple in the index with the same values
-                // (excluding the tuple-pointer column, of course).
-                //
-                // Finally, add a new tuple to the index, including the
-                // tuple-pointer to the tuple in the table.
+                TupleFile indexTupleFile = indexInfo.getTupleFile();
+
+                TableConstraintType constraintType =
+                    indexDef.getConstraintType();
+                boolean unique =
+                    (constraintType != null && constraintType.isUnique());
+
+                for (PageTuple ptup : ptups) {
+                    if (unique && !IndexUtils.hasNullKeyValue(indexDef, ptup)) {
+                        // Check if the index already has a tuple with this
+                        // value.  The search key doesn't include a tuple-
+                        // pointer, since we just want to see if the value is
+                        // repeated.  Keys containing NULL never conflict.
+                        TupleLiteral searchKey = IndexUtils.makeTableSearchKey(
+                            indexDef, ptup, /* findExactTuple */ false);
+
+                        PageTuple found = IndexUtils.findTupleInIndex(
+                            searchKey, indexTupleFile);
+                        if (found != null) {
+                            found.unpin();
+                            throw new IllegalStateException("Unique index " +
+                                indexDef.getIndexName() + " already contains " +
+                                "a tuple with the value " + searchKey);
+                        }
+                    }
+
+                    // Add the "index-schema" version of the tuple, including
+                    // the tuple-pointer to the tuple in the table.
+                    TupleLiteral idxTup = IndexUtils.makeTableSearchKey(
+                        indexDef, ptup, /* findExactTuple */ true);
+                    indexTupleFile.addTuple(idxTup).unpin();
+                }
             }
             catch (IOException e) {
                 throw new EventDispatchException("Couldn't update index " +
@@ -163,14 +228,22 @@ public class IndexUpdater implements RowEventListener {
             try {
                 IndexInfo indexInfo = indexManager.openIndex(tblFileInfo,
                     indexDef.getIndexName());
-
-                // TODO:  Implement!
-                //
-                // Find and remove the entry in this index, corresponding to
-                // the passed-in tuple.
-                //
-                // If the tuple doesn't appear in this index, throw an
-                // IllegalStateException to indicate that the index is bad.
+                TupleFile indexTupleFile = indexInfo.getTupleFile();
+
+                // Find the entry in this index for the passed-in tuple,
+                // including its tuple-pointer, and remove it.
+                TupleLiteral idxTup = IndexUtils.makeTableSearchKey(indexDef,
+                    ptup, /* findExactTuple */ true);
+
+                PageTuple found =
+                    IndexUtils.findTupleInIndex(idxTup, indexTupleFile);
+                if (found == null) {
+                    throw new IllegalStateException("Index " +
+                        indexDef.getIndexName() + " has no entry for tuple " +
+                        ptup + " at " + ptup.getExternalReference());
+                }
+
+                indexTupleFile.deleteTuple(found);
             }
             catch (IOException e) {
                 throw new EventDispatchException("Couldn't update index " +
@@ -274,6 +274,27 @@ public class IndexUtils {
     }
 
 
+    /**
+     * Returns true if any of the tuple's values for the specified columns is
+     * <tt>NULL</tt>.  A key containing <tt>NULL</tt> never equals another
+     * key, so such a key can't violate a unique constraint, and doesn't need
+     * to be looked up in a unique index.
+     *
+     * @param columnRefs the columns of the key
+     *
+     * @param tuple the tuple to examine
+     *
+     * @return true if any of the key's values in the tuple is <tt>NULL</tt>
+     */
+    public static boolean hasNullKeyValue(ColumnRefs columnRefs, Tuple tuple) {
+        for (int i = 0; i < columnRefs.size(); i++) {
+            if (tuple.isNullValue(columnRefs.getCol(i)))
+                return true;
+        }
+        return false;
+    }
+
+
     /**
      * Given an index tuple-file and a search key, this method attempts to
      * find the first tuple in the index that matches the search key.
@@ -0,0 +1,486 @@
+package edu.caltech.nanodb.plannodes;
+
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+import edu.caltech.nanodb.client.SessionState;
+import edu.caltech.nanodb.expressions.OrderByExpression;
+import edu.caltech.nanodb.queryeval.PlanCost;
+import edu.caltech.nanodb.relations.Tuple;
+import edu.caltech.nanodb.relations.TupleBatch;
+import edu.caltech.nanodb.server.performance.PerformanceCounters;
+
+
+/**
+ * <p>
+ * This plan node runs several copies of its subplan in parallel, and gathers
+ * their results into a single stream of tuples.  The subplan must be a
+ * pipeline of single-input nodes (projections, filters, renames, and
+ * possibly a grouping/aggregate node computing partial aggregates) over a
+ * {@link FileScanNode} that scans a heap table.  Each copy of the subplan is
+ * made with {@link PlanNode#duplicate}, and its file-scan is restricted to a
+ * contiguous range of the table's data pages, so that the copies produce
+ * disjoint parts of the result.
+ * </p>
+ * <p>
+ * The copies run as tasks in a shared {@link ForkJoinPool}, and pass their
+ * results to this node in batches through a bounded queue, so that workers
+ * can't get too far ahead of the node consuming the results.  The workers
+ * act on behalf of the session that runs the query, so that the pages they
+ * pin are released with the session's other pages at the end of the
+ * command.
+ * </p>
+ * <p>
+ * Since the workers produce their results in an unpredictable order, this
+ * node's results are unordered, and the node doesn't support marking.
+ * </p>
+ */
+public class ExchangeNode extends PlanNode {
+
+    /** A logging object for reporting anything interesting that happens. */
+    private static Logger logger = Logger.getLogger(ExchangeNode.class);
+
+
+    /**
+     * The number of batches each worker may have waiting in the queue before
+     * it must wait for this node to consume them.
+     */
+    private static final int BATCHES_PER_WORKER = 2;
+
+
+    /**
+     * A marker that each worker adds to the queue when it has finished
+     * producing results.
+     */
+    private static final TupleBatch END_OF_RESULTS = new TupleBatch(0, 1);
+
+
+    /** The pool shared by all exchange nodes for running their workers. */
+    private static ForkJoinPool pool;
+
+
+    /**
+     * Returns the pool used to run workers, creating it if necessary.
+     *
+     * @return the pool used to run workers
+     */
+    private static synchronized ForkJoinPool getPool() {
+        if (pool == null)
+            pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+        return pool;
+    }
+
+
+    /** The number of copies of the subplan to run in parallel. */
+    private int degree;
+
+
+    /** The queue of batches produced by the workers. */
+    private BlockingQueue<TupleBatch> queue;
+
+
+    /**
+     * A latch counted down by each worker when it finishes, so that the
+     * node can wait for its workers to stop.  This is <tt>null</tt> when no
+     * workers have been started.
+     */
+    private CountDownLatch workersDone;
+
+
+    /** The number of workers whose end-of-results marker has been seen. */
+    private int numFinished;
+
+
+    /** Set to true to tell the workers to stop producing results. */
+    private volatile boolean cancelled;
+
+
+    /** The first exception thrown by a worker, if any. */
+    private volatile Throwable failure;
+
+
+    /** True if all workers have finished and their results were consumed. */
+    private boolean done;
+
+
+    /** The batch that {@link #getNextTuple} is returning tuples from. */
+    private TupleBatch currentBatch;
+
+
+    /** The position of the next tuple to return from {@link #currentBatch}. */
+    private int currentPosition;
+
+
+    /**
+     * Constructs an exchange node that runs copies of the specified subplan
+     * in parallel.
+     *
+     * @param subplan the subplan to run in parallel
+     *
+     * @param degree the number of copies of the subplan to run
+     */
+    public ExchangeNode(PlanNode subplan, int degree) {
+        super(OperationType.EXCHANGE, subplan);
+
+        if (degree < 1) {
+            throw new IllegalArgumentException(
+                "degree must be positive; got " + degree);
+        }
+
+        this.degree = degree;
+    }
+
+
+    /**
+     * Returns the number of copies of the subplan this node runs in
+     * parallel.
+     *
+     * @return the number of copies of the subplan this node runs in parallel
+     */
+    public int getDegree() {
+        return degree;
+    }
+
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj instanceof ExchangeNode) {
+            ExchangeNode other = (ExchangeNode) obj;
+            return degree == other.degree && leftChild.equals(other.leftChild);
+        }
+
+        return false;
+    }
+
+
+    @Override
+    public int hashCode() {
+        int hash = 19;
+        hash = 31 * hash + degree;
+        hash = 31 * hash + leftChild.hashCode();
+        return hash;
+    }
+
+
+    /**
+     * Creates a copy of this exchange node and its subtree.  The copy has no
+     * workers running.
+     */
+    @Override
+    protected PlanNode clone() throws CloneNotSupportedException {
+        ExchangeNode node = (ExchangeNode) super.clone();
+        node.resetState();
+        return node;
+    }
+
+
+    @Override
+    public String toString() {
+        return "Exchange[degree:  " + degree + "]";
+    }
+
+
+    /** The workers produce their results in no particular order. */
+    public List<OrderByExpression> resultsOrderedBy() {
+        return null;
+    }
+
+
+    /** This node doesn't support marking. */
+    public boolean supportsMarking() {
+        return false;
+    }
+
+
+    /** This node doesn't require marking from its child. */
+    public boolean requiresLeftMarking() {
+        return false;
+    }
+
+
+    /** This node doesn't have a right child. */
+    public boolean requiresRightMarking() {
+        return false;
+    }
+
+
+    /** The workers pass their results to this node in batches. */
+    @Override
+    public boolean isVectorized() {
+        return true;
+    }
+
+
+    public void prepare() {
+        leftChild.prepare();
+
+        schema = leftChild.getSchema();
+        stats = leftChild.getStats();
+
+        // The workers do the same amount of work as the subplan would, but
+        // the CPU cost is shared among them.
+        PlanCost childCost = leftChild.getCost();
+        if (childCost != null) {
+            cost = new PlanCost(childCost);
+            cost.cpuCost /= degree;
+        }
+    }
+
+
+    public void initialize() {
+        super.initialize();
+
+        stopWorkers();
+        resetState();
+    }
+
+
+    public void cleanUp() {
+        stopWorkers();
+        resetState();
+    }
+
+
+    /** Clears the state used while the workers' results are consumed. */
+    private void resetState() {
+        queue = null;
+        workersDone = null;
+        numFinished = 0;
+        cancelled = false;
+        failure = null;
+        done = false;
+        currentBatch = null;
+        currentPosition = 0;
+    }
+
+
+    public Tuple getNextTuple() throws IllegalStateException, IOException {
+        while (currentBatch == null || currentPosition >= currentBatch.size()) {
+            currentBatch = getNextBatch();
+            currentPosition = 0;
+
+            if (currentBatch == null)
+                return null;
+        }
+
+        return currentBatch.getTuple(currentPosition++);
+    }
+
+
+    @Override
+    public TupleBatch getNextBatch() throws IllegalStateException, IOException {
+        if (done)
+            return null;
+
+        if (workersDone == null)
+            startWorkers();
+
+        while (true) {
+            TupleBatch batch;
+            try {
+                batch = queue.take();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for workers", e);
+            }
+
+            if (batch != END_OF_RESULTS)
+                return batch;
+
+            // A worker has finished.  If it failed, report the failure.
+            Throwable t = failure;
+            if (t != null) {
+                if (t instanceof IOException)
+                    throw (IOException) t;
+                else if (t instanceof RuntimeException)
+                    throw (RuntimeException) t;
+                else if (t instanceof Error)
+                    throw (Error) t;
+                else
+                    throw new IOException("Parallel worker failed", t);
+            }
+
+            numFinished++;
+            if (numFinished == degree) {
+                done = true;
+                return null;
+            }
+        }
+    }
+
+
+    /**
+     * Splits the data pages of the scanned table into one range per worker,
+     * and starts a worker for each range.
+     *
+     * @throws IOException if the number of pages in the table can't be
+     *         determined
+     */
+    private void startWorkers() throws IOException {
+        FileScanNode scan = findFileScan(leftChild);
+        int numPages = scan.getTableInfo().getTupleFile().getDBFile().getNumPages();
+
+        // Page 0 is the header page, so data pages start at page 1.
+        int numDataPages = Math.max(numPages - 1, 0);
+        int pagesPerWorker = (numDataPages + degree - 1) / degree;
+
+        logger.debug(String.format("Scanning %d data pages with %d workers",
+            numDataPages, degree));
+
+        queue = new ArrayBlockingQueue<>(degree * BATCHES_PER_WORKER + degree);
+        workersDone = new CountDownLatch(degree);
+
+        // Make and prepare all of the copies before starting any workers,
+        // so that the workers don't share any state while they run.
+        ArrayList<PlanNode> copies = new ArrayList<>(degree);
+        for (int i = 0; i < degree; i++) {
+            PlanNode copy = leftChild.duplicate();
+
+            int start = 1 + i * pagesPerWorker;
+            int end = Math.max(Math.min(start + pagesPerWorker, numDataPages + 1), start);
+            findFileScan(copy).setPageRange(start, end);
+
+            copy.prepare();
+            copies.add(copy);
+        }
+
+        SessionState session = SessionState.get();
+        ForkJoinPool workerPool = getPool();
+        for (PlanNode copy : copies)
+            workerPool.execute(() -> runWorker(copy, session));
+
+        PerformanceCounters.add(PerformanceCounters.PARALLEL_WORKERS, degree);
+    }
+
+
+    /**
+     * Runs one copy of the subplan, adding its results to the queue.  This
+     * method is run by the pool's threads.
+     *
+     * @param plan the copy of the subplan to run
+     *
+     * @param session the session of the thread running the query
+     */
+    private void runWorker(PlanNode plan, SessionState session) {
+        SessionState.set(session);
+        try {
+            plan.initialize();
+            try {
+                TupleBatch batch;
+                while (!cancelled && (batch = plan.getNextBatch()) != null) {
+                    if (batch.size() > 0)
+                        enqueue(batch);
+                }
+            }
+            finally {
+                plan.cleanUp();
+            }
+        }
+        catch (Throwable t) {
+            logger.error("Parallel worker failed", t);
+            if (failure == null)
+                failure = t;
+        }
+        finally {
+            SessionState.remove();
+
+            try {
+                enqueue(END_OF_RESULTS);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            workersDone.countDown();
+        }
+    }
+
+
+    /**
+     * Adds a batch to the queue, waiting for space if necessary.  If the
+     * node stops its workers, the batch is discarded.
+     *
+     * @param batch the batch to add to the queue
+     *
+     * @throws InterruptedException if the worker is interrupted
+     */
+    private void enqueue(TupleBatch batch) throws InterruptedException {
+        while (!cancelled) {
+            if (queue.offer(batch, 10, TimeUnit.MILLISECONDS))
+                return;
+        }
+    }
+
+
+    /**
+     * Tells any running workers to stop, and waits for them to finish, so
+     * that none of them is still using the table when the query completes.
+     */
+    private void stopWorkers() {
+        if (workersDone == null)
+            return;
+
+        cancelled = true;
+        queue.clear();
+        try {
+            workersDone.await();
+        }
+        catch (InterruptedException e) {
+            logger.warn("Interrupted while waiting for workers to stop");
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+    /**
+     * Returns the file-scan node at the bottom of a pipeline of single-input
+     * plan nodes.
+     *
+     * @param plan the pipeline to search
+     *
+     * @return the file-scan node at the bottom of the pipeline
+     *
+     * @throws IllegalStateException if the pipeline doesn't end with a
+     *         file-scan node
+     */
+    private static FileScanNode findFileScan(PlanNode plan) {
+        while (plan != null && !(plan instanceof FileScanNode)) {
+            if (plan.rightChild != null)
+                break;
+
+            plan = plan.leftChild;
+        }
+
+        if (!(plan instanceof FileScanNode)) {
+            throw new IllegalStateException(
+                "Exchange subplan must be a pipeline over a file-scan");
+        }
+
+        return (FileScanNode) plan;
+    }
+
+
+    /** This node doesn't support marking. */
+    public void markCurrentPosition() {
+        throw new UnsupportedOperationException(
+            "Exchange node doesn't support marking");
+    }
+
+
+    /** This node doesn't support marking. */
+    public void resetToLastMark() {
+        throw new UnsupportedOperationException(
+            "Exchange node doesn't support marking");
+    }
+}
@@ -4,6 +4,7 @@ package edu.caltech.nanodb.plannodes;
 import java.io.IOException;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 
 import org.apache.log4j.Logger;
@@ -13,12 +14,18 @@ import edu.caltech.nanodb.queryeval.ColumnStats;
 import edu.caltech.nanodb.queryeval.PlanCost;
 import edu.caltech.nanodb.queryeval.SelectivityEstimator;
 import edu.caltech.nanodb.queryeval.TableStats;
+import edu.caltech.nanodb.relations.SchemaNameException;
 import edu.caltech.nanodb.relations.TableInfo;
 import edu.caltech.nanodb.relations.Tuple;
+import edu.caltech.nanodb.relations.TupleBatch;
 import edu.caltech.nanodb.storage.FilePointer;
 import edu.caltech.nanodb.storage.TupleFile;
 import edu.caltech.nanodb.storage.InvalidFilePointerException;
+import edu.caltech.nanodb.storage.columnfile.ColumnarScan;
+import edu.caltech.nanodb.storage.columnfile.ColumnarTupleFile;
+import edu.caltech.nanodb.storage.heapfile.HeapTupleFile;
 
+import edu.caltech.nanodb.expressions.ColumnName;
 import edu.caltech.nanodb.expressions.Expression;
 import edu.caltech.nanodb.expressions.OrderByExpression;
 
@@ -71,6 +78,35 @@ public class FileScanNode extends SelectNode {
     private boolean jumpToMarkedTuple;
 
 
+    /**
+     * The first data page to scan, if the scan is restricted to a range of
+     * pages of a heap file; otherwise, 0.
+     */
+    private int startPage;
+
+
+    /**
+     * The page number just past the last page to scan, if the scan is
+     * restricted to a range of pages of a heap file.
+     */
+    private int endPage;
+
+
+    /**
+     * The indexes of the columns that the node's consumer uses, or
+     * <tt>null</tt> if all columns are used.
+     */
+    private int[] projectedColumns;
+
+
+    /**
+     * The scan that produces the node's batches when the table is stored in
+     * a columnar file, or <tt>null</tt> if batches aren't being produced
+     * that way.
+     */
+    private ColumnarScan columnarScan;
+
+
     /**
      * Construct a file scan node that traverses a table file.
      *
@@ -163,6 +199,60 @@ public class FileScanNode extends SelectNode {
     }
 
 
+    /**
+     * Returns the table-info for the table being scanned.
+     *
+     * @return the table-info for the table being scanned, or {@code null} if
+     *         the node is performing a scan over an index
+     */
+    public TableInfo getTableInfo() {
+        return tableInfo;
+    }
+
+
+    /**
+     * Restricts the scan to a range of data pages of a heap table file, so
+     * that the parts of a table can be scanned by several workers in
+     * parallel.  Data pages start at page 1.
+     *
+     * @param startPage the first data page to scan
+     *
+     * @param endPage the page number just past the last page to scan
+     *
+     * @throws IllegalStateException if the node doesn't scan a heap file
+     */
+    public void setPageRange(int startPage, int endPage) {
+        if (!(tupleFile instanceof HeapTupleFile)) {
+            throw new IllegalStateException(
+                "Only heap files can be scanned by page range");
+        }
+
+        if (startPage < 1 || endPage < startPage) {
+            throw new IllegalArgumentException(String.format(
+                "Invalid page range [%d, %d)", startPage, endPage));
+        }
+
+        this.startPage = startPage;
+        this.endPage = endPage;
+    }
+
+
+    /**
+     * Specifies the columns of this node's results that its consumer uses.
+     * Batches produced by the node only hold values for these columns, and
+     * any columns the predicate uses; the other columns are <tt>NULL</tt>,
+     * so that their values don't have to be decoded from the tuple file.
+     * For a columnar file, the other columns aren't even read.  The
+     * projection is cleared when the node is prepared.
+     *
+     * @param projectedColumns the indexes of the columns that are used, or
+     *        <tt>null</tt> if all columns are used
+     */
+    public void setProjectedColumns(int[] projectedColumns) {
+        this.projectedColumns = projectedColumns;
+    }
+
+
     @Override
     public String toString() {
         StringBuilder buf = new StringBuilder();
@@ -183,6 +273,9 @@ public class FileScanNode extends SelectNode {
         if (predicate != null)
             buf.append(", pred:  ").append(predicate.toString());
 
+        if (startPage > 0)
+            buf.append(", pages:  ").append(startPage).append('-').append(endPage - 1);
+
         buf.append("]");
 
         return buf.toString();
@@ -200,6 +293,13 @@ public class FileScanNode extends SelectNode {
     }
 
 
+    /** This node reads tuples from its file directly into batches. */
+    @Override
+    public boolean isVectorized() {
+        return true;
+    }
+
+
     /** This node supports marking. */
     public boolean supportsMarking() {
         return true;
@@ -223,6 +323,9 @@ public class FileScanNode extends SelectNode {
         // Grab the schema and statistics from the table file.
 
         schema = tupleFile.getSchema();
+        bindPredicate();
+
+        projectedColumns = null;
 
         TableStats tableStats = tupleFile.getStats();
         ArrayList<ColumnStats> fileStats = tableStats.getAllColumnStats();
@@ -230,9 +333,17 @@ public class FileScanNode extends SelectNode {
         // Get the cost of the plan node!
 
         // The cost here is just the cost of the table we are scanning through
-        // with the statistics of the table.
+        // with the statistics of the table.  For B+ tree files, only the
+        // leaf pages (and the path down to the first leaf) are read.
         cost = new PlanCost(tableStats.numTuples, tableStats.avgTupleSize,
-                tableStats.numTuples, tableStats.numDataPages);
+                tableStats.numTuples, tableStats.estimateScanIOs());
+
+        // Every tuple is still read, but only those satisfying the predicate
+        // are produced.
+        if (predicate != null) {
+            cost.numTuples *= SelectivityEstimator.estimateSelectivity(
+                predicate, schema, fileStats);
+        }
 
         // NOTE:  Normally we would also update the table statistics based on
         //        the predicate, but that's too complicated, so we'll leave
@@ -247,6 +358,66 @@ public class FileScanNode extends SelectNode {
         // Reset our marking state.
         markedTuple = null;
         jumpToMarkedTuple = false;
+
+        batchColumns = computeBatchColumns();
+        columnarScan = null;
+    }
+
+
+    /**
+     * Computes the columns that must be copied into each batch, which are
+     * the projected columns and the columns the predicate uses.
+     *
+     * @return the indexes of the columns to copy, in increasing order, or
+     *         <tt>null</tt> if all columns must be copied
+     */
+    private int[] computeBatchColumns() {
+        if (projectedColumns == null)
+            return null;
+
+        // A subquery in the predicate may refer to any column.
+        if (PlanUtils.hasSubquery(predicate))
+            return null;
+
+        boolean[] used = new boolean[schema.numColumns()];
+        for (int iCol : projectedColumns)
+            used[iCol] = true;
+
+        if (predicate != null) {
+            HashSet<ColumnName> symbols = new HashSet<>();
+            predicate.getAllSymbols(symbols);
+            for (ColumnName colName : symbols) {
+                int iCol;
+                try {
+                    iCol = schema.getColumnIndex(colName);
+                }
+                catch (SchemaNameException e) {
+                    return null;
+                }
+
+                // Columns of enclosing queries aren't in the schema.
+                if (iCol != -1)
+                    used[iCol] = true;
+            }
+        }
+
+        int numUsed = 0;
+        for (boolean u : used) {
+            if (u)
+                numUsed++;
+        }
+
+        if (numUsed == used.length)
+            return null;
+
+        int[] columns = new int[numUsed];
+        int i = 0;
+        for (int iCol = 0; iCol < used.length; iCol++) {
+            if (used[iCol])
+                columns[i++] = iCol;
+        }
+
+        return columns;
     }
 
 
@@ -277,13 +448,40 @@ public class FileScanNode extends SelectNode {
             return;
         }
 
-        if (currentTuple == null)   // Get the first tuple.
+        if (startPage > 0) {
+            // Only scan the specified range of pages.
+            HeapTupleFile heapFile = (HeapTupleFile) tupleFile;
+            if (currentTuple == null)
+                currentTuple = heapFile.getFirstTupleInRange(startPage, endPage);
+            else
+                currentTuple = heapFile.getNextTupleInRange(currentTuple, endPage);
+        }
+        else if (currentTuple == null)   // Get the first tuple.
             currentTuple = tupleFile.getFirstTuple();
-        else                        // Get the next tuple.
+        else                             // Get the next tuple.
             currentTuple = tupleFile.getNextTuple(currentTuple);
     }
 
 
+    /**
+     * Produces the next batch of candidate tuples.  Columnar files are read
+     * a row group at a time, only reading the columns in
+     * {@link #batchColumns}, and skipping row groups whose column statistics
+     * rule out the predicate; other files are read a tuple at a time.
+     */
+    @Override
+    protected TupleBatch advanceCurrentBatch() throws IOException {
+        if (!(tupleFile instanceof ColumnarTupleFile))
+            return super.advanceCurrentBatch();
+
+        if (columnarScan == null) {
+            columnarScan = new ColumnarScan((ColumnarTupleFile) tupleFile,
+                batchColumns, predicate);
+        }
+        return columnarScan.nextBatch();
+    }
+
+
     public void markCurrentPosition() {
         if (currentTuple == null)
             throw new IllegalStateException("There is no current tuple!");
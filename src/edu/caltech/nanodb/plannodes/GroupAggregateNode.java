@@ -1,7 +1,9 @@
 package edu.caltech.nanodb.plannodes;
 
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -22,6 +24,7 @@ import edu.caltech.nanodb.queryeval.ColumnStats;
 
 import edu.caltech.nanodb.relations.ColumnInfo;
 import edu.caltech.nanodb.relations.Schema;
+import edu.caltech.nanodb.relations.TupleBatch;
 
 
 /**
@@ -64,6 +67,21 @@ public abstract class GroupAggregateNode extends PlanNode {
     protected int estimatedNumTuples;
 
 
+    /**
+     * The batch of input tuples currently being consumed by
+     * {@link #nextInputRow}, or <tt>null</tt> if a batch must be retrieved.
+     */
+    private TupleBatch inputBatch;
+
+
+    /** The position of the next row to consume from {@link #inputBatch}. */
+    private int inputPosition;
+
+
+    /** A view of the current row of {@link #inputBatch}. */
+    private TupleBatch.RowView inputRow;
+
+
     protected GroupAggregateNode(PlanNode subplan,
         List<Expression> groupByExprs, Map<String, FunctionCall> aggregates) {
 
@@ -87,6 +105,31 @@ public abstract class GroupAggregateNode extends PlanNode {
     }
 
 
+    /**
+     * Creates a copy of this grouping/aggregate node and its subtree.  The
+     * grouping and aggregate expressions are copied too, since they are
+     * bound to the node's input schema when the node is prepared.
+     */
+    @Override
+    protected PlanNode clone() throws CloneNotSupportedException {
+        GroupAggregateNode node = (GroupAggregateNode) super.clone();
+
+        node.groupByExprs = new ArrayList<>();
+        for (Expression expr : groupByExprs)
+            node.groupByExprs.add(expr.duplicate());
+
+        node.aggregates = new LinkedHashMap<>();
+        for (Map.Entry<String, FunctionCall> entry : aggregates.entrySet()) {
+            node.aggregates.put(entry.getKey(),
+                (FunctionCall) entry.getValue().duplicate());
+        }
+
+        node.resetInput();
+
+        return node;
+    }
+
+
     /**
      * This helper function computes the schema of the grouping/aggregate
      * plan-node, based on the schema of its child-plan, and also the
@@ -173,6 +216,14 @@ public abstract class GroupAggregateNode extends PlanNode {
 
         estimatedNumTuples = numTuples;
 
+        // Bind the column references of the grouping and aggregate
+        // expressions to the input tuples.
+        for (Expression expr : groupByExprs)
+            expr.bindColumns(inputSchema);
+
+        for (FunctionCall call : aggregates.values())
+            call.bindColumns(inputSchema);
+
         logger.info("Grouping/aggregate node schema:  " + schema);
         logger.info("Grouping/aggregate node stats:  " + stats);
         logger.info("Grouping/aggregate node estimated tuples:  " +
@@ -180,6 +231,57 @@ public abstract class GroupAggregateNode extends PlanNode {
     }
 
 
+    /**
+     * Clears the state used by {@link #nextInputRow}, so that input is
+     * consumed from the start of a new batch.  Subclasses should call this
+     * when they are initialized or cleaned up.
+     */
+    protected void resetInput() {
+        inputBatch = null;
+        inputPosition = 0;
+        inputRow = null;
+    }
+
+
+    /**
+     * <p>
+     * This helper method advances to the next input tuple, and sets up the
+     * plan node's {@link Environment} to refer to it, so that the group-by
+     * and aggregate expressions can be evaluated.
+     * </p>
+     * <p>
+     * The subplan's tuples are retrieved in batches with
+     * {@link PlanNode#getNextBatch}.  The environment refers to a view of
+     * the current batch's rows, so it is only set up when a new batch is
+     * retrieved, and the input tuples never need to be unpinned.
+     * </p>
+     *
+     * @return true if the environment refers to the next input tuple, or
+     *         false if the subplan has no more tuples
+     *
+     * @throws IOException if the subplan cannot read its tuples
+     */
+    protected boolean nextInputRow() throws IOException {
+        while (inputBatch == null || inputPosition >= inputBatch.size()) {
+            inputBatch = leftChild.getNextBatch();
+            inputPosition = 0;
+
+            if (inputBatch == null) {
+                inputRow = null;
+                return false;
+            }
+
+            inputRow = inputBatch.newRowView();
+            environment.clear();
+            environment.addTuple(inputSchema, inputRow);
+        }
+
+        inputRow.setRow(inputBatch.getRowIndex(inputPosition));
+        inputPosition++;
+        return true;
+    }
+
+
     /**
      * <p>
      * This helper method computes the value of each group-by expression and
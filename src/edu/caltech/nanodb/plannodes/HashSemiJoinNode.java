@@ -0,0 +1,621 @@
+package edu.caltech.nanodb.plannodes;
+
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+import edu.caltech.nanodb.expressions.Expression;
+import edu.caltech.nanodb.expressions.ExpressionCompiler;
+import edu.caltech.nanodb.expressions.OrderByExpression;
+import edu.caltech.nanodb.expressions.TupleLiteral;
+import edu.caltech.nanodb.expressions.TypeConverter;
+import edu.caltech.nanodb.queryeval.PlanCost;
+import edu.caltech.nanodb.relations.JoinType;
+import edu.caltech.nanodb.relations.Schema;
+import edu.caltech.nanodb.relations.Tuple;
+
+
+/**
+ * <p>
+ * This plan node implements semijoins and antijoins using a hash table.  The
+ * planner produces these joins from <tt>IN</tt>, <tt>EXISTS</tt>,
+ * <tt>NOT IN</tt> and <tt>NOT EXISTS</tt> predicates, so that a subquery is
+ * evaluated once, rather than once for every row of the enclosing query.
+ * </p>
+ * <p>
+ * The right subplan is read into a hash table keyed on the values of the
+ * right key-expressions.  Each tuple of the left subplan is then produced if
+ * (for a semijoin) or unless (for an antijoin) some right tuple has the same
+ * key values and satisfies the optional residual predicate.  The residual
+ * predicate is evaluated against the left tuple and then the right tuple.
+ * Tuples whose key values include <tt>NULL</tt> never match anything.
+ * </p>
+ * <p>
+ * An antijoin may be <em>null-aware</em>, which gives it the semantics of
+ * <tt>NOT IN</tt>:  a left tuple is also not produced if its key is
+ * <tt>NULL</tt> and some right tuple satisfies the residual predicate, or if
+ * some right tuple with a <tt>NULL</tt> key satisfies it, since the result
+ * of <tt>NOT IN</tt> is then unknown.  A null-aware antijoin must have
+ * exactly one key.
+ * </p>
+ * <p>
+ * The node produces the tuples of the left subplan, in the same order.
+ * </p>
+ */
+public class HashSemiJoinNode extends PlanNode {
+
+    /** A logging object for reporting anything interesting that happens. */
+    private static Logger logger = Logger.getLogger(HashSemiJoinNode.class);
+
+
+    /**
+     * The fraction of left tuples that are estimated to have a match, since
+     * there is currently no better way to estimate it.
+     */
+    private static final float MATCH_SELECTIVITY = 0.5f;
+
+
+    /** The type of the join, either a semijoin or an antijoin. */
+    private JoinType joinType;
+
+
+    /** The key expressions evaluated against the left subplan's tuples. */
+    private List<Expression> leftKeys;
+
+
+    /** The key expressions evaluated against the right subplan's tuples. */
+    private List<Expression> rightKeys;
+
+
+    /**
+     * The residual predicate that matching tuples must also satisfy, or
+     * <tt>null</tt> if tuples match when their keys are equal.
+     */
+    private Expression predicate;
+
+
+    /** True if this is a null-aware antijoin, implementing <tt>NOT IN</tt>. */
+    private boolean nullAware;
+
+
+    /** The schema of the left subplan. */
+    private Schema leftSchema;
+
+
+    /** The schema of the right subplan. */
+    private Schema rightSchema;
+
+
+    /** The compiled left key-expressions. */
+    private ExpressionCompiler.CompiledExpression[] compiledLeftKeys;
+
+
+    /** The compiled right key-expressions. */
+    private ExpressionCompiler.CompiledExpression[] compiledRightKeys;
+
+
+    /** The compiled residual predicate. */
+    private ExpressionCompiler.CompiledPredicate compiledPredicate;
+
+
+    /**
+     * The right subplan's tuples, keyed on their key values.  If there is no
+     * residual predicate then only the keys are needed, and the values are
+     * <tt>null</tt>.  This is <tt>null</tt> until the right subplan has been
+     * read.
+     */
+    private HashMap<Object, List<Tuple>> rightTuples;
+
+
+    /**
+     * For null-aware antijoins with a residual predicate, the right tuples
+     * whose key is <tt>NULL</tt>.
+     */
+    private List<Tuple> nullKeyTuples;
+
+
+    /**
+     * For null-aware antijoins with a residual predicate, all of the right
+     * tuples, which are examined for left tuples whose key is <tt>NULL</tt>.
+     */
+    private List<Tuple> allRightTuples;
+
+
+    /** True if the right subplan produced any tuples. */
+    private boolean hasRightTuples;
+
+
+    /** True if the right subplan produced any tuples with a <tt>NULL</tt> key. */
+    private boolean hasNullKey;
+
+
+    /** True when all of the left subplan's tuples have been examined. */
+    private boolean done;
+
+
+    /**
+     * Constructs a hash semijoin or antijoin.
+     *
+     * @param leftChild the subplan producing the tuples that are filtered
+     *
+     * @param rightChild the subplan producing the tuples to match against
+     *
+     * @param joinType either {@link JoinType#SEMIJOIN} or
+     *        {@link JoinType#ANTIJOIN}
+     *
+     * @param leftKeys the key expressions for the left subplan's tuples
+     *
+     * @param rightKeys the key expressions for the right subplan's tuples,
+     *        corresponding to the left key-expressions
+     *
+     * @param predicate an optional residual predicate, or <tt>null</tt>
+     *
+     * @param nullAware true for a null-aware antijoin, implementing
+     *        <tt>NOT IN</tt>
+     */
+    public HashSemiJoinNode(PlanNode leftChild, PlanNode rightChild,
+        JoinType joinType, List<Expression> leftKeys, List<Expression> rightKeys,
+        Expression predicate, boolean nullAware) {
+
+        super(OperationType.THETA_JOIN, leftChild, rightChild);
+
+        if (joinType != JoinType.SEMIJOIN && joinType != JoinType.ANTIJOIN) {
+            throw new IllegalArgumentException(
+                "joinType must be SEMIJOIN or ANTIJOIN; got " + joinType);
+        }
+
+        if (leftKeys == null || rightKeys == null)
+            throw new IllegalArgumentException("keys cannot be null");
+
+        if (leftKeys.size() != rightKeys.size()) {
+            throw new IllegalArgumentException(
+                "leftKeys and rightKeys must be the same size");
+        }
+
+        if (nullAware && (joinType != JoinType.ANTIJOIN || leftKeys.size() != 1)) {
+            throw new IllegalArgumentException(
+                "Only antijoins with one key can be null-aware");
+        }
+
+        this.joinType = joinType;
+        this.leftKeys = new ArrayList<>(leftKeys);
+        this.rightKeys = new ArrayList<>(rightKeys);
+        this.predicate = predicate;
+        this.nullAware = nullAware;
+    }
+
+
+    /**
+     * Returns the type of this join.
+     *
+     * @return either {@link JoinType#SEMIJOIN} or {@link JoinType#ANTIJOIN}
+     */
+    public JoinType getJoinType() {
+        return joinType;
+    }
+
+
+    /**
+     * Returns true if this is a null-aware antijoin.
+     *
+     * @return true if this is a null-aware antijoin
+     */
+    public boolean isNullAware() {
+        return nullAware;
+    }
+
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj instanceof HashSemiJoinNode) {
+            HashSemiJoinNode other = (HashSemiJoinNode) obj;
+
+            return joinType == other.joinType &&
+                nullAware == other.nullAware &&
+                leftKeys.equals(other.leftKeys) &&
+                rightKeys.equals(other.rightKeys) &&
+                (predicate != null ? predicate.equals(other.predicate) :
+                                     other.predicate == null) &&
+                leftChild.equals(other.leftChild) &&
+                rightChild.equals(other.rightChild);
+        }
+
+        return false;
+    }
+
+
+    @Override
+    public int hashCode() {
+        int hash = 13;
+        hash = 31 * hash + joinType.hashCode();
+        hash = 31 * hash + (nullAware ? 1 : 0);
+        hash = 31 * hash + leftKeys.hashCode();
+        hash = 31 * hash + rightKeys.hashCode();
+        hash = 31 * hash + (predicate != null ? predicate.hashCode() : 0);
+        hash = 31 * hash + leftChild.hashCode();
+        hash = 31 * hash + rightChild.hashCode();
+        return hash;
+    }
+
+
+    @Override
+    public String toString() {
+        StringBuilder buf = new StringBuilder();
+
+        if (joinType == JoinType.SEMIJOIN)
+            buf.append("HashSemiJoin[");
+        else
+            buf.append("HashAntiJoin[");
+
+        if (!leftKeys.isEmpty()) {
+            buf.append("keys:  ").append(leftKeys);
+            buf.append(" = ").append(rightKeys);
+        }
+        else {
+            buf.append("no keys");
+        }
+
+        if (predicate != null)
+            buf.append(", pred:  ").append(predicate);
+
+        if (nullAware)
+            buf.append(" (null-aware)");
+
+        buf.append(']');
+
+        return buf.toString();
+    }
+
+
+    /**
+     * Creates a copy of this plan node and its subtrees.  The copy's hash
+     * table is built again when it is used.
+     */
+    @Override
+    protected PlanNode clone() throws CloneNotSupportedException {
+        HashSemiJoinNode node = (HashSemiJoinNode) super.clone();
+
+        node.leftKeys = new ArrayList<>();
+        for (Expression e : leftKeys)
+            node.leftKeys.add(e.duplicate());
+
+        node.rightKeys = new ArrayList<>();
+        for (Expression e : rightKeys)
+            node.rightKeys.add(e.duplicate());
+
+        if (predicate != null)
+            node.predicate = predicate.duplicate();
+
+        node.compiledLeftKeys = null;
+        node.compiledRightKeys = null;
+        node.compiledPredicate = null;
+        node.clearHashTable();
+
+        return node;
+    }
+
+
+    /** The results are produced in the same order as the left subplan's. */
+    public List<OrderByExpression> resultsOrderedBy() {
+        return leftChild.resultsOrderedBy();
+    }
+
+
+    /** This node doesn't support marking. */
+    public boolean supportsMarking() {
+        return false;
+    }
+
+
+    /** This node doesn't require marking from its left child. */
+    public boolean requiresLeftMarking() {
+        return false;
+    }
+
+
+    /**
+     * This node doesn't require marking from its right child, since the
+     * right child's tuples are read into a hash table.
+     */
+    public boolean requiresRightMarking() {
+        return false;
+    }
+
+
+    public void prepare() {
+        leftChild.prepare();
+        rightChild.prepare();
+
+        leftSchema = leftChild.getSchema();
+        rightSchema = rightChild.getSchema();
+
+        // The node produces the left subplan's tuples.
+        schema = leftSchema;
+        stats = leftChild.getStats();
+
+        for (Expression e : leftKeys)
+            e.bindColumns(leftSchema);
+
+        for (Expression e : rightKeys)
+            e.bindColumns(rightSchema);
+
+        // The predicate is evaluated against the left tuple and then the
+        // right tuple, so bind its column references in that order.
+        if (predicate != null)
+            predicate.bindColumns(leftSchema, rightSchema);
+
+        // The bindings are captured when the expressions are compiled.
+        compiledLeftKeys = null;
+        compiledRightKeys = null;
+        compiledPredicate = null;
+
+        // Each subplan is read once, and each tuple is hashed once.
+        PlanCost leftCost = leftChild.getCost();
+        PlanCost rightCost = rightChild.getCost();
+        if (leftCost != null && rightCost != null) {
+            cost = new PlanCost(leftCost.numTuples * MATCH_SELECTIVITY,
+                leftCost.tupleSize,
+                leftCost.cpuCost + rightCost.cpuCost + leftCost.numTuples +
+                    rightCost.numTuples,
+                leftCost.numBlockIOs + rightCost.numBlockIOs);
+        }
+        else {
+            logger.debug(
+                "Child's cost not available; not computing this node's cost.");
+        }
+    }
+
+
+    public void initialize() {
+        super.initialize();
+
+        // The right subplan doesn't depend on the left subplan's tuples, so
+        // its hash table is kept if the node is initialized again.
+        leftChild.initialize();
+        done = false;
+    }
+
+
+    public Tuple getNextTuple() throws IllegalStateException, IOException {
+        if (done)
+            return null;
+
+        if (rightTuples == null)
+            buildHashTable();
+
+        boolean wantMatch = (joinType == JoinType.SEMIJOIN);
+        while (true) {
+            Tuple leftTuple = leftChild.getNextTuple();
+            if (leftTuple == null) {
+                done = true;
+                return null;
+            }
+
+            if (hasMatch(leftTuple) == wantMatch)
+                return leftTuple;
+
+            leftTuple.unpin();
+        }
+    }
+
+
+    /** Compiles the key-expressions and the predicate. */
+    private void compileExpressions() {
+        compiledLeftKeys = new ExpressionCompiler.CompiledExpression[leftKeys.size()];
+        compiledRightKeys = new ExpressionCompiler.CompiledExpression[rightKeys.size()];
+        for (int i = 0; i < leftKeys.size(); i++) {
+            compiledLeftKeys[i] = ExpressionCompiler.compile(leftKeys.get(i));
+            compiledRightKeys[i] = ExpressionCompiler.compile(rightKeys.get(i));
+        }
+
+        if (predicate != null)
+            compiledPredicate = ExpressionCompiler.compilePredicate(predicate);
+    }
+
+
+    /**
+     * Reads all of the right subplan's tuples into the hash table.
+     *
+     * @throws IOException if the right subplan can't be read
+     */
+    private void buildHashTable() throws IOException {
+        if (compiledLeftKeys == null)
+            compileExpressions();
+
+        rightTuples = new HashMap<>();
+        nullKeyTuples = new ArrayList<>();
+        if (nullAware && predicate != null)
+            allRightTuples = new ArrayList<>();
+
+        hasRightTuples = false;
+        hasNullKey = false;
+
+        rightChild.initialize();
+        try {
+            while (true) {
+                Tuple tuple = rightChild.getNextTuple();
+                if (tuple == null)
+                    break;
+
+                hasRightTuples = true;
+                Object key = computeKey(compiledRightKeys, rightSchema, tuple);
+
+                if (predicate == null) {
+                    // Only the keys are needed.
+                    tuple.unpin();
+                    if (key == null)
+                        hasNullKey = true;
+                    else
+                        rightTuples.put(key, null);
+
+                    // Without keys, the first tuple matches every left tuple.
+                    if (rightKeys.isEmpty())
+                        break;
+
+                    continue;
+                }
+
+                // The residual predicate needs the tuple's values, so copy
+                // them out of the tuple.
+                TupleLiteral copy = new TupleLiteral(tuple);
+                tuple.unpin();
+
+                if (key == null) {
+                    hasNullKey = true;
+                    if (nullAware)
+                        nullKeyTuples.add(copy);
+                }
+                else {
+                    rightTuples.computeIfAbsent(key, k -> new ArrayList<>()).add(copy);
+                }
+
+                if (allRightTuples != null)
+                    allRightTuples.add(copy);
+            }
+        }
+        finally {
+            rightChild.cleanUp();
+        }
+
+        logger.debug(String.format("Built hash table with %d keys from %s",
+            rightTuples.size(), rightChild));
+    }
+
+
+    /**
+     * Computes the key of a tuple, which is the single key value if there is
+     * one key, or a list of the key values otherwise.  Key values are
+     * normalized with {@link TypeConverter#getHashKey}, so that values of
+     * different numeric types that are equal have the same key.
+     *
+     * @param keys the compiled key-expressions
+     *
+     * @param tupleSchema the schema of the tuple
+     *
+     * @param tuple the tuple to compute the key of
+     *
+     * @return the key of the tuple, or <tt>null</tt> if any key value is
+     *         <tt>NULL</tt>
+     */
+    private Object computeKey(ExpressionCompiler.CompiledExpression[] keys,
+                              Schema tupleSchema, Tuple tuple) {
+        if (keys.length == 0)
+            return Collections.emptyList();
+
+        environment.clear();
+        environment.addTuple(tupleSchema, tuple);
+
+        if (keys.length == 1)
+            return TypeConverter.getHashKey(keys[0].evaluate(environment));
+
+        ArrayList<Object> values = new ArrayList<>(keys.length);
+        for (ExpressionCompiler.CompiledExpression key : keys) {
+            Object value = key.evaluate(environment);
+            if (value == null)
+                return null;
+
+            values.add(TypeConverter.getHashKey(value));
+        }
+        return values;
+    }
+
+
+    /**
+     * Returns true if some right tuple matches the specified left tuple.
+     * For null-aware antijoins, this is also true if it is unknown whether
+     * the left tuple matches, so that the tuple isn't produced.
+     *
+     * @param leftTuple the left tuple to find a match for
+     *
+     * @return true if the left tuple has a match
+     */
+    private boolean hasMatch(Tuple leftTuple) {
+        Object key = computeKey(compiledLeftKeys, leftSchema, leftTuple);
+
+        if (key == null) {
+            // A NULL key doesn't equal anything, but for NOT IN the result
+            // is unknown unless there are no right tuples to compare to.
+            if (!nullAware)
+                return false;
+
+            if (predicate == null)
+                return hasRightTuples;
+
+            return anySatisfyPredicate(leftTuple, allRightTuples);
+        }
+
+        if (predicate == null) {
+            if (rightTuples.containsKey(key))
+                return true;
+
+            return nullAware && hasNullKey;
+        }
+
+        if (anySatisfyPredicate(leftTuple, rightTuples.get(key)))
+            return true;
+
+        return nullAware && anySatisfyPredicate(leftTuple, nullKeyTuples);
+    }
+
+
+    /**
+     * Returns true if the residual predicate is satisfied by the left tuple
+     * and any of the specified right tuples.
+     *
+     * @param leftTuple the left tuple
+     *
+     * @param candidates the right tuples, or <tt>null</tt> if there are none
+     *
+     * @return true if any of the right tuples satisfies the predicate
+     */
+    private boolean anySatisfyPredicate(Tuple leftTuple, List<Tuple> candidates) {
+        if (candidates == null)
+            return false;
+
+        for (Tuple rightTuple : candidates) {
+            environment.clear();
+            environment.addTuple(leftSchema, leftTuple);
+            environment.addTuple(rightSchema, rightTuple);
+
+            if (compiledPredicate.evaluate(environment))
+                return true;
+        }
+
+        return false;
+    }
+
+
+    /** Discards the hash table, so that it is built again when needed. */
+    private void clearHashTable() {
+        rightTuples = null;
+        nullKeyTuples = null;
+        allRightTuples = null;
+        hasRightTuples = false;
+        hasNullKey = false;
+    }
+
+
+    /** This node doesn't support marking. */
+    public void markCurrentPosition() {
+        throw new UnsupportedOperationException(
+            "Hash semijoin node doesn't support marking");
+    }
+
+
+    /** This node doesn't support marking. */
+    public void resetToLastMark() {
+        throw new UnsupportedOperationException(
+            "Hash semijoin node doesn't support marking");
+    }
+
+
+    public void cleanUp() {
+        leftChild.cleanUp();
+        clearHashTable();
+    }
+}
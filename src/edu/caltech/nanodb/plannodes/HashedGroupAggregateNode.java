@@ -156,15 +156,10 @@ public class HashedGroupAggregateNode extends GroupAggregateNode {
      * @throws IOException
      */
     private void computeAggregates() throws IOException {
-        Tuple inputTuple;
-
         computedAggregates = new LinkedHashMap<>();
 
         // Pull tuples from the left child until we run out.
-        while ((inputTuple = leftChild.getNextTuple()) != null) {
-            environment.clear();
-            environment.addTuple(inputSchema, inputTuple);
-
+        while (nextInputRow()) {
             // Get the group values for the current row.
             TupleLiteral groupValues = evaluateGroupByExprs();
 
@@ -192,9 +187,6 @@ public class HashedGroupAggregateNode extends GroupAggregateNode {
             // do the computation, update each aggregate with the tuple's
             // current value.
             updateAggregates(groupAggregates);
-
-            // Now that we are done with the current tuple, unpin it.
-            inputTuple.unpin();
         }
     }
 
@@ -245,6 +237,7 @@ public class HashedGroupAggregateNode extends GroupAggregateNode {
         computedAggregates = null;
         groupIterator = null;
         done = false;
+        resetInput();
 
         leftChild.initialize();
     }
@@ -280,6 +273,7 @@ public class HashedGroupAggregateNode extends GroupAggregateNode {
         // Clear our state.
         computedAggregates = null;
         groupIterator = null;
+        resetInput();
         leftChild.cleanUp();
     }
 }
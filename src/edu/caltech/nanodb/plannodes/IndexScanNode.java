@@ -0,0 +1,505 @@
+package edu.caltech.nanodb.plannodes;
+
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+import edu.caltech.nanodb.expressions.Expression;
+import edu.caltech.nanodb.expressions.OrderByExpression;
+import edu.caltech.nanodb.expressions.TupleLiteral;
+import edu.caltech.nanodb.expressions.TypeConverter;
+import edu.caltech.nanodb.indexes.IndexInfo;
+import edu.caltech.nanodb.queryeval.ColumnStats;
+import edu.caltech.nanodb.queryeval.PlanCost;
+import edu.caltech.nanodb.queryeval.SelectivityEstimator;
+import edu.caltech.nanodb.queryeval.TableStats;
+import edu.caltech.nanodb.relations.TableInfo;
+import edu.caltech.nanodb.relations.Tuple;
+import edu.caltech.nanodb.storage.FilePointer;
+import edu.caltech.nanodb.storage.InvalidFilePointerException;
+import edu.caltech.nanodb.storage.SequentialTupleFile;
+import edu.caltech.nanodb.storage.TupleFile;
+
+
+/**
+ * <p>
+ * A select plan-node that uses an ordered index to find the tuples of a
+ * table whose values in the index's first column fall into one or more key
+ * ranges, and then checks the optional predicate against each tuple.  A
+ * range may be a single key, so several ranges can be used to look up the
+ * values of an <tt>IN</tt> list, or a prefix of strings, so that
+ * <tt>col LIKE 'abc%'</tt> can be evaluated by scanning the keys from
+ * <tt>'abc'</tt> up to (but not including) <tt>'abd'</tt>.
+ * </p>
+ * <p>
+ * The key ranges only narrow down which tuples are examined; the predicate
+ * must still include the conditions the ranges were derived from, since
+ * they are checked against every tuple that the index produces.  The ranges
+ * must be in increasing order and must not overlap, so that each tuple is
+ * produced at most once.
+ * </p>
+ */
+public class IndexScanNode extends SelectNode {
+
+    /** A logging object for reporting anything interesting that happens. */
+    private static Logger logger = Logger.getLogger(IndexScanNode.class);
+
+
+    /**
+     * A range of values of an index's first column.  Either end of the range
+     * may be unbounded, and each bound may be inclusive or exclusive.
+     * Ranges are immutable.
+     */
+    public static class KeyRange {
+        /** The lower bound of the range, or <tt>null</tt> if unbounded. */
+        private final Object low;
+
+        /** True if the lower bound is part of the range. */
+        private final boolean lowInclusive;
+
+        /** The upper bound of the range, or <tt>null</tt> if unbounded. */
+        private final Object high;
+
+        /** True if the upper bound is part of the range. */
+        private final boolean highInclusive;
+
+
+        /**
+         * Constructs a range of key values.
+         *
+         * @param low the lower bound of the range, or <tt>null</tt> if the
+         *        range has no lower bound
+         *
+         * @param lowInclusive true if the lower bound is in the range
+         *
+         * @param high the upper bound of the range, or <tt>null</tt> if the
+         *        range has no upper bound
+         *
+         * @param highInclusive true if the upper bound is in the range
+         */
+        public KeyRange(Object low, boolean lowInclusive, Object high,
+                        boolean highInclusive) {
+            this.low = low;
+            this.lowInclusive = lowInclusive;
+            this.high = high;
+            this.highInclusive = highInclusive;
+        }
+
+
+        /**
+         * Constructs a range holding a single key value.
+         *
+         * @param key the key value
+         *
+         * @return a range holding just the key value
+         */
+        public static KeyRange point(Object key) {
+            if (key == null)
+                throw new IllegalArgumentException("key cannot be null");
+
+            return new KeyRange(key, true, key, true);
+        }
+
+
+        /**
+         * Returns true if a key is below the range.
+         *
+         * @param key a non-<tt>NULL</tt> key value
+         *
+         * @return true if the key is less than every value in the range
+         */
+        public boolean isBelow(Object key) {
+            if (low == null)
+                return false;
+
+            int cmp = compareKeys(key, low);
+            return cmp < 0 || (cmp == 0 && !lowInclusive);
+        }
+
+
+        /**
+         * Returns true if a key is above the range.
+         *
+         * @param key a non-<tt>NULL</tt> key value
+         *
+         * @return true if the key is greater than every value in the range
+         */
+        public boolean isAbove(Object key) {
+            if (high == null)
+                return false;
+
+            int cmp = compareKeys(key, high);
+            return cmp > 0 || (cmp == 0 && !highInclusive);
+        }
+
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj instanceof KeyRange) {
+                KeyRange other = (KeyRange) obj;
+                return lowInclusive == other.lowInclusive &&
+                    highInclusive == other.highInclusive &&
+                    (low == null ? other.low == null : low.equals(other.low)) &&
+                    (high == null ? other.high == null : high.equals(other.high));
+            }
+
+            return false;
+        }
+
+
+        @Override
+        public int hashCode() {
+            int hash = 7;
+            hash = 31 * hash + (low != null ? low.hashCode() : 0);
+            hash = 31 * hash + (high != null ? high.hashCode() : 0);
+            hash = 31 * hash + (lowInclusive ? 1 : 0);
+            hash = 31 * hash + (highInclusive ? 1 : 0);
+            return hash;
+        }
+
+
+        @Override
+        public String toString() {
+            if (low != null && low == high)
+                return "[" + low + "]";
+
+            return (lowInclusive ? "[" : "(") +
+                (low != null ? low : "-inf") + ", " +
+                (high != null ? high : "+inf") +
+                (highInclusive ? "]" : ")");
+        }
+    }
+
+
+    /**
+     * Compares two non-<tt>NULL</tt> key values, coercing them the same way
+     * a comparison does.
+     */
+    @SuppressWarnings("unchecked")
+    private static int compareKeys(Object key1, Object key2) {
+        TypeConverter.Pair pair = TypeConverter.coerceComparison(key1, key2);
+        return ((Comparable) pair.value1).compareTo(pair.value2);
+    }
+
+
+    /** The index used to find the table's tuples. */
+    private IndexInfo indexInfo;
+
+
+    /** The table whose tuples are produced. */
+    private TableInfo tableInfo;
+
+
+    /** The tuple file holding the index's entries. */
+    private SequentialTupleFile indexFile;
+
+
+    /** The tuple file holding the table's tuples. */
+    private TupleFile tableFile;
+
+
+    /**
+     * The condition that the key ranges were derived from.  This is only
+     * used to estimate how many index entries fall into the ranges.
+     */
+    private Expression keyPredicate;
+
+
+    /** The ranges of the index's first column to scan, in increasing order. */
+    private List<KeyRange> keyRanges;
+
+
+    /** The index of the key range being scanned. */
+    private int currentRange;
+
+
+    /**
+     * The index entry for the current tuple, or <tt>null</tt> if the scan
+     * of the current key range hasn't started.  The entry is unpinned as
+     * soon as it has been read, and is only kept as the position to
+     * continue the scan from, since a suspended plan (e.g. a cursor's) may
+     * be resumed in a later command, after the session's pins have been
+     * released.
+     */
+    private Tuple currentEntry;
+
+
+    /**
+     * Constructs an index scan node that finds the tuples whose keys fall
+     * into the specified ranges.
+     *
+     * @param indexInfo the index to use, which must be stored in a
+     *        {@link SequentialTupleFile}
+     *
+     * @param keyRanges the ranges of values of the index's first column to
+     *        scan, in increasing order and without overlaps
+     *
+     * @param keyPredicate the condition the key ranges were derived from,
+     *        for estimating the selectivity of the ranges
+     *
+     * @param predicate the predicate to check against every tuple found in
+     *        the key ranges, which must include the conditions the ranges
+     *        were derived from
+     */
+    public IndexScanNode(IndexInfo indexInfo, List<KeyRange> keyRanges,
+                         Expression keyPredicate, Expression predicate) {
+        super(predicate);
+
+        if (indexInfo == null)
+            throw new IllegalArgumentException("indexInfo cannot be null");
+
+        if (keyRanges == null)
+            throw new IllegalArgumentException("keyRanges cannot be null");
+
+        if (!(indexInfo.getTupleFile() instanceof SequentialTupleFile)) {
+            throw new IllegalArgumentException(
+                "Index must be stored in a sequential tuple file");
+        }
+
+        this.indexInfo = indexInfo;
+        this.keyRanges = Collections.unmodifiableList(new ArrayList<>(keyRanges));
+        this.keyPredicate = keyPredicate;
+
+        tableInfo = indexInfo.getTableInfo();
+        indexFile = (SequentialTupleFile) indexInfo.getTupleFile();
+        tableFile = tableInfo.getTupleFile();
+    }
+
+
+    /**
+     * Returns the index used to find the table's tuples.
+     *
+     * @return the index used to find the table's tuples
+     */
+    public IndexInfo getIndexInfo() {
+        return indexInfo;
+    }
+
+
+    /**
+     * Returns the ranges of the index's first column that are scanned.
+     *
+     * @return an unmodifiable list of the key ranges that are scanned
+     */
+    public List<KeyRange> getKeyRanges() {
+        return keyRanges;
+    }
+
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj instanceof IndexScanNode) {
+            IndexScanNode other = (IndexScanNode) obj;
+            return indexFile.equals(other.indexFile) &&
+                keyRanges.equals(other.keyRanges) &&
+                (predicate == null ? other.predicate == null :
+                    predicate.equals(other.predicate));
+        }
+
+        return false;
+    }
+
+
+    @Override
+    public int hashCode() {
+        int hash = 11;
+        hash = 31 * hash + (predicate != null ? predicate.hashCode() : 0);
+        hash = 31 * hash + indexFile.hashCode();
+        hash = 31 * hash + keyRanges.hashCode();
+        return hash;
+    }
+
+
+    /**
+     * Creates a copy of this index scan node.  The index and table infos and
+     * the key ranges are immutable, so they are shared with the copy.
+     */
+    @Override
+    protected PlanNode clone() throws CloneNotSupportedException {
+        IndexScanNode node = (IndexScanNode) super.clone();
+
+        if (keyPredicate != null)
+            node.keyPredicate = keyPredicate.duplicate();
+
+        node.currentEntry = null;
+        return node;
+    }
+
+
+    @Override
+    public String toString() {
+        StringBuilder buf = new StringBuilder();
+
+        buf.append("IndexScan[index:  ").append(indexInfo.getTableName());
+        buf.append('.').append(indexInfo.getIndexName());
+        buf.append(", keys:  ").append(keyRanges);
+
+        if (predicate != null)
+            buf.append(", pred:  ").append(predicate.toString());
+
+        buf.append("]");
+
+        return buf.toString();
+    }
+
+
+    /**
+     * The tuples are produced in the order of the index's first column, but
+     * this isn't reported, since tuples with equal keys may be in any order.
+     */
+    public List<OrderByExpression> resultsOrderedBy() {
+        return null;
+    }
+
+
+    /** This node doesn't support marking. */
+    public boolean supportsMarking() {
+        return false;
+    }
+
+
+    /** This node has no children so of course it doesn't require marking. */
+    public boolean requiresLeftMarking() {
+        return false;
+    }
+
+
+    /** This node has no children so of course it doesn't require marking. */
+    public boolean requiresRightMarking() {
+        return false;
+    }
+
+
+    public void prepare() {
+        schema = tableFile.getSchema();
+        bindPredicate();
+
+        TableStats tableStats = tableFile.getStats();
+        TableStats indexStats = indexFile.getStats();
+        ArrayList<ColumnStats> fileStats = tableStats.getAllColumnStats();
+
+        // Estimate how many index entries fall into the key ranges.  Each
+        // of them requires a tuple to be read from the table, which is
+        // assumed to be a separate block IO.
+        float keySelectivity = 1.0f;
+        if (keyPredicate != null) {
+            keySelectivity = SelectivityEstimator.estimateSelectivity(
+                keyPredicate, schema, fileStats);
+        }
+        float numEntries = tableStats.numTuples * keySelectivity;
+
+        // Every range requires a lookup in the index, after which the
+        // matching leaf pages are read.
+        long indexIOs = indexStats.estimateRangeScanIOs(keySelectivity);
+        if (keyRanges.size() > 1)
+            indexIOs += (keyRanges.size() - 1) * indexStats.estimateProbeIOs();
+
+        cost = new PlanCost(numEntries, tableStats.avgTupleSize,
+            2 * numEntries, indexIOs + (long) Math.ceil(numEntries));
+
+        if (predicate != null) {
+            cost.numTuples = tableStats.numTuples *
+                SelectivityEstimator.estimateSelectivity(predicate, schema,
+                    fileStats);
+        }
+
+        stats = fileStats;
+    }
+
+
+    public void initialize() {
+        super.initialize();
+
+        currentRange = 0;
+        currentEntry = null;
+    }
+
+
+    public void cleanUp() {
+        currentEntry = null;
+    }
+
+
+    /**
+     * Advances to the next tuple whose index entry falls into one of the key
+     * ranges, moving on to the next range when the current one has been
+     * scanned.
+     *
+     * @throws IOException if the index or the table can't be read
+     */
+    protected void advanceCurrentTuple() throws IOException {
+        while (currentRange < keyRanges.size()) {
+            KeyRange range = keyRanges.get(currentRange);
+
+            Tuple entry;
+            if (currentEntry == null) {
+                if (range.low != null) {
+                    entry = indexFile.findFirstTupleAtLeast(
+                        new TupleLiteral(range.low));
+                }
+                else {
+                    entry = indexFile.getFirstTuple();
+                }
+            }
+            else {
+                entry = indexFile.getNextTuple(currentEntry);
+            }
+            currentEntry = entry;
+
+            if (entry == null) {
+                // The rest of the index is below the remaining ranges.
+                currentRange = keyRanges.size();
+                break;
+            }
+
+            Object key = entry.getColumnValue(0);
+            FilePointer fptr =
+                (FilePointer) entry.getColumnValue(entry.getColumnCount() - 1);
+            entry.unpin();
+
+            // NULL keys can't be in any range.
+            if (key == null || range.isBelow(key))
+                continue;
+
+            if (range.isAbove(key)) {
+                // Move on to the next range.
+                currentEntry = null;
+                currentRange++;
+                continue;
+            }
+
+            try {
+                currentTuple = tableFile.getTuple(fptr);
+            }
+            catch (InvalidFilePointerException e) {
+                throw new IOException("Index " + indexInfo.getIndexName() +
+                    " refers to a nonexistent tuple " + fptr, e);
+            }
+
+            return;
+        }
+
+        currentEntry = null;
+
+        logger.debug("Finished scanning " + keyRanges.size() + " key ranges");
+        currentTuple = null;
+    }
+
+
+    /** This node doesn't support marking. */
+    public void markCurrentPosition() {
+        throw new UnsupportedOperationException(
+            "Index scan node doesn't support marking");
+    }
+
+
+    /** This node doesn't support marking. */
+    public void resetToLastMark() {
+        throw new UnsupportedOperationException(
+            "Index scan node doesn't support marking");
+    }
+}
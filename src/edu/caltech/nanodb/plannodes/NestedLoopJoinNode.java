@@ -28,7 +28,13 @@ public class NestedLoopJoinNode extends ThetaJoinNode {
     private static Logger logger = Logger.getLogger(NestedLoopJoinNode.class);
 
 
-    /** Most recently retrieved tuple of the left relation. */
+    /**
+     * Most recently retrieved tuple of the left relation.  This is a copy
+     * of the tuple produced by the left child, since it is joined with
+     * every tuple of the right relation, possibly across several commands
+     * if the plan belongs to a cursor, and the page holding the original
+     * tuple might be evicted in the meantime.
+     */
     private Tuple leftTuple;
 
     /** Most recently retrieved tuple of the right relation. */
@@ -140,13 +146,14 @@ public class NestedLoopJoinNode extends ThetaJoinNode {
 
 
     /**
-     * Nested-loop joins can conceivably produce sorted results in situations
-     * where the outer relation is ordered, but we will keep it simple and just
-     * report that the results are not ordered.
+     * Nested-loop joins produce their results in the order of the outer
+     * (left) relation, since the inner relation is scanned once for each
+     * outer tuple.  This also holds for outer joins, since a right outer join
+     * is evaluated as a swapped left outer join.
      */
     @Override
     public List<OrderByExpression> resultsOrderedBy() {
-        return null;
+        return leftChild.resultsOrderedBy();
     }
 
 
@@ -203,8 +210,10 @@ public class NestedLoopJoinNode extends ThetaJoinNode {
         }
 
         // now set our cost as our scale times the product of the number
-        // of tuples our children have
-        float cpuCost = scale * leftCost.numTuples * rightCost.numTuples;
+        // of tuples our children have, plus the cost of the children, so
+        // that plans of different shapes can be compared by their root cost
+        float cpuCost = scale * leftCost.numTuples * rightCost.numTuples +
+            leftCost.cpuCost + rightCost.cpuCost;
 
         // our number of tuples is just the selectivity times the product
         float numTups = selectivity * (leftCost.numTuples * rightCost.numTuples);
@@ -283,7 +292,7 @@ public class NestedLoopJoinNode extends ThetaJoinNode {
             // are not empty then we return true.
             if (leftTuple == null && rightTuple == null){
                 // logger.warn("Initialize");
-                leftTuple = leftChild.getNextTuple();
+                leftTuple = getNextLeftTuple();
                 rightTuple = rightChild.getNextTuple();
                 if (leftTuple != null && rightTuple != null) {
                     return true;
@@ -298,7 +307,7 @@ public class NestedLoopJoinNode extends ThetaJoinNode {
             else if (leftTuple != null && rightTuple != null){
                 rightTuple = rightChild.getNextTuple();
                 if (rightTuple == null) {
-                    leftTuple = leftChild.getNextTuple();
+                    leftTuple = getNextLeftTuple();
                     rightChild.initialize();
                     rightTuple = rightChild.getNextTuple();
 
@@ -325,7 +334,7 @@ public class NestedLoopJoinNode extends ThetaJoinNode {
             // right tuple is null then we nulljoin it with the current
             // left tuple.
             if(nullJoined) {
-                leftTuple = leftChild.getNextTuple();
+                leftTuple = getNextLeftTuple();
                 rightChild.initialize();
                 rightTuple = rightChild.getNextTuple();
 
@@ -349,7 +358,7 @@ public class NestedLoopJoinNode extends ThetaJoinNode {
             // the left tuple is null we are done, if the right tuple
             // is null then nulljoin it with the left tuple
             if (leftTuple == null && rightTuple == null){
-                leftTuple = leftChild.getNextTuple();
+                leftTuple = getNextLeftTuple();
                 rightTuple = rightChild.getNextTuple();
                 if (leftTuple == null) {
                     done = true;
@@ -378,7 +387,7 @@ public class NestedLoopJoinNode extends ThetaJoinNode {
                 }
 
                 if (rightTuple == null) {
-                    leftTuple = leftChild.getNextTuple();
+                    leftTuple = getNextLeftTuple();
                     rightChild.initialize();
                     rightTuple = rightChild.getNextTuple();
 
@@ -405,6 +414,26 @@ public class NestedLoopJoinNode extends ThetaJoinNode {
     }
 
 
+    /**
+     * Retrieves the next tuple from the left child, and copies it so that
+     * its values remain available while the right relation is scanned.
+     *
+     * @return a copy of the next tuple from the left child, or
+     *         <tt>null</tt> if the left child has no more tuples
+     *
+     * @throws IOException if the left child's tuples can't be read
+     */
+    private Tuple getNextLeftTuple() throws IOException {
+        Tuple tuple = leftChild.getNextTuple();
+        if (tuple == null)
+            return null;
+
+        TupleLiteral copy = new TupleLiteral(tuple);
+        tuple.unpin();
+        return copy;
+    }
+
+
     private boolean canJoinTuples() {
         // If the predicate was not set, we can always join them!
         if (predicate == null)
@@ -414,7 +443,7 @@ public class NestedLoopJoinNode extends ThetaJoinNode {
         environment.addTuple(leftSchema, leftTuple);
         environment.addTuple(rightSchema, rightTuple);
 
-        return predicate.evaluatePredicate(environment);
+        return evaluatePredicate();
     }
 
 
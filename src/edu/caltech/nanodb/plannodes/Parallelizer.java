@@ -0,0 +1,435 @@
+package edu.caltech.nanodb.plannodes;
+
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import edu.caltech.nanodb.expressions.ColumnName;
+import edu.caltech.nanodb.expressions.ColumnValue;
+import edu.caltech.nanodb.expressions.Expression;
+import edu.caltech.nanodb.expressions.FunctionCall;
+import edu.caltech.nanodb.expressions.TypeCastException;
+import edu.caltech.nanodb.expressions.TypeConverter;
+import edu.caltech.nanodb.functions.Count;
+import edu.caltech.nanodb.functions.CountStar;
+import edu.caltech.nanodb.functions.Max;
+import edu.caltech.nanodb.functions.Min;
+import edu.caltech.nanodb.functions.ScalarFunction;
+import edu.caltech.nanodb.functions.Sum;
+import edu.caltech.nanodb.queryast.SelectValue;
+import edu.caltech.nanodb.queryeval.PlanCost;
+import edu.caltech.nanodb.server.properties.PropertyHandler;
+import edu.caltech.nanodb.server.properties.ReadOnlyPropertyException;
+import edu.caltech.nanodb.server.properties.UnrecognizedPropertyException;
+import edu.caltech.nanodb.storage.heapfile.HeapTupleFile;
+
+
+/**
+ * <p>
+ * This class rewrites a query plan so that scans over large heap tables are
+ * run in parallel.  A pipeline of projections, filters and renames over a
+ * file-scan is placed under an {@link ExchangeNode}, which runs copies of
+ * the pipeline over different ranges of the table's pages.  If the pipeline
+ * feeds a hashed grouping/aggregate node whose aggregates can be merged
+ * (<tt>COUNT</tt>, <tt>SUM</tt>, <tt>MIN</tt> and <tt>MAX</tt>), each worker
+ * computes partial aggregates over its part of the table, and a second
+ * grouping/aggregate node above the exchange merges the partial results.
+ * </p>
+ * <p>
+ * The number of workers used for a scan is based on the number of pages the
+ * planner estimates the scan will read:  each worker must have at least
+ * {@link #PROP_MIN_PAGES_PER_WORKER} pages to scan, and no more than
+ * {@link #PROP_MAX_WORKERS} workers are used.  Setting the maximum number of
+ * workers to 1 disables parallel execution.
+ * </p>
+ * <p>
+ * Pipelines containing subqueries are never run in parallel, since the
+ * subqueries' plans can't be shared between workers.
+ * </p>
+ */
+public class Parallelizer {
+
+    /** A logging object for reporting anything interesting that happens. */
+    private static Logger logger = Logger.getLogger(Parallelizer.class);
+
+
+    /**
+     * This property specifies the maximum number of workers used to run a
+     * scan in parallel.  A value of 1 disables parallel execution.
+     */
+    public static final String PROP_MAX_WORKERS = "nanodb.parallel.maxWorkers";
+
+
+    /**
+     * This property specifies the minimum number of pages each worker of a
+     * parallel scan must have to scan.  Smaller tables are scanned by fewer
+     * workers, or are scanned serially.
+     */
+    public static final String PROP_MIN_PAGES_PER_WORKER =
+        "nanodb.parallel.minPagesPerWorker";
+
+
+    /** The default value of the {@link #PROP_MIN_PAGES_PER_WORKER} property. */
+    public static final int DEFAULT_MIN_PAGES_PER_WORKER = 16;
+
+
+    public static class ParallelPropertyHandler implements PropertyHandler {
+
+        @Override
+        public Object getPropertyValue(String propertyName)
+                throws UnrecognizedPropertyException {
+
+            if (PROP_MAX_WORKERS.equals(propertyName)) {
+                return getMaxWorkers();
+            }
+            else if (PROP_MIN_PAGES_PER_WORKER.equals(propertyName)) {
+                return getMinPagesPerWorker();
+            }
+            else {
+                throw new UnrecognizedPropertyException("No property named " +
+                        propertyName);
+            }
+        }
+
+        @Override
+        public void setPropertyValue(String propertyName, Object value)
+                throws UnrecognizedPropertyException, ReadOnlyPropertyException,
+                TypeCastException {
+
+            if (PROP_MAX_WORKERS.equals(propertyName)) {
+                setMaxWorkers(TypeConverter.getIntegerValue(value));
+            }
+            else if (PROP_MIN_PAGES_PER_WORKER.equals(propertyName)) {
+                setMinPagesPerWorker(TypeConverter.getIntegerValue(value));
+            }
+            else {
+                throw new UnrecognizedPropertyException("No property named " +
+                        propertyName);
+            }
+        }
+    }
+
+
+    /**
+     * Returns the maximum number of workers used to run a scan in parallel.
+     * By default, this is the number of available processors.
+     *
+     * @return the current value of the {@link #PROP_MAX_WORKERS} property
+     */
+    public static int getMaxWorkers() {
+        return getIntProperty(PROP_MAX_WORKERS,
+            Runtime.getRuntime().availableProcessors());
+    }
+
+
+    /**
+     * Sets the maximum number of workers used to run a scan in parallel.
+     *
+     * @param maxWorkers the maximum number of workers, or 1 to disable
+     *        parallel execution
+     *
+     * @throws IllegalArgumentException if the value is less than 1
+     */
+    public static void setMaxWorkers(int maxWorkers) {
+        if (maxWorkers < 1) {
+            throw new IllegalArgumentException(
+                "maximum workers must be at least 1, got " + maxWorkers);
+        }
+
+        System.setProperty(PROP_MAX_WORKERS, Integer.toString(maxWorkers));
+    }
+
+
+    /**
+     * Returns the minimum number of pages each worker of a parallel scan
+     * must have to scan.
+     *
+     * @return the current value of the {@link #PROP_MIN_PAGES_PER_WORKER}
+     *         property
+     */
+    public static int getMinPagesPerWorker() {
+        return getIntProperty(PROP_MIN_PAGES_PER_WORKER,
+            DEFAULT_MIN_PAGES_PER_WORKER);
+    }
+
+
+    /**
+     * Sets the minimum number of pages each worker of a parallel scan must
+     * have to scan.
+     *
+     * @param minPages the minimum number of pages per worker
+     *
+     * @throws IllegalArgumentException if the value is less than 1
+     */
+    public static void setMinPagesPerWorker(int minPages) {
+        if (minPages < 1) {
+            throw new IllegalArgumentException(
+                "minimum pages per worker must be at least 1, got " + minPages);
+        }
+
+        System.setProperty(PROP_MIN_PAGES_PER_WORKER, Integer.toString(minPages));
+    }
+
+
+    private static int getIntProperty(String name, int defaultValue) {
+        String value = System.getProperty(name);
+        if (value == null)
+            return defaultValue;
+
+        try {
+            return Integer.parseInt(value);
+        }
+        catch (NumberFormatException e) {
+            logger.warn(String.format("Ignoring invalid value \"%s\" for " +
+                "property %s", value, name));
+            return defaultValue;
+        }
+    }
+
+
+    /**
+     * Rewrites a prepared query plan so that its scans over large heap tables
+     * are run in parallel, where possible.  If the plan is changed, it is
+     * prepared again.
+     *
+     * @param plan the prepared query plan to rewrite
+     *
+     * @return the rewritten plan, which may be the same plan
+     */
+    public static PlanNode parallelize(PlanNode plan) {
+        if (plan == null)
+            throw new IllegalArgumentException("plan cannot be null");
+
+        int maxWorkers = getMaxWorkers();
+        if (maxWorkers <= 1)
+            return plan;
+
+        Parallelizer parallelizer =
+            new Parallelizer(maxWorkers, Math.max(getMinPagesPerWorker(), 1));
+
+        PlanNode result = parallelizer.rewrite(plan);
+        if (parallelizer.changed) {
+            result.prepare();
+            logger.debug("Parallel plan:\n" + PlanNode.printNodeTreeToString(
+                result, true));
+        }
+
+        return result;
+    }
+
+
+    /** The maximum number of workers to use for a scan. */
+    private int maxWorkers;
+
+
+    /** The minimum number of pages each worker must have to scan. */
+    private int minPagesPerWorker;
+
+
+    /** Set to true if the plan was changed. */
+    private boolean changed;
+
+
+    private Parallelizer(int maxWorkers, int minPagesPerWorker) {
+        this.maxWorkers = maxWorkers;
+        this.minPagesPerWorker = minPagesPerWorker;
+    }
+
+
+    /**
+     * Rewrites the specified plan node and its subtree.  Only the inputs of
+     * nodes that consume their input once, from start to finish, are
+     * rewritten, since an exchange node can't be marked or rescanned
+     * cheaply.
+     *
+     * @param node the plan node to rewrite
+     *
+     * @return the rewritten plan node
+     */
+    private PlanNode rewrite(PlanNode node) {
+        if (node instanceof HashedGroupAggregateNode) {
+            PlanNode result = rewriteAggregate((HashedGroupAggregateNode) node);
+            if (result != null)
+                return result;
+        }
+        else {
+            int degree = chooseDegree(node);
+            if (degree > 1) {
+                changed = true;
+                return new ExchangeNode(node, degree);
+            }
+        }
+
+        if (node instanceof ProjectNode || node instanceof SimpleFilterNode ||
+            node instanceof RenameNode || node instanceof SortNode ||
+            node instanceof GroupAggregateNode) {
+
+            if (node.leftChild != null)
+                node.leftChild = rewrite(node.leftChild);
+        }
+
+        return node;
+    }
+
+
+    /**
+     * Rewrites a hashed grouping/aggregate node over a pipeline that can be
+     * run in parallel, so that the workers compute partial aggregates that
+     * are then merged.
+     *
+     * @param agg the grouping/aggregate node to rewrite
+     *
+     * @return the node that merges the partial aggregates, or <tt>null</tt>
+     *         if the aggregates can't be computed in parallel
+     */
+    private PlanNode rewriteAggregate(HashedGroupAggregateNode agg) {
+        int degree = chooseDegree(agg.leftChild);
+        if (degree <= 1)
+            return null;
+
+        for (Expression expr : agg.groupByExprs) {
+            if (PlanUtils.hasSubquery(expr))
+                return null;
+        }
+
+        // Each aggregate is merged with another aggregate over the column
+        // of partial results with the same name.
+        Map<String, FunctionCall> mergeAggregates = new LinkedHashMap<>();
+        for (Map.Entry<String, FunctionCall> entry : agg.aggregates.entrySet()) {
+            String name = entry.getKey();
+            FunctionCall call = entry.getValue();
+
+            String mergeFunction = getMergeFunction(call.getFunction());
+            if (mergeFunction == null || PlanUtils.hasSubquery(call))
+                return null;
+
+            mergeAggregates.put(name, new FunctionCall(mergeFunction, false,
+                new ColumnValue(new ColumnName(name))));
+        }
+
+        HashedGroupAggregateNode partial = new HashedGroupAggregateNode(
+            agg.leftChild, agg.groupByExprs, agg.aggregates);
+        partial.prepare();
+
+        // The partial results start with the grouping columns.
+        List<Expression> mergeGroupBy = new ArrayList<>();
+        for (int i = 0; i < agg.groupByExprs.size(); i++) {
+            mergeGroupBy.add(new ColumnValue(
+                partial.getSchema().getColumnInfo(i).getColumnName()));
+        }
+
+        changed = true;
+        return new HashedGroupAggregateNode(new ExchangeNode(partial, degree),
+            mergeGroupBy, mergeAggregates);
+    }
+
+
+    /**
+     * Returns the name of the aggregate function that merges partial results
+     * of the specified aggregate function.
+     *
+     * @param fn the aggregate function
+     *
+     * @return the name of the function that merges partial results, or
+     *         <tt>null</tt> if partial results can't be merged
+     */
+    private static String getMergeFunction(ScalarFunction fn) {
+        Class<?> fnClass = fn.getClass();
+        if (fnClass == Count.class || fnClass == CountStar.class ||
+            fnClass == Sum.class) {
+            return "SUM";
+        }
+        else if (fnClass == Min.class) {
+            return "MIN";
+        }
+        else if (fnClass == Max.class) {
+            return "MAX";
+        }
+
+        return null;
+    }
+
+
+    /**
+     * Chooses the number of workers for running a plan in parallel.  The
+     * plan must be a pipeline of projections, filters and renames over a
+     * file-scan of a heap table, without subqueries.
+     *
+     * @param plan the plan to run in parallel
+     *
+     * @return the number of workers to use, or 1 if the plan should not be
+     *         run in parallel
+     */
+    private int chooseDegree(PlanNode plan) {
+        PlanNode node = plan;
+        while (!(node instanceof FileScanNode)) {
+            if (!(node instanceof ProjectNode || node instanceof SimpleFilterNode ||
+                  node instanceof RenameNode)) {
+                return 1;
+            }
+
+            if (hasSubquery(node))
+                return 1;
+
+            node = node.leftChild;
+        }
+
+        FileScanNode scan = (FileScanNode) node;
+        if (scan.getTableInfo() == null ||
+            !(scan.getTableInfo().getTupleFile() instanceof HeapTupleFile) ||
+            hasSubquery(scan)) {
+            return 1;
+        }
+
+        // Use the planner's estimate of the number of pages the scan reads.
+        // If the table hasn't been analyzed, use the file's size instead.
+        long numPages = 0;
+        PlanCost cost = scan.getCost();
+        if (cost != null)
+            numPages = cost.numBlockIOs;
+
+        if (numPages <= 0) {
+            try {
+                HeapTupleFile tupleFile =
+                    (HeapTupleFile) scan.getTableInfo().getTupleFile();
+                numPages = tupleFile.getDBFile().getNumPages() - 1;
+            }
+            catch (IOException e) {
+                logger.warn("Couldn't get the size of " +
+                    scan.getTableInfo().getTableName(), e);
+                return 1;
+            }
+        }
+
+        return (int) Math.max(1, Math.min(maxWorkers, numPages / minPagesPerWorker));
+    }
+
+
+    /**
+     * Returns true if any expression of the specified node contains a
+     * subquery.
+     */
+    private static boolean hasSubquery(PlanNode node) {
+        if (node instanceof SelectNode)
+            return PlanUtils.hasSubquery(((SelectNode) node).predicate);
+
+        if (node instanceof ProjectNode) {
+            for (SelectValue selVal : ((ProjectNode) node).getProjectionSpec()) {
+                if (selVal.isScalarSubquery())
+                    return true;
+
+                if (selVal.isExpression() &&
+                    PlanUtils.hasSubquery(selVal.getExpression())) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+}
@@ -17,6 +17,7 @@ import edu.caltech.nanodb.queryeval.PlanCost;
 
 import edu.caltech.nanodb.relations.Schema;
 import edu.caltech.nanodb.relations.Tuple;
+import edu.caltech.nanodb.relations.TupleBatch;
 
 
 /**
@@ -46,7 +47,10 @@ public abstract class PlanNode implements Cloneable {
         SORT,
 
         /** A materialize plan-node. */
-        MATERIALIZE
+        MATERIALIZE,
+
+        /** An exchange plan-node, which runs copies of its subplan in parallel. */
+        EXCHANGE
     }
 
 
@@ -313,6 +317,24 @@ public abstract class PlanNode implements Cloneable {
     }
 
 
+    /**
+     * Discards the results of uncorrelated subqueries that the expressions
+     * of the plan tree rooted at this node have cached, since the tables the
+     * subqueries read may have changed since the plan was last executed.
+     * The query evaluator calls this before each execution of a plan.
+     * Subclasses whose expressions may contain subqueries must extend this
+     * method to reset them, and must call their parent class'
+     * implementation as well.
+     */
+    public void resetSubqueryResults() {
+        if (leftChild != null)
+            leftChild.resetSubqueryResults();
+
+        if (rightChild != null)
+            rightChild.resetSubqueryResults();
+    }
+
+
     /**
      * Does any initialization the node might need, including setting up the
      * node's execution environment.  Subclasses of {@code PlanNode} can
@@ -340,6 +362,62 @@ public abstract class PlanNode implements Cloneable {
         throws IllegalStateException, IOException;
 
 
+    /**
+     * <p>
+     * Gets a batch of up to {@link TupleBatch#DEFAULT_CAPACITY} tuples that
+     * fulfill the conditions for this plan node.  The batch belongs to the
+     * caller.  A node's results should be retrieved either with this method
+     * or with {@link #getNextTuple}, not with a mix of the two.
+     * </p>
+     * <p>
+     * This implementation simply calls {@link #getNextTuple} until the batch
+     * is full, copying each tuple's values into the batch, so that every
+     * node can produce batches.  Nodes that can produce batches more
+     * efficiently override this method, and should also override
+     * {@link #isVectorized}.
+     * </p>
+     *
+     * @return the next batch of tuples generated by this plan, or
+     *         <tt>null</tt> if the plan has finished generating tuples.  A
+     *         batch that isn't <tt>null</tt> always contains at least one
+     *         tuple.
+     *
+     * @throws IOException if table data cannot be read from the filesystem
+     * @throws IllegalStateException if a plan node is not properly initialized
+     */
+    public TupleBatch getNextBatch() throws IllegalStateException, IOException {
+        TupleBatch batch = null;
+        while (batch == null || !batch.isFull()) {
+            Tuple tuple = getNextTuple();
+            if (tuple == null)
+                break;
+
+            if (batch == null) {
+                batch = new TupleBatch(schema.numColumns(),
+                    TupleBatch.DEFAULT_CAPACITY);
+            }
+
+            batch.addTuple(tuple);
+            tuple.unpin();
+        }
+
+        return batch;
+    }
+
+
+    /**
+     * Returns true if this node produces batches of tuples more efficiently
+     * than it produces individual tuples, so that the node's results should
+     * be retrieved with {@link #getNextBatch}.
+     *
+     * @return true if the node produces batches natively; the default
+     *         implementation returns false.
+     */
+    public boolean isVectorized() {
+        return false;
+    }
+
+
     /**
      * Marks the current tuple in the tuple-stream produced by this node.  The
      * {@link #resetToLastMark} method can be used to return to this tuple.
@@ -3,6 +3,8 @@ package edu.caltech.nanodb.plannodes;
 
 import edu.caltech.nanodb.expressions.BooleanOperator;
 import edu.caltech.nanodb.expressions.Expression;
+import edu.caltech.nanodb.expressions.ExpressionProcessor;
+import edu.caltech.nanodb.expressions.SubqueryOperator;
 
 
 /**
@@ -90,4 +92,55 @@ public class PlanUtils {
 
         return plan;
     }
+
+
+    /**
+     * Returns true if the specified expression contains a subquery.
+     *
+     * @param expr the expression to examine, or <tt>null</tt>
+     *
+     * @return true if the expression contains a subquery
+     */
+    public static boolean hasSubquery(Expression expr) {
+        if (expr == null)
+            return false;
+
+        boolean[] found = { false };
+        expr.traverse(new ExpressionProcessor() {
+            public void enter(Expression node) {
+                if (node instanceof SubqueryOperator)
+                    found[0] = true;
+            }
+
+            public Expression leave(Expression node) {
+                return node;
+            }
+        });
+
+        return found[0];
+    }
+
+
+    /**
+     * Discards the cached results of the subqueries in the specified
+     * expression, as described for {@link PlanNode#resetSubqueryResults}.
+     *
+     * @param expr the expression whose subqueries should be reset, or
+     *        <tt>null</tt>
+     */
+    public static void resetSubqueryResults(Expression expr) {
+        if (expr == null)
+            return;
+
+        expr.traverse(new ExpressionProcessor() {
+            public void enter(Expression node) {
+                if (node instanceof SubqueryOperator)
+                    ((SubqueryOperator) node).resetResults();
+            }
+
+            public Expression leave(Expression node) {
+                return node;
+            }
+        });
+    }
 }
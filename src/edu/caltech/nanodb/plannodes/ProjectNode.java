@@ -8,7 +8,9 @@ import edu.caltech.nanodb.expressions.*;
 import edu.caltech.nanodb.queryeval.ColumnStats;
 import edu.caltech.nanodb.queryeval.PlanCost;
 import edu.caltech.nanodb.relations.Schema;
+import edu.caltech.nanodb.relations.SchemaNameException;
 import edu.caltech.nanodb.relations.Tuple;
+import edu.caltech.nanodb.relations.TupleBatch;
 import edu.caltech.nanodb.relations.ColumnInfo;
 
 import edu.caltech.nanodb.queryast.SelectValue;
@@ -59,6 +61,15 @@ public class ProjectNode extends PlanNode {
     private List<ColumnInfo> nonWildcardColumnInfos;
 
 
+    /**
+     * The compiled forms of the expressions in the projection specification,
+     * indexed by the position of the select value, or <tt>null</tt> if the
+     * expressions haven't been compiled yet.  Wildcard values have no
+     * compiled expression.
+     */
+    private ExpressionCompiler.CompiledExpression[] compiledValues;
+
+
     /** Current tuple the node is projecting (in NON-projected form). */
     private Tuple currentTuple;
 
@@ -132,6 +143,16 @@ public class ProjectNode extends PlanNode {
     }
 
 
+    /**
+     * Returns the select values this node computes.
+     *
+     * @return the select values this node computes
+     */
+    List<SelectValue> getProjectionSpec() {
+        return projectionSpec;
+    }
+
+
     public void prepare() {
         if (leftChild != null) {
             // Need to prepare the left child-node before we can do our own
@@ -142,6 +163,9 @@ public class ProjectNode extends PlanNode {
             // project-node, since it is a complicated operation.
             prepareSchemaStats(leftChild.getSchema(), leftChild.getStats());
 
+            if (leftChild instanceof FileScanNode)
+                ((FileScanNode) leftChild).setProjectedColumns(getUsedColumns());
+
             // Come up with a cost estimate now.  Projection does require some
             // computation, so increase the CPU cost based on the number of
             // tuples expected to come into this plan-node.
@@ -176,6 +200,51 @@ public class ProjectNode extends PlanNode {
     }
 
 
+    /**
+     * Returns the indexes of the input columns that the projection uses, so
+     * that a file-scan below this node doesn't have to decode the other
+     * columns.
+     *
+     * @return the indexes of the input columns that are used, or
+     *         <tt>null</tt> if all columns may be used
+     */
+    private int[] getUsedColumns() {
+        HashSet<ColumnName> symbols = new HashSet<>();
+        for (SelectValue selVal : projectionSpec) {
+            if (!selVal.isExpression())
+                return null;
+
+            Expression expr = selVal.getExpression();
+            if (PlanUtils.hasSubquery(expr))
+                return null;
+
+            expr.getAllSymbols(symbols);
+        }
+
+        TreeSet<Integer> used = new TreeSet<>();
+        for (ColumnName colName : symbols) {
+            int iCol;
+            try {
+                iCol = inputSchema.getColumnIndex(colName);
+            }
+            catch (SchemaNameException e) {
+                return null;
+            }
+
+            // Columns of enclosing queries aren't in the input schema.
+            if (iCol != -1)
+                used.add(iCol);
+        }
+
+        int[] columns = new int[used.size()];
+        int i = 0;
+        for (int iCol : used)
+            columns[i++] = iCol;
+
+        return columns;
+    }
+
+
     /**
      * This helper function computes the schema of the project plan-node, based
      * on the schema of its child-plan, and also the expressions specified in
@@ -185,6 +254,10 @@ public class ProjectNode extends PlanNode {
                                       ArrayList<ColumnStats> inputStats) {
         this.inputSchema = inputSchema;
 
+        // The expressions are bound to the new input schema below, so they
+        // must be compiled again.
+        compiledValues = null;
+
         schema = new Schema();
         nonWildcardColumnInfos = new ArrayList<ColumnInfo>();
 
@@ -258,6 +331,10 @@ public class ProjectNode extends PlanNode {
 
                 schema.addColumnInfo(colInfo);
                 nonWildcardColumnInfos.add(colInfo);
+
+                // Bind the expression's column references to the input
+                // tuple, so they needn't be looked up by name for each row.
+                expr.bindColumns(inputSchema);
             }
             else if (selVal.isScalarSubquery()) {
                 throw new UnsupportedOperationException(
@@ -329,6 +406,113 @@ public class ProjectNode extends PlanNode {
     }
 
 
+    /**
+     * Gets the next batch of tuples from the subplan and projects it.  Values
+     * that are simply columns of the input, including wildcards, share the
+     * input batch's column arrays rather than being copied; other
+     * expressions are evaluated for each selected row of the batch.
+     *
+     * @return the next batch of projected tuples, or <tt>null</tt> if there
+     *         are no more tuples
+     *
+     * @throws java.io.IOException if a db file failed to open at some point
+     */
+    @Override
+    public TupleBatch getNextBatch() throws IOException {
+        // A leaf project node only generates a single tuple.
+        if (leftChild == null)
+            return super.getNextBatch();
+
+        if (done)
+            return null;
+
+        TupleBatch input = leftChild.getNextBatch();
+        if (input == null) {
+            done = true;
+            return null;
+        }
+
+        if (isTrivial())
+            return input;
+
+        if (compiledValues == null)
+            compileValues();
+
+        int numRows = input.getNumRows();
+        Object[][] columns = new Object[schema.numColumns()][];
+        int iCol = 0;
+
+        TupleBatch.RowView row = null;
+
+        for (int i = 0; i < projectionSpec.size(); i++) {
+            SelectValue selVal = projectionSpec.get(i);
+            if (selVal.isWildcard()) {
+                ColumnName wildcard = selVal.getWildcard();
+                if (wildcard.isTableSpecified()) {
+                    SortedMap<Integer, ColumnInfo> matchCols =
+                        inputSchema.findColumns(wildcard);
+
+                    for (int iInput : matchCols.keySet())
+                        columns[iCol++] = input.getColumn(iInput);
+                }
+                else {
+                    for (int iInput = 0; iInput < input.getNumColumns(); iInput++)
+                        columns[iCol++] = input.getColumn(iInput);
+                }
+            }
+            else if (selVal.isExpression()) {
+                Expression expr = selVal.getExpression();
+
+                int iInput = -1;
+                if (expr instanceof ColumnValue)
+                    iInput = ((ColumnValue) expr).getBoundIndex(inputSchema);
+
+                if (iInput != -1) {
+                    // The value is a column of the input, so it can simply
+                    // be shared.
+                    columns[iCol++] = input.getColumn(iInput);
+                    continue;
+                }
+
+                if (row == null) {
+                    row = input.newRowView();
+                    environment.clear();
+                    environment.addTuple(inputSchema, row);
+                }
+
+                ExpressionCompiler.CompiledExpression compiled =
+                    compiledValues[i];
+
+                Object[] values = new Object[numRows];
+                for (int j = 0; j < input.size(); j++) {
+                    int r = input.getRowIndex(j);
+                    row.setRow(r);
+                    values[r] = compiled.evaluate(environment);
+                }
+                columns[iCol++] = values;
+            }
+            else if (selVal.isScalarSubquery()) {
+                throw new UnsupportedOperationException(
+                    "Scalar subquery support is currently incomplete");
+            }
+            else {
+                throw new IllegalStateException(
+                    "Select-value doesn't specify a value");
+            }
+        }
+
+        return new TupleBatch(columns, numRows, input.getSelectionIfPresent(),
+            input.size());
+    }
+
+
+    /** This node produces batches natively if its subplan does. */
+    @Override
+    public boolean isVectorized() {
+        return leftChild != null && leftChild.isVectorized();
+    }
+
+
     /** Helper function that advances the current tuple reference in the node.
      *
      * @throws java.lang.IllegalStateException if this is a node no child.
@@ -359,6 +543,9 @@ public class ProjectNode extends PlanNode {
         environment.clear();
         environment.addTuple(inputSchema, tuple);
 
+        if (compiledValues == null)
+            compileValues();
+
         // Create an empty tuple to add values to.
         TupleLiteral newTuple = new TupleLiteral();
 
@@ -367,7 +554,8 @@ public class ProjectNode extends PlanNode {
         Iterator<ColumnInfo> iterNonWildcardCols =
             nonWildcardColumnInfos.iterator();
 
-        for (SelectValue selVal : projectionSpec) {
+        for (int i = 0; i < projectionSpec.size(); i++) {
+            SelectValue selVal = projectionSpec.get(i);
             if (selVal.isWildcard()) {
                 // This value is a wildcard.  Find the columns that match the
                 // wildcard, then add their values one by one.
@@ -398,12 +586,14 @@ public class ProjectNode extends PlanNode {
 
                 // Get the result of the projection for this value.
 
-                Object result = expr.evaluate(environment);
+                Object result = compiledValues[i].evaluate(environment);
                 ColumnInfo colInfo = iterNonWildcardCols.next();
 
-                logger.debug(String.format(
-                    "Expression:  %s \tColInfo:  %s\tAlias:  %s",
-                    expr, colInfo, alias));
+                if (logger.isDebugEnabled()) {
+                    logger.debug(String.format(
+                        "Expression:  %s \tColInfo:  %s\tAlias:  %s",
+                        expr, colInfo, alias));
+                }
 
                 // Add the result to the tuple.
 
@@ -431,6 +621,35 @@ public class ProjectNode extends PlanNode {
     }
 
 
+    /**
+     * Compiles the expressions in the projection specification, so that they
+     * needn't be interpreted for every tuple.
+     */
+    private void compileValues() {
+        compiledValues =
+            new ExpressionCompiler.CompiledExpression[projectionSpec.size()];
+
+        for (int i = 0; i < projectionSpec.size(); i++) {
+            SelectValue selVal = projectionSpec.get(i);
+            if (selVal.isExpression()) {
+                compiledValues[i] =
+                    ExpressionCompiler.compile(selVal.getExpression());
+            }
+        }
+    }
+
+
+    @Override
+    public void resetSubqueryResults() {
+        super.resetSubqueryResults();
+
+        for (SelectValue selVal : projectionSpec) {
+            if (selVal.isExpression())
+                PlanUtils.resetSubqueryResults(selVal.getExpression());
+        }
+    }
+
+
     /** Do initialization for the select operation.  Resets state variables. */
     public void initialize() {
         super.initialize();
@@ -521,6 +740,7 @@ public class ProjectNode extends PlanNode {
             newList.add(newSel);
         }
         node.projectionSpec = newList;
+        node.compiledValues = null;
 
         return node;
     }
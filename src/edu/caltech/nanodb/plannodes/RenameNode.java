@@ -41,20 +41,33 @@ public class RenameNode extends PlanNode {
 
     @Override
     public List<OrderByExpression> resultsOrderedBy() {
+        List<OrderByExpression> childOrder = leftChild.resultsOrderedBy();
+        if (childOrder == null)
+            return null;
+
         List<OrderByExpression> resultsOrderedBy = new ArrayList<OrderByExpression>();
 
         logger.debug("Renaming table name in ORDER BY expression");
 
-        for (OrderByExpression orderByExpr : leftChild.resultsOrderedBy()) {
+        for (OrderByExpression orderByExpr : childOrder) {
+            // Only simple column references can be renamed; the results are
+            // still ordered by the prefix of the ordering before this point.
+            if (!(orderByExpr.getExpression() instanceof ColumnValue))
+                break;
+
             Expression expr = orderByExpr.getExpression().duplicate();
 
             ((ColumnValue) expr).setColumnName(new ColumnName(
                     resultTableName,
                     expr.getColumnInfo(leftChild.getSchema()).getName()));
 
-            resultsOrderedBy.add(new OrderByExpression(expr));
+            resultsOrderedBy.add(
+                new OrderByExpression(expr, orderByExpr.isAscending()));
         }
 
+        if (resultsOrderedBy.isEmpty())
+            return null;
+
         return resultsOrderedBy;
     }
 
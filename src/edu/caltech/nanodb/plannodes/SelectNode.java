@@ -4,8 +4,10 @@ package edu.caltech.nanodb.plannodes;
 import java.io.IOException;
 
 import edu.caltech.nanodb.relations.Tuple;
+import edu.caltech.nanodb.relations.TupleBatch;
 
 import edu.caltech.nanodb.expressions.Expression;
+import edu.caltech.nanodb.expressions.ExpressionCompiler;
 
 
 /**
@@ -18,10 +20,47 @@ public abstract class SelectNode extends PlanNode {
     public Expression predicate;
 
 
+    /**
+     * The compiled form of {@link #predicate}, or <tt>null</tt> if the
+     * predicate hasn't been compiled yet.
+     */
+    private ExpressionCompiler.CompiledPredicate compiledPredicate;
+
+
+    /**
+     * The predicate that {@link #compiledPredicate} was compiled from, so
+     * that the predicate is compiled again if it is replaced.
+     */
+    private Expression compiledFrom;
+
+
+    /**
+     * The compiled form of {@link #predicate} used to filter batches of
+     * tuples, or <tt>null</tt> if the predicate hasn't been compiled yet.
+     */
+    private ExpressionCompiler.CompiledBatchPredicate compiledBatchPredicate;
+
+
+    /**
+     * The predicate that {@link #compiledBatchPredicate} was compiled from,
+     * so that the predicate is compiled again if it is replaced.
+     */
+    private Expression compiledBatchFrom;
+
+
     /** The current tuple that the node is selecting. */
     protected Tuple currentTuple;
 
 
+    /**
+     * The indexes of the columns that {@link #advanceCurrentBatch} copies
+     * from each tuple into the batch, or <tt>null</tt> to copy all columns.
+     * Leaf nodes can set this when their consumers only need some of the
+     * columns, so that the other values are never decoded.
+     */
+    protected int[] batchColumns;
+
+
     /** True if we have finished scanning or pulling tuples from children. */
     private boolean done;
 
@@ -61,6 +100,13 @@ public abstract class SelectNode extends PlanNode {
     }
 
 
+    @Override
+    public void resetSubqueryResults() {
+        super.resetSubqueryResults();
+        PlanUtils.resetSubqueryResults(predicate);
+    }
+
+
     /** Do initialization for the select operation. Resets state variables. */
     @Override
     public void initialize() {
@@ -109,6 +155,46 @@ public abstract class SelectNode extends PlanNode {
     }
 
 
+    /**
+     * Gets the next batch of tuples selected by the predicate.  Candidate
+     * tuples are retrieved a batch at a time with
+     * {@link #advanceCurrentBatch}, and the predicate is then applied to the
+     * whole batch.
+     *
+     * @return the next batch of selected tuples, or <tt>null</tt> if there
+     *         are no more tuples
+     *
+     * @throws java.io.IOException if a db file failed to open at some point
+     */
+    @Override
+    public TupleBatch getNextBatch() throws IllegalStateException, IOException {
+        while (!done) {
+            TupleBatch batch = advanceCurrentBatch();
+            if (batch == null) {
+                done = true;
+                break;
+            }
+
+            if (predicate != null) {
+                if (compiledBatchPredicate == null ||
+                    compiledBatchFrom != predicate) {
+                    compiledBatchPredicate =
+                        ExpressionCompiler.compileBatchPredicate(predicate, schema);
+                    compiledBatchFrom = predicate;
+                }
+
+                compiledBatchPredicate.filter(batch, environment);
+            }
+
+            // Skip batches that the predicate removed every tuple from.
+            if (batch.size() > 0)
+                return batch;
+        }
+
+        return null;
+    }
+
+
     /** Helper function that advances the current tuple reference in the node.
      *
      * @throws java.lang.IllegalStateException if this is a node with no
@@ -119,6 +205,65 @@ public abstract class SelectNode extends PlanNode {
         throws IllegalStateException, IOException;
 
 
+    /**
+     * Helper function that retrieves the next batch of candidate tuples for
+     * {@link #getNextBatch}.  This implementation collects tuples from
+     * {@link #advanceCurrentTuple}; nodes with a child should override it to
+     * retrieve batches from the child.
+     *
+     * @return the next batch of candidate tuples, or <tt>null</tt> if there
+     *         are no more tuples
+     *
+     * @throws java.io.IOException if a db file failed to open at some point
+     */
+    protected TupleBatch advanceCurrentBatch()
+        throws IllegalStateException, IOException {
+
+        TupleBatch batch = null;
+        while (batch == null || !batch.isFull()) {
+            advanceCurrentTuple();
+            if (currentTuple == null) {
+                // This is the last batch; don't start over at the first
+                // tuple on the next call.
+                done = true;
+                break;
+            }
+
+            if (batch == null) {
+                batch = new TupleBatch(schema.numColumns(),
+                    TupleBatch.DEFAULT_CAPACITY);
+            }
+
+            // The tuple's values are copied into the batch, so the tuple
+            // can be unpinned right away.
+            if (batchColumns != null)
+                batch.addTuple(currentTuple, batchColumns);
+            else
+                batch.addTuple(currentTuple);
+
+            currentTuple.unpin();
+        }
+
+        return batch;
+    }
+
+
+    /**
+     * Binds the predicate's column references to this node's schema, so
+     * that they don't have to be looked up by name for every tuple.  This
+     * should be called by {@link #prepare} once the schema is known.
+     */
+    protected void bindPredicate() {
+        if (predicate != null)
+            predicate.bindColumns(schema);
+
+        // The bindings are captured when the predicate is compiled, so
+        // compile it again the next time it is used.
+        compiledPredicate = null;
+        compiledBatchPredicate = null;
+    }
+
+
     protected boolean isTupleSelected(Tuple tuple) {
         // If the predicate was not set, return true.
         if (predicate == null)
@@ -126,8 +271,13 @@ public abstract class SelectNode extends PlanNode {
 
         // Set up the environment and then evaluate the predicate!
 
+        if (compiledPredicate == null || compiledFrom != predicate) {
+            compiledPredicate = ExpressionCompiler.compilePredicate(predicate);
+            compiledFrom = predicate;
+        }
+
         environment.clear();
         environment.addTuple(schema, tuple);
-        return predicate.evaluatePredicate(environment);
+        return compiledPredicate.evaluate(environment);
     }
 }
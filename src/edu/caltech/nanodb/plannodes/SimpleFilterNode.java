@@ -11,6 +11,7 @@ import edu.caltech.nanodb.expressions.OrderByExpression;
 import edu.caltech.nanodb.queryeval.ColumnStats;
 import edu.caltech.nanodb.queryeval.PlanCost;
 import edu.caltech.nanodb.queryeval.SelectivityEstimator;
+import edu.caltech.nanodb.relations.TupleBatch;
 
 import org.apache.log4j.Logger;
 
@@ -113,6 +114,7 @@ public class SimpleFilterNode extends SelectNode {
 
         // Grab the schema and stats from the left child.
         schema = leftChild.getSchema();
+        bindPredicate();
         ArrayList<ColumnStats> childStats = leftChild.getStats();
 
         // Get the cost of the child
@@ -163,6 +165,20 @@ public class SimpleFilterNode extends SelectNode {
     }
 
 
+    /** Batches of candidate tuples come directly from the subplan. */
+    @Override
+    protected TupleBatch advanceCurrentBatch() throws IOException {
+        return leftChild.getNextBatch();
+    }
+
+
+    /** This node produces batches natively if its subplan does. */
+    @Override
+    public boolean isVectorized() {
+        return leftChild.isVectorized();
+    }
+
+
     /**
      * The simple filter node relies on marking/reset support in its subplan.
      */
@@ -117,8 +117,10 @@ public class SortNode extends PlanNode {
         if (childCost != null) {
             cost = new PlanCost(childCost);
 
-            // Sorting in memory is an N*log(N) operation.
-            cost.cpuCost += cost.numTuples * (float) Math.log(cost.numTuples);
+            // Sorting in memory is an N*log(N) operation.  (Avoid taking the
+            // log of 0, which would make the cost NaN.)
+            if (cost.numTuples > 1)
+                cost.cpuCost += cost.numTuples * (float) Math.log(cost.numTuples);
         }
         else {
             logger.info(
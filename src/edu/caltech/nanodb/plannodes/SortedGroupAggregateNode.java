@@ -140,26 +140,15 @@ public class SortedGroupAggregateNode extends GroupAggregateNode {
             return null;
 
         TupleLiteral result = null;
-        Tuple inputTuple;
 
         // Traverse the subplan's tuples, generating the group and aggregate
         // values for the current group.
-        while ((inputTuple = leftChild.getNextTuple()) != null) {
-            environment.clear();
-            environment.addTuple(inputSchema, inputTuple);
-
+        while (nextInputRow()) {
             TupleLiteral groupValues = evaluateGroupByExprs();
 
-            // Note:  I unpin in each branch of the if statement, because the
-            // logic is a bit easier to follow than if I try to factor out
-            // common code.  Just make sure tuples always get unpinned...
-
             if (groupValues.equals(currentGroupValues)) {
                 // Still in the same group.  Update the aggregates.
                 updateAggregates(aggregates);
-
-                // Done with the current tuple, so unpin it.
-                inputTuple.unpin();
             }
             else {
                 if (currentGroupValues != null) {
@@ -176,9 +165,6 @@ public class SortedGroupAggregateNode extends GroupAggregateNode {
                 clearAggregates(aggregates);
                 updateAggregates(aggregates);
 
-                // Done with the current tuple, so unpin it.
-                inputTuple.unpin();
-
                 // Return the output tuple for the group we just finished.
                 return result;
             }
@@ -247,6 +233,7 @@ public class SortedGroupAggregateNode extends GroupAggregateNode {
         orderByExprs = null;
         done = false;
         currentGroupValues = null;
+        resetInput();
 
         leftChild.initialize();
     }
@@ -280,6 +267,7 @@ public class SortedGroupAggregateNode extends GroupAggregateNode {
      */
     public void cleanUp() {
         currentGroupValues = null;
+        resetInput();
         leftChild.cleanUp();
     }
 }
@@ -2,6 +2,7 @@ package edu.caltech.nanodb.plannodes;
 
 
 import edu.caltech.nanodb.expressions.Expression;
+import edu.caltech.nanodb.expressions.ExpressionCompiler;
 import edu.caltech.nanodb.expressions.TupleLiteral;
 
 import edu.caltech.nanodb.queryeval.ColumnStats;
@@ -26,6 +27,20 @@ public abstract class ThetaJoinNode extends PlanNode {
     public Expression predicate;
 
 
+    /**
+     * The compiled form of {@link #predicate}, or <tt>null</tt> if the
+     * predicate hasn't been compiled yet.
+     */
+    private ExpressionCompiler.CompiledPredicate compiledPredicate;
+
+
+    /**
+     * The predicate that {@link #compiledPredicate} was compiled from, so
+     * that the predicate is compiled again if it is replaced.
+     */
+    private Expression compiledFrom;
+
+
     /**
      * The cached schema of the left subplan, used for join-predicate
      * evaluation.
@@ -116,6 +131,13 @@ public abstract class ThetaJoinNode extends PlanNode {
     }
 
 
+    @Override
+    public void resetSubqueryResults() {
+        super.resetSubqueryResults();
+        PlanUtils.resetSubqueryResults(predicate);
+    }
+
+
     /**
      * Do initialization for the join operation. Resets state variables.
      * Initialize both children.
@@ -164,6 +186,33 @@ public abstract class ThetaJoinNode extends PlanNode {
             stats.addAll(rightStats);
             stats.addAll(leftStats);
         }
+
+        // The predicate is evaluated against the left tuple and then the
+        // right tuple, so bind its column references in that order.
+        if (predicate != null)
+            predicate.bindColumns(leftSchema, rightSchema);
+
+        compiledPredicate = null;
+    }
+
+
+    /**
+     * Evaluates the join predicate against the tuples in the node's
+     * environment, which should hold the left tuple and then the right tuple.
+     * The predicate is compiled the first time it is evaluated.
+     *
+     * @return true if the predicate is satisfied, or if there is no predicate
+     */
+    protected boolean evaluatePredicate() {
+        if (predicate == null)
+            return true;
+
+        if (compiledPredicate == null || compiledFrom != predicate) {
+            compiledPredicate = ExpressionCompiler.compilePredicate(predicate);
+            compiledFrom = predicate;
+        }
+
+        return compiledPredicate.evaluate(environment);
     }
 
 
@@ -0,0 +1,602 @@
+package edu.caltech.nanodb.queryeval;
+
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+
+import org.apache.log4j.Logger;
+
+import edu.caltech.nanodb.client.SessionState;
+import edu.caltech.nanodb.commands.AnalyzeCommand;
+import edu.caltech.nanodb.commands.Command;
+import edu.caltech.nanodb.commands.RollbackTransactionCommand;
+import edu.caltech.nanodb.expressions.TypeCastException;
+import edu.caltech.nanodb.expressions.TypeConverter;
+import edu.caltech.nanodb.relations.TableInfo;
+import edu.caltech.nanodb.relations.Tuple;
+import edu.caltech.nanodb.server.CommandEventListener;
+import edu.caltech.nanodb.server.CommandResult;
+import edu.caltech.nanodb.server.EventDispatchException;
+import edu.caltech.nanodb.server.NanoDBServer;
+import edu.caltech.nanodb.server.RowEventListener;
+import edu.caltech.nanodb.server.properties.PropertyHandler;
+import edu.caltech.nanodb.server.properties.ReadOnlyPropertyException;
+import edu.caltech.nanodb.server.properties.UnrecognizedPropertyException;
+import edu.caltech.nanodb.storage.AnalyzeSample;
+import edu.caltech.nanodb.storage.StorageManager;
+import edu.caltech.nanodb.storage.TableManager;
+import edu.caltech.nanodb.storage.TupleFile;
+import edu.caltech.nanodb.transactions.TransactionException;
+import edu.caltech.nanodb.transactions.TransactionManager;
+import edu.caltech.nanodb.transactions.TransactionState;
+
+
+/**
+ * This class keeps table statistics up to date as tables are modified.  As a
+ * {@link RowEventListener}, it counts the rows inserted, updated and deleted
+ * in each table.  As a {@link CommandEventListener}, it adds the counts to
+ * the table's {@link TableStats#numModifications} field once the
+ * transaction that made the changes commits; the counts of a failed command
+ * or of a rolled-back transaction are discarded.  Once a table's count
+ * exceeds {@link #PROP_AUTOANALYZE_THRESHOLD} rows plus
+ * {@link #PROP_AUTOANALYZE_FRACTION} of the table's tuples, the count is
+ * saved with the table's statistics and the table is scheduled to be
+ * re-analyzed.  Other counts are only saved by
+ * {@link #saveModificationCounts}, when data is flushed or the server shuts
+ * down, so that modifying a table doesn't also rewrite its header page
+ * every time.
+ * <p>
+ * Tables are analyzed on a background thread, using a sample of
+ * {@link #AUTOANALYZE_SAMPLE_ROWS} rows.  The background thread holds the
+ * server's exclusive command lock while it works, so that it never runs at
+ * the same time as a client's command.  This handler is installed by the
+ * {@link StorageManager#initialize} setup method.
+ */
+public class AutoAnalyzer implements RowEventListener, CommandEventListener {
+
+    /** A logging object for reporting anything interesting that happens. */
+    private static Logger logger = Logger.getLogger(AutoAnalyzer.class);
+
+
+    /**
+     * This property can be used to turn automatic analysis of modified
+     * tables on or off.
+     */
+    public static final String PROP_AUTOANALYZE = "nanodb.autoanalyze";
+
+
+    /**
+     * This property specifies the fraction of a table's tuples that must be
+     * modified before the table is analyzed automatically.
+     */
+    public static final String PROP_AUTOANALYZE_FRACTION =
+        "nanodb.autoanalyze.fraction";
+
+
+    /**
+     * This property specifies the number of modified rows that a table must
+     * have, in addition to the fraction of its tuples, before it is analyzed
+     * automatically.  This keeps small tables from being analyzed after
+     * every few changes.
+     */
+    public static final String PROP_AUTOANALYZE_THRESHOLD =
+        "nanodb.autoanalyze.threshold";
+
+
+    /** The default fraction of a table's tuples that must be modified. */
+    public static final float DEFAULT_AUTOANALYZE_FRACTION = 0.1f;
+
+
+    /** The default number of modified rows needed to trigger analysis. */
+    public static final int DEFAULT_AUTOANALYZE_THRESHOLD = 50;
+
+
+    /**
+     * The number of rows sampled when a table is analyzed automatically.
+     * Tables smaller than this are analyzed in their entirety.
+     */
+    public static final int AUTOANALYZE_SAMPLE_ROWS = 30000;
+
+
+    private class AutoAnalyzerPropertyHandler implements PropertyHandler {
+
+        @Override
+        public Object getPropertyValue(String propertyName)
+            throws UnrecognizedPropertyException {
+
+            if (PROP_AUTOANALYZE.equals(propertyName)) {
+                return enabled;
+            }
+            else if (PROP_AUTOANALYZE_FRACTION.equals(propertyName)) {
+                return fraction;
+            }
+            else if (PROP_AUTOANALYZE_THRESHOLD.equals(propertyName)) {
+                return threshold;
+            }
+            else {
+                throw new UnrecognizedPropertyException("No property named " +
+                    propertyName);
+            }
+        }
+
+        @Override
+        public void setPropertyValue(String propertyName, Object value)
+            throws UnrecognizedPropertyException, ReadOnlyPropertyException,
+                   TypeCastException {
+
+            if (PROP_AUTOANALYZE.equals(propertyName)) {
+                enabled = TypeConverter.getBooleanValue(value);
+            }
+            else if (PROP_AUTOANALYZE_FRACTION.equals(propertyName)) {
+                float f = TypeConverter.getFloatValue(value);
+                if (f < 0) {
+                    throw new IllegalArgumentException(propertyName +
+                        " cannot be negative");
+                }
+                fraction = f;
+            }
+            else if (PROP_AUTOANALYZE_THRESHOLD.equals(propertyName)) {
+                int t = TypeConverter.getIntegerValue(value);
+                if (t < 0) {
+                    throw new IllegalArgumentException(propertyName +
+                        " cannot be negative");
+                }
+                threshold = t;
+            }
+            else {
+                throw new UnrecognizedPropertyException("No property named " +
+                    propertyName);
+            }
+        }
+    }
+
+
+    /** The database server whose tables are being monitored. */
+    private NanoDBServer server;
+
+
+    /** True if modified tables should be analyzed automatically. */
+    private volatile boolean enabled;
+
+
+    /** The fraction of a table's tuples that must be modified. */
+    private volatile float fraction;
+
+
+    /** The number of modified rows needed in addition to the fraction. */
+    private volatile int threshold;
+
+
+    /**
+     * The number of rows a session has modified in one table, which haven't
+     * been added to the table's statistics yet.
+     */
+    private static class PendingCount {
+        /** The table that was modified. */
+        TableInfo tableInfo;
+
+        /** The number of rows modified. */
+        int numRows;
+
+        PendingCount(TableInfo tableInfo) {
+            this.tableInfo = tableInfo;
+        }
+    }
+
+
+    /**
+     * The modifications that a session has made, but that haven't been added
+     * to the statistics of the modified tables yet.  Counts are collected
+     * for the current command, and are moved to the transaction's counts
+     * when the command succeeds.
+     */
+    private static class SessionCounts {
+        /** The rows modified by the current command, keyed by table name. */
+        final LinkedHashMap<String, PendingCount> commandCounts =
+            new LinkedHashMap<>();
+
+        /**
+         * The rows modified by the successful commands of the current
+         * transaction, keyed by table name.
+         */
+        final LinkedHashMap<String, PendingCount> txnCounts =
+            new LinkedHashMap<>();
+    }
+
+
+    /**
+     * The pending modification counts of each session.  A session's commands
+     * all run on the session's own thread, just like its
+     * {@link SessionState}.
+     */
+    private final ThreadLocal<SessionCounts> sessionCounts =
+        ThreadLocal.withInitial(SessionCounts::new);
+
+
+    /**
+     * The tables whose modification counts have changed since they were last
+     * saved, keyed by table name.
+     */
+    private final LinkedHashMap<String, TableInfo> unsavedTables =
+        new LinkedHashMap<>();
+
+
+    /** The names of the tables waiting to be analyzed in the background. */
+    private final HashSet<String> pendingTables = new HashSet<>();
+
+
+    /** The single background thread that analyzes tables. */
+    private ExecutorService executor;
+
+
+    /**
+     * Initializes the automatic analyzer for the specified server, and
+     * registers its properties.  The initial property values are taken from
+     * the corresponding system properties, if they are set.
+     *
+     * @param server the database server whose tables should be monitored
+     */
+    public AutoAnalyzer(NanoDBServer server) {
+        if (server == null)
+            throw new IllegalArgumentException("server cannot be null");
+
+        this.server = server;
+
+        enabled = !"off".equalsIgnoreCase(
+            System.getProperty(PROP_AUTOANALYZE, "on"));
+        fraction = DEFAULT_AUTOANALYZE_FRACTION;
+        threshold = DEFAULT_AUTOANALYZE_THRESHOLD;
+
+        try {
+            String str = System.getProperty(PROP_AUTOANALYZE_FRACTION);
+            if (str != null)
+                fraction = Float.parseFloat(str);
+
+            str = System.getProperty(PROP_AUTOANALYZE_THRESHOLD);
+            if (str != null)
+                threshold = Integer.parseInt(str);
+        }
+        catch (NumberFormatException e) {
+            logger.error("Could not parse auto-analyze settings; using " +
+                "default values", e);
+        }
+
+        executor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "nanodb-autoanalyze");
+            t.setDaemon(true);
+            return t;
+        });
+
+        server.getPropertyRegistry().registerProperties(
+            new AutoAnalyzerPropertyHandler(), PROP_AUTOANALYZE,
+            PROP_AUTOANALYZE_FRACTION, PROP_AUTOANALYZE_THRESHOLD);
+    }
+
+
+    /**
+     * Stops the background thread, waiting briefly for an analysis that is
+     * in progress to complete.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+        try {
+            if (!executor.awaitTermination(30, TimeUnit.SECONDS))
+                logger.warn("Background analysis did not finish in time.");
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        server.getPropertyRegistry().unregisterProperties(PROP_AUTOANALYZE,
+            PROP_AUTOANALYZE_FRACTION, PROP_AUTOANALYZE_THRESHOLD);
+    }
+
+
+    /**
+     * Returns true if the specified statistics have seen enough modifications
+     * that the table should be analyzed again.
+     *
+     * @param stats the table's statistics
+     *
+     * @return true if the table should be analyzed again
+     */
+    public boolean needsAnalysis(TableStats stats) {
+        return stats.numModifications > threshold + fraction * stats.numTuples;
+    }
+
+
+    /**
+     * Records that a row in the specified table was modified.
+     *
+     * @param tableInfo the table that was modified
+     */
+    private void recordModification(TableInfo tableInfo) {
+        recordModifications(tableInfo, 1);
+    }
+
+
+    /**
+     * Records that rows in the specified table were modified.
+     *
+     * @param tableInfo the table that was modified
+     * @param numRows the number of rows that were modified
+     */
+    private void recordModifications(TableInfo tableInfo, int numRows) {
+        addCount(sessionCounts.get().commandCounts, tableInfo, numRows);
+    }
+
+
+    /**
+     * Adds a number of modified rows to a collection of pending counts.
+     *
+     * @param counts the pending counts to add to
+     * @param tableInfo the table that was modified
+     * @param numRows the number of rows that were modified
+     */
+    private static void addCount(LinkedHashMap<String, PendingCount> counts,
+                                 TableInfo tableInfo, int numRows) {
+        PendingCount count = counts.computeIfAbsent(tableInfo.getTableName(),
+            name -> new PendingCount(tableInfo));
+        count.numRows = (int) Math.min(Integer.MAX_VALUE,
+            (long) count.numRows + numRows);
+    }
+
+
+    @Override
+    public void beforeRowInserted(TableInfo tblFileInfo, Tuple newValues) {
+        // Ignore.
+    }
+
+
+    @Override
+    public void afterRowInserted(TableInfo tblFileInfo, Tuple newTuple) {
+        recordModification(tblFileInfo);
+    }
+
+
+    @Override
+    public void afterRowsInserted(TableInfo tblFileInfo,
+                                  List<? extends Tuple> newTuples) {
+        recordModifications(tblFileInfo, newTuples.size());
+    }
+
+
+    @Override
+    public void beforeRowUpdated(TableInfo tblFileInfo, Tuple oldTuple,
+                                 Tuple newValues) {
+        // Ignore.
+    }
+
+
+    @Override
+    public void afterRowUpdated(TableInfo tblFileInfo, Tuple oldValues,
+                                Tuple newTuple) {
+        recordModification(tblFileInfo);
+    }
+
+
+    @Override
+    public void beforeRowDeleted(TableInfo tblFileInfo, Tuple oldTuple) {
+        // Ignore.
+    }
+
+
+    @Override
+    public void afterRowDeleted(TableInfo tblFileInfo, Tuple oldValues) {
+        recordModification(tblFileInfo);
+    }
+
+
+    /**
+     * Discards the counts left over from the session's previous command.  A
+     * command that fails never reaches {@link #afterCommandExecuted}, so the
+     * rows it counted must not be added to the table statistics.
+     *
+     * @param cmd the command that is about to be executed
+     */
+    @Override
+    public void beforeCommandExecuted(Command cmd) {
+        sessionCounts.get().commandCounts.clear();
+    }
+
+
+    /**
+     * Moves the counts of the command that just succeeded to its
+     * transaction's counts.  If the transaction is complete, the counts are
+     * added to the statistics of the modified tables, and any table that
+     * has changed significantly is scheduled to be analyzed.  This listener
+     * is registered before the transaction manager's, so an auto-started
+     * transaction is still in progress here, and is committed right after.
+     *
+     * @param cmd the command that was just executed
+     */
+    @Override
+    public void afterCommandExecuted(Command cmd) throws EventDispatchException {
+        SessionCounts counts = sessionCounts.get();
+
+        if (cmd instanceof RollbackTransactionCommand) {
+            counts.commandCounts.clear();
+            counts.txnCounts.clear();
+            return;
+        }
+
+        for (PendingCount count : counts.commandCounts.values())
+            addCount(counts.txnCounts, count.tableInfo, count.numRows);
+
+        counts.commandCounts.clear();
+
+        TransactionState txnState = SessionState.get().getTxnState();
+        if (txnState.isTxnInProgress() && txnState.getUserStartedTxn())
+            return;
+
+        for (PendingCount count : counts.txnCounts.values()) {
+            TableInfo tableInfo = count.tableInfo;
+            TableStats stats = tableInfo.getStats();
+            stats.numModifications = (int) Math.min(Integer.MAX_VALUE,
+                (long) stats.numModifications + count.numRows);
+
+            if (enabled && needsAnalysis(stats)) {
+                // Save the count, so that the table is still analyzed if
+                // the server stops before the analysis runs.  This is done
+                // within the command's transaction.
+                saveModificationCount(tableInfo);
+                scheduleAnalysis(tableInfo.getTableName());
+            }
+            else {
+                synchronized (unsavedTables) {
+                    unsavedTables.putIfAbsent(tableInfo.getTableName(),
+                        tableInfo);
+                }
+            }
+        }
+
+        counts.txnCounts.clear();
+    }
+
+
+    /**
+     * Saves the modification counts of all tables whose counts have changed
+     * since they were last saved.  The storage manager calls this when all
+     * data is flushed to disk, and when the server shuts down.  If no
+     * transaction is in progress, the counts are saved in a transaction of
+     * their own.
+     */
+    public void saveModificationCounts() {
+        TableInfo[] tables;
+        synchronized (unsavedTables) {
+            if (unsavedTables.isEmpty())
+                return;
+
+            tables = unsavedTables.values().toArray(new TableInfo[0]);
+            unsavedTables.clear();
+        }
+
+        TransactionManager txnManager =
+            server.getStorageManager().getTransactionManager();
+        boolean ownTxn = (txnManager != null &&
+            !SessionState.get().getTxnState().isTxnInProgress());
+
+        try {
+            if (ownTxn)
+                txnManager.startTransaction(false);
+
+            TableManager tableManager =
+                server.getStorageManager().getTableManager();
+            for (TableInfo tableInfo : tables) {
+                // The table may have been dropped since it was modified.
+                if (tableManager.tableExists(tableInfo.getTableName()))
+                    saveModificationCount(tableInfo);
+            }
+
+            if (ownTxn)
+                txnManager.commitTransaction();
+        }
+        catch (IOException | TransactionException e) {
+            logger.warn("Couldn't save modification counts", e);
+        }
+    }
+
+
+    /**
+     * Saves a table's statistics, including its modification count.
+     *
+     * @param tableInfo the table to save the statistics of
+     */
+    private void saveModificationCount(TableInfo tableInfo) {
+        TupleFile tupleFile = tableInfo.getTupleFile();
+        try {
+            tupleFile.getManager().saveMetadata(tupleFile);
+        }
+        catch (IOException e) {
+            // The counts are only a heuristic, so don't fail the command.
+            logger.warn("Couldn't save modification count for table " +
+                tableInfo.getTableName(), e);
+        }
+    }
+
+
+    /**
+     * Schedules the specified table to be analyzed on the background thread,
+     * unless it is already waiting to be analyzed.
+     *
+     * @param tableName the name of the table to analyze
+     */
+    private void scheduleAnalysis(String tableName) {
+        synchronized (pendingTables) {
+            if (!pendingTables.add(tableName))
+                return;
+        }
+
+        logger.debug("Scheduling automatic analysis of table " + tableName);
+        executor.execute(() -> analyzeInBackground(tableName));
+    }
+
+
+    /**
+     * Analyzes the specified table, if it still needs it.  This runs on the
+     * background thread while holding the server's exclusive command lock,
+     * and issues an ordinary <tt>ANALYZE</tt> command so that the new
+     * statistics are saved within a transaction like any other change.
+     *
+     * @param tableName the name of the table to analyze
+     */
+    private void analyzeInBackground(String tableName) {
+        synchronized (pendingTables) {
+            pendingTables.remove(tableName);
+        }
+
+        Lock lock = server.getCommandLock().writeLock();
+        try {
+            lock.lockInterruptibly();
+        }
+        catch (InterruptedException e) {
+            // The server is shutting down.
+            return;
+        }
+
+        try {
+            // The table may have been analyzed or dropped while this task
+            // was waiting to run.
+            StorageManager storageManager = server.getStorageManager();
+            if (!storageManager.getTableManager().tableExists(tableName))
+                return;
+
+            TableInfo tableInfo =
+                storageManager.getTableManager().openTable(tableName);
+            if (!needsAnalysis(tableInfo.getStats()))
+                return;
+
+            logger.info("Automatically analyzing table " + tableName);
+
+            // The ANALYZE command's progress messages aren't of interest to
+            // anybody, so discard them.
+            SessionState.get().setOutputStream(
+                new PrintStream(OutputStream.nullOutputStream()));
+
+            AnalyzeCommand analyze = new AnalyzeCommand(tableName);
+            analyze.setSample(
+                new AnalyzeSample(AUTOANALYZE_SAMPLE_ROWS, AnalyzeSample.Unit.ROWS));
+
+            CommandResult result = server.doCommand(analyze, false);
+            if (result.failed()) {
+                logger.warn("Automatic analysis of table " + tableName +
+                    " failed", result.getFailure());
+            }
+        }
+        catch (Exception e) {
+            logger.warn("Automatic analysis of table " + tableName +
+                " failed", e);
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+}
@@ -10,6 +10,9 @@ package edu.caltech.nanodb.queryeval;
  *   <li>the number of <tt>NULL</tt> values in the column</li>
  *   <li>the minimum value for the column</li>
  *   <li>the maximum value for the column</li>
+ *   <li>an equi-depth histogram of the column's values, for types that
+ *       support comparison estimates</li>
+ *   <li>a list of the column's most common values and their frequencies</li>
  * </ul>
  * The {@link ColumnStatsCollector} class can be used to easily collect these
  * statistics for a particular column of a table.
@@ -43,12 +46,28 @@ public class ColumnStats {
     private Object maxValue;
 
 
+    /**
+     * An equi-depth histogram of the column's non-<tt>NULL</tt> values, or
+     * <tt>null</tt> if no histogram is available.
+     */
+    private Histogram histogram;
+
+
+    /**
+     * The column's most common values and their frequencies, or
+     * <tt>null</tt> if no such list is available.
+     */
+    private MostCommonValues mostCommonValues;
+
+
     /** Initializes a column-stats object to all "unknown" values. */
     public ColumnStats() {
         numUniqueValues = -1;
         numNullValues = -1;
         minValue = null;
         maxValue = null;
+        histogram = null;
+        mostCommonValues = null;
     }
 
 
@@ -192,4 +211,72 @@ public class ColumnStats {
     public boolean hasDifferentMinMaxValues() {
         return hasMinMaxValues() && (!minValue.equals(maxValue));
     }
+
+
+    /**
+     * Returns the histogram of the column's values, or <tt>null</tt> if no
+     * histogram is available.
+     *
+     * @return the histogram of the column's values, or <tt>null</tt> if no
+     *         histogram is available
+     */
+    public Histogram getHistogram() {
+        return histogram;
+    }
+
+
+    /**
+     * Sets the histogram of the column's values.
+     *
+     * @param histogram the histogram of the column's values, or
+     *        <tt>null</tt> if no histogram is available
+     */
+    public void setHistogram(Histogram histogram) {
+        this.histogram = histogram;
+    }
+
+
+    /**
+     * Returns <tt>true</tt> if this column-stats object has a histogram.
+     *
+     * @return <tt>true</tt> if this column-stats object has a histogram
+     */
+    public boolean hasHistogram() {
+        return histogram != null;
+    }
+
+
+    /**
+     * Returns the column's most common values, or <tt>null</tt> if no such
+     * list is available.
+     *
+     * @return the column's most common values, or <tt>null</tt> if no such
+     *         list is available
+     */
+    public MostCommonValues getMostCommonValues() {
+        return mostCommonValues;
+    }
+
+
+    /**
+     * Sets the column's most common values.
+     *
+     * @param mostCommonValues the column's most common values, or
+     *        <tt>null</tt> if no such list is available
+     */
+    public void setMostCommonValues(MostCommonValues mostCommonValues) {
+        this.mostCommonValues = mostCommonValues;
+    }
+
+
+    /**
+     * Returns <tt>true</tt> if this column-stats object has a list of the
+     * column's most common values.
+     *
+     * @return <tt>true</tt> if this column-stats object has a list of the
+     *         column's most common values
+     */
+    public boolean hasMostCommonValues() {
+        return mostCommonValues != null;
+    }
 }
@@ -4,7 +4,11 @@ package edu.caltech.nanodb.queryeval;
 import edu.caltech.nanodb.relations.SQLDataType;
 import edu.caltech.nanodb.storage.TableManager;
 
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
 
 
 /**
@@ -12,27 +16,87 @@ import java.util.HashSet;
  * table being analyzed by the {@link TableManager#analyzeTable}
  * method.  Instances of the class compute the number of distinct values, the
  * number of non-<tt>NULL</tt> values, and for appropriate data types, the
- * minimum and maximum values for the column.
+ * minimum and maximum values for the column and an equi-depth histogram of
+ * its values.  The histogram is built from a fixed-size reservoir sample of
+ * the column's values, so that its memory use is bounded.  Finally, a list of
+ * the column's most common values and their frequencies is recorded.
  * <p>
  * The class also makes it very easy to construct a {@link ColumnStats} object
- * from the result of the analysis.
- *
- * @design (Donnie) This class is limited in its ability to efficiently compute
- *         the number of unique values for very large tables.  An
- *         external-memory approach would have to be used to support extremely
- *         large tables.
+ * from the result of the analysis.  When only a sample of a table's rows is
+ * analyzed, {@link #getColumnStats(double)} scales the statistics up to the
+ * size of the whole table.
+ * <p>
+ * The memory used by a collector is bounded, regardless of the size of the
+ * table.  The number of distinct values is counted exactly until
+ * {@link #MAX_EXACT_DISTINCT_VALUES} distinct values have been seen; after
+ * that, it is estimated with a {@link HyperLogLog} sketch, and the value
+ * counts used for the most-common-values list are maintained with the
+ * Misra-Gries frequent-items algorithm, which keeps a bounded number of
+ * counters.
+ * <p>
+ * Collectors for the same column can be combined with {@link #merge}, so
+ * that different parts of a table can be analyzed separately.
  */
 public class ColumnStatsCollector {
 
+    /** The maximum number of buckets in the histograms that are built. */
+    public static final int MAX_HISTOGRAM_BUCKETS = 16;
+
+
+    /**
+     * The maximum number of values kept in the reservoir sample used to
+     * build the histogram.
+     */
+    public static final int MAX_SAMPLE_SIZE = 10000;
+
+
+    /** The maximum number of values in the most-common-values lists. */
+    public static final int MAX_COMMON_VALUES = 10;
+
+
+    /**
+     * The maximum length of string values that may appear in the
+     * most-common-values list.  Longer strings are left out so that the
+     * statistics fit comfortably in the table's header page.
+     */
+    public static final int MAX_COMMON_VALUE_LENGTH = 32;
+
+
+    /**
+     * The number of distinct values below which value counts are kept
+     * exactly.  Beyond this, the distinct-value count is estimated and at
+     * most this many value counters are kept.
+     */
+    public static final int MAX_EXACT_DISTINCT_VALUES = 1000;
+
+
     /** The SQL data-type for the column that stats are being collected for. */
     private SQLDataType sqlType;
 
 
     /**
-     * The set of all values seen in this column.  This set could obviously
-     * occupy a large amount of memory for large tables.
+     * The number of times each distinct value has been seen in this column.
+     * Once there are more than {@link #MAX_EXACT_DISTINCT_VALUES} distinct
+     * values, this map holds the Misra-Gries frequent-item counters instead,
+     * which underestimate the true counts.
+     */
+    private HashMap<Object, Integer> valueCounts;
+
+
+    /**
+     * True if {@link #valueCounts} holds the exact count of every distinct
+     * value, or false if it holds approximate counters.
      */
-    private HashSet<Object> uniqueValues;
+    private boolean exactCounts;
+
+
+    /** A sketch for estimating the number of distinct values in the column. */
+    private HyperLogLog distinctSketch;
+
+
+    /** The number of non-<tt>NULL</tt> values seen in the column. */
+    private long numNonNullValues;
+
 
     /**
      * A count of the number of <tt>NULL</tt> values seen in the column-values.
@@ -54,6 +118,28 @@ public class ColumnStatsCollector {
     Comparable maxValue;
 
 
+    /**
+     * The number of non-<tt>NULL</tt> values seen in the column, for types
+     * that support comparison estimates.
+     */
+    private long numSampledValues;
+
+
+    /**
+     * A reservoir sample of the non-<tt>NULL</tt> values seen in the column,
+     * used to build the histogram.  This is <tt>null</tt> for types that
+     * don't support comparison estimates.
+     */
+    private ArrayList<Comparable> sample;
+
+
+    /**
+     * The source of randomness used to maintain the reservoir sample.  A
+     * fixed seed is used so that analyzing a table is repeatable.
+     */
+    private Random random;
+
+
     /**
      * Initializes a new column-stats collector object for a column with the
      * specified base SQL datatype.
@@ -62,10 +148,19 @@ public class ColumnStatsCollector {
      */
     public ColumnStatsCollector(SQLDataType sqlType) {
         this.sqlType = sqlType;
-        uniqueValues = new HashSet<Object>();
+        valueCounts = new HashMap<>();
+        exactCounts = true;
+        distinctSketch = new HyperLogLog();
+        numNonNullValues = 0;
         numNullValues = 0;
         minValue = null;
         maxValue = null;
+
+        if (SelectivityEstimator.typeSupportsCompareEstimates(sqlType)) {
+            numSampledValues = 0;
+            sample = new ArrayList<>();
+            random = new Random(0);
+        }
     }
 
 
@@ -98,10 +193,168 @@ public class ColumnStatsCollector {
 
                 if (maxValue == null || comp.compareTo(maxValue) > 0)
                     maxValue = comp;
+
+                addToSample(comp);
+            }
+
+            // Update the count of this value.
+            distinctSketch.add(value);
+            countValue(value);
+            numNonNullValues++;
+        }
+    }
+
+
+    /**
+     * Updates the count of a value.  While counts are exact, each distinct
+     * value gets its own counter; once there are too many distinct values,
+     * the counters are pruned and maintained with the Misra-Gries algorithm.
+     *
+     * @param value the value to count
+     */
+    private void countValue(Object value) {
+        Integer count = valueCounts.get(value);
+        if (count != null) {
+            valueCounts.put(value, count + 1);
+        }
+        else if (valueCounts.size() < MAX_EXACT_DISTINCT_VALUES) {
+            valueCounts.put(value, 1);
+        }
+        else {
+            // There is no room for another counter, so decrement every
+            // counter (and drop the new value), discarding counters that
+            // reach zero.
+            exactCounts = false;
+            valueCounts.replaceAll((v, c) -> c - 1);
+            valueCounts.values().removeIf(c -> c == 0);
+        }
+    }
+
+
+    /**
+     * Merges the statistics collected by another collector for the same
+     * column into this collector.  Afterwards, this collector reflects the
+     * values added to either collector.  The other collector must not be
+     * used afterwards.
+     *
+     * @param other the collector to merge into this one
+     *
+     * @throws IllegalArgumentException if the other collector is for a
+     *         different SQL data-type
+     */
+    @SuppressWarnings("unchecked")
+    public void merge(ColumnStatsCollector other) {
+        if (other.sqlType != sqlType) {
+            throw new IllegalArgumentException(String.format(
+                "Cannot merge collectors for types %s and %s", sqlType,
+                other.sqlType));
+        }
+
+        numNullValues += other.numNullValues;
+        numNonNullValues += other.numNonNullValues;
+
+        if (other.minValue != null &&
+            (minValue == null || other.minValue.compareTo(minValue) < 0)) {
+            minValue = other.minValue;
+        }
+
+        if (other.maxValue != null &&
+            (maxValue == null || other.maxValue.compareTo(maxValue) > 0)) {
+            maxValue = other.maxValue;
+        }
+
+        distinctSketch.merge(other.distinctSketch);
+
+        // Combine the value counters.  If there are too many, prune them
+        // the way Misra-Gries summaries are merged:  subtract the count of
+        // the first counter that doesn't fit from every counter.
+        for (Map.Entry<Object, Integer> entry : other.valueCounts.entrySet())
+            valueCounts.merge(entry.getKey(), entry.getValue(), Integer::sum);
+
+        exactCounts = exactCounts && other.exactCounts;
+
+        if (valueCounts.size() > MAX_EXACT_DISTINCT_VALUES) {
+            ArrayList<Integer> counts = new ArrayList<>(valueCounts.values());
+            Collections.sort(counts, Collections.reverseOrder());
+            int cutoff = counts.get(MAX_EXACT_DISTINCT_VALUES);
+
+            exactCounts = false;
+            valueCounts.replaceAll((v, c) -> c - cutoff);
+            valueCounts.values().removeIf(c -> c <= 0);
+        }
+
+        if (sample != null)
+            mergeSample(other);
+    }
+
+
+    /**
+     * Merges another collector's reservoir sample into this collector's
+     * sample.  If both samples fit, they are simply combined; otherwise,
+     * each entry of the merged sample is drawn from one of the two samples
+     * with probability proportional to the number of values it represents.
+     *
+     * @param other the collector whose sample should be merged
+     */
+    private void mergeSample(ColumnStatsCollector other) {
+        long total = numSampledValues + other.numSampledValues;
+
+        if (sample.size() + other.sample.size() <= MAX_SAMPLE_SIZE) {
+            sample.addAll(other.sample);
+        }
+        else {
+            ArrayList<Comparable> mine = new ArrayList<>(sample);
+            ArrayList<Comparable> theirs = new ArrayList<>(other.sample);
+            Collections.shuffle(mine, random);
+            Collections.shuffle(theirs, random);
+
+            sample.clear();
+            long mineLeft = numSampledValues;
+            long theirsLeft = other.numSampledValues;
+            int iMine = 0;
+            int iTheirs = 0;
+            while (sample.size() < MAX_SAMPLE_SIZE) {
+                boolean pickMine;
+                if (iMine == mine.size())
+                    pickMine = false;
+                else if (iTheirs == theirs.size())
+                    pickMine = true;
+                else
+                    pickMine = random.nextDouble() * (mineLeft + theirsLeft) < mineLeft;
+
+                if (pickMine) {
+                    sample.add(mine.get(iMine++));
+                    mineLeft--;
+                }
+                else {
+                    sample.add(theirs.get(iTheirs++));
+                    theirsLeft--;
+                }
             }
+        }
+
+        numSampledValues = total;
+    }
+
+
+    /**
+     * Adds a value to the reservoir sample.  The first
+     * {@link #MAX_SAMPLE_SIZE} values are always kept; after that, each new
+     * value replaces a random sample entry with a probability that keeps
+     * every value equally likely to be in the sample.
+     *
+     * @param value the value to add to the sample
+     */
+    private void addToSample(Comparable value) {
+        numSampledValues++;
 
-            // Update the set of unique values.
-            uniqueValues.add(value);
+        if (sample.size() < MAX_SAMPLE_SIZE) {
+            sample.add(value);
+        }
+        else {
+            long pos = (long) (random.nextDouble() * numSampledValues);
+            if (pos < MAX_SAMPLE_SIZE)
+                sample.set((int) pos, value);
         }
     }
 
@@ -118,13 +371,20 @@ public class ColumnStatsCollector {
 
     /**
      * Returns the number of unique (and non-<tt>NULL</tt>) values seen for the
-     * column.
+     * column.  This is exact for columns with fewer than
+     * {@link #MAX_EXACT_DISTINCT_VALUES} distinct values, and an estimate
+     * otherwise.
      *
      * @return the number of unique (and non-<tt>NULL</tt>) values seen for the
      *         column
      */
     public int getNumUniqueValues() {
-        return uniqueValues.size();
+        if (exactCounts)
+            return valueCounts.size();
+
+        // The estimate can't exceed the number of values actually seen.
+        long estimate = Math.min(distinctSketch.estimate(), numNonNullValues);
+        return (int) Math.max(estimate, valueCounts.size());
     }
 
 
@@ -160,7 +420,169 @@ public class ColumnStatsCollector {
      *         collected by this object
      */
     public ColumnStats getColumnStats() {
-        return new ColumnStats(getNumUniqueValues(), numNullValues,
-            minValue, maxValue);
+        ColumnStats stats = new ColumnStats(getNumUniqueValues(),
+            numNullValues, minValue, maxValue);
+
+        stats.setHistogram(getHistogram());
+        stats.setMostCommonValues(getMostCommonValues());
+
+        return stats;
+    }
+
+
+    /**
+     * Constructs a column-statistics object for a whole table, when the
+     * values given to this collector are a random sample of the table's
+     * rows.  Counts are multiplied by the scale factor, and the number of
+     * distinct values is extrapolated with the Haas-Stokes "Duj1" estimator,
+     * which assumes that values seen only once in the sample are likely to
+     * be some of many rare values in the table.  The minimum and maximum
+     * values are those of the sample.
+     *
+     * @param scale the ratio of the number of rows in the table to the
+     *        number of rows in the sample
+     *
+     * @return a new column-stats object containing the estimated stats for
+     *         the whole table
+     *
+     * @throws IllegalArgumentException if the scale is less than 1
+     */
+    public ColumnStats getColumnStats(double scale) {
+        if (scale < 1) {
+            throw new IllegalArgumentException(
+                "scale must be at least 1, got " + scale);
+        }
+
+        if (scale == 1)
+            return getColumnStats();
+
+        ColumnStats stats = new ColumnStats(estimateTableUniqueValues(scale),
+            (int) Math.round(numNullValues * scale), minValue, maxValue);
+
+        if (sample != null && !sample.isEmpty())
+            stats.setHistogram(buildHistogram(Math.round(numSampledValues * scale)));
+
+        MostCommonValues mcv = getMostCommonValues();
+        if (mcv != null) {
+            // Only values that are common in the sample are listed, so their
+            // frequencies can simply be scaled up.
+            Object[] values = new Object[mcv.size()];
+            int[] counts = new int[mcv.size()];
+            for (int i = 0; i < mcv.size(); i++) {
+                values[i] = mcv.getValue(i);
+                counts[i] = (int) Math.round(mcv.getCount(i) * scale);
+            }
+
+            stats.setMostCommonValues(new MostCommonValues(values, counts,
+                Math.round(mcv.getTotalCount() * scale)));
+        }
+
+        return stats;
+    }
+
+
+    /**
+     * Estimates the number of distinct values in a whole table from the
+     * values in a sample of its rows.  The Duj1 estimator is
+     * <em>n</em>&middot;<em>d</em> / (<em>n</em> - <em>f</em><sub>1</sub> +
+     * <em>f</em><sub>1</sub>&middot;<em>n</em>/<em>N</em>), where <em>n</em>
+     * is the number of sampled values, <em>N</em> the number of values in
+     * the table, <em>d</em> the number of distinct values in the sample, and
+     * <em>f</em><sub>1</sub> the number of values seen exactly once.  Once
+     * the value counts are no longer exact, <em>f</em><sub>1</sub> is
+     * approximated as <em>d</em><sup>2</sup>/<em>n</em>, which is <em>n</em>
+     * for a column of unique values and near zero for a column with few
+     * distinct values.
+     *
+     * @param scale the ratio of the number of rows in the table to the
+     *        number of rows in the sample
+     *
+     * @return the estimated number of distinct values in the table
+     */
+    private int estimateTableUniqueValues(double scale) {
+        int d = getNumUniqueValues();
+        if (numNonNullValues == 0)
+            return d;
+
+        double n = numNonNullValues;
+        double total = n * scale;
+
+        double f1;
+        if (exactCounts) {
+            f1 = 0;
+            for (int count : valueCounts.values()) {
+                if (count == 1)
+                    f1++;
+            }
+        }
+        else {
+            f1 = (double) d * d / n;
+        }
+
+        double estimate = n * d / (n - f1 + f1 / scale);
+        estimate = Math.max(d, Math.min(estimate, total));
+        return (int) Math.round(estimate);
+    }
+
+
+    /**
+     * Builds the list of the column's most common values from the value
+     * counts collected so far.
+     *
+     * @return the column's most common values, or <tt>null</tt> if no
+     *         values are common enough to be worth recording
+     */
+    public MostCommonValues getMostCommonValues() {
+        Map<Object, Integer> candidates = valueCounts;
+
+        if (sqlType == SQLDataType.CHAR || sqlType == SQLDataType.VARCHAR) {
+            candidates = new HashMap<>();
+            for (Map.Entry<Object, Integer> entry : valueCounts.entrySet()) {
+                String str = entry.getKey().toString();
+                if (str.length() <= MAX_COMMON_VALUE_LENGTH)
+                    candidates.put(entry.getKey(), entry.getValue());
+            }
+        }
+        else if (sqlType == SQLDataType.FILE_POINTER) {
+            // File-pointers are unique to each tuple, so there's no point.
+            return null;
+        }
+
+        return MostCommonValues.build(candidates, numNonNullValues,
+            getNumUniqueValues(), MAX_COMMON_VALUES);
+    }
+
+
+    /**
+     * Builds an equi-depth histogram of the column's non-<tt>NULL</tt>
+     * values from the sample collected so far.
+     *
+     * @return a histogram of the column's values, or <tt>null</tt> if the
+     *         column's type doesn't support comparison estimates or no
+     *         non-<tt>NULL</tt> values have been seen
+     */
+    public Histogram getHistogram() {
+        if (sample == null || sample.isEmpty())
+            return null;
+
+        return buildHistogram(numSampledValues);
+    }
+
+
+    /**
+     * Builds an equi-depth histogram from the sample, with its bucket counts
+     * scaled to the specified total number of values.
+     *
+     * @param totalCount the total number of non-<tt>NULL</tt> values that
+     *        the histogram should represent
+     *
+     * @return a histogram of the column's values
+     */
+    @SuppressWarnings("unchecked")
+    private Histogram buildHistogram(long totalCount) {
+        ArrayList<Comparable> sorted = new ArrayList<>(sample);
+        Collections.sort(sorted);
+
+        return Histogram.build(sorted, totalCount, MAX_HISTOGRAM_BUCKETS);
     }
 }
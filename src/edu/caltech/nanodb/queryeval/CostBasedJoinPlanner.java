@@ -4,18 +4,46 @@ package edu.caltech.nanodb.queryeval;
 import java.io.IOException;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import edu.caltech.nanodb.expressions.AggregateProcessor;
+import edu.caltech.nanodb.expressions.BooleanOperator;
+import edu.caltech.nanodb.expressions.ColumnName;
+import edu.caltech.nanodb.expressions.ColumnValue;
+import edu.caltech.nanodb.expressions.CompareOperator;
+import edu.caltech.nanodb.expressions.ExistsOperator;
+import edu.caltech.nanodb.expressions.ExpressionProcessor;
+import edu.caltech.nanodb.expressions.FunctionCall;
+import edu.caltech.nanodb.expressions.InSubqueryOperator;
+import edu.caltech.nanodb.expressions.InValueSet;
+import edu.caltech.nanodb.expressions.InValuesOperator;
+import edu.caltech.nanodb.expressions.LiteralValue;
+import edu.caltech.nanodb.expressions.OrderByExpression;
 import edu.caltech.nanodb.expressions.PredicateUtils;
+import edu.caltech.nanodb.expressions.StringMatchOperator;
+import edu.caltech.nanodb.expressions.SubqueryOperator;
+import edu.caltech.nanodb.expressions.TypeCastException;
+import edu.caltech.nanodb.expressions.TypeConverter;
+import edu.caltech.nanodb.functions.AggregateFunction;
+import edu.caltech.nanodb.indexes.IndexInfo;
 import edu.caltech.nanodb.plannodes.*;
 import edu.caltech.nanodb.queryast.SelectValue;
+import edu.caltech.nanodb.relations.ColumnRefs;
 import edu.caltech.nanodb.relations.JoinType;
+import edu.caltech.nanodb.relations.SQLDataType;
+import edu.caltech.nanodb.relations.Schema;
+import edu.caltech.nanodb.relations.SchemaNameException;
+import edu.caltech.nanodb.server.properties.PropertyHandler;
+import edu.caltech.nanodb.server.properties.ReadOnlyPropertyException;
+import edu.caltech.nanodb.server.properties.UnrecognizedPropertyException;
+import edu.caltech.nanodb.storage.SequentialTupleFile;
 import org.apache.log4j.Logger;
 
 import edu.caltech.nanodb.expressions.Expression;
@@ -28,13 +56,117 @@ import edu.caltech.nanodb.relations.TableInfo;
  * This planner implementation uses dynamic programming to devise an optimal
  * join strategy for the query.  As always, queries are optimized in units of
  * <tt>SELECT</tt>-<tt>FROM</tt>-<tt>WHERE</tt> subqueries; optimizations
- * don't currently span multiple subqueries.
+ * don't currently span multiple subqueries.  Queries that join more than
+ * {@link #PROP_GREEDY_THRESHOLD} tables are planned with a greedy heuristic
+ * instead.
  */
 public class CostBasedJoinPlanner extends AbstractPlannerImpl {
 
     /** A logging object for reporting anything interesting that happens. */
     private static Logger logger = Logger.getLogger(CostBasedJoinPlanner.class);
 
+    /**
+     * This property specifies the largest number of leaves that will be
+     * joined with the exhaustive dynamic-programming enumerator.  Queries
+     * that join more leaves than this are planned with a greedy heuristic,
+     * since the number of plans the enumerator considers grows exponentially
+     * with the number of leaves.
+     */
+    public static final String PROP_GREEDY_THRESHOLD =
+        "nanodb.planner.greedyThreshold";
+
+
+    /** The default value of the {@link #PROP_GREEDY_THRESHOLD} property. */
+    public static final int DEFAULT_GREEDY_THRESHOLD = 12;
+
+
+    /**
+     * The maximum number of leaves that a single join can have, since sets
+     * of leaves are represented as bits in a <tt>long</tt>.
+     */
+    private static final int MAX_JOIN_LEAVES = Long.SIZE;
+
+
+    /**
+     * The CPU cost of reading one block from disk, relative to the CPU cost
+     * of processing one tuple.  This allows the CPU and IO components of a
+     * plan's cost to be combined into a single number for comparing plans.
+     */
+    private static final float BLOCK_IO_COST = 10.0f;
+
+
+    public static class JoinPlannerPropertyHandler implements PropertyHandler {
+
+        @Override
+        public Object getPropertyValue(String propertyName)
+                throws UnrecognizedPropertyException {
+
+            if (PROP_GREEDY_THRESHOLD.equals(propertyName)) {
+                return getGreedyThreshold();
+            }
+            else {
+                throw new UnrecognizedPropertyException("No property named " +
+                        propertyName);
+            }
+        }
+
+        @Override
+        public void setPropertyValue(String propertyName, Object value)
+                throws UnrecognizedPropertyException, ReadOnlyPropertyException,
+                TypeCastException {
+
+            if (PROP_GREEDY_THRESHOLD.equals(propertyName)) {
+                setGreedyThreshold(TypeConverter.getIntegerValue(value));
+            }
+            else {
+                throw new UnrecognizedPropertyException("No property named " +
+                        propertyName);
+            }
+        }
+    }
+
+
+    /**
+     * Returns the largest number of leaves that will be joined with the
+     * exhaustive dynamic-programming enumerator.
+     *
+     * @return the current value of the {@link #PROP_GREEDY_THRESHOLD}
+     *         property
+     */
+    public static int getGreedyThreshold() {
+        String value = System.getProperty(PROP_GREEDY_THRESHOLD);
+        if (value == null)
+            return DEFAULT_GREEDY_THRESHOLD;
+
+        try {
+            return Integer.parseInt(value);
+        }
+        catch (NumberFormatException e) {
+            logger.warn(String.format("Ignoring invalid value \"%s\" for " +
+                "property %s", value, PROP_GREEDY_THRESHOLD));
+            return DEFAULT_GREEDY_THRESHOLD;
+        }
+    }
+
+
+    /**
+     * Sets the largest number of leaves that will be joined with the
+     * exhaustive dynamic-programming enumerator.
+     *
+     * @param threshold the maximum number of leaves to join exhaustively
+     *
+     * @throws IllegalArgumentException if the threshold is less than 1
+     */
+    public static void setGreedyThreshold(int threshold) {
+        if (threshold < 1) {
+            throw new IllegalArgumentException(
+                "greedy threshold must be at least 1, got " + threshold);
+        }
+
+        System.setProperty(PROP_GREEDY_THRESHOLD, Integer.toString(threshold));
+    }
+
+
     /**
      * This helper class is used to keep track of one "join component" in the
      * dynamic programming algorithm.  A join component is simply a query plan
@@ -54,23 +186,29 @@ public class CostBasedJoinPlanner extends AbstractPlannerImpl {
         public PlanNode joinPlan;
 
         /**
-         * This field specifies the collection of leaf-plans that are joined by
-         * the plan in this join-component.
+         * This field specifies the set of leaves that are joined by the plan
+         * in this join-component.  Leaf <em>i</em> is in the set if bit
+         * <em>i</em> is set.
          */
-        public HashSet<PlanNode> leavesUsed;
+        public long leavesUsed;
 
         /**
          * This field specifies the collection of all conjuncts use by this join
          * plan.  It allows us to easily determine what join conjuncts still
-         * remain to be incorporated into the query.
+         * remain to be incorporated into the query.  It is only recorded for
+         * leaf components and for the final join plan; while the join is being
+         * planned, the conjuncts applied by each join are determined from the
+         * leaves it joins.
          */
         public HashSet<Expression> conjunctsUsed;
 
+        /** The cost of the join plan, as computed by {@link #planCost}. */
+        public float cost;
+
         /**
          * Constructs a new instance for a <em>leaf node</em>.  It should not
-         * be used for join-plans that join together two or more leaves.  This
-         * constructor simply adds the leaf-plan into the {@link #leavesUsed}
-         * collection.
+         * be used for join-plans that join together two or more leaves.  The
+         * index of the leaf is assigned later, when the join is planned.
          *
          * @param leafPlan the query plan for this leaf of the query.
          *
@@ -80,37 +218,52 @@ public class CostBasedJoinPlanner extends AbstractPlannerImpl {
          *        solely to this leaf.
          */
         public JoinComponent(PlanNode leafPlan, HashSet<Expression> conjunctsUsed) {
-            leavesUsed = new HashSet<>();
-            leavesUsed.add(leafPlan);
-
-            joinPlan = leafPlan;
-
-            this.conjunctsUsed = conjunctsUsed;
+            this(leafPlan, 0, conjunctsUsed);
         }
 
         /**
-         * Constructs a new instance for a <em>non-leaf node</em>.  It should
-         * not be used for leaf plans!
+         * Constructs a new instance for a join plan.
          *
          * @param joinPlan the query plan that joins together all leaves
          *        specified in the <tt>leavesUsed</tt> argument.
          *
-         * @param leavesUsed the set of two or more leaf plans that are joined
-         *        together by the join plan.
+         * @param leavesUsed the set of leaves that are joined together by
+         *        the join plan.
          *
-         * @param conjunctsUsed the set of conjuncts used by the join plan.
-         *        Obviously, it is expected that all conjuncts specified here
-         *        can actually be evaluated against the join plan.
+         * @param conjunctsUsed the set of conjuncts used by the join plan, or
+         *        <tt>null</tt> if they are not being tracked.
          */
-        public JoinComponent(PlanNode joinPlan, HashSet<PlanNode> leavesUsed,
+        public JoinComponent(PlanNode joinPlan, long leavesUsed,
                              HashSet<Expression> conjunctsUsed) {
             this.joinPlan = joinPlan;
             this.leavesUsed = leavesUsed;
             this.conjunctsUsed = conjunctsUsed;
+            cost = planCost(joinPlan);
         }
     }
 
 
+    /**
+     * This helper class records the best plans found for joining one set of
+     * leaves:  the cheapest plan overall, and the cheapest plan that produces
+     * its results in the "interesting order" of the query.  Since nested-loop
+     * joins are the only join implementation available, the only interesting
+     * order is the query's <tt>ORDER BY</tt> ordering; a plan that produces
+     * it can avoid a sort, so it is kept even if it costs more than the
+     * cheapest plan.
+     */
+    private static class JoinPlans {
+        /** The cheapest plan for joining the leaves. */
+        public JoinComponent best;
+
+        /**
+         * The cheapest plan for joining the leaves that produces results in
+         * the interesting order, or <tt>null</tt> if there is none.
+         */
+        public JoinComponent bestOrdered;
+    }
+
+
     /**
      * Returns the root of a plan tree suitable for executing the specified
      * query.
@@ -200,13 +353,28 @@ public class CostBasedJoinPlanner extends AbstractPlannerImpl {
             PredicateUtils.collectConjuncts(selClause.getWhereExpr(), whereConjuncts);
         }
 
+        // Predicates with subqueries are applied once the join plan has been
+        // made, so that IN and EXISTS predicates can become semijoins and
+        // antijoins.  Since such predicates often reference no columns of
+        // the enclosing query, they would otherwise be pushed down to an
+        // arbitrary leaf of the join.
+        List<Expression> subqueryConjuncts = removeSubqueryConjuncts(whereConjuncts);
+
         // initialize the plan
         PlanNode plan;
 
         // now make the join plan
 
+        // If the results of the join can be used directly by the ORDER BY
+        // clause, the join planner will also consider plans that produce
+        // the results in that order.
+        List<OrderByExpression> interestingOrder = null;
+        if (!hasAgg && selClause.getGroupByExprs().isEmpty())
+            interestingOrder = getInterestingOrder(selClause);
+
         // logger.warn("make join plan");
-        JoinComponent joinComponent = makeJoinPlan(fromClause, whereConjuncts);
+        JoinComponent joinComponent =
+            makeJoinPlan(fromClause, whereConjuncts, interestingOrder);
         // logger.warn(String.format("made join plan"));
         // PredicateUtils.collectConjuncts(fromClause);
 
@@ -217,6 +385,10 @@ public class CostBasedJoinPlanner extends AbstractPlannerImpl {
         // get the joinPlan
         plan = joinComponent.joinPlan;
 
+        // Semijoins and antijoins produce the join's results in the same
+        // order, so they don't affect whether the results need sorting.
+        plan = addSubqueryConjuncts(plan, subqueryConjuncts);
+
         // handles the unused conjuncts in the where clause
         // logger.warn("got plan");
 
@@ -261,8 +433,12 @@ public class CostBasedJoinPlanner extends AbstractPlannerImpl {
             // logger.warn(String.format("projected %s", oldPlan.getSchema()));
         }
 
-        // now we order by
-        if(selClause.getOrderByExprs().size() > 0)
+        // now we order by, unless the join plan already produces the results
+        // in the right order
+        boolean ordered = interestingOrder != null &&
+            satisfiesOrder(joinComponent.joinPlan, interestingOrder);
+
+        if(selClause.getOrderByExprs().size() > 0 && !ordered)
         {
             // logger.warn("order by");
             PlanNode sNode = plan;
@@ -290,6 +466,30 @@ public class CostBasedJoinPlanner extends AbstractPlannerImpl {
      */
     private JoinComponent makeJoinPlan(FromClause fromClause,
         Collection<Expression> extraConjuncts) throws IOException {
+        return makeJoinPlan(fromClause, extraConjuncts, null);
+    }
+
+
+    /**
+     * Given the top-level {@code FromClause} for a SELECT-FROM-WHERE block,
+     * this helper generates an optimal join plan for the {@code FromClause},
+     * taking into account that producing the results in a particular order
+     * may avoid a sort later in the plan.
+     *
+     * @param fromClause the top-level {@code FromClause} of a
+     *        SELECT-FROM-WHERE block.
+     * @param extraConjuncts any extra conjuncts (e.g. from the WHERE clause,
+     *        or HAVING clause)
+     * @param interestingOrder the order that the results of the join would
+     *        ideally be produced in, or {@code null} if the order doesn't
+     *        matter
+     * @return a {@code JoinComponent} object that represents the optimal plan
+     *         corresponding to the FROM-clause
+     * @throws IOException if an IO error occurs during planning.
+     */
+    private JoinComponent makeJoinPlan(FromClause fromClause,
+        Collection<Expression> extraConjuncts,
+        List<OrderByExpression> interestingOrder) throws IOException {
 
         // These variables receive the leaf-clauses and join conjuncts found
         // from scanning the sub-clauses.  Initially, we put the extra conjuncts
@@ -329,7 +529,7 @@ public class CostBasedJoinPlanner extends AbstractPlannerImpl {
         // Build up the full query-plan using a dynamic programming approach.
 
         JoinComponent optimalJoin =
-            generateOptimalJoin(leafComponents, roConjuncts);
+            generateOptimalJoin(leafComponents, roConjuncts, interestingOrder);
 
         PlanNode plan = optimalJoin.joinPlan;
         logger.info("Optimal join plan generated:\n" +
@@ -622,6 +822,11 @@ public class CostBasedJoinPlanner extends AbstractPlannerImpl {
             leafPlan.prepare();
             // logger.warn(String.format("got plan, %s", leafPlan.toString()));
 
+            // A table with an index on a column used by the conjuncts may
+            // be cheaper to read through the index.
+            if (leafPlan instanceof FileScanNode)
+                leafPlan = chooseIndexScan((FileScanNode) leafPlan, used);
+
 
         }
         // logger.warn(String.format("added to plan %s", leafPlan.toString()));
@@ -631,152 +836,1301 @@ public class CostBasedJoinPlanner extends AbstractPlannerImpl {
 
 
     /**
-     * This helper method builds up a full join-plan using a dynamic programming
-     * approach.  The implementation maintains a collection of optimal
-     * intermediate plans that join <em>n</em> of the leaf nodes, each with its
-     * own associated cost, and then uses that collection to generate a new
-     * collection of optimal intermediate plans that join <em>n+1</em> of the
-     * leaf nodes.  This process completes when all leaf plans are joined
-     * together; there will be <em>one</em> plan, and it will be the optimal
-     * join plan (as far as our limited estimates can determine, anyway).
+     * Looks for an index on the table read by a file-scan node that can find
+     * the tuples satisfying some of the node's conjuncts, and returns an
+     * {@link IndexScanNode} over the cheapest such index if it is expected
+     * to cost no more than the file scan.  Only the first column of each
+     * index is used, since the key ranges are ranges of that column.
+     *
+     * @param fileScan the prepared file-scan node, whose predicate holds
+     *        the conjuncts
+     *
+     * @param conjuncts the conjuncts of the file-scan node's predicate
+     *
+     * @return either a prepared index-scan node with the same predicate as
+     *         the file-scan node, or the file-scan node itself
+     *
+     * @throws IOException if an index can't be opened
+     */
+    private PlanNode chooseIndexScan(FileScanNode fileScan,
+        Collection<Expression> conjuncts) throws IOException {
+
+        TableInfo tableInfo = fileScan.getTableInfo();
+        Schema schema = fileScan.getSchema();
+
+        PlanNode bestPlan = fileScan;
+        float bestCost = planCost(fileScan);
+
+        for (Map.Entry<String, ColumnRefs> entry :
+             tableInfo.getSchema().getIndexes().entrySet()) {
+            ArrayList<Expression> keyConjuncts = new ArrayList<>();
+            List<IndexScanNode.KeyRange> keyRanges = makeKeyRanges(schema,
+                entry.getValue().getCol(0), conjuncts, keyConjuncts);
+            if (keyRanges == null)
+                continue;
+
+            IndexInfo indexInfo = storageManager.getIndexManager().openIndex(
+                tableInfo, entry.getKey());
+            if (!(indexInfo.getTupleFile() instanceof SequentialTupleFile))
+                continue;
+
+            IndexScanNode indexScan = new IndexScanNode(indexInfo, keyRanges,
+                PredicateUtils.makePredicate(keyConjuncts),
+                fileScan.predicate.duplicate());
+            indexScan.prepare();
+
+            float cost = planCost(indexScan);
+            logger.debug(String.format("Index scan %s costs %f, best %f",
+                indexScan, cost, bestCost));
+            if (cost <= bestCost) {
+                bestPlan = indexScan;
+                bestCost = cost;
+            }
+        }
+
+        return bestPlan;
+    }
+
+
+    /**
+     * Works out which ranges of values of a column hold all the tuples that
+     * satisfy some of a collection of conjuncts.  The conjuncts that can be
+     * used compare the column with a literal, test it with an <tt>IN</tt>
+     * list of constants, or match it against a <tt>LIKE</tt> pattern that
+     * starts with a literal prefix, so that <tt>col LIKE 'abc%'</tt> gives
+     * the range from <tt>'abc'</tt> up to <tt>'abd'</tt>.  An equality test
+     * is preferred over an <tt>IN</tt> list, which is preferred over a
+     * <tt>LIKE</tt> pattern, which is preferred over the bounds given by the
+     * other comparisons.
+     *
+     * @param schema the schema the conjuncts are evaluated against
+     *
+     * @param keyCol the index of the column in the schema
+     *
+     * @param conjuncts the conjuncts to examine
+     *
+     * @param keyConjuncts an output parameter that receives the conjuncts
+     *        that the ranges were derived from
+     *
+     * @return the key ranges in increasing order, or <tt>null</tt> if none
+     *         of the conjuncts restricts the column
+     */
+    private static List<IndexScanNode.KeyRange> makeKeyRanges(Schema schema,
+        int keyCol, Collection<Expression> conjuncts,
+        List<Expression> keyConjuncts) {
+
+        SQLDataType keyType =
+            schema.getColumnInfo(keyCol).getType().getBaseType();
+
+        Expression inConjunct = null;
+        List<IndexScanNode.KeyRange> inRanges = null;
+
+        Expression likeConjunct = null;
+        IndexScanNode.KeyRange likeRange = null;
+
+        Object low = null, high = null;
+        boolean lowInclusive = false, highInclusive = false;
+        Expression lowConjunct = null, highConjunct = null;
+
+        for (Expression conjunct : conjuncts) {
+            if (conjunct instanceof CompareOperator) {
+                CompareOperator cmp = (CompareOperator) conjunct;
+                CompareOperator.Type type = cmp.getType();
+                Object value = getKeyValue(schema, keyCol, keyType,
+                    cmp.getLeftExpression(), cmp.getRightExpression());
+                if (value == null) {
+                    value = getKeyValue(schema, keyCol, keyType,
+                        cmp.getRightExpression(), cmp.getLeftExpression());
+                    type = flipComparison(type);
+                }
+                if (value == null)
+                    continue;
+
+                switch (type) {
+                case EQUALS:
+                    keyConjuncts.add(conjunct);
+                    return Collections.singletonList(
+                        IndexScanNode.KeyRange.point(value));
+
+                case GREATER_THAN:
+                case GREATER_OR_EQUAL:
+                    if (lowConjunct == null) {
+                        low = value;
+                        lowInclusive = (type == CompareOperator.Type.GREATER_OR_EQUAL);
+                        lowConjunct = conjunct;
+                    }
+                    break;
+
+                case LESS_THAN:
+                case LESS_OR_EQUAL:
+                    if (highConjunct == null) {
+                        high = value;
+                        highInclusive = (type == CompareOperator.Type.LESS_OR_EQUAL);
+                        highConjunct = conjunct;
+                    }
+                    break;
+
+                default:
+                    // Not-equals doesn't restrict the column to a range.
+                }
+            }
+            else if (conjunct instanceof InValuesOperator && inConjunct == null) {
+                InValuesOperator in = (InValuesOperator) conjunct;
+                if (!isKeyColumn(schema, keyCol, in.getExpression()))
+                    continue;
+
+                InValueSet valueSet = in.getValueSet();
+                if (valueSet == null || !valueSet.isSorted())
+                    continue;
+
+                ArrayList<IndexScanNode.KeyRange> ranges = new ArrayList<>();
+                for (Object value : valueSet.getSortedValues()) {
+                    if (!isKeyCompatible(keyType, value)) {
+                        ranges = null;
+                        break;
+                    }
+                    ranges.add(IndexScanNode.KeyRange.point(value));
+                }
+
+                if (ranges != null) {
+                    inConjunct = conjunct;
+                    inRanges = ranges;
+                }
+            }
+            else if (conjunct instanceof StringMatchOperator && likeConjunct == null) {
+                StringMatchOperator match = (StringMatchOperator) conjunct;
+                if (match.getType() != StringMatchOperator.Type.LIKE)
+                    continue;
+
+                Object pattern = getKeyValue(schema, keyCol, keyType,
+                    match.getLeftExpression(), match.getRightExpression());
+                if (!(pattern instanceof String))
+                    continue;
+
+                String prefix = StringMatchOperator.getLikePrefix((String) pattern);
+                if (prefix.equals(pattern)) {
+                    likeRange = IndexScanNode.KeyRange.point(prefix);
+                }
+                else if (!prefix.isEmpty()) {
+                    // The strings with the prefix are the ones from the
+                    // prefix up to the prefix with its last character
+                    // incremented.
+                    char last = prefix.charAt(prefix.length() - 1);
+                    String upper = null;
+                    if (last != Character.MAX_VALUE) {
+                        upper = prefix.substring(0, prefix.length() - 1) +
+                            (char) (last + 1);
+                    }
+                    likeRange = new IndexScanNode.KeyRange(prefix, true,
+                        upper, false);
+                }
+                else {
+                    continue;
+                }
+                likeConjunct = conjunct;
+            }
+        }
+
+        if (inConjunct != null) {
+            keyConjuncts.add(inConjunct);
+            return inRanges;
+        }
+
+        if (likeConjunct != null) {
+            keyConjuncts.add(likeConjunct);
+            return Collections.singletonList(likeRange);
+        }
+
+        if (lowConjunct == null && highConjunct == null)
+            return null;
+
+        if (lowConjunct != null)
+            keyConjuncts.add(lowConjunct);
+        if (highConjunct != null)
+            keyConjuncts.add(highConjunct);
+
+        return Collections.singletonList(new IndexScanNode.KeyRange(low,
+            lowInclusive, high, highInclusive));
+    }
+
+
+    /**
+     * Returns the value a column is compared with, if the column is the key
+     * column and the value is a non-<tt>NULL</tt> literal that can be
+     * compared with the column's values in an index.
+     *
+     * @return the value of the literal, or <tt>null</tt> if the expressions
+     *         aren't a key-column reference and a suitable literal
+     */
+    private static Object getKeyValue(Schema schema, int keyCol,
+        SQLDataType keyType, Expression colExpr, Expression valueExpr) {
+
+        if (!isKeyColumn(schema, keyCol, colExpr) ||
+            !(valueExpr instanceof LiteralValue)) {
+            return null;
+        }
+
+        Object value = valueExpr.evaluate(null);
+        return isKeyCompatible(keyType, value) ? value : null;
+    }
+
+
+    /** Returns true if an expression is a reference to the key column. */
+    private static boolean isKeyColumn(Schema schema, int keyCol,
+                                       Expression expr) {
+        if (!(expr instanceof ColumnValue))
+            return false;
+
+        ColumnName colName = ((ColumnValue) expr).getColumnName();
+        try {
+            return schema.getColumnIndex(colName) == keyCol;
+        }
+        catch (SchemaNameException e) {
+            return false;
+        }
+    }
+
+
+    /**
+     * Returns true if a value can be compared with the values of a column in
+     * an index, without converting between strings and numbers.
+     */
+    private static boolean isKeyCompatible(SQLDataType keyType, Object value) {
+        if (value instanceof Number)
+            return SQLDataType.isNumber(keyType);
+
+        if (value instanceof String)
+            return SQLDataType.isString(keyType);
+
+        return false;
+    }
+
+
+    /**
+     * Returns the comparison that gives the same result when its operands
+     * are swapped, so that <tt>5 &lt; a</tt> becomes <tt>a &gt; 5</tt>.
+     */
+    private static CompareOperator.Type flipComparison(CompareOperator.Type type) {
+        switch (type) {
+        case LESS_THAN:
+            return CompareOperator.Type.GREATER_THAN;
+
+        case GREATER_THAN:
+            return CompareOperator.Type.LESS_THAN;
+
+        case LESS_OR_EQUAL:
+            return CompareOperator.Type.GREATER_OR_EQUAL;
+
+        case GREATER_OR_EQUAL:
+            return CompareOperator.Type.LESS_OR_EQUAL;
+
+        default:
+            return type;
+        }
+    }
+
+
+    /**
+     * This helper method builds up a full join-plan from the leaf plans of a
+     * query.  Sets of leaves are represented as bitsets in a <tt>long</tt>,
+     * and the join graph is built from the conjuncts of the query:  two
+     * leaves are connected if some conjunct references both of them.
+     * <p>
+     * When the query joins no more than {@link #PROP_GREEDY_THRESHOLD}
+     * leaves, each connected part of the join graph is planned exhaustively
+     * with the DPccp algorithm of Moerkotte and Neumann, which enumerates
+     * every pair of connected subgraphs that can be joined without a cross
+     * product, so that bushy plans are considered as well as left-deep ones.
+     * For every set of leaves, the cheapest plan is kept, along with the
+     * cheapest plan that produces its results in the interesting order (if
+     * any).  Larger queries are planned greedily, by repeatedly joining the
+     * pair of components that gives the cheapest result.  If the join graph
+     * is not connected, the plans for its connected parts are combined with
+     * cross products in the same greedy way.
      *
      * @param leafComponents the collection of leaf join-components, generated
      *        by the {@link #generateLeafJoinComponents} method.
      *
      * @param conjuncts the collection of all conjuncts found in the query
      *
+     * @param interestingOrder the order that the results of the join would
+     *        ideally be produced in, or <tt>null</tt> if the order doesn't
+     *        matter
+     *
      * @return a single {@link JoinComponent} object that joins all leaf
      *         components together in an optimal way.
      */
     private JoinComponent generateOptimalJoin(
-        ArrayList<JoinComponent> leafComponents, Set<Expression> conjuncts) {
+        ArrayList<JoinComponent> leafComponents, Set<Expression> conjuncts,
+        List<OrderByExpression> interestingOrder) {
 
-        // This object maps a collection of leaf-plans (represented as a
-        // hash-set) to the optimal join-plan for that collection of leaf plans.
-        //
-        // This collection starts out only containing the leaf plans themselves,
-        // and on each iteration of the loop below, join-plans are grown by one
-        // leaf.  For example:
-        //   * In the first iteration, all plans joining 2 leaves are created.
-        //   * In the second iteration, all plans joining 3 leaves are created.
-        //   * etc.
-        // At the end, the collection will contain ONE entry, which is the
-        // optimal way to join all N leaves.  Go Go Gadget Dynamic Programming!
-        HashMap<HashSet<PlanNode>, JoinComponent> joinPlans = new HashMap<>();
-
-        // Initially populate joinPlans with just the N leaf plans.
-        for (JoinComponent leaf : leafComponents)
-            joinPlans.put(leaf.leavesUsed, leaf);
-
-        while (joinPlans.size() > 1) {
-            logger.debug("Current set of join-plans has " + joinPlans.size() +
-                " plans in it.");
-
-            // This is the set of "next plans" we will generate.  Plans only
-            // get stored if they are the first plan that joins together the
-            // specified leaves, or if they are better than the current plan.
-            HashMap<HashSet<PlanNode>, JoinComponent> nextJoinPlans =
-                new HashMap<>();
-
-            //        JOIN N + 1 LEAVES
-            // Iterate over plans that join n leaves.
-            for (JoinComponent plan: joinPlans.values()){
-                // Iterate over the leaf plans.
-                for (JoinComponent leaf : leafComponents){
-                    // If leaf already appears in plan n, continue.
-                    // logger.warn(String.format("plan %s", plan.joinPlan.getSchema()));
-                    // logger.warn(String.format("leaf %s", leaf.joinPlan.getSchema()));
-
-                    if (plan.leavesUsed.contains(leaf.joinPlan) || plan.joinPlan.equals(leaf.joinPlan)){
-                        continue;
+        if (leafComponents.size() > MAX_JOIN_LEAVES) {
+            throw new UnsupportedOperationException(String.format(
+                "Cannot join more than %d tables in one query, got %d",
+                MAX_JOIN_LEAVES, leafComponents.size()));
+        }
+
+        JoinEnumerator enumerator =
+            new JoinEnumerator(leafComponents, conjuncts, interestingOrder);
+
+        return enumerator.findOptimalJoin();
+    }
+
+
+    /**
+     * This helper class holds the state of the join enumeration for one
+     * <tt>SELECT</tt>-<tt>FROM</tt>-<tt>WHERE</tt> block.  See
+     * {@link #generateOptimalJoin} for a description of the algorithm.
+     */
+    private static class JoinEnumerator {
+        /** The leaf components, where leaf <em>i</em> is bit <em>i</em>. */
+        private ArrayList<JoinComponent> leaves;
+
+        /** The conjuncts that reference two or more leaves. */
+        private Expression[] joinConjuncts;
+
+        /**
+         * The set of leaves referenced by each conjunct in
+         * {@link #joinConjuncts}.
+         */
+        private long[] conjunctLeaves;
+
+        /** The set of leaves that each leaf is connected to. */
+        private long[] neighbors;
+
+        /** The conjuncts applied by the leaf plans and the join plans. */
+        private HashSet<Expression> conjunctsUsed;
+
+        /** The interesting order, or <tt>null</tt> if there is none. */
+        private List<OrderByExpression> interestingOrder;
+
+        /** The best plans found so far for each connected set of leaves. */
+        private HashMap<Long, JoinPlans> joinPlans = new HashMap<>();
+
+        /**
+         * The pairs of leaf-sets to be joined, bucketed by the number of
+         * leaves in their union.  Each pair is stored as two consecutive
+         * entries in the bucket's array.
+         */
+        private long[][] pairBuckets;
+
+        /** The number of entries used in each array of {@link #pairBuckets}. */
+        private int[] pairBucketSizes;
+
+
+        public JoinEnumerator(ArrayList<JoinComponent> leafComponents,
+            Set<Expression> conjuncts, List<OrderByExpression> interestingOrder) {
+
+            leaves = leafComponents;
+            this.interestingOrder = interestingOrder;
+
+            int numLeaves = leaves.size();
+            neighbors = new long[numLeaves];
+            conjunctsUsed = new HashSet<>();
+
+            for (int i = 0; i < numLeaves; i++) {
+                JoinComponent leaf = leaves.get(i);
+                leaf.leavesUsed = 1L << i;
+                conjunctsUsed.addAll(leaf.conjunctsUsed);
+            }
+
+            // Find the leaves that each conjunct references.  Conjuncts that
+            // reference a single leaf have already been applied by the leaf
+            // plan, and conjuncts with symbols that no leaf provides (e.g.
+            // references to an enclosing query) can't be applied here.
+            ArrayList<Expression> joinExprs = new ArrayList<>();
+            ArrayList<Long> joinExprLeaves = new ArrayList<>();
+            ArrayList<ColumnName> symbols = new ArrayList<>();
+            for (Expression conjunct : conjuncts) {
+                symbols.clear();
+                conjunct.getAllSymbols(symbols);
+
+                long refs = 0;
+                boolean resolved = true;
+                for (ColumnName colName : symbols) {
+                    long symbolRefs = 0;
+                    for (int i = 0; i < numLeaves; i++) {
+                        Schema schema = leaves.get(i).joinPlan.getSchema();
+                        if (schema.getColumnIndex(colName) != -1)
+                            symbolRefs |= 1L << i;
                     }
 
-                    // logger.warn(String.format("plan %s", plan.leavesUsed));
-                    // logger.warn(String.format("leaf %s", leaf.joinPlan));
+                    if (symbolRefs == 0) {
+                        resolved = false;
+                        break;
+                    }
+                    refs |= symbolRefs;
+                }
+
+                if (!resolved || Long.bitCount(refs) < 2)
+                    continue;
+
+                joinExprs.add(conjunct);
+                joinExprLeaves.add(refs);
+                conjunctsUsed.add(conjunct);
+
+                for (long m = refs; m != 0; m &= m - 1) {
+                    int i = Long.numberOfTrailingZeros(m);
+                    neighbors[i] |= refs & ~(1L << i);
+                }
+            }
+
+            joinConjuncts = joinExprs.toArray(new Expression[0]);
+            conjunctLeaves = new long[joinConjuncts.length];
+            for (int i = 0; i < conjunctLeaves.length; i++)
+                conjunctLeaves[i] = joinExprLeaves.get(i);
+        }
+
+
+        /**
+         * Finds the optimal plan for joining all of the leaves.
+         *
+         * @return a join component that joins all of the leaves, with its
+         *         {@link JoinComponent#conjunctsUsed} field filled in
+         */
+        public JoinComponent findOptimalJoin() {
+            int numLeaves = leaves.size();
+            boolean greedy = numLeaves > getGreedyThreshold();
+
+            if (greedy) {
+                logger.debug(String.format("Joining %d leaves is above the " +
+                    "threshold of %d; using greedy join ordering", numLeaves,
+                    getGreedyThreshold()));
+            }
+
+            // Plan each connected part of the join graph separately.
+            ArrayList<JoinPlans> partPlans = new ArrayList<>();
+            long remaining = (numLeaves == Long.SIZE) ? -1L : (1L << numLeaves) - 1;
+            while (remaining != 0) {
+                long part = connectedPart(Long.lowestOneBit(remaining));
+                remaining &= ~part;
+
+                JoinPlans plans;
+                if (greedy) {
+                    plans = new JoinPlans();
+                    plans.best = greedyJoin(leavesOf(part));
+                }
+                else {
+                    plans = enumerateConnectedPairs(part);
+                }
+                partPlans.add(plans);
+            }
+
+            JoinComponent result;
+            if (partPlans.size() == 1) {
+                result = chooseOrderedPlan(partPlans.get(0));
+            }
+            else {
+                logger.debug(String.format("Join graph has %d disconnected " +
+                    "parts; combining them with cross products",
+                    partPlans.size()));
+
+                ArrayList<JoinComponent> parts = new ArrayList<>();
+                for (JoinPlans plans : partPlans)
+                    parts.add(plans.best);
+
+                result = greedyJoin(parts);
+            }
+
+            return new JoinComponent(result.joinPlan, result.leavesUsed,
+                conjunctsUsed);
+        }
+
+
+        /**
+         * Plans a connected set of leaves with the DPccp algorithm.  Every
+         * pair of disjoint connected subsets whose union is connected is
+         * enumerated exactly once; the pairs are then joined in order of
+         * increasing size, so that the plans for both sides of a pair are
+         * complete before the pair is joined.
+         *
+         * @param part the connected set of leaves to plan
+         *
+         * @return the best plans for joining the leaves
+         */
+        private JoinPlans enumerateConnectedPairs(long part) {
+            int size = Long.bitCount(part);
+            pairBuckets = new long[size + 1][];
+            pairBucketSizes = new int[size + 1];
+
+            for (long m = part; m != 0; m &= m - 1) {
+                JoinComponent leaf = leaves.get(Long.numberOfTrailingZeros(m));
+                addPlan(leaf);
+            }
+
+            // Enumerate the connected subgraphs, starting from each leaf in
+            // descending order and only extending them with higher leaves.
+            for (int i = Long.SIZE - 1; i >= 0; i--) {
+                long leaf = 1L << i;
+                if ((part & leaf) == 0)
+                    continue;
+
+                emitSubgraph(leaf);
+                enumerateSubgraphs(leaf, leavesThrough(i));
+            }
+
+            int numPairs = 0;
+            for (int k = 2; k <= size; k++) {
+                long[] bucket = pairBuckets[k];
+                for (int p = 0; p < pairBucketSizes[k]; p += 2)
+                    joinPair(bucket[p], bucket[p + 1]);
+
+                numPairs += pairBucketSizes[k] / 2;
+            }
+
+            logger.debug(String.format("Considered %d connected pairs to " +
+                "join %d leaves", numPairs, size));
+
+            pairBuckets = null;
+            pairBucketSizes = null;
+
+            return joinPlans.get(part);
+        }
+
+
+        /**
+         * Recursively enumerates the connected subgraphs that extend the
+         * specified subgraph with leaves not in the excluded set.
+         */
+        private void enumerateSubgraphs(long subgraph, long excluded) {
+            long nbrs = neighborhood(subgraph) & ~excluded;
+            if (nbrs == 0)
+                return;
+
+            for (long sub = nbrs; sub != 0; sub = (sub - 1) & nbrs)
+                emitSubgraph(subgraph | sub);
+
+            for (long sub = nbrs; sub != 0; sub = (sub - 1) & nbrs)
+                enumerateSubgraphs(subgraph | sub, excluded | nbrs);
+        }
+
+
+        /**
+         * Enumerates the connected complements of a connected subgraph, and
+         * records each subgraph/complement pair to be joined.
+         */
+        private void emitSubgraph(long subgraph) {
+            long excluded = subgraph |
+                leavesThrough(Long.numberOfTrailingZeros(subgraph));
+            long nbrs = neighborhood(subgraph) & ~excluded;
+
+            for (int i = Long.SIZE - 1; i >= 0; i--) {
+                long leaf = 1L << i;
+                if ((nbrs & leaf) == 0)
+                    continue;
+
+                addPair(subgraph, leaf);
+                enumerateComplements(subgraph, leaf,
+                    excluded | (leavesThrough(i) & nbrs));
+            }
+        }
+
+
+        /**
+         * Recursively enumerates the connected complements of a subgraph that
+         * extend the specified complement with leaves not in the excluded
+         * set.
+         */
+        private void enumerateComplements(long subgraph, long complement,
+                                          long excluded) {
+            long nbrs = neighborhood(complement) & ~excluded;
+            if (nbrs == 0)
+                return;
+
+            for (long sub = nbrs; sub != 0; sub = (sub - 1) & nbrs)
+                addPair(subgraph, complement | sub);
+
+            for (long sub = nbrs; sub != 0; sub = (sub - 1) & nbrs)
+                enumerateComplements(subgraph, complement | sub, excluded | nbrs);
+        }
 
-                    // Instantiate a new join plan that joins together plan n and leaf.
-                    // First compute the sub-plan conjuncts by set unions of plan and leaf child conjuncts.
-                    HashSet<Expression> leftConjuncts = plan.conjunctsUsed;
-                    HashSet<Expression> rightConjuncts = leaf.conjunctsUsed;
-                    // logger.warn(String.format("got conjuncts"));
 
-                    HashSet<Expression> subplanConjuncts = new HashSet<Expression>(leftConjuncts);
-                    subplanConjuncts.addAll(rightConjuncts);
+        /** Records a pair of leaf-sets to be joined. */
+        private void addPair(long left, long right) {
+            int k = Long.bitCount(left | right);
+            long[] bucket = pairBuckets[k];
+            int used = pairBucketSizes[k];
 
-                    // logger.warn(String.format("got sugb conjuncts"));
-                    // Second, compute the unused conjuncts by set difference of all conjuncts and sub-plan conjuncts.
-                    HashSet<Expression> unusedConjuncts = new HashSet<Expression>(conjuncts);
-                    unusedConjuncts.removeAll(subplanConjuncts);
+            if (bucket == null) {
+                bucket = new long[16];
+                pairBuckets[k] = bucket;
+            }
+            else if (used == bucket.length) {
+                bucket = Arrays.copyOf(bucket, 2 * bucket.length);
+                pairBuckets[k] = bucket;
+            }
 
-                    // logger.warn(String.format("removed"));
+            bucket[used] = left;
+            bucket[used + 1] = right;
+            pairBucketSizes[k] = used + 2;
+        }
 
-                    // Third, determine which of those conjuncts should be applied to the theta join.
-                    HashSet<Expression> finalConjuncts = new HashSet<Expression>();
 
-                    // logger.warn(String.format("getting conjuncts to use %s", unusedConjuncts));
-                    PredicateUtils.findExprsUsingSchemas(unusedConjuncts,
-                            false, finalConjuncts, plan.joinPlan.getSchema(), leaf.joinPlan.getSchema());
+        /**
+         * Joins the best plans for two leaf-sets in both directions, and
+         * records the results as candidate plans for their union.
+         */
+        private void joinPair(long left, long right) {
+            JoinPlans leftPlans = joinPlans.get(left);
+            JoinPlans rightPlans = joinPlans.get(right);
 
-                    // logger.warn(String.format("found exprs"));
+            assert leftPlans != null && rightPlans != null :
+                "Subplans must be planned before they are joined";
 
-                    // logger.warn(String.format("final conjuncts are %s", finalConjuncts));
+            for (JoinComponent l : candidates(leftPlans)) {
+                for (JoinComponent r : candidates(rightPlans)) {
+                    addPlan(makeJoin(l, r));
+                    addPlan(makeJoin(r, l));
+                }
+            }
+        }
 
-                    // Fourth, create a new predicate using the final conjuncts.
-                    Expression newPredicate = PredicateUtils.makePredicate(finalConjuncts);
 
-                    // logger.warn(String.format("made pred %s", newPredicate));
+        /** Returns the distinct plans recorded in a {@link JoinPlans}. */
+        private JoinComponent[] candidates(JoinPlans plans) {
+            if (plans.bestOrdered == null || plans.bestOrdered == plans.best)
+                return new JoinComponent[] { plans.best };
 
-                    // Fifth, create a nested loop join node to hold the new join and new predicate.
-                    // logger.warn(String.format("nested loop join leaf %s", leaf.joinPlan.toString()));
-                    // logger.warn(String.format("nested loop join plan %s", plan.joinPlan.toString()));
+            return new JoinComponent[] { plans.best, plans.bestOrdered };
+        }
 
-                    PlanNode newPlans = new NestedLoopJoinNode(plan.joinPlan, leaf.joinPlan, JoinType.INNER, newPredicate);
-                    newPlans.prepare();
 
-                    // Compute the cost of the new plan.
-                    float newCost = newPlans.getCost().cpuCost;
+        /**
+         * Records a plan as a candidate for joining its leaves, keeping it if
+         * it is the cheapest plan, or the cheapest plan in the interesting
+         * order.
+         */
+        private void addPlan(JoinComponent component) {
+            JoinPlans plans = joinPlans.get(component.leavesUsed);
+            if (plans == null) {
+                plans = new JoinPlans();
+                joinPlans.put(component.leavesUsed, plans);
+            }
+
+            if (plans.best == null || component.cost < plans.best.cost)
+                plans.best = component;
+
+            if (interestingOrder != null &&
+                (plans.bestOrdered == null || component.cost < plans.bestOrdered.cost) &&
+                satisfiesOrder(component.joinPlan, interestingOrder)) {
+                plans.bestOrdered = component;
+            }
+        }
 
 
-                    HashSet<PlanNode> combinedLeaves = new HashSet<PlanNode>(plan.leavesUsed);
-                    combinedLeaves.addAll(leaf.leavesUsed);
+        /**
+         * Chooses between the cheapest plan and the cheapest plan in the
+         * interesting order, by charging the cheapest plan for sorting its
+         * results.
+         */
+        private JoinComponent chooseOrderedPlan(JoinPlans plans) {
+            if (plans.bestOrdered == null || plans.bestOrdered == plans.best)
+                return plans.best;
 
-                    JoinComponent newPlanComponent = new JoinComponent(newPlans,
-                            combinedLeaves, finalConjuncts);
+            float numTuples = Math.max(plans.best.joinPlan.getCost().numTuples, 1);
+            float sortCost = numTuples * (float) Math.log(numTuples);
 
-                    // logger.warn(String.format("\n\n\nnew plan %s", newPlanComponent.conjunctsUsed   ));
-                    // logger.warn(String.format("new cost %f", newCost));
+            if (plans.bestOrdered.cost <= plans.best.cost + sortCost)
+                return plans.bestOrdered;
 
+            return plans.best;
+        }
 
-                    // If nextJoinPlans already contains a plan with all leaves in nextJoinPlans,
-                    // compare the cost of the new plan to the current best plan in nextJoinPlans.
 
-                    if(nextJoinPlans.containsKey(combinedLeaves)){
-                        if (newCost < nextJoinPlans.get(combinedLeaves).joinPlan.getCost().cpuCost){
-                            nextJoinPlans.replace(combinedLeaves, newPlanComponent);
+        /**
+         * Joins the specified components greedily:  at each step, the pair
+         * of components whose join is cheapest is joined, preferring pairs
+         * that are connected by a conjunct over cross products.
+         *
+         * @param components the components to join
+         *
+         * @return a component that joins all of the input components
+         */
+        private JoinComponent greedyJoin(List<JoinComponent> components) {
+            ArrayList<JoinComponent> remaining = new ArrayList<>(components);
+
+            while (remaining.size() > 1) {
+                int n = remaining.size();
+
+                // Only consider cross products if no pair is connected.
+                boolean anyConnected = false;
+                for (int i = 0; i < n && !anyConnected; i++) {
+                    long nbrs = neighborhood(remaining.get(i).leavesUsed);
+                    for (int j = i + 1; j < n; j++) {
+                        if ((nbrs & remaining.get(j).leavesUsed) != 0) {
+                            anyConnected = true;
+                            break;
                         }
                     }
-                    // If nextJoinPlans already contains a plan with all leaves in nextJoinPlans,
-                    // add the new plan to nextJoinPlans.
-                    else{
-                        nextJoinPlans.put(combinedLeaves, newPlanComponent);
+                }
+
+                JoinComponent bestJoin = null;
+                int bestI = -1;
+                int bestJ = -1;
+                for (int i = 0; i < n; i++) {
+                    JoinComponent a = remaining.get(i);
+                    long nbrs = neighborhood(a.leavesUsed);
+
+                    for (int j = i + 1; j < n; j++) {
+                        JoinComponent b = remaining.get(j);
+                        if (anyConnected && (nbrs & b.leavesUsed) == 0)
+                            continue;
+
+                        for (JoinComponent join :
+                             new JoinComponent[] { makeJoin(a, b), makeJoin(b, a) }) {
+                            if (bestJoin == null || join.cost < bestJoin.cost) {
+                                bestJoin = join;
+                                bestI = i;
+                                bestJ = j;
+                            }
+                        }
                     }
+                }
+
+                // Remove the higher index first so the lower one is unchanged.
+                remaining.remove(bestJ);
+                remaining.remove(bestI);
+                remaining.add(bestJoin);
+            }
+
+            return remaining.get(0);
+        }
+
+
+        /**
+         * Joins two components with a nested-loop join, applying every join
+         * conjunct that references leaves on both sides and no leaves outside
+         * of them.
+         */
+        private JoinComponent makeJoin(JoinComponent left, JoinComponent right) {
+            long leavesUsed = left.leavesUsed | right.leavesUsed;
+
+            ArrayList<Expression> predConjuncts = new ArrayList<>();
+            for (int i = 0; i < joinConjuncts.length; i++) {
+                long refs = conjunctLeaves[i];
+                if ((refs & ~leavesUsed) == 0 &&
+                    (refs & ~left.leavesUsed) != 0 &&
+                    (refs & ~right.leavesUsed) != 0) {
+                    predConjuncts.add(joinConjuncts[i]);
+                }
+            }
+
+            PlanNode plan = new NestedLoopJoinNode(left.joinPlan, right.joinPlan,
+                JoinType.INNER, PredicateUtils.makePredicate(predConjuncts));
+            plan.prepare();
+
+            return new JoinComponent(plan, leavesUsed, null);
+        }
+
+
+        /** Returns the leaf components in the specified set of leaves. */
+        private ArrayList<JoinComponent> leavesOf(long leafSet) {
+            ArrayList<JoinComponent> result = new ArrayList<>();
+            for (long m = leafSet; m != 0; m &= m - 1)
+                result.add(leaves.get(Long.numberOfTrailingZeros(m)));
+
+            return result;
+        }
+
+
+        /** Returns the leaves connected to a set of leaves, excluding the set. */
+        private long neighborhood(long leafSet) {
+            long result = 0;
+            for (long m = leafSet; m != 0; m &= m - 1)
+                result |= neighbors[Long.numberOfTrailingZeros(m)];
+
+            return result & ~leafSet;
+        }
+
+
+        /** Returns the connected part of the join graph containing a leaf. */
+        private long connectedPart(long leaf) {
+            long part = leaf;
+            while (true) {
+                long nbrs = neighborhood(part);
+                if (nbrs == 0)
+                    return part;
+
+                part |= nbrs;
+            }
+        }
+
+
+        /** Returns the set of leaves with indexes from 0 to <tt>i</tt>. */
+        private static long leavesThrough(int i) {
+            return (i == Long.SIZE - 1) ? -1L : (1L << (i + 1)) - 1;
+        }
+    }
+
+
+    /**
+     * Returns the cost of a plan as a single number, for comparing plans.
+     *
+     * @param plan the prepared plan to compute the cost of
+     *
+     * @return the CPU cost of the plan plus the cost of its block IOs
+     */
+    private static float planCost(PlanNode plan) {
+        PlanCost cost = plan.getCost();
+        return cost.cpuCost + BLOCK_IO_COST * cost.numBlockIOs;
+    }
+
+
+    /**
+     * Removes the conjuncts that contain subqueries from a collection of
+     * conjuncts.
+     *
+     * @param conjuncts the conjuncts to examine; the conjuncts containing
+     *        subqueries are removed from this collection
+     *
+     * @return the conjuncts that contain subqueries
+     */
+    private static List<Expression> removeSubqueryConjuncts(
+        Collection<Expression> conjuncts) {
+
+        List<Expression> subqueryConjuncts = new ArrayList<>();
+        for (Expression conjunct : conjuncts) {
+            if (PlanUtils.hasSubquery(conjunct))
+                subqueryConjuncts.add(conjunct);
+        }
+
+        conjuncts.removeAll(subqueryConjuncts);
+        return subqueryConjuncts;
+    }
+
+
+    /**
+     * Applies conjuncts containing subqueries to a plan.  <tt>IN</tt>,
+     * <tt>EXISTS</tt>, <tt>NOT IN</tt> and <tt>NOT EXISTS</tt> predicates
+     * are turned into semijoins and antijoins where possible; other
+     * predicates are evaluated against each tuple of the plan, which
+     * requires their subqueries to be uncorrelated.
+     *
+     * @param plan the plan to apply the conjuncts to
+     *
+     * @param conjuncts the conjuncts containing subqueries
+     *
+     * @return the (possibly new) top plan-node of the plan
+     *
+     * @throws IOException if an IO error occurs while planning a subquery
+     */
+    private PlanNode addSubqueryConjuncts(PlanNode plan,
+        List<Expression> conjuncts) throws IOException {
+
+        for (Expression conjunct : conjuncts) {
+            PlanNode semiJoin = makeSemiJoin(plan, conjunct);
+            if (semiJoin != null) {
+                plan = semiJoin;
+                continue;
+            }
+
+            planUncorrelatedSubqueries(conjunct);
+            plan = PlanUtils.addPredicateToPlan(plan, conjunct);
+            plan.prepare();
+        }
+
+        return plan;
+    }
+
+
+    /**
+     * Attempts to turn a predicate into a hash semijoin or antijoin between
+     * a plan and the predicate's subquery.  This is possible for
+     * <tt>IN</tt>, <tt>EXISTS</tt>, <tt>NOT IN</tt> and <tt>NOT EXISTS</tt>
+     * predicates whose subqueries are either uncorrelated, or are simple
+     * <tt>SELECT</tt>-<tt>FROM</tt>-<tt>WHERE</tt> queries that are only
+     * correlated with the plan's columns.  Equality comparisons between the
+     * plan's columns and the subquery's become the keys of the join, and
+     * other correlated conditions become the join's residual predicate.
+     *
+     * @param plan the plan producing the tuples the predicate is applied to
+     *
+     * @param conjunct the predicate
+     *
+     * @return the semijoin or antijoin, or <tt>null</tt> if the predicate
+     *         can't be turned into one
+     *
+     * @throws IOException if an IO error occurs while planning the subquery
+     */
+    private PlanNode makeSemiJoin(PlanNode plan, Expression conjunct)
+        throws IOException {
+
+        // NOT EXISTS and NOT IN are parsed as NOT (EXISTS ...) and
+        // NOT (... IN ...).
+        boolean negated = false;
+        if (conjunct instanceof BooleanOperator) {
+            BooleanOperator bool = (BooleanOperator) conjunct;
+            if (bool.getType() != BooleanOperator.Type.NOT_EXPR)
+                return null;
+
+            negated = true;
+            conjunct = bool.getTerm(0);
+        }
+
+        Expression inExpr = null;
+        if (conjunct instanceof InSubqueryOperator) {
+            inExpr = ((InSubqueryOperator) conjunct).getExpression();
+            if (PlanUtils.hasSubquery(inExpr))
+                return null;
+        }
+        else if (!(conjunct instanceof ExistsOperator)) {
+            return null;
+        }
+
+        SelectClause subquery = ((SubqueryOperator) conjunct).getSubquery();
+        JoinType joinType = negated ? JoinType.ANTIJOIN : JoinType.SEMIJOIN;
+
+        // NOT IN must take NULLs on either side into account.
+        boolean nullAware = negated && inExpr != null;
+
+        ArrayList<Expression> leftKeys = new ArrayList<>();
+        ArrayList<Expression> rightKeys = new ArrayList<>();
+        ArrayList<Expression> residualConjuncts = new ArrayList<>();
+        PlanNode subqueryPlan;
+
+        if (!subquery.isCorrelated()) {
+            subqueryPlan = makePlan(subquery, null);
+            if (inExpr != null) {
+                leftKeys.add(inExpr);
+                rightKeys.add(new ColumnValue(
+                    subqueryPlan.getSchema().getColumnInfo(0).getColumnName()));
+            }
+        }
+        else {
+            if (!canDecorrelate(subquery, plan.getSchema()))
+                return null;
+
+            Set<ColumnName> correlated = subquery.getCorrelatedColumns();
+
+            HashSet<Expression> subqueryConjuncts = new HashSet<>();
+            if (subquery.getWhereExpr() != null) {
+                PredicateUtils.collectConjuncts(subquery.getWhereExpr(),
+                    subqueryConjuncts);
+            }
+
+            ArrayList<Expression> localConjuncts = new ArrayList<>();
+            for (Expression subConjunct : subqueryConjuncts) {
+                HashSet<ColumnName> symbols = new HashSet<>();
+                subConjunct.getAllSymbols(symbols);
+
+                if (Collections.disjoint(symbols, correlated)) {
+                    localConjuncts.add(subConjunct);
+                }
+                else if (PlanUtils.hasSubquery(subConjunct)) {
+                    return null;
+                }
+                else if (nullAware ||
+                    !addJoinKeys(subConjunct, correlated, leftKeys, rightKeys)) {
+                    // A null-aware antijoin has only the IN expression as
+                    // its key.
+                    residualConjuncts.add(subConjunct);
+                }
+            }
+
+            if (inExpr != null) {
+                Expression value =
+                    subquery.getSelectValues().get(0).getExpression();
+
+                HashSet<ColumnName> symbols = new HashSet<>();
+                value.getAllSymbols(symbols);
+                if (Collections.disjoint(symbols, correlated)) {
+                    leftKeys.add(inExpr);
+                    rightKeys.add(value);
+                }
+                else if (nullAware) {
+                    return null;
+                }
+                else {
+                    residualConjuncts.add(new CompareOperator(
+                        CompareOperator.Type.EQUALS, inExpr, value));
+                }
+            }
+
+            subqueryPlan = makeSubqueryJoinPlan(subquery, localConjuncts);
+        }
+
+        Expression residual = null;
+        if (!residualConjuncts.isEmpty())
+            residual = PredicateUtils.makePredicate(residualConjuncts);
+
+        PlanNode semiJoin = new HashSemiJoinNode(plan, subqueryPlan, joinType,
+            leftKeys, rightKeys, residual, nullAware);
+        semiJoin.prepare();
+
+        logger.debug("Turned predicate " + conjunct + " into " + semiJoin);
+        return semiJoin;
+    }
 
 
+    /**
+     * Returns true if a correlated subquery is simple enough to be joined
+     * with the enclosing query's plan.  The subquery must be a
+     * <tt>SELECT</tt>-<tt>FROM</tt>-<tt>WHERE</tt> query without grouping,
+     * aggregates or limits, and its correlated columns must all be columns
+     * of the enclosing plan, rather than of queries further out.
+     *
+     * @param subquery the correlated subquery
+     *
+     * @param outerSchema the schema of the enclosing query's plan
+     *
+     * @return true if the subquery can be joined with the enclosing plan
+     */
+    private static boolean canDecorrelate(SelectClause subquery,
+                                          Schema outerSchema) {
+        if (subquery.getFromClause() == null ||
+            !subquery.getGroupByExprs().isEmpty() ||
+            subquery.getHavingExpr() != null ||
+            subquery.getLimit() != 0 || subquery.getOffset() != 0) {
+            return false;
+        }
+
+        for (SelectValue sv : subquery.getSelectValues()) {
+            if (sv.isScalarSubquery())
+                return false;
+
+            if (sv.isExpression() && hasAggregate(sv.getExpression()))
+                return false;
+        }
+
+        for (ColumnName colName : subquery.getCorrelatedColumns()) {
+            try {
+                if (outerSchema.getColumnIndex(colName) == -1)
+                    return false;
+            }
+            catch (SchemaNameException e) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+
+    /**
+     * Returns true if the specified expression calls an aggregate function.
+     *
+     * @param expr the expression to examine
+     *
+     * @return true if the expression calls an aggregate function
+     */
+    private static boolean hasAggregate(Expression expr) {
+        boolean[] found = { false };
+        expr.traverse(new ExpressionProcessor() {
+            public void enter(Expression node) {
+                if (node instanceof FunctionCall &&
+                    ((FunctionCall) node).getFunction() instanceof AggregateFunction) {
+                    found[0] = true;
                 }
             }
 
+            public Expression leave(Expression node) {
+                return node;
+            }
+        });
+
+        return found[0];
+    }
+
+
+    /**
+     * If a correlated conjunct of a subquery is an equality comparison
+     * between an expression over the enclosing query's columns and an
+     * expression over the subquery's columns, this method adds the two
+     * expressions to the keys of a semijoin.
+     *
+     * @param conjunct the correlated conjunct
+     *
+     * @param correlated the columns of the enclosing query that the subquery
+     *        references
+     *
+     * @param leftKeys the semijoin's keys over the enclosing query's columns
+     *
+     * @param rightKeys the semijoin's keys over the subquery's columns
+     *
+     * @return true if the conjunct was turned into a pair of keys
+     */
+    private static boolean addJoinKeys(Expression conjunct,
+        Set<ColumnName> correlated, List<Expression> leftKeys,
+        List<Expression> rightKeys) {
+
+        if (!(conjunct instanceof CompareOperator))
+            return false;
+
+        CompareOperator cmp = (CompareOperator) conjunct;
+        if (cmp.getType() != CompareOperator.Type.EQUALS)
+            return false;
+
+        Expression lhs = cmp.getLeftExpression();
+        Expression rhs = cmp.getRightExpression();
+
+        HashSet<ColumnName> lhsSymbols = new HashSet<>();
+        HashSet<ColumnName> rhsSymbols = new HashSet<>();
+        lhs.getAllSymbols(lhsSymbols);
+        rhs.getAllSymbols(rhsSymbols);
+
+        if (!lhsSymbols.isEmpty() && correlated.containsAll(lhsSymbols) &&
+            Collections.disjoint(rhsSymbols, correlated)) {
+            leftKeys.add(lhs);
+            rightKeys.add(rhs);
+            return true;
+        }
+
+        if (!rhsSymbols.isEmpty() && correlated.containsAll(rhsSymbols) &&
+            Collections.disjoint(lhsSymbols, correlated)) {
+            leftKeys.add(rhs);
+            rightKeys.add(lhs);
+            return true;
+        }
+
+        return false;
+    }
+
+
+    /**
+     * Makes a plan for the <tt>FROM</tt> clause of a subquery, filtered by
+     * some of the conjuncts of its <tt>WHERE</tt> clause.  The plan produces
+     * all of the <tt>FROM</tt> clause's columns, so that the correlated
+     * conditions of the subquery can be evaluated against them.
+     *
+     * @param subquery the subquery to plan
+     *
+     * @param conjuncts the conjuncts to filter the subquery's rows with
+     *
+     * @return a plan for the subquery's <tt>FROM</tt> clause
+     *
+     * @throws IOException if an IO error occurs while planning
+     */
+    private PlanNode makeSubqueryJoinPlan(SelectClause subquery,
+        Collection<Expression> conjuncts) throws IOException {
+
+        HashSet<Expression> localConjuncts = new HashSet<>(conjuncts);
+        List<Expression> subqueryConjuncts =
+            removeSubqueryConjuncts(localConjuncts);
+
+        PlanNode plan =
+            makeJoinPlan(subquery.getFromClause(), localConjuncts).joinPlan;
+
+        return addSubqueryConjuncts(plan, subqueryConjuncts);
+    }
+
+
+    /**
+     * Makes plans for the subqueries of an expression that will be
+     * evaluated against each tuple of a plan.
+     *
+     * @param expr the expression containing subqueries
+     *
+     * @throws IOException if an IO error occurs while planning a subquery
+     *
+     * @throws UnsupportedOperationException if a subquery is correlated
+     */
+    private void planUncorrelatedSubqueries(Expression expr)
+        throws IOException {
+
+        ArrayList<SubqueryOperator> subqueryOps = new ArrayList<>();
+        expr.traverse(new ExpressionProcessor() {
+            public void enter(Expression node) {
+                if (node instanceof SubqueryOperator)
+                    subqueryOps.add((SubqueryOperator) node);
+            }
+
+            public Expression leave(Expression node) {
+                return node;
+            }
+        });
+
+        for (SubqueryOperator op : subqueryOps) {
+            if (op.getSubquery().isCorrelated()) {
+                throw new UnsupportedOperationException("Correlated " +
+                    "subqueries are only supported in IN and EXISTS " +
+                    "predicates:  " + expr);
+            }
+
+            op.setSubqueryPlan(makePlan(op.getSubquery(), null));
+        }
+    }
+
+
+    /**
+     * Returns the <tt>ORDER BY</tt> ordering of a query if the results of
+     * the query's join could be used in that order without sorting.  This is
+     * only possible when every <tt>ORDER BY</tt> expression is a column
+     * reference that doesn't name a <tt>SELECT</tt> alias, since otherwise
+     * the expression refers to the query's results rather than the join's.
+     *
+     * @param selClause the query to find the interesting order of
+     *
+     * @return the interesting order of the query, or <tt>null</tt> if there
+     *         is none
+     */
+    private static List<OrderByExpression> getInterestingOrder(
+        SelectClause selClause) {
+
+        List<OrderByExpression> orderByExprs = selClause.getOrderByExprs();
+        if (orderByExprs.isEmpty())
+            return null;
+
+        for (OrderByExpression orderByExpr : orderByExprs) {
+            if (!(orderByExpr.getExpression() instanceof ColumnValue))
+                return null;
 
+            String colName = ((ColumnValue) orderByExpr.getExpression())
+                .getColumnName().getColumnName();
 
-            // Now that we have generated all plans joining N leaves, time to
-            // create all plans joining N + 1 leaves.
-            joinPlans = nextJoinPlans;
+            for (SelectValue sv : selClause.getSelectValues()) {
+                if (colName.equalsIgnoreCase(sv.getAlias()))
+                    return null;
+            }
         }
 
-        // At this point, the set of join plans should only contain one plan,
-        // and it should be the optimal plan.
+        return orderByExprs;
+    }
+
+
+    /**
+     * Returns true if a plan produces its results in the specified order,
+     * that is, if the required ordering is a prefix of the plan's ordering.
+     * Column references are compared by resolving them against the plan's
+     * schema, so that qualified and unqualified names match.
+     *
+     * @param plan the prepared plan to check
+     *
+     * @param order the required ordering, made up of column references
+     *
+     * @return true if the plan's results are in the required order
+     */
+    private static boolean satisfiesOrder(PlanNode plan,
+                                          List<OrderByExpression> order) {
+        List<OrderByExpression> planOrder = plan.resultsOrderedBy();
+        if (planOrder == null || planOrder.size() < order.size())
+            return false;
+
+        Schema schema = plan.getSchema();
+        for (int i = 0; i < order.size(); i++) {
+            OrderByExpression required = order.get(i);
+            OrderByExpression actual = planOrder.get(i);
+
+            if (required.isAscending() != actual.isAscending() ||
+                !(actual.getExpression() instanceof ColumnValue)) {
+                return false;
+            }
+
+            try {
+                int requiredIndex = schema.getColumnIndex(
+                    ((ColumnValue) required.getExpression()).getColumnName());
+                int actualIndex = schema.getColumnIndex(
+                    ((ColumnValue) actual.getExpression()).getColumnName());
+
+                if (requiredIndex == -1 || requiredIndex != actualIndex)
+                    return false;
+            }
+            catch (SchemaNameException e) {
+                // The column name is ambiguous in the plan's schema.
+                return false;
+            }
+        }
 
-        assert joinPlans.size() == 1 : "There can be only one optimal join plan!";
-        return joinPlans.values().iterator().next();
+        return true;
     }
 
 
@@ -0,0 +1,199 @@
+package edu.caltech.nanodb.queryeval;
+
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+
+/**
+ * This class represents an equi-depth histogram over the non-<tt>NULL</tt>
+ * values of a column.  The histogram's range is divided into buckets that
+ * each hold roughly the same number of values, so that skewed distributions
+ * get narrow buckets where values are dense and wide buckets where they are
+ * sparse.
+ * <p>
+ * A histogram with <em>n</em> buckets has <em>n</em> + 1 bounds.  The first
+ * bucket covers the values in the range [<em>bound</em><sub>0</sub>,
+ * <em>bound</em><sub>1</sub>], and every subsequent bucket <em>i</em> covers
+ * the values in the range (<em>bound</em><sub><em>i</em></sub>,
+ * <em>bound</em><sub><em>i</em>+1</sub>].  Each bucket also records the
+ * number of values that fall within it, since duplicate values can make the
+ * buckets somewhat uneven.
+ *
+ * @see ColumnStatsCollector
+ * @see SelectivityEstimator
+ */
+public class Histogram {
+
+    /** The bucket bounds, in increasing order. */
+    private Object[] bounds;
+
+
+    /** The number of values that fall into each bucket. */
+    private int[] counts;
+
+
+    /** The total number of values represented by the histogram. */
+    private long totalCount;
+
+
+    /**
+     * Initializes a histogram with the specified bucket bounds and counts.
+     *
+     * @param bounds the bucket bounds, in increasing order
+     * @param counts the number of values in each bucket
+     *
+     * @throws IllegalArgumentException if either argument is <tt>null</tt>,
+     *         if there are no buckets, or if the number of bounds is not one
+     *         more than the number of buckets
+     */
+    public Histogram(Object[] bounds, int[] counts) {
+        if (bounds == null)
+            throw new IllegalArgumentException("bounds cannot be null");
+
+        if (counts == null)
+            throw new IllegalArgumentException("counts cannot be null");
+
+        if (counts.length == 0)
+            throw new IllegalArgumentException("counts cannot be empty");
+
+        if (bounds.length != counts.length + 1) {
+            throw new IllegalArgumentException(String.format(
+                "Expected %d bounds for %d buckets, got %d",
+                counts.length + 1, counts.length, bounds.length));
+        }
+
+        this.bounds = bounds;
+        this.counts = counts;
+
+        totalCount = 0;
+        for (int count : counts)
+            totalCount += count;
+    }
+
+
+    /**
+     * Builds an equi-depth histogram from a sorted sample of the column's
+     * non-<tt>NULL</tt> values.  The bucket counts are scaled from the
+     * sample size up to the total number of values in the column, so that
+     * the histogram can be built from a sample of a large table.
+     *
+     * @param sortedValues a sample of the column's values, sorted in
+     *        increasing order
+     * @param totalCount the total number of non-<tt>NULL</tt> values in the
+     *        column
+     * @param maxBuckets the maximum number of buckets to create
+     *
+     * @return a new histogram, or <tt>null</tt> if the sample is empty
+     */
+    @SuppressWarnings("unchecked")
+    public static Histogram build(List<? extends Comparable> sortedValues,
+                                  long totalCount, int maxBuckets) {
+        if (maxBuckets < 1)
+            throw new IllegalArgumentException("maxBuckets must be at least 1");
+
+        int n = sortedValues.size();
+        if (n == 0)
+            return null;
+
+        // Choose the bucket bounds at evenly spaced positions in the sorted
+        // sample.  Duplicate values can produce identical adjacent bounds;
+        // these are collapsed so that no bucket is empty.
+        ArrayList<Comparable> boundList = new ArrayList<>();
+        boundList.add(sortedValues.get(0));
+        int numBuckets = Math.min(maxBuckets, n);
+        for (int i = 1; i <= numBuckets; i++) {
+            int pos = (int) ((long) i * n / numBuckets) - 1;
+            Comparable bound = sortedValues.get(pos);
+            if (bound.compareTo(boundList.get(boundList.size() - 1)) > 0)
+                boundList.add(bound);
+        }
+
+        // A column with a single distinct value gets one bucket holding
+        // just that value.
+        if (boundList.size() == 1)
+            boundList.add(boundList.get(0));
+
+        // Count the sample values in each bucket.
+        int[] sampleCounts = new int[boundList.size() - 1];
+        int bucket = 0;
+        for (Comparable value : sortedValues) {
+            while (value.compareTo(boundList.get(bucket + 1)) > 0)
+                bucket++;
+
+            sampleCounts[bucket]++;
+        }
+
+        // Scale the sample counts up to the size of the whole column.
+        double scale = (double) totalCount / n;
+        int[] counts = new int[sampleCounts.length];
+        for (int i = 0; i < counts.length; i++)
+            counts[i] = (int) Math.round(sampleCounts[i] * scale);
+
+        return new Histogram(boundList.toArray(), counts);
+    }
+
+
+    /**
+     * Returns the number of buckets in the histogram.
+     *
+     * @return the number of buckets in the histogram
+     */
+    public int getNumBuckets() {
+        return counts.length;
+    }
+
+
+    /**
+     * Returns the lower bound of the specified bucket.
+     *
+     * @param bucket the index of the bucket
+     *
+     * @return the lower bound of the bucket
+     */
+    public Object getLowerBound(int bucket) {
+        return bounds[bucket];
+    }
+
+
+    /**
+     * Returns the upper bound of the specified bucket.
+     *
+     * @param bucket the index of the bucket
+     *
+     * @return the upper bound of the bucket
+     */
+    public Object getUpperBound(int bucket) {
+        return bounds[bucket + 1];
+    }
+
+
+    /**
+     * Returns the number of values that fall into the specified bucket.
+     *
+     * @param bucket the index of the bucket
+     *
+     * @return the number of values in the bucket
+     */
+    public int getCount(int bucket) {
+        return counts[bucket];
+    }
+
+
+    /**
+     * Returns the total number of values represented by the histogram.
+     *
+     * @return the total number of values represented by the histogram
+     */
+    public long getTotalCount() {
+        return totalCount;
+    }
+
+
+    @Override
+    public String toString() {
+        return "Histogram[bounds=" + Arrays.toString(bounds) + ", counts=" +
+            Arrays.toString(counts) + "]";
+    }
+}
@@ -0,0 +1,207 @@
+package edu.caltech.nanodb.queryeval;
+
+
+/**
+ * This class implements the HyperLogLog sketch for estimating the number of
+ * distinct values in a stream of values, using a fixed amount of memory.
+ * Each value is hashed to 64 bits; the first <em>p</em> bits of the hash
+ * select one of 2<sup><em>p</em></sup> registers, and the register records
+ * the longest run of leading zeros seen in the remaining bits.  The harmonic
+ * mean of the registers gives the estimate, which has a standard error of
+ * about 1.04 / sqrt(2<sup><em>p</em></sup>).
+ * <p>
+ * Sketches with the same precision can be merged by taking the maximum of
+ * each register, so that values can be collected in several sketches (for
+ * example, per page or per thread) and then combined.
+ *
+ * @see ColumnStatsCollector
+ */
+public class HyperLogLog {
+
+    /** The default precision, which gives 4096 registers and ~1.6% error. */
+    public static final int DEFAULT_PRECISION = 12;
+
+
+    /** The number of bits of each hash used to select a register. */
+    private int precision;
+
+
+    /** The registers of the sketch. */
+    private byte[] registers;
+
+
+    /** Creates a sketch with the default precision. */
+    public HyperLogLog() {
+        this(DEFAULT_PRECISION);
+    }
+
+
+    /**
+     * Creates a sketch with the specified precision.
+     *
+     * @param precision the number of hash bits used to select a register;
+     *        the sketch has 2<sup>precision</sup> registers
+     *
+     * @throws IllegalArgumentException if the precision is not in the range
+     *         [4, 16]
+     */
+    public HyperLogLog(int precision) {
+        if (precision < 4 || precision > 16) {
+            throw new IllegalArgumentException(
+                "precision must be in the range [4, 16], got " + precision);
+        }
+
+        this.precision = precision;
+        registers = new byte[1 << precision];
+    }
+
+
+    /**
+     * Returns the precision of this sketch.
+     *
+     * @return the precision of this sketch
+     */
+    public int getPrecision() {
+        return precision;
+    }
+
+
+    /**
+     * Adds a value to the sketch.
+     *
+     * @param value the value to add, which must not be <tt>null</tt>
+     */
+    public void add(Object value) {
+        addHash(hash(value));
+    }
+
+
+    /**
+     * Adds a value to the sketch, given its 64-bit hash.
+     *
+     * @param hash the 64-bit hash of the value
+     */
+    private void addHash(long hash) {
+        int index = (int) (hash >>> (64 - precision));
+
+        // The rank is the position of the first 1-bit in the remaining bits.
+        // A sentinel bit is set so the rank can't exceed 64 - precision + 1.
+        long rest = (hash << precision) | (1L << (precision - 1));
+        byte rank = (byte) (Long.numberOfLeadingZeros(rest) + 1);
+
+        if (rank > registers[index])
+            registers[index] = rank;
+    }
+
+
+    /**
+     * Merges another sketch into this one, so that this sketch reflects all
+     * values added to either sketch.
+     *
+     * @param other the sketch to merge into this one
+     *
+     * @throws IllegalArgumentException if the sketches have different
+     *         precisions
+     */
+    public void merge(HyperLogLog other) {
+        if (other.precision != precision) {
+            throw new IllegalArgumentException(String.format(
+                "Cannot merge sketches with precisions %d and %d",
+                precision, other.precision));
+        }
+
+        for (int i = 0; i < registers.length; i++) {
+            if (other.registers[i] > registers[i])
+                registers[i] = other.registers[i];
+        }
+    }
+
+
+    /**
+     * Returns the estimated number of distinct values added to the sketch.
+     *
+     * @return the estimated number of distinct values
+     */
+    public long estimate() {
+        int m = registers.length;
+
+        double sum = 0;
+        int numZeros = 0;
+        for (byte r : registers) {
+            sum += 1.0 / (1L << r);
+            if (r == 0)
+                numZeros++;
+        }
+
+        double alpha;
+        switch (m) {
+        case 16:
+            alpha = 0.673;
+            break;
+
+        case 32:
+            alpha = 0.697;
+            break;
+
+        case 64:
+            alpha = 0.709;
+            break;
+
+        default:
+            alpha = 0.7213 / (1.0 + 1.079 / m);
+        }
+
+        double estimate = alpha * m * m / sum;
+
+        // For small cardinalities, linear counting over the empty registers
+        // is much more accurate.
+        if (estimate <= 2.5 * m && numZeros > 0)
+            estimate = m * Math.log((double) m / numZeros);
+
+        return Math.round(estimate);
+    }
+
+
+    /**
+     * Computes a well-mixed 64-bit hash of a value.  Numeric values are
+     * hashed by value, so that equal values of different Java types (e.g.
+     * an <tt>Integer</tt> and a <tt>Long</tt>) have the same hash.
+     *
+     * @param value the value to hash
+     *
+     * @return a 64-bit hash of the value
+     */
+    private static long hash(Object value) {
+        long h;
+
+        if (value instanceof Double || value instanceof Float) {
+            double d = ((Number) value).doubleValue();
+            if (d == Math.rint(d) && !Double.isInfinite(d))
+                h = (long) d;
+            else
+                h = Double.doubleToLongBits(d);
+        }
+        else if (value instanceof Number) {
+            h = ((Number) value).longValue();
+        }
+        else if (value instanceof String) {
+            String s = (String) value;
+            h = 1125899906842597L;
+            for (int i = 0; i < s.length(); i++)
+                h = 31 * h + s.charAt(i);
+        }
+        else {
+            h = value.hashCode();
+        }
+
+        // Finalization mix from MurmurHash3, so that all bits of the input
+        // affect all bits of the output.
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+
+        return h;
+    }
+}
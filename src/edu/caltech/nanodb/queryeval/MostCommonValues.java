@@ -0,0 +1,208 @@
+package edu.caltech.nanodb.queryeval;
+
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import edu.caltech.nanodb.expressions.CompareOperator;
+
+
+/**
+ * This class holds the most common values of a column, along with the number
+ * of times each value appears.  On skewed columns, a handful of values can
+ * account for most of the rows, so equality selectivity estimates for these
+ * values are far better when computed from their actual frequencies than
+ * from the number of distinct values in the column.
+ * <p>
+ * The values are stored in order of decreasing frequency.  The total number
+ * of non-<tt>NULL</tt> values in the column is also recorded, so that the
+ * frequency of the values not in the list can be computed.
+ *
+ * @see ColumnStatsCollector
+ * @see SelectivityEstimator
+ */
+public class MostCommonValues {
+
+    /** The most common values, in order of decreasing frequency. */
+    private Object[] values;
+
+
+    /** The number of times each of the most common values appears. */
+    private int[] counts;
+
+
+    /** The total number of non-<tt>NULL</tt> values in the column. */
+    private long totalCount;
+
+
+    /**
+     * Initializes a most-common-values list with the specified values and
+     * counts.
+     *
+     * @param values the most common values, in order of decreasing frequency
+     * @param counts the number of times each value appears
+     * @param totalCount the total number of non-<tt>NULL</tt> values in the
+     *        column
+     *
+     * @throws IllegalArgumentException if either array is <tt>null</tt>, or
+     *         if the arrays have different lengths
+     */
+    public MostCommonValues(Object[] values, int[] counts, long totalCount) {
+        if (values == null)
+            throw new IllegalArgumentException("values cannot be null");
+
+        if (counts == null)
+            throw new IllegalArgumentException("counts cannot be null");
+
+        if (values.length != counts.length) {
+            throw new IllegalArgumentException(String.format(
+                "Got %d values but %d counts", values.length, counts.length));
+        }
+
+        this.values = values;
+        this.counts = counts;
+        this.totalCount = totalCount;
+    }
+
+
+    /**
+     * Builds a most-common-values list from the frequencies of a column's
+     * values.  At most <tt>maxValues</tt> values are kept.  If the column has
+     * more distinct values than that, only values that appear more often than
+     * the average value are kept, since the distinct-value count already
+     * gives a good estimate for the others.
+     *
+     * @param valueCounts a mapping from each distinct non-<tt>NULL</tt> value
+     *        (or a sample of them) to the number of times it appears
+     * @param totalCount the total number of non-<tt>NULL</tt> values in the
+     *        column
+     * @param numUniqueValues the number of distinct non-<tt>NULL</tt> values
+     *        in the column
+     * @param maxValues the maximum number of values to keep
+     *
+     * @return a new most-common-values list, or <tt>null</tt> if no value is
+     *         common enough to be worth recording
+     */
+    public static MostCommonValues build(Map<Object, Integer> valueCounts,
+        long totalCount, int numUniqueValues, int maxValues) {
+
+        if (maxValues < 1)
+            throw new IllegalArgumentException("maxValues must be at least 1");
+
+        ArrayList<Map.Entry<Object, Integer>> entries =
+            new ArrayList<>(valueCounts.entrySet());
+
+        Collections.sort(entries, (e1, e2) -> e2.getValue() - e1.getValue());
+
+        // If every distinct value fits in the list, keep all of them.
+        // Otherwise, only keep values that are more common than average.
+        double minCount = 0;
+        if (numUniqueValues > maxValues && numUniqueValues > 0)
+            minCount = (double) totalCount / numUniqueValues;
+
+        int num = 0;
+        while (num < entries.size() && num < maxValues &&
+               entries.get(num).getValue() > minCount) {
+            num++;
+        }
+
+        if (num == 0)
+            return null;
+
+        Object[] values = new Object[num];
+        int[] counts = new int[num];
+        for (int i = 0; i < num; i++) {
+            values[i] = entries.get(i).getKey();
+            counts[i] = entries.get(i).getValue();
+        }
+
+        return new MostCommonValues(values, counts, totalCount);
+    }
+
+
+    /**
+     * Returns the number of values in the list.
+     *
+     * @return the number of values in the list
+     */
+    public int size() {
+        return values.length;
+    }
+
+
+    /**
+     * Returns the value at the specified position in the list.
+     *
+     * @param index the position of the value in the list
+     *
+     * @return the value at the specified position
+     */
+    public Object getValue(int index) {
+        return values[index];
+    }
+
+
+    /**
+     * Returns the number of times the value at the specified position in the
+     * list appears in the column.
+     *
+     * @param index the position of the value in the list
+     *
+     * @return the number of times the value appears in the column
+     */
+    public int getCount(int index) {
+        return counts[index];
+    }
+
+
+    /**
+     * Returns the total number of non-<tt>NULL</tt> values in the column.
+     *
+     * @return the total number of non-<tt>NULL</tt> values in the column
+     */
+    public long getTotalCount() {
+        return totalCount;
+    }
+
+
+    /**
+     * Returns the sum of the counts of all values in the list.
+     *
+     * @return the sum of the counts of all values in the list
+     */
+    public long getTotalListedCount() {
+        long total = 0;
+        for (int count : counts)
+            total += count;
+
+        return total;
+    }
+
+
+    /**
+     * Returns the position of the specified value in the list, or -1 if the
+     * value is not one of the most common values.  Values are compared using
+     * the database's type-coercion rules.
+     *
+     * @param value the value to look for
+     *
+     * @return the position of the value in the list, or -1 if it is absent
+     */
+    public int indexOf(Object value) {
+        for (int i = 0; i < values.length; i++) {
+            if (CompareOperator.areObjectsEqual(values[i], value))
+                return i;
+        }
+
+        return -1;
+    }
+
+
+    @Override
+    public String toString() {
+        return "MostCommonValues[values=" + Arrays.toString(values) +
+            ", counts=" + Arrays.toString(counts) + ", total=" + totalCount + "]";
+    }
+}
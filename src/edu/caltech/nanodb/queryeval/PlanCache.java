@@ -0,0 +1,333 @@
+package edu.caltech.nanodb.queryeval;
+
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import edu.caltech.nanodb.commands.AnalyzeCommand;
+import edu.caltech.nanodb.commands.Command;
+import edu.caltech.nanodb.commands.CopyCommand;
+import edu.caltech.nanodb.commands.OptimizeCommand;
+import edu.caltech.nanodb.expressions.TypeCastException;
+import edu.caltech.nanodb.expressions.TypeConverter;
+import edu.caltech.nanodb.plannodes.PlanNode;
+import edu.caltech.nanodb.server.CommandEventListener;
+import edu.caltech.nanodb.server.NanoDBServer;
+import edu.caltech.nanodb.server.performance.PerformanceCounters;
+import edu.caltech.nanodb.server.properties.PropertyHandler;
+import edu.caltech.nanodb.server.properties.ReadOnlyPropertyException;
+import edu.caltech.nanodb.server.properties.UnrecognizedPropertyException;
+
+
+/**
+ * This class caches the execution plans of query commands, keyed on the
+ * normalized SQL text of the command, so that repeated statements don't have
+ * to be planned again.  The normalized text is produced by the parser; it
+ * contains the statement's tokens separated by single spaces, with keywords
+ * and identifiers in upper case, so it doesn't depend on whitespace or
+ * keyword case.  Statements prepared with <tt>PREPARE</tt> have parameters
+ * instead of literal values, so their plans are reused for every
+ * <tt>EXECUTE</tt>.
+ * <p>
+ * Plan nodes keep evaluation state, so a cached plan can only be used by one
+ * command at a time.  A command <em>checks out</em> a plan with
+ * {@link #checkOut}, which removes it from the cache, and returns it with
+ * {@link #checkIn} once it has been executed.  If two sessions run the same
+ * statement at once, the second simply plans the statement itself.
+ * <p>
+ * As a {@link CommandEventListener}, the cache discards all of its plans
+ * when a DDL command runs (since tables and indexes the plans use may have
+ * been created or dropped), when tables are analyzed (since the plans were
+ * chosen using the old statistics), when tables are optimized (since their
+ * pages are rearranged and their files may shrink) and when rows are
+ * bulk-loaded with <tt>COPY</tt> (since a table's size may change greatly).
+ * Plans that are checked out when the cache is invalidated are not accepted
+ * back.
+ */
+public class PlanCache implements CommandEventListener {
+
+    /** A logging object for reporting anything interesting that happens. */
+    private static Logger logger = Logger.getLogger(PlanCache.class);
+
+
+    /**
+     * This property specifies the maximum number of plans kept in the
+     * cache.  Setting it to 0 disables the cache.
+     */
+    public static final String PROP_PLAN_CACHE_SIZE = "nanodb.plancache.size";
+
+
+    /** The default value of the {@link #PROP_PLAN_CACHE_SIZE} property. */
+    public static final int DEFAULT_PLAN_CACHE_SIZE = 100;
+
+
+    /**
+     * This class records a plan checked out of the cache, along with the
+     * version of the cache it came from.
+     */
+    public static class CachedPlan {
+        /** The cached plan. */
+        private PlanNode plan;
+
+        /** The value of {@link #version} when the plan was created. */
+        private long version;
+
+        private CachedPlan(PlanNode plan, long version) {
+            this.plan = plan;
+            this.version = version;
+        }
+
+        public PlanNode getPlan() {
+            return plan;
+        }
+    }
+
+
+    private class PlanCachePropertyHandler implements PropertyHandler {
+
+        @Override
+        public Object getPropertyValue(String propertyName)
+            throws UnrecognizedPropertyException {
+
+            if (PROP_PLAN_CACHE_SIZE.equals(propertyName)) {
+                return maxSize;
+            }
+            else {
+                throw new UnrecognizedPropertyException("No property named " +
+                    propertyName);
+            }
+        }
+
+        @Override
+        public void setPropertyValue(String propertyName, Object value)
+            throws UnrecognizedPropertyException, ReadOnlyPropertyException,
+                   TypeCastException {
+
+            if (PROP_PLAN_CACHE_SIZE.equals(propertyName)) {
+                int size = TypeConverter.getIntegerValue(value);
+                if (size < 0) {
+                    throw new IllegalArgumentException(propertyName +
+                        " cannot be negative");
+                }
+                setMaxSize(size);
+            }
+            else {
+                throw new UnrecognizedPropertyException("No property named " +
+                    propertyName);
+            }
+        }
+    }
+
+
+    /** The maximum number of plans to keep in the cache. */
+    private int maxSize;
+
+
+    /**
+     * The version of the cache, which is incremented every time the cache is
+     * invalidated.  Plans created under an older version are discarded.
+     */
+    private long version;
+
+
+    /** The cached plans, keyed on normalized SQL, in least-recently-used order. */
+    private LinkedHashMap<String, CachedPlan> plans =
+        new LinkedHashMap<>(16, 0.75f, true);
+
+
+    /**
+     * Initializes the plan cache for the specified server, and registers its
+     * properties.  The initial cache size is taken from the corresponding
+     * system property, if it is set.
+     *
+     * @param server the database server whose plans should be cached
+     */
+    public PlanCache(NanoDBServer server) {
+        if (server == null)
+            throw new IllegalArgumentException("server cannot be null");
+
+        maxSize = DEFAULT_PLAN_CACHE_SIZE;
+        try {
+            String str = System.getProperty(PROP_PLAN_CACHE_SIZE);
+            if (str != null)
+                maxSize = Math.max(0, Integer.parseInt(str));
+        }
+        catch (NumberFormatException e) {
+            logger.error("Could not parse plan-cache size; using the " +
+                "default value", e);
+        }
+
+        server.getPropertyRegistry().registerProperties(
+            new PlanCachePropertyHandler(), PROP_PLAN_CACHE_SIZE);
+    }
+
+
+    /**
+     * Returns true if the cache is enabled, i.e. its maximum size is not 0.
+     *
+     * @return true if the cache is enabled
+     */
+    public synchronized boolean isEnabled() {
+        return maxSize > 0;
+    }
+
+
+    /**
+     * Sets the maximum number of plans kept in the cache, discarding the
+     * least recently used plans if there are too many.
+     *
+     * @param size the maximum number of plans to keep
+     */
+    public synchronized void setMaxSize(int size) {
+        maxSize = size;
+        evict();
+    }
+
+
+    /**
+     * Returns the number of plans currently in the cache.
+     *
+     * @return the number of plans currently in the cache
+     */
+    public synchronized int size() {
+        return plans.size();
+    }
+
+
+    /**
+     * Returns the current version of the cache.  A command that plans a
+     * statement itself should record the version before planning, and pass
+     * it to {@link #checkIn}, so that a plan created while the cache was
+     * being invalidated isn't cached.
+     *
+     * @return the current version of the cache
+     */
+    public synchronized long getVersion() {
+        return version;
+    }
+
+
+    /**
+     * Removes the plan for the specified statement from the cache and
+     * returns it, so that the caller has exclusive use of the plan.
+     *
+     * @param key the normalized SQL text of the statement
+     *
+     * @return the cached plan, or <tt>null</tt> if the statement's plan
+     *         isn't in the cache
+     */
+    public synchronized CachedPlan checkOut(String key) {
+        if (key == null || maxSize == 0)
+            return null;
+
+        CachedPlan cached = plans.remove(key);
+        if (cached == null) {
+            PerformanceCounters.inc(PerformanceCounters.PLAN_CACHE_MISSES);
+            return null;
+        }
+
+        PerformanceCounters.inc(PerformanceCounters.PLAN_CACHE_HITS);
+        logger.debug("Using cached plan for statement:  " + key);
+        return cached;
+    }
+
+
+    /**
+     * Returns a plan to the cache after it has been used.  The plan is only
+     * cached if the cache hasn't been invalidated since the plan was checked
+     * out or created.
+     *
+     * @param key the normalized SQL text of the statement
+     * @param plan the statement's plan
+     * @param planVersion the version of the cache when the plan was created,
+     *        from {@link #getVersion}
+     */
+    public synchronized void checkIn(String key, PlanNode plan,
+                                     long planVersion) {
+        if (key == null || plan == null || maxSize == 0 ||
+            planVersion != version) {
+            return;
+        }
+
+        plans.put(key, new CachedPlan(plan, planVersion));
+        evict();
+    }
+
+
+    /**
+     * Returns a plan that was checked out of the cache after it has been
+     * used.
+     *
+     * @param key the normalized SQL text of the statement
+     * @param cached the plan checked out of the cache
+     */
+    public void checkIn(String key, CachedPlan cached) {
+        checkIn(key, cached.plan, cached.version);
+    }
+
+
+    /** Discards every plan in the cache. */
+    public synchronized void invalidate() {
+        version++;
+        if (!plans.isEmpty()) {
+            logger.debug(String.format("Invalidating %d cached plans",
+                plans.size()));
+            plans.clear();
+        }
+        PerformanceCounters.inc(PerformanceCounters.PLAN_CACHE_INVALIDATIONS);
+    }
+
+
+    /** Discards the least recently used plans until the cache isn't too big. */
+    private void evict() {
+        Iterator<Map.Entry<String, CachedPlan>> iter =
+            plans.entrySet().iterator();
+
+        while (plans.size() > maxSize && iter.hasNext()) {
+            iter.next();
+            iter.remove();
+        }
+    }
+
+
+    /**
+     * Returns true if the specified command may make cached plans invalid.
+     *
+     * @param cmd the command to check
+     *
+     * @return true if the command is a DDL command, or an <tt>ANALYZE</tt>,
+     *         <tt>OPTIMIZE</tt> or <tt>COPY</tt> command
+     */
+    private boolean invalidatesPlans(Command cmd) {
+        return cmd.getCommandType() == Command.Type.DDL ||
+            cmd instanceof AnalyzeCommand ||
+            cmd instanceof OptimizeCommand ||
+            cmd instanceof CopyCommand;
+    }
+
+
+    /**
+     * Invalidates the cache before a command that could make cached plans
+     * invalid, so that no cached plan is used while the command runs.
+     */
+    @Override
+    public void beforeCommandExecuted(Command cmd) {
+        if (invalidatesPlans(cmd))
+            invalidate();
+    }
+
+
+    /**
+     * Invalidates the cache again after a command that could make cached
+     * plans invalid, so that plans created while the command ran are not
+     * cached.
+     */
+    @Override
+    public void afterCommandExecuted(Command cmd) {
+        if (invalidatesPlans(cmd))
+            invalidate();
+    }
+}
@@ -5,13 +5,16 @@ import edu.caltech.nanodb.plannodes.PlanNode;
 
 import edu.caltech.nanodb.relations.Schema;
 import edu.caltech.nanodb.relations.Tuple;
+import edu.caltech.nanodb.relations.TupleBatch;
 
 
 public class QueryEvaluator {
 
     /**
      * Executes the specified query plan, and feeds the results to the specified
-     * tuple processor.
+     * tuple processor.  If the plan produces batches of tuples efficiently,
+     * and the processor accepts batches, the results are retrieved and
+     * processed a batch at a time.
      *
      * @param plan the query plan to execute
      *
@@ -32,21 +35,33 @@ public class QueryEvaluator {
         Schema resultSchema = plan.getSchema();
         processor.setSchema(resultSchema);
 
+        // A plan kept in the plan cache must compute the results of its
+        // uncorrelated subqueries again, rather than reuse old results.
+        plan.resetSubqueryResults();
         plan.initialize();
 
         int rowsProduced = 0;
         try {
-            Tuple tuple;
-            while (true) {
-                // Get the next tuple.  If there aren't anymore, we're done!
-                tuple = plan.getNextTuple();
-                if (tuple == null)
-                    break;
-
-                rowsProduced++;
-
-                // Do whatever we're supposed to do with the tuple.
-                processor.process(tuple);
+            if (plan.isVectorized() && processor.supportsBatches()) {
+                TupleBatch batch;
+                while ((batch = plan.getNextBatch()) != null) {
+                    rowsProduced += batch.size();
+                    processor.processBatch(batch);
+                }
+            }
+            else {
+                Tuple tuple;
+                while (true) {
+                    // Get the next tuple.  If there aren't anymore, we're done!
+                    tuple = plan.getNextTuple();
+                    if (tuple == null)
+                        break;
+
+                    rowsProduced++;
+
+                    // Do whatever we're supposed to do with the tuple.
+                    processor.process(tuple);
+                }
             }
         }
         finally {
@@ -60,5 +75,63 @@ public class QueryEvaluator {
         // Return the basic statistics we gathered.
         return new EvalStats(rowsProduced, elapsedTimeNanos);
     }
-}
 
+
+    /**
+     * Starts executing the specified query plan, whose results will be
+     * retrieved a few at a time with {@link #fetchTuples}, as for a cursor.
+     * The plan stays open between fetches, and must be closed with
+     * {@link PlanNode#cleanUp} when the results are no longer needed.
+     *
+     * @param plan the query plan to start executing
+     */
+    public static void openPlan(PlanNode plan) {
+        plan.resetSubqueryResults();
+        plan.initialize();
+    }
+
+
+    /**
+     * Retrieves up to the specified number of tuples from a plan opened with
+     * {@link #openPlan}, and feeds them to the specified tuple processor.
+     * The processor is given the plan's schema first, and is finished after
+     * the tuples, even if none are produced.  Tuples are only retrieved one
+     * at a time, so that the plan doesn't produce more tuples than are
+     * requested.
+     *
+     * @param plan the query plan to retrieve tuples from
+     *
+     * @param processor the tuple-processor to receive the tuples
+     *
+     * @param maxTuples the maximum number of tuples to retrieve
+     *
+     * @return An object containing statistics about the plan evaluation.  If
+     *         it reports fewer rows than requested, the plan has produced
+     *         all of its results.
+     *
+     * @throws Exception if an error occurs during query evaluation or during
+     *         tuple-processing.
+     */
+    public static EvalStats fetchTuples(PlanNode plan, TupleProcessor processor,
+                                        long maxTuples) throws Exception {
+
+        long startTime = System.nanoTime();
+
+        processor.setSchema(plan.getSchema());
+
+        int rowsProduced = 0;
+        while (rowsProduced < maxTuples) {
+            Tuple tuple = plan.getNextTuple();
+            if (tuple == null)
+                break;
+
+            rowsProduced++;
+            processor.process(tuple);
+        }
+
+        processor.finish();
+
+        long elapsedTimeNanos = System.nanoTime() - startTime;
+        return new EvalStats(rowsProduced, elapsedTimeNanos);
+    }
+}
@@ -3,6 +3,8 @@ package edu.caltech.nanodb.queryeval;
 
 import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.lang.Comparable;
 
 import edu.caltech.nanodb.expressions.ArithmeticOperator;
@@ -10,6 +12,7 @@ import edu.caltech.nanodb.expressions.BooleanOperator;
 import edu.caltech.nanodb.expressions.ColumnValue;
 import edu.caltech.nanodb.expressions.CompareOperator;
 import edu.caltech.nanodb.expressions.Expression;
+import edu.caltech.nanodb.expressions.InValuesOperator;
 import edu.caltech.nanodb.expressions.LiteralValue;
 import edu.caltech.nanodb.expressions.TypeConverter;
 
@@ -118,6 +121,11 @@ public class SelectivityEstimator {
             CompareOperator comp = (CompareOperator) expr;
             selectivity = estimateCompareSelectivity(comp, exprSchema, stats);
         }
+        else if (expr instanceof InValuesOperator) {
+            // This is a test against a list of values.
+            InValuesOperator in = (InValuesOperator) expr;
+            selectivity = estimateInValuesSelectivity(in, exprSchema, stats);
+        }
 
         return selectivity;
     }
@@ -150,10 +158,9 @@ public class SelectivityEstimator {
 
         switch (bool.getType()) {
         case AND_EXPR:
-            // Iterate through the terms of the BooleanOperator and compute the conjunctive selectivity
-            for (int i = 0; i < bool.getNumTerms(); i++) {
-                selectivity *= estimateSelectivity(bool.getTerm(i), exprSchema, stats);
-            }
+            // Compute the conjunctive selectivity of the terms, treating
+            // range comparisons on the same column as a single range.
+            selectivity = estimateConjunctionSelectivity(bool, exprSchema, stats);
             break;
 
         case OR_EXPR:
@@ -182,6 +189,150 @@ public class SelectivityEstimator {
     }
 
 
+    /**
+     * This helper function computes a selectivity estimate for a conjunction
+     * of terms.  Most terms are treated as independent, but a lower-bound
+     * and an upper-bound comparison between the same column and a literal
+     * value (such as the pair of comparisons produced by <tt>BETWEEN</tt>)
+     * are clearly not independent, so they are estimated together as a
+     * single range.
+     *
+     * @param bool the <tt>AND</tt> expression
+     *
+     * @param exprSchema a schema specifying the environment that the expression
+     *        will be evaluated within
+     *
+     * @param stats a collection of column-statistics to use in making
+     *        selectivity estimates
+     *
+     * @return a selectivity estimate in the range [0, 1].
+     */
+    private static float estimateConjunctionSelectivity(BooleanOperator bool,
+        Schema exprSchema, ArrayList<ColumnStats> stats) {
+
+        // Pull out the first lower-bound and upper-bound comparisons for each
+        // column; all other terms are estimated independently.
+        Map<Integer, CompareOperator> lowerBounds = new LinkedHashMap<>();
+        Map<Integer, CompareOperator> upperBounds = new LinkedHashMap<>();
+        ArrayList<Expression> otherTerms = new ArrayList<>();
+
+        for (int i = 0; i < bool.getNumTerms(); i++) {
+            Expression term = bool.getTerm(i);
+
+            if (term instanceof CompareOperator) {
+                CompareOperator comp = (CompareOperator) term;
+                comp.normalize();
+
+                Expression left = comp.getLeftExpression();
+                Expression right = comp.getRightExpression();
+
+                if (left instanceof ColumnValue && right instanceof LiteralValue) {
+                    int colIndex = exprSchema.getColumnIndex(
+                        ((ColumnValue) left).getColumnName());
+
+                    Map<Integer, CompareOperator> bounds = null;
+                    switch (comp.getType()) {
+                    case GREATER_THAN:
+                    case GREATER_OR_EQUAL:
+                        bounds = lowerBounds;
+                        break;
+
+                    case LESS_THAN:
+                    case LESS_OR_EQUAL:
+                        bounds = upperBounds;
+                        break;
+
+                    default:
+                        // Not a range comparison.
+                    }
+
+                    if (colIndex >= 0 && bounds != null &&
+                        !bounds.containsKey(colIndex)) {
+                        bounds.put(colIndex, comp);
+                        continue;
+                    }
+                }
+            }
+
+            otherTerms.add(term);
+        }
+
+        float selectivity = 1.0f;
+
+        for (Expression term : otherTerms)
+            selectivity *= estimateSelectivity(term, exprSchema, stats);
+
+        for (Map.Entry<Integer, CompareOperator> entry : lowerBounds.entrySet()) {
+            CompareOperator lower = entry.getValue();
+            CompareOperator upper = upperBounds.remove(entry.getKey());
+
+            if (upper != null) {
+                selectivity *= estimateRangeSelectivity(lower, upper,
+                    entry.getKey(), exprSchema, stats);
+            }
+            else {
+                selectivity *= estimateCompareSelectivity(lower, exprSchema, stats);
+            }
+        }
+
+        for (CompareOperator upper : upperBounds.values())
+            selectivity *= estimateCompareSelectivity(upper, exprSchema, stats);
+
+        return selectivity;
+    }
+
+
+    /**
+     * This helper function computes a selectivity estimate for a range
+     * predicate on a single column, expressed as a lower-bound comparison and
+     * an upper-bound comparison against literal values.  When the column's
+     * statistics allow the two comparisons to be estimated from the
+     * distribution of the column's values, the range selectivity is the
+     * overlap of the two estimates.  Otherwise, the comparisons are treated
+     * as independent.
+     *
+     * @param lower the lower-bound comparison, e.g. <tt>T1.A &gt;= 5</tt>
+     * @param upper the upper-bound comparison, e.g. <tt>T1.A &lt;= 10</tt>
+     * @param colIndex the index of the column in the expression schema
+     *
+     * @param exprSchema a schema specifying the environment that the expression
+     *        will be evaluated within
+     *
+     * @param stats a collection of column-statistics to use in making
+     *        selectivity estimates
+     *
+     * @return a selectivity estimate in the range [0, 1].
+     */
+    private static float estimateRangeSelectivity(CompareOperator lower,
+        CompareOperator upper, int colIndex, Schema exprSchema,
+        ArrayList<ColumnStats> stats) {
+
+        float lowerSelectivity = estimateCompareSelectivity(lower, exprSchema, stats);
+        float upperSelectivity = estimateCompareSelectivity(upper, exprSchema, stats);
+
+        SQLDataType sqlType =
+            exprSchema.getColumnInfo(colIndex).getType().getBaseType();
+        ColumnStats colStats = stats.get(colIndex);
+
+        if (!typeSupportsCompareEstimates(sqlType) ||
+            !colStats.hasDifferentMinMaxValues()) {
+            return lowerSelectivity * upperSelectivity;
+        }
+
+        // Both estimates cover the column's non-NULL values, so the values
+        // satisfying both comparisons are those counted twice.  (Only the
+        // histogram-based estimates account for NULLs.)
+        float nonNullFraction = 1.0f;
+        if (colStats.hasHistogram())
+            nonNullFraction = getNonNullFraction(colStats);
+
+        float selectivity =
+            lowerSelectivity + upperSelectivity - nonNullFraction;
+
+        return Math.max(0.0f, Math.min(1.0f, selectivity));
+    }
+
+
     /**
      * This function computes a selectivity estimate for a general comparison
      * operation.  The method examines the types of the arguments in the
@@ -284,13 +435,13 @@ public class SelectivityEstimator {
             // Compute the equality value.  Then, if inequality, invert the
             // result.
 
-            // If we know the number of unique values then calculate
-            // selectivity using an assumed uniform distribution of
-            // values.
-            if (colStats.getNumUniqueValues() != -1) {
-                selectivity = 1.0f / colStats.getNumUniqueValues();
+            // If we know the most common values or the number of unique
+            // values then calculate selectivity from them.
+            if (canEstimateEquals(colStats)) {
+                selectivity = estimateEqualsSelectivity(colStats, value);
                 if (compType == CompareOperator.Type.NOT_EQUALS) {
-                    selectivity = 1.0f - selectivity;
+                    selectivity = Math.max(0.0f,
+                        getNonNullFraction(colStats) - selectivity);
                 }
             }
 
@@ -304,6 +455,19 @@ public class SelectivityEstimator {
             // column's type supports it.
 
             if (typeSupportsCompareEstimates(sqlType) &&
+                colStats.hasHistogram() && value != null) {
+
+                // Use the histogram to find the fraction of values that are
+                // less than the literal.
+                float lessThan = estimateHistogramFraction(colStats, value, false);
+                if (compType == CompareOperator.Type.LESS_THAN)
+                    selectivity = lessThan;
+                else
+                    selectivity = 1.0f - lessThan;
+
+                selectivity *= getNonNullFraction(colStats);
+            }
+            else if (typeSupportsCompareEstimates(sqlType) &&
                 colStats.hasDifferentMinMaxValues()) {
 
                 // If the literal is less than the min then we select all rows
@@ -339,6 +503,19 @@ public class SelectivityEstimator {
             // column's type supports it.
 
             if (typeSupportsCompareEstimates(sqlType) &&
+                colStats.hasHistogram() && value != null) {
+
+                // Use the histogram to find the fraction of values that are
+                // less than or equal to the literal.
+                float lessOrEqual = estimateHistogramFraction(colStats, value, true);
+                if (compType == CompareOperator.Type.LESS_OR_EQUAL)
+                    selectivity = lessOrEqual;
+                else
+                    selectivity = 1.0f - lessOrEqual;
+
+                selectivity *= getNonNullFraction(colStats);
+            }
+            else if (typeSupportsCompareEstimates(sqlType) &&
                 colStats.hasDifferentMinMaxValues()) {
 
                 // If the literal is less than the min then we
@@ -376,6 +553,131 @@ public class SelectivityEstimator {
     }
 
 
+    /**
+     * This helper function computes a selectivity estimate for an
+     * <tt>IN</tt> test of a column against a list of literal values, such as
+     * <tt>T1.A IN (1, 2, 3)</tt>.  The selectivity is the sum of the
+     * equality selectivities of the distinct values in the list.  If the
+     * expression is anything other than a column, or the list contains
+     * anything other than literals, the default selectivity is used.
+     *
+     * @param in the <tt>IN</tt> expression
+     *
+     * @param exprSchema a schema specifying the environment that the expression
+     *        will be evaluated within
+     *
+     * @param stats a collection of column-statistics to use in making
+     *        selectivity estimates
+     *
+     * @return a selectivity estimate in the range [0, 1].
+     */
+    public static float estimateInValuesSelectivity(InValuesOperator in,
+        Schema exprSchema, ArrayList<ColumnStats> stats) {
+
+        float selectivity = DEFAULT_SELECTIVITY;
+
+        if (!(in.getExpression() instanceof ColumnValue))
+            return selectivity;
+
+        ColumnValue columnValue = (ColumnValue) in.getExpression();
+        int colIndex = exprSchema.getColumnIndex(columnValue.getColumnName());
+        if (colIndex < 0)
+            return selectivity;
+
+        ColumnStats colStats = stats.get(colIndex);
+        if (!canEstimateEquals(colStats))
+            return selectivity;
+
+        ArrayList<Object> distinctValues = new ArrayList<>();
+        for (Expression e : in.getValues()) {
+            if (!(e instanceof LiteralValue))
+                return selectivity;
+
+            Object value = e.evaluate();
+            if (value == null)
+                continue;
+
+            boolean seen = false;
+            for (Object v : distinctValues) {
+                if (CompareOperator.areObjectsEqual(v, value)) {
+                    seen = true;
+                    break;
+                }
+            }
+
+            if (!seen)
+                distinctValues.add(value);
+        }
+
+        selectivity = 0.0f;
+        for (Object value : distinctValues)
+            selectivity += estimateEqualsSelectivity(colStats, value);
+
+        selectivity = Math.min(selectivity, getNonNullFraction(colStats));
+
+        logger.debug("Estimated selectivity of IN operator \"" + in +
+            "\" as " + selectivity);
+
+        return selectivity;
+    }
+
+
+    /**
+     * Returns true if the column's statistics allow equality selectivity to
+     * be estimated, i.e. if the column has a most-common-values list or a
+     * known number of unique values.
+     *
+     * @param colStats the column's statistics
+     *
+     * @return true if equality selectivity can be estimated for the column
+     */
+    private static boolean canEstimateEquals(ColumnStats colStats) {
+        return colStats.hasMostCommonValues() ||
+               colStats.getNumUniqueValues() > 0;
+    }
+
+
+    /**
+     * This helper function estimates the fraction of a column's rows that are
+     * equal to the specified value.  If the value is one of the column's most
+     * common values, its recorded frequency is used.  Otherwise, the rows not
+     * covered by the most-common-values list are assumed to be evenly divided
+     * among the remaining distinct values.  Without such a list, a uniform
+     * distribution over all of the column's distinct values is assumed.
+     *
+     * @param colStats the column's statistics
+     * @param value the value that the column is being compared to
+     *
+     * @return a selectivity estimate in the range [0, 1].
+     */
+    private static float estimateEqualsSelectivity(ColumnStats colStats,
+                                                   Object value) {
+        if (value == null)
+            return 0.0f;
+
+        if (!colStats.hasMostCommonValues())
+            return 1.0f / colStats.getNumUniqueValues();
+
+        MostCommonValues mcv = colStats.getMostCommonValues();
+        double numRows = mcv.getTotalCount() +
+            Math.max(0, colStats.getNumNullValues());
+
+        if (numRows == 0)
+            return 0.0f;
+
+        int index = mcv.indexOf(value);
+        if (index != -1)
+            return (float) (mcv.getCount(index) / numRows);
+
+        long remainingCount = mcv.getTotalCount() - mcv.getTotalListedCount();
+        int remainingValues = colStats.getNumUniqueValues() - mcv.size();
+        if (remainingCount <= 0 || remainingValues <= 0)
+            return 0.0f;
+
+        return (float) ((double) remainingCount / remainingValues / numRows);
+    }
+
+
     /**
      * This helper function computes a selectivity estimate for a comparison
      * between two columns.  Examples would be <tt>T1.A = T2.A</tt>.
@@ -436,6 +738,123 @@ public class SelectivityEstimator {
     }
 
 
+    /**
+     * This helper function uses a column's histogram to estimate the fraction
+     * of the column's non-<tt>NULL</tt> values that are less than (or, if
+     * <tt>inclusive</tt> is true, less than or equal to) the specified value.
+     * Values are assumed to be uniformly distributed within each bucket.
+     *
+     * @param colStats the column's statistics, which must include a histogram
+     * @param value the value to compare the column's values against
+     * @param inclusive true if values equal to <tt>value</tt> should be
+     *        counted, or false otherwise
+     *
+     * @return the estimated fraction of non-<tt>NULL</tt> values that are
+     *         less than (or equal to) the specified value, in the range
+     *         [0, 1].
+     */
+    private static float estimateHistogramFraction(ColumnStats colStats,
+        Object value, boolean inclusive) {
+
+        Histogram histogram = colStats.getHistogram();
+        int numBuckets = histogram.getNumBuckets();
+        long totalCount = histogram.getTotalCount();
+
+        if (totalCount == 0)
+            return 0.0f;
+
+        if (compareValues(value, histogram.getLowerBound(0)) < 0)
+            return 0.0f;
+
+        if (compareValues(value, histogram.getUpperBound(numBuckets - 1)) > 0)
+            return 1.0f;
+
+        // The fraction of values that are equal to any one value.  Since a
+        // value inside a bucket is treated as a point on a continuous range,
+        // half of this is added or removed depending on inclusiveness.
+        float eqFraction = 0.0f;
+        if (colStats.getNumUniqueValues() > 0)
+            eqFraction = 1.0f / colStats.getNumUniqueValues();
+
+        double count = 0;
+        for (int i = 0; i < numBuckets; i++) {
+            Object lower = histogram.getLowerBound(i);
+            Object upper = histogram.getUpperBound(i);
+
+            if (compareValues(value, upper) > 0) {
+                // The whole bucket is below the value.
+                count += histogram.getCount(i);
+                continue;
+            }
+
+            if (compareValues(lower, upper) == 0) {
+                // The bucket holds a single value, which is the value itself.
+                if (inclusive)
+                    count += histogram.getCount(i);
+
+                eqFraction = 0.0f;
+            }
+            else if (compareValues(value, lower) > 0) {
+                count += histogram.getCount(i) *
+                    computeRatio(lower, value, lower, upper);
+            }
+
+            break;
+        }
+
+        float fraction = (float) (count / totalCount);
+        if (inclusive)
+            fraction += eqFraction / 2;
+        else
+            fraction -= eqFraction / 2;
+
+        return Math.max(0.0f, Math.min(1.0f, fraction));
+    }
+
+
+    /**
+     * Returns the fraction of a column's values that are not <tt>NULL</tt>.
+     * This is only known when the column has a histogram or a
+     * most-common-values list, since otherwise the total number of values
+     * isn't recorded in the column's statistics; in that case, 1 is
+     * returned.
+     *
+     * @param colStats the column's statistics
+     *
+     * @return the fraction of the column's values that are not <tt>NULL</tt>
+     */
+    private static float getNonNullFraction(ColumnStats colStats) {
+        if (colStats.getNumNullValues() <= 0)
+            return 1.0f;
+
+        long numNonNull;
+        if (colStats.hasHistogram())
+            numNonNull = colStats.getHistogram().getTotalCount();
+        else if (colStats.hasMostCommonValues())
+            numNonNull = colStats.getMostCommonValues().getTotalCount();
+        else
+            return 1.0f;
+
+        return (float) numNonNull / (numNonNull + colStats.getNumNullValues());
+    }
+
+
+    /**
+     * Compares two values, coercing them to the same type first.
+     *
+     * @param obj1 the first value to compare
+     * @param obj2 the second value to compare
+     *
+     * @return a negative number, zero, or a positive number if the first value
+     *         is less than, equal to, or greater than the second value
+     */
+    @SuppressWarnings("unchecked")
+    private static int compareValues(Object obj1, Object obj2) {
+        TypeConverter.Pair pair = TypeConverter.coerceComparison(obj1, obj2);
+        return ((Comparable) pair.value1).compareTo(pair.value2);
+    }
+
+
     /**
      * This method computes the function
      * (<em>high</em><sub>1</sub> - <em>low</em><sub>1</sub>) /
@@ -28,6 +28,38 @@ public class TableStats {
     public float avgTupleSize;
 
 
+    /**
+     * For B<sup>+</sup> tree tuple files, the number of levels in the tree,
+     * including the leaf level.  This value is 0 for files that are not
+     * tree-structured, or for trees that have not been analyzed.
+     */
+    public int treeHeight;
+
+
+    /**
+     * For B<sup>+</sup> tree tuple files, the number of leaf pages in the
+     * tree.  This number is in the range of [0, 2<sup>16</sup>).
+     */
+    public int numLeafPages;
+
+
+    /**
+     * For B<sup>+</sup> tree tuple files, the average fraction of each leaf
+     * page that is occupied by tuple data, in the range [0, 1].
+     */
+    public float avgLeafFill;
+
+
+    /**
+     * The number of rows inserted, updated or deleted since the statistics
+     * were last computed.  This count is used to decide when the statistics
+     * are stale enough to be recomputed automatically.
+     *
+     * @see AutoAnalyzer
+     */
+    public int numModifications;
+
+
     /**
      * This collection holds statistics about individual columns in the table.
      */
@@ -74,6 +106,68 @@ public class TableStats {
     }
 
 
+    /**
+     * Returns true if this object holds B<sup>+</sup> tree statistics, i.e.
+     * the tree height, the leaf page count and the average leaf fill.
+     *
+     * @return true if B<sup>+</sup> tree statistics are present
+     */
+    public boolean hasTreeStats() {
+        return treeHeight > 0;
+    }
+
+
+    /**
+     * Estimates the number of block reads required to scan every tuple in the
+     * table file.  For B<sup>+</sup> tree files only the path down to the
+     * leftmost leaf and the leaf pages themselves are read.
+     *
+     * @return the estimated number of block reads for a full scan
+     */
+    public long estimateScanIOs() {
+        if (hasTreeStats())
+            return (treeHeight - 1) + numLeafPages;
+
+        return numDataPages;
+    }
+
+
+    /**
+     * Estimates the number of block reads required to look up a single key
+     * in a B<sup>+</sup> tree file.  For other files, a probe is assumed to
+     * require a full scan.
+     *
+     * @return the estimated number of block reads for a single-key probe
+     */
+    public long estimateProbeIOs() {
+        if (hasTreeStats())
+            return treeHeight;
+
+        return numDataPages;
+    }
+
+
+    /**
+     * Estimates the number of block reads required to scan the range of a
+     * B<sup>+</sup> tree file that holds the specified fraction of its
+     * tuples.  The traversal from the root to the first leaf is included.
+     * For other files, a range scan is assumed to require a full scan.
+     *
+     * @param selectivity the fraction of the tuples that fall in the range,
+     *        in the range [0, 1]
+     *
+     * @return the estimated number of block reads for the range scan
+     */
+    public long estimateRangeScanIOs(float selectivity) {
+        if (!hasTreeStats())
+            return numDataPages;
+
+        selectivity = Math.max(0.0f, Math.min(1.0f, selectivity));
+        long leafIOs = (long) Math.ceil(selectivity * numLeafPages);
+        return (treeHeight - 1) + Math.max(1, leafIOs);
+    }
+
+
     /**
      * Returns the column-statistics for the specified column.
      *
@@ -98,7 +192,17 @@ public class TableStats {
 
     @Override
     public String toString() {
-      return "TableStats[numDataPages=" + numDataPages + ", numTuples=" +
-        numTuples + ", avgTupleSize=" + avgTupleSize + "]";
+      String str = "TableStats[numDataPages=" + numDataPages +
+        ", numTuples=" + numTuples + ", avgTupleSize=" + avgTupleSize;
+
+      if (hasTreeStats()) {
+          str += ", treeHeight=" + treeHeight + ", numLeafPages=" +
+            numLeafPages + ", avgLeafFill=" + avgLeafFill;
+      }
+
+      if (numModifications > 0)
+          str += ", numModifications=" + numModifications;
+
+      return str + "]";
     }
 }
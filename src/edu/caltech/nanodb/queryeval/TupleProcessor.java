@@ -3,6 +3,7 @@ package edu.caltech.nanodb.queryeval;
 
 import edu.caltech.nanodb.relations.Schema;
 import edu.caltech.nanodb.relations.Tuple;
+import edu.caltech.nanodb.relations.TupleBatch;
 
 
 /**
@@ -33,6 +34,35 @@ public interface TupleProcessor {
     public void process(Tuple tuple) throws Exception;
 
 
+    /**
+     * Processes a batch of tuples generated from evaluating a query plan.
+     * The default implementation passes each tuple in the batch to
+     * {@link #process} as a new {@link edu.caltech.nanodb.expressions.TupleLiteral}.
+     *
+     * @param batch The batch of tuples to process.
+     *
+     * @throws Exception if any errors occur during tuple processing.
+     */
+    public default void processBatch(TupleBatch batch) throws Exception {
+        for (int i = 0; i < batch.size(); i++)
+            process(batch.getTuple(i));
+    }
+
+
+    /**
+     * Returns true if the query evaluator may pass results to this processor
+     * in batches, when the query plan produces batches efficiently.  Tuples
+     * in a batch are copies of the stored tuples, so processors that modify
+     * the tuples in the table itself, such as the processor for
+     * <tt>DELETE</tt>, must return false.
+     *
+     * @return true if results may be passed to this processor in batches
+     */
+    public default boolean supportsBatches() {
+        return true;
+    }
+
+
     /**
      * This function is called when all tuples have been produced and passed
      * to the tuple processor.
@@ -0,0 +1,389 @@
+package edu.caltech.nanodb.relations;
+
+
+import edu.caltech.nanodb.expressions.TupleLiteral;
+import edu.caltech.nanodb.storage.FilePointer;
+
+
+/**
+ * <p>
+ * This class holds a batch of tuples in column-oriented form, so that plan
+ * nodes can pass many rows to their parents with one call, and operators can
+ * process a column's values in a tight loop.  The values of each column are
+ * stored in an array with one element per row, and a <em>selection
+ * vector</em> specifies which of the rows are actually part of the batch.
+ * Filters remove rows from a batch by shrinking the selection vector, rather
+ * than by copying the remaining values.
+ * </p>
+ * <p>
+ * Since batches are column-oriented, several batches can share the same
+ * column arrays; for example, a projection that simply reorders or drops
+ * columns produces a batch that refers to its input's column arrays.  A
+ * batch returned by {@link edu.caltech.nanodb.plannodes.PlanNode#getNextBatch}
+ * belongs to the caller, and is not modified by the plan node afterward.
+ * </p>
+ * <p>
+ * Rows in a batch can be accessed in two ways.  The <em>row index</em> of a
+ * row is its position in the column arrays, and is used for accessing the
+ * column arrays directly.  The position of a row in the selection vector,
+ * from 0 to {@link #size} - 1, is used with methods such as
+ * {@link #getTuple}.  Use {@link #getRowIndex} to convert a position into a
+ * row index.
+ * </p>
+ */
+public class TupleBatch {
+
+    /** The default number of rows in a batch. */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+
+    /**
+     * A tuple that presents one row of a batch, so that expressions can be
+     * evaluated against the batch's rows without copying their values.  A
+     * row view can be moved from row to row with {@link #setRow}, so only
+     * one is needed for an entire batch.
+     */
+    public class RowView implements Tuple {
+
+        /** The row index of the row this view currently presents. */
+        private int row;
+
+
+        /**
+         * Moves the view to the specified row of the batch.
+         *
+         * @param row the row index of the row to present
+         */
+        public void setRow(int row) {
+            this.row = row;
+        }
+
+
+        @Override
+        public boolean isDiskBacked() {
+            return false;
+        }
+
+
+        @Override
+        public int getColumnCount() {
+            return columns.length;
+        }
+
+
+        @Override
+        public boolean isNullValue(int colIndex) {
+            return columns[colIndex][row] == null;
+        }
+
+
+        @Override
+        public Object getColumnValue(int colIndex) {
+            return columns[colIndex][row];
+        }
+
+
+        @Override
+        public void setColumnValue(int colIndex, Object value) {
+            columns[colIndex][row] = value;
+        }
+
+
+        @Override
+        public FilePointer getExternalReference() {
+            return null;
+        }
+
+
+        /** Rows of a batch are in memory, so pinning is a no-op. */
+        @Override
+        public void pin() {
+            // No-op.
+        }
+
+
+        /** Rows of a batch are in memory, so pinning is a no-op. */
+        @Override
+        public void unpin() {
+            // No-op.
+        }
+
+
+        /** Rows of a batch are in memory, so pinning is a no-op. */
+        @Override
+        public int getPinCount() {
+            return 0;
+        }
+
+
+        /** Rows of a batch are in memory, so pinning is a no-op. */
+        @Override
+        public boolean isPinned() {
+            return false;
+        }
+    }
+
+
+    /** The values of the batch, indexed first by column, then by row. */
+    private Object[][] columns;
+
+
+    /** The maximum number of rows in the batch. */
+    private int capacity;
+
+
+    /** The number of rows stored in the column arrays. */
+    private int numRows;
+
+
+    /**
+     * The row indexes of the rows that are part of the batch, or
+     * <tt>null</tt> if every row is part of the batch.
+     */
+    private int[] selection;
+
+
+    /** The number of rows that are part of the batch. */
+    private int numSelected;
+
+
+    /**
+     * Creates an empty batch that can hold the specified number of rows.
+     *
+     * @param numColumns the number of columns in each row
+     * @param capacity the maximum number of rows in the batch
+     */
+    public TupleBatch(int numColumns, int capacity) {
+        if (numColumns < 0) {
+            throw new IllegalArgumentException(
+                "numColumns must be nonnegative; got " + numColumns);
+        }
+
+        if (capacity <= 0) {
+            throw new IllegalArgumentException(
+                "capacity must be positive; got " + capacity);
+        }
+
+        columns = new Object[numColumns][capacity];
+        this.capacity = capacity;
+    }
+
+
+    /**
+     * Creates a batch from existing column arrays, which may be shared with
+     * other batches.
+     *
+     * @param columns the values of the batch, indexed first by column, then
+     *        by row
+     *
+     * @param numRows the number of rows stored in the column arrays
+     *
+     * @param selection the row indexes of the rows that are part of the
+     *        batch, or <tt>null</tt> if every row is part of the batch
+     *
+     * @param numSelected the number of rows that are part of the batch; this
+     *        is ignored if <tt>selection</tt> is <tt>null</tt>
+     */
+    public TupleBatch(Object[][] columns, int numRows, int[] selection,
+                      int numSelected) {
+        if (columns == null)
+            throw new IllegalArgumentException("columns cannot be null");
+
+        this.columns = columns;
+        this.capacity = numRows;
+        this.numRows = numRows;
+        this.selection = selection;
+        this.numSelected = (selection != null ? numSelected : numRows);
+    }
+
+
+    /**
+     * Returns the number of columns in each row of the batch.
+     *
+     * @return the number of columns in each row of the batch
+     */
+    public int getNumColumns() {
+        return columns.length;
+    }
+
+
+    /**
+     * Returns the number of rows stored in the column arrays, including rows
+     * that have been filtered out of the batch.
+     *
+     * @return the number of rows stored in the column arrays
+     */
+    public int getNumRows() {
+        return numRows;
+    }
+
+
+    /**
+     * Returns true if no more rows can be added to the batch.
+     *
+     * @return true if no more rows can be added to the batch
+     */
+    public boolean isFull() {
+        return numRows >= capacity;
+    }
+
+
+    /**
+     * Returns the number of rows that are part of the batch.
+     *
+     * @return the number of rows that are part of the batch
+     */
+    public int size() {
+        return numSelected;
+    }
+
+
+    /**
+     * Returns the row index of the row at the specified position in the
+     * batch.
+     *
+     * @param i the position of the row, from 0 to {@link #size} - 1
+     *
+     * @return the row index of the row, for accessing the column arrays
+     */
+    public int getRowIndex(int i) {
+        return selection != null ? selection[i] : i;
+    }
+
+
+    /**
+     * Returns the array of values for the specified column.  The array is
+     * indexed by row index, and may be longer than the number of rows.
+     *
+     * @param colIndex the index of the column
+     *
+     * @return the array of values for the column
+     */
+    public Object[] getColumn(int colIndex) {
+        return columns[colIndex];
+    }
+
+
+    /**
+     * Returns the selection vector of the batch, creating one if every row
+     * is currently selected.  The first {@link #size} elements are the row
+     * indexes of the rows in the batch, in increasing order.  A filter may
+     * remove rows by compacting the array in place and then calling
+     * {@link #setSize}.
+     *
+     * @return the selection vector of the batch
+     */
+    public int[] getSelection() {
+        if (selection == null) {
+            selection = new int[numRows];
+            for (int i = 0; i < numRows; i++)
+                selection[i] = i;
+        }
+        return selection;
+    }
+
+
+    /**
+     * Returns the selection vector of the batch without creating one, for
+     * sharing with another batch over the same rows.
+     *
+     * @return the selection vector of the batch, or <tt>null</tt> if every
+     *         row is selected
+     */
+    public int[] getSelectionIfPresent() {
+        return selection;
+    }
+
+
+    /**
+     * Sets the number of rows that are part of the batch, after the
+     * selection vector returned by {@link #getSelection} has been compacted.
+     *
+     * @param size the number of rows that are part of the batch
+     */
+    public void setSize(int size) {
+        if (size < 0 || size > numRows) {
+            throw new IllegalArgumentException("size must be between 0 and " +
+                numRows + "; got " + size);
+        }
+
+        getSelection();
+        numSelected = size;
+    }
+
+
+    /**
+     * Adds a row to the end of the batch, copying the tuple's values.  The
+     * batch must not be full, and must not have been filtered.
+     *
+     * @param tuple the tuple to add
+     */
+    public void addTuple(Tuple tuple) {
+        if (selection != null)
+            throw new IllegalStateException("Can't add rows to a filtered batch");
+
+        if (isFull())
+            throw new IllegalStateException("Batch is full");
+
+        for (int iCol = 0; iCol < columns.length; iCol++)
+            columns[iCol][numRows] = tuple.getColumnValue(iCol);
+
+        numRows++;
+        numSelected = numRows;
+    }
+
+
+    /**
+     * Adds a row to the end of the batch, copying only the specified columns
+     * of the tuple.  The other columns of the row are left <tt>NULL</tt>, so
+     * this is only useful when nothing will read them; it allows scans to
+     * skip decoding values that a query doesn't use.  The batch must not be
+     * full, and must not have been filtered.
+     *
+     * @param tuple the tuple to add
+     *
+     * @param colIndexes the indexes of the columns to copy
+     */
+    public void addTuple(Tuple tuple, int[] colIndexes) {
+        if (selection != null)
+            throw new IllegalStateException("Can't add rows to a filtered batch");
+
+        if (isFull())
+            throw new IllegalStateException("Batch is full");
+
+        for (int iCol : colIndexes)
+            columns[iCol][numRows] = tuple.getColumnValue(iCol);
+
+        numRows++;
+        numSelected = numRows;
+    }
+
+
+    /**
+     * Returns a new tuple holding the values of the row at the specified
+     * position in the batch.
+     *
+     * @param i the position of the row, from 0 to {@link #size} - 1
+     *
+     * @return a tuple holding the values of the row
+     */
+    public TupleLiteral getTuple(int i) {
+        int row = getRowIndex(i);
+
+        Object[] values = new Object[columns.length];
+        for (int iCol = 0; iCol < columns.length; iCol++)
+            values[iCol] = columns[iCol][row];
+
+        return new TupleLiteral(values);
+    }
+
+
+    /**
+     * Returns a new row view over this batch.
+     *
+     * @return a new row view over this batch
+     */
+    public RowView newRowView() {
+        return new RowView();
+    }
+}
@@ -3,8 +3,6 @@ package edu.caltech.nanodb.server;
 
 import java.io.EOFException;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.PrintStream;
 import java.io.StringReader;
 
@@ -16,8 +14,12 @@ import edu.caltech.nanodb.client.SessionState;
 import org.apache.log4j.Logger;
 
 import edu.caltech.nanodb.commands.Command;
+import edu.caltech.nanodb.commands.ExecuteCommand;
 import edu.caltech.nanodb.commands.ExitCommand;
+import edu.caltech.nanodb.commands.FetchCommand;
 import edu.caltech.nanodb.commands.SelectCommand;
+import edu.caltech.nanodb.server.protocol.MessageChannel;
+import edu.caltech.nanodb.server.protocol.WireProtocol;
 
 import edu.caltech.nanodb.sqlparse.NanoSqlLexer;
 import edu.caltech.nanodb.sqlparse.NanoSqlParser;
@@ -41,10 +43,11 @@ public class ClientHandler implements Runnable {
     private Socket sock;
 
 
-    private ObjectInputStream objectInput;
-
-
-    private ObjectOutputStream objectOutput;
+    /**
+     * The channel for exchanging messages with the client, in the protocol
+     * negotiated when the client connected.
+     */
+    private MessageChannel channel;
 
 
     private ForwardingOutputStream commandOutput;
@@ -56,6 +59,10 @@ public class ClientHandler implements Runnable {
     private TupleSender tupleSender;
 
 
+    /** The client's session, which is used for all of its commands. */
+    private SessionState session;
+
+
     /**
      * Initialize a new client handler with the specified ID and socket.
      *
@@ -75,89 +82,200 @@ public class ClientHandler implements Runnable {
     }
 
 
+    /**
+     * Returns the socket this client-handler uses to interact with its
+     * client.
+     *
+     * @return the socket connected to the client
+     */
+    public Socket getSocket() {
+        return sock;
+    }
+
+
+    /**
+     * Returns true if the connection with the client has been set up by
+     * {@link #open}.
+     *
+     * @return true if the connection has been set up
+     */
+    public boolean isOpen() {
+        return channel != null;
+    }
+
+
+    /**
+     * Sets up the connection with the client, by negotiating the protocol
+     * and creating the client's session.  The calling thread doesn't need to
+     * be the one that handles the client's commands.
+     *
+     * @throws IOException if communication with the client can't be
+     *         established
+     */
+    public void open() throws IOException {
+        // Communicate over the socket using the binary protocol if the
+        // client supports it, or Java serialization if not.
+        channel = WireProtocol.acceptConnection(sock);
+        logger.info(String.format("Client %d is using the %s protocol.",
+            id, channel.isBinary() ? "binary" : "serialization"));
+
+        // This tuple-processor is used to send tuples back to the client
+        // over the channel that uses the socket.
+        tupleSender = new TupleSender(channel);
+
+        // Also, set up a PrintStream that queues up text written by
+        // the currently executing command, and when the PrintStream
+        // is flushed, forward the string text over the same channel.
+        commandOutput = new ForwardingOutputStream(channel);
+        printOutput = new PrintStream(commandOutput);
+
+        // The client gets its own session, rather than the session of the
+        // thread that happens to be opening the connection.
+        SessionState.remove();
+        session = SessionState.get();
+        session.setOutputStream(printOutput);
+        SessionState.remove();
+    }
+
+
     /**
      * This is the main loop that handles the commands from the client.
      */
     @Override
     public void run() {
         try {
-            // Communicate over the socket using Java serialization, since
-            // it's much easier than implementing our own write protocol.
-            objectOutput = new ObjectOutputStream(sock.getOutputStream());
-            objectInput = new ObjectInputStream(sock.getInputStream());
-
-            // This tuple-processor is used to send tuples back to the client
-            // over the ObjectOutputStream that uses the socket.
-            tupleSender = new TupleSender(objectOutput);
-
-            // Also, set up a PrintStream that queues up text written by
-            // the currently executing command, and when the PrintStream
-            // is flushed, forward the string text over the same
-            // ObjectOutputStream that wraps the socket.
-            commandOutput = new ForwardingOutputStream(objectOutput);
-            printOutput = new PrintStream(commandOutput);
-            SessionState.get().setOutputStream(printOutput);
-
-            while (true) {
-                // Receive a command from the client and execute it.
-
-                String commandText;
-                Command cmd;
-                try {
-                    commandText = (String) objectInput.readObject();
-                    StringReader sReader = new StringReader(commandText);
-                    NanoSqlLexer lexer = new NanoSqlLexer(sReader);
-                    NanoSqlParser parser = new NanoSqlParser(lexer);
-
-                    cmd = parser.command_semicolon();
-                }
-                catch (EOFException e) {
-                    logger.info(String.format("Client %d disconnected.%n", id));
-                    break;
-                }
-                catch (RecognitionException e) {
-                    System.out.println("Parser error:  " + e.getMessage());
-                    logger.error("Parser error", e);
-
-                    // Send error back to the client.
-                    objectOutput.writeObject(e);
-                    continue;
-                }
-                catch (TokenStreamException e) {
-                    System.out.println("Input stream error:  " + e.getMessage());
-                    logger.error("Input stream error", e);
-
-                    // Send error back to the client.
-                    objectOutput.writeObject(e);
-                    continue;
-                }
-                catch (Exception e) {
-                    // This could be an IOException, a ClassNotFoundException,
-                    // or a ClassCastException.
-                    logger.error(String.format("Error communicating with " +
-                        "client %d!  Disconnecting.%n", id), e);
-                    break;
-                }
-
-                // Try to execute the command, and send the response back to the
-                // client.
-
-                if (cmd instanceof ExitCommand) {
-                    logger.info(String.format("Client %d is exiting.", id));
-                    break;
-                }
-
-                commandOutput.reset();  // (just in case)
-                doCommand(cmd);
-                objectOutput.writeObject(commandOutput.toString());
-                objectOutput.writeObject(CommandState.COMMAND_COMPLETED);
-                commandOutput.reset();
-            }
+            open();
+            while (handleCommand());
         }
         catch (IOException e) {
             logger.error(String.format(
                 "Couldn't establish communication with client %d!%n", id), e);
         }
+        finally {
+            close();
+        }
+    }
+
+
+    /**
+     * Receives a command from the client and executes it, waiting for the
+     * command if necessary.  The command is run in the client's session, on
+     * the calling thread.
+     *
+     * @return true if the client may send more commands, or false if the
+     *         client has exited or disconnected
+     *
+     * @throws IOException if a response can't be sent to the client
+     */
+    public boolean handleCommand() throws IOException {
+        if (!isOpen())
+            throw new IllegalStateException("Client connection isn't open");
+
+        SessionState.set(session);
+        try {
+            // Receive a command from the client and execute it.
+
+            String commandText;
+            Command cmd;
+            try {
+                commandText = (String) channel.receive();
+                StringReader sReader = new StringReader(commandText);
+                NanoSqlLexer lexer = new NanoSqlLexer(sReader);
+                NanoSqlParser parser = new NanoSqlParser(lexer);
+
+                cmd = parser.command_semicolon();
+            }
+            catch (EOFException e) {
+                logger.info(String.format("Client %d disconnected.%n", id));
+                return false;
+            }
+            catch (RecognitionException e) {
+                System.out.println("Parser error:  " + e.getMessage());
+                logger.error("Parser error", e);
+
+                // Send error back to the client.
+                channel.send(e);
+                channel.flush();
+                return true;
+            }
+            catch (TokenStreamException e) {
+                System.out.println("Input stream error:  " + e.getMessage());
+                logger.error("Input stream error", e);
+
+                // Send error back to the client.
+                channel.send(e);
+                channel.flush();
+                return true;
+            }
+            catch (Exception e) {
+                // This could be an IOException or a ClassCastException.
+                logger.error(String.format("Error communicating with " +
+                    "client %d!  Disconnecting.%n", id), e);
+                return false;
+            }
+
+            // Try to execute the command, and send the response back to the
+            // client.
+
+            if (cmd instanceof ExitCommand) {
+                logger.info(String.format("Client %d is exiting.", id));
+                return false;
+            }
+
+            commandOutput.reset();  // (just in case)
+            doCommand(cmd);
+            channel.send(commandOutput.toString());
+            channel.send(CommandState.COMMAND_COMPLETED);
+            channel.flush();
+            commandOutput.reset();
+
+            return true;
+        }
+        finally {
+            SessionState.remove();
+        }
+    }
+
+
+    /**
+     * Returns true if input from the client has already been received and
+     * buffered, so that {@link #handleCommand} can be called again without
+     * waiting for the socket.
+     *
+     * @return true if input from the client is buffered
+     *
+     * @throws IOException if the buffered input can't be checked
+     */
+    public boolean hasBufferedInput() throws IOException {
+        return isOpen() && channel.hasBufferedInput();
+    }
+
+
+    /**
+     * Closes the connection with the client.
+     */
+    public void close() {
+        if (session != null) {
+            // Release the plans of any cursors the client left open.
+            SessionState.set(session);
+            try {
+                session.closeAllCursors();
+            }
+            finally {
+                SessionState.remove();
+            }
+        }
+
+        try {
+            if (channel != null)
+                channel.close();
+            else
+                sock.close();
+        }
+        catch (IOException e) {
+            logger.warn(String.format(
+                "Error closing connection with client %d", id), e);
+        }
     }
 
 
@@ -178,15 +296,26 @@ public class ClientHandler implements Runnable {
             SelectCommand selCmd = (SelectCommand) cmd;
             selCmd.setTupleProcessor(tupleSender);
         }
-
-        try {
-            cmd.execute(server);
+        else if (cmd instanceof ExecuteCommand) {
+            // A prepared SELECT must also send its tuples to the client.
+            ExecuteCommand execCmd = (ExecuteCommand) cmd;
+            execCmd.setTupleProcessor(tupleSender);
         }
-        catch (Exception e) {
-            logger.error("Encountered error during command execution", e);
-            objectOutput.writeObject(e);
+        else if (cmd instanceof FetchCommand) {
+            // Tuples fetched from a cursor are also sent to the client.
+            FetchCommand fetchCmd = (FetchCommand) cmd;
+            fetchCmd.setTupleProcessor(tupleSender);
+        }
+
+        // Execute the command through the server, so that command events are
+        // fired and the command doesn't overlap any background maintenance.
+        CommandResult result = server.doCommand(cmd, false);
+        if (result.failed()) {
+            logger.error("Encountered error during command execution",
+                result.getFailure());
+            channel.send(result.getFailure());
         }
 
-        objectOutput.flush();
+        channel.flush();
     }
 }
@@ -0,0 +1,498 @@
+package edu.caltech.nanodb.server;
+
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+import edu.caltech.nanodb.expressions.TypeCastException;
+import edu.caltech.nanodb.expressions.TypeConverter;
+import edu.caltech.nanodb.server.performance.PerformanceCounters;
+import edu.caltech.nanodb.server.properties.PropertyHandler;
+import edu.caltech.nanodb.server.properties.ReadOnlyPropertyException;
+import edu.caltech.nanodb.server.properties.UnrecognizedPropertyException;
+
+
+/**
+ * <p>
+ * This class is the front end of the shared server.  Rather than dedicating
+ * a thread to each client, a single selector thread waits for new
+ * connections and for commands from all of the connected clients, and a
+ * fixed pool of worker threads runs the commands.  A client only occupies a
+ * worker while one of its commands is being received and executed, so many
+ * idle clients can stay connected without a thread each.
+ * </p>
+ * <p>
+ * When a client's connection becomes readable, it is removed from the
+ * selector and put in blocking mode, and its {@link ClientHandler} is queued
+ * for the workers.  The worker handles the command, along with any further
+ * commands the client has already sent, and then hands the connection back
+ * to the selector thread.  The number of connected clients is limited by the
+ * {@link #PROP_MAX_CONNECTIONS} property; additional connections are closed
+ * as soon as they are accepted.
+ * </p>
+ * <p>
+ * The selector reports these performance counters:
+ * {@link PerformanceCounters#SERVER_CONNECTIONS} is the number of connected
+ * clients, {@link PerformanceCounters#SERVER_CONNECTIONS_REJECTED} counts
+ * the connections refused because of the limit, and
+ * {@link PerformanceCounters#SERVER_QUEUE_DEPTH} is the number of clients
+ * waiting for a worker.
+ * </p>
+ */
+public class ClientSelector implements Runnable {
+    /** A logging object for reporting anything interesting that happens. */
+    private static Logger logger = Logger.getLogger(ClientSelector.class);
+
+
+    /** The property that limits the number of connected clients. */
+    public static final String PROP_MAX_CONNECTIONS =
+        "nanodb.server.maxConnections";
+
+
+    /** The default value of the {@link #PROP_MAX_CONNECTIONS} property. */
+    public static final int DEFAULT_MAX_CONNECTIONS = 100;
+
+
+    /**
+     * The property that specifies the number of worker threads that execute
+     * clients' commands.  It takes effect when the server is started.
+     */
+    public static final String PROP_WORKER_THREADS =
+        "nanodb.server.workerThreads";
+
+
+    public static class SelectorPropertyHandler implements PropertyHandler {
+
+        @Override
+        public Object getPropertyValue(String propertyName)
+                throws UnrecognizedPropertyException {
+
+            if (PROP_MAX_CONNECTIONS.equals(propertyName)) {
+                return getMaxConnections();
+            }
+            else if (PROP_WORKER_THREADS.equals(propertyName)) {
+                return getWorkerThreads();
+            }
+            else {
+                throw new UnrecognizedPropertyException("No property named " +
+                        propertyName);
+            }
+        }
+
+        @Override
+        public void setPropertyValue(String propertyName, Object value)
+                throws UnrecognizedPropertyException, ReadOnlyPropertyException,
+                TypeCastException {
+
+            if (PROP_MAX_CONNECTIONS.equals(propertyName)) {
+                setMaxConnections(TypeConverter.getIntegerValue(value));
+            }
+            else if (PROP_WORKER_THREADS.equals(propertyName)) {
+                setWorkerThreads(TypeConverter.getIntegerValue(value));
+            }
+            else {
+                throw new UnrecognizedPropertyException("No property named " +
+                        propertyName);
+            }
+        }
+    }
+
+
+    /**
+     * Returns the maximum number of clients that may be connected at once.
+     *
+     * @return the current value of the {@link #PROP_MAX_CONNECTIONS} property
+     */
+    public static int getMaxConnections() {
+        return getIntProperty(PROP_MAX_CONNECTIONS, DEFAULT_MAX_CONNECTIONS);
+    }
+
+
+    /**
+     * Sets the maximum number of clients that may be connected at once.
+     * Clients that are already connected are not disconnected if the new
+     * limit is lower.
+     *
+     * @param maxConnections the maximum number of connected clients
+     *
+     * @throws IllegalArgumentException if the value is less than 1
+     */
+    public static void setMaxConnections(int maxConnections) {
+        if (maxConnections < 1) {
+            throw new IllegalArgumentException(
+                "maximum connections must be at least 1, got " + maxConnections);
+        }
+
+        System.setProperty(PROP_MAX_CONNECTIONS,
+            Integer.toString(maxConnections));
+    }
+
+
+    /**
+     * Returns the number of worker threads that execute clients' commands.
+     * The default is the number of processors, but at least 4, since
+     * commands spend some of their time waiting for the disk.
+     *
+     * @return the current value of the {@link #PROP_WORKER_THREADS} property
+     */
+    public static int getWorkerThreads() {
+        return getIntProperty(PROP_WORKER_THREADS,
+            Math.max(4, Runtime.getRuntime().availableProcessors()));
+    }
+
+
+    /**
+     * Sets the number of worker threads that execute clients' commands.
+     * This applies to servers started after it is set.
+     *
+     * @param workerThreads the number of worker threads
+     *
+     * @throws IllegalArgumentException if the value is less than 1
+     */
+    public static void setWorkerThreads(int workerThreads) {
+        if (workerThreads < 1) {
+            throw new IllegalArgumentException(
+                "worker threads must be at least 1, got " + workerThreads);
+        }
+
+        System.setProperty(PROP_WORKER_THREADS, Integer.toString(workerThreads));
+    }
+
+
+    private static int getIntProperty(String propertyName, int defaultValue) {
+        String value = System.getProperty(propertyName);
+        if (value == null)
+            return defaultValue;
+
+        try {
+            return Integer.parseInt(value);
+        }
+        catch (NumberFormatException e) {
+            logger.warn(String.format("Ignoring invalid value \"%s\" for " +
+                "property %s", value, propertyName));
+            return defaultValue;
+        }
+    }
+
+
+    /** The server that executes the clients' commands. */
+    private NanoDBServer server;
+
+
+    /** The channel that accepts connections from clients. */
+    private ServerSocketChannel serverChannel;
+
+
+    /** The selector that waits for connections and for commands. */
+    private Selector selector;
+
+
+    /** The worker threads that execute clients' commands. */
+    private ExecutorService workers;
+
+
+    /** The handlers of all connected clients. */
+    private final Set<ClientHandler> clients = ConcurrentHashMap.newKeySet();
+
+
+    /**
+     * The clients that the workers are done with, which the selector thread
+     * must register with the selector again.
+     */
+    private final ConcurrentLinkedQueue<ClientHandler> idleClients =
+        new ConcurrentLinkedQueue<>();
+
+
+    /** The ID to assign to the next client that connects. */
+    private int nextClientID = 1;
+
+
+    /** This flag is cleared to make the selector thread stop. */
+    private volatile boolean running = true;
+
+
+    /**
+     * Opens the server's socket and starts the worker threads.  Clients are
+     * not accepted until {@link #run} is called.
+     *
+     * @param server the server that executes the clients' commands
+     *
+     * @param port the port to listen on, or 0 for any available port
+     *
+     * @throws IOException if the server's socket can't be opened
+     */
+    public ClientSelector(NanoDBServer server, int port) throws IOException {
+        if (server == null)
+            throw new IllegalArgumentException("server cannot be null");
+
+        this.server = server;
+
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port));
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+
+        int numWorkers = getWorkerThreads();
+        AtomicInteger workerID = new AtomicInteger(1);
+        workers = Executors.newFixedThreadPool(numWorkers, r -> {
+            Thread t = new Thread(r,
+                "nanodb-client-worker-" + workerID.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        });
+
+        logger.info(String.format("Listening on port %d with %d worker " +
+            "threads.", getPort(), numWorkers));
+    }
+
+
+    /**
+     * Returns the port the server is listening on.
+     *
+     * @return the port the server is listening on
+     */
+    public int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+
+    /**
+     * Returns the number of clients that are currently connected.
+     *
+     * @return the number of clients that are currently connected
+     */
+    public int getNumClients() {
+        return clients.size();
+    }
+
+
+    /**
+     * This is the selector thread's loop, which accepts new clients and
+     * dispatches the clients that have sent commands to the workers, until
+     * {@link #shutdown} is called.
+     */
+    @Override
+    public void run() {
+        try {
+            while (running) {
+                // Keys may already be selected if the previous iteration
+                // deregistered some channels.
+                if (selector.selectedKeys().isEmpty())
+                    selector.select();
+
+                registerIdleClients();
+
+                ArrayList<ClientHandler> readyClients = new ArrayList<>();
+                Iterator<SelectionKey> iter = selector.selectedKeys().iterator();
+                while (iter.hasNext()) {
+                    SelectionKey key = iter.next();
+                    iter.remove();
+
+                    if (!key.isValid())
+                        continue;
+
+                    if (key.isAcceptable()) {
+                        acceptClients();
+                    }
+                    else if (key.isReadable()) {
+                        key.cancel();
+                        readyClients.add((ClientHandler) key.attachment());
+                    }
+                }
+
+                if (!readyClients.isEmpty()) {
+                    // A channel can't be put in blocking mode until its
+                    // cancelled key is removed by the next selection.
+                    selector.selectNow();
+
+                    for (ClientHandler client : readyClients)
+                        dispatchClient(client);
+                }
+            }
+        }
+        catch (ClosedSelectorException e) {
+            // The server was shut down.
+        }
+        catch (IOException e) {
+            logger.error("Client selector failed", e);
+        }
+        finally {
+            closeAll();
+        }
+    }
+
+
+    /** Accepts all pending connections from clients. */
+    private void acceptClients() throws IOException {
+        while (true) {
+            SocketChannel channel = serverChannel.accept();
+            if (channel == null)
+                break;
+
+            if (clients.size() >= getMaxConnections()) {
+                PerformanceCounters.inc(
+                    PerformanceCounters.SERVER_CONNECTIONS_REJECTED);
+                logger.warn(String.format("Rejecting connection from %s; " +
+                    "%d clients are already connected.",
+                    channel.getRemoteAddress(), clients.size()));
+                channel.close();
+                continue;
+            }
+
+            channel.configureBlocking(false);
+            ClientHandler client =
+                new ClientHandler(server, nextClientID, channel.socket());
+            logger.info(String.format("Client %d connected from %s.",
+                nextClientID, channel.getRemoteAddress()));
+            nextClientID++;
+
+            clients.add(client);
+            PerformanceCounters.inc(PerformanceCounters.SERVER_CONNECTIONS);
+
+            channel.register(selector, SelectionKey.OP_READ, client);
+        }
+    }
+
+
+    /** Queues a client that has sent a command for the workers. */
+    private void dispatchClient(ClientHandler client) {
+        PerformanceCounters.inc(PerformanceCounters.SERVER_QUEUE_DEPTH);
+        try {
+            workers.execute(() -> serviceClient(client));
+        }
+        catch (RejectedExecutionException e) {
+            // The server is being shut down.
+            PerformanceCounters.dec(PerformanceCounters.SERVER_QUEUE_DEPTH);
+            closeClient(client);
+        }
+    }
+
+
+    /**
+     * Registers the clients that the workers are done with, so that the
+     * selector will report their next commands.
+     */
+    private void registerIdleClients() {
+        ClientHandler client;
+        while ((client = idleClients.poll()) != null) {
+            try {
+                client.getSocket().getChannel().register(selector,
+                    SelectionKey.OP_READ, client);
+            }
+            catch (ClosedChannelException e) {
+                closeClient(client);
+            }
+        }
+    }
+
+
+    /**
+     * Runs on a worker thread to handle the commands a client has sent.
+     * The client is then handed back to the selector thread, unless it has
+     * exited or its connection has failed.
+     */
+    private void serviceClient(ClientHandler client) {
+        PerformanceCounters.dec(PerformanceCounters.SERVER_QUEUE_DEPTH);
+
+        SocketChannel channel = client.getSocket().getChannel();
+        boolean keepOpen = false;
+        try {
+            channel.configureBlocking(true);
+
+            if (!client.isOpen()) {
+                client.open();
+                keepOpen = true;
+            }
+            else {
+                keepOpen = client.handleCommand();
+            }
+
+            // The selector can't see input that has already been buffered,
+            // so handle it here.
+            while (keepOpen && client.hasBufferedInput())
+                keepOpen = client.handleCommand();
+
+            if (keepOpen) {
+                channel.configureBlocking(false);
+                idleClients.add(client);
+                selector.wakeup();
+            }
+        }
+        catch (IOException e) {
+            logger.error("Error communicating with client; disconnecting.", e);
+            keepOpen = false;
+        }
+        catch (ClosedSelectorException e) {
+            // The server was shut down.
+            keepOpen = false;
+        }
+        finally {
+            if (!keepOpen)
+                closeClient(client);
+        }
+    }
+
+
+    /** Closes a client's connection, if it hasn't been closed yet. */
+    private void closeClient(ClientHandler client) {
+        if (clients.remove(client)) {
+            client.close();
+            PerformanceCounters.dec(PerformanceCounters.SERVER_CONNECTIONS);
+        }
+    }
+
+
+    /** Closes the server's socket and all clients' connections. */
+    private void closeAll() {
+        try {
+            serverChannel.close();
+            selector.close();
+        }
+        catch (IOException e) {
+            logger.warn("Error closing the server's socket", e);
+        }
+
+        for (ClientHandler client : clients)
+            closeClient(client);
+    }
+
+
+    /**
+     * Stops accepting clients, disconnects the connected clients, and waits
+     * briefly for the commands that are being executed to complete.
+     */
+    public void shutdown() {
+        running = false;
+        selector.wakeup();
+
+        workers.shutdown();
+        try {
+            if (!workers.awaitTermination(30, TimeUnit.SECONDS))
+                logger.warn("Client commands did not finish in time.");
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        closeAll();
+    }
+}
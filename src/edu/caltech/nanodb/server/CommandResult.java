@@ -1,6 +1,8 @@
 package edu.caltech.nanodb.server;
 
 
+import edu.caltech.nanodb.commands.ExecuteCommand;
+import edu.caltech.nanodb.commands.FetchCommand;
 import edu.caltech.nanodb.commands.SelectCommand;
 import edu.caltech.nanodb.expressions.TupleLiteral;
 import edu.caltech.nanodb.queryeval.TupleProcessor;
@@ -91,6 +93,30 @@ public class CommandResult implements Serializable {
     }
 
 
+    /**
+     * Collects the results of an <tt>EXECUTE</tt> command.  If the prepared
+     * statement is not a <tt>SELECT</tt> then no tuples are produced.
+     *
+     * @param command the <tt>EXECUTE</tt> command to collect results from
+     */
+    public void collectSelectResults(ExecuteCommand command) {
+        tuples = new ArrayList<TupleLiteral>();
+        command.setTupleProcessor(new ResultCollector());
+    }
+
+
+    /**
+     * Collects the tuples fetched by a <tt>FETCH</tt> command.  Only the
+     * fetched tuples are kept, not the rest of the cursor's results.
+     *
+     * @param command the <tt>FETCH</tt> command to collect results from
+     */
+    public void collectSelectResults(FetchCommand command) {
+        tuples = new ArrayList<TupleLiteral>();
+        command.setTupleProcessor(new ResultCollector());
+    }
+
+
     public void recordFailure(Exception e) {
         if (e == null)
             throw new IllegalArgumentException("t cannot be null");
@@ -8,6 +8,7 @@ import edu.caltech.nanodb.relations.Tuple;
 import org.apache.log4j.Logger;
 
 import java.util.ArrayList;
+import java.util.List;
 
 
 /**
@@ -118,6 +119,46 @@ public class EventDispatcher {
     }
 
 
+    public void fireBeforeRowsInserted(TableInfo tblFileInfo,
+                                       List<? extends Tuple> newValues) {
+        logger.debug("Firing beforeRowsInserted for " + newValues.size() +
+            " rows");
+        for (RowEventListener rel : rowEventListeners) {
+            try {
+                rel.beforeRowsInserted(tblFileInfo, newValues);
+            }
+            catch (EventDispatchException e) {
+                // Throw EventDispatchExceptions as-is.
+                throw e;
+            }
+            catch (Exception e) {
+                // Everything else, we wrap with an EventDispatchException.
+                throw new EventDispatchException(e);
+            }
+        }
+    }
+
+
+    public void fireAfterRowsInserted(TableInfo tblFileInfo,
+                                      List<? extends Tuple> newTuples) {
+        logger.debug("Firing afterRowsInserted for " + newTuples.size() +
+            " rows");
+        for (RowEventListener rel : rowEventListeners) {
+            try {
+                rel.afterRowsInserted(tblFileInfo, newTuples);
+            }
+            catch (EventDispatchException e) {
+                // Throw EventDispatchExceptions as-is.
+                throw e;
+            }
+            catch (Exception e) {
+                // Everything else, we wrap with an EventDispatchException.
+                throw new EventDispatchException(e);
+            }
+        }
+    }
+
+
     public void fireBeforeRowUpdated(TableInfo tblFileInfo, Tuple oldTuple,
                                      Tuple newValues) {
         logger.debug("Firing beforeRowUpdated");
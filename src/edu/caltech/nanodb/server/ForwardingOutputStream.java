@@ -2,7 +2,8 @@ package edu.caltech.nanodb.server;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.ObjectOutputStream;
+
+import edu.caltech.nanodb.server.protocol.MessageChannel;
 
 
 /**
@@ -10,18 +11,18 @@ import java.io.ObjectOutputStream;
  */
 public class ForwardingOutputStream extends ByteArrayOutputStream {
 
-    private ObjectOutputStream objectOutput;
+    private MessageChannel channel;
 
 
-    public ForwardingOutputStream(ObjectOutputStream objectOutput) {
-        this.objectOutput = objectOutput;
+    public ForwardingOutputStream(MessageChannel channel) {
+        this.channel = channel;
     }
 
 
     public void flush() throws IOException {
         String contents = toString();
-        objectOutput.writeObject(contents);
-        objectOutput.flush();
+        channel.send(contents);
+        channel.flush();
         reset();
     }
 }
@@ -5,15 +5,23 @@ import java.io.IOException;
 import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
+import edu.caltech.nanodb.expressions.ExpressionCompiler;
+import edu.caltech.nanodb.plannodes.Parallelizer;
+import edu.caltech.nanodb.queryeval.CostBasedJoinPlanner;
+import edu.caltech.nanodb.queryeval.PlanCache;
 import edu.caltech.nanodb.queryeval.PlannerFactory;
 import edu.caltech.nanodb.server.properties.PropertyRegistry;
+import edu.caltech.nanodb.server.protocol.WireProtocol;
 import org.apache.log4j.Logger;
 
 import antlr.RecognitionException;
 import antlr.TokenStreamException;
 
 import edu.caltech.nanodb.commands.Command;
+import edu.caltech.nanodb.commands.ExecuteCommand;
+import edu.caltech.nanodb.commands.FetchCommand;
 import edu.caltech.nanodb.commands.SelectCommand;
 import edu.caltech.nanodb.sqlparse.NanoSqlLexer;
 import edu.caltech.nanodb.sqlparse.NanoSqlParser;
@@ -46,6 +54,18 @@ public class NanoDBServer {
     private StorageManager storageManager;
 
 
+    /** The cache of query plans for this database server. */
+    private PlanCache planCache;
+
+
+    /**
+     * This lock is held in shared mode while each command executes.
+     * Background maintenance tasks acquire it in exclusive mode, so that
+     * they never run at the same time as a client's command.
+     */
+    private ReentrantReadWriteLock commandLock = new ReentrantReadWriteLock();
+
+
     /**
      * This static method encapsulates all of the operations necessary for
      * cleanly starting the NanoDB server.
@@ -72,6 +92,34 @@ public class NanoDBServer {
         propertyRegistry.registerProperties(
             new PlannerFactory.PlannerFactoryPropertyHandler(),
             PlannerFactory.PROP_PLANNER_CLASS);
+
+        propertyRegistry.registerProperties(
+            new CostBasedJoinPlanner.JoinPlannerPropertyHandler(),
+            CostBasedJoinPlanner.PROP_GREEDY_THRESHOLD);
+
+        propertyRegistry.registerProperties(
+            new ExpressionCompiler.CompilerPropertyHandler(),
+            ExpressionCompiler.PROP_COMPILE_EXPRESSIONS);
+
+        propertyRegistry.registerProperties(
+            new Parallelizer.ParallelPropertyHandler(),
+            Parallelizer.PROP_MAX_WORKERS,
+            Parallelizer.PROP_MIN_PAGES_PER_WORKER);
+
+        propertyRegistry.registerProperties(
+            new WireProtocol.ProtocolPropertyHandler(),
+            WireProtocol.PROP_BATCH_SIZE);
+
+        propertyRegistry.registerProperties(
+            new ClientSelector.SelectorPropertyHandler(),
+            ClientSelector.PROP_MAX_CONNECTIONS,
+            ClientSelector.PROP_WORKER_THREADS);
+
+        // The plan cache must be told about DDL commands and ANALYZE, since
+        // they make cached plans invalid.
+
+        planCache = new PlanCache(this);
+        eventDispatcher.addCommandEventListener(planCache);
     }
 
 
@@ -90,6 +138,25 @@ public class NanoDBServer {
     }
 
 
+    public PlanCache getPlanCache() {
+        return planCache;
+    }
+
+
+    /**
+     * Returns the lock that serializes background maintenance tasks against
+     * command execution.  Commands run under the read lock; a task that must
+     * not overlap any command should hold the write lock.  The write lock's
+     * holder may still execute commands with {@link #doCommand}, since the
+     * lock is reentrant.
+     *
+     * @return the command lock for this database server
+     */
+    public ReentrantReadWriteLock getCommandLock() {
+        return commandLock;
+    }
+
+
     public Command parseCommand(String command)
         throws RecognitionException, TokenStreamException {
 
@@ -148,33 +215,43 @@ public class NanoDBServer {
 
         if (includeTuples && command instanceof SelectCommand)
             result.collectSelectResults((SelectCommand) command);
+        else if (includeTuples && command instanceof ExecuteCommand)
+            result.collectSelectResults((ExecuteCommand) command);
+        else if (includeTuples && command instanceof FetchCommand)
+            result.collectSelectResults((FetchCommand) command);
 
-        result.startExecution();
+        commandLock.readLock().lock();
         try {
-            // Execute the command, but fire before- and after-command handlers
-            // when we execute it.
-
-            eventDispatcher.fireBeforeCommandExecuted(command);
-            command.execute(this);
-            eventDispatcher.fireAfterCommandExecuted(command);
-        }
-        catch (Exception e) {
-            logger.error("Command threw an exception!", e);
-            result.recordFailure(e);
-        }
-        result.endExecution();
-
-        // Post-command cleanup:
-        storageManager.getBufferManager().unpinAllSessionPages();
-
-        // TODO:  Make this controllable via a property
-        if (FLUSH_DATA_AFTER_CMD) {
+            result.startExecution();
             try {
-                storageManager.flushAllData();
-            } catch (IOException e) {
-                logger.error("Post-command flush of all data threw an exception!",
-                    e);
+                // Execute the command, but fire before- and after-command
+                // handlers when we execute it.
+
+                eventDispatcher.fireBeforeCommandExecuted(command);
+                command.execute(this);
+                eventDispatcher.fireAfterCommandExecuted(command);
+            }
+            catch (Exception e) {
+                logger.error("Command threw an exception!", e);
+                result.recordFailure(e);
             }
+            result.endExecution();
+
+            // Post-command cleanup:
+            storageManager.getBufferManager().unpinAllSessionPages();
+
+            // TODO:  Make this controllable via a property
+            if (FLUSH_DATA_AFTER_CMD) {
+                try {
+                    storageManager.flushAllData();
+                } catch (IOException e) {
+                    logger.error("Post-command flush of all data threw an " +
+                        "exception!", e);
+                }
+            }
+        }
+        finally {
+            commandLock.readLock().unlock();
         }
 
         return result;
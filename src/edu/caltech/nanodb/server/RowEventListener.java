@@ -1,6 +1,8 @@
 package edu.caltech.nanodb.server;
 
 
+import java.util.List;
+
 import edu.caltech.nanodb.relations.TableInfo;
 import edu.caltech.nanodb.relations.Tuple;
 
@@ -26,6 +28,13 @@ import edu.caltech.nanodb.relations.Tuple;
  * {@code oldValues} or {@code newValues} are not in the referenced table, but
  * {@code oldTuple} or {@code newTuple} are in the referenced table.
  * </p>
+ * <p>
+ * Commands that insert many rows at once report them in batches, through
+ * {@link #beforeRowsInserted} and {@link #afterRowsInserted}.  By default
+ * these simply invoke the single-row methods for each row, but listeners
+ * can override them to do expensive work, such as opening indexes, only
+ * once per batch.
+ * </p>
  * 
  * @design (donnie) We have separate insert/update/delete methods on the
  *         listener interface, because when these events are fired we know
@@ -56,6 +65,42 @@ public interface RowEventListener {
         throws Exception;
 
 
+    /**
+     * Perform processing before a batch of rows is inserted into a table.
+     * None of the rows are in the table yet.  The default implementation
+     * calls {@link #beforeRowInserted} for each row.
+     *
+     * @param tblFileInfo the table that the tuples will be inserted into.
+     *
+     * @param newValues the new values that will be inserted into the table.
+     */
+    default void beforeRowsInserted(TableInfo tblFileInfo,
+                                    List<? extends Tuple> newValues)
+        throws Exception {
+
+        for (Tuple values : newValues)
+            beforeRowInserted(tblFileInfo, values);
+    }
+
+
+    /**
+     * Perform processing after a batch of rows is inserted into a table.
+     * The default implementation calls {@link #afterRowInserted} for each
+     * row.
+     *
+     * @param tblFileInfo the table that the tuples were inserted into.
+     *
+     * @param newTuples the new tuples that were inserted into the table.
+     */
+    default void afterRowsInserted(TableInfo tblFileInfo,
+                                   List<? extends Tuple> newTuples)
+        throws Exception {
+
+        for (Tuple tuple : newTuples)
+            afterRowInserted(tblFileInfo, tuple);
+    }
+
+
     /**
      * Perform processing before a row is updated in a table.
      *
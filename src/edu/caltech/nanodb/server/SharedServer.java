@@ -2,9 +2,6 @@ package edu.caltech.nanodb.server;
 
 
 import java.io.IOException;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.util.HashMap;
 
 import org.apache.log4j.Logger;
 
@@ -34,11 +31,8 @@ public class SharedServer {
     private NanoDBServer server = null;
 
 
-    /**
-     * A mapping from client ID to the thread handling the client.  This is
-     * declared final since we synchronize on it.
-     */
-    private final HashMap<Integer, Thread> clientThreads = new HashMap<>();
+    /** The front end that accepts clients and dispatches their commands. */
+    private ClientSelector clientSelector = null;
 
 
     public void startup() throws IOException {
@@ -55,36 +49,17 @@ public class SharedServer {
             public void run() { shutdown(); }
         } ));
 
-        // Start up the server-socket that we receive incoming connections on.
-        ServerSocket serverSocket = new ServerSocket(serverPort);
-        logger.info("Listening on socket " + serverPort + ".");
-
-        // Wait for a client to connect.  When one does, spin off a thread to
-        // handle requests from that client.
-        int clientID = 1;
-        while (true) {
-            logger.info("Waiting for client connection.");
-            Socket sock = serverSocket.accept();
-            logger.info("Received client connection.");
-            ClientHandler clientHandler =
-                new ClientHandler(server, clientID, sock);
-            Thread t = new Thread(clientHandler);
-
-            // Record the thread so that when the server is being shut down,
-            // we can stop all the client threads.
-            synchronized (clientThreads) {
-                clientThreads.put(clientID, t);
-            }
-
-            t.start();
-        }
+        // Start up the front end that we receive incoming connections on,
+        // and run it on this thread.  Clients' commands are executed by its
+        // pool of worker threads.
+        clientSelector = new ClientSelector(server, serverPort);
+        clientSelector.run();
     }
 
 
     public void shutdown() {
-        for (Thread t : clientThreads.values()) {
-            // TODO:  Shut down the client thread.
-        }
+        if (clientSelector != null)
+            clientSelector.shutdown();
 
         server.shutdown();
     }
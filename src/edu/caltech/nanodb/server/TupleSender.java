@@ -2,29 +2,29 @@ package edu.caltech.nanodb.server;
 
 
 import java.io.IOException;
-import java.io.ObjectOutputStream;
 
-import edu.caltech.nanodb.expressions.TupleLiteral;
 import edu.caltech.nanodb.queryeval.TupleProcessor;
 import edu.caltech.nanodb.relations.Schema;
 import edu.caltech.nanodb.relations.Tuple;
+import edu.caltech.nanodb.server.protocol.MessageChannel;
 
 
 /**
  * This implementation of the tuple-processor interface sends the schema and
- * tuples produced by the <tt>SELECT</tt> statement over an
- * {@link ObjectOutputStream}.
+ * tuples produced by the <tt>SELECT</tt> statement over a
+ * {@link MessageChannel}, which encodes them in the protocol negotiated with
+ * the client.
  */
 public class TupleSender implements TupleProcessor {
 
-    private ObjectOutputStream objectOutput;
+    private MessageChannel channel;
 
 
-    public TupleSender(ObjectOutputStream objectOutput) {
-        if (objectOutput == null)
-            throw new IllegalArgumentException("objectOutput cannot be null");
+    public TupleSender(MessageChannel channel) {
+        if (channel == null)
+            throw new IllegalArgumentException("channel cannot be null");
 
-        this.objectOutput = objectOutput;
+        this.channel = channel;
     }
 
 
@@ -34,23 +34,19 @@ public class TupleSender implements TupleProcessor {
         if (!schema.getClass().equals(Schema.class))
             schema = new Schema(schema);
 
-        objectOutput.writeObject(schema);
+        channel.send(schema);
     }
 
 
     public void process(Tuple tuple) throws IOException {
-        TupleLiteral tupLit;
-
-        if (!(tuple instanceof TupleLiteral))
-            tupLit = new TupleLiteral(tuple);
-        else
-            tupLit = (TupleLiteral) tuple;
-
-        objectOutput.writeObject(tupLit);
+        // The channel copies or encodes the tuple before it is sent, so
+        // tuples that refer to pages don't need to be copied here.
+        channel.send(tuple);
     }
 
 
     public void finish() {
-        // Not used
+        // The last batch of tuples is sent when the client handler flushes
+        // the channel after the command.
     }
 }
@@ -48,6 +48,67 @@ public class PerformanceCounters {
     public static final String STORAGE_BYTES_WRITTEN = "storage.bytesWritten";
 
 
+    /** The number of bytes of pages that were compressed to be saved. */
+    public static final String STORAGE_COMPRESSION_BYTES_IN =
+        "storage.compressionBytesIn";
+
+
+    /**
+     * The number of bytes that compressed pages were saved as; the
+     * compression ratio is the number of bytes in over the number of bytes
+     * out.
+     */
+    public static final String STORAGE_COMPRESSION_BYTES_OUT =
+        "storage.compressionBytesOut";
+
+
+    /**
+     * The number of pages that the buffer manager restored from compressed
+     * frames instead of reading them from disk.
+     */
+    public static final String STORAGE_COMPRESSED_FRAME_HITS =
+        "storage.compressedFrameHits";
+
+
+    public static final String PLAN_CACHE_HITS = "plancache.hits";
+
+
+    public static final String PLAN_CACHE_MISSES = "plancache.misses";
+
+
+    public static final String PLAN_CACHE_INVALIDATIONS = "plancache.invalidations";
+
+
+    /** The number of row groups of columnar files that scans read. */
+    public static final String COLUMNAR_ROW_GROUPS_READ =
+        "columnar.rowGroupsRead";
+
+
+    /**
+     * The number of row groups of columnar files that scans skipped, since
+     * their chunks' minimum and maximum values ruled out the predicate.
+     */
+    public static final String COLUMNAR_ROW_GROUPS_SKIPPED =
+        "columnar.rowGroupsSkipped";
+
+
+    /** The number of workers started to run parts of queries in parallel. */
+    public static final String PARALLEL_WORKERS = "parallel.workers";
+
+
+    /** The number of clients connected to the shared server. */
+    public static final String SERVER_CONNECTIONS = "server.connections";
+
+
+    /** The number of connections refused because too many were open. */
+    public static final String SERVER_CONNECTIONS_REJECTED =
+        "server.connectionsRejected";
+
+
+    /** The number of clients with commands waiting for a worker thread. */
+    public static final String SERVER_QUEUE_DEPTH = "server.queueDepth";
+
+
     private static ConcurrentHashMap<String, AtomicLong> counters =
         new ConcurrentHashMap<>();
 
@@ -0,0 +1,298 @@
+package edu.caltech.nanodb.server.protocol;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.net.Socket;
+import java.util.ArrayDeque;
+
+import org.apache.log4j.Logger;
+
+import edu.caltech.nanodb.expressions.TupleLiteral;
+import edu.caltech.nanodb.relations.Schema;
+import edu.caltech.nanodb.relations.Tuple;
+import edu.caltech.nanodb.server.CommandState;
+
+
+/**
+ * <p>
+ * This message channel sends messages in NanoDB's binary protocol.  Each
+ * message is a one-byte message type, followed by the length of the
+ * message's body and the body itself.  The tuples of a query's results are
+ * not sent one by one; they are encoded by {@link TupleCodec} with the most
+ * recently sent schema, and collected into batches of up to
+ * {@link WireProtocol#getBatchSize} tuples, each of which is sent as one
+ * message.  A batch is also sent when it reaches
+ * {@link WireProtocol#MAX_BATCH_BYTES} bytes, when any other message is
+ * sent, or when the channel is flushed.
+ * </p>
+ * <p>
+ * Received batches are decoded all at once, and their tuples are then
+ * returned one by one from {@link #receive}.
+ * </p>
+ */
+public class BinaryMessageChannel implements MessageChannel {
+    /** A logging object for reporting anything interesting that happens. */
+    private static Logger logger = Logger.getLogger(BinaryMessageChannel.class);
+
+
+    /** The socket the channel communicates over. */
+    private Socket socket;
+
+
+    /** The buffered stream for writing messages to the socket. */
+    private DataOutputStream output;
+
+
+    /** The buffered stream for reading messages from the socket. */
+    private DataInputStream input;
+
+
+    /** The maximum number of tuples to send in one batch. */
+    private int batchSize;
+
+
+    /** The schema of the tuples being sent, or <tt>null</tt> if none. */
+    private Schema sendSchema;
+
+
+    /** The encoded tuples of the batch that hasn't been sent yet. */
+    private ByteArrayOutputStream batchBytes = new ByteArrayOutputStream();
+
+
+    /** A stream for encoding tuples into {@link #batchBytes}. */
+    private DataOutputStream batchOutput = new DataOutputStream(batchBytes);
+
+
+    /** The number of tuples in the batch that hasn't been sent yet. */
+    private int batchTuples;
+
+
+    /** The schema of the tuples being received, or <tt>null</tt> if none. */
+    private Schema receiveSchema;
+
+
+    /** The received tuples that haven't been returned yet. */
+    private ArrayDeque<TupleLiteral> receivedTuples = new ArrayDeque<>();
+
+
+    /**
+     * Opens a binary channel over a socket whose protocol has already been
+     * negotiated.
+     *
+     * @param socket the socket the channel communicates over
+     *
+     * @param input the buffered stream for reading from the socket
+     *
+     * @param output the buffered stream for writing to the socket
+     *
+     * @param batchSize the maximum number of tuples to send in one batch
+     */
+    public BinaryMessageChannel(Socket socket, DataInputStream input,
+                                DataOutputStream output, int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException(
+                "batchSize must be at least 1, got " + batchSize);
+        }
+
+        this.socket = socket;
+        this.input = input;
+        this.output = output;
+        this.batchSize = batchSize;
+    }
+
+
+    @Override
+    public void send(Object message) throws IOException {
+        if (message instanceof Tuple) {
+            if (sendSchema == null)
+                throw new IllegalStateException("No schema was sent for tuple");
+
+            TupleCodec.writeTuple(sendSchema, (Tuple) message, batchOutput);
+            batchTuples++;
+
+            if (batchTuples >= batchSize ||
+                batchBytes.size() >= WireProtocol.MAX_BATCH_BYTES) {
+                flush();
+            }
+            return;
+        }
+
+        sendBatch();
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream body = new DataOutputStream(bytes);
+        byte type;
+
+        if (message instanceof String) {
+            type = WireProtocol.MSG_TEXT;
+            TupleCodec.writeString((String) message, body);
+        }
+        else if (message instanceof Schema) {
+            type = WireProtocol.MSG_SCHEMA;
+            sendSchema = (Schema) message;
+            TupleCodec.writeSchema(sendSchema, body);
+        }
+        else if (message instanceof CommandState) {
+            type = WireProtocol.MSG_COMMAND_STATE;
+            body.writeByte(((CommandState) message).ordinal());
+
+            if (message == CommandState.COMMAND_COMPLETED)
+                sendSchema = null;
+        }
+        else if (message instanceof Throwable) {
+            type = WireProtocol.MSG_ERROR;
+            writeError((Throwable) message, body);
+        }
+        else {
+            throw new IllegalArgumentException(
+                "Can't send messages of type " + message.getClass().getName());
+        }
+
+        writeMessage(type, bytes);
+    }
+
+
+    /**
+     * Writes an error, which is serialized so that the receiver gets the
+     * original exception with its stack trace.  If the exception can't be
+     * serialized, an exception with the same message and stack trace is
+     * sent instead.
+     */
+    private void writeError(Throwable t, DataOutputStream body)
+        throws IOException {
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            TupleCodec.writeSerialized(t, new DataOutputStream(bytes));
+        }
+        catch (IOException e) {
+            logger.debug("Couldn't serialize exception, sending a copy", e);
+
+            Exception copy = new Exception(t.toString());
+            copy.setStackTrace(t.getStackTrace());
+
+            bytes.reset();
+            TupleCodec.writeSerialized(copy, new DataOutputStream(bytes));
+        }
+        bytes.writeTo(body);
+    }
+
+
+    /**
+     * Sends the batch of tuples that hasn't been sent yet, if it holds any
+     * tuples.
+     */
+    private void sendBatch() throws IOException {
+        if (batchTuples == 0)
+            return;
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(
+            batchBytes.size() + 5);
+        TupleCodec.writeVarLong(batchTuples, new DataOutputStream(bytes));
+        batchBytes.writeTo(bytes);
+
+        writeMessage(WireProtocol.MSG_TUPLE_BATCH, bytes);
+
+        batchBytes.reset();
+        batchTuples = 0;
+    }
+
+
+    /** Writes a message with a type and a body to the socket's stream. */
+    private void writeMessage(byte type, ByteArrayOutputStream body)
+        throws IOException {
+
+        output.writeByte(type);
+        output.writeInt(body.size());
+        body.writeTo(output);
+    }
+
+
+    @Override
+    public void flush() throws IOException {
+        sendBatch();
+        output.flush();
+    }
+
+
+    @Override
+    public Object receive() throws IOException {
+        if (!receivedTuples.isEmpty())
+            return receivedTuples.removeFirst();
+
+        byte type = input.readByte();
+        int length = input.readInt();
+        if (length < 0)
+            throw new StreamCorruptedException("Invalid message length " + length);
+
+        byte[] bytes = new byte[length];
+        input.readFully(bytes);
+        DataInputStream body =
+            new DataInputStream(new ByteArrayInputStream(bytes));
+
+        switch (type) {
+        case WireProtocol.MSG_TEXT:
+            return TupleCodec.readString(body);
+
+        case WireProtocol.MSG_SCHEMA:
+            receiveSchema = TupleCodec.readSchema(body);
+            return receiveSchema;
+
+        case WireProtocol.MSG_TUPLE_BATCH:
+            if (receiveSchema == null)
+                throw new StreamCorruptedException("Received tuples without a schema");
+
+            long numTuples = TupleCodec.readVarLong(body);
+            if (numTuples < 1)
+                throw new StreamCorruptedException("Received an empty batch");
+
+            for (long i = 0; i < numTuples; i++)
+                receivedTuples.addLast(TupleCodec.readTuple(receiveSchema, body));
+
+            return receivedTuples.removeFirst();
+
+        case WireProtocol.MSG_COMMAND_STATE:
+            int ordinal = body.readUnsignedByte();
+            CommandState[] states = CommandState.values();
+            if (ordinal >= states.length)
+                throw new StreamCorruptedException("Invalid command state " + ordinal);
+
+            if (states[ordinal] == CommandState.COMMAND_COMPLETED)
+                receiveSchema = null;
+
+            return states[ordinal];
+
+        case WireProtocol.MSG_ERROR:
+            return TupleCodec.readSerialized(body);
+
+        default:
+            throw new StreamCorruptedException("Invalid message type " + type);
+        }
+    }
+
+
+    @Override
+    public boolean hasBufferedInput() throws IOException {
+        return !receivedTuples.isEmpty() || input.available() > 0;
+    }
+
+
+    @Override
+    public boolean isBinary() {
+        return true;
+    }
+
+
+    @Override
+    public void close() throws IOException {
+        // Close the output first, since it must be flushed to the socket.
+        output.close();
+        input.close();
+        socket.close();
+    }
+}
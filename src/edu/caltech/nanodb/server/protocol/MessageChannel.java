@@ -0,0 +1,88 @@
+package edu.caltech.nanodb.server.protocol;
+
+
+import java.io.IOException;
+
+
+/**
+ * <p>
+ * This is the interface to a connection between a client and the shared
+ * server, over which the two sides exchange messages.  A message is one of
+ * the following objects:
+ * </p>
+ * <ul>
+ *   <li>a {@link String}, which is a command from the client or text
+ *       output from the server</li>
+ *   <li>a {@link edu.caltech.nanodb.relations.Schema}, which starts the
+ *       results of a query</li>
+ *   <li>a {@link edu.caltech.nanodb.relations.Tuple} in the results of a
+ *       query</li>
+ *   <li>a {@link Throwable} reporting that a command failed</li>
+ *   <li>a {@link edu.caltech.nanodb.server.CommandState}</li>
+ * </ul>
+ * <p>
+ * The way the messages are encoded depends on the protocol negotiated by
+ * {@link WireProtocol} when the connection is opened.  Messages may be
+ * buffered until {@link #flush} is called.
+ * </p>
+ */
+public interface MessageChannel {
+
+    /**
+     * Sends a message.
+     *
+     * @param message the message to send
+     *
+     * @throws IOException if the message can't be sent
+     */
+    void send(Object message) throws IOException;
+
+
+    /**
+     * Sends any buffered messages.
+     *
+     * @throws IOException if the messages can't be sent
+     */
+    void flush() throws IOException;
+
+
+    /**
+     * Receives the next message, waiting for it if necessary.
+     *
+     * @return the message
+     *
+     * @throws java.io.EOFException if the other side closed the connection
+     *
+     * @throws IOException if a message can't be received
+     */
+    Object receive() throws IOException;
+
+
+    /**
+     * Returns true if input has already been received, so that
+     * {@link #receive} can return a message, or at least part of one,
+     * without waiting for the connection.
+     *
+     * @return true if input has already been received
+     *
+     * @throws IOException if the received input can't be checked
+     */
+    boolean hasBufferedInput() throws IOException;
+
+
+    /**
+     * Returns true if this channel uses the binary protocol, or false if it
+     * uses Java serialization.
+     *
+     * @return true if this channel uses the binary protocol
+     */
+    boolean isBinary();
+
+
+    /**
+     * Closes the channel and its connection.
+     *
+     * @throws IOException if the connection can't be closed
+     */
+    void close() throws IOException;
+}
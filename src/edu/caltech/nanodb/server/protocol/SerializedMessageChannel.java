@@ -0,0 +1,116 @@
+package edu.caltech.nanodb.server.protocol;
+
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+
+import edu.caltech.nanodb.expressions.TupleLiteral;
+import edu.caltech.nanodb.relations.Schema;
+import edu.caltech.nanodb.relations.Tuple;
+
+
+/**
+ * This message channel sends each message as a serialized Java object.  It
+ * is the original NanoDB client/server protocol, which is still used to talk
+ * to clients and servers that don't support the binary protocol.
+ */
+public class SerializedMessageChannel implements MessageChannel {
+
+    /** The socket the channel communicates over. */
+    private Socket socket;
+
+
+    private ObjectOutputStream objectOutput;
+
+
+    private ObjectInputStream objectInput;
+
+
+    /** The stream the serialized objects are read from. */
+    private InputStream input;
+
+
+    /**
+     * Opens a channel over a socket.  The output stream is set up first, so
+     * that the serialization stream header is sent before waiting for the
+     * other side's header.
+     *
+     * @param socket the socket the channel communicates over
+     *
+     * @param in the stream to read the socket's input from, which may be
+     *        the socket's input stream or a stream that wraps it
+     *
+     * @param out the stream to write the socket's output to
+     *
+     * @throws IOException if the serialization streams can't be set up
+     */
+    public SerializedMessageChannel(Socket socket, InputStream in,
+                                    OutputStream out) throws IOException {
+        this.socket = socket;
+        this.input = in;
+        objectOutput = new ObjectOutputStream(out);
+        objectOutput.flush();
+        objectInput = new ObjectInputStream(in);
+    }
+
+
+    @Override
+    public void send(Object message) throws IOException {
+        if (message instanceof Schema) {
+            // Send a plain schema, not a subclass such as a table schema.
+            if (!message.getClass().equals(Schema.class))
+                message = new Schema((Schema) message);
+        }
+        else if (message instanceof Tuple) {
+            // Tuples such as page tuples can't be serialized.
+            if (!(message instanceof TupleLiteral))
+                message = new TupleLiteral((Tuple) message);
+        }
+
+        objectOutput.writeObject(message);
+    }
+
+
+    @Override
+    public void flush() throws IOException {
+        objectOutput.flush();
+    }
+
+
+    @Override
+    public Object receive() throws IOException {
+        try {
+            return objectInput.readObject();
+        }
+        catch (ClassNotFoundException e) {
+            throw new IOException("Received an unrecognized object", e);
+        }
+    }
+
+
+    @Override
+    public boolean hasBufferedInput() throws IOException {
+        // The object stream reads ahead only within block data, so check
+        // the underlying stream's buffer too.
+        return objectInput.available() > 0 || input.available() > 0;
+    }
+
+
+    @Override
+    public boolean isBinary() {
+        return false;
+    }
+
+
+    @Override
+    public void close() throws IOException {
+        // Close the output first, since it must be flushed to the socket.
+        objectOutput.close();
+        objectInput.close();
+        socket.close();
+    }
+}
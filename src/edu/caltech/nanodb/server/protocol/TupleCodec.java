@@ -0,0 +1,526 @@
+package edu.caltech.nanodb.server.protocol;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.StreamCorruptedException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+
+import edu.caltech.nanodb.expressions.TupleLiteral;
+import edu.caltech.nanodb.relations.ColumnInfo;
+import edu.caltech.nanodb.relations.ColumnType;
+import edu.caltech.nanodb.relations.SQLDataType;
+import edu.caltech.nanodb.relations.Schema;
+import edu.caltech.nanodb.relations.Tuple;
+import edu.caltech.nanodb.storage.FilePointer;
+
+
+/**
+ * <p>
+ * This class encodes schemas and tuples in the binary wire protocol, and
+ * decodes them again.  Each column's values are written in an encoding
+ * chosen from the column's {@link SQLDataType}:  integers of all sizes are
+ * written as variable-length zig-zag integers, <tt>FLOAT</tt> and
+ * <tt>DOUBLE</tt> values as their IEEE 754 bits, strings as a length and
+ * their UTF-8 bytes, and so forth.  No type information is written for
+ * these values, since the schema gives it.
+ * </p>
+ * <p>
+ * Each tuple starts with a bitmap holding a bit for each column.  A set bit
+ * marks a column whose value is <tt>NULL</tt>, or isn't of the Java class
+ * that the column's type uses (which happens for some computed values);
+ * these values are written with a leading tag byte, which is zero for
+ * <tt>NULL</tt> and otherwise gives the value's encoding.  Values that no
+ * encoding covers are written with Java serialization.
+ * </p>
+ */
+public class TupleCodec {
+
+    /** The tag of a <tt>NULL</tt> value. */
+    private static final byte TAG_NULL = 0;
+
+
+    /** The tag of a {@link Boolean} value, which has no SQL type. */
+    private static final byte TAG_BOOLEAN = 100;
+
+
+    /** The tag of a value written with Java serialization. */
+    private static final byte TAG_OBJECT = 101;
+
+
+    /** This class should not be instantiated. */
+    private TupleCodec() {
+        throw new UnsupportedOperationException();
+    }
+
+
+    /**
+     * Writes a schema's column names and types.
+     *
+     * @param schema the schema to write
+     *
+     * @param out the output to write the schema to
+     *
+     * @throws IOException if the schema can't be written
+     */
+    public static void writeSchema(Schema schema, DataOutput out)
+        throws IOException {
+
+        writeVarLong(schema.numColumns(), out);
+        for (ColumnInfo colInfo : schema.getColumnInfos()) {
+            ColumnType type = colInfo.getType();
+            SQLDataType baseType = type.getBaseType();
+
+            writeString(colInfo.getTableName(), out);
+            writeString(colInfo.getName(), out);
+            out.writeByte(baseType.getTypeID());
+
+            if (type.hasLength()) {
+                writeVarLong(type.getLength(), out);
+            }
+            else if (baseType == SQLDataType.NUMERIC) {
+                writeVarLong(type.getPrecision(), out);
+                writeVarLong(type.getScale(), out);
+            }
+        }
+    }
+
+
+    /**
+     * Reads a schema written by {@link #writeSchema}.
+     *
+     * @param in the input to read the schema from
+     *
+     * @return the schema
+     *
+     * @throws IOException if the schema can't be read
+     */
+    public static Schema readSchema(DataInput in) throws IOException {
+        int numColumns = (int) readVarLong(in);
+
+        Schema schema = new Schema();
+        for (int i = 0; i < numColumns; i++) {
+            String tableName = readString(in);
+            String name = readString(in);
+
+            byte typeID = in.readByte();
+            SQLDataType baseType = SQLDataType.findType(typeID);
+            if (baseType == null) {
+                throw new StreamCorruptedException(
+                    "Unrecognized column type ID " + typeID);
+            }
+
+            ColumnType type = new ColumnType(baseType);
+            if (type.hasLength()) {
+                type.setLength((int) readVarLong(in));
+            }
+            else if (baseType == SQLDataType.NUMERIC) {
+                type.setPrecision((int) readVarLong(in));
+                type.setScale((int) readVarLong(in));
+            }
+
+            schema.addColumnInfo(new ColumnInfo(name, tableName, type));
+        }
+
+        return schema;
+    }
+
+
+    /**
+     * Returns the type whose encoding is used for a value.
+     *
+     * @param value a non-<tt>null</tt> value
+     *
+     * @return the type whose encoding holds the value, or <tt>null</tt> if
+     *         the value must be written with a tag other than a type ID
+     */
+    private static SQLDataType getValueType(Object value) {
+        if (value instanceof Integer)
+            return SQLDataType.INTEGER;
+        else if (value instanceof String)
+            return SQLDataType.VARCHAR;
+        else if (value instanceof Long)
+            return SQLDataType.BIGINT;
+        else if (value instanceof Double)
+            return SQLDataType.DOUBLE;
+        else if (value instanceof Float)
+            return SQLDataType.FLOAT;
+        else if (value instanceof Short)
+            return SQLDataType.SMALLINT;
+        else if (value instanceof Byte)
+            return SQLDataType.TINYINT;
+        else if (value instanceof BigDecimal)
+            return SQLDataType.NUMERIC;
+        else if (value instanceof FilePointer)
+            return SQLDataType.FILE_POINTER;
+
+        return null;
+    }
+
+
+    /**
+     * Returns true if a value can be written in the encoding of a column's
+     * type, without a tag.
+     */
+    private static boolean hasColumnEncoding(SQLDataType colType,
+                                             Object value) {
+        SQLDataType valueType = getValueType(value);
+        if (valueType == null)
+            return false;
+
+        if (valueType == colType)
+            return true;
+
+        // All string types are encoded the same way.
+        return SQLDataType.isString(valueType) && SQLDataType.isString(colType);
+    }
+
+
+    /**
+     * Writes a tuple's values in the encodings of a schema's column types.
+     *
+     * @param schema the schema of the tuple
+     *
+     * @param tuple the tuple to write
+     *
+     * @param out the output to write the tuple to
+     *
+     * @throws IOException if the tuple can't be written, or a value can't be
+     *         encoded
+     */
+    public static void writeTuple(Schema schema, Tuple tuple, DataOutput out)
+        throws IOException {
+
+        int numColumns = tuple.getColumnCount();
+        if (numColumns != schema.numColumns()) {
+            throw new IllegalArgumentException(String.format(
+                "Tuple has %d columns but schema has %d", numColumns,
+                schema.numColumns()));
+        }
+
+        byte[] tagged = new byte[(numColumns + 7) / 8];
+        Object[] values = new Object[numColumns];
+        for (int i = 0; i < numColumns; i++) {
+            values[i] = tuple.getColumnValue(i);
+
+            SQLDataType colType = schema.getColumnInfo(i).getType().getBaseType();
+            if (values[i] == null || !hasColumnEncoding(colType, values[i]))
+                tagged[i / 8] |= (byte) (1 << (i % 8));
+        }
+        out.write(tagged);
+
+        for (int i = 0; i < numColumns; i++) {
+            Object value = values[i];
+            SQLDataType type;
+
+            if ((tagged[i / 8] & (1 << (i % 8))) != 0) {
+                if (value == null) {
+                    out.writeByte(TAG_NULL);
+                    continue;
+                }
+
+                type = getValueType(value);
+                if (type == null) {
+                    if (value instanceof Boolean) {
+                        out.writeByte(TAG_BOOLEAN);
+                        out.writeBoolean((Boolean) value);
+                    }
+                    else {
+                        out.writeByte(TAG_OBJECT);
+                        writeSerialized(value, out);
+                    }
+                    continue;
+                }
+
+                out.writeByte(type.getTypeID());
+            }
+            else {
+                type = schema.getColumnInfo(i).getType().getBaseType();
+            }
+
+            writeValue(type, value, out);
+        }
+    }
+
+
+    /**
+     * Reads a tuple written by {@link #writeTuple}.
+     *
+     * @param schema the schema of the tuple
+     *
+     * @param in the input to read the tuple from
+     *
+     * @return the tuple
+     *
+     * @throws IOException if the tuple can't be read
+     */
+    public static TupleLiteral readTuple(Schema schema, DataInput in)
+        throws IOException {
+
+        int numColumns = schema.numColumns();
+        byte[] tagged = new byte[(numColumns + 7) / 8];
+        in.readFully(tagged);
+
+        TupleLiteral tuple = new TupleLiteral();
+        for (int i = 0; i < numColumns; i++) {
+            SQLDataType type;
+
+            if ((tagged[i / 8] & (1 << (i % 8))) != 0) {
+                byte tag = in.readByte();
+                if (tag == TAG_NULL) {
+                    tuple.addValue(null);
+                    continue;
+                }
+                else if (tag == TAG_BOOLEAN) {
+                    tuple.addValue(in.readBoolean());
+                    continue;
+                }
+                else if (tag == TAG_OBJECT) {
+                    tuple.addValue(readSerialized(in));
+                    continue;
+                }
+
+                type = SQLDataType.findType(tag);
+                if (type == null) {
+                    throw new StreamCorruptedException(
+                        "Unrecognized value tag " + tag);
+                }
+            }
+            else {
+                type = schema.getColumnInfo(i).getType().getBaseType();
+            }
+
+            tuple.addValue(readValue(type, in));
+        }
+
+        return tuple;
+    }
+
+
+    /**
+     * Writes a value in the encoding of a type.
+     */
+    private static void writeValue(SQLDataType type, Object value,
+                                   DataOutput out) throws IOException {
+        switch (type) {
+        case TINYINT:
+        case SMALLINT:
+        case INTEGER:
+        case BIGINT:
+            writeVarLong(((Number) value).longValue(), out);
+            break;
+
+        case FLOAT:
+            out.writeFloat((Float) value);
+            break;
+
+        case DOUBLE:
+            out.writeDouble((Double) value);
+            break;
+
+        case NUMERIC:
+            writeString(((BigDecimal) value).toString(), out);
+            break;
+
+        case CHAR:
+        case VARCHAR:
+        case TEXT:
+            writeString((String) value, out);
+            break;
+
+        case FILE_POINTER:
+            FilePointer fptr = (FilePointer) value;
+            writeVarLong(fptr.getPageNo(), out);
+            writeVarLong(fptr.getOffset(), out);
+            break;
+
+        default:
+            throw new IOException("No encoding for values of type " + type);
+        }
+    }
+
+
+    /**
+     * Reads a value in the encoding of a type.
+     */
+    private static Object readValue(SQLDataType type, DataInput in)
+        throws IOException {
+
+        switch (type) {
+        case TINYINT:
+            return (byte) readVarLong(in);
+
+        case SMALLINT:
+            return (short) readVarLong(in);
+
+        case INTEGER:
+            return (int) readVarLong(in);
+
+        case BIGINT:
+            return readVarLong(in);
+
+        case FLOAT:
+            return in.readFloat();
+
+        case DOUBLE:
+            return in.readDouble();
+
+        case NUMERIC:
+            return new BigDecimal(readString(in));
+
+        case CHAR:
+        case VARCHAR:
+        case TEXT:
+            return readString(in);
+
+        case FILE_POINTER:
+            int pageNo = (int) readVarLong(in);
+            int offset = (int) readVarLong(in);
+            return new FilePointer(pageNo, offset);
+
+        default:
+            throw new StreamCorruptedException(
+                "No encoding for values of type " + type);
+        }
+    }
+
+
+    /**
+     * Writes a value with Java serialization, preceded by its length.
+     *
+     * @param obj the value to write, which must be serializable
+     *
+     * @param out the output to write the value to
+     *
+     * @throws IOException if the value can't be serialized
+     */
+    public static void writeSerialized(Object obj, DataOutput out)
+        throws IOException {
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream objOut = new ObjectOutputStream(bytes)) {
+            objOut.writeObject(obj);
+        }
+
+        writeVarLong(bytes.size(), out);
+        out.write(bytes.toByteArray());
+    }
+
+
+    /**
+     * Reads a value written by {@link #writeSerialized}.
+     *
+     * @param in the input to read the value from
+     *
+     * @return the value
+     *
+     * @throws IOException if the value can't be deserialized
+     */
+    public static Object readSerialized(DataInput in) throws IOException {
+        byte[] bytes = new byte[(int) readVarLong(in)];
+        in.readFully(bytes);
+
+        try (ObjectInputStream objIn =
+                 new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return objIn.readObject();
+        }
+        catch (ClassNotFoundException e) {
+            throw new IOException("Couldn't deserialize value", e);
+        }
+    }
+
+
+    /**
+     * Writes a string as its length plus one, followed by its UTF-8 bytes,
+     * so that <tt>null</tt> can be written as a length of zero.
+     *
+     * @param s the string to write, or <tt>null</tt>
+     *
+     * @param out the output to write the string to
+     *
+     * @throws IOException if the string can't be written
+     */
+    public static void writeString(String s, DataOutput out)
+        throws IOException {
+
+        if (s == null) {
+            writeVarLong(0, out);
+            return;
+        }
+
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        writeVarLong(bytes.length + 1, out);
+        out.write(bytes);
+    }
+
+
+    /**
+     * Reads a string written by {@link #writeString}.
+     *
+     * @param in the input to read the string from
+     *
+     * @return the string, or <tt>null</tt>
+     *
+     * @throws IOException if the string can't be read
+     */
+    public static String readString(DataInput in) throws IOException {
+        long length = readVarLong(in);
+        if (length == 0)
+            return null;
+
+        byte[] bytes = new byte[(int) (length - 1)];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+
+    /**
+     * Writes a signed integer in a variable number of bytes, seven bits per
+     * byte, after zig-zag encoding it so that small negative numbers are as
+     * short as small positive ones.
+     *
+     * @param value the value to write
+     *
+     * @param out the output to write the value to
+     *
+     * @throws IOException if the value can't be written
+     */
+    public static void writeVarLong(long value, DataOutput out)
+        throws IOException {
+
+        long v = (value << 1) ^ (value >> 63);
+        while ((v & ~0x7FL) != 0) {
+            out.writeByte((int) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        out.writeByte((int) v);
+    }
+
+
+    /**
+     * Reads an integer written by {@link #writeVarLong}.
+     *
+     * @param in the input to read the value from
+     *
+     * @return the value
+     *
+     * @throws IOException if the value can't be read
+     */
+    public static long readVarLong(DataInput in) throws IOException {
+        long v = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.readByte();
+            v |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return (v >>> 1) ^ -(v & 1);
+        }
+
+        throw new StreamCorruptedException("Variable-length integer is too long");
+    }
+}
@@ -0,0 +1,313 @@
+package edu.caltech.nanodb.server.protocol;
+
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.net.Socket;
+
+import org.apache.log4j.Logger;
+
+import edu.caltech.nanodb.expressions.TypeCastException;
+import edu.caltech.nanodb.expressions.TypeConverter;
+import edu.caltech.nanodb.server.properties.PropertyHandler;
+import edu.caltech.nanodb.server.properties.ReadOnlyPropertyException;
+import edu.caltech.nanodb.server.properties.UnrecognizedPropertyException;
+
+
+/**
+ * <p>
+ * This class negotiates the protocol used between a client and the shared
+ * server, and defines the constants of the binary protocol.
+ * </p>
+ * <p>
+ * A client that supports the binary protocol starts by sending
+ * {@link #MAGIC} followed by the highest protocol version it supports.  The
+ * server answers with {@link #MAGIC} and the version to use, which is zero
+ * if the connection is to use Java serialization instead.  A client that
+ * only knows the serialization protocol starts by sending a serialization
+ * stream header, so the server can tell the two kinds of clients apart by
+ * the first bytes it receives.  A server that only knows the serialization
+ * protocol sends its stream header as soon as the connection is made,
+ * and drops the connection when it receives the binary greeting; in that
+ * case the client connects again and uses serialization.
+ * </p>
+ */
+public class WireProtocol {
+    /** A logging object for reporting anything interesting that happens. */
+    private static Logger logger = Logger.getLogger(WireProtocol.class);
+
+
+    /** The first four bytes sent by both sides of the binary protocol. */
+    public static final int MAGIC = 0x4E444250;  // "NDBP"
+
+
+    /** The version of the binary protocol implemented by this class. */
+    public static final int PROTOCOL_VERSION = 1;
+
+
+    /** The protocol version that selects Java serialization. */
+    public static final int SERIALIZATION_VERSION = 0;
+
+
+    /** The first two bytes of a Java serialization stream. */
+    private static final int SERIALIZATION_MAGIC = 0xACED;
+
+
+    /** The message type of a command or of text output. */
+    public static final byte MSG_TEXT = 1;
+
+
+    /** The message type of the schema of a query's results. */
+    public static final byte MSG_SCHEMA = 2;
+
+
+    /** The message type of a batch of tuples in a query's results. */
+    public static final byte MSG_TUPLE_BATCH = 3;
+
+
+    /** The message type of an error. */
+    public static final byte MSG_ERROR = 4;
+
+
+    /** The message type of a {@link edu.caltech.nanodb.server.CommandState}. */
+    public static final byte MSG_COMMAND_STATE = 5;
+
+
+    /**
+     * A batch of tuples is sent once it holds this many bytes, even if it
+     * holds fewer than {@link #getBatchSize} tuples.
+     */
+    public static final int MAX_BATCH_BYTES = 64 * 1024;
+
+
+    /**
+     * The property that specifies the maximum number of tuples the server
+     * sends in one batch.
+     */
+    public static final String PROP_BATCH_SIZE = "nanodb.protocol.batchSize";
+
+
+    /** The default value of the {@link #PROP_BATCH_SIZE} property. */
+    public static final int DEFAULT_BATCH_SIZE = 256;
+
+
+    public static class ProtocolPropertyHandler implements PropertyHandler {
+
+        @Override
+        public Object getPropertyValue(String propertyName)
+                throws UnrecognizedPropertyException {
+
+            if (PROP_BATCH_SIZE.equals(propertyName)) {
+                return getBatchSize();
+            }
+            else {
+                throw new UnrecognizedPropertyException("No property named " +
+                        propertyName);
+            }
+        }
+
+        @Override
+        public void setPropertyValue(String propertyName, Object value)
+                throws UnrecognizedPropertyException, ReadOnlyPropertyException,
+                TypeCastException {
+
+            if (PROP_BATCH_SIZE.equals(propertyName)) {
+                setBatchSize(TypeConverter.getIntegerValue(value));
+            }
+            else {
+                throw new UnrecognizedPropertyException("No property named " +
+                        propertyName);
+            }
+        }
+    }
+
+
+    /**
+     * Returns the maximum number of tuples the server sends in one batch.
+     *
+     * @return the current value of the {@link #PROP_BATCH_SIZE} property
+     */
+    public static int getBatchSize() {
+        String value = System.getProperty(PROP_BATCH_SIZE);
+        if (value == null)
+            return DEFAULT_BATCH_SIZE;
+
+        try {
+            return Integer.parseInt(value);
+        }
+        catch (NumberFormatException e) {
+            logger.warn(String.format("Ignoring invalid value \"%s\" for " +
+                "property %s", value, PROP_BATCH_SIZE));
+            return DEFAULT_BATCH_SIZE;
+        }
+    }
+
+
+    /**
+     * Sets the maximum number of tuples the server sends in one batch.  This
+     * applies to connections made after it is set.
+     *
+     * @param batchSize the maximum number of tuples in a batch
+     *
+     * @throws IllegalArgumentException if the value is less than 1
+     */
+    public static void setBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException(
+                "batch size must be at least 1, got " + batchSize);
+        }
+
+        System.setProperty(PROP_BATCH_SIZE, Integer.toString(batchSize));
+    }
+
+
+    /** This class should not be instantiated. */
+    private WireProtocol() {
+        throw new UnsupportedOperationException();
+    }
+
+
+    /**
+     * Negotiates the protocol for a connection the server has accepted,
+     * and opens a channel that uses it.
+     *
+     * @param socket the socket of the accepted connection
+     *
+     * @return a channel for communicating with the client
+     *
+     * @throws IOException if the negotiation fails
+     */
+    public static MessageChannel acceptConnection(Socket socket)
+        throws IOException {
+
+        PushbackInputStream in = new PushbackInputStream(
+            new BufferedInputStream(socket.getInputStream()), 4);
+        DataOutputStream out = new DataOutputStream(
+            new BufferedOutputStream(socket.getOutputStream()));
+
+        byte[] greeting = new byte[4];
+        int len = readFully(in, greeting);
+        if (len == 4 && toInt(greeting) == MAGIC) {
+            int version = new DataInputStream(in).readInt();
+            int useVersion = Math.min(version, PROTOCOL_VERSION);
+
+            logger.debug(String.format("Client supports protocol version " +
+                "%d, using version %d", version, useVersion));
+
+            out.writeInt(MAGIC);
+            out.writeInt(useVersion);
+            out.flush();
+
+            if (useVersion > SERIALIZATION_VERSION) {
+                return new BinaryMessageChannel(socket,
+                    new DataInputStream(in), out, getBatchSize());
+            }
+        }
+        else {
+            // An older client, which started its serialization stream.
+            logger.debug("Client doesn't support the binary protocol");
+            in.unread(greeting, 0, len);
+        }
+
+        return new SerializedMessageChannel(socket, in, out);
+    }
+
+
+    /**
+     * Connects to a server, and opens a channel that uses the binary
+     * protocol if the client and server both support it, or Java
+     * serialization if not.
+     *
+     * @param hostname the name of the server's host
+     *
+     * @param port the port the server listens on
+     *
+     * @param binary true to use the binary protocol if the server supports
+     *        it, or false to always use serialization
+     *
+     * @return a channel for communicating with the server
+     *
+     * @throws IOException if the connection can't be made
+     */
+    public static MessageChannel connect(String hostname, int port,
+                                         boolean binary) throws IOException {
+        Socket socket = new Socket(hostname, port);
+        if (!binary) {
+            return new SerializedMessageChannel(socket,
+                socket.getInputStream(), socket.getOutputStream());
+        }
+
+        DataInputStream in = new DataInputStream(
+            new BufferedInputStream(socket.getInputStream()));
+        DataOutputStream out = new DataOutputStream(
+            new BufferedOutputStream(socket.getOutputStream()));
+
+        out.writeInt(MAGIC);
+        out.writeInt(PROTOCOL_VERSION);
+        out.flush();
+
+        byte[] reply = new byte[4];
+        int len = readFully(in, reply);
+        if (len == 4 && toInt(reply) == MAGIC) {
+            int version = in.readInt();
+            logger.debug("Server selected protocol version " + version);
+
+            if (version == SERIALIZATION_VERSION)
+                return new SerializedMessageChannel(socket, in, out);
+
+            if (version > PROTOCOL_VERSION) {
+                socket.close();
+                throw new IOException(
+                    "Server selected unsupported protocol version " + version);
+            }
+
+            return new BinaryMessageChannel(socket, in, out, getBatchSize());
+        }
+
+        socket.close();
+        if (len >= 2 && (toInt(reply) >>> 16) == SERIALIZATION_MAGIC) {
+            // An older server, which started its serialization stream and
+            // will drop the connection.  Connect again with serialization.
+            logger.info("Server doesn't support the binary protocol; " +
+                "falling back to serialization");
+            return connect(hostname, port, false);
+        }
+
+        throw new IOException("Server sent an unrecognized protocol greeting");
+    }
+
+
+    /**
+     * Reads bytes until the buffer is full or the stream ends, and returns
+     * the number of bytes read.
+     */
+    private static int readFully(InputStream in, byte[] buf)
+        throws IOException {
+
+        int total = 0;
+        while (total < buf.length) {
+            int n = in.read(buf, total, buf.length - total);
+            if (n == -1) {
+                if (total == 0)
+                    throw new EOFException("Connection closed during negotiation");
+
+                break;
+            }
+            total += n;
+        }
+        return total;
+    }
+
+
+    /** Returns the big-endian integer in the first four bytes of a buffer. */
+    private static int toInt(byte[] buf) {
+        return ((buf[0] & 0xFF) << 24) | ((buf[1] & 0xFF) << 16) |
+            ((buf[2] & 0xFF) << 8) | (buf[3] & 0xFF);
+    }
+}
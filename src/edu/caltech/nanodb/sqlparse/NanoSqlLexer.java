@@ -13,6 +13,7 @@
   import edu.caltech.nanodb.expressions.*;
   import edu.caltech.nanodb.queryast.*;
   import edu.caltech.nanodb.relations.*;
+  import edu.caltech.nanodb.storage.AnalyzeSample;
 
 import java.io.InputStream;
 import antlr.TokenStreamException;
@@ -67,118 +68,132 @@ public NanoSqlLexer(LexerSharedInputState state) {
 	caseSensitiveLiterals = false;
 	setCaseSensitive(true);
 	literals = new Hashtable();
-	literals.put(new ANTLRHashString("type", this), new Integer(84));
-	literals.put(new ANTLRHashString("blob", this), new Integer(100));
+	literals.put(new ANTLRHashString("type", this), new Integer(98));
+	literals.put(new ANTLRHashString("copy", this), new Integer(20));
+	literals.put(new ANTLRHashString("blob", this), new Integer(114));
+	literals.put(new ANTLRHashString("cursor", this), new Integer(24));
 	literals.put(new ANTLRHashString("between", this), new Integer(13));
-	literals.put(new ANTLRHashString("time", this), new Integer(112));
-	literals.put(new ANTLRHashString("delete", this), new Integer(23));
-	literals.put(new ANTLRHashString("transaction", this), new Integer(82));
-	literals.put(new ANTLRHashString("format", this), new Integer(36));
-	literals.put(new ANTLRHashString("view", this), new Integer(95));
-	literals.put(new ANTLRHashString("timestamp", this), new Integer(113));
-	literals.put(new ANTLRHashString("limit", this), new Integer(53));
-	literals.put(new ANTLRHashString("insert", this), new Integer(45));
-	literals.put(new ANTLRHashString("distinct", this), new Integer(25));
-	literals.put(new ANTLRHashString("variable", this), new Integer(91));
-	literals.put(new ANTLRHashString("where", this), new Integer(96));
+	literals.put(new ANTLRHashString("time", this), new Integer(126));
+	literals.put(new ANTLRHashString("delete", this), new Integer(28));
+	literals.put(new ANTLRHashString("transaction", this), new Integer(96));
+	literals.put(new ANTLRHashString("format", this), new Integer(45));
+	literals.put(new ANTLRHashString("view", this), new Integer(109));
+	literals.put(new ANTLRHashString("timestamp", this), new Integer(127));
+	literals.put(new ANTLRHashString("limit", this), new Integer(63));
+	literals.put(new ANTLRHashString("insert", this), new Integer(55));
+	literals.put(new ANTLRHashString("distinct", this), new Integer(31));
+	literals.put(new ANTLRHashString("variable", this), new Integer(105));
+	literals.put(new ANTLRHashString("where", this), new Integer(110));
 	literals.put(new ANTLRHashString("alter", this), new Integer(6));
-	literals.put(new ANTLRHashString("integer", this), new Integer(109));
+	literals.put(new ANTLRHashString("integer", this), new Integer(123));
 	literals.put(new ANTLRHashString("analyze", this), new Integer(7));
-	literals.put(new ANTLRHashString("decimal", this), new Integer(105));
-	literals.put(new ANTLRHashString("select", this), new Integer(72));
+	literals.put(new ANTLRHashString("decimal", this), new Integer(119));
+	literals.put(new ANTLRHashString("select", this), new Integer(86));
 	literals.put(new ANTLRHashString("cascade", this), new Integer(15));
-	literals.put(new ANTLRHashString("to", this), new Integer(81));
+	literals.put(new ANTLRHashString("to", this), new Integer(95));
 	literals.put(new ANTLRHashString("and", this), new Integer(8));
-	literals.put(new ANTLRHashString("outer", this), new Integer(63));
-	literals.put(new ANTLRHashString("float", this), new Integer(106));
-	literals.put(new ANTLRHashString("not", this), new Integer(56));
-	literals.put(new ANTLRHashString("constraint", this), new Integer(18));
-	literals.put(new ANTLRHashString("verbose", this), new Integer(93));
-	literals.put(new ANTLRHashString("numeric", this), new Integer(110));
-	literals.put(new ANTLRHashString("date", this), new Integer(103));
-	literals.put(new ANTLRHashString("using", this), new Integer(89));
-	literals.put(new ANTLRHashString("dump", this), new Integer(27));
-	literals.put(new ANTLRHashString("key", this), new Integer(50));
-	literals.put(new ANTLRHashString("offset", this), new Integer(58));
-	literals.put(new ANTLRHashString("from", this), new Integer(37));
-	literals.put(new ANTLRHashString("bigint", this), new Integer(99));
-	literals.put(new ANTLRHashString("null", this), new Integer(57));
-	literals.put(new ANTLRHashString("optimize", this), new Integer(60));
+	literals.put(new ANTLRHashString("outer", this), new Integer(73));
+	literals.put(new ANTLRHashString("float", this), new Integer(120));
+	literals.put(new ANTLRHashString("not", this), new Integer(66));
+	literals.put(new ANTLRHashString("constraint", this), new Integer(19));
+	literals.put(new ANTLRHashString("fetch", this), new Integer(40));
+	literals.put(new ANTLRHashString("verbose", this), new Integer(107));
+	literals.put(new ANTLRHashString("deallocate", this), new Integer(25));
+	literals.put(new ANTLRHashString("numeric", this), new Integer(124));
+	literals.put(new ANTLRHashString("date", this), new Integer(117));
+	literals.put(new ANTLRHashString("using", this), new Integer(103));
+	literals.put(new ANTLRHashString("dump", this), new Integer(33));
+	literals.put(new ANTLRHashString("key", this), new Integer(60));
+	literals.put(new ANTLRHashString("offset", this), new Integer(68));
+	literals.put(new ANTLRHashString("from", this), new Integer(46));
+	literals.put(new ANTLRHashString("bigint", this), new Integer(113));
+	literals.put(new ANTLRHashString("null", this), new Integer(67));
+	literals.put(new ANTLRHashString("optimize", this), new Integer(70));
 	literals.put(new ANTLRHashString("add", this), new Integer(4));
-	literals.put(new ANTLRHashString("quit", this), new Integer(66));
-	literals.put(new ANTLRHashString("like", this), new Integer(52));
-	literals.put(new ANTLRHashString("natural", this), new Integer(55));
-	literals.put(new ANTLRHashString("flush", this), new Integer(34));
-	literals.put(new ANTLRHashString("inner", this), new Integer(44));
-	literals.put(new ANTLRHashString("exit", this), new Integer(30));
-	literals.put(new ANTLRHashString("except", this), new Integer(28));
-	literals.put(new ANTLRHashString("text", this), new Integer(111));
-	literals.put(new ANTLRHashString("character", this), new Integer(102));
-	literals.put(new ANTLRHashString("verify", this), new Integer(94));
-	literals.put(new ANTLRHashString("with", this), new Integer(97));
-	literals.put(new ANTLRHashString("set", this), new Integer(73));
-	literals.put(new ANTLRHashString("foreign", this), new Integer(35));
-	literals.put(new ANTLRHashString("intersect", this), new Integer(46));
-	literals.put(new ANTLRHashString("work", this), new Integer(98));
-	literals.put(new ANTLRHashString("similar", this), new Integer(75));
-	literals.put(new ANTLRHashString("join", this), new Integer(49));
-	literals.put(new ANTLRHashString("rollback", this), new Integer(71));
-	literals.put(new ANTLRHashString("commit", this), new Integer(17));
-	literals.put(new ANTLRHashString("is", this), new Integer(48));
-	literals.put(new ANTLRHashString("file", this), new Integer(33));
-	literals.put(new ANTLRHashString("or", this), new Integer(61));
+	literals.put(new ANTLRHashString("quit", this), new Integer(78));
+	literals.put(new ANTLRHashString("like", this), new Integer(62));
+	literals.put(new ANTLRHashString("natural", this), new Integer(65));
+	literals.put(new ANTLRHashString("flush", this), new Integer(42));
+	literals.put(new ANTLRHashString("percent", this), new Integer(74));
+	literals.put(new ANTLRHashString("inner", this), new Integer(54));
+	literals.put(new ANTLRHashString("exit", this), new Integer(37));
+	literals.put(new ANTLRHashString("except", this), new Integer(34));
+	literals.put(new ANTLRHashString("prepare", this), new Integer(75));
+	literals.put(new ANTLRHashString("text", this), new Integer(125));
+	literals.put(new ANTLRHashString("character", this), new Integer(116));
+	literals.put(new ANTLRHashString("verify", this), new Integer(108));
+	literals.put(new ANTLRHashString("with", this), new Integer(111));
+	literals.put(new ANTLRHashString("set", this), new Integer(87));
+	literals.put(new ANTLRHashString("foreign", this), new Integer(44));
+	literals.put(new ANTLRHashString("intersect", this), new Integer(56));
+	literals.put(new ANTLRHashString("work", this), new Integer(112));
+	literals.put(new ANTLRHashString("similar", this), new Integer(89));
+	literals.put(new ANTLRHashString("delimiter", this), new Integer(29));
+	literals.put(new ANTLRHashString("join", this), new Integer(59));
+	literals.put(new ANTLRHashString("rollback", this), new Integer(83));
+	literals.put(new ANTLRHashString("commit", this), new Integer(18));
+	literals.put(new ANTLRHashString("is", this), new Integer(58));
+	literals.put(new ANTLRHashString("close", this), new Integer(16));
+	literals.put(new ANTLRHashString("file", this), new Integer(41));
+	literals.put(new ANTLRHashString("header", this), new Integer(50));
+	literals.put(new ANTLRHashString("or", this), new Integer(71));
 	literals.put(new ANTLRHashString("any", this), new Integer(9));
-	literals.put(new ANTLRHashString("create", this), new Integer(20));
-	literals.put(new ANTLRHashString("crash", this), new Integer(19));
-	literals.put(new ANTLRHashString("if", this), new Integer(41));
-	literals.put(new ANTLRHashString("full", this), new Integer(38));
-	literals.put(new ANTLRHashString("double", this), new Integer(107));
+	literals.put(new ANTLRHashString("create", this), new Integer(22));
+	literals.put(new ANTLRHashString("crash", this), new Integer(21));
+	literals.put(new ANTLRHashString("if", this), new Integer(51));
+	literals.put(new ANTLRHashString("full", this), new Integer(47));
+	literals.put(new ANTLRHashString("double", this), new Integer(121));
 	literals.put(new ANTLRHashString("as", this), new Integer(10));
 	literals.put(new ANTLRHashString("by", this), new Integer(14));
-	literals.put(new ANTLRHashString("minus", this), new Integer(54));
-	literals.put(new ANTLRHashString("tables", this), new Integer(80));
+	literals.put(new ANTLRHashString("minus", this), new Integer(64));
+	literals.put(new ANTLRHashString("tables", this), new Integer(94));
 	literals.put(new ANTLRHashString("all", this), new Integer(5));
-	literals.put(new ANTLRHashString("union", this), new Integer(85));
-	literals.put(new ANTLRHashString("drop", this), new Integer(26));
-	literals.put(new ANTLRHashString("order", this), new Integer(62));
-	literals.put(new ANTLRHashString("primary", this), new Integer(64));
-	literals.put(new ANTLRHashString("some", this), new Integer(76));
-	literals.put(new ANTLRHashString("properties", this), new Integer(65));
-	literals.put(new ANTLRHashString("show", this), new Integer(74));
-	literals.put(new ANTLRHashString("values", this), new Integer(90));
-	literals.put(new ANTLRHashString("start", this), new Integer(77));
-	literals.put(new ANTLRHashString("int", this), new Integer(108));
-	literals.put(new ANTLRHashString("cross", this), new Integer(21));
-	literals.put(new ANTLRHashString("varchar", this), new Integer(114));
-	literals.put(new ANTLRHashString("char", this), new Integer(101));
-	literals.put(new ANTLRHashString("index", this), new Integer(43));
-	literals.put(new ANTLRHashString("default", this), new Integer(22));
-	literals.put(new ANTLRHashString("explain", this), new Integer(31));
-	literals.put(new ANTLRHashString("stats", this), new Integer(78));
-	literals.put(new ANTLRHashString("false", this), new Integer(32));
-	literals.put(new ANTLRHashString("exists", this), new Integer(29));
-	literals.put(new ANTLRHashString("table", this), new Integer(79));
+	literals.put(new ANTLRHashString("union", this), new Integer(99));
+	literals.put(new ANTLRHashString("drop", this), new Integer(32));
+	literals.put(new ANTLRHashString("order", this), new Integer(72));
+	literals.put(new ANTLRHashString("primary", this), new Integer(76));
+	literals.put(new ANTLRHashString("some", this), new Integer(90));
+	literals.put(new ANTLRHashString("show", this), new Integer(88));
+	literals.put(new ANTLRHashString("properties", this), new Integer(77));
+	literals.put(new ANTLRHashString("values", this), new Integer(104));
+	literals.put(new ANTLRHashString("start", this), new Integer(91));
+	literals.put(new ANTLRHashString("declare", this), new Integer(26));
+	literals.put(new ANTLRHashString("int", this), new Integer(122));
+	literals.put(new ANTLRHashString("for", this), new Integer(43));
+	literals.put(new ANTLRHashString("cross", this), new Integer(23));
+	literals.put(new ANTLRHashString("varchar", this), new Integer(128));
+	literals.put(new ANTLRHashString("char", this), new Integer(115));
+	literals.put(new ANTLRHashString("rows", this), new Integer(84));
+	literals.put(new ANTLRHashString("index", this), new Integer(53));
+	literals.put(new ANTLRHashString("default", this), new Integer(27));
+	literals.put(new ANTLRHashString("explain", this), new Integer(38));
+	literals.put(new ANTLRHashString("stats", this), new Integer(92));
+	literals.put(new ANTLRHashString("false", this), new Integer(39));
+	literals.put(new ANTLRHashString("exists", this), new Integer(36));
+	literals.put(new ANTLRHashString("table", this), new Integer(93));
 	literals.put(new ANTLRHashString("asc", this), new Integer(11));
-	literals.put(new ANTLRHashString("unknown", this), new Integer(87));
-	literals.put(new ANTLRHashString("variables", this), new Integer(92));
-	literals.put(new ANTLRHashString("left", this), new Integer(51));
-	literals.put(new ANTLRHashString("desc", this), new Integer(24));
-	literals.put(new ANTLRHashString("datetime", this), new Integer(104));
-	literals.put(new ANTLRHashString("on", this), new Integer(59));
+	literals.put(new ANTLRHashString("unknown", this), new Integer(101));
+	literals.put(new ANTLRHashString("variables", this), new Integer(106));
+	literals.put(new ANTLRHashString("left", this), new Integer(61));
+	literals.put(new ANTLRHashString("desc", this), new Integer(30));
+	literals.put(new ANTLRHashString("datetime", this), new Integer(118));
+	literals.put(new ANTLRHashString("on", this), new Integer(69));
 	literals.put(new ANTLRHashString("begin", this), new Integer(12));
-	literals.put(new ANTLRHashString("restrict", this), new Integer(69));
-	literals.put(new ANTLRHashString("into", this), new Integer(47));
-	literals.put(new ANTLRHashString("rename", this), new Integer(68));
-	literals.put(new ANTLRHashString("right", this), new Integer(70));
-	literals.put(new ANTLRHashString("in", this), new Integer(42));
-	literals.put(new ANTLRHashString("update", this), new Integer(88));
-	literals.put(new ANTLRHashString("true", this), new Integer(83));
-	literals.put(new ANTLRHashString("group", this), new Integer(39));
-	literals.put(new ANTLRHashString("having", this), new Integer(40));
-	literals.put(new ANTLRHashString("column", this), new Integer(16));
-	literals.put(new ANTLRHashString("unique", this), new Integer(86));
-	literals.put(new ANTLRHashString("references", this), new Integer(67));
-	literals.put(new ANTLRHashString("varying", this), new Integer(115));
+	literals.put(new ANTLRHashString("restrict", this), new Integer(81));
+	literals.put(new ANTLRHashString("into", this), new Integer(57));
+	literals.put(new ANTLRHashString("execute", this), new Integer(35));
+	literals.put(new ANTLRHashString("rename", this), new Integer(80));
+	literals.put(new ANTLRHashString("right", this), new Integer(82));
+	literals.put(new ANTLRHashString("sample", this), new Integer(85));
+	literals.put(new ANTLRHashString("in", this), new Integer(52));
+	literals.put(new ANTLRHashString("update", this), new Integer(102));
+	literals.put(new ANTLRHashString("true", this), new Integer(97));
+	literals.put(new ANTLRHashString("group", this), new Integer(48));
+	literals.put(new ANTLRHashString("having", this), new Integer(49));
+	literals.put(new ANTLRHashString("column", this), new Integer(17));
+	literals.put(new ANTLRHashString("unique", this), new Integer(100));
+	literals.put(new ANTLRHashString("references", this), new Integer(79));
+	literals.put(new ANTLRHashString("varying", this), new Integer(129));
 }
 
 public Token nextToken() throws TokenStreamException {
@@ -239,6 +254,12 @@ tryAgain:
 					theRetToken=_returnToken;
 					break;
 				}
+				case '?':
+				{
+					mQUESTION(true);
+					theRetToken=_returnToken;
+					break;
+				}
 				case '+':
 				{
 					mPLUS(true);
@@ -302,6 +323,12 @@ tryAgain:
 					theRetToken=_returnToken;
 					break;
 				}
+				case '$':
+				{
+					mPARAM(true);
+					theRetToken=_returnToken;
+					break;
+				}
 				default:
 					if ((LA(1)=='-') && (LA(2)=='-')) {
 						mCOMMENT(true);
@@ -440,6 +467,19 @@ tryAgain:
 		_returnToken = _token;
 	}
 	
+	public final void mQUESTION(boolean _createToken) throws RecognitionException, CharStreamException, TokenStreamException {
+		int _ttype; Token _token=null; int _begin=text.length();
+		_ttype = QUESTION;
+		int _saveIndex;
+		
+		match('?');
+		if ( _createToken && _token==null && _ttype!=Token.SKIP ) {
+			_token = makeToken(_ttype);
+			_token.setText(new String(text.getBuffer(), _begin, text.length()-_begin));
+		}
+		_returnToken = _token;
+	}
+	
 	public final void mPLUS(boolean _createToken) throws RecognitionException, CharStreamException, TokenStreamException {
 		int _ttype; Token _token=null; int _begin=text.length();
 		_ttype = PLUS;
@@ -505,8 +545,8 @@ tryAgain:
 		int _saveIndex;
 		
 		{
-		int _cnt223=0;
-		_loop223:
+		int _cnt244=0;
+		_loop244:
 		do {
 			switch ( LA(1)) {
 			case ' ':
@@ -521,10 +561,10 @@ tryAgain:
 			}
 			default:
 			{
-				if ( _cnt223>=1 ) { break _loop223; } else {throw new NoViableAltForCharException((char)LA(1), getFilename(), getLine(), getColumn());}
+				if ( _cnt244>=1 ) { break _loop244; } else {throw new NoViableAltForCharException((char)LA(1), getFilename(), getLine(), getColumn());}
 			}
 			}
-			_cnt223++;
+			_cnt244++;
 		} while (true);
 		}
 		_ttype = Token.SKIP;
@@ -550,15 +590,15 @@ tryAgain:
 		match('-');
 		match('-');
 		{
-		_loop227:
+		_loop248:
 		do {
 			// nongreedy exit test
-			if ((LA(1)=='\n') && (true)) break _loop227;
+			if ((LA(1)=='\n') && (true)) break _loop248;
 			if (((LA(1) >= '\u0000' && LA(1) <= '\u007f')) && ((LA(2) >= '\u0000' && LA(2) <= '\u007f'))) {
 				matchNot(EOF_CHAR);
 			}
 			else {
-				break _loop227;
+				break _loop248;
 			}
 			
 		} while (true);
@@ -697,7 +737,7 @@ tryAgain:
 		}
 		}
 		{
-		_loop237:
+		_loop258:
 		do {
 			switch ( LA(1)) {
 			case 'A':  case 'B':  case 'C':  case 'D':
@@ -736,7 +776,7 @@ tryAgain:
 			}
 			default:
 			{
-				break _loop237;
+				break _loop258;
 			}
 			}
 		} while (true);
@@ -794,7 +834,7 @@ tryAgain:
 		}
 		}
 		{
-		_loop241:
+		_loop262:
 		do {
 			switch ( LA(1)) {
 			case 'A':  case 'B':  case 'C':  case 'D':
@@ -833,7 +873,7 @@ tryAgain:
 			}
 			default:
 			{
-				break _loop241;
+				break _loop262;
 			}
 			}
 		} while (true);
@@ -867,17 +907,17 @@ tryAgain:
 		case '8':  case '9':
 		{
 			{
-			int _cnt244=0;
-			_loop244:
+			int _cnt265=0;
+			_loop265:
 			do {
 				if (((LA(1) >= '0' && LA(1) <= '9'))) {
 					matchRange('0','9');
 				}
 				else {
-					if ( _cnt244>=1 ) { break _loop244; } else {throw new NoViableAltForCharException((char)LA(1), getFilename(), getLine(), getColumn());}
+					if ( _cnt265>=1 ) { break _loop265; } else {throw new NoViableAltForCharException((char)LA(1), getFilename(), getLine(), getColumn());}
 				}
 				
-				_cnt244++;
+				_cnt265++;
 			} while (true);
 			}
 			_ttype = INT_LITERAL;
@@ -899,13 +939,13 @@ tryAgain:
 				match('.');
 				_ttype = DEC_LITERAL;
 				{
-				_loop249:
+				_loop270:
 				do {
 					if (((LA(1) >= '0' && LA(1) <= '9'))) {
 						matchRange('0','9');
 					}
 					else {
-						break _loop249;
+						break _loop270;
 					}
 					
 				} while (true);
@@ -961,13 +1001,13 @@ tryAgain:
 				}
 				_ttype = DEC_LITERAL;
 				{
-				_loop255:
+				_loop276:
 				do {
 					if (((LA(1) >= '0' && LA(1) <= '9'))) {
 						matchRange('0','9');
 					}
 					else {
-						break _loop255;
+						break _loop276;
 					}
 					
 				} while (true);
@@ -1030,7 +1070,7 @@ tryAgain:
 		match('\'');
 		text.setLength(_saveIndex);
 		{
-		_loop261:
+		_loop282:
 		do {
 			if ((_tokenSet_0.member(LA(1)))) {
 				{
@@ -1038,7 +1078,7 @@ tryAgain:
 				}
 			}
 			else {
-				break _loop261;
+				break _loop282;
 			}
 			
 		} while (true);
@@ -1053,6 +1093,36 @@ tryAgain:
 		_returnToken = _token;
 	}
 	
+/** Numbered parameters of prepared statements, such as <tt>$1</tt>. */
+	public final void mPARAM(boolean _createToken) throws RecognitionException, CharStreamException, TokenStreamException {
+		int _ttype; Token _token=null; int _begin=text.length();
+		_ttype = PARAM;
+		int _saveIndex;
+		
+		_saveIndex=text.length();
+		match('$');
+		text.setLength(_saveIndex);
+		{
+		int _cnt285=0;
+		_loop285:
+		do {
+			if (((LA(1) >= '0' && LA(1) <= '9'))) {
+				matchRange('0','9');
+			}
+			else {
+				if ( _cnt285>=1 ) { break _loop285; } else {throw new NoViableAltForCharException((char)LA(1), getFilename(), getLine(), getColumn());}
+			}
+			
+			_cnt285++;
+		} while (true);
+		}
+		if ( _createToken && _token==null && _ttype!=Token.SKIP ) {
+			_token = makeToken(_ttype);
+			_token.setText(new String(text.getBuffer(), _begin, text.length()-_begin));
+		}
+		_returnToken = _token;
+	}
+	
 	
 	private static final long[] mk_tokenSet_0() {
 		long[] data = { -549755823105L, -1L, 0L, 0L};
@@ -13,6 +13,7 @@
   import edu.caltech.nanodb.expressions.*;
   import edu.caltech.nanodb.queryast.*;
   import edu.caltech.nanodb.relations.*;
+  import edu.caltech.nanodb.storage.AnalyzeSample;
 
 import antlr.TokenBuffer;
 import antlr.TokenStreamException;
@@ -37,6 +38,100 @@ import antlr.collections.impl.BitSet;
 public class NanoSqlParser extends antlr.LLkParser       implements NanoSqlParserTokenTypes
  {
 
+  /**
+   * The normalized text of the tokens consumed since the start of the
+   * current command.  Tokens are separated by single spaces, and keywords
+   * and unquoted identifiers are in upper case, so that commands that differ
+   * only in whitespace, comments, or keyword case have the same text.  This
+   * is used as the key for caching the command's execution plan.
+   */
+  private StringBuilder normalizedText = new StringBuilder();
+
+  /** The number of <tt>?</tt> parameters seen in the current command. */
+  private int paramCount;
+
+  /** True if a <tt>$n</tt> parameter has been seen in the current command. */
+  private boolean numberedParams;
+
+  /** The largest parameter index seen in the current command. */
+  private int maxParamIndex;
+
+
+  /** Resets the per-command state at the start of each command. */
+  private void startCommand() {
+    normalizedText.setLength(0);
+    paramCount = 0;
+    numberedParams = false;
+    maxParamIndex = 0;
+  }
+
+
+  /**
+   * Consumes the current token, after appending its normalized text to the
+   * text of the current command.
+   */
+  public void consume() throws TokenStreamException {
+    if (inputState.guessing == 0) {
+      Token t = LT(1);
+      if (normalizedText.length() > 0)
+        normalizedText.append(' ');
+
+      switch (t.getType()) {
+      case STRING_LITERAL:
+        normalizedText.append('\'');
+        normalizedText.append(t.getText().replace("'", "''"));
+        normalizedText.append('\'');
+        break;
+
+      case QUOTED_IDENT:
+        normalizedText.append('"').append(t.getText()).append('"');
+        break;
+
+      case LONG_LITERAL:
+        normalizedText.append(t.getText()).append('L');
+        break;
+
+      case FLOAT_LITERAL:
+        normalizedText.append(t.getText()).append('F');
+        break;
+
+      case PARAM:
+        normalizedText.append('$').append(t.getText());
+        break;
+
+      default:
+        normalizedText.append(t.getText().toUpperCase());
+      }
+    }
+
+    super.consume();
+  }
+
+
+  /**
+   * Records a parameter of the current command.
+   *
+   * @param index the position of the parameter, or 0 for a <tt>?</tt>
+   *        parameter, which takes the next position
+   *
+   * @return an expression for the parameter
+   *
+   * @throws SemanticException if <tt>?</tt> and <tt>$n</tt> parameters are
+   *         both used in the same command
+   */
+  private ParameterValue makeParameter(int index) throws SemanticException {
+    if (index == 0)
+      index = ++paramCount;
+    else
+      numberedParams = true;
+
+    if (paramCount > 0 && numberedParams)
+      throw new SemanticException("Cannot use both ? and $n parameters in one command");
+
+    maxParamIndex = Math.max(maxParamIndex, index);
+    return new ParameterValue(index);
+  }
+
 protected NanoSqlParser(TokenBuffer tokenBuf, int k) {
   super(tokenBuf,k);
   tokenNames = _tokenNames;
@@ -80,17 +175,24 @@ public NanoSqlParser(ParserSharedInputState state) {
 					switch ( LA(1)) {
 					case ANALYZE:
 					case BEGIN:
+					case CLOSE:
 					case COMMIT:
+					case COPY:
 					case CRASH:
 					case CREATE:
+					case DEALLOCATE:
+					case DECLARE:
 					case DELETE:
 					case DROP:
 					case DUMP:
+					case EXECUTE:
 					case EXIT:
 					case EXPLAIN:
+					case FETCH:
 					case FLUSH:
 					case INSERT:
 					case OPTIMIZE:
+					case PREPARE:
 					case QUIT:
 					case ROLLBACK:
 					case SELECT:
@@ -139,7 +241,7 @@ public NanoSqlParser(ParserSharedInputState state) {
 	public final Command  command() throws RecognitionException, TokenStreamException {
 		Command c;
 		
-		c = null;
+		c = null; startCommand();
 		
 		try {      // for error handling
 			{
@@ -175,6 +277,11 @@ public NanoSqlParser(ParserSharedInputState state) {
 				c=delete_stmt();
 				break;
 			}
+			case COPY:
+			{
+				c=copy_stmt();
+				break;
+			}
 			case BEGIN:
 			case START:
 			{
@@ -237,6 +344,36 @@ public NanoSqlParser(ParserSharedInputState state) {
 				c=set_var_stmt();
 				break;
 			}
+			case PREPARE:
+			{
+				c=prepare_stmt();
+				break;
+			}
+			case EXECUTE:
+			{
+				c=execute_stmt();
+				break;
+			}
+			case DEALLOCATE:
+			{
+				c=deallocate_stmt();
+				break;
+			}
+			case DECLARE:
+			{
+				c=declare_cursor_stmt();
+				break;
+			}
+			case FETCH:
+			{
+				c=fetch_stmt();
+				break;
+			}
+			case CLOSE:
+			{
+				c=close_cursor_stmt();
+				break;
+			}
 			default:
 				if ((LA(1)==SHOW) && (LA(2)==TABLE||LA(2)==IDENT||LA(2)==QUOTED_IDENT)) {
 					c=show_stats_stmt();
@@ -252,6 +389,10 @@ public NanoSqlParser(ParserSharedInputState state) {
 			}
 			}
 			}
+			
+			if (c instanceof QueryCommand)
+			((QueryCommand) c).setPlanCacheKey(normalizedText.toString());
+			
 		}
 		catch (RecognitionException ex) {
 			reportError(ex);
@@ -356,7 +497,7 @@ public NanoSqlParser(ParserSharedInputState state) {
 		c = null;
 		String name = null;
 		ArrayList<String> cols = null;
-		ArrayList<Expression> exprs = null;
+		ArrayList<List<Expression>> rows = null;
 		SelectClause sc = null;
 		
 		
@@ -369,8 +510,8 @@ public NanoSqlParser(ParserSharedInputState state) {
 			switch ( LA(1)) {
 			case VALUES:
 			{
-				exprs=insert_vals();
-				c = new InsertCommand(name, cols, exprs);
+				rows=insert_vals();
+				c = new InsertCommand(name, cols, rows);
 				break;
 			}
 			case SELECT:
@@ -414,7 +555,7 @@ public NanoSqlParser(ParserSharedInputState state) {
 			e=expression();
 			uc.addValue(name, e);
 			{
-			_loop123:
+			_loop129:
 			do {
 				if ((LA(1)==COMMA)) {
 					match(COMMA);
@@ -424,7 +565,7 @@ public NanoSqlParser(ParserSharedInputState state) {
 					uc.addValue(name, e);
 				}
 				else {
-					break _loop123;
+					break _loop129;
 				}
 				
 			} while (true);
@@ -498,6 +639,79 @@ public NanoSqlParser(ParserSharedInputState state) {
 		return c;
 	}
 	
+	public final CopyCommand  copy_stmt() throws RecognitionException, TokenStreamException {
+		CopyCommand c;
+		
+		Token  f = null;
+		Token  d = null;
+		
+		c = null;
+		String name = null;
+		boolean header = false;
+		char delimiter = ',';
+		
+		
+		try {      // for error handling
+			match(COPY);
+			name=dbobj_ident();
+			match(FROM);
+			f = LT(1);
+			match(STRING_LITERAL);
+			{
+			switch ( LA(1)) {
+			case HEADER:
+			{
+				match(HEADER);
+				header = true;
+				break;
+			}
+			case EOF:
+			case DELIMITER:
+			case SEMICOLON:
+			{
+				break;
+			}
+			default:
+			{
+				throw new NoViableAltException(LT(1), getFilename());
+			}
+			}
+			}
+			{
+			switch ( LA(1)) {
+			case DELIMITER:
+			{
+				match(DELIMITER);
+				d = LT(1);
+				match(STRING_LITERAL);
+				
+				if (d.getText().length() != 1)
+				throw new SemanticException("COPY delimiter must be a single character");
+				
+				delimiter = d.getText().charAt(0);
+				
+				break;
+			}
+			case EOF:
+			case SEMICOLON:
+			{
+				break;
+			}
+			default:
+			{
+				throw new NoViableAltException(LT(1), getFilename());
+			}
+			}
+			}
+			c = new CopyCommand(name, f.getText(), header, delimiter);
+		}
+		catch (RecognitionException ex) {
+			reportError(ex);
+			recover(ex,_tokenSet_1);
+		}
+		return c;
+	}
+	
 	public final BeginTransactionCommand  begin_txn_stmt() throws RecognitionException, TokenStreamException {
 		BeginTransactionCommand c;
 		
@@ -621,10 +835,14 @@ public NanoSqlParser(ParserSharedInputState state) {
 	public final AnalyzeCommand  analyze_stmt() throws RecognitionException, TokenStreamException {
 		AnalyzeCommand c;
 		
+		Token  ival = null;
+		Token  dval = null;
 		
 		c = null;
 		boolean verbose = false;
 		String tblName = null;
+		String sizeText = null;
+		AnalyzeSample.Unit unit = null;
 		
 		
 		try {      // for error handling
@@ -651,7 +869,7 @@ public NanoSqlParser(ParserSharedInputState state) {
 			tblName=dbobj_ident();
 			c = new AnalyzeCommand(tblName, verbose);
 			{
-			_loop137:
+			_loop154:
 			do {
 				if ((LA(1)==COMMA)) {
 					match(COMMA);
@@ -659,11 +877,78 @@ public NanoSqlParser(ParserSharedInputState state) {
 					c.addTable(tblName);
 				}
 				else {
-					break _loop137;
+					break _loop154;
 				}
 				
 			} while (true);
 			}
+			{
+			switch ( LA(1)) {
+			case SAMPLE:
+			{
+				match(SAMPLE);
+				{
+				switch ( LA(1)) {
+				case INT_LITERAL:
+				{
+					ival = LT(1);
+					match(INT_LITERAL);
+					sizeText = ival.getText();
+					break;
+				}
+				case DEC_LITERAL:
+				{
+					dval = LT(1);
+					match(DEC_LITERAL);
+					sizeText = dval.getText();
+					break;
+				}
+				default:
+				{
+					throw new NoViableAltException(LT(1), getFilename());
+				}
+				}
+				}
+				{
+				switch ( LA(1)) {
+				case PERCENT:
+				{
+					match(PERCENT);
+					unit = AnalyzeSample.Unit.PERCENT;
+					break;
+				}
+				case ROWS:
+				{
+					match(ROWS);
+					unit = AnalyzeSample.Unit.ROWS;
+					break;
+				}
+				default:
+				{
+					throw new NoViableAltException(LT(1), getFilename());
+				}
+				}
+				}
+				
+				double size = Double.parseDouble(sizeText);
+				if (size <= 0 || (unit == AnalyzeSample.Unit.PERCENT && size > 100))
+				throw new SemanticException("Invalid sample size " + sizeText + " " + unit);
+				
+				c.setSample(new AnalyzeSample(size, unit));
+				
+				break;
+			}
+			case EOF:
+			case SEMICOLON:
+			{
+				break;
+			}
+			default:
+			{
+				throw new NoViableAltException(LT(1), getFilename());
+			}
+			}
+			}
 		}
 		catch (RecognitionException ex) {
 			reportError(ex);
@@ -892,7 +1177,7 @@ public NanoSqlParser(ParserSharedInputState state) {
 			tblName=dbobj_ident();
 			c = new VerifyCommand(tblName);
 			{
-			_loop148:
+			_loop168:
 			do {
 				if ((LA(1)==COMMA)) {
 					match(COMMA);
@@ -900,7 +1185,7 @@ public NanoSqlParser(ParserSharedInputState state) {
 					c.addTable(tblName);
 				}
 				else {
-					break _loop148;
+					break _loop168;
 				}
 				
 			} while (true);
@@ -926,7 +1211,7 @@ public NanoSqlParser(ParserSharedInputState state) {
 			tblName=dbobj_ident();
 			c = new OptimizeCommand(tblName);
 			{
-			_loop151:
+			_loop171:
 			do {
 				if ((LA(1)==COMMA)) {
 					match(COMMA);
@@ -934,7 +1219,7 @@ public NanoSqlParser(ParserSharedInputState state) {
 					c.addTable(tblName);
 				}
 				else {
-					break _loop151;
+					break _loop171;
 				}
 				
 			} while (true);
@@ -1005,28 +1290,291 @@ public NanoSqlParser(ParserSharedInputState state) {
 		return c;
 	}
 	
-	public final ShowVariablesCommand  show_vars_stmt() throws RecognitionException, TokenStreamException {
-		ShowVariablesCommand c;
+	public final ShowVariablesCommand  show_vars_stmt() throws RecognitionException, TokenStreamException {
+		ShowVariablesCommand c;
+		
+		Token  s = null;
+		c = null;
+		
+		try {      // for error handling
+			match(SHOW);
+			match(VARIABLES);
+			c = new ShowVariablesCommand();
+			{
+			switch ( LA(1)) {
+			case LIKE:
+			{
+				match(LIKE);
+				s = LT(1);
+				match(STRING_LITERAL);
+				c.setFilter(s.getText());
+				break;
+			}
+			case EOF:
+			case SEMICOLON:
+			{
+				break;
+			}
+			default:
+			{
+				throw new NoViableAltException(LT(1), getFilename());
+			}
+			}
+			}
+		}
+		catch (RecognitionException ex) {
+			reportError(ex);
+			recover(ex,_tokenSet_1);
+		}
+		return c;
+	}
+	
+	public final SetVariableCommand  set_var_stmt() throws RecognitionException, TokenStreamException {
+		SetVariableCommand c;
+		
+		Token  n = null;
+		
+		c = null;
+		Expression e = null;
+		
+		
+		try {      // for error handling
+			match(SET);
+			match(VARIABLE);
+			n = LT(1);
+			match(STRING_LITERAL);
+			match(EQUALS);
+			e=expression();
+			c = new SetVariableCommand(n.getText(), e);
+		}
+		catch (RecognitionException ex) {
+			reportError(ex);
+			recover(ex,_tokenSet_1);
+		}
+		return c;
+	}
+	
+	public final PrepareCommand  prepare_stmt() throws RecognitionException, TokenStreamException {
+		PrepareCommand c;
+		
+		
+		c = null;
+		String name = null;
+		QueryCommand qc = null;
+		int start = 0;
+		
+		
+		try {      // for error handling
+			match(PREPARE);
+			name=dbobj_ident();
+			match(AS);
+			start = normalizedText.length();
+			{
+			switch ( LA(1)) {
+			case SELECT:
+			case WITH:
+			{
+				qc=select_stmt();
+				break;
+			}
+			case INSERT:
+			{
+				qc=insert_stmt();
+				break;
+			}
+			case UPDATE:
+			{
+				qc=update_stmt();
+				break;
+			}
+			case DELETE:
+			{
+				qc=delete_stmt();
+				break;
+			}
+			default:
+			{
+				throw new NoViableAltException(LT(1), getFilename());
+			}
+			}
+			}
+			
+			qc.setPlanCacheKey(normalizedText.substring(start).trim());
+			c = new PrepareCommand(name, qc, maxParamIndex);
+			
+		}
+		catch (RecognitionException ex) {
+			reportError(ex);
+			recover(ex,_tokenSet_1);
+		}
+		return c;
+	}
+	
+	public final ExecuteCommand  execute_stmt() throws RecognitionException, TokenStreamException {
+		ExecuteCommand c;
+		
+		
+		c = null;
+		String name = null;
+		ArrayList<Expression> args = new ArrayList<Expression>();
+		
+		
+		try {      // for error handling
+			match(EXECUTE);
+			name=dbobj_ident();
+			{
+			switch ( LA(1)) {
+			case LPAREN:
+			{
+				args=expr_list();
+				break;
+			}
+			case EOF:
+			case SEMICOLON:
+			{
+				break;
+			}
+			default:
+			{
+				throw new NoViableAltException(LT(1), getFilename());
+			}
+			}
+			}
+			
+			if (maxParamIndex > 0)
+			throw new SemanticException("EXECUTE arguments cannot contain parameters");
+			
+			c = new ExecuteCommand(name, args);
+			
+		}
+		catch (RecognitionException ex) {
+			reportError(ex);
+			recover(ex,_tokenSet_1);
+		}
+		return c;
+	}
+	
+	public final DeallocateCommand  deallocate_stmt() throws RecognitionException, TokenStreamException {
+		DeallocateCommand c;
+		
+		
+		c = null;
+		String name = null;
+		
+		
+		try {      // for error handling
+			match(DEALLOCATE);
+			{
+			switch ( LA(1)) {
+			case PREPARE:
+			{
+				match(PREPARE);
+				break;
+			}
+			case IDENT:
+			case QUOTED_IDENT:
+			{
+				break;
+			}
+			default:
+			{
+				throw new NoViableAltException(LT(1), getFilename());
+			}
+			}
+			}
+			name=dbobj_ident();
+			c = new DeallocateCommand(name);
+		}
+		catch (RecognitionException ex) {
+			reportError(ex);
+			recover(ex,_tokenSet_1);
+		}
+		return c;
+	}
+	
+	public final DeclareCursorCommand  declare_cursor_stmt() throws RecognitionException, TokenStreamException {
+		DeclareCursorCommand c;
+		
+		
+		c = null;
+		String name = null;
+		QueryCommand qc = null;
+		
+		
+		try {      // for error handling
+			match(DECLARE);
+			name=dbobj_ident();
+			match(CURSOR);
+			match(FOR);
+			qc=select_stmt();
+			
+			if (maxParamIndex > 0)
+			throw new SemanticException("Cursor queries cannot contain parameters");
+			
+			c = new DeclareCursorCommand(name, (SelectCommand) qc);
+			
+		}
+		catch (RecognitionException ex) {
+			reportError(ex);
+			recover(ex,_tokenSet_1);
+		}
+		return c;
+	}
+	
+	public final FetchCommand  fetch_stmt() throws RecognitionException, TokenStreamException {
+		FetchCommand c;
+		
+		Token  n = null;
 		
-		Token  s = null;
 		c = null;
+		String name = null;
+		long count = 1;
+		
 		
 		try {      // for error handling
-			match(SHOW);
-			match(VARIABLES);
-			c = new ShowVariablesCommand();
+			match(FETCH);
 			{
 			switch ( LA(1)) {
-			case LIKE:
+			case INT_LITERAL:
 			{
-				match(LIKE);
-				s = LT(1);
-				match(STRING_LITERAL);
-				c.setFilter(s.getText());
+				n = LT(1);
+				match(INT_LITERAL);
+				count = Long.parseLong(n.getText());
 				break;
 			}
-			case EOF:
-			case SEMICOLON:
+			case ALL:
+			{
+				match(ALL);
+				count = Long.MAX_VALUE;
+				break;
+			}
+			case FROM:
+			case IN:
+			case IDENT:
+			case QUOTED_IDENT:
+			{
+				break;
+			}
+			default:
+			{
+				throw new NoViableAltException(LT(1), getFilename());
+			}
+			}
+			}
+			{
+			switch ( LA(1)) {
+			case FROM:
+			{
+				match(FROM);
+				break;
+			}
+			case IN:
+			{
+				match(IN);
+				break;
+			}
+			case IDENT:
+			case QUOTED_IDENT:
 			{
 				break;
 			}
@@ -1036,6 +1584,8 @@ public NanoSqlParser(ParserSharedInputState state) {
 			}
 			}
 			}
+			name=dbobj_ident();
+			c = new FetchCommand(name, count);
 		}
 		catch (RecognitionException ex) {
 			reportError(ex);
@@ -1044,23 +1594,18 @@ public NanoSqlParser(ParserSharedInputState state) {
 		return c;
 	}
 	
-	public final SetVariableCommand  set_var_stmt() throws RecognitionException, TokenStreamException {
-		SetVariableCommand c;
+	public final CloseCursorCommand  close_cursor_stmt() throws RecognitionException, TokenStreamException {
+		CloseCursorCommand c;
 		
-		Token  n = null;
 		
 		c = null;
-		Expression e = null;
+		String name = null;
 		
 		
 		try {      // for error handling
-			match(SET);
-			match(VARIABLE);
-			n = LT(1);
-			match(STRING_LITERAL);
-			match(EQUALS);
-			e=expression();
-			c = new SetVariableCommand(n.getText(), e);
+			match(CLOSE);
+			name=dbobj_ident();
+			c = new CloseCursorCommand(name);
 		}
 		catch (RecognitionException ex) {
 			reportError(ex);
@@ -1157,6 +1702,7 @@ public NanoSqlParser(ParserSharedInputState state) {
 			case OFFSET:
 			case OR:
 			case ORDER:
+			case PERCENT:
 			case RIGHT:
 			case SIMILAR:
 			case WHERE:
@@ -1174,7 +1720,6 @@ public NanoSqlParser(ParserSharedInputState state) {
 			case LESS_EQUAL:
 			case PLUS:
 			case SLASH:
-			case PERCENT:
 			{
 				break;
 			}
@@ -2304,6 +2849,8 @@ public NanoSqlParser(ParserSharedInputState state) {
 			case STAR:
 			case STRING_LITERAL:
 			case PLUS:
+			case QUESTION:
+			case PARAM:
 			{
 				break;
 			}
@@ -2691,6 +3238,8 @@ public NanoSqlParser(ParserSharedInputState state) {
 			case LPAREN:
 			case STRING_LITERAL:
 			case PLUS:
+			case QUESTION:
+			case PARAM:
 			{
 				e=expression();
 				{
@@ -3068,6 +3617,8 @@ public NanoSqlParser(ParserSharedInputState state) {
 					case LPAREN:
 					case STRING_LITERAL:
 					case PLUS:
+					case QUESTION:
+					case PARAM:
 					{
 						e=expression();
 						args = new ArrayList<Expression>(); args.add(e);
@@ -3285,7 +3836,41 @@ public NanoSqlParser(ParserSharedInputState state) {
 		return cols;
 	}
 	
-	public final ArrayList<Expression>  insert_vals() throws RecognitionException, TokenStreamException {
+	public final ArrayList<List<Expression>>  insert_vals() throws RecognitionException, TokenStreamException {
+		ArrayList<List<Expression>> rows;
+		
+		
+		rows = new ArrayList<List<Expression>>();
+		ArrayList<Expression> exprs = null;
+		
+		
+		try {      // for error handling
+			match(VALUES);
+			exprs=insert_row();
+			rows.add(exprs);
+			{
+			_loop120:
+			do {
+				if ((LA(1)==COMMA)) {
+					match(COMMA);
+					exprs=insert_row();
+					rows.add(exprs);
+				}
+				else {
+					break _loop120;
+				}
+				
+			} while (true);
+			}
+		}
+		catch (RecognitionException ex) {
+			reportError(ex);
+			recover(ex,_tokenSet_1);
+		}
+		return rows;
+	}
+	
+	public final ArrayList<Expression>  insert_row() throws RecognitionException, TokenStreamException {
 		ArrayList<Expression> exprs;
 		
 		
@@ -3294,12 +3879,11 @@ public NanoSqlParser(ParserSharedInputState state) {
 		
 		
 		try {      // for error handling
-			match(VALUES);
 			match(LPAREN);
 			e=expression();
 			exprs.add(e);
 			{
-			_loop120:
+			_loop123:
 			do {
 				if ((LA(1)==COMMA)) {
 					match(COMMA);
@@ -3307,7 +3891,7 @@ public NanoSqlParser(ParserSharedInputState state) {
 					exprs.add(e);
 				}
 				else {
-					break _loop120;
+					break _loop123;
 				}
 				
 			} while (true);
@@ -3316,7 +3900,74 @@ public NanoSqlParser(ParserSharedInputState state) {
 		}
 		catch (RecognitionException ex) {
 			reportError(ex);
-			recover(ex,_tokenSet_1);
+			recover(ex,_tokenSet_17);
+		}
+		return exprs;
+	}
+	
+	public final ArrayList<Expression>  expr_list() throws RecognitionException, TokenStreamException {
+		ArrayList<Expression> exprs;
+		
+		
+		exprs = new ArrayList<Expression>();
+		Expression e = null;
+		
+		
+		try {      // for error handling
+			match(LPAREN);
+			{
+			switch ( LA(1)) {
+			case EXISTS:
+			case FALSE:
+			case MINUS:
+			case NOT:
+			case NULL:
+			case TRUE:
+			case INT_LITERAL:
+			case LONG_LITERAL:
+			case FLOAT_LITERAL:
+			case DEC_LITERAL:
+			case IDENT:
+			case QUOTED_IDENT:
+			case LPAREN:
+			case STRING_LITERAL:
+			case PLUS:
+			case QUESTION:
+			case PARAM:
+			{
+				e=expression();
+				exprs.add(e);
+				{
+				_loop185:
+				do {
+					if ((LA(1)==COMMA)) {
+						match(COMMA);
+						e=expression();
+						exprs.add(e);
+					}
+					else {
+						break _loop185;
+					}
+					
+				} while (true);
+				}
+				break;
+			}
+			case RPAREN:
+			{
+				break;
+			}
+			default:
+			{
+				throw new NoViableAltException(LT(1), getFilename());
+			}
+			}
+			}
+			match(RPAREN);
+		}
+		catch (RecognitionException ex) {
+			reportError(ex);
+			recover(ex,_tokenSet_18);
 		}
 		return exprs;
 	}
@@ -3401,7 +4052,7 @@ public NanoSqlParser(ParserSharedInputState state) {
 		try {      // for error handling
 			e=logical_and_expr();
 			{
-			_loop168:
+			_loop188:
 			do {
 				if ((LA(1)==OR)) {
 					match(OR);
@@ -3421,7 +4072,7 @@ public NanoSqlParser(ParserSharedInputState state) {
 					
 				}
 				else {
-					break _loop168;
+					break _loop188;
 				}
 				
 			} while (true);
@@ -3434,71 +4085,6 @@ public NanoSqlParser(ParserSharedInputState state) {
 		return e;
 	}
 	
-	public final ArrayList<Expression>  expr_list() throws RecognitionException, TokenStreamException {
-		ArrayList<Expression> exprs;
-		
-		
-		exprs = new ArrayList<Expression>();
-		Expression e = null;
-		
-		
-		try {      // for error handling
-			match(LPAREN);
-			{
-			switch ( LA(1)) {
-			case EXISTS:
-			case FALSE:
-			case MINUS:
-			case NOT:
-			case NULL:
-			case TRUE:
-			case INT_LITERAL:
-			case LONG_LITERAL:
-			case FLOAT_LITERAL:
-			case DEC_LITERAL:
-			case IDENT:
-			case QUOTED_IDENT:
-			case LPAREN:
-			case STRING_LITERAL:
-			case PLUS:
-			{
-				e=expression();
-				exprs.add(e);
-				{
-				_loop165:
-				do {
-					if ((LA(1)==COMMA)) {
-						match(COMMA);
-						e=expression();
-						exprs.add(e);
-					}
-					else {
-						break _loop165;
-					}
-					
-				} while (true);
-				}
-				break;
-			}
-			case RPAREN:
-			{
-				break;
-			}
-			default:
-			{
-				throw new NoViableAltException(LT(1), getFilename());
-			}
-			}
-			}
-			match(RPAREN);
-		}
-		catch (RecognitionException ex) {
-			reportError(ex);
-			recover(ex,_tokenSet_17);
-		}
-		return exprs;
-	}
-	
 	public final Expression  logical_and_expr() throws RecognitionException, TokenStreamException {
 		Expression e;
 		
@@ -3511,7 +4097,7 @@ public NanoSqlParser(ParserSharedInputState state) {
 		try {      // for error handling
 			e=logical_not_expr();
 			{
-			_loop171:
+			_loop191:
 			do {
 				if ((LA(1)==AND)) {
 					match(AND);
@@ -3531,7 +4117,7 @@ public NanoSqlParser(ParserSharedInputState state) {
 					
 				}
 				else {
-					break _loop171;
+					break _loop191;
 				}
 				
 			} while (true);
@@ -3539,7 +4125,7 @@ public NanoSqlParser(ParserSharedInputState state) {
 		}
 		catch (RecognitionException ex) {
 			reportError(ex);
-			recover(ex,_tokenSet_18);
+			recover(ex,_tokenSet_19);
 		}
 		return e;
 	}
@@ -3576,6 +4162,8 @@ public NanoSqlParser(ParserSharedInputState state) {
 			case LPAREN:
 			case STRING_LITERAL:
 			case PLUS:
+			case QUESTION:
+			case PARAM:
 			{
 				break;
 			}
@@ -3600,6 +4188,8 @@ public NanoSqlParser(ParserSharedInputState state) {
 			case LPAREN:
 			case STRING_LITERAL:
 			case PLUS:
+			case QUESTION:
+			case PARAM:
 			{
 				e=relational_expr();
 				break;
@@ -3625,7 +4215,7 @@ public NanoSqlParser(ParserSharedInputState state) {
 		}
 		catch (RecognitionException ex) {
 			reportError(ex);
-			recover(ex,_tokenSet_17);
+			recover(ex,_tokenSet_18);
 		}
 		return e;
 	}
@@ -3819,7 +4409,7 @@ public NanoSqlParser(ParserSharedInputState state) {
 					{
 					match(IN);
 					{
-					if ((LA(1)==LPAREN) && (_tokenSet_19.member(LA(2)))) {
+					if ((LA(1)==LPAREN) && (_tokenSet_20.member(LA(2)))) {
 						values=expr_list();
 						e = new InValuesOperator(e, values);
 					}
@@ -3891,7 +4481,7 @@ public NanoSqlParser(ParserSharedInputState state) {
 		}
 		catch (RecognitionException ex) {
 			reportError(ex);
-			recover(ex,_tokenSet_17);
+			recover(ex,_tokenSet_18);
 		}
 		return e;
 	}
@@ -3910,7 +4500,7 @@ public NanoSqlParser(ParserSharedInputState state) {
 		}
 		catch (RecognitionException ex) {
 			reportError(ex);
-			recover(ex,_tokenSet_17);
+			recover(ex,_tokenSet_18);
 		}
 		return e;
 	}
@@ -3931,7 +4521,7 @@ public NanoSqlParser(ParserSharedInputState state) {
 		try {      // for error handling
 			e=mult_expr();
 			{
-			_loop192:
+			_loop212:
 			do {
 				if ((LA(1)==MINUS||LA(1)==PLUS)) {
 					{
@@ -3958,7 +4548,7 @@ public NanoSqlParser(ParserSharedInputState state) {
 					e = new ArithmeticOperator(mathType, e, e2);
 				}
 				else {
-					break _loop192;
+					break _loop212;
 				}
 				
 			} while (true);
@@ -3966,7 +4556,7 @@ public NanoSqlParser(ParserSharedInputState state) {
 		}
 		catch (RecognitionException ex) {
 			reportError(ex);
-			recover(ex,_tokenSet_20);
+			recover(ex,_tokenSet_21);
 		}
 		return e;
 	}
@@ -3987,9 +4577,9 @@ public NanoSqlParser(ParserSharedInputState state) {
 		try {      // for error handling
 			e=unary_op_expr();
 			{
-			_loop196:
+			_loop216:
 			do {
-				if ((LA(1)==STAR||LA(1)==SLASH||LA(1)==PERCENT)) {
+				if ((LA(1)==PERCENT||LA(1)==STAR||LA(1)==SLASH)) {
 					{
 					switch ( LA(1)) {
 					case STAR:
@@ -4020,7 +4610,7 @@ public NanoSqlParser(ParserSharedInputState state) {
 					e = new ArithmeticOperator(mathType, e, e2);
 				}
 				else {
-					break _loop196;
+					break _loop216;
 				}
 				
 			} while (true);
@@ -4028,7 +4618,7 @@ public NanoSqlParser(ParserSharedInputState state) {
 		}
 		catch (RecognitionException ex) {
 			reportError(ex);
-			recover(ex,_tokenSet_21);
+			recover(ex,_tokenSet_22);
 		}
 		return e;
 	}
@@ -4070,6 +4660,8 @@ public NanoSqlParser(ParserSharedInputState state) {
 			case QUOTED_IDENT:
 			case LPAREN:
 			case STRING_LITERAL:
+			case QUESTION:
+			case PARAM:
 			{
 				e=base_expr();
 				break;
@@ -4090,6 +4682,7 @@ public NanoSqlParser(ParserSharedInputState state) {
 	public final Expression  base_expr() throws RecognitionException, TokenStreamException {
 		Expression e;
 		
+		Token  p = null;
 		
 		e = null;
 		ColumnName cn = null;
@@ -4110,6 +4703,25 @@ public NanoSqlParser(ParserSharedInputState state) {
 				e=literal_expr();
 				break;
 			}
+			case QUESTION:
+			{
+				match(QUESTION);
+				e = makeParameter(0);
+				break;
+			}
+			case PARAM:
+			{
+				p = LT(1);
+				match(PARAM);
+				
+				int index = Integer.parseInt(p.getText());
+				if (index < 1)
+				throw new SemanticException("Invalid parameter $" + p.getText());
+				
+				e = makeParameter(index);
+				
+				break;
+			}
 			case LPAREN:
 			{
 				match(LPAREN);
@@ -4130,6 +4742,8 @@ public NanoSqlParser(ParserSharedInputState state) {
 				case LPAREN:
 				case STRING_LITERAL:
 				case PLUS:
+				case QUESTION:
+				case PARAM:
 				{
 					e=logical_or_expr();
 					break;
@@ -4151,7 +4765,7 @@ public NanoSqlParser(ParserSharedInputState state) {
 				break;
 			}
 			default:
-				if ((LA(1)==IDENT||LA(1)==QUOTED_IDENT) && (_tokenSet_22.member(LA(2)))) {
+				if ((LA(1)==IDENT||LA(1)==QUOTED_IDENT) && (_tokenSet_23.member(LA(2)))) {
 					cn=column_name();
 					e = new ColumnValue(cn);
 				}
@@ -4211,6 +4825,8 @@ public NanoSqlParser(ParserSharedInputState state) {
 			case STAR:
 			case STRING_LITERAL:
 			case PLUS:
+			case QUESTION:
+			case PARAM:
 			{
 				{
 				switch ( LA(1)) {
@@ -4230,6 +4846,8 @@ public NanoSqlParser(ParserSharedInputState state) {
 				case LPAREN:
 				case STRING_LITERAL:
 				case PLUS:
+				case QUESTION:
+				case PARAM:
 				{
 					{
 					switch ( LA(1)) {
@@ -4254,6 +4872,8 @@ public NanoSqlParser(ParserSharedInputState state) {
 					case LPAREN:
 					case STRING_LITERAL:
 					case PLUS:
+					case QUESTION:
+					case PARAM:
 					{
 						break;
 					}
@@ -4266,7 +4886,7 @@ public NanoSqlParser(ParserSharedInputState state) {
 					e=expression();
 					args.add(e);
 					{
-					_loop207:
+					_loop227:
 					do {
 						if ((LA(1)==COMMA)) {
 							match(COMMA);
@@ -4274,7 +4894,7 @@ public NanoSqlParser(ParserSharedInputState state) {
 							args.add(e);
 						}
 						else {
-							break _loop207;
+							break _loop227;
 						}
 						
 					} while (true);
@@ -4347,31 +4967,41 @@ public NanoSqlParser(ParserSharedInputState state) {
 		"\"between\"",
 		"\"by\"",
 		"\"cascade\"",
+		"\"close\"",
 		"\"column\"",
 		"\"commit\"",
 		"\"constraint\"",
+		"\"copy\"",
 		"\"crash\"",
 		"\"create\"",
 		"\"cross\"",
+		"\"cursor\"",
+		"\"deallocate\"",
+		"\"declare\"",
 		"\"default\"",
 		"\"delete\"",
+		"\"delimiter\"",
 		"\"desc\"",
 		"\"distinct\"",
 		"\"drop\"",
 		"\"dump\"",
 		"\"except\"",
+		"\"execute\"",
 		"\"exists\"",
 		"\"exit\"",
 		"\"explain\"",
 		"\"false\"",
+		"\"fetch\"",
 		"\"file\"",
 		"\"flush\"",
+		"\"for\"",
 		"\"foreign\"",
 		"\"format\"",
 		"\"from\"",
 		"\"full\"",
 		"\"group\"",
 		"\"having\"",
+		"\"header\"",
 		"\"if\"",
 		"\"in\"",
 		"\"index\"",
@@ -4395,6 +5025,8 @@ public NanoSqlParser(ParserSharedInputState state) {
 		"\"or\"",
 		"\"order\"",
 		"\"outer\"",
+		"\"percent\"",
+		"\"prepare\"",
 		"\"primary\"",
 		"\"properties\"",
 		"\"quit\"",
@@ -4403,6 +5035,8 @@ public NanoSqlParser(ParserSharedInputState state) {
 		"\"restrict\"",
 		"\"right\"",
 		"\"rollback\"",
+		"\"rows\"",
+		"\"sample\"",
 		"\"select\"",
 		"\"set\"",
 		"\"show\"",
@@ -4469,7 +5103,8 @@ public NanoSqlParser(ParserSharedInputState state) {
 		"LESS_EQUAL",
 		"PLUS",
 		"SLASH",
-		"PERCENT",
+		"QUESTION",
+		"PARAM",
 		"COLON",
 		"NEWLINE",
 		"WS",
@@ -4484,114 +5119,119 @@ public NanoSqlParser(ParserSharedInputState state) {
 	}
 	public static final BitSet _tokenSet_0 = new BitSet(mk_tokenSet_0());
 	private static final long[] mk_tokenSet_1() {
-		long[] data = { 2L, 144115188075855872L, 0L, 0L};
+		long[] data = { 2L, 0L, 128L, 0L, 0L, 0L};
 		return data;
 	}
 	public static final BitSet _tokenSet_1 = new BitSet(mk_tokenSet_1());
 	private static final long[] mk_tokenSet_2() {
-		long[] data = { 7924952089843739906L, -1224979085659059392L, 2043L, 0L, 0L, 0L};
+		long[] data = { -1417543165988033278L, 212757964391863L, 16710592L, 0L, 0L, 0L};
 		return data;
 	}
 	public static final BitSet _tokenSet_2 = new BitSet(mk_tokenSet_2());
 	private static final long[] mk_tokenSet_3() {
-		long[] data = { 7348491268820839682L, -3602879697601427392L, 2043L, 0L, 0L, 0L};
+		long[] data = { -1417578350376899326L, 70368777995671L, 16708480L, 0L, 0L, 0L};
 		return data;
 	}
 	public static final BitSet _tokenSet_3 = new BitSet(mk_tokenSet_3());
 	private static final long[] mk_tokenSet_4() {
-		long[] data = { 2L, 144115188075855874L, 0L, 0L};
+		long[] data = { 2L, 8192L, 128L, 0L, 0L, 0L};
 		return data;
 	}
 	public static final BitSet _tokenSet_4 = new BitSet(mk_tokenSet_4());
 	private static final long[] mk_tokenSet_5() {
-		long[] data = { 72057594038190080L, 4194313L, 0L, 0L};
+		long[] data = { 524288L, 68719513604L, 0L, 0L};
 		return data;
 	}
 	public static final BitSet _tokenSet_5 = new BitSet(mk_tokenSet_5());
 	private static final long[] mk_tokenSet_6() {
-		long[] data = { 0L, -4611686018427387904L, 0L, 0L};
+		long[] data = { 0L, 0L, 12288L, 0L, 0L, 0L};
 		return data;
 	}
 	public static final BitSet _tokenSet_6 = new BitSet(mk_tokenSet_6());
 	private static final long[] mk_tokenSet_7() {
-		long[] data = { 34360000514L, 432345564248539139L, 0L, 0L};
+		long[] data = { 17592186568706L, 343597395968L, 384L, 0L, 0L, 0L};
 		return data;
 	}
 	public static final BitSet _tokenSet_7 = new BitSet(mk_tokenSet_7());
 	private static final long[] mk_tokenSet_8() {
-		long[] data = { 72057594038190080L, -4611686018423193591L, 0L, 0L};
+		long[] data = { 524288L, 68719513604L, 12288L, 0L, 0L, 0L};
 		return data;
 	}
 	public static final BitSet _tokenSet_8 = new BitSet(mk_tokenSet_8());
 	private static final long[] mk_tokenSet_9() {
-		long[] data = { 2L, -9079256848778919936L, 0L, 0L};
+		long[] data = { 2L, 0L, 8320L, 0L, 0L, 0L};
 		return data;
 	}
 	public static final BitSet _tokenSet_9 = new BitSet(mk_tokenSet_9());
 	private static final long[] mk_tokenSet_10() {
-		long[] data = { 4908924281028608002L, -4467570826056564736L, 0L, 0L};
+		long[] data = { -9223020193133887486L, 70368744177936L, 12416L, 0L, 0L, 0L};
 		return data;
 	}
 	public static final BitSet _tokenSet_10 = new BitSet(mk_tokenSet_10());
 	private static final long[] mk_tokenSet_11() {
-		long[] data = { 4908924143589654530L, -9079256844483952640L, 0L, 0L};
+		long[] data = { -9223090561878065150L, 70368744177936L, 8320L, 0L, 0L, 0L};
 		return data;
 	}
 	public static final BitSet _tokenSet_11 = new BitSet(mk_tokenSet_11());
 	private static final long[] mk_tokenSet_12() {
-		long[] data = { 4947786794409135106L, -3602879697601429440L, 0L, 0L};
+		long[] data = { -6321998344583377918L, 70368744440082L, 13184L, 0L, 0L, 0L};
 		return data;
 	}
 	public static final BitSet _tokenSet_12 = new BitSet(mk_tokenSet_12());
 	private static final long[] mk_tokenSet_13() {
-		long[] data = { 38861413852119040L, 64L, 0L, 0L};
+		long[] data = { 2900458897523343360L, 262146L, 0L, 0L};
 		return data;
 	}
 	public static final BitSet _tokenSet_13 = new BitSet(mk_tokenSet_13());
 	private static final long[] mk_tokenSet_14() {
-		long[] data = { 4908924143589654530L, -4467570826056564736L, 0L, 0L};
+		long[] data = { -9223090561878065150L, 70368744177936L, 12416L, 0L, 0L, 0L};
 		return data;
 	}
 	public static final BitSet _tokenSet_14 = new BitSet(mk_tokenSet_14());
 	private static final long[] mk_tokenSet_15() {
-		long[] data = { 5524246309745197058L, -4467570826023010240L, 0L, 0L};
+		long[] data = { -6322631664354721790L, 70918500254002L, 12416L, 0L, 0L, 0L};
 		return data;
 	}
 	public static final BitSet _tokenSet_15 = new BitSet(mk_tokenSet_15());
 	private static final long[] mk_tokenSet_16() {
-		long[] data = { 0L, 8657043712L, 0L, 0L};
+		long[] data = { 0L, 141837004177408L, 0L, 0L};
 		return data;
 	}
 	public static final BitSet _tokenSet_16 = new BitSet(mk_tokenSet_16());
 	private static final long[] mk_tokenSet_17() {
-		long[] data = { 7253629803622829314L, -3602879697601429440L, 0L, 0L};
+		long[] data = { 2L, 0L, 4224L, 0L, 0L, 0L};
 		return data;
 	}
 	public static final BitSet _tokenSet_17 = new BitSet(mk_tokenSet_17());
 	private static final long[] mk_tokenSet_18() {
-		long[] data = { 7253629803622829058L, -3602879697601429440L, 0L, 0L};
+		long[] data = { -6321998344583377662L, 70368744440210L, 13184L, 0L, 0L, 0L};
 		return data;
 	}
 	public static final BitSet _tokenSet_18 = new BitSet(mk_tokenSet_18());
 	private static final long[] mk_tokenSet_19() {
-		long[] data = { 234187185455104000L, -5985283904774864896L, 260L, 0L, 0L, 0L};
+		long[] data = { -6321998344583377918L, 70368744440210L, 13184L, 0L, 0L, 0L};
 		return data;
 	}
 	public static final BitSet _tokenSet_19 = new BitSet(mk_tokenSet_19());
 	private static final long[] mk_tokenSet_20() {
-		long[] data = { 7330476870311357698L, -3602879697601427392L, 249L, 0L, 0L, 0L};
+		long[] data = { 618475290624L, 8589934605L, 54602556L, 0L, 0L, 0L};
 		return data;
 	}
 	public static final BitSet _tokenSet_20 = new BitSet(mk_tokenSet_20());
 	private static final long[] mk_tokenSet_21() {
-		long[] data = { 7348491268820839682L, -3602879697601427392L, 505L, 0L, 0L, 0L};
+		long[] data = { -1417578350376899326L, 70368777994646L, 4092800L, 0L, 0L, 0L};
 		return data;
 	}
 	public static final BitSet _tokenSet_21 = new BitSet(mk_tokenSet_21());
 	private static final long[] mk_tokenSet_22() {
-		long[] data = { 7348491268820839682L, -3530822103563499456L, 2043L, 0L, 0L, 0L};
+		long[] data = { -1417578350376899326L, 70368777994647L, 8287104L, 0L, 0L, 0L};
 		return data;
 	}
 	public static final BitSet _tokenSet_22 = new BitSet(mk_tokenSet_22());
+	private static final long[] mk_tokenSet_23() {
+		long[] data = { -1417578350376899326L, 70368777995671L, 16708544L, 0L, 0L, 0L};
+		return data;
+	}
+	public static final BitSet _tokenSet_23 = new BitSet(mk_tokenSet_23());
 	
 	}
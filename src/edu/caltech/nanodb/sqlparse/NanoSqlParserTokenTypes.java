@@ -13,6 +13,7 @@
   import edu.caltech.nanodb.expressions.*;
   import edu.caltech.nanodb.queryast.*;
   import edu.caltech.nanodb.relations.*;
+  import edu.caltech.nanodb.storage.AnalyzeSample;
 
 public interface NanoSqlParserTokenTypes {
 	int EOF = 1;
@@ -29,133 +30,148 @@ public interface NanoSqlParserTokenTypes {
 	int BETWEEN = 13;
 	int BY = 14;
 	int CASCADE = 15;
-	int COLUMN = 16;
-	int COMMIT = 17;
-	int CONSTRAINT = 18;
-	int CRASH = 19;
-	int CREATE = 20;
-	int CROSS = 21;
-	int DEFAULT = 22;
-	int DELETE = 23;
-	int DESC = 24;
-	int DISTINCT = 25;
-	int DROP = 26;
-	int DUMP = 27;
-	int EXCEPT = 28;
-	int EXISTS = 29;
-	int EXIT = 30;
-	int EXPLAIN = 31;
-	int FALSE = 32;
-	int FILE = 33;
-	int FLUSH = 34;
-	int FOREIGN = 35;
-	int FORMAT = 36;
-	int FROM = 37;
-	int FULL = 38;
-	int GROUP = 39;
-	int HAVING = 40;
-	int IF = 41;
-	int IN = 42;
-	int INDEX = 43;
-	int INNER = 44;
-	int INSERT = 45;
-	int INTERSECT = 46;
-	int INTO = 47;
-	int IS = 48;
-	int JOIN = 49;
-	int KEY = 50;
-	int LEFT = 51;
-	int LIKE = 52;
-	int LIMIT = 53;
-	int MINUS = 54;
-	int NATURAL = 55;
-	int NOT = 56;
-	int NULL = 57;
-	int OFFSET = 58;
-	int ON = 59;
-	int OPTIMIZE = 60;
-	int OR = 61;
-	int ORDER = 62;
-	int OUTER = 63;
-	int PRIMARY = 64;
-	int PROPERTIES = 65;
-	int QUIT = 66;
-	int REFERENCES = 67;
-	int RENAME = 68;
-	int RESTRICT = 69;
-	int RIGHT = 70;
-	int ROLLBACK = 71;
-	int SELECT = 72;
-	int SET = 73;
-	int SHOW = 74;
-	int SIMILAR = 75;
-	int SOME = 76;
-	int START = 77;
-	int STATS = 78;
-	int TABLE = 79;
-	int TABLES = 80;
-	int TO = 81;
-	int TRANSACTION = 82;
-	int TRUE = 83;
-	int TYPE = 84;
-	int UNION = 85;
-	int UNIQUE = 86;
-	int UNKNOWN = 87;
-	int UPDATE = 88;
-	int USING = 89;
-	int VALUES = 90;
-	int VARIABLE = 91;
-	int VARIABLES = 92;
-	int VERBOSE = 93;
-	int VERIFY = 94;
-	int VIEW = 95;
-	int WHERE = 96;
-	int WITH = 97;
-	int WORK = 98;
-	int TYPE_BIGINT = 99;
-	int TYPE_BLOB = 100;
-	int TYPE_CHAR = 101;
-	int TYPE_CHARACTER = 102;
-	int TYPE_DATE = 103;
-	int TYPE_DATETIME = 104;
-	int TYPE_DECIMAL = 105;
-	int TYPE_FLOAT = 106;
-	int TYPE_DOUBLE = 107;
-	int TYPE_INT = 108;
-	int TYPE_INTEGER = 109;
-	int TYPE_NUMERIC = 110;
-	int TYPE_TEXT = 111;
-	int TYPE_TIME = 112;
-	int TYPE_TIMESTAMP = 113;
-	int TYPE_VARCHAR = 114;
-	int TYPE_VARYING = 115;
-	int INT_LITERAL = 116;
-	int LONG_LITERAL = 117;
-	int FLOAT_LITERAL = 118;
-	int DEC_LITERAL = 119;
-	int PERIOD = 120;
-	int SEMICOLON = 121;
-	int IDENT = 122;
-	int QUOTED_IDENT = 123;
-	int TEMPORARY = 124;
-	int LPAREN = 125;
-	int COMMA = 126;
-	int RPAREN = 127;
-	int EQUALS = 128;
-	int STAR = 129;
-	int STRING_LITERAL = 130;
-	int NOT_EQUALS = 131;
-	int GRTR_THAN = 132;
-	int LESS_THAN = 133;
-	int GRTR_EQUAL = 134;
-	int LESS_EQUAL = 135;
-	int PLUS = 136;
-	int SLASH = 137;
-	int PERCENT = 138;
-	int COLON = 139;
-	int NEWLINE = 140;
-	int WS = 141;
-	int COMMENT = 142;
-	int COMPARE_OPERATOR = 143;
-	int NUM_LITERAL_OR_SYMBOL = 144;
+	int CLOSE = 16;
+	int COLUMN = 17;
+	int COMMIT = 18;
+	int CONSTRAINT = 19;
+	int COPY = 20;
+	int CRASH = 21;
+	int CREATE = 22;
+	int CROSS = 23;
+	int CURSOR = 24;
+	int DEALLOCATE = 25;
+	int DECLARE = 26;
+	int DEFAULT = 27;
+	int DELETE = 28;
+	int DELIMITER = 29;
+	int DESC = 30;
+	int DISTINCT = 31;
+	int DROP = 32;
+	int DUMP = 33;
+	int EXCEPT = 34;
+	int EXECUTE = 35;
+	int EXISTS = 36;
+	int EXIT = 37;
+	int EXPLAIN = 38;
+	int FALSE = 39;
+	int FETCH = 40;
+	int FILE = 41;
+	int FLUSH = 42;
+	int FOR = 43;
+	int FOREIGN = 44;
+	int FORMAT = 45;
+	int FROM = 46;
+	int FULL = 47;
+	int GROUP = 48;
+	int HAVING = 49;
+	int HEADER = 50;
+	int IF = 51;
+	int IN = 52;
+	int INDEX = 53;
+	int INNER = 54;
+	int INSERT = 55;
+	int INTERSECT = 56;
+	int INTO = 57;
+	int IS = 58;
+	int JOIN = 59;
+	int KEY = 60;
+	int LEFT = 61;
+	int LIKE = 62;
+	int LIMIT = 63;
+	int MINUS = 64;
+	int NATURAL = 65;
+	int NOT = 66;
+	int NULL = 67;
+	int OFFSET = 68;
+	int ON = 69;
+	int OPTIMIZE = 70;
+	int OR = 71;
+	int ORDER = 72;
+	int OUTER = 73;
+	int PERCENT = 74;
+	int PREPARE = 75;
+	int PRIMARY = 76;
+	int PROPERTIES = 77;
+	int QUIT = 78;
+	int REFERENCES = 79;
+	int RENAME = 80;
+	int RESTRICT = 81;
+	int RIGHT = 82;
+	int ROLLBACK = 83;
+	int ROWS = 84;
+	int SAMPLE = 85;
+	int SELECT = 86;
+	int SET = 87;
+	int SHOW = 88;
+	int SIMILAR = 89;
+	int SOME = 90;
+	int START = 91;
+	int STATS = 92;
+	int TABLE = 93;
+	int TABLES = 94;
+	int TO = 95;
+	int TRANSACTION = 96;
+	int TRUE = 97;
+	int TYPE = 98;
+	int UNION = 99;
+	int UNIQUE = 100;
+	int UNKNOWN = 101;
+	int UPDATE = 102;
+	int USING = 103;
+	int VALUES = 104;
+	int VARIABLE = 105;
+	int VARIABLES = 106;
+	int VERBOSE = 107;
+	int VERIFY = 108;
+	int VIEW = 109;
+	int WHERE = 110;
+	int WITH = 111;
+	int WORK = 112;
+	int TYPE_BIGINT = 113;
+	int TYPE_BLOB = 114;
+	int TYPE_CHAR = 115;
+	int TYPE_CHARACTER = 116;
+	int TYPE_DATE = 117;
+	int TYPE_DATETIME = 118;
+	int TYPE_DECIMAL = 119;
+	int TYPE_FLOAT = 120;
+	int TYPE_DOUBLE = 121;
+	int TYPE_INT = 122;
+	int TYPE_INTEGER = 123;
+	int TYPE_NUMERIC = 124;
+	int TYPE_TEXT = 125;
+	int TYPE_TIME = 126;
+	int TYPE_TIMESTAMP = 127;
+	int TYPE_VARCHAR = 128;
+	int TYPE_VARYING = 129;
+	int INT_LITERAL = 130;
+	int LONG_LITERAL = 131;
+	int FLOAT_LITERAL = 132;
+	int DEC_LITERAL = 133;
+	int PERIOD = 134;
+	int SEMICOLON = 135;
+	int IDENT = 136;
+	int QUOTED_IDENT = 137;
+	int TEMPORARY = 138;
+	int LPAREN = 139;
+	int COMMA = 140;
+	int RPAREN = 141;
+	int EQUALS = 142;
+	int STAR = 143;
+	int STRING_LITERAL = 144;
+	int NOT_EQUALS = 145;
+	int GRTR_THAN = 146;
+	int LESS_THAN = 147;
+	int GRTR_EQUAL = 148;
+	int LESS_EQUAL = 149;
+	int PLUS = 150;
+	int SLASH = 151;
+	int QUESTION = 152;
+	int PARAM = 153;
+	int COLON = 154;
+	int NEWLINE = 155;
+	int WS = 156;
+	int COMMENT = 157;
+	int COMPARE_OPERATOR = 158;
+	int NUM_LITERAL_OR_SYMBOL = 159;
 }
@@ -0,0 +1,112 @@
+package edu.caltech.nanodb.storage;
+
+
+/**
+ * This class specifies how much of a tuple file should be read when the
+ * file is analyzed, as given by the <tt>SAMPLE</tt> clause of the
+ * <tt>ANALYZE</tt> command.  A sample is either a percentage of the file's
+ * data pages, or an approximate number of rows; in both cases, whole pages
+ * are chosen at random and every tuple on a chosen page is examined, so
+ * that far fewer pages must be read than with a full scan.  The statistics
+ * computed from the sample are then scaled up to the size of the whole
+ * file.
+ * <p>
+ * Analyzing with a <tt>null</tt> sample reads the entire file.
+ *
+ * @see TupleFile#analyze(AnalyzeSample)
+ */
+public class AnalyzeSample {
+
+    /** The units that the size of a sample may be specified in. */
+    public enum Unit {
+        /** The sample size is a percentage of the file's data pages. */
+        PERCENT,
+
+        /** The sample size is an approximate number of rows. */
+        ROWS
+    }
+
+
+    /** The units that the sample size is specified in. */
+    private Unit unit;
+
+
+    /** The size of the sample, in the units given by {@link #unit}. */
+    private double size;
+
+
+    /**
+     * Initializes a sample specification.
+     *
+     * @param size the size of the sample
+     * @param unit the units that the size is specified in
+     *
+     * @throws IllegalArgumentException if the unit is <tt>null</tt>, if the
+     *         size is not positive, or if a percentage is larger than 100
+     */
+    public AnalyzeSample(double size, Unit unit) {
+        if (unit == null)
+            throw new IllegalArgumentException("unit cannot be null");
+
+        if (!(size > 0)) {
+            throw new IllegalArgumentException(
+                "sample size must be positive, got " + size);
+        }
+
+        if (unit == Unit.PERCENT && size > 100) {
+            throw new IllegalArgumentException(
+                "sample percentage cannot be larger than 100, got " + size);
+        }
+
+        this.size = size;
+        this.unit = unit;
+    }
+
+
+    /**
+     * Returns the size of the sample, in the units given by {@link #getUnit}.
+     *
+     * @return the size of the sample
+     */
+    public double getSize() {
+        return size;
+    }
+
+
+    /**
+     * Returns the units that the sample size is specified in.
+     *
+     * @return the units that the sample size is specified in
+     */
+    public Unit getUnit() {
+        return unit;
+    }
+
+
+    /**
+     * Returns true if enough data has been sampled to satisfy this sample
+     * specification.
+     *
+     * @param numSampledPages the number of data pages sampled so far
+     * @param numSampledRows the number of rows sampled so far
+     * @param numDataPages the total number of data pages in the file
+     *
+     * @return true if no more pages need to be sampled
+     */
+    public boolean isSatisfied(int numSampledPages, long numSampledRows,
+                               int numDataPages) {
+        if (unit == Unit.PERCENT)
+            return numSampledPages >= Math.ceil(numDataPages * size / 100.0);
+
+        return numSampledRows >= size;
+    }
+
+
+    @Override
+    public String toString() {
+        if (size == Math.rint(size))
+            return String.format("SAMPLE %d %s", (long) size, unit);
+
+        return String.format("SAMPLE %s %s", size, unit);
+    }
+}
@@ -3,6 +3,7 @@ package edu.caltech.nanodb.storage;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -11,6 +12,7 @@ import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
 
 import org.apache.log4j.Logger;
 
@@ -19,15 +21,38 @@ import edu.caltech.nanodb.client.SessionState;
 import edu.caltech.nanodb.expressions.TypeCastException;
 
 import edu.caltech.nanodb.server.NanoDBServer;
+import edu.caltech.nanodb.server.performance.PerformanceCounters;
 import edu.caltech.nanodb.server.properties.PropertyHandler;
 import edu.caltech.nanodb.server.properties.ReadOnlyPropertyException;
 import edu.caltech.nanodb.server.properties.UnrecognizedPropertyException;
 
+import edu.caltech.nanodb.util.LZCodec;
+
 
 /**
  * The buffer manager reduces the number of disk IO operations by managing an
  * in-memory cache of data pages.  It also imposes a limit on the maximum
  * amount of space that can be used for data pages in the database.
+ * <p>
+ * The operations used for reading pages (looking up, adding and pinning
+ * pages, and allocating buffers) are synchronized, so that the workers of a
+ * parallel query can scan a file concurrently.  A page that isn't cached is
+ * read from its file without holding the buffer manager's lock:  the thread
+ * that misses registers itself as the page's loader with
+ * {@link #getPageOrStartLoad}, and other threads that want the same page
+ * wait for the load to finish rather than reading the page again.  Other
+ * operations such as flushing pages are only performed while the database
+ * is not being read.
+ * <p>
+ * The pages of compressed files can also be kept as <em>compressed
+ * frames</em>, if the <tt>nanodb.pagecache.mode</tt> property is
+ * <tt>compressed</tt>.  In that mode, when a page of a compressed file is
+ * evicted to make room, the buffer manager keeps a compressed copy of the
+ * page, which takes a fraction of the page's space in the cache.  Loading
+ * the page again only needs to decompress the frame, rather than reading
+ * the page from disk.  Frames are only evicted once there are no pages left
+ * to evict.  In the default <tt>decompressed</tt> mode, the cache only holds
+ * decompressed pages.
  *
  * @todo Eventually add integrity checks, e.g. to make sure every cached
  *       page's file appears in the collection of cached files.
@@ -54,6 +79,16 @@ public class BufferManager {
     public static final String DEFAULT_PAGECACHE_POLICY = "lru";
 
 
+    /**
+     * The system property that can be used to specify whether the buffer
+     * manager keeps compressed frames of the pages of compressed files.
+     */
+    public static final String PROP_PAGECACHE_MODE = "nanodb.pagecache.mode";
+
+    /** The default page-cache mode only caches decompressed pages. */
+    public static final String DEFAULT_PAGECACHE_MODE = "decompressed";
+
+
     private static class DBPageID {
         private File file;
 
@@ -153,6 +188,9 @@ public class BufferManager {
             else if (PROP_PAGECACHE_POLICY.equals(propertyName)) {
                 return replacementPolicy;
             }
+            else if (PROP_PAGECACHE_MODE.equals(propertyName)) {
+                return cacheMode;
+            }
             else {
                 throw new UnrecognizedPropertyException("No property named " +
                         propertyName);
@@ -172,6 +210,10 @@ public class BufferManager {
                 throw new ReadOnlyPropertyException(propertyName +
                         " is read-only");
             }
+            else if (PROP_PAGECACHE_MODE.equals(propertyName)) {
+                throw new ReadOnlyPropertyException(propertyName +
+                        " is read-only");
+            }
             else {
                 throw new UnrecognizedPropertyException("No property named " +
                         propertyName);
@@ -205,6 +247,21 @@ public class BufferManager {
     private LinkedHashMap<CachedPageInfo, DBPage> cachedPages;
 
 
+    /**
+     * This collection holds the compressed frames of evicted pages of
+     * compressed files, when the page-cache mode is "compressed".
+     */
+    private LinkedHashMap<CachedPageInfo, byte[]> compressedFrames;
+
+
+    /**
+     * This collection holds the pages that are currently being loaded from
+     * their files.  Each page's latch is released when its load finishes,
+     * successfully or not.
+     */
+    private HashMap<CachedPageInfo, CountDownLatch> loadingPages;
+
+
     /**
      * This collection maps session IDs to the files and pages that each
      * session has pinned, so that we can forcibly unpin pages used by a
@@ -238,6 +295,13 @@ public class BufferManager {
     private String replacementPolicy;
 
 
+    /**
+     * A string indicating whether the buffer manager keeps compressed frames
+     * of evicted pages.  Currently it can be "decompressed" or "compressed".
+     */
+    private String cacheMode;
+
+
     public BufferManager(NanoDBServer server, FileManager fileManager) {
         this.fileManager = fileManager;
 
@@ -249,6 +313,11 @@ public class BufferManager {
 
         replacementPolicy = configureReplacementPolicy();
         cachedPages = new LinkedHashMap<>(16, 0.75f, "lru".equals(replacementPolicy));
+        loadingPages = new HashMap<>();
+
+        cacheMode = configureCacheMode();
+        compressedFrames =
+            new LinkedHashMap<>(16, 0.75f, "lru".equals(replacementPolicy));
 
         totalBytesCached = 0;
         allocatedBuffers = new HashSet<>();
@@ -259,7 +328,8 @@ public class BufferManager {
             // Register properties that the Buffer Manager exposes.
             server.getPropertyRegistry().registerProperties(
                 new BufferManagerPropertyHandler(),
-                PROP_PAGECACHE_POLICY, PROP_PAGECACHE_SIZE);
+                PROP_PAGECACHE_POLICY, PROP_PAGECACHE_SIZE,
+                PROP_PAGECACHE_MODE);
         }
     }
 
@@ -323,6 +393,25 @@ public class BufferManager {
     }
 
 
+    private String configureCacheMode() {
+        String str = System.getProperty(PROP_PAGECACHE_MODE,
+            DEFAULT_PAGECACHE_MODE);
+
+        str = str.trim().toLowerCase();
+
+        if (!("decompressed".equals(str) || "compressed".equals(str))) {
+            logger.error(String.format(
+                "Unrecognized value \"%s\" for page-cache mode; using " +
+                "default value of %s.", System.getProperty(PROP_PAGECACHE_MODE),
+                DEFAULT_PAGECACHE_MODE));
+
+            str = DEFAULT_PAGECACHE_MODE;
+        }
+
+        return str;
+    }
+
+
     /**
      * Add another observer to the buffer manager.
      *
@@ -348,7 +437,7 @@ public class BufferManager {
      *         manager, and an IO error occurred while writing the page to
      *         persistent storage.
      */
-    public byte[] allocBuffer(int size) throws IOException {
+    public synchronized byte[] allocBuffer(int size) throws IOException {
         if (size <= 0)
             throw new IllegalArgumentException("size must be > 0, got " + size);
 
@@ -375,7 +464,7 @@ public class BufferManager {
     }
 
 
-    public void releaseBuffer(byte[] buffer) {
+    public synchronized void releaseBuffer(byte[] buffer) {
         // Verify that this was a buffer we allocated?
         // TODO:  System.identityHashCode() is not guaranteed to return a
         //        distinct value for every object, so we can have collisions
@@ -441,7 +530,7 @@ public class BufferManager {
      *
      * @param dbPage the page that was pinned by the session
      */
-    public void recordPagePinned(DBPage dbPage) {
+    public synchronized void recordPagePinned(DBPage dbPage) {
         int sessionID = SessionState.get().getSessionID();
 
         // Retrieve the set of pages pinned by the current session.
@@ -471,7 +560,7 @@ public class BufferManager {
      *
      * @param dbPage the page that was unpinned
      */
-    public void recordPageUnpinned(DBPage dbPage) {
+    public synchronized void recordPageUnpinned(DBPage dbPage) {
         int sessionID = SessionState.get().getSessionID();
 
         // Retrieve the set of pages pinned by the current session.
@@ -514,7 +603,7 @@ public class BufferManager {
      * generally done at the end of each transaction so that pages aren't
      * pinned forever, and can actually be evicted from the buffer manager.
      */
-    public void unpinAllSessionPages() {
+    public synchronized void unpinAllSessionPages() {
         // Unpin all pages pinned by this session.
         int sessionID = SessionState.get().getSessionID();
 
@@ -549,7 +638,7 @@ public class BufferManager {
     }
 
 
-    public void recordPageInvalidated(DBPage dbPage) {
+    public synchronized void recordPageInvalidated(DBPage dbPage) {
         if (dbPage == null)
             throw new IllegalArgumentException("dbPage cannot be null");
 
@@ -583,7 +672,7 @@ public class BufferManager {
      * @param pageNo the page number in the {@code DBFile} to retrieve
      * @return the requested {@code DBPage}, or {@code null} if not found
      */
-    public DBPage getPage(DBFile dbFile, int pageNo) {
+    public synchronized DBPage getPage(DBFile dbFile, int pageNo) {
         DBPage dbPage = cachedPages.get(new CachedPageInfo(dbFile, pageNo));
 
         logger.debug(String.format(
@@ -600,6 +689,72 @@ public class BufferManager {
     }
 
 
+    /**
+     * Retrieves the specified {@code DBPage} from the Buffer Manager if it's
+     * currently buffered, like {@link #getPage}.  If the page isn't buffered,
+     * and another thread is already loading it, this method waits for that
+     * load to finish and then looks again.  Otherwise, the calling thread
+     * becomes the page's loader and {@code null} is returned; the caller
+     * must then read the page, add it with {@link #addPage}, and finally
+     * call {@link #endLoad}, whether or not the load succeeded.
+     *
+     * @param dbFile the file containing the page to retrieve
+     * @param pageNo the page number in the {@code DBFile} to retrieve
+     *
+     * @return the requested {@code DBPage}, pinned, or {@code null} if the
+     *         caller must load the page
+     *
+     * @throws InterruptedIOException if the thread is interrupted while
+     *         waiting for another thread to load the page
+     */
+    public DBPage getPageOrStartLoad(DBFile dbFile, int pageNo)
+        throws InterruptedIOException {
+
+        CachedPageInfo cpi = new CachedPageInfo(dbFile, pageNo);
+        while (true) {
+            CountDownLatch latch;
+            synchronized (this) {
+                DBPage dbPage = getPage(dbFile, pageNo);
+                if (dbPage != null)
+                    return dbPage;
+
+                latch = loadingPages.get(cpi);
+                if (latch == null) {
+                    loadingPages.put(cpi, new CountDownLatch(1));
+                    return null;
+                }
+            }
+
+            try {
+                latch.await();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException(String.format(
+                    "Interrupted while waiting for page [%s,%d] to load",
+                    dbFile, pageNo));
+            }
+        }
+    }
+
+
+    /**
+     * Records that the calling thread has finished loading the specified
+     * page, after {@link #getPageOrStartLoad} made it the page's loader.
+     * Any threads waiting for the page are released; if the load failed,
+     * one of them will try to load the page itself.
+     *
+     * @param dbFile the file containing the page that was loaded
+     * @param pageNo the page number in the {@code DBFile} that was loaded
+     */
+    public synchronized void endLoad(DBFile dbFile, int pageNo) {
+        CountDownLatch latch =
+            loadingPages.remove(new CachedPageInfo(dbFile, pageNo));
+        if (latch != null)
+            latch.countDown();
+    }
+
+
     /**
      * <p>
      * Adds a new, previously unbuffered {@code DBPage} to the Buffer Manager.
@@ -615,7 +770,7 @@ public class BufferManager {
      * @throws IllegalStateException if the page already appears in the Buffer
      *         Manager.
      */
-    public void addPage(DBPage dbPage) throws IOException {
+    public synchronized void addPage(DBPage dbPage) throws IOException {
         if (dbPage == null)
             throw new IllegalArgumentException("dbPage cannot be null");
 
@@ -685,6 +840,14 @@ public class BufferManager {
                 entries.remove();
                 totalBytesCached -= oldPage.getPageSize();
 
+                // Keep a compressed frame of the page, if the cache mode
+                // calls for it.  The frame holds the page's current data,
+                // which is also what is written if the page is dirty.
+                if ("compressed".equals(cacheMode) &&
+                    oldPage.getDBFile().isCompressed()) {
+                    addCompressedFrame(oldPage);
+                }
+
                 // If the page is dirty, we need to write its data to disk before
                 // invalidating it.  Otherwise, just invalidate it.
                 if (oldPage.isDirty()) {
@@ -697,6 +860,18 @@ public class BufferManager {
             }
         }
 
+        // If evicting pages didn't make enough room, evict compressed frames
+        // too.
+        Iterator<Map.Entry<CachedPageInfo, byte[]>> frames =
+            compressedFrames.entrySet().iterator();
+
+        while (frames.hasNext() &&
+            bytesRequired + totalBytesCached > maxCacheSize) {
+            byte[] frame = frames.next().getValue();
+            frames.remove();
+            totalBytesCached -= frame.length;
+        }
+
         // If we have any dirty data pages, they need to be flushed to disk.
         writeDirtyPages(dirtyPages, /* invalidate */ true);
 
@@ -705,6 +880,95 @@ public class BufferManager {
     }
 
 
+    /**
+     * Compresses the data of a page that is being evicted, and keeps the
+     * result as a compressed frame, unless the page doesn't compress.
+     *
+     * @param dbPage the page being evicted
+     */
+    private void addCompressedFrame(DBPage dbPage) {
+        byte[] pageData = dbPage.getPageData();
+        byte[] frame = LZCodec.compress(pageData, 0, pageData.length);
+        if (frame.length >= pageData.length)
+            return;
+
+        logger.debug(String.format(
+            "    Keeping %d-byte compressed frame of page [%s,%d].",
+            frame.length, dbPage.getDBFile(), dbPage.getPageNo()));
+
+        compressedFrames.put(
+            new CachedPageInfo(dbPage.getDBFile(), dbPage.getPageNo()), frame);
+        totalBytesCached += frame.length;
+    }
+
+
+    /**
+     * If the buffer manager holds a compressed frame of the specified page,
+     * this method decompresses the frame into the page's buffer and discards
+     * the frame.  The page must not have been added to the buffer manager
+     * yet.
+     *
+     * @param dbPage the page to restore from a compressed frame
+     *
+     * @return true if the page's data was restored from a compressed frame,
+     *         or false if the page must be read from its file
+     *
+     * @throws IOException if the frame is corrupt
+     */
+    public synchronized boolean restoreCompressedFrame(DBPage dbPage)
+        throws IOException {
+
+        if (compressedFrames.isEmpty())
+            return false;
+
+        byte[] frame = compressedFrames.remove(
+            new CachedPageInfo(dbPage.getDBFile(), dbPage.getPageNo()));
+        if (frame == null)
+            return false;
+
+        totalBytesCached -= frame.length;
+
+        byte[] pageData = dbPage.getPageData();
+        int length = LZCodec.decompress(frame, 0, frame.length, pageData, 0,
+            pageData.length);
+        if (length != pageData.length) {
+            throw new IOException(String.format(
+                "Compressed frame of page [%s,%d] decompressed to %d bytes",
+                dbPage.getDBFile(), dbPage.getPageNo(), length));
+        }
+
+        PerformanceCounters.inc(
+            PerformanceCounters.STORAGE_COMPRESSED_FRAME_HITS);
+        return true;
+    }
+
+
+    /**
+     * Discards the compressed frames of the specified file's pages whose
+     * page-number is at least <tt>minPageNo</tt>.
+     *
+     * @param dbFile the file whose frames should be discarded, or
+     *        <tt>null</tt> to discard every frame
+     *
+     * @param minPageNo frames of pages with a page-number less than this
+     *        value are kept
+     */
+    private void discardCompressedFrames(DBFile dbFile, int minPageNo) {
+        Iterator<Map.Entry<CachedPageInfo, byte[]>> frames =
+            compressedFrames.entrySet().iterator();
+
+        while (frames.hasNext()) {
+            Map.Entry<CachedPageInfo, byte[]> entry = frames.next();
+            CachedPageInfo info = entry.getKey();
+            if (dbFile == null ||
+                (dbFile.equals(info.dbFile) && info.pageNo >= minPageNo)) {
+                frames.remove();
+                totalBytesCached -= entry.getValue().length;
+            }
+        }
+    }
+
+
     /**
      * This helper method writes out a list of dirty pages from the buffer
      * manager, ensuring that if transactions are enabled, the
@@ -894,6 +1158,8 @@ public class BufferManager {
         logger.info("Flushing all pages for file " + dbFile +
             " from the Buffer Manager.");
 
+        discardCompressedFrames(dbFile, 0);
+
         Iterator<Map.Entry<CachedPageInfo, DBPage>> entries =
             cachedPages.entrySet().iterator();
 
@@ -930,6 +1196,45 @@ public class BufferManager {
     }
 
 
+    /**
+     * This method discards all cached pages in the specified file whose
+     * page-number is at least <tt>minPageNo</tt>, <em>without</em> writing
+     * them to disk, even if they are dirty.  It is used when a file is being
+     * truncated, since the discarded pages will no longer be part of the file.
+     *
+     * @param dbFile the file whose pages should be discarded from the cache
+     *
+     * @param minPageNo pages with a page-number less than this value will be
+     *        left in the cache
+     */
+    public void discardDBFilePages(DBFile dbFile, int minPageNo) {
+        logger.info(String.format("Discarding pages %d and later for file " +
+            "%s from the Buffer Manager.", minPageNo, dbFile));
+
+        discardCompressedFrames(dbFile, minPageNo);
+
+        Iterator<Map.Entry<CachedPageInfo, DBPage>> entries =
+            cachedPages.entrySet().iterator();
+
+        while (entries.hasNext()) {
+            Map.Entry<CachedPageInfo, DBPage> entry = entries.next();
+
+            CachedPageInfo info = entry.getKey();
+            if (dbFile.equals(info.dbFile) && info.pageNo >= minPageNo) {
+                DBPage oldPage = entry.getValue();
+
+                logger.debug(String.format(
+                    "    Discarding page [%s,%d] from page-cache.",
+                    oldPage.getDBFile(), oldPage.getPageNo()));
+
+                entries.remove();
+                totalBytesCached -= oldPage.getPageSize();
+                oldPage.invalidate();
+            }
+        }
+    }
+
+
     /**
      * This method removes all cached pages from the buffer manager, writing
      * out any dirty pages in the process.  This method is not generally
@@ -946,6 +1251,8 @@ public class BufferManager {
     public void flushAll() throws IOException {
         logger.info("Flushing ALL database pages from the Buffer Manager.");
 
+        discardCompressedFrames(null, 0);
+
         Iterator<Map.Entry<CachedPageInfo, DBPage>> entries =
             cachedPages.entrySet().iterator();
 
@@ -38,6 +38,10 @@ import java.io.RandomAccessFile;
  *   <li><u>Byte 1:</u>  page size  <i>p</i> (unsigned byte) - file's page
  *       size is <i>P</i> = 2<sup>p</sup></li>
  * </ul>
+ * <p>
+ * If the high bit of byte 1 is set, the file's pages are compressed, and are
+ * found through the file's {@link PageMap}.
+ * </p>
  *
  * @see RandomAccessFile
  */
@@ -72,6 +76,13 @@ public class DBFile {
     private RandomAccessFile fileContents;
 
 
+    /**
+     * The map of where the file's pages are stored, if the file's pages are
+     * compressed, or <tt>null</tt> if they aren't.
+     */
+    private PageMap pageMap;
+
+
     /**
      * This static helper method returns true if the specified page size is
      * valid; i.e. it must be within the minimum and maximum page sizes, and
@@ -186,6 +197,27 @@ public class DBFile {
      */
     public DBFile(File dataFile, DBFileType type, int pageSize,
         RandomAccessFile fileContents) throws IOException {
+        this(dataFile, type, pageSize, fileContents, null);
+    }
+
+
+    /**
+     * Constructs a new object from the specified information and the previously
+     * opened data-file, whose pages may be compressed.
+     *
+     * @param dataFile the actual file containing the data
+     * @param type the type of the data file
+     * @param pageSize the page-size of the data file
+     * @param fileContents an already opened {@link RandomAccessFile} to use for
+     *        accessing the data file's contents
+     * @param pageMap the map of where the file's pages are stored if they are
+     *        compressed, or <tt>null</tt> if they aren't
+     *
+     * @throws IllegalArgumentException if the page size is not valid.
+     * @throws IOException if some other IO error occurs
+     */
+    public DBFile(File dataFile, DBFileType type, int pageSize,
+        RandomAccessFile fileContents, PageMap pageMap) throws IOException {
 
         if (dataFile == null || type == null || fileContents == null)
             throw new NullPointerException();
@@ -196,10 +228,12 @@ public class DBFile {
         this.type = type;
         this.pageSize = pageSize;
         this.fileContents = fileContents;
+        this.pageMap = pageMap;
 
         // Check to make sure the file contains a whole number of pages.
+        // (A compressed file is made of sectors instead.)
         long fileSize = fileContents.length();
-        if (fileSize % (long) pageSize != 0) {
+        if (pageMap == null && fileSize % (long) pageSize != 0) {
             // Maybe handle this someday by extending the file to have a whole
             // page at the end, but this is definitely the more conservative
             // approach.
@@ -286,13 +320,17 @@ public class DBFile {
      * Reads the current file-length of this database file and computes the
      * total number of pages based on this value.  Note that since this method
      * involves an IO operation, it should be called infrequently since it will
-     * be slow.
+     * be slow.  (For a compressed file, the number of pages is recorded in the
+     * file's page map instead.)
      *
      * @return the number of pages currently in this database file.
      *
      * @throws IOException if an IO error occurs while reading the file's length
      */
     public int getNumPages() throws IOException {
+        if (pageMap != null)
+            return pageMap.getNumPages();
+
         long numPages = fileContents.length() / (long) pageSize;
         return (int) numPages;
     }
@@ -308,4 +346,26 @@ public class DBFile {
     public RandomAccessFile getFileContents() {
         return fileContents;
     }
+
+
+    /**
+     * Returns true if the file's pages are stored compressed.
+     *
+     * @return true if the file's pages are stored compressed
+     */
+    public boolean isCompressed() {
+        return pageMap != null;
+    }
+
+
+    /**
+     * Returns the map of where the file's pages are stored, if the file's
+     * pages are compressed.
+     *
+     * @return the file's page map, or <tt>null</tt> if the file's pages
+     *         aren't compressed
+     */
+    public PageMap getPageMap() {
+        return pageMap;
+    }
 }
@@ -24,6 +24,13 @@ public enum DBFileType {
     BTREE_TUPLE_FILE(2),
 
 
+    /**
+     * Represents a columnar tuple file, which stores the values of each
+     * column separately, so that scans only read the columns they use.
+     */
+    COLUMNAR_TUPLE_FILE(3),
+
+
     /**
      * Represents a transaction-state file used for write-ahead logging and
      * recovery.
@@ -19,7 +19,8 @@ import edu.caltech.nanodb.storage.writeahead.LogSequenceNumber;
  * <p>
  * Database pages do not provide any locking mechanisms to guard against
  * concurrent access.  Locking must be managed at a level above what this class
- * provides.
+ * provides.  The one exception is the page's pin-count, which may be updated
+ * by several threads scanning the same file in parallel.
  * <p>
  * The class provides methods to read and write a wide range of data types.
  * Multibyte values are stored in big-endian format, with the most significant
@@ -194,24 +195,30 @@ public class DBPage implements Pinnable, AutoCloseable {
 
     @Override
     public void pin() {
-        pinCount++;
+        // The workers of a parallel query may pin and unpin the same page
+        // concurrently, so the pin-count is guarded by the Buffer Manager.
+        synchronized (bufferManager) {
+            pinCount++;
 
-        // To facilitate debugging of pinned-page leaks!
-        bufferManager.recordPagePinned(this);
+            // To facilitate debugging of pinned-page leaks!
+            bufferManager.recordPagePinned(this);
+        }
     }
 
 
     @Override
     public void unpin() {
-        if (pinCount <= 0) {
-            throw new IllegalStateException(
-                    "pinCount is not positive (value is " + pinCount + ")");
-        }
+        synchronized (bufferManager) {
+            if (pinCount <= 0) {
+                throw new IllegalStateException(
+                        "pinCount is not positive (value is " + pinCount + ")");
+            }
 
-        // To facilitate debugging of pinned-page leaks!
-        bufferManager.recordPageUnpinned(this);
+            // To facilitate debugging of pinned-page leaks!
+            bufferManager.recordPageUnpinned(this);
 
-        pinCount--;
+            pinCount--;
+        }
 
         // Don't do anything else to the data page, because at this point,
         // it may still contain dirty data that needs to be flushed to disk
@@ -41,6 +41,24 @@ public interface FileManager {
     DBFile createDBFile(String filename, DBFileType type, int pageSize)
         throws IOException;
 
+    /**
+     * This method creates a new database file in the directory used by the
+     * storage manager, optionally storing its pages compressed.  An exception
+     * is thrown if the file already exists.
+     *
+     * @param filename the name of the file to open to create the database file
+     * @param type the type of database file being created
+     * @param pageSize the page size to use when reading and writing the file
+     * @param compressed true if the file's pages should be stored compressed
+     *
+     * @return a new database file object for the newly created file
+     *
+     * @throws IOException if the specified file already exists.
+     * @throws IllegalArgumentException if the page size is not valid
+     */
+    DBFile createDBFile(String filename, DBFileType type, int pageSize,
+                        boolean compressed) throws IOException;
+
     /**
      * Attempts to rename the specified {@link DBFile} to a new filename.
      * If successful, the {@code DBFile} object itself is updated with a new
@@ -154,6 +172,22 @@ public interface FileManager {
      */
     void syncDBFile(DBFile dbFile) throws IOException;
 
+    /**
+     * Truncates the specified database file so that it holds at most
+     * <tt>numPages</tt> pages.  If the file is already this size or smaller,
+     * it is left unchanged.  The caller must ensure that no cached copies of
+     * the removed pages will be written back to the file later.
+     *
+     * @param dbFile the database file to truncate
+     * @param numPages the number of pages the file should hold after the
+     *        operation completes
+     *
+     * @throws IllegalArgumentException if <tt>numPages</tt> is negative.
+     *
+     * @throws IOException if the file cannot be truncated for some reason.
+     */
+    void truncateDBFile(DBFile dbFile, int numPages) throws IOException;
+
     /**
      * Closes the underlying data file.  Obviously, subsequent read or write
      * attempts will fail after this method is called.
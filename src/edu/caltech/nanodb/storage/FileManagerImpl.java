@@ -8,8 +8,11 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.HashMap;
 
 import edu.caltech.nanodb.server.performance.PerformanceCounters;
+import edu.caltech.nanodb.util.LZCodec;
 
 
 /**
@@ -24,10 +27,19 @@ import edu.caltech.nanodb.server.performance.PerformanceCounters;
  *         provide higher-level operations on the Storage Manager so that we
  *         can provide global buffering capabilities in one place.
  *
- * @design This class includes no multithreading support.  It maintains no
- *         internal state, so there isn't anything that needs to be guarded,
- *         but still, other classes using this class need to be careful to
- *         maintain proper multithreading.
+ * @design This class includes little multithreading support.  Pages may
+ *         be loaded by several threads at once, since the Buffer Manager
+ *         doesn't hold its lock while a page is read, so each page access
+ *         holds the lock of the file's {@link RandomAccessFile} (or of its
+ *         page map, which guards itself) across the seek and the read or
+ *         write.  Other classes using this class still need to be careful
+ *         to maintain proper multithreading.
+ *
+ * @design The pages of a compressed file are compressed with the
+ *         {@link LZCodec} when they are saved, and decompressed when they are
+ *         loaded; the file's {@link PageMap} records where each page's
+ *         compressed image is stored.  A page that doesn't get smaller when
+ *         it is compressed is stored uncompressed.
  */
 public class FileManagerImpl implements FileManager {
 
@@ -65,6 +77,13 @@ public class FileManagerImpl implements FileManager {
     private int lastPageNoAccessed;
 
 
+    /**
+     * The page maps of the compressed files that have been opened, so that
+     * every {@link DBFile} object of a file uses the same page map.
+     */
+    private HashMap<File, PageMap> pageMaps = new HashMap<>();
+
+
     /**
      * Create a file-manager instance that uses the specified base directory.
      *
@@ -88,7 +107,7 @@ public class FileManagerImpl implements FileManager {
     }
 
     // Update our file-IO performance counters
-    void updateFileIOPerfStats(DBFile dbFile, int pageNo, boolean read,
+    synchronized void updateFileIOPerfStats(DBFile dbFile, int pageNo, boolean read,
                                int bufSize) {
         if (lastFileAccessed == null || !dbFile.equals(lastFileAccessed)) {
             PerformanceCounters.inc(PerformanceCounters.STORAGE_FILE_CHANGES);
@@ -151,13 +170,30 @@ public class FileManagerImpl implements FileManager {
     @Override
     public DBFile createDBFile(String filename, DBFileType type, int pageSize)
         throws IOException {
+        return createDBFile(filename, type, pageSize, false);
+    }
+
+
+    @Override
+    public DBFile createDBFile(String filename, DBFileType type, int pageSize,
+                               boolean compressed) throws IOException {
 
         File f = new File(baseDir, filename);
-        logger.debug("Creating new database file " + f + ".");
+        logger.debug("Creating new " + (compressed ? "compressed " : "") +
+            "database file " + f + ".");
         if (!f.createNewFile())
             throw new IOException("File " + f + " already exists!");
 
-        DBFile dbFile = new DBFile(f, type, pageSize);
+        DBFile dbFile;
+        if (compressed) {
+            RandomAccessFile fileContents = new RandomAccessFile(f, "rw");
+            PageMap pageMap = PageMap.create(fileContents, type, pageSize);
+            pageMaps.put(f.getAbsoluteFile(), pageMap);
+            dbFile = new DBFile(f, type, pageSize, fileContents, pageMap);
+        }
+        else {
+            dbFile = new DBFile(f, type, pageSize);
+        }
 
         byte[] buffer = new byte[pageSize];
         buffer[0] = (byte) type.getID();
@@ -176,6 +212,11 @@ public class FileManagerImpl implements FileManager {
         if (dataFile.renameTo(newDataFile)) {
             // Rename succeeded!
             dbFile.setDataFile(newDataFile);
+
+            PageMap pageMap = pageMaps.remove(dataFile.getAbsoluteFile());
+            if (pageMap != null)
+                pageMaps.put(newDataFile.getAbsoluteFile(), pageMap);
+
             return true;
         }
 
@@ -194,15 +235,26 @@ public class FileManagerImpl implements FileManager {
         RandomAccessFile fileContents = new RandomAccessFile(f, "rw");
 
         int typeID = fileContents.readUnsignedByte();
-        int pageSize = DBFile.decodePageSize(fileContents.readUnsignedByte());
+        int encodedPageSize = fileContents.readUnsignedByte();
+        int pageSize = DBFile.decodePageSize(
+            encodedPageSize & ~PageMap.COMPRESSED_FLAG);
 
         DBFileType type = DBFileType.valueOf(typeID);
         if (type == null)
             throw new IOException("Unrecognized file type ID " + typeID);
 
+        PageMap pageMap = null;
+        if ((encodedPageSize & PageMap.COMPRESSED_FLAG) != 0) {
+            pageMap = pageMaps.get(f.getAbsoluteFile());
+            if (pageMap == null) {
+                pageMap = PageMap.read(fileContents, pageSize);
+                pageMaps.put(f.getAbsoluteFile(), pageMap);
+            }
+        }
+
         DBFile dbFile;
         try {
-            dbFile = new DBFile(f, type, pageSize, fileContents);
+            dbFile = new DBFile(f, type, pageSize, fileContents, pageMap);
         }
         catch (IllegalArgumentException iae) {
             throw new IOException("Invalid page size " + pageSize +
@@ -210,7 +262,8 @@ public class FileManagerImpl implements FileManager {
         }
 
         logger.debug(String.format("Opened existing database file %s; " +
-            "type is %s, page size is %d.", f, type, pageSize));
+            "type is %s, page size is %d%s.", f, type, pageSize,
+            (pageMap != null ? ", pages are compressed" : "")));
 
         return dbFile;
     }
@@ -230,12 +283,43 @@ public class FileManagerImpl implements FileManager {
                 " from the specified DBFile page-size");
         }
 
+        if (dbFile.isCompressed()) {
+            loadCompressedPage(dbFile, pageNo, buffer, create);
+            return;
+        }
+
         // Update our file-IO performance counters
         updateFileIOPerfStats(dbFile, pageNo, /* read */ true, buffer.length);
 
         long pageStart = getPageStart(dbFile, pageNo);
 
         RandomAccessFile fileContents = dbFile.getFileContents();
+        synchronized (fileContents) {
+            loadPage(fileContents, dbFile, pageNo, pageStart, buffer, create);
+        }
+    }
+
+
+    /**
+     * Reads a page of an uncompressed file.  The caller must hold the lock
+     * of the file's contents, so that no other thread moves the file
+     * pointer between the seek and the read.
+     *
+     * @param fileContents the contents of the file to read the page from
+     * @param dbFile the file to read the page from
+     * @param pageNo the page to read
+     * @param pageStart the file-position of the page
+     * @param buffer the buffer to store the page's data into
+     * @param create true if the page should be created if it's past the end
+     *        of the file
+     *
+     * @throws EOFException if the page is past the end of the file, and
+     *         <tt>create</tt> is false
+     * @throws IOException if an IO error occurs while reading the page
+     */
+    private void loadPage(RandomAccessFile fileContents, DBFile dbFile,
+                          int pageNo, long pageStart, byte[] buffer,
+                          boolean create) throws IOException {
         fileContents.seek(pageStart);
         try {
             fileContents.readFully(buffer);
@@ -279,6 +363,66 @@ public class FileManagerImpl implements FileManager {
     }
 
 
+    /**
+     * Loads a page of a compressed file, decompressing its stored image.
+     *
+     * @param dbFile the compressed file to load the page from
+     * @param pageNo the page to load
+     * @param buffer the buffer to store the page's data into
+     * @param create true if the page should be created if it's past the end
+     *        of the file
+     *
+     * @throws EOFException if the page is past the end of the file, and
+     *         <tt>create</tt> is false
+     * @throws IOException if an IO error occurs while loading the page, or
+     *         if its stored image is corrupt
+     */
+    private void loadCompressedPage(DBFile dbFile, int pageNo, byte[] buffer,
+                                    boolean create) throws IOException {
+
+        PageMap pageMap = dbFile.getPageMap();
+        RandomAccessFile fileContents = dbFile.getFileContents();
+
+        if (create) {
+            // The page map guards itself, but checking its size and
+            // extending the file must happen atomically.
+            synchronized (pageMap) {
+                if (pageNo >= pageMap.getNumPages()) {
+                    logger.debug(String.format(
+                        "Requested page %d doesn't yet exist in file %s; " +
+                        "creating.", pageNo, dbFile.getDataFile().getName()));
+
+                    pageMap.setNumPages(fileContents, pageNo + 1);
+                    Arrays.fill(buffer, (byte) 0);
+                    return;
+                }
+            }
+        }
+
+        byte[] data = pageMap.readPage(fileContents, pageNo);
+        updateFileIOPerfStats(dbFile, pageNo, /* read */ true,
+            (data != null ? data.length : 0));
+
+        if (data == null) {
+            // The page has never been written.
+            Arrays.fill(buffer, (byte) 0);
+        }
+        else if (data.length == buffer.length) {
+            // The page didn't compress, so it was stored as is.
+            System.arraycopy(data, 0, buffer, 0, buffer.length);
+        }
+        else {
+            int length = LZCodec.decompress(data, 0, data.length, buffer, 0,
+                buffer.length);
+            if (length != buffer.length) {
+                throw new IOException(String.format(
+                    "Page %d of file %s decompressed to %d bytes, not %d",
+                    pageNo, dbFile, length, buffer.length));
+            }
+        }
+    }
+
+
     @Override
     public void loadPage(DBFile dbFile, int pageNo, byte[] buffer)
         throws IOException {
@@ -300,14 +444,49 @@ public class FileManagerImpl implements FileManager {
                 " from the specified DBFile page-size");
         }
 
+        if (dbFile.isCompressed()) {
+            saveCompressedPage(dbFile, pageNo, buffer);
+            return;
+        }
+
         // Update our file-IO performance counters
         updateFileIOPerfStats(dbFile, pageNo, /* read */ false, buffer.length);
 
         long pageStart = getPageStart(dbFile, pageNo);
 
         RandomAccessFile fileContents = dbFile.getFileContents();
-        fileContents.seek(pageStart);
-        fileContents.write(buffer);
+        synchronized (fileContents) {
+            fileContents.seek(pageStart);
+            fileContents.write(buffer);
+        }
+    }
+
+
+    /**
+     * Saves a page of a compressed file, compressing it first.  If the page
+     * doesn't get smaller, it is stored as is.
+     *
+     * @param dbFile the compressed file to save the page to
+     * @param pageNo the page to save
+     * @param buffer the page's data
+     *
+     * @throws IOException if an IO error occurs while saving the page
+     */
+    private void saveCompressedPage(DBFile dbFile, int pageNo, byte[] buffer)
+        throws IOException {
+
+        byte[] data = LZCodec.compress(buffer, 0, buffer.length);
+        if (data.length >= buffer.length)
+            data = buffer;
+
+        dbFile.getPageMap().writePage(dbFile.getFileContents(), pageNo, data,
+            data.length);
+
+        updateFileIOPerfStats(dbFile, pageNo, /* read */ false, data.length);
+        PerformanceCounters.add(
+            PerformanceCounters.STORAGE_COMPRESSION_BYTES_IN, buffer.length);
+        PerformanceCounters.add(
+            PerformanceCounters.STORAGE_COMPRESSION_BYTES_OUT, data.length);
     }
 
 
@@ -318,6 +497,35 @@ public class FileManagerImpl implements FileManager {
     }
 
 
+    @Override
+    public void truncateDBFile(DBFile dbFile, int numPages) throws IOException {
+        if (numPages < 0) {
+            throw new IllegalArgumentException("numPages must be >= 0, got " +
+                numPages);
+        }
+
+        if (dbFile.isCompressed()) {
+            PageMap pageMap = dbFile.getPageMap();
+            if (pageMap.getNumPages() > numPages) {
+                logger.info(String.format(
+                    "Truncating compressed database file %s to %d pages",
+                    dbFile, numPages));
+                pageMap.setNumPages(dbFile.getFileContents(), numPages);
+            }
+            return;
+        }
+
+        long newLength = getPageStart(dbFile, numPages);
+
+        RandomAccessFile fileContents = dbFile.getFileContents();
+        if (fileContents.length() > newLength) {
+            logger.info(String.format("Truncating database file %s to %d pages",
+                dbFile, numPages));
+            fileContents.setLength(newLength);
+        }
+    }
+
+
     @Override
     public void closeDBFile(DBFile dbFile) throws IOException {
         // Sync the file before closing, so that we can have some confidence
@@ -339,6 +547,7 @@ public class FileManagerImpl implements FileManager {
 
     @Override
     public void deleteDBFile(File f) throws IOException {
+        pageMaps.remove(f.getAbsoluteFile());
         if (!f.delete())
             throw new IOException("Couldn't delete file \"" + f.getName() + "\".");
     }
@@ -7,15 +7,22 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.log4j.Logger;
 
 import edu.caltech.nanodb.commands.CommandProperties;
+import edu.caltech.nanodb.expressions.TupleLiteral;
+import edu.caltech.nanodb.indexes.IndexInfo;
 import edu.caltech.nanodb.indexes.IndexManager;
+import edu.caltech.nanodb.indexes.IndexUtils;
+import edu.caltech.nanodb.relations.ColumnRefs;
 import edu.caltech.nanodb.relations.ForeignKeyColumnRefs;
 import edu.caltech.nanodb.relations.KeyColumnRefs;
 import edu.caltech.nanodb.relations.TableInfo;
 import edu.caltech.nanodb.relations.TableSchema;
+import edu.caltech.nanodb.relations.Tuple;
+import edu.caltech.nanodb.storage.heapfile.HeapTupleFile;
 
 
 /**
@@ -79,16 +86,19 @@ public class IndexedTableManager implements TableManager {
 
         int pageSize = StorageManager.getCurrentPageSize();
         String storageType = "heap";
+        String compression = "none";
 
         if (properties != null) {
             logger.info("Using command properties " + properties);
 
             pageSize = properties.getInt("pagesize", pageSize);
             storageType = properties.getString("storage", storageType);
+            compression = properties.getString("compression", compression);
 
             HashSet<String> names = new HashSet<String>(properties.getNames());
             names.remove("pagesize");
             names.remove("storage");
+            names.remove("compression");
             if (!names.isEmpty()) {
                 throw new IllegalArgumentException("Unrecognized property " +
                     "name(s) specified:  " + names);
@@ -104,15 +114,31 @@ public class IndexedTableManager implements TableManager {
         else if ("btree".equals(storageType)) {
             type = DBFileType.BTREE_TUPLE_FILE;
         }
+        else if ("columnar".equals(storageType)) {
+            type = DBFileType.COLUMNAR_TUPLE_FILE;
+        }
         else {
             throw new IllegalArgumentException("Unrecognized table file " +
                 "type:  " + storageType);
         }
         TupleFileManager tupleFileManager = storageManager.getTupleFileManager(type);
 
+        boolean compressed;
+        if ("none".equals(compression)) {
+            compressed = false;
+        }
+        else if ("lz".equals(compression)) {
+            compressed = true;
+        }
+        else {
+            throw new IllegalArgumentException("Unrecognized compression " +
+                "type:  " + compression);
+        }
+
         // First, create a new DBFile that the tuple file will go into.
         FileManager fileManager = storageManager.getFileManager();
-        DBFile dbFile = fileManager.createDBFile(tblFileName, type, pageSize);
+        DBFile dbFile = fileManager.createDBFile(tblFileName, type, pageSize,
+            compressed);
         logger.debug("Created new DBFile for table " + tableName +
                      " at path " + dbFile.getDataFile());
 
@@ -163,11 +189,118 @@ public class IndexedTableManager implements TableManager {
     // Inherit interface docs.
     @Override
     public void analyzeTable(TableInfo tableInfo) throws IOException {
+        analyzeTable(tableInfo, null);
+    }
+
+
+    // Inherit interface docs.
+    @Override
+    public void analyzeTable(TableInfo tableInfo, AnalyzeSample sample)
+        throws IOException {
         // Analyze the table's tuple-file.
-        tableInfo.getTupleFile().analyze();
+        tableInfo.getTupleFile().analyze(sample);
+
+        // Analyze all indexes associated with the table, so that the planner
+        // can cost index lookups as well.
+        IndexManager indexManager = storageManager.getIndexManager();
+        for (String indexName : tableInfo.getSchema().getIndexNames()) {
+            IndexInfo indexInfo = indexManager.openIndex(tableInfo, indexName);
+            indexManager.analyzeIndex(indexInfo);
+        }
+    }
+
+
+    // Inherit interface docs.
+    @Override
+    public void optimizeTable(TableInfo tableInfo) throws IOException {
+        // Optimize the table's tuple-file.  Compacting a heap file moves
+        // tuples around, so the indexes must be updated to match.
+        TupleFile tupleFile = tableInfo.getTupleFile();
+        if (tupleFile instanceof HeapTupleFile) {
+            Map<FilePointer, FilePointer> movedTuples =
+                ((HeapTupleFile) tupleFile).compact();
+
+            updateIndexPointers(tableInfo, movedTuples);
+        }
+        else {
+            tupleFile.optimize();
+        }
 
-        // TODO:  Probably want to analyze all the indexes associated with
-        //        the table as well...
+        // Optimize all indexes associated with the table.
+        IndexManager indexManager = storageManager.getIndexManager();
+        for (String indexName : tableInfo.getSchema().getIndexNames()) {
+            IndexInfo indexInfo = indexManager.openIndex(tableInfo, indexName);
+            indexManager.optimizeIndex(indexInfo);
+        }
+    }
+
+
+    /**
+     * This helper updates the indexes on a table after some of the table's
+     * tuples have been moved to new locations in the table file.  For each
+     * moved tuple, the index entry referencing the old location is removed,
+     * and an entry referencing the new location is added.
+     *
+     * @param tableInfo the table whose tuples were moved
+     *
+     * @param movedTuples a mapping from the old file-pointer of each moved
+     *        tuple to the tuple's new file-pointer
+     *
+     * @throws IOException if an IO error occurs while updating the indexes
+     */
+    private void updateIndexPointers(TableInfo tableInfo,
+        Map<FilePointer, FilePointer> movedTuples) throws IOException {
+
+        if (movedTuples.isEmpty())
+            return;
+
+        IndexManager indexManager = storageManager.getIndexManager();
+        TupleFile tupleFile = tableInfo.getTupleFile();
+
+        for (String indexName : tableInfo.getSchema().getIndexNames()) {
+            IndexInfo indexInfo = indexManager.openIndex(tableInfo, indexName);
+            ColumnRefs columnRefs = indexInfo.getTableColumnRefs();
+            TupleFile indexTupleFile = indexInfo.getTupleFile();
+
+            logger.debug(String.format("Updating %d moved tuples in index %s",
+                movedTuples.size(), indexName));
+
+            // Remove all of the old entries before adding any new ones, so
+            // that an old location can't be confused with a new location.
+            ArrayList<TupleLiteral> newEntries = new ArrayList<>();
+            for (Map.Entry<FilePointer, FilePointer> entry :
+                 movedTuples.entrySet()) {
+
+                Tuple tuple;
+                try {
+                    tuple = tupleFile.getTuple(entry.getValue());
+                }
+                catch (InvalidFilePointerException e) {
+                    throw new IOException("Couldn't find moved tuple at " +
+                        entry.getValue(), e);
+                }
+
+                TupleLiteral oldEntry = IndexUtils.makeTableSearchKey(
+                    columnRefs, tuple, /* findExactTuple */ false);
+                oldEntry.addValue(entry.getKey());
+
+                newEntries.add(IndexUtils.makeTableSearchKey(columnRefs, tuple,
+                    /* findExactTuple */ true));
+
+                tuple.unpin();
+
+                PageTuple idxTup =
+                    IndexUtils.findTupleInIndex(oldEntry, indexTupleFile);
+                if (idxTup != null)
+                    indexTupleFile.deleteTuple(idxTup);
+                else
+                    logger.warn("Index " + indexName + " has no entry for " +
+                        "tuple at " + entry.getKey());
+            }
+
+            for (TupleLiteral newEntry : newEntries)
+                indexTupleFile.addTuple(newEntry).unpin();
+        }
     }
 
 
@@ -0,0 +1,502 @@
+package edu.caltech.nanodb.storage;
+
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.log4j.Logger;
+
+
+/**
+ * <p>
+ * This class records where the pages of a compressed database file are
+ * stored.  A compressed file doesn't store page <em>n</em> at offset
+ * <em>n</em> &times; <em>pageSize</em>; instead, each page's compressed
+ * image is stored in an <em>extent</em> of whole sectors, wherever there
+ * was room when the page was written, and the page map records the extent
+ * of each page.  The {@link FileManagerImpl} uses the page map to load and
+ * save pages, so callers working with {@link DBPage}s don't see any
+ * difference between compressed and uncompressed files.
+ * </p>
+ * <p>
+ * The first <em>pageSize</em> bytes of a compressed file are its header
+ * block, which is not compressed.  As in every database file, byte 0 holds
+ * the file type and byte 1 the encoded page size, but with
+ * {@link #COMPRESSED_FLAG} set.  Byte 2 holds the ID of the codec used to
+ * compress the pages.  The integer at offset 4 is the number of pages in the
+ * file, the integer at offset 8 is the number of map blocks, and the
+ * integers that follow are the sectors where the map blocks start.  Each map
+ * block is <em>pageSize</em> bytes, holding an entry for each of a range of
+ * pages:  the page's first sector, the number of sectors in its extent, and
+ * the number of bytes of its image.  A page whose first sector is 0 has
+ * never been written, and reads as all zeros.
+ * </p>
+ * <p>
+ * When a page is rewritten, its new image is stored in the page's extent if
+ * it fits, and otherwise in a new extent.  The extents that are no longer
+ * used are reused for later pages.  The free extents aren't stored in the
+ * file; when the file is opened, every sector that neither the header
+ * block, a map block nor a page's extent uses is treated as free, so space
+ * freed before the file was closed is still reused.  Every change to the map
+ * is written to the file as soon as it is made, right after the page image
+ * it describes, so that the map on disk always describes the images on
+ * disk.
+ * </p>
+ *
+ * @design All of the file's {@link DBFile} objects share one page map, since
+ *         the map is kept in memory.
+ */
+public class PageMap {
+    /** A logging object for reporting anything interesting that happens. */
+    private static Logger logger = Logger.getLogger(PageMap.class);
+
+
+    /** The flag set in byte 1 of a database file whose pages are compressed. */
+    public static final int COMPRESSED_FLAG = 0x80;
+
+
+    /** The ID of the {@link edu.caltech.nanodb.util.LZCodec} codec. */
+    public static final int CODEC_LZ = 1;
+
+
+    /** Extents are allocated in units of sectors of this many bytes. */
+    public static final int SECTOR_SIZE = 128;
+
+
+    /** The offset in the header block of the codec ID. */
+    private static final int OFFSET_CODEC = 2;
+
+
+    /** The offset in the header block of the number of pages. */
+    private static final int OFFSET_NUM_PAGES = 4;
+
+
+    /** The offset in the header block of the number of map blocks. */
+    private static final int OFFSET_NUM_MAP_BLOCKS = 8;
+
+
+    /** The offset in the header block of the map blocks' sectors. */
+    private static final int OFFSET_MAP_BLOCKS = 12;
+
+
+    /** The size of each entry in a map block. */
+    private static final int ENTRY_SIZE = 12;
+
+
+    /** The page size of the file. */
+    private int pageSize;
+
+
+    /** The ID of the codec that compresses the file's pages. */
+    private int codec;
+
+
+    /** The number of pages in the file. */
+    private int numPages;
+
+
+    /** The sector where each map block starts. */
+    private int[] mapBlocks;
+
+
+    /** The number of map blocks in the file. */
+    private int numMapBlocks;
+
+
+    /** The first sector of each page's extent, or 0 if it has none. */
+    private int[] startSectors;
+
+
+    /** The number of sectors in each page's extent. */
+    private int[] numSectors;
+
+
+    /** The number of bytes in each page's stored image. */
+    private int[] lengths;
+
+
+    /**
+     * The unused extents of the file, mapping first sector to size.  This
+     * is rebuilt from the map entries when the file is opened.
+     */
+    private TreeMap<Integer, Integer> freeExtents = new TreeMap<>();
+
+
+    private PageMap(int pageSize, int codec) {
+        this.pageSize = pageSize;
+        this.codec = codec;
+
+        mapBlocks = new int[(pageSize - OFFSET_MAP_BLOCKS) / 4];
+        startSectors = new int[0];
+        numSectors = new int[0];
+        lengths = new int[0];
+    }
+
+
+    /**
+     * Writes the header block of a new, empty compressed file.
+     *
+     * @param fileContents the contents of the new file
+     * @param type the type of the file
+     * @param pageSize the page size of the file
+     *
+     * @return the page map of the new file
+     *
+     * @throws IOException if an IO error occurs while writing the header
+     */
+    static PageMap create(RandomAccessFile fileContents, DBFileType type,
+                          int pageSize) throws IOException {
+        byte[] header = new byte[pageSize];
+        header[0] = (byte) type.getID();
+        header[1] = (byte) (DBFile.encodePageSize(pageSize) | COMPRESSED_FLAG);
+        header[OFFSET_CODEC] = (byte) CODEC_LZ;
+
+        fileContents.seek(0);
+        fileContents.write(header);
+
+        return new PageMap(pageSize, CODEC_LZ);
+    }
+
+
+    /**
+     * Reads the page map of an existing compressed file.
+     *
+     * @param fileContents the contents of the file
+     * @param pageSize the page size of the file
+     *
+     * @return the page map of the file
+     *
+     * @throws IOException if an IO error occurs while reading the map, or if
+     *         the file uses an unknown codec
+     */
+    static PageMap read(RandomAccessFile fileContents, int pageSize)
+        throws IOException {
+
+        fileContents.seek(OFFSET_CODEC);
+        int codec = fileContents.readUnsignedByte();
+        if (codec != CODEC_LZ)
+            throw new IOException("Unrecognized page codec " + codec);
+
+        PageMap pageMap = new PageMap(pageSize, codec);
+
+        fileContents.seek(OFFSET_NUM_PAGES);
+        pageMap.numPages = fileContents.readInt();
+        int numMapBlocks = fileContents.readInt();
+        if (numMapBlocks > pageMap.mapBlocks.length)
+            throw new IOException("Invalid number of map blocks " + numMapBlocks);
+
+        for (int i = 0; i < numMapBlocks; i++)
+            pageMap.mapBlocks[i] = fileContents.readInt();
+
+        pageMap.numMapBlocks = numMapBlocks;
+        pageMap.growEntries();
+
+        int entriesPerBlock = pageMap.getEntriesPerBlock();
+        byte[] block = new byte[pageSize];
+        for (int i = 0; i < numMapBlocks; i++) {
+            fileContents.seek((long) pageMap.mapBlocks[i] * SECTOR_SIZE);
+            fileContents.readFully(block);
+
+            for (int j = 0; j < entriesPerBlock; j++) {
+                int pageNo = i * entriesPerBlock + j;
+                int pos = j * ENTRY_SIZE;
+                pageMap.startSectors[pageNo] = readInt(block, pos);
+                pageMap.numSectors[pageNo] = readInt(block, pos + 4);
+                pageMap.lengths[pageNo] = readInt(block, pos + 8);
+            }
+        }
+
+        pageMap.findFreeExtents(fileContents.length());
+        return pageMap;
+    }
+
+
+    private static int readInt(byte[] buf, int pos) {
+        return (buf[pos] & 0xFF) << 24 | (buf[pos + 1] & 0xFF) << 16 |
+            (buf[pos + 2] & 0xFF) << 8 | (buf[pos + 3] & 0xFF);
+    }
+
+
+    private int getEntriesPerBlock() {
+        return pageSize / ENTRY_SIZE;
+    }
+
+
+    private int getSectorsPerBlock() {
+        return pageSize / SECTOR_SIZE;
+    }
+
+
+    /** Makes room in the entry arrays for the pages of every map block. */
+    private void growEntries() {
+        int capacity = numMapBlocks * getEntriesPerBlock();
+        if (startSectors.length < capacity) {
+            startSectors = Arrays.copyOf(startSectors, capacity);
+            numSectors = Arrays.copyOf(numSectors, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+        }
+    }
+
+
+    /**
+     * Records the extents between the header block, map blocks and page
+     * extents as free, so that they can be reused.  This includes the
+     * extents of pages that were moved or truncated away before the file was
+     * last closed, since the map no longer refers to them.
+     *
+     * @param fileLength the length of the file in bytes
+     */
+    private void findFreeExtents(long fileLength) {
+        TreeMap<Integer, Integer> used = new TreeMap<>();
+        used.put(0, getSectorsPerBlock());
+        for (int i = 0; i < numMapBlocks; i++)
+            used.put(mapBlocks[i], getSectorsPerBlock());
+
+        for (int pageNo = 0; pageNo < numPages; pageNo++) {
+            if (startSectors[pageNo] != 0)
+                used.put(startSectors[pageNo], numSectors[pageNo]);
+        }
+
+        int sector = 0;
+        for (Map.Entry<Integer, Integer> entry : used.entrySet()) {
+            if (entry.getKey() > sector)
+                freeExtents.put(sector, entry.getKey() - sector);
+
+            sector = Math.max(sector, entry.getKey() + entry.getValue());
+        }
+
+        int endSector = (int) ((fileLength + SECTOR_SIZE - 1) / SECTOR_SIZE);
+        if (endSector > sector)
+            freeExtents.put(sector, endSector - sector);
+    }
+
+
+    /**
+     * Returns the ID of the codec that compresses the file's pages.
+     *
+     * @return the ID of the codec that compresses the file's pages
+     */
+    public int getCodec() {
+        return codec;
+    }
+
+
+    /**
+     * Returns the number of pages in the file.
+     *
+     * @return the number of pages in the file
+     */
+    public synchronized int getNumPages() {
+        return numPages;
+    }
+
+
+    /**
+     * Returns the number of bytes stored for the specified page, or 0 if the
+     * page has never been written.  The page is stored uncompressed if this
+     * is the page size.
+     *
+     * @param pageNo the page to report the stored size of
+     *
+     * @return the number of bytes stored for the page
+     */
+    public synchronized int getStoredLength(int pageNo) {
+        return (pageNo < numPages) ? lengths[pageNo] : 0;
+    }
+
+
+    /**
+     * Allocates an extent of the specified number of sectors, reusing a free
+     * extent if one is large enough, and otherwise extending the file.
+     */
+    private int allocate(RandomAccessFile fileContents, int sectors)
+        throws IOException {
+
+        Iterator<Map.Entry<Integer, Integer>> iter =
+            freeExtents.entrySet().iterator();
+        while (iter.hasNext()) {
+            Map.Entry<Integer, Integer> entry = iter.next();
+            int start = entry.getKey();
+            int size = entry.getValue();
+            if (size >= sectors) {
+                iter.remove();
+                if (size > sectors)
+                    freeExtents.put(start + sectors, size - sectors);
+
+                return start;
+            }
+        }
+
+        long length = fileContents.length();
+        long start = (length + SECTOR_SIZE - 1) / SECTOR_SIZE;
+        if (start + sectors > Integer.MAX_VALUE)
+            throw new IOException("Compressed file is too large");
+
+        return (int) start;
+    }
+
+
+    /**
+     * Adds a map block if the specified page doesn't have an entry yet.
+     */
+    private void ensureEntry(RandomAccessFile fileContents, int pageNo)
+        throws IOException {
+
+        while (pageNo >= numMapBlocks * getEntriesPerBlock()) {
+            if (numMapBlocks == mapBlocks.length) {
+                throw new IOException("Compressed file can't hold more than " +
+                    numMapBlocks * getEntriesPerBlock() + " pages");
+            }
+
+            int start = allocate(fileContents, getSectorsPerBlock());
+            fileContents.seek((long) start * SECTOR_SIZE);
+            fileContents.write(new byte[pageSize]);
+
+            mapBlocks[numMapBlocks] = start;
+            fileContents.seek(OFFSET_MAP_BLOCKS + 4 * numMapBlocks);
+            fileContents.writeInt(start);
+
+            numMapBlocks++;
+            fileContents.seek(OFFSET_NUM_MAP_BLOCKS);
+            fileContents.writeInt(numMapBlocks);
+
+            growEntries();
+
+            logger.debug(String.format("Added map block %d at sector %d",
+                numMapBlocks - 1, start));
+        }
+    }
+
+
+    /** Writes a page's entry to its map block. */
+    private void writeEntry(RandomAccessFile fileContents, int pageNo)
+        throws IOException {
+
+        int block = pageNo / getEntriesPerBlock();
+        int index = pageNo % getEntriesPerBlock();
+        fileContents.seek((long) mapBlocks[block] * SECTOR_SIZE +
+            index * ENTRY_SIZE);
+        fileContents.writeInt(startSectors[pageNo]);
+        fileContents.writeInt(numSectors[pageNo]);
+        fileContents.writeInt(lengths[pageNo]);
+    }
+
+
+    /**
+     * Sets the number of pages in the file.  Pages added this way have
+     * never been written, so they read as all zeros.  Pages removed this way
+     * are discarded, and their extents are reused for later pages.
+     *
+     * @param fileContents the contents of the file
+     * @param numPages the new number of pages in the file
+     *
+     * @throws IOException if an IO error occurs while updating the map
+     */
+    synchronized void setNumPages(RandomAccessFile fileContents, int numPages)
+        throws IOException {
+
+        if (numPages > 0)
+            ensureEntry(fileContents, numPages - 1);
+
+        for (int pageNo = numPages; pageNo < this.numPages; pageNo++) {
+            if (startSectors[pageNo] != 0) {
+                freeExtents.put(startSectors[pageNo], numSectors[pageNo]);
+                startSectors[pageNo] = 0;
+                numSectors[pageNo] = 0;
+                lengths[pageNo] = 0;
+                writeEntry(fileContents, pageNo);
+            }
+        }
+
+        this.numPages = numPages;
+        fileContents.seek(OFFSET_NUM_PAGES);
+        fileContents.writeInt(numPages);
+    }
+
+
+    /**
+     * Reads the stored image of a page.
+     *
+     * @param fileContents the contents of the file
+     * @param pageNo the page to read
+     *
+     * @return the stored image of the page, or <tt>null</tt> if the page has
+     *         never been written
+     *
+     * @throws EOFException if the page is past the end of the file
+     * @throws IOException if an IO error occurs while reading the page
+     */
+    synchronized byte[] readPage(RandomAccessFile fileContents, int pageNo)
+        throws IOException {
+
+        if (pageNo >= numPages) {
+            throw new EOFException(String.format(
+                "Page %d is past the end of a file with %d pages", pageNo,
+                numPages));
+        }
+
+        if (startSectors[pageNo] == 0)
+            return null;
+
+        byte[] data = new byte[lengths[pageNo]];
+        fileContents.seek((long) startSectors[pageNo] * SECTOR_SIZE);
+        fileContents.readFully(data);
+        return data;
+    }
+
+
+    /**
+     * Writes the stored image of a page, extending the file if the page is
+     * past its end.
+     *
+     * @param fileContents the contents of the file
+     * @param pageNo the page to write
+     * @param data the array holding the page's image
+     * @param length the number of bytes in the page's image
+     *
+     * @throws IOException if an IO error occurs while writing the page
+     */
+    synchronized void writePage(RandomAccessFile fileContents, int pageNo,
+                                byte[] data, int length) throws IOException {
+
+        if (length <= 0 || length > pageSize) {
+            throw new IllegalArgumentException(
+                "length must be in the range [1, pageSize], got " + length);
+        }
+
+        ensureEntry(fileContents, pageNo);
+
+        int sectors = (length + SECTOR_SIZE - 1) / SECTOR_SIZE;
+        int oldStart = startSectors[pageNo];
+        int oldSectors = numSectors[pageNo];
+
+        int start = oldStart;
+        if (oldStart == 0 || oldSectors < sectors) {
+            start = allocate(fileContents, sectors);
+            numSectors[pageNo] = sectors;
+        }
+
+        fileContents.seek((long) start * SECTOR_SIZE);
+        fileContents.write(data, 0, length);
+
+        startSectors[pageNo] = start;
+        lengths[pageNo] = length;
+        writeEntry(fileContents, pageNo);
+
+        // The old extent can only be reused once the map no longer refers
+        // to it.
+        if (oldStart != 0 && oldStart != start)
+            freeExtents.put(oldStart, oldSectors);
+
+        if (pageNo >= numPages) {
+            numPages = pageNo + 1;
+            fileContents.seek(OFFSET_NUM_PAGES);
+            fileContents.writeInt(numPages);
+        }
+    }
+}
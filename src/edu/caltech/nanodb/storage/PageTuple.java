@@ -62,6 +62,15 @@ public abstract class PageTuple implements Tuple {
     private DBPage dbPage;
 
 
+    /**
+     * The number of the page that contains the tuple.  This is recorded
+     * separately from {@link #dbPage}, since the buffer manager invalidates
+     * a page object when it evicts the page, and the tuple's location must
+     * remain available so that scans can continue from it.
+     */
+    private int pageNo;
+
+
     /** The offset in the page of the tuple's start. */
     private int pageOffset;
 
@@ -72,21 +81,49 @@ public abstract class PageTuple implements Tuple {
 
     /**
      * This array contains the cached offsets of each value in this tuple.
-     * The array is populated when a tuple is constructed.  For columns with
-     * a value of <tt>NULL</tt>, the offset will be 0.
+     * The array is populated lazily:  only the first
+     * {@link #numValueOffsets} elements are valid, since a column's offset
+     * depends on the sizes of all the values before it, and a query may only
+     * need the first few columns.  For columns with a value of <tt>NULL</tt>,
+     * the offset will be 0.
      *
      * @see #NULL_OFFSET
      */
     private int[] valueOffsets;
 
 
+    /** The number of leading elements of {@link #valueOffsets} computed. */
+    private int numValueOffsets;
+
+
+    /**
+     * The offset in the page just past the last value whose offset has been
+     * computed, which is where the next column's value starts if it is not
+     * <tt>NULL</tt>.
+     */
+    private int nextValueOffset;
+
+
+    /**
+     * If every column of the schema has a fixed size and none of this
+     * tuple's values is <tt>NULL</tt>, this array holds the offset of each
+     * column's value relative to the start of the tuple's data, followed by
+     * the size of the data.  Otherwise, this is <tt>null</tt>, and offsets
+     * are computed in {@link #valueOffsets}.
+     *
+     * @see #getFixedValueOffsets
+     */
+    private int[] fixedValueOffsets;
+
+
     /**
      * The offset in the page where the tuple's data ends.  Note that this value
      * is <u>one byte past</u> the end of the tuple's data; as with most Java
      * sequences, the starting offset is inclusive and the ending offset is
      * exclusive.  Also, as a consequence, this value could be past the end of
      * the byte-array that the tuple resides in, if the tuple is at the end of
-     * the byte-array.
+     * the byte-array.  This is only valid once every value's offset has been
+     * computed.
      */
     private int endOffset;
 
@@ -100,6 +137,26 @@ public abstract class PageTuple implements Tuple {
      * @param schema     the details of the columns that appear within the tuple
      */
     public PageTuple(DBPage dbPage, int pageOffset, Schema schema) {
+        this(dbPage, pageOffset, schema, null);
+    }
+
+
+    /**
+     * Construct a new tuple object that is backed by the data in the database
+     * page, using precomputed value offsets if the schema's columns all have
+     * a fixed size.  Tuple files can compute the offsets once with
+     * {@link #getFixedValueOffsets}, so that the tuples they return can find
+     * any of their values without examining the values before it.
+     *
+     * @param dbPage     the specific database page that holds the tuple
+     * @param pageOffset the offset of the tuple's actual data in the page
+     * @param schema     the details of the columns that appear within the tuple
+     * @param fixedValueOffsets the result of {@link #getFixedValueOffsets}
+     *        for the schema, or <tt>null</tt> to compute the offsets of
+     *        the tuple's values as they are needed
+     */
+    protected PageTuple(DBPage dbPage, int pageOffset, Schema schema,
+                        int[] fixedValueOffsets) {
 
         if (dbPage == null)
             throw new NullPointerException("dbPage must be specified");
@@ -110,15 +167,19 @@ public abstract class PageTuple implements Tuple {
         }
 
         this.dbPage = dbPage;
+        this.pageNo = dbPage.getPageNo();
         this.pageOffset = pageOffset;
         this.schema = schema;
 
         // Pin ourselves immediately so that we don't lose the DBPage.
         pin();
 
-        valueOffsets = new int[schema.numColumns()];
+        // The fixed offsets only apply if none of the values is NULL.
+        if (fixedValueOffsets != null && !hasNullValues())
+            this.fixedValueOffsets = fixedValueOffsets;
 
-        computeValueOffsets();
+        valueOffsets = new int[schema.numColumns()];
+        nextValueOffset = getDataStartOffset();
     }
 
 
@@ -179,7 +240,7 @@ public abstract class PageTuple implements Tuple {
      * @return a file-pointer that can be used to look up this tuple
      */
     public FilePointer getExternalReference() {
-        return new FilePointer(dbPage.getPageNo(), pageOffset);
+        return new FilePointer(pageNo, pageOffset);
     }
 
 
@@ -188,12 +249,28 @@ public abstract class PageTuple implements Tuple {
     }
 
 
+    /**
+     * Returns the number of the page that contains the tuple.  Unlike the
+     * page number of the tuple's {@link DBPage}, this is still valid after
+     * the tuple is unpinned and its page is evicted.
+     *
+     * @return the number of the page that contains the tuple
+     */
+    public int getPageNo() {
+        return pageNo;
+    }
+
+
     public int getOffset() {
         return pageOffset;
     }
 
 
     public int getEndOffset() {
+        if (fixedValueOffsets != null)
+            return getDataStartOffset() + fixedValueOffsets[schema.numColumns()];
+
+        computeValueOffsets(schema.numColumns() - 1);
         return endOffset;
     }
 
@@ -204,7 +281,7 @@ public abstract class PageTuple implements Tuple {
      * @return the storage-size of the tuple in bytes.
      */
     public int getSize() {
-        return endOffset - pageOffset;
+        return getEndOffset() - pageOffset;
     }
 
 
@@ -310,17 +387,36 @@ public abstract class PageTuple implements Tuple {
     }
 
 
+    /**
+     * Returns true if any of the tuple's <tt>NULL</tt>-flags is set.
+     *
+     * @return true if any of the tuple's values is <tt>NULL</tt>
+     */
+    private boolean hasNullValues() {
+        int nullFlagBytes = getNullFlagsSize(schema.numColumns());
+        for (int i = 0; i < nullFlagBytes; i++) {
+            if (dbPage.readUnsignedByte(pageOffset + i) != 0)
+                return true;
+        }
+        return false;
+    }
+
+
     /**
      * This helper function computes and caches the offset of each column
-     * value in the tuple.  If a column has a <tt>NULL</tt> value then
-     * {@link #NULL_OFFSET} is used for the offset.
+     * value in the tuple, up to and including the specified column.  Offsets
+     * that have already been computed are not computed again.  If a column
+     * has a <tt>NULL</tt> value then {@link #NULL_OFFSET} is used for the
+     * offset.
+     *
+     * @param colIndex the index of the last column whose offset is needed
      */
-    private void computeValueOffsets() {
+    private void computeValueOffsets(int colIndex) {
         int numCols = schema.numColumns();
 
-        int valOffset = getDataStartOffset();
+        int valOffset = nextValueOffset;
 
-        for (int iCol = 0; iCol < numCols; iCol++) {
+        for (int iCol = numValueOffsets; iCol <= colIndex; iCol++) {
             if (getNullFlag(iCol)) {
                 // This column is marked as being NULL.
                 valueOffsets[iCol] = NULL_OFFSET;
@@ -335,7 +431,99 @@ public abstract class PageTuple implements Tuple {
             }
         }
 
-        endOffset = valOffset;
+        if (colIndex >= numValueOffsets) {
+            numValueOffsets = colIndex + 1;
+            nextValueOffset = valOffset;
+        }
+
+        if (numValueOffsets == numCols)
+            endOffset = nextValueOffset;
+    }
+
+
+    /**
+     * Returns the offset of the specified column's value, computing it if
+     * necessary.
+     *
+     * @param colIndex the index of the column
+     *
+     * @return the offset of the column's value in the page, or
+     *         {@link #NULL_OFFSET} if the value is <tt>NULL</tt>
+     */
+    private int getValueOffset(int colIndex) {
+        if (fixedValueOffsets != null)
+            return getDataStartOffset() + fixedValueOffsets[colIndex];
+
+        if (colIndex >= numValueOffsets)
+            computeValueOffsets(colIndex);
+
+        return valueOffsets[colIndex];
+    }
+
+
+    /**
+     * Computes the offsets of all of the tuple's values, so that they can be
+     * updated as the tuple is modified.
+     */
+    private void computeAllValueOffsets() {
+        if (fixedValueOffsets != null) {
+            int dataStart = getDataStartOffset();
+            int numCols = schema.numColumns();
+            for (int iCol = 0; iCol < numCols; iCol++)
+                valueOffsets[iCol] = dataStart + fixedValueOffsets[iCol];
+
+            numValueOffsets = numCols;
+            endOffset = nextValueOffset = dataStart + fixedValueOffsets[numCols];
+            fixedValueOffsets = null;
+        }
+        else {
+            computeValueOffsets(schema.numColumns() - 1);
+        }
+    }
+
+
+    /**
+     * Computes the offset of each column's value relative to the start of a
+     * tuple's data, for tuples with the specified schema that have no
+     * <tt>NULL</tt> values.  This is only possible if every column has a
+     * fixed storage size.
+     *
+     * @param schema the schema of the tuples
+     *
+     * @return an array holding the offset of each column's value, followed
+     *         by the size of the tuple's data; or <tt>null</tt> if some
+     *         column doesn't have a fixed storage size
+     */
+    public static int[] getFixedValueOffsets(Schema schema) {
+        int numCols = schema.numColumns();
+        int[] offsets = new int[numCols + 1];
+
+        int offset = 0;
+        for (int iCol = 0; iCol < numCols; iCol++) {
+            ColumnType colType = schema.getColumnInfo(iCol).getType();
+            switch (colType.getBaseType()) {
+                case INTEGER:
+                case FLOAT:
+                case SMALLINT:
+                case BIGINT:
+                case DOUBLE:
+                case TINYINT:
+                case CHAR:
+                case FILE_POINTER:
+                    break;
+
+                default:
+                    // VARCHAR values have a variable size, and other types
+                    // (e.g. DATE) don't have a storage size at all here.
+                    return null;
+            }
+
+            offsets[iCol] = offset;
+            offset += getStorageSize(colType, 0);
+        }
+        offsets[numCols] = offset;
+
+        return offsets;
     }
 
 
@@ -372,7 +560,7 @@ public abstract class PageTuple implements Tuple {
      */
     public boolean isNullValue(int colIndex) {
         checkColumnIndex(colIndex);
-        return (valueOffsets[colIndex] == NULL_OFFSET);
+        return (getValueOffset(colIndex) == NULL_OFFSET);
     }
 
 
@@ -396,9 +584,8 @@ public abstract class PageTuple implements Tuple {
         checkColumnIndex(colIndex);
 
         Object value = null;
-        if (!isNullValue(colIndex)) {
-            int offset = valueOffsets[colIndex];
-
+        int offset = getValueOffset(colIndex);
+        if (offset != NULL_OFFSET) {
             ColumnType colType = schema.getColumnInfo(colIndex).getType();
             switch (colType.getBaseType()) {
 
@@ -461,6 +648,10 @@ public abstract class PageTuple implements Tuple {
     public void setColumnValue(int colIndex, Object value) {
         checkColumnIndex(colIndex);
 
+        // Changing a value may move other values, so all of the offsets
+        // must be known.
+        computeAllValueOffsets();
+
         if (value == null) {
             // Set the column-value to NULL.
             setNullColumnValue(colIndex);
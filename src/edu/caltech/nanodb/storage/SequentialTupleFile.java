@@ -62,4 +62,24 @@ public interface SequentialTupleFile extends TupleFile {
      * @throws IOException
      */
     Tuple findFirstTupleGreaterThan(Tuple searchKey) throws IOException;
+
+
+    /**
+     * Returns the first tuple in the file that has a search-key value that
+     * is greater than or equal to the specified search-key value, or
+     * {@code null} if there are no such tuples in the file.  As with
+     * {@link #findFirstTupleEquals}, the search key may contain fewer
+     * columns than the sequential file does, in which case only the columns
+     * that are specified are compared.  Scanning forward from the result
+     * with {@link #getNextTuple} visits every tuple with a search-key value
+     * in a range that starts at the specified value.
+     *
+     * @param searchKey the tuple to search for
+     *
+     * @return the first tuple in the file that is greater than or equal to
+     *         the search key, or {@code null} if there is no such tuple
+     *
+     * @throws IOException if an IO error occurs during the operation
+     */
+    Tuple findFirstTupleAtLeast(Tuple searchKey) throws IOException;
 }
@@ -6,6 +6,8 @@ import java.util.ArrayList;
 import org.apache.log4j.Logger;
 
 import edu.caltech.nanodb.queryeval.ColumnStats;
+import edu.caltech.nanodb.queryeval.Histogram;
+import edu.caltech.nanodb.queryeval.MostCommonValues;
 import edu.caltech.nanodb.queryeval.TableStats;
 import edu.caltech.nanodb.relations.ColumnInfo;
 import edu.caltech.nanodb.relations.Schema;
@@ -19,6 +21,20 @@ public class StatsWriter {
     private static Logger logger = Logger.getLogger(StatsWriter.class);
 
 
+    /**
+     * A bit-mask used for storing column-stats, to record whether or not a
+     * histogram is present for the column.
+     */
+    private static final int COLSTAT_NULLMASK_HISTOGRAM = 0x10;
+
+
+    /**
+     * A bit-mask used for storing column-stats, to record whether or not a
+     * most-common-values list is present for the column.
+     */
+    private static final int COLSTAT_NULLMASK_MOST_COMMON_VALUES = 0x20;
+
+
     /**
      * A bit-mask used for storing column-stats, to record whether or not the
      * "number of distinct values" value is present for the column.
@@ -47,11 +63,37 @@ public class StatsWriter {
     private static final int COLSTAT_NULLMASK_MAX_VALUE = 0x01;
 
 
+    /**
+     * A bit-mask used for storing table-stats, to record whether or not the
+     * B<sup>+</sup> tree statistics (tree height, number of leaf pages and
+     * average leaf fill) are present for the table.
+     */
+    private static final int TBLSTAT_MASK_BTREE_STATS = 0x01;
+
+
+    /**
+     * A bit-mask used for storing table-stats, to record whether or not the
+     * count of rows modified since the statistics were computed is present.
+     */
+    private static final int TBLSTAT_MASK_MODIFICATIONS = 0x02;
+
+
+    /**
+     * The version of the table-statistics format, which is stored before the
+     * statistics themselves.  This must be incremented whenever the format
+     * changes, so that statistics stored in an older format are not
+     * misread.
+     */
+    public static final int STATS_FORMAT_VERSION = 1;
+
+
     public void writeTableStats(Schema schema, TableStats stats, PageWriter pgWriter) {
         logger.debug("Writing table-statistics:  " + stats);
 
         int startPosition = pgWriter.getPosition();
 
+        pgWriter.writeByte(STATS_FORMAT_VERSION);
+
         pgWriter.writeShort(stats.numDataPages);
         pgWriter.writeInt(stats.numTuples);
         pgWriter.writeFloat(stats.avgTupleSize);
@@ -61,14 +103,16 @@ public class StatsWriter {
             ColumnStats c = colStats.get(i);
             ColumnInfo colInfo = schema.getColumnInfo(i);
 
-            // There are three values per column-stat, and any of them can be
-            // null.  Therefore, each column-stat gets its own NULL-mask.
+            // There are several values per column-stat, and any of them can
+            // be null.  Therefore, each column-stat gets its own NULL-mask.
             byte nullMask = 0;
 
             int numUnique = c.getNumUniqueValues();
             int numNull   = c.getNumNullValues();
             Object minVal = c.getMinValue();
             Object maxVal = c.getMaxValue();
+            Histogram histogram = c.getHistogram();
+            MostCommonValues mcv = c.getMostCommonValues();
 
             // Build up the NULL-mask.
 
@@ -84,6 +128,12 @@ public class StatsWriter {
             if (maxVal == null)
                 nullMask |= COLSTAT_NULLMASK_MAX_VALUE;
 
+            if (histogram == null)
+                nullMask |= COLSTAT_NULLMASK_HISTOGRAM;
+
+            if (mcv == null)
+                nullMask |= COLSTAT_NULLMASK_MOST_COMMON_VALUES;
+
             // Store the NULL-mask, then store the non-NULL values.
 
             logger.debug(String.format("Writing column-stat data:  " +
@@ -103,8 +153,35 @@ public class StatsWriter {
 
             if (maxVal != null)
                 pgWriter.writeObject(colInfo.getType(), maxVal);
+
+            if (histogram != null)
+                writeHistogram(colInfo, histogram, pgWriter);
+
+            if (mcv != null)
+                writeMostCommonValues(colInfo, mcv, pgWriter);
+        }
+
+        // B+ tree statistics are only present for tree-structured files, and
+        // the modification count is usually zero, so they are preceded by a
+        // mask recording whether they were stored.
+        byte tableMask = 0;
+        if (stats.hasTreeStats())
+            tableMask |= TBLSTAT_MASK_BTREE_STATS;
+
+        if (stats.numModifications > 0)
+            tableMask |= TBLSTAT_MASK_MODIFICATIONS;
+
+        pgWriter.writeByte(tableMask);
+
+        if (stats.hasTreeStats()) {
+            pgWriter.writeShort(stats.treeHeight);
+            pgWriter.writeShort(stats.numLeafPages);
+            pgWriter.writeFloat(stats.avgLeafFill);
         }
 
+        if (stats.numModifications > 0)
+            pgWriter.writeInt(stats.numModifications);
+
         if (logger.isDebugEnabled()) {
             int size = pgWriter.getPosition() - startPosition;
             logger.debug("Table statistics occupy " + size + " bytes.");
@@ -112,9 +189,31 @@ public class StatsWriter {
     }
 
 
+    /**
+     * Reads the table statistics stored by {@link #writeTableStats}.  If the
+     * statistics were stored in a different format version, they can't be
+     * read, so empty statistics are returned instead; the table must then
+     * be analyzed again.
+     *
+     * @param pgReader the reader to load the statistics with
+     * @param schema the schema of the table the statistics are for
+     *
+     * @return the statistics that were read, or empty statistics if they
+     *         were stored in a different format
+     */
     public TableStats readTableStats(PageReader pgReader, Schema schema) {
         logger.debug("Reading table-statistics.");
 
+        int version = pgReader.readUnsignedByte();
+        if (version != STATS_FORMAT_VERSION) {
+            logger.warn(String.format("Table statistics are stored in " +
+                "format version %d, but version %d is expected; ignoring " +
+                "them until the table is analyzed again.", version,
+                STATS_FORMAT_VERSION));
+
+            return new TableStats(schema.numColumns());
+        }
+
         int numDataPages = pgReader.readUnsignedShort();
         int numTuples = pgReader.readInt();
         float avgTupleSize = pgReader.readFloat();
@@ -141,6 +240,12 @@ public class StatsWriter {
             if ((nullMask & COLSTAT_NULLMASK_MAX_VALUE) == 0)
                 c.setMaxValue(pgReader.readObject(colInfo.getType()));
 
+            if ((nullMask & COLSTAT_NULLMASK_HISTOGRAM) == 0)
+                c.setHistogram(readHistogram(colInfo, pgReader));
+
+            if ((nullMask & COLSTAT_NULLMASK_MOST_COMMON_VALUES) == 0)
+                c.setMostCommonValues(readMostCommonValues(colInfo, pgReader));
+
             logger.debug(String.format("Read column-stat data:  " +
                 "nullmask=0x%X, unique=%d, null=%d, min=%s, max=%s",
                 nullMask, c.getNumUniqueValues(), c.getNumNullValues(),
@@ -149,6 +254,118 @@ public class StatsWriter {
             colStats.add(c);
         }
 
-        return new TableStats(numDataPages, numTuples, avgTupleSize, colStats);
+        TableStats stats =
+            new TableStats(numDataPages, numTuples, avgTupleSize, colStats);
+
+        byte tableMask = pgReader.readByte();
+        if ((tableMask & TBLSTAT_MASK_BTREE_STATS) != 0) {
+            stats.treeHeight = pgReader.readUnsignedShort();
+            stats.numLeafPages = pgReader.readUnsignedShort();
+            stats.avgLeafFill = pgReader.readFloat();
+
+            logger.debug(String.format("Read B+ tree stats:  height=%d, " +
+                "leaf pages=%d, avg leaf fill=%.3f", stats.treeHeight,
+                stats.numLeafPages, stats.avgLeafFill));
+        }
+
+        if ((tableMask & TBLSTAT_MASK_MODIFICATIONS) != 0)
+            stats.numModifications = pgReader.readInt();
+
+        return stats;
+    }
+
+
+    /**
+     * Writes a column's histogram.  The number of buckets is stored first,
+     * followed by the bucket bounds and then the bucket counts.
+     *
+     * @param colInfo the column that the histogram was built for
+     * @param histogram the histogram to write
+     * @param pgWriter the writer to store the histogram with
+     */
+    private void writeHistogram(ColumnInfo colInfo, Histogram histogram,
+                                PageWriter pgWriter) {
+        int numBuckets = histogram.getNumBuckets();
+        pgWriter.writeShort(numBuckets);
+
+        pgWriter.writeObject(colInfo.getType(), histogram.getLowerBound(0));
+        for (int i = 0; i < numBuckets; i++)
+            pgWriter.writeObject(colInfo.getType(), histogram.getUpperBound(i));
+
+        for (int i = 0; i < numBuckets; i++)
+            pgWriter.writeInt(histogram.getCount(i));
+    }
+
+
+    /**
+     * Reads a column's histogram, as written by {@link #writeHistogram}.
+     *
+     * @param colInfo the column that the histogram was built for
+     * @param pgReader the reader to load the histogram with
+     *
+     * @return the histogram that was read
+     */
+    private Histogram readHistogram(ColumnInfo colInfo, PageReader pgReader) {
+        int numBuckets = pgReader.readUnsignedShort();
+
+        Object[] bounds = new Object[numBuckets + 1];
+        for (int i = 0; i <= numBuckets; i++)
+            bounds[i] = pgReader.readObject(colInfo.getType());
+
+        int[] counts = new int[numBuckets];
+        for (int i = 0; i < numBuckets; i++)
+            counts[i] = pgReader.readInt();
+
+        return new Histogram(bounds, counts);
+    }
+
+
+    /**
+     * Writes a column's most-common-values list.  The number of values is
+     * stored first, followed by the column's total non-<tt>NULL</tt> count,
+     * the values themselves, and then their counts.
+     *
+     * @param colInfo the column that the list was built for
+     * @param mcv the most-common-values list to write
+     * @param pgWriter the writer to store the list with
+     */
+    private void writeMostCommonValues(ColumnInfo colInfo,
+        MostCommonValues mcv, PageWriter pgWriter) {
+
+        int numValues = mcv.size();
+        pgWriter.writeShort(numValues);
+        pgWriter.writeInt((int) mcv.getTotalCount());
+
+        for (int i = 0; i < numValues; i++)
+            pgWriter.writeObject(colInfo.getType(), mcv.getValue(i));
+
+        for (int i = 0; i < numValues; i++)
+            pgWriter.writeInt(mcv.getCount(i));
+    }
+
+
+    /**
+     * Reads a column's most-common-values list, as written by
+     * {@link #writeMostCommonValues}.
+     *
+     * @param colInfo the column that the list was built for
+     * @param pgReader the reader to load the list with
+     *
+     * @return the most-common-values list that was read
+     */
+    private MostCommonValues readMostCommonValues(ColumnInfo colInfo,
+                                                  PageReader pgReader) {
+        int numValues = pgReader.readUnsignedShort();
+        long totalCount = pgReader.readInt();
+
+        Object[] values = new Object[numValues];
+        for (int i = 0; i < numValues; i++)
+            values[i] = pgReader.readObject(colInfo.getType());
+
+        int[] counts = new int[numValues];
+        for (int i = 0; i < numValues; i++)
+            counts[i] = pgReader.readInt();
+
+        return new MostCommonValues(values, counts, totalCount);
     }
 }
@@ -15,6 +15,7 @@ import edu.caltech.nanodb.indexes.DatabaseConstraintEnforcer;
 import edu.caltech.nanodb.indexes.IndexManager;
 
 import edu.caltech.nanodb.indexes.IndexUpdater;
+import edu.caltech.nanodb.queryeval.AutoAnalyzer;
 import edu.caltech.nanodb.server.EventDispatcher;
 import edu.caltech.nanodb.server.NanoDBServer;
 import edu.caltech.nanodb.server.properties.PropertyHandler;
@@ -22,6 +23,7 @@ import edu.caltech.nanodb.server.properties.ReadOnlyPropertyException;
 import edu.caltech.nanodb.server.properties.UnrecognizedPropertyException;
 
 import edu.caltech.nanodb.storage.btreefile.BTreeTupleFileManager;
+import edu.caltech.nanodb.storage.columnfile.ColumnarTupleFileManager;
 import edu.caltech.nanodb.storage.heapfile.HeapTupleFileManager;
 import edu.caltech.nanodb.transactions.TransactionManager;
 
@@ -192,6 +194,13 @@ public class StorageManager {
     private IndexManager indexManager;
 
 
+    /**
+     * The component that counts table modifications, and re-analyzes tables
+     * in the background once their statistics become stale.
+     */
+    private AutoAnalyzer autoAnalyzer;
+
+
     /**
      * This mapping is used to keep track of the tuple-file managers for all
      * the kinds of tuple-files we support.
@@ -256,6 +265,15 @@ public class StorageManager {
         tupleFileManagers.put(DBFileType.BTREE_TUPLE_FILE,
             new BTreeTupleFileManager(this));
 
+        tupleFileManagers.put(DBFileType.COLUMNAR_TUPLE_FILE,
+            new ColumnarTupleFileManager(this));
+
+        // The auto-analyzer saves each modified table's statistics after
+        // every command, so it must see the end of a command before the
+        // transaction manager commits the command's transaction.
+        autoAnalyzer = new AutoAnalyzer(server);
+        server.getEventDispatcher().addCommandEventListener(autoAnalyzer);
+
         if (TransactionManager.isEnabled()) {
             logger.info("Initializing transaction manager.");
             transactionManager = new TransactionManager(server);
@@ -281,6 +299,10 @@ public class StorageManager {
             eventDispatcher.addRowEventListener(new IndexUpdater(this));
         }
 
+        // Count table modifications once every other component has accepted
+        // the change.
+        server.getEventDispatcher().addRowEventListener(autoAnalyzer);
+
         initialized = true;
     }
 
@@ -300,6 +322,11 @@ public class StorageManager {
                 "Storage manager is not initialized.");
         }
 
+        // Stop any background analysis before the files are closed, and save
+        // the modification counts that haven't been saved yet.
+        autoAnalyzer.shutdown();
+        saveModificationCounts();
+
         if (transactionManager != null)
             transactionManager.forceWAL();
 
@@ -450,14 +477,26 @@ public class StorageManager {
     public DBPage loadDBPage(DBFile dbFile, int pageNo, boolean create)
         throws IOException {
 
-        // Try to retrieve from the buffer manager.
-        DBPage dbPage = bufferManager.getPage(dbFile, pageNo);
-        if (dbPage == null) {
-            // Buffer manager didn't have it.  Read the page directly from
-            // the file, then add it to the buffer manager.
+        // Try to retrieve from the buffer manager.  The workers of a
+        // parallel query may load pages concurrently; if another thread is
+        // already loading this page, this waits for it rather than loading
+        // the page a second time.
+        DBPage dbPage = bufferManager.getPageOrStartLoad(dbFile, pageNo);
+        if (dbPage != null)
+            return dbPage;
+
+        // Buffer manager didn't have it, so this thread must load it.
+        // Restore it from a compressed frame, or read the page directly from
+        // the file, then add it to the buffer manager.  The buffer manager's
+        // lock isn't held while the page is read, so that other threads can
+        // keep using the cache.
+        try {
             dbPage = new DBPage(bufferManager, dbFile, pageNo);
             try {
-                fileManager.loadPage(dbFile, pageNo, dbPage.getPageData(), create);
+                if (!bufferManager.restoreCompressedFrame(dbPage)) {
+                    fileManager.loadPage(dbFile, pageNo, dbPage.getPageData(),
+                        create);
+                }
                 bufferManager.addPage(dbPage);
             }
             catch (IOException e) {
@@ -467,6 +506,9 @@ public class StorageManager {
                 throw e;
             }
         }
+        finally {
+            bufferManager.endLoad(dbFile, pageNo);
+        }
 
         return dbPage;
     }
@@ -515,6 +557,48 @@ public class StorageManager {
     }
 
 
+    /**
+     * This method truncates a database file so that it holds only its first
+     * <tt>numPages</tt> pages.  Any cached pages past the new end of the file
+     * are discarded from the Buffer Manager without being written back, so
+     * the caller must ensure that those pages are no longer in use.
+     *
+     * @param dbFile the database file to truncate
+     * @param numPages the number of pages to keep in the file
+     *
+     * @throws IOException if an IO error occurs while truncating the file
+     */
+    public void truncateDBFile(DBFile dbFile, int numPages) throws IOException {
+        bufferManager.discardDBFilePages(dbFile, numPages);
+        fileManager.truncateDBFile(dbFile, numPages);
+    }
+
+
+    /**
+     * This method truncates a database file so that it holds only its first
+     * <tt>numPages</tt> pages, once the current transaction has committed.
+     * Truncation isn't recorded in the write-ahead log, so it can't be done
+     * while the transaction might still be rolled back.  If transactions
+     * are disabled, the file's dirty pages are written out and the file is
+     * truncated immediately.
+     *
+     * @param dbFile the database file to truncate
+     * @param numPages the number of pages to keep in the file
+     *
+     * @throws IOException if an IO error occurs while truncating the file
+     */
+    public void truncateDBFileOnCommit(DBFile dbFile, int numPages)
+        throws IOException {
+        if (transactionManager != null) {
+            transactionManager.truncateOnCommit(dbFile, numPages);
+        }
+        else {
+            bufferManager.writeDBFile(dbFile, /* sync */ true);
+            truncateDBFile(dbFile, numPages);
+        }
+    }
+
+
     /**
      * This method allows all data to be flushed from the Buffer Manager.  It
      * should not be used in practice, but it is useful to remove buffering to
@@ -525,6 +609,20 @@ public class StorageManager {
      * @throws IOException
      */
     public void flushAllData() throws IOException {
+        saveModificationCounts();
         bufferManager.flushAll();
     }
+
+
+    /**
+     * Saves the tables' modification counts before all pages are flushed or
+     * removed from the Buffer Manager.  This may happen outside of any
+     * command, so nothing else would release the pages pinned while saving
+     * the counts, such as the tables' header pages; they are unpinned here,
+     * the same way the server does after each command.
+     */
+    private void saveModificationCounts() {
+        autoAnalyzer.saveModificationCounts();
+        bufferManager.unpinAllSessionPages();
+    }
 }
@@ -97,6 +97,36 @@ public interface TableManager {
     void analyzeTable(TableInfo tableInfo) throws IOException;
 
 
+    /**
+     * This function analyzes the specified table, and updates the table's
+     * statistics.  If a sample is specified, only part of the table's data
+     * may be examined, and the statistics are estimated from that sample.
+     *
+     * @param tableInfo the opened table to analyze.
+     *
+     * @param sample how much of the table to examine, or <tt>null</tt> to
+     *        analyze the entire table.
+     *
+     * @throws IOException if an IO error occurs while trying to analyze the
+     *         table.
+     */
+    void analyzeTable(TableInfo tableInfo, AnalyzeSample sample)
+        throws IOException;
+
+
+    /**
+     * This function optimizes the storage of the specified table, along with
+     * all indexes defined on the table, to improve access performance and
+     * space utilization.
+     *
+     * @param tableInfo the opened table to optimize.
+     *
+     * @throws IOException if an IO error occurs while trying to optimize the
+     *         table.
+     */
+    void optimizeTable(TableInfo tableInfo) throws IOException;
+
+
     /**
      * This method closes a table file that is currently open, flushing any
      * dirty pages to the table's storage in the process.
@@ -155,6 +155,21 @@ public interface TupleFile {
     void analyze() throws IOException;
 
 
+    /**
+     * Analyzes the tuple data in the file, updating the file's statistics.
+     * If a sample is specified, the file format may examine only part of
+     * the file's data and scale the statistics up to the size of the file;
+     * formats that don't support sampling simply analyze the entire file.
+     *
+     * @param sample how much of the file to examine, or <tt>null</tt> to
+     *        analyze the entire file
+     *
+     * @throws IOException if an IO error occurs while analyzing the file or
+     *         updating the statistics.
+     */
+    void analyze(AnalyzeSample sample) throws IOException;
+
+
     /**
      * Verifies the tuple file's internal storage format, identifying any
      * potential structural errors in the file.  Errors are returned as a list
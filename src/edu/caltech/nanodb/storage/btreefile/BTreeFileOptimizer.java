@@ -0,0 +1,656 @@
+package edu.caltech.nanodb.storage.btreefile;
+
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+import org.apache.log4j.Logger;
+
+import edu.caltech.nanodb.expressions.TupleLiteral;
+import edu.caltech.nanodb.relations.Schema;
+import edu.caltech.nanodb.storage.DBFile;
+import edu.caltech.nanodb.storage.DBPage;
+import edu.caltech.nanodb.storage.PageTuple;
+import edu.caltech.nanodb.storage.StorageManager;
+
+import static edu.caltech.nanodb.storage.btreefile.BTreePageTypes.*;
+
+
+/**
+ * <p>
+ * This class defragments a B<sup>+</sup> tree tuple file in place.  After
+ * heavy insert and delete activity, the leaves of a B<sup>+</sup> tree tend
+ * to be sparsely filled, and the file holds many pages that are on the
+ * empty-page list.  The optimizer works in two passes, touching only a few
+ * pages at a time:
+ * </p>
+ * <ol>
+ * <li>The leaves under each bottom-level inner page are merged from left to
+ *     right:  tuples are shifted from each leaf into its left sibling as long
+ *     as they fit, and leaves that end up empty are released.  The inner
+ *     page is then rewritten with the remaining leaves.  If the root only
+ *     has a single leaf left, the leaf becomes the new root.</li>
+ * <li>The pages still in use are moved to the front of the file:  the
+ *     leaves are placed at pages 1, 2, ... in key order, so that range scans
+ *     read the file sequentially, and the inner pages follow them.  The
+ *     pointers between the pages are rewritten, and then the pages are
+ *     swapped into place.  The empty-page list is then cleared, and the file
+ *     is truncated once the enclosing transaction commits.</li>
+ * </ol>
+ * <p>
+ * Leaves are only merged with siblings that share their parent, since
+ * merging across parents would also require rebalancing the inner pages.
+ * </p>
+ * <p>
+ * Every page that the optimizer changes is recorded in the write-ahead log,
+ * so the optimization is rolled back along with the transaction if it
+ * doesn't complete.
+ * </p>
+ */
+class BTreeFileOptimizer {
+    /** A logging object for reporting anything interesting that happens. */
+    private static Logger logger = Logger.getLogger(BTreeFileOptimizer.class);
+
+
+    /** A reference to the storage manager since we use it so much. */
+    private StorageManager storageManager;
+
+
+    /** The B<sup>+</sup> tree tuple file to optimize. */
+    private BTreeTupleFile tupleFile;
+
+
+    /** The schema of the tuples in the file. */
+    private Schema schema;
+
+
+    /**
+     * The actual {@code DBFile} object backing the tuple-file, since it is
+     * used so frequently in the optimization.
+     */
+    private DBFile dbFile;
+
+
+    /** Used to release leaf and inner pages that are no longer needed. */
+    private FileOperations fileOps;
+
+
+    /**
+     * Initialize an optimizer object to optimize a specific B<sup>+</sup>
+     * tree tuple file.
+     *
+     * @param storageManager the storage manager to use for loading pages
+     * @param tupleFile the tuple file to optimize
+     */
+    public BTreeFileOptimizer(StorageManager storageManager,
+                              BTreeTupleFile tupleFile) {
+        this.storageManager = storageManager;
+        this.tupleFile = tupleFile;
+        this.schema = tupleFile.getSchema();
+        this.dbFile = tupleFile.getDBFile();
+        this.fileOps = new FileOperations(storageManager, dbFile);
+    }
+
+
+    /**
+     * This method is the entry-point for the optimization process.  The
+     * leaves of the file are merged, the pages in use are moved to the front
+     * of the file in key order, and the file is scheduled to be truncated.
+     *
+     * @return the number of pages in the optimized file, including the header
+     *         page
+     *
+     * @throws IOException if an IO error occurs during the optimization
+     *         process
+     */
+    public int optimize() throws IOException {
+        // Make sure the file's size reflects all pages that have been added
+        // to the file, since pages past the end of the file are relocated.
+        storageManager.getBufferManager().writeDBFile(dbFile, /* sync */ false);
+        int oldNumPages = dbFile.getNumPages();
+
+        DBPage dbpHeader = storageManager.loadDBPage(dbFile, 0);
+        int rootPageNo = HeaderPage.getRootPageNo(dbpHeader);
+        dbpHeader.unpin();
+
+        if (rootPageNo != 0)
+            mergeLeaves(rootPageNo, /* isRoot */ true);
+
+        int numPages = relocatePages();
+        storageManager.truncateDBFileOnCommit(dbFile, numPages);
+
+        logger.info(String.format("Optimized B+ tree file %s from %d pages " +
+            "to %d pages", dbFile, oldNumPages, numPages));
+
+        return numPages;
+    }
+
+
+    /**
+     * Walks down the tree from the specified page, and merges the leaves
+     * under every inner page whose children are leaves.
+     *
+     * @param pageNo the page to start from
+     * @param isRoot true if the page is the root of the tree
+     *
+     * @throws IOException if an IO error occurs while updating the file
+     */
+    private void mergeLeaves(int pageNo, boolean isRoot) throws IOException {
+        DBPage dbPage = storageManager.loadDBPage(dbFile, pageNo);
+        if (dbPage.readUnsignedByte(0) != BTREE_INNER_PAGE) {
+            // A root leaf has no siblings to merge with.
+            dbPage.unpin();
+            return;
+        }
+
+        InnerPage inner = new InnerPage(dbPage, schema);
+        int[] children = new int[inner.getNumPointers()];
+        for (int i = 0; i < children.length; i++)
+            children[i] = inner.getPointer(i);
+
+        unpinInnerPage(inner);
+
+        DBPage dbpChild = storageManager.loadDBPage(dbFile, children[0]);
+        int childType = dbpChild.readUnsignedByte(0);
+        dbpChild.unpin();
+
+        if (childType == BTREE_INNER_PAGE) {
+            for (int child : children)
+                mergeLeaves(child, /* isRoot */ false);
+        }
+        else {
+            mergeChildLeaves(pageNo, isRoot);
+        }
+    }
+
+
+    /**
+     * Merges the leaves under a single inner page, shifting tuples from each
+     * leaf into its left sibling as long as they fit.  Leaves that end up
+     * empty are released, and the inner page is rewritten with the leaves
+     * that remain.  The key in front of a leaf that gave up some of its
+     * tuples becomes the leaf's new first tuple.
+     *
+     * @param parentPageNo the inner page whose children are leaves
+     * @param isRoot true if the inner page is the root of the tree
+     *
+     * @throws IOException if an IO error occurs while updating the file
+     */
+    private void mergeChildLeaves(int parentPageNo, boolean isRoot)
+        throws IOException {
+
+        InnerPage parent = new InnerPage(
+            storageManager.loadDBPage(dbFile, parentPageNo), schema);
+
+        int numPointers = parent.getNumPointers();
+        int[] pointers = new int[numPointers];
+        TupleLiteral[] keys = new TupleLiteral[numPointers];
+        int remaining = 0;
+        for (int i = 0; i < numPointers; i++) {
+            pointers[i] = parent.getPointer(i);
+            if (i > 0) {
+                keys[i] = copyTuple(parent.getKey(i - 1));
+                remaining += keys[i].getStorageSize() + 2;
+            }
+        }
+
+        unpinInnerPage(parent);
+
+        // The rewritten inner page must never need more space than the
+        // original page had, so the space that the new entries take up is
+        // tracked along with the space of the entries not yet visited.
+        int capacity = dbFile.getPageSize() - InnerPage.OFFSET_FIRST_POINTER;
+        int used = 2;
+
+        ArrayList<Integer> newPointers = new ArrayList<>();
+        ArrayList<TupleLiteral> newKeys = new ArrayList<>();
+        boolean changed = false;
+
+        LeafPage target = loadLeafPage(pointers[0]);
+        newPointers.add(pointers[0]);
+
+        for (int i = 1; i < numPointers; i++) {
+            remaining -= keys[i].getStorageSize() + 2;
+            LeafPage source = loadLeafPage(pointers[i]);
+
+            // Figure out how many of the source leaf's tuples fit into the
+            // free space of the target leaf.
+            int count = 0;
+            int space = target.getFreeSpace();
+            while (count < source.getNumTuples() &&
+                   source.getTupleSize(count) <= space) {
+                space -= source.getTupleSize(count);
+                count++;
+            }
+
+            if (count == source.getNumTuples() && newPointers.size() == 1 &&
+                i == numPointers - 1 && !isRoot) {
+                // Emptying this leaf would leave the inner page with a single
+                // child, so just even out the two leaves instead.
+                int targetUsed = target.getUsedSpace();
+                int sourceUsed = source.getUsedSpace();
+                count = 0;
+                while (count < source.getNumTuples() - 1 &&
+                       targetUsed + source.getTupleSize(count) <=
+                       sourceUsed - source.getTupleSize(count)) {
+                    targetUsed += source.getTupleSize(count);
+                    sourceUsed -= source.getTupleSize(count);
+                    count++;
+                }
+            }
+
+            if (count > 0 && count < source.getNumTuples()) {
+                // The source leaf will get a new key; make sure it fits.
+                int keySize = source.getTupleSize(count) + 2;
+                if (used + keySize + remaining > capacity)
+                    count = 0;
+            }
+
+            if (count > 0) {
+                // Moving the tuples reloads the cached tuples of both
+                // leaves, so release the old ones first.
+                unpinTuples(source);
+                unpinTuples(target);
+                source.moveTuplesLeft(target, count);
+
+                storageManager.logDBPageWrite(target.getDBPage());
+                storageManager.logDBPageWrite(source.getDBPage());
+                changed = true;
+            }
+
+            if (source.getNumTuples() == 0) {
+                // The source leaf is empty; drop it from the leaf list and
+                // from the inner page.
+                target.setNextPageNo(source.getNextPageNo());
+                storageManager.logDBPageWrite(target.getDBPage());
+
+                releasePage(source.getDBPage());
+            }
+            else {
+                TupleLiteral key =
+                    (count > 0) ? copyTuple(source.getTuple(0)) : keys[i];
+
+                newPointers.add(source.getPageNo());
+                newKeys.add(key);
+                used += key.getStorageSize() + 2;
+
+                releaseLeafPage(target);
+                target = source;
+            }
+        }
+
+        releaseLeafPage(target);
+
+        if (!changed)
+            return;
+
+        DBPage dbPage = storageManager.loadDBPage(dbFile, parentPageNo);
+        if (newPointers.size() == 1) {
+            // All leaves under the root were merged into one, which becomes
+            // the new root of the tree.
+            DBPage dbpHeader = storageManager.loadDBPage(dbFile, 0);
+            HeaderPage.setRootPageNo(dbpHeader, newPointers.get(0));
+            storageManager.logDBPageWrite(dbpHeader);
+            dbpHeader.unpin();
+
+            releasePage(dbPage);
+            return;
+        }
+
+        dbPage.writeShort(InnerPage.OFFSET_NUM_POINTERS, newPointers.size());
+
+        int offset = InnerPage.OFFSET_FIRST_POINTER;
+        dbPage.writeShort(offset, newPointers.get(0));
+        offset += 2;
+
+        for (int i = 1; i < newPointers.size(); i++) {
+            offset = PageTuple.storeTuple(dbPage, offset, schema,
+                newKeys.get(i - 1));
+            dbPage.writeShort(offset, newPointers.get(i));
+            offset += 2;
+        }
+
+        clearRemainder(dbPage, offset);
+        storageManager.logDBPageWrite(dbPage);
+        dbPage.unpin();
+    }
+
+
+    /**
+     * Moves the pages in use to the front of the file, with the leaves in
+     * key order starting at page 1, followed by the inner pages, so that
+     * scanning the leaves reads the file sequentially.  The pointers between
+     * the pages are first rewritten to refer to the new page numbers, and
+     * then the pages' contents are swapped into place, one page at a time.
+     * The empty-page list is cleared, since every empty page ends up past
+     * the pages in use.
+     *
+     * @return the number of pages in use, including the header page
+     *
+     * @throws IOException if an IO error occurs while updating the file
+     */
+    private int relocatePages() throws IOException {
+        int numPages = dbFile.getNumPages();
+
+        DBPage dbpHeader = storageManager.loadDBPage(dbFile, 0);
+        int rootPageNo = HeaderPage.getRootPageNo(dbpHeader);
+
+        // The order of the pages in the optimized file:  the leaves in the
+        // order of the leaf list, and then the inner pages.  The leaf list
+        // is followed from the leftmost leaf of the tree, since the header's
+        // first-leaf page number isn't kept up to date when leaves are
+        // released.
+        ArrayList<Integer> layout = new ArrayList<>();
+        if (rootPageNo != 0) {
+            int pageNo = findLeftmostLeaf(rootPageNo);
+            while (pageNo != 0) {
+                layout.add(pageNo);
+
+                DBPage dbPage = storageManager.loadDBPage(dbFile, pageNo);
+                pageNo = dbPage.readUnsignedShort(LeafPage.OFFSET_NEXT_PAGE_NO);
+                dbPage.unpin();
+            }
+
+            addInnerPages(rootPageNo, layout);
+        }
+
+        int[] newPageNos = new int[numPages];
+        for (int i = 0; i < layout.size(); i++)
+            newPageNos[layout.get(i)] = i + 1;
+
+        for (int pageNo : layout)
+            updatePointers(pageNo, newPageNos);
+
+        // Swap each page into its place.  The arrays track which page's
+        // contents are currently stored where, since a page that is in the
+        // way is moved to where the other page was.
+        int[] locations = new int[numPages];
+        int[] occupants = new int[numPages];
+        for (int pageNo : layout) {
+            locations[pageNo] = pageNo;
+            occupants[pageNo] = pageNo;
+        }
+
+        int numMoved = 0;
+        for (int i = 0; i < layout.size(); i++) {
+            int pageNo = layout.get(i);
+            int from = locations[pageNo];
+            int to = i + 1;
+            if (from == to)
+                continue;
+
+            // If the destination only holds an empty page, its contents
+            // don't need to be kept.
+            int displaced = occupants[to];
+            movePage(from, to, /* swap */ displaced != 0);
+
+            if (displaced != 0)
+                locations[displaced] = from;
+
+            occupants[from] = displaced;
+            occupants[to] = pageNo;
+            locations[pageNo] = to;
+            numMoved++;
+        }
+
+        // The leftmost leaf is now page 1.
+        int firstLeafPageNo = 0;
+        if (rootPageNo != 0) {
+            rootPageNo = newPageNos[rootPageNo];
+            firstLeafPageNo = 1;
+        }
+
+        HeaderPage.setRootPageNo(dbpHeader, rootPageNo);
+        HeaderPage.setFirstLeafPageNo(dbpHeader, firstLeafPageNo);
+        HeaderPage.setFirstEmptyPageNo(dbpHeader, 0);
+        storageManager.logDBPageWrite(dbpHeader);
+        dbpHeader.unpin();
+
+        logger.debug(String.format("Moved %d of %d pages of B+ tree file %s " +
+            "into key order", numMoved, layout.size(), dbFile));
+
+        return layout.size() + 1;
+    }
+
+
+    /**
+     * Follows the first pointer of each inner page down from the specified
+     * page, to find the leftmost leaf below it.
+     *
+     * @param pageNo the page to start from
+     *
+     * @return the page number of the leftmost leaf
+     *
+     * @throws IOException if an IO error occurs while reading the file
+     */
+    private int findLeftmostLeaf(int pageNo) throws IOException {
+        while (true) {
+            DBPage dbPage = storageManager.loadDBPage(dbFile, pageNo);
+            if (dbPage.readUnsignedByte(0) != BTREE_INNER_PAGE) {
+                dbPage.unpin();
+                return pageNo;
+            }
+
+            InnerPage inner = new InnerPage(dbPage, schema);
+            pageNo = inner.getPointer(0);
+            unpinInnerPage(inner);
+        }
+    }
+
+
+    /**
+     * Adds the specified page and all inner pages below it to a list of
+     * pages, if the page is an inner page.
+     *
+     * @param pageNo the page to start from
+     * @param pages the list to add the inner pages to
+     *
+     * @throws IOException if an IO error occurs while reading the file
+     */
+    private void addInnerPages(int pageNo, ArrayList<Integer> pages)
+        throws IOException {
+
+        DBPage dbPage = storageManager.loadDBPage(dbFile, pageNo);
+        if (dbPage.readUnsignedByte(0) != BTREE_INNER_PAGE) {
+            dbPage.unpin();
+            return;
+        }
+
+        InnerPage inner = new InnerPage(dbPage, schema);
+        int[] children = new int[inner.getNumPointers()];
+        for (int i = 0; i < children.length; i++)
+            children[i] = inner.getPointer(i);
+
+        unpinInnerPage(inner);
+
+        pages.add(pageNo);
+        for (int child : children)
+            addInnerPages(child, pages);
+    }
+
+
+    /**
+     * Rewrites the pointers in the specified page, so that they refer to the
+     * pages' new page numbers.  For an inner page these are the pointers to
+     * its children, and for a leaf page, the pointer to the next leaf.
+     *
+     * @param pageNo the page to update
+     * @param newPageNos the new page number of every page in use, indexed by
+     *        the old page number
+     *
+     * @throws IOException if an IO error occurs while updating the file
+     */
+    private void updatePointers(int pageNo, int[] newPageNos)
+        throws IOException {
+
+        DBPage dbPage = storageManager.loadDBPage(dbFile, pageNo);
+        boolean changed = false;
+
+        if (dbPage.readUnsignedByte(0) == BTREE_INNER_PAGE) {
+            InnerPage inner = new InnerPage(dbPage, schema);
+            for (int i = 0; i < inner.getNumPointers(); i++) {
+                int child = inner.getPointer(i);
+                if (newPageNos[child] != child) {
+                    // Replacing a pointer reloads the page's keys.
+                    unpinKeys(inner);
+                    inner.replacePointer(i, newPageNos[child]);
+                    changed = true;
+                }
+            }
+            unpinKeys(inner);
+        }
+        else {
+            int nextPageNo =
+                dbPage.readUnsignedShort(LeafPage.OFFSET_NEXT_PAGE_NO);
+            if (nextPageNo != 0 && newPageNos[nextPageNo] != nextPageNo) {
+                dbPage.writeShort(LeafPage.OFFSET_NEXT_PAGE_NO,
+                    newPageNos[nextPageNo]);
+                changed = true;
+            }
+        }
+
+        if (changed)
+            storageManager.logDBPageWrite(dbPage);
+
+        dbPage.unpin();
+    }
+
+
+    /**
+     * Copies the contents of one page to another page, optionally copying
+     * the other page's contents back, so that the two pages are swapped.
+     *
+     * @param fromPageNo the page whose contents are moved
+     * @param toPageNo the page that receives the contents
+     * @param swap true if the contents of the second page must be kept
+     *
+     * @throws IOException if an IO error occurs while updating the file
+     */
+    private void movePage(int fromPageNo, int toPageNo, boolean swap)
+        throws IOException {
+
+        int pageSize = dbFile.getPageSize();
+        DBPage fromPage = storageManager.loadDBPage(dbFile, fromPageNo);
+        DBPage toPage = storageManager.loadDBPage(dbFile, toPageNo);
+
+        byte[] data = new byte[pageSize];
+        toPage.read(0, data);
+        toPage.write(0, fromPage.getPageData(), 0, pageSize);
+        storageManager.logDBPageWrite(toPage);
+
+        if (swap) {
+            fromPage.write(0, data);
+            storageManager.logDBPageWrite(fromPage);
+        }
+
+        fromPage.unpin();
+        toPage.unpin();
+    }
+
+
+    /**
+     * Loads the specified leaf page.
+     *
+     * @param pageNo the leaf page to load
+     *
+     * @return the leaf page
+     *
+     * @throws IOException if an IO error occurs while loading the page
+     */
+    private LeafPage loadLeafPage(int pageNo) throws IOException {
+        return new LeafPage(storageManager.loadDBPage(dbFile, pageNo), schema);
+    }
+
+
+    /**
+     * Adds a page to the empty-page list, and records the change to the page
+     * and to the header page in the write-ahead log.
+     *
+     * @param dbPage the page to release; it is also unpinned
+     *
+     * @throws IOException if an IO error occurs while updating the file
+     */
+    private void releasePage(DBPage dbPage) throws IOException {
+        fileOps.releaseDataPage(dbPage);
+        storageManager.logDBPageWrite(dbPage);
+        dbPage.unpin();
+
+        DBPage dbpHeader = storageManager.loadDBPage(dbFile, 0);
+        storageManager.logDBPageWrite(dbpHeader);
+        dbpHeader.unpin();
+    }
+
+
+    /**
+     * Unpins the tuples that a leaf page has loaded, since every tuple holds
+     * a pin on the page.
+     *
+     * @param leaf the leaf page whose tuples should be unpinned
+     */
+    private void unpinTuples(LeafPage leaf) {
+        for (int i = 0; i < leaf.getNumTuples(); i++)
+            leaf.getTuple(i).unpin();
+    }
+
+
+    /**
+     * Unpins a leaf page along with all of its tuples.
+     *
+     * @param leaf the leaf page to release
+     */
+    private void releaseLeafPage(LeafPage leaf) {
+        unpinTuples(leaf);
+        leaf.getDBPage().unpin();
+    }
+
+
+    /**
+     * Unpins the keys that an inner page has loaded, since every key holds a
+     * pin on the page.
+     *
+     * @param inner the inner page whose keys should be unpinned
+     */
+    private void unpinKeys(InnerPage inner) {
+        for (int i = 0; i < inner.getNumKeys(); i++)
+            inner.getKey(i).unpin();
+    }
+
+
+    /**
+     * Unpins an inner page along with all of its keys.
+     *
+     * @param inner the inner page to release
+     */
+    private void unpinInnerPage(InnerPage inner) {
+        unpinKeys(inner);
+        inner.getDBPage().unpin();
+    }
+
+
+    /**
+     * Makes a copy of a tuple stored in the file, along with its storage
+     * size, so that it can be written to another page.
+     *
+     * @param tuple the tuple to copy
+     *
+     * @return a copy of the tuple
+     */
+    private TupleLiteral copyTuple(BTreeFilePageTuple tuple) {
+        TupleLiteral tupLit = new TupleLiteral(tuple);
+        tupLit.setStorageSize(PageTuple.getTupleStorageSize(schema, tupLit));
+        return tupLit;
+    }
+
+
+    /**
+     * Clears the unused portion of a rewritten page, if the B<sup>+</sup>
+     * tree implementation is configured to clear old data.
+     *
+     * @param dbPage the page to clear
+     * @param offset the offset where the page's data ends
+     */
+    private void clearRemainder(DBPage dbPage, int offset) {
+        if (BTreeTupleFile.CLEAR_OLD_DATA && offset < dbPage.getPageSize())
+            dbPage.setDataRange(offset, dbPage.getPageSize() - offset, (byte) 0);
+    }
+}
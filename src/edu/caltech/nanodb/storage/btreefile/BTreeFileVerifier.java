@@ -103,6 +103,10 @@ public class BTreeFileVerifier {
     private HashMap<Integer, PageInfo> pages;
 
 
+    /** The number of pages at the start of the file to verify. */
+    private int numPages;
+
+
     /** The collection of errors found during the verification process. */
     private ArrayList<String> errors;
 
@@ -113,9 +117,21 @@ public class BTreeFileVerifier {
      */
     public BTreeFileVerifier(StorageManager storageManager,
                              BTreeTupleFile tupleFile) {
+        this(storageManager, tupleFile, Integer.MAX_VALUE);
+    }
+
+
+    /**
+     * Initialize a verifier object to verify the first <tt>numPages</tt>
+     * pages of a specific B<sup>+</sup> tree tuple file.  This is used when
+     * the pages past that point are unused, but haven't been truncated yet.
+     */
+    public BTreeFileVerifier(StorageManager storageManager,
+                             BTreeTupleFile tupleFile, int numPages) {
         this.storageManager = storageManager;
         this.tupleFile = tupleFile;
         this.dbFile = tupleFile.getDBFile();
+        this.numPages = numPages;
     }
 
 
@@ -170,7 +186,8 @@ public class BTreeFileVerifier {
         logger.debug("Pass 1:  Linear scan through pages to collect info");
 
         pages = new HashMap<Integer, PageInfo>();
-        for (int pageNo = 1; pageNo < dbFile.getNumPages(); pageNo++) {
+        int endPageNo = Math.min(dbFile.getNumPages(), numPages);
+        for (int pageNo = 1; pageNo < endPageNo; pageNo++) {
             DBPage dbPage = storageManager.loadDBPage(dbFile, pageNo);
 
             int pageType = dbPage.readUnsignedByte(0);
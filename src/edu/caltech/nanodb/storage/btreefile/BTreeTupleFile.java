@@ -12,9 +12,13 @@ import org.apache.log4j.Logger;
 import edu.caltech.nanodb.expressions.OrderByExpression;
 import edu.caltech.nanodb.expressions.TupleComparator;
 import edu.caltech.nanodb.expressions.TupleLiteral;
+import edu.caltech.nanodb.queryeval.ColumnStats;
+import edu.caltech.nanodb.queryeval.ColumnStatsCollector;
 import edu.caltech.nanodb.queryeval.TableStats;
+import edu.caltech.nanodb.relations.SQLDataType;
 import edu.caltech.nanodb.relations.TableSchema;
 import edu.caltech.nanodb.relations.Tuple;
+import edu.caltech.nanodb.storage.AnalyzeSample;
 import edu.caltech.nanodb.storage.DBFile;
 import edu.caltech.nanodb.storage.DBPage;
 import edu.caltech.nanodb.storage.FilePointer;
@@ -226,8 +230,10 @@ public class BTreeTupleFile implements SequentialTupleFile {
         }
         else {
             // Get the page that holds the current entry, and see where it
-            // falls within the page.
-            dbPage = tuple.getDBPage();
+            // falls within the page.  The entry may no longer be pinned, in
+            // which case its page may have been evicted, so load the page by
+            // its number rather than using the entry's page object.
+            dbPage = storageManager.loadDBPage(dbFile, tuple.getPageNo());
             leaf = new LeafPage(dbPage, schema);
 
             // Use the offset of the passed-in entry to find the next entry.
@@ -360,24 +366,100 @@ public class BTreeTupleFile implements SequentialTupleFile {
     }
 
 
+    /**
+     * Finds the first tuple that is at least the search key.  Unlike
+     * {@link #findFirstTupleEquals}, this method doesn't use
+     * {@link #navigateToLeafPage}, which follows the pointer to the right of
+     * an inner-page key equal to the search key.  When the search key has
+     * fewer columns than the tuples, tuples matching it may also be to the
+     * left of such a key, so this method follows the leftmost pointer that
+     * may lead to a tuple at least the search key.
+     */
     @Override
-    public Tuple addTuple(Tuple tup) throws IOException {
-        logger.debug("Adding tuple " + tup + " to BTree file " + dbFile);
+    public Tuple findFirstTupleAtLeast(Tuple searchKey) throws IOException {
+        DBPage dbpHeader = storageManager.loadDBPage(dbFile, 0);
+        int rootPageNo = HeaderPage.getRootPageNo(dbpHeader);
+        dbpHeader.unpin();
+
+        if (rootPageNo == 0) {
+            logger.debug("BTree file is empty!");
+            return null;
+        }
+
+        DBPage dbPage = storageManager.loadDBPage(dbFile, rootPageNo);
+        while (dbPage.readByte(0) == BTREE_INNER_PAGE) {
+            InnerPage inner = new InnerPage(dbPage, schema);
+            int numPointers = inner.getNumPointers();
+
+            // The subtree at pointer i holds tuples less than key i, so
+            // skip the subtrees whose keys are less than the search key.
+            int i = 0;
+            while (i < numPointers - 1) {
+                BTreeFilePageTuple key = inner.getKey(i);
+                int cmp = TupleComparator.comparePartialTuples(searchKey, key);
+                key.unpin();
+
+                if (cmp <= 0)
+                    break;
+
+                i++;
+            }
+
+            int pointer = inner.getPointer(i);
+            dbPage.unpin();
+            dbPage = storageManager.loadDBPage(dbFile, pointer);
+        }
+
+        LeafPage leaf = new LeafPage(dbPage, schema);
+        int numTuples = leaf.getNumTuples();
+        Tuple result = null;
+        for (int i = 0; i < numTuples; i++) {
+            BTreeFilePageTuple tup = leaf.getTuple(i);
+            if (TupleComparator.comparePartialTuples(tup, searchKey) >= 0) {
+                result = tup;
+                break;
+            }
 
-        // Navigate to the leaf-page, creating one if the BTree file is
-        // currently empty.
-        ArrayList<Integer> pagePath = new ArrayList<>();
-        LeafPage leaf = navigateToLeafPage(tup, true, pagePath);
+            if (i == numTuples - 1) {
+                // Every tuple in this leaf is less than the search key, so
+                // the first tuple of the next leaf is the one we want.
+                result = getNextTuple(tup);
+            }
 
-        // TODO:  This is definitely not ideal, but should get us going.
-        TupleLiteral tupLit;
-        if (tup instanceof TupleLiteral)
-            tupLit = (TupleLiteral) tup;
-        else
-            tupLit = new TupleLiteral(tup);
-        tupLit.setStorageSize(PageTuple.getTupleStorageSize(schema, tupLit));
+            tup.unpin();
+        }
 
-        return leafPageOps.addTuple(leaf, tupLit, pagePath);
+        dbPage.unpin();
+        return result;
+    }
+
+
+    @Override
+    public Tuple addTuple(Tuple tup) throws IOException {
+        logger.debug("Adding tuple " + tup + " to BTree file " + dbFile);
+
+        // Every page the insert touches stays pinned until the change is
+        // finished, and is logged at that point.
+        fileOps.startChange();
+        try {
+            // Navigate to the leaf-page, creating one if the BTree file is
+            // currently empty.
+            ArrayList<Integer> pagePath = new ArrayList<>();
+            LeafPage leaf = navigateToLeafPage(tup, true, pagePath);
+
+            // TODO:  This is definitely not ideal, but should get us going.
+            TupleLiteral tupLit;
+            if (tup instanceof TupleLiteral)
+                tupLit = (TupleLiteral) tup;
+            else
+                tupLit = new TupleLiteral(tup);
+            tupLit.setStorageSize(PageTuple.getTupleStorageSize(schema, tupLit));
+
+            return leafPageOps.addTuple(leaf, tupLit, pagePath);
+        }
+        finally {
+            fileOps.finishChange();
+        }
     }
 
 
@@ -393,13 +475,19 @@ public class BTreeTupleFile implements SequentialTupleFile {
     public void deleteTuple(Tuple tup) throws IOException {
         BTreeFilePageTuple tuple = (BTreeFilePageTuple) tup;
 
-        ArrayList<Integer> pagePath = new ArrayList<>();
-        LeafPage leaf = navigateToLeafPage(tup, false, pagePath);
+        fileOps.startChange();
+        try {
+            ArrayList<Integer> pagePath = new ArrayList<>();
+            LeafPage leaf = navigateToLeafPage(tup, false, pagePath);
 
-        logger.debug("Deleting tuple " + tuple + " from file " + dbFile);
+            logger.debug("Deleting tuple " + tuple + " from file " + dbFile);
 
-        leafPageOps.deleteTuple(leaf, tuple, pagePath);
-        tuple.setDeleted();
+            leafPageOps.deleteTuple(leaf, tuple, pagePath);
+            tuple.setDeleted();
+        }
+        finally {
+            fileOps.finishChange();
+        }
     }
 
 
@@ -435,7 +523,7 @@ public class BTreeTupleFile implements SequentialTupleFile {
         boolean createIfNeeded, List<Integer> pagePath) throws IOException {
 
         // The header page tells us where the root page starts.
-        DBPage dbpHeader = storageManager.loadDBPage(dbFile, 0);
+        DBPage dbpHeader = fileOps.loadPage(0);
 
         // Get the root page of the BTree file.
         int rootPageNo = HeaderPage.getRootPageNo(dbpHeader);
@@ -465,7 +553,7 @@ public class BTreeTupleFile implements SequentialTupleFile {
         }
         else {
             // The BTree file has a root page; load it.
-            dbpRoot = storageManager.loadDBPage(dbFile, rootPageNo);
+            dbpRoot = fileOps.loadPage(rootPageNo);
 
             logger.debug("BTree file root pageNo is " + rootPageNo);
         }
@@ -499,7 +587,7 @@ public class BTreeTupleFile implements SequentialTupleFile {
                     {
                         pagePath.add(pointer);
                     }
-                    dbPage = storageManager.loadDBPage(dbFile, pointer);
+                    dbPage = fileOps.loadPage(pointer);
                     break;
                 }
                 // Else if V = K_i
@@ -509,7 +597,7 @@ public class BTreeTupleFile implements SequentialTupleFile {
                     {
                         pagePath.add(pointer);
                     }
-                    dbPage = storageManager.loadDBPage(dbFile, pointer);
+                    dbPage = fileOps.loadPage(pointer);
                     break;
                 }
                 // Else if i+2 < m
@@ -523,7 +611,7 @@ public class BTreeTupleFile implements SequentialTupleFile {
                     {
                         pagePath.add(pointer);
                     }
-                    dbPage = storageManager.loadDBPage(dbFile, pointer);
+                    dbPage = fileOps.loadPage(pointer);
                     break;
                 }
             }
@@ -534,9 +622,141 @@ public class BTreeTupleFile implements SequentialTupleFile {
     }
 
 
+    /**
+     * Analyzes the B<sup>+</sup> tree file.  Sampling is not supported for
+     * B<sup>+</sup> tree files, since the leaf-page count and fill factor are
+     * computed by walking the entire leaf chain, so the whole file is always
+     * analyzed.
+     *
+     * @param sample ignored; the entire file is analyzed
+     *
+     * @throws IOException if an IO error occurs while reading the file
+     */
+    @Override
+    public void analyze(AnalyzeSample sample) throws IOException {
+        if (sample != null)
+            logger.debug("Ignoring " + sample + "; analyzing the entire file.");
+
+        analyze();
+    }
+
+
+    /**
+     * Computes statistics for the B<sup>+</sup> tree file and saves them into
+     * the file's header page.  In addition to the tuple count, average tuple
+     * size and per-column statistics that all tuple files collect, this
+     * method records the height of the tree, the number of leaf pages, and
+     * the average fraction of each leaf page that is filled with tuples.
+     * The {@link TableStats#numDataPages} value counts both inner and leaf
+     * pages, but not the header page or pages on the empty-page list.
+     *
+     * @throws IOException if an IO error occurs while reading the file
+     */
     @Override
     public void analyze() throws IOException {
-        throw new UnsupportedOperationException("NYI");
+        int numColumns = schema.numColumns();
+        ColumnStatsCollector[] collectors = new ColumnStatsCollector[numColumns];
+        for (int i = 0; i < numColumns; i++) {
+            SQLDataType dataType = schema.getColumnInfo(i).getType().getBaseType();
+            collectors[i] = new ColumnStatsCollector(dataType);
+        }
+
+        DBPage dbpHeader = storageManager.loadDBPage(dbFile, 0);
+        int rootPageNo = HeaderPage.getRootPageNo(dbpHeader);
+        int firstLeafPageNo = HeaderPage.getFirstLeafPageNo(dbpHeader);
+        int firstEmptyPageNo = HeaderPage.getFirstEmptyPageNo(dbpHeader);
+        dbpHeader.unpin();
+
+        // Compute the height of the tree by following the leftmost pointers
+        // from the root down to the leaf level.
+        int treeHeight = 0;
+        int pageNo = rootPageNo;
+        while (pageNo != 0) {
+            DBPage dbPage = storageManager.loadDBPage(dbFile, pageNo);
+            treeHeight++;
+
+            int pageType = dbPage.readByte(0);
+            if (pageType == BTREE_INNER_PAGE) {
+                // Read the first pointer directly, rather than wrapping the
+                // page with an InnerPage, which would pin all of its keys.
+                pageNo = dbPage.readUnsignedShort(InnerPage.OFFSET_FIRST_POINTER);
+            }
+            else if (pageType == BTREE_LEAF_PAGE) {
+                pageNo = 0;
+            }
+            else {
+                dbPage.unpin();
+                throw new IOException(String.format("Page %d in B+ tree " +
+                    "file %s has unexpected page type %d", pageNo, dbFile,
+                    pageType));
+            }
+
+            dbPage.unpin();
+        }
+
+        // Scan through the leaves, collecting tuple and column statistics.
+        int numTuples = 0;
+        long totalTupleSize = 0;
+        int numLeafPages = 0;
+        double totalLeafFill = 0;
+
+        pageNo = firstLeafPageNo;
+        while (pageNo != 0) {
+            DBPage dbPage = storageManager.loadDBPage(dbFile, pageNo);
+            LeafPage leaf = new LeafPage(dbPage, schema);
+
+            numLeafPages++;
+            totalLeafFill +=
+                (double) leaf.getSpaceUsedByTuples() / leaf.getTotalSpace();
+            totalTupleSize += leaf.getSpaceUsedByTuples();
+
+            for (int iTup = 0; iTup < leaf.getNumTuples(); iTup++) {
+                BTreeFilePageTuple tuple = leaf.getTuple(iTup);
+                numTuples++;
+
+                for (int i = 0; i < numColumns; i++)
+                    collectors[i].addValue(tuple.getColumnValue(i));
+
+                tuple.unpin();
+            }
+
+            pageNo = leaf.getNextPageNo();
+            dbPage.unpin();
+        }
+
+        // Count the pages on the empty-page list, so that they can be
+        // excluded from the number of pages that hold data.
+        int numEmptyPages = 0;
+        pageNo = firstEmptyPageNo;
+        while (pageNo != 0) {
+            DBPage dbPage = storageManager.loadDBPage(dbFile, pageNo);
+            numEmptyPages++;
+            pageNo = dbPage.readUnsignedShort(1);
+            dbPage.unpin();
+        }
+
+        int numDataPages = dbFile.getNumPages() - 1 - numEmptyPages;
+
+        float avgTupleSize = 0;
+        if (numTuples > 0)
+            avgTupleSize = (float) totalTupleSize / numTuples;
+
+        ArrayList<ColumnStats> columnStats = new ArrayList<>(numColumns);
+        for (int i = 0; i < numColumns; i++)
+            columnStats.add(collectors[i].getColumnStats());
+
+        TableStats tableStats = new TableStats(numDataPages, numTuples,
+            avgTupleSize, columnStats);
+
+        tableStats.treeHeight = treeHeight;
+        tableStats.numLeafPages = numLeafPages;
+        if (numLeafPages > 0)
+            tableStats.avgLeafFill = (float) (totalLeafFill / numLeafPages);
+
+        logger.debug("Analyzed B+ tree file " + dbFile + ":  " + tableStats);
+
+        stats = tableStats;
+        btreeFileManager.saveMetadata(this);
     }
 
 
@@ -549,8 +769,33 @@ public class BTreeTupleFile implements SequentialTupleFile {
     }
 
 
+    /**
+     * Defragments the B<sup>+</sup> tree file by merging sparse leaves and
+     * moving the pages in use to the front of the file, so that the file can
+     * be truncated when the current transaction commits.  The optimized file
+     * is then checked with the {@link BTreeFileVerifier}, ignoring the pages
+     * that are waiting to be truncated.
+     *
+     * @throws IOException if an IO error occurs while optimizing the file,
+     *         or if the optimized file fails verification
+     */
     @Override
     public void optimize() throws IOException {
-        throw new UnsupportedOperationException("NYI");
+        BTreeFileOptimizer optimizer =
+            new BTreeFileOptimizer(storageManager, this);
+
+        int numPages = optimizer.optimize();
+
+        BTreeFileVerifier verifier =
+            new BTreeFileVerifier(storageManager, this, numPages);
+
+        List<String> errors = verifier.verify();
+        if (!errors.isEmpty()) {
+            for (String error : errors)
+                logger.error("Optimized file " + dbFile + ":  " + error);
+
+            throw new IOException("B+ tree file " + dbFile +
+                " failed verification after being optimized");
+        }
     }
 }
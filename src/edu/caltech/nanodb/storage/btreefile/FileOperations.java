@@ -1,6 +1,11 @@
 package edu.caltech.nanodb.storage.btreefile;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
 
 import edu.caltech.nanodb.storage.DBFile;
 import edu.caltech.nanodb.storage.DBPage;
@@ -21,12 +26,102 @@ class FileOperations {
     private DBFile dbFile;
 
 
+    /**
+     * The pages loaded while a change to the file is in progress, or
+     * <tt>null</tt> if no change is in progress.  Each of these pages holds
+     * an extra pin until the change is finished, so that the page can't be
+     * evicted before its changes are recorded in the write-ahead log.
+     *
+     * @see #startChange
+     * @see #finishChange
+     */
+    private Set<DBPage> changePages;
+
+
     public FileOperations(StorageManager storageManager, DBFile dbFile) {
         this.storageManager = storageManager;
         this.dbFile = dbFile;
     }
 
 
+    /**
+     * Loads the specified page of the B<sup>+</sup> tree file.  If a change
+     * to the file is in progress, the page is recorded so that its changes
+     * are logged when the change is finished.
+     *
+     * @param pageNo the page to load
+     *
+     * @return the page, pinned on behalf of the caller
+     *
+     * @throws IOException if an IO error occurs while loading the page
+     */
+    public DBPage loadPage(int pageNo) throws IOException {
+        return loadPage(pageNo, false);
+    }
+
+
+    /**
+     * Loads the specified page of the B<sup>+</sup> tree file, optionally
+     * creating it if it is past the end of the file.  If a change to the
+     * file is in progress, the page is recorded so that its changes are
+     * logged when the change is finished.
+     *
+     * @param pageNo the page to load
+     * @param create true if the page should be created if it doesn't exist
+     *
+     * @return the page, pinned on behalf of the caller
+     *
+     * @throws IOException if an IO error occurs while loading the page
+     */
+    public DBPage loadPage(int pageNo, boolean create) throws IOException {
+        DBPage dbPage = storageManager.loadDBPage(dbFile, pageNo, create);
+        if (changePages != null && changePages.add(dbPage))
+            dbPage.pin();
+
+        return dbPage;
+    }
+
+
+    /**
+     * Starts a change to the B<sup>+</sup> tree file, such as adding or
+     * deleting a tuple.  The pages loaded through {@link #loadPage} until
+     * {@link #finishChange} is called are kept pinned, and the changes to
+     * them are then recorded in the write-ahead log.
+     */
+    public void startChange() {
+        if (changePages != null)
+            throw new IllegalStateException("A change is already in progress");
+
+        changePages = Collections.newSetFromMap(new IdentityHashMap<>());
+    }
+
+
+    /**
+     * Finishes a change to the B<sup>+</sup> tree file, recording the
+     * changes to every page loaded during the change in the write-ahead log,
+     * and releasing the pins that kept the pages in memory.
+     *
+     * @throws IOException if an IO error occurs while updating the log
+     */
+    public void finishChange() throws IOException {
+        ArrayList<DBPage> pages = new ArrayList<>(changePages);
+        changePages = null;
+
+        try {
+            for (DBPage dbPage : pages) {
+                if (dbPage.isDirty() && !Arrays.equals(dbPage.getPageData(),
+                                                       dbPage.getOldPageData())) {
+                    storageManager.logDBPageWrite(dbPage);
+                }
+            }
+        }
+        finally {
+            for (DBPage dbPage : pages)
+                dbPage.unpin();
+        }
+    }
+
+
     /**
      * This helper function finds and returns a new data page, either by
      * taking it from the empty-pages list in the file, or if the list is
@@ -38,7 +133,7 @@ class FileOperations {
      *         while extending the size of the B<sup>+</sup> tree file.
      */
     public DBPage getNewDataPage() throws IOException {
-        DBPage dbpHeader = storageManager.loadDBPage(dbFile, 0);
+        DBPage dbpHeader = loadPage(0);
 
         DBPage newPage;
         int pageNo = HeaderPage.getFirstEmptyPageNo(dbpHeader);
@@ -50,14 +145,14 @@ class FileOperations {
                              " by one page.");
 
             int numPages = dbFile.getNumPages();
-            newPage = storageManager.loadDBPage(dbFile, numPages, true);
+            newPage = loadPage(numPages, true);
         }
         else {
             // Load the empty page, and remove it from the chain of empty pages.
 
             logger.debug("First empty page number is " + pageNo);
 
-            newPage = storageManager.loadDBPage(dbFile, pageNo);
+            newPage = loadPage(pageNo);
             int nextEmptyPage = newPage.readUnsignedShort(1);
             HeaderPage.setFirstEmptyPageNo(dbpHeader, nextEmptyPage);
         }
@@ -84,12 +179,10 @@ class FileOperations {
         //        truncate pages off the end until we hit a non-empty page.
         //        Instead, we'll leave all the pages around forever...
 
-        DBFile dbFile = dbPage.getDBFile();
-
         // Record in the page that it is empty.
         dbPage.writeByte(0, BTreePageTypes.BTREE_EMPTY_PAGE);
 
-        DBPage dbpHeader = storageManager.loadDBPage(dbFile, 0);
+        DBPage dbpHeader = loadPage(0);
 
         // Retrieve the old "first empty page" value, and store it in this page.
         int prevEmptyPageNo = HeaderPage.getFirstEmptyPageNo(dbpHeader);
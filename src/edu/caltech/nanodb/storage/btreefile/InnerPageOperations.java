@@ -8,7 +8,6 @@ import org.apache.log4j.Logger;
 
 import edu.caltech.nanodb.expressions.TupleLiteral;
 import edu.caltech.nanodb.relations.Tuple;
-import edu.caltech.nanodb.storage.DBFile;
 import edu.caltech.nanodb.storage.DBPage;
 import edu.caltech.nanodb.storage.PageTuple;
 import edu.caltech.nanodb.storage.StorageManager;
@@ -65,8 +64,7 @@ public class InnerPageOperations {
 
 
     public InnerPage loadPage(int pageNo) throws IOException {
-        DBFile dbFile = tupleFile.getDBFile();
-        DBPage dbPage = storageManager.loadDBPage(dbFile, pageNo);
+        DBPage dbPage = fileOps.loadPage(pageNo);
         return new InnerPage(dbPage, tupleFile.getSchema());
     }
 
@@ -345,8 +343,7 @@ public class InnerPageOperations {
                     "empty, removing.", page.getPageNo()));
 
                 // Set the index's new root page.
-                DBPage dbpHeader =
-                    storageManager.loadDBPage(tupleFile.getDBFile(), 0);
+                DBPage dbpHeader = fileOps.loadPage(0);
                 HeaderPage.setRootPageNo(dbpHeader, page.getPointer(0));
 
                 // Free up this page in the index.
@@ -804,8 +801,7 @@ public class InnerPageOperations {
             parentPageNo = parentPage.getPageNo();
 
             // We have a new root-page in the index!
-            DBFile dbFile = tupleFile.getDBFile();
-            DBPage dbpHeader = storageManager.loadDBPage(dbFile, 0);
+            DBPage dbpHeader = fileOps.loadPage(0);
             HeaderPage.setRootPageNo(dbpHeader, parentPageNo);
 
             logger.debug("Set index root-page to inner-page " + parentPageNo);
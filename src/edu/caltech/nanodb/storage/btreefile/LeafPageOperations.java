@@ -10,7 +10,6 @@ import org.apache.log4j.Logger;
 import edu.caltech.nanodb.expressions.TupleComparator;
 import edu.caltech.nanodb.expressions.TupleLiteral;
 import edu.caltech.nanodb.relations.Tuple;
-import edu.caltech.nanodb.storage.DBFile;
 import edu.caltech.nanodb.storage.DBPage;
 import edu.caltech.nanodb.storage.StorageManager;
 
@@ -68,8 +67,7 @@ public class LeafPageOperations {
         if (pageNo == 0)
             return null;
 
-        DBFile dbFile = tupleFile.getDBFile();
-        DBPage dbPage = storageManager.loadDBPage(dbFile, pageNo);
+        DBPage dbPage = fileOps.loadPage(pageNo);
         return new LeafPage(dbPage, tupleFile.getSchema());
     }
 
@@ -110,8 +108,7 @@ public class LeafPageOperations {
 
                 // Set the index's root page to 0 (empty) since the only page
                 // in the index is now empty and being removed.
-                DBPage dbpHeader =
-                    storageManager.loadDBPage(tupleFile.getDBFile(), 0);
+                DBPage dbpHeader = fileOps.loadPage(0);
                 HeaderPage.setRootPageNo(dbpHeader, 0);
 
                 // Free up this page in the index.
@@ -788,7 +785,7 @@ public class LeafPageOperations {
                     leaf.getPageNo(), newLeaf.getTuple(0), newLeaf.getPageNo());
 
             // set the header page to the new root
-            DBPage dbpHeader = storageManager.loadDBPage(tupleFile.getDBFile(), 0);
+            DBPage dbpHeader = fileOps.loadPage(0);
             HeaderPage.setRootPageNo(dbpHeader, root.getPageNo());
         }
         else
@@ -0,0 +1,505 @@
+package edu.caltech.nanodb.storage.columnfile;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Objects;
+
+import edu.caltech.nanodb.expressions.TypeConverter;
+import edu.caltech.nanodb.relations.ColumnType;
+import edu.caltech.nanodb.relations.SQLDataType;
+
+
+/**
+ * <p>
+ * This class encodes and decodes the values of column chunks.  Values are
+ * stored in the same way in every encoding:  integers and floating-point
+ * numbers in big-endian order, and strings as a variable-length byte count
+ * followed by the string's UTF-8 bytes.  The encodings are laid out as
+ * follows:
+ * </p>
+ * <ul>
+ *   <li>{@link ColumnEncoding#PLAIN}:  for each row, a byte that is 1 if the
+ *       value is <tt>NULL</tt> and 0 otherwise, followed by the value if it
+ *       isn't <tt>NULL</tt>.  Chunks in this encoding can be appended to.</li>
+ *   <li>{@link ColumnEncoding#RUN_LENGTH}:  a sequence of runs, each of which
+ *       is a variable-length row count followed by a value in the plain
+ *       encoding.</li>
+ *   <li>{@link ColumnEncoding#DICTIONARY}:  a variable-length count of
+ *       distinct values, followed by the values, then a byte holding the bit
+ *       width of the codes, and then one bit-packed code per row.  Code 0 is
+ *       <tt>NULL</tt>, and code <em>i</em> is the <em>i</em>th value in the
+ *       dictionary.</li>
+ *   <li>{@link ColumnEncoding#BIT_PACKED}:  a byte that is 1 if any values
+ *       are <tt>NULL</tt>, followed by a bit-packed null bitmap if so, then
+ *       the smallest value as a long, a byte holding the bit width, and one
+ *       bit-packed offset from the smallest value per row.</li>
+ * </ul>
+ * <p>
+ * Bits are packed starting at the least significant bit of each byte.
+ * </p>
+ */
+public class ChunkCodec {
+
+    /**
+     * Encodes the specified values with the specified encoding.
+     *
+     * @param colType the type of the column the values are from
+     * @param values the values to encode
+     * @param numValues the number of values to encode, from the start of
+     *        the array
+     * @param encoding the encoding to use
+     *
+     * @return the encoded values
+     *
+     * @throws IllegalArgumentException if the encoding doesn't support the
+     *         column's type
+     */
+    public static byte[] encode(ColumnType colType, Object[] values,
+                                int numValues, ColumnEncoding encoding) {
+
+        if (!encoding.supports(colType.getBaseType())) {
+            throw new IllegalArgumentException("Encoding " + encoding +
+                " doesn't support type " + colType);
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            switch (encoding) {
+            case PLAIN:
+                for (int i = 0; i < numValues; i++)
+                    writePlainValue(out, colType, values[i]);
+                break;
+
+            case RUN_LENGTH:
+                encodeRunLength(out, colType, values, numValues);
+                break;
+
+            case DICTIONARY:
+                encodeDictionary(out, colType, values, numValues);
+                break;
+
+            case BIT_PACKED:
+                encodeBitPacked(out, values, numValues);
+                break;
+            }
+            out.flush();
+        }
+        catch (IOException e) {
+            // Writing to a byte array doesn't fail.
+            throw new IllegalStateException(e);
+        }
+
+        return bytes.toByteArray();
+    }
+
+
+    /**
+     * Decodes the values of a column chunk.
+     *
+     * @param colType the type of the column the values are from
+     * @param encoding the encoding of the data
+     * @param data the encoded values
+     * @param numValues the number of values that were encoded
+     *
+     * @return an array holding the decoded values
+     *
+     * @throws IOException if the data ends before all of the values are
+     *         decoded
+     */
+    public static Object[] decode(ColumnType colType, ColumnEncoding encoding,
+                                  byte[] data, int numValues)
+        throws IOException {
+
+        Object[] values = new Object[numValues];
+        DataInputStream in =
+            new DataInputStream(new ByteArrayInputStream(data));
+
+        switch (encoding) {
+        case PLAIN:
+            for (int i = 0; i < numValues; i++)
+                values[i] = readPlainValue(in, colType);
+            break;
+
+        case RUN_LENGTH:
+            for (int i = 0; i < numValues; ) {
+                int runLength = readVarInt(in);
+                Object value = readPlainValue(in, colType);
+                if (runLength > numValues - i)
+                    throw new IOException("Run extends past the end of the chunk");
+
+                for (int j = 0; j < runLength; j++)
+                    values[i++] = value;
+            }
+            break;
+
+        case DICTIONARY: {
+            Object[] dictionary = new Object[readVarInt(in) + 1];
+            for (int i = 1; i < dictionary.length; i++)
+                dictionary[i] = readValue(in, colType);
+
+            int width = in.readUnsignedByte();
+            byte[] codes = readPacked(in, numValues, width);
+            for (int i = 0; i < numValues; i++) {
+                long code = unpack(codes, (long) i * width, width);
+                if (code >= dictionary.length)
+                    throw new IOException("Invalid dictionary code " + code);
+
+                values[i] = dictionary[(int) code];
+            }
+            break;
+        }
+
+        case BIT_PACKED: {
+            byte[] nulls = null;
+            if (in.readBoolean())
+                nulls = readPacked(in, numValues, 1);
+
+            long base = in.readLong();
+            int width = in.readUnsignedByte();
+            byte[] offsets = readPacked(in, numValues, width);
+            SQLDataType type = colType.getBaseType();
+            for (int i = 0; i < numValues; i++) {
+                if (nulls != null && unpack(nulls, i, 1) != 0)
+                    continue;
+
+                long value = base + unpack(offsets, (long) i * width, width);
+                values[i] = fromLong(type, value);
+            }
+            break;
+        }
+        }
+
+        return values;
+    }
+
+
+    private static void encodeRunLength(DataOutput out, ColumnType colType,
+        Object[] values, int numValues) throws IOException {
+
+        int i = 0;
+        while (i < numValues) {
+            int runEnd = i + 1;
+            while (runEnd < numValues &&
+                   Objects.equals(values[runEnd], values[i])) {
+                runEnd++;
+            }
+
+            writeVarInt(out, runEnd - i);
+            writePlainValue(out, colType, values[i]);
+            i = runEnd;
+        }
+    }
+
+
+    private static void encodeDictionary(DataOutput out, ColumnType colType,
+        Object[] values, int numValues) throws IOException {
+
+        HashMap<Object, Integer> codes = new HashMap<>();
+        ArrayList<Object> dictionary = new ArrayList<>();
+        long[] rowCodes = new long[numValues];
+        for (int i = 0; i < numValues; i++) {
+            if (values[i] == null)
+                continue;
+
+            Integer code = codes.get(values[i]);
+            if (code == null) {
+                dictionary.add(values[i]);
+                code = dictionary.size();
+                codes.put(values[i], code);
+            }
+            rowCodes[i] = code;
+        }
+
+        writeVarInt(out, dictionary.size());
+        for (Object value : dictionary)
+            writeValue(out, colType, value);
+
+        int width = bitWidth(dictionary.size());
+        out.writeByte(width);
+        writePacked(out, rowCodes, numValues, width);
+    }
+
+
+    private static void encodeBitPacked(DataOutput out, Object[] values,
+                                        int numValues) throws IOException {
+
+        long[] nulls = new long[numValues];
+        boolean hasNulls = false;
+        long min = 0;
+        long max = 0;
+        boolean first = true;
+        for (int i = 0; i < numValues; i++) {
+            if (values[i] == null) {
+                nulls[i] = 1;
+                hasNulls = true;
+                continue;
+            }
+
+            long value = ((Number) values[i]).longValue();
+            if (first || value < min)
+                min = value;
+            if (first || value > max)
+                max = value;
+            first = false;
+        }
+
+        out.writeBoolean(hasNulls);
+        if (hasNulls)
+            writePacked(out, nulls, numValues, 1);
+
+        long[] offsets = new long[numValues];
+        for (int i = 0; i < numValues; i++) {
+            if (values[i] != null)
+                offsets[i] = ((Number) values[i]).longValue() - min;
+        }
+
+        // The range is treated as unsigned, so that it can't overflow.
+        int width = 64 - Long.numberOfLeadingZeros(max - min);
+        out.writeLong(min);
+        out.writeByte(width);
+        writePacked(out, offsets, numValues, width);
+    }
+
+
+    /**
+     * Returns the number of bits needed to store values from 0 to the
+     * specified maximum.
+     */
+    private static int bitWidth(long maxValue) {
+        return 64 - Long.numberOfLeadingZeros(maxValue);
+    }
+
+
+    private static void writePacked(DataOutput out, long[] values,
+                                    int numValues, int width)
+        throws IOException {
+
+        byte[] packed = new byte[packedSize(numValues, width)];
+        long bitPos = 0;
+        for (int i = 0; i < numValues; i++) {
+            long value = values[i];
+            int remaining = width;
+            while (remaining > 0) {
+                int bitOffset = (int) (bitPos & 7);
+                int numBits = Math.min(8 - bitOffset, remaining);
+                packed[(int) (bitPos >>> 3)] |=
+                    (byte) ((value & ((1 << numBits) - 1)) << bitOffset);
+
+                value >>>= numBits;
+                remaining -= numBits;
+                bitPos += numBits;
+            }
+        }
+        out.write(packed);
+    }
+
+
+    private static byte[] readPacked(DataInput in, int numValues, int width)
+        throws IOException {
+
+        if (width > 64)
+            throw new IOException("Invalid bit width " + width);
+
+        byte[] packed = new byte[packedSize(numValues, width)];
+        in.readFully(packed);
+        return packed;
+    }
+
+
+    private static int packedSize(int numValues, int width) {
+        return (int) (((long) numValues * width + 7) / 8);
+    }
+
+
+    /** Reads one bit-packed value, starting at the specified bit. */
+    private static long unpack(byte[] packed, long bitPos, int width) {
+        long value = 0;
+        int shift = 0;
+        while (shift < width) {
+            int bitOffset = (int) (bitPos & 7);
+            int numBits = Math.min(8 - bitOffset, width - shift);
+            long bits = ((packed[(int) (bitPos >>> 3)] & 0xFF) >>> bitOffset) &
+                ((1 << numBits) - 1);
+
+            value |= bits << shift;
+            shift += numBits;
+            bitPos += numBits;
+        }
+        return value;
+    }
+
+
+    private static Object fromLong(SQLDataType type, long value) {
+        switch (type) {
+        case TINYINT:
+            return Byte.valueOf((byte) value);
+
+        case SMALLINT:
+            return Short.valueOf((short) value);
+
+        case INTEGER:
+            return Integer.valueOf((int) value);
+
+        default:
+            return Long.valueOf(value);
+        }
+    }
+
+
+    private static void writePlainValue(DataOutput out, ColumnType colType,
+                                        Object value) throws IOException {
+        out.writeBoolean(value == null);
+        if (value != null)
+            writeValue(out, colType, value);
+    }
+
+
+    private static Object readPlainValue(DataInput in, ColumnType colType)
+        throws IOException {
+
+        if (in.readBoolean())
+            return null;
+
+        return readValue(in, colType);
+    }
+
+
+    /**
+     * Writes a non-<tt>NULL</tt> value, converting it to the column's type
+     * first.
+     *
+     * @param out the output to write the value to
+     * @param colType the type of the column the value is from
+     * @param value the value to write
+     *
+     * @throws IOException if the value couldn't be written
+     */
+    public static void writeValue(DataOutput out, ColumnType colType,
+                                  Object value) throws IOException {
+
+        switch (colType.getBaseType()) {
+        case TINYINT:
+            out.writeByte(TypeConverter.getByteValue(value));
+            break;
+
+        case SMALLINT:
+            out.writeShort(TypeConverter.getShortValue(value));
+            break;
+
+        case INTEGER:
+            out.writeInt(TypeConverter.getIntegerValue(value));
+            break;
+
+        case BIGINT:
+            out.writeLong(TypeConverter.getLongValue(value));
+            break;
+
+        case FLOAT:
+            out.writeFloat(TypeConverter.getFloatValue(value));
+            break;
+
+        case DOUBLE:
+            out.writeDouble(TypeConverter.getDoubleValue(value));
+            break;
+
+        case CHAR:
+        case VARCHAR: {
+            byte[] bytes = TypeConverter.getStringValue(value).getBytes(
+                StandardCharsets.UTF_8);
+            writeVarInt(out, bytes.length);
+            out.write(bytes);
+            break;
+        }
+
+        default:
+            throw new UnsupportedOperationException(
+                "Cannot currently store type " + colType.getBaseType());
+        }
+    }
+
+
+    /**
+     * Reads a value that was written by {@link #writeValue}.
+     *
+     * @param in the input to read the value from
+     * @param colType the type of the column the value is from
+     *
+     * @return the value that was read
+     *
+     * @throws IOException if the value couldn't be read
+     */
+    public static Object readValue(DataInput in, ColumnType colType)
+        throws IOException {
+
+        switch (colType.getBaseType()) {
+        case TINYINT:
+            return Byte.valueOf(in.readByte());
+
+        case SMALLINT:
+            return Short.valueOf(in.readShort());
+
+        case INTEGER:
+            return Integer.valueOf(in.readInt());
+
+        case BIGINT:
+            return Long.valueOf(in.readLong());
+
+        case FLOAT:
+            return Float.valueOf(in.readFloat());
+
+        case DOUBLE:
+            return Double.valueOf(in.readDouble());
+
+        case CHAR:
+        case VARCHAR: {
+            byte[] bytes = new byte[readVarInt(in)];
+            in.readFully(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        default:
+            throw new UnsupportedOperationException(
+                "Cannot currently read type " + colType.getBaseType());
+        }
+    }
+
+
+    /**
+     * Writes a nonnegative integer in as few bytes as possible, seven bits
+     * per byte, with the high bit of each byte set if more bytes follow.
+     */
+    static void writeVarInt(DataOutput out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+
+    /** Reads an integer that was written by {@link #writeVarInt}. */
+    static int readVarInt(DataInput in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                if (value < 0)
+                    throw new IOException("Invalid variable-length integer");
+
+                return value;
+            }
+        }
+        throw new IOException("Invalid variable-length integer");
+    }
+}
@@ -0,0 +1,243 @@
+package edu.caltech.nanodb.storage.columnfile;
+
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import edu.caltech.nanodb.relations.ColumnType;
+import edu.caltech.nanodb.storage.FilePointer;
+
+
+/**
+ * This class describes one column's chunk of a row group:  where the chunk's
+ * data is in the column's page chain, how it is encoded, and the number of
+ * <tt>NULL</tt>s and the smallest and largest values in the chunk.  Scans use
+ * the minimum and maximum values to skip row groups that can't contain any
+ * rows that satisfy the query's predicate.  The chunks of the open row group
+ * have no statistics, since they are still being added to; their data is
+ * read when the chunk is described, since sealing the row group rewrites it.
+ */
+public class ColumnChunkInfo {
+
+    /** The position of the chunk's data in the column's page chain. */
+    private FilePointer start;
+
+
+    /** The number of bytes of data in the chunk. */
+    private int length;
+
+
+    /** The encoding of the chunk's values. */
+    private ColumnEncoding encoding;
+
+
+    /**
+     * The number of <tt>NULL</tt> values in the chunk, or -1 if the chunk
+     * has no statistics.
+     */
+    private int nullCount;
+
+
+    /** The smallest non-<tt>NULL</tt> value in the chunk, if known. */
+    private Object minValue;
+
+
+    /** The largest non-<tt>NULL</tt> value in the chunk, if known. */
+    private Object maxValue;
+
+
+    /** The chunk's data, if it was read along with the description. */
+    private byte[] data;
+
+
+    public ColumnChunkInfo(FilePointer start, int length,
+                           ColumnEncoding encoding, int nullCount,
+                           Object minValue, Object maxValue) {
+        if (start == null)
+            throw new IllegalArgumentException("start cannot be null");
+
+        if (encoding == null)
+            throw new IllegalArgumentException("encoding cannot be null");
+
+        this.start = start;
+        this.length = length;
+        this.encoding = encoding;
+        this.nullCount = nullCount;
+        this.minValue = minValue;
+        this.maxValue = maxValue;
+    }
+
+
+    /**
+     * Describes a chunk of the open row group, which has no statistics, and
+     * whose data has already been read.
+     *
+     * @param start the position of the chunk's data
+     * @param encoding the encoding of the chunk's values
+     * @param data the chunk's data
+     */
+    public ColumnChunkInfo(FilePointer start, ColumnEncoding encoding,
+                           byte[] data) {
+        this(start, data.length, encoding, -1, null, null);
+        this.data = data;
+    }
+
+
+    /**
+     * Describes a chunk, computing its statistics from its values.
+     *
+     * @param start the position of the chunk's data
+     * @param length the number of bytes of data in the chunk
+     * @param encoding the encoding of the chunk's values
+     * @param values the chunk's values
+     * @param numValues the number of values in the chunk
+     *
+     * @return a description of the chunk
+     */
+    @SuppressWarnings("unchecked")
+    public static ColumnChunkInfo forValues(FilePointer start, int length,
+        ColumnEncoding encoding, Object[] values, int numValues) {
+
+        int nullCount = 0;
+        Comparable min = null;
+        Comparable max = null;
+        for (int i = 0; i < numValues; i++) {
+            Comparable value = (Comparable) values[i];
+            if (value == null) {
+                nullCount++;
+                continue;
+            }
+
+            if (min == null || value.compareTo(min) < 0)
+                min = value;
+            if (max == null || value.compareTo(max) > 0)
+                max = value;
+        }
+
+        return new ColumnChunkInfo(start, length, encoding, nullCount, min,
+            max);
+    }
+
+
+    public FilePointer getStart() {
+        return start;
+    }
+
+
+    public int getLength() {
+        return length;
+    }
+
+
+    public ColumnEncoding getEncoding() {
+        return encoding;
+    }
+
+
+    /**
+     * Returns true if the chunk's <tt>NULL</tt> count and minimum and
+     * maximum values are known.
+     *
+     * @return true if the chunk has statistics
+     */
+    public boolean hasStatistics() {
+        return nullCount >= 0;
+    }
+
+
+    public int getNullCount() {
+        return nullCount;
+    }
+
+
+    public Object getMinValue() {
+        return minValue;
+    }
+
+
+    public Object getMaxValue() {
+        return maxValue;
+    }
+
+
+    /**
+     * Returns the chunk's data if it was read along with the description,
+     * or <tt>null</tt> if it must be read from the column's page chain.
+     *
+     * @return the chunk's data, or <tt>null</tt> if it hasn't been read
+     */
+    public byte[] getData() {
+        return data;
+    }
+
+
+    /**
+     * Writes the description of a chunk with statistics to the row-group
+     * directory.
+     *
+     * @param out the output to write the description to
+     * @param colType the type of the chunk's column
+     *
+     * @throws IOException if the description couldn't be written
+     */
+    public void write(DataOutput out, ColumnType colType) throws IOException {
+        if (!hasStatistics())
+            throw new IllegalStateException("Chunk has no statistics");
+
+        out.writeInt(start.getPageNo());
+        out.writeInt(start.getOffset());
+        out.writeInt(length);
+        out.writeByte(encoding.getID());
+        out.writeInt(nullCount);
+
+        out.writeBoolean(minValue != null);
+        if (minValue != null) {
+            ChunkCodec.writeValue(out, colType, minValue);
+            ChunkCodec.writeValue(out, colType, maxValue);
+        }
+    }
+
+
+    /**
+     * Reads the description of a chunk that was written by {@link #write}.
+     *
+     * @param in the input to read the description from
+     * @param colType the type of the chunk's column
+     *
+     * @return the description of the chunk
+     *
+     * @throws IOException if the description couldn't be read
+     */
+    public static ColumnChunkInfo read(DataInput in, ColumnType colType)
+        throws IOException {
+
+        FilePointer start = new FilePointer(in.readInt(), in.readInt());
+        int length = in.readInt();
+
+        int encodingID = in.readUnsignedByte();
+        ColumnEncoding encoding = ColumnEncoding.valueOf(encodingID);
+        if (encoding == null)
+            throw new IOException("Unrecognized column encoding " + encodingID);
+
+        int nullCount = in.readInt();
+
+        Object minValue = null;
+        Object maxValue = null;
+        if (in.readBoolean()) {
+            minValue = ChunkCodec.readValue(in, colType);
+            maxValue = ChunkCodec.readValue(in, colType);
+        }
+
+        return new ColumnChunkInfo(start, length, encoding, nullCount,
+            minValue, maxValue);
+    }
+
+
+    @Override
+    public String toString() {
+        return String.format("ColumnChunkInfo[start=%s, length=%d, " +
+            "encoding=%s, nulls=%d, min=%s, max=%s]", start, length, encoding,
+            nullCount, minValue, maxValue);
+    }
+}
@@ -0,0 +1,86 @@
+package edu.caltech.nanodb.storage.columnfile;
+
+
+import edu.caltech.nanodb.relations.SQLDataType;
+
+
+/**
+ * This enumeration specifies the ways that the values of a column chunk can
+ * be encoded in a columnar tuple file.  Rows are added to the open row group
+ * in the {@link #PLAIN} encoding, since it can be appended to one value at a
+ * time; when the row group is sealed, each of its chunks is re-encoded with
+ * whichever encoding is smallest for the chunk's values.  See
+ * {@link ChunkCodec} for the format of each encoding.
+ */
+public enum ColumnEncoding {
+    /** Each value is stored in turn, preceded by a null flag. */
+    PLAIN(0),
+
+
+    /** Runs of equal values are stored as a count and a single value. */
+    RUN_LENGTH(1),
+
+
+    /**
+     * The distinct values are stored once, and each row is stored as a
+     * bit-packed index into the dictionary of values.
+     */
+    DICTIONARY(2),
+
+
+    /**
+     * Integer values are stored as bit-packed offsets from the smallest
+     * value in the chunk.
+     */
+    BIT_PACKED(3);
+
+
+    private int id;
+
+
+    private ColumnEncoding(int id) {
+        this.id = id;
+    }
+
+
+    public int getID() {
+        return id;
+    }
+
+
+    /**
+     * Returns true if this encoding can be used for values of the specified
+     * type.
+     *
+     * @param type the type of the values to encode
+     *
+     * @return true if this encoding can be used for the type
+     */
+    public boolean supports(SQLDataType type) {
+        if (this == BIT_PACKED) {
+            return type == SQLDataType.TINYINT ||
+                type == SQLDataType.SMALLINT ||
+                type == SQLDataType.INTEGER ||
+                type == SQLDataType.BIGINT;
+        }
+
+        return true;
+    }
+
+
+    /**
+     * Given the ID of an encoding, this method returns the encoding, or
+     * <tt>null</tt> if no encoding has that ID.
+     *
+     * @param id the ID of the encoding to return
+     *
+     * @return the encoding with the ID, or <tt>null</tt> if none matches
+     */
+    public static ColumnEncoding valueOf(int id) {
+        for (ColumnEncoding encoding : values()) {
+            if (encoding.id == id)
+                return encoding;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,300 @@
+package edu.caltech.nanodb.storage.columnfile;
+
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+import edu.caltech.nanodb.expressions.ColumnValue;
+import edu.caltech.nanodb.expressions.CompareOperator;
+import edu.caltech.nanodb.expressions.Expression;
+import edu.caltech.nanodb.expressions.LiteralValue;
+import edu.caltech.nanodb.expressions.PredicateUtils;
+import edu.caltech.nanodb.expressions.TypeCastException;
+import edu.caltech.nanodb.expressions.TypeConverter;
+import edu.caltech.nanodb.relations.SchemaNameException;
+import edu.caltech.nanodb.relations.TableSchema;
+import edu.caltech.nanodb.relations.TupleBatch;
+import edu.caltech.nanodb.server.performance.PerformanceCounters;
+
+
+/**
+ * <p>
+ * This class scans a columnar tuple file one row group at a time, producing
+ * a batch for each row group that only holds the values of the columns the
+ * scan uses; the other columns are <tt>NULL</tt>, and their chunks are never
+ * read.
+ * </p>
+ * <p>
+ * If the scan is given a predicate, the conjuncts of the predicate that
+ * compare a column to a literal value are checked against the smallest and
+ * largest values of the column's chunk in each row group, and row groups
+ * that can't contain a row satisfying the predicate are skipped.  The
+ * predicate itself is not applied to the rows of the batches; that is left
+ * to the caller.
+ * </p>
+ */
+public class ColumnarScan {
+
+    /** A logging object for reporting anything interesting that happens. */
+    private static Logger logger = Logger.getLogger(ColumnarScan.class);
+
+
+    /** A comparison of a column to a literal value. */
+    private static class ColumnBound {
+        /** The index of the column being compared. */
+        int iCol;
+
+        /** The comparison, with the column on the left. */
+        CompareOperator.Type type;
+
+        /** The value the column is compared to. */
+        Object value;
+
+        ColumnBound(int iCol, CompareOperator.Type type, Object value) {
+            this.iCol = iCol;
+            this.type = type;
+            this.value = value;
+        }
+    }
+
+
+    /** The file being scanned. */
+    private ColumnarTupleFile tupleFile;
+
+
+    /** Whether each column must be read. */
+    private boolean[] readColumn;
+
+
+    /** The comparisons used to skip row groups. */
+    private ArrayList<ColumnBound> bounds = new ArrayList<>();
+
+
+    /** The row groups of the file, once the scan has started. */
+    private List<RowGroupInfo> rowGroups;
+
+
+    /** The index of the next row group to read. */
+    private int nextRowGroup;
+
+
+    /**
+     * Creates a scan over a columnar tuple file.
+     *
+     * @param tupleFile the file to scan
+     *
+     * @param columns the indexes of the columns to read, or <tt>null</tt> to
+     *        read all columns
+     *
+     * @param predicate a predicate that all rows the caller uses satisfy,
+     *        or <tt>null</tt> if the caller uses every row
+     */
+    public ColumnarScan(ColumnarTupleFile tupleFile, int[] columns,
+                        Expression predicate) {
+        if (tupleFile == null)
+            throw new IllegalArgumentException("tupleFile cannot be null");
+
+        this.tupleFile = tupleFile;
+
+        TableSchema schema = tupleFile.getSchema();
+        readColumn = new boolean[schema.numColumns()];
+        for (int i = 0; i < readColumn.length; i++)
+            readColumn[i] = (columns == null);
+
+        if (columns != null) {
+            for (int iCol : columns)
+                readColumn[iCol] = true;
+        }
+
+        ArrayList<Expression> conjuncts = new ArrayList<>();
+        PredicateUtils.collectConjuncts(predicate, conjuncts);
+        for (Expression conjunct : conjuncts) {
+            ColumnBound bound = makeBound(conjunct, schema);
+            if (bound != null)
+                bounds.add(bound);
+        }
+    }
+
+
+    /**
+     * If the expression compares a column of the table to a literal value,
+     * this method returns the comparison, with the column on the left;
+     * otherwise it returns <tt>null</tt>.
+     */
+    private static ColumnBound makeBound(Expression expr, TableSchema schema) {
+        if (!(expr instanceof CompareOperator))
+            return null;
+
+        CompareOperator cmp = (CompareOperator) expr;
+        Expression lhs = cmp.getLeftExpression();
+        Expression rhs = cmp.getRightExpression();
+        CompareOperator.Type type = cmp.getType();
+
+        if (lhs instanceof LiteralValue && rhs instanceof ColumnValue) {
+            Expression tmp = lhs;
+            lhs = rhs;
+            rhs = tmp;
+
+            switch (type) {
+            case LESS_THAN:
+                type = CompareOperator.Type.GREATER_THAN;
+                break;
+
+            case GREATER_THAN:
+                type = CompareOperator.Type.LESS_THAN;
+                break;
+
+            case LESS_OR_EQUAL:
+                type = CompareOperator.Type.GREATER_OR_EQUAL;
+                break;
+
+            case GREATER_OR_EQUAL:
+                type = CompareOperator.Type.LESS_OR_EQUAL;
+                break;
+
+            default:
+                // No changes needed.
+            }
+        }
+
+        if (!(lhs instanceof ColumnValue && rhs instanceof LiteralValue))
+            return null;
+
+        Object value = rhs.evaluate();
+        if (value == null)
+            return null;
+
+        int iCol;
+        try {
+            iCol = schema.getColumnIndex(((ColumnValue) lhs).getColumnName());
+        }
+        catch (SchemaNameException e) {
+            return null;
+        }
+
+        // Columns of enclosing queries aren't in the schema.
+        if (iCol == -1)
+            return null;
+
+        return new ColumnBound(iCol, type, value);
+    }
+
+
+    /**
+     * Returns true if no row of the row group can satisfy all of the
+     * scan's comparisons, according to the statistics of its chunks.
+     */
+    private boolean canSkip(RowGroupInfo rowGroup) {
+        for (ColumnBound bound : bounds) {
+            ColumnChunkInfo chunk = rowGroup.getChunk(bound.iCol);
+            if (!chunk.hasStatistics())
+                continue;
+
+            // A comparison with NULL is never true.
+            if (chunk.getNullCount() == rowGroup.getNumRows())
+                return true;
+
+            int minCmp;
+            int maxCmp;
+            try {
+                minCmp = compare(chunk.getMinValue(), bound.value);
+                maxCmp = compare(chunk.getMaxValue(), bound.value);
+            }
+            catch (TypeCastException e) {
+                continue;
+            }
+
+            boolean skip;
+            switch (bound.type) {
+            case EQUALS:
+                skip = (minCmp > 0 || maxCmp < 0);
+                break;
+
+            case NOT_EQUALS:
+                skip = (minCmp == 0 && maxCmp == 0);
+                break;
+
+            case LESS_THAN:
+                skip = (minCmp >= 0);
+                break;
+
+            case LESS_OR_EQUAL:
+                skip = (minCmp > 0);
+                break;
+
+            case GREATER_THAN:
+                skip = (maxCmp <= 0);
+                break;
+
+            case GREATER_OR_EQUAL:
+                skip = (maxCmp < 0);
+                break;
+
+            default:
+                skip = false;
+            }
+
+            if (skip)
+                return true;
+        }
+
+        return false;
+    }
+
+
+    @SuppressWarnings("unchecked")
+    private static int compare(Object a, Object b) {
+        TypeConverter.Pair coerced = TypeConverter.coerceComparison(a, b);
+        return ((Comparable) coerced.value1).compareTo(coerced.value2);
+    }
+
+
+    /**
+     * Returns the rows of the next row group that isn't skipped, as a batch.
+     * The file's row groups are listed when this method is first called, so
+     * rows added after that aren't seen by the scan.
+     *
+     * @return a batch holding the rows of the next row group, or
+     *         <tt>null</tt> if there are no more row groups
+     *
+     * @throws IOException if an IO error occurs while reading the file
+     */
+    public TupleBatch nextBatch() throws IOException {
+        if (rowGroups == null)
+            rowGroups = tupleFile.getRowGroups();
+
+        while (nextRowGroup < rowGroups.size()) {
+            RowGroupInfo rowGroup = rowGroups.get(nextRowGroup);
+            nextRowGroup++;
+
+            int numRows = rowGroup.getNumRows();
+            if (numRows == 0)
+                continue;
+
+            if (canSkip(rowGroup)) {
+                logger.debug("Skipping row group " + (nextRowGroup - 1) +
+                    " of " + tupleFile.getDBFile());
+                PerformanceCounters.inc(
+                    PerformanceCounters.COLUMNAR_ROW_GROUPS_SKIPPED);
+                continue;
+            }
+
+            PerformanceCounters.inc(PerformanceCounters.COLUMNAR_ROW_GROUPS_READ);
+
+            Object[][] columns = new Object[readColumn.length][];
+            for (int i = 0; i < columns.length; i++) {
+                if (readColumn[i])
+                    columns[i] = tupleFile.readColumn(rowGroup, i);
+                else
+                    columns[i] = new Object[numRows];
+            }
+
+            return new TupleBatch(columns, numRows, null, 0);
+        }
+
+        return null;
+    }
+}
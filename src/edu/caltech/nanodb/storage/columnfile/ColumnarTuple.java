@@ -0,0 +1,159 @@
+package edu.caltech.nanodb.storage.columnfile;
+
+
+import java.util.List;
+
+import edu.caltech.nanodb.relations.Tuple;
+import edu.caltech.nanodb.storage.FilePointer;
+
+
+/**
+ * <p>
+ * This class presents one row of a columnar tuple file as a tuple.  The
+ * values are held in memory, in the decoded columns of the tuple's row
+ * group; the tuples of a row group share the decoded columns, so that
+ * moving to the next tuple doesn't decode anything until the next row group
+ * is reached.
+ * </p>
+ * <p>
+ * The external reference of a tuple holds the index of its row group as the
+ * page number, and the row's index within the group as the offset.  Columnar
+ * tuple files don't support updates, so the tuple's values can't be
+ * changed.
+ * </p>
+ */
+public class ColumnarTuple implements Tuple {
+
+    /**
+     * The row groups of the file, as they were when the tuple was read, or
+     * <tt>null</tt> if the tuple was just added to the file.
+     */
+    private List<RowGroupInfo> rowGroups;
+
+
+    /** The index of the tuple's row group. */
+    private int rowGroup;
+
+
+    /** The index of the tuple's row within its row group. */
+    private int row;
+
+
+    /** The values of the columns, indexed first by column. */
+    private Object[][] columns;
+
+
+    /** The index of the tuple's values in the column arrays. */
+    private int index;
+
+
+    public ColumnarTuple(List<RowGroupInfo> rowGroups, int rowGroup, int row,
+                         Object[][] columns, int index) {
+        if (columns == null)
+            throw new IllegalArgumentException("columns cannot be null");
+
+        this.rowGroups = rowGroups;
+        this.rowGroup = rowGroup;
+        this.row = row;
+        this.columns = columns;
+        this.index = index;
+    }
+
+
+    List<RowGroupInfo> getRowGroups() {
+        return rowGroups;
+    }
+
+
+    int getRowGroup() {
+        return rowGroup;
+    }
+
+
+    int getRow() {
+        return row;
+    }
+
+
+    Object[][] getColumns() {
+        return columns;
+    }
+
+
+    @Override
+    public boolean isDiskBacked() {
+        return false;
+    }
+
+
+    @Override
+    public int getColumnCount() {
+        return columns.length;
+    }
+
+
+    @Override
+    public boolean isNullValue(int colIndex) {
+        return columns[colIndex][index] == null;
+    }
+
+
+    @Override
+    public Object getColumnValue(int colIndex) {
+        return columns[colIndex][index];
+    }
+
+
+    @Override
+    public void setColumnValue(int colIndex, Object value) {
+        throw new UnsupportedOperationException(
+            "Columnar tuples can't be modified");
+    }
+
+
+    @Override
+    public FilePointer getExternalReference() {
+        return new FilePointer(rowGroup, row);
+    }
+
+
+    /** Columnar tuples are in memory, so pinning is a no-op. */
+    @Override
+    public void pin() {
+        // No-op.
+    }
+
+
+    /** Columnar tuples are in memory, so pinning is a no-op. */
+    @Override
+    public void unpin() {
+        // No-op.
+    }
+
+
+    /** Columnar tuples are in memory, so pinning is a no-op. */
+    @Override
+    public int getPinCount() {
+        return 0;
+    }
+
+
+    /** Columnar tuples are in memory, so pinning is a no-op. */
+    @Override
+    public boolean isPinned() {
+        return false;
+    }
+
+
+    @Override
+    public String toString() {
+        StringBuilder buf = new StringBuilder("CT[");
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0)
+                buf.append(',');
+            buf.append(columns[i][index]);
+        }
+        buf.append(']');
+        return buf.toString();
+    }
+}
@@ -0,0 +1,644 @@
+package edu.caltech.nanodb.storage.columnfile;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+
+import org.apache.log4j.Logger;
+
+import edu.caltech.nanodb.queryeval.ColumnStats;
+import edu.caltech.nanodb.queryeval.ColumnStatsCollector;
+import edu.caltech.nanodb.queryeval.TableStats;
+import edu.caltech.nanodb.relations.ColumnType;
+import edu.caltech.nanodb.relations.TableSchema;
+import edu.caltech.nanodb.relations.Tuple;
+import edu.caltech.nanodb.storage.AnalyzeSample;
+import edu.caltech.nanodb.storage.DBFile;
+import edu.caltech.nanodb.storage.DBPage;
+import edu.caltech.nanodb.storage.FilePointer;
+import edu.caltech.nanodb.storage.InvalidFilePointerException;
+import edu.caltech.nanodb.storage.StorageManager;
+import edu.caltech.nanodb.storage.TupleFile;
+import edu.caltech.nanodb.storage.TupleFileManager;
+
+
+/**
+ * <p>
+ * This class implements the TupleFile interface for columnar files, which
+ * store the values of each column separately so that a scan only has to read
+ * the columns it uses.  Rows are grouped into row groups of up to
+ * {@link #ROWS_PER_GROUP} rows, and each row group holds one chunk of values
+ * for each column.  The chunks of each column are stored one after another
+ * in the column's own page chain (see {@link PageChain}), and the row-group
+ * directory, which describes every sealed row group, is stored in another
+ * page chain.
+ * </p>
+ * <p>
+ * New rows are appended to the open row group, whose chunks are stored in
+ * the {@link ColumnEncoding#PLAIN} encoding so that each column's value can
+ * be appended to the end of its chain.  When the open row group is full, it
+ * is sealed:  each chunk is re-encoded with the smallest of the encodings
+ * that suit its values, and written over its plain values, and the chunk's
+ * <tt>NULL</tt> count and smallest and largest values are recorded in the
+ * directory along with its position and encoding.  The state of the open row
+ * group and of each column's chain is kept in the header page.
+ * </p>
+ * <p>
+ * Columnar files are meant for tables that are loaded and then queried, so
+ * rows can't be updated or deleted.
+ * </p>
+ */
+public class ColumnarTupleFile implements TupleFile {
+
+    /** A logging object for reporting anything interesting that happens. */
+    private static Logger logger = Logger.getLogger(ColumnarTupleFile.class);
+
+
+    /**
+     * The maximum number of rows in a row group.  This is the same as the
+     * default capacity of a {@link edu.caltech.nanodb.relations.TupleBatch},
+     * so that a scan produces one full batch per row group.
+     */
+    public static final int ROWS_PER_GROUP = 1024;
+
+
+    /**
+     * The storage manager to use for reading and writing file pages.
+     */
+    private StorageManager storageManager;
+
+
+    /**
+     * A reference to the columnar-file manager, which allows the tuple file
+     * to notify the manager when the file's metadata changes.
+     */
+    private ColumnarTupleFileManager columnarFileManager;
+
+
+    /** The schema of tuples in this tuple file. */
+    private TableSchema schema;
+
+
+    /** Statistics for this tuple file. */
+    private TableStats stats;
+
+
+    /** The file that stores the tuples. */
+    private DBFile dbFile;
+
+
+    public ColumnarTupleFile(StorageManager storageManager,
+                             ColumnarTupleFileManager columnarFileManager,
+                             DBFile dbFile, TableSchema schema,
+                             TableStats stats) {
+        if (storageManager == null)
+            throw new IllegalArgumentException("storageManager cannot be null");
+
+        if (columnarFileManager == null)
+            throw new IllegalArgumentException("columnarFileManager cannot be null");
+
+        if (dbFile == null)
+            throw new IllegalArgumentException("dbFile cannot be null");
+
+        if (schema == null)
+            throw new IllegalArgumentException("schema cannot be null");
+
+        if (stats == null)
+            throw new IllegalArgumentException("stats cannot be null");
+
+        this.storageManager = storageManager;
+        this.columnarFileManager = columnarFileManager;
+        this.dbFile = dbFile;
+        this.schema = schema;
+        this.stats = stats;
+    }
+
+
+    @Override
+    public TupleFileManager getManager() {
+        return columnarFileManager;
+    }
+
+
+    @Override
+    public TableSchema getSchema() {
+        return schema;
+    }
+
+
+    @Override
+    public TableStats getStats() {
+        return stats;
+    }
+
+
+    @Override
+    public DBFile getDBFile() {
+        return dbFile;
+    }
+
+
+    /**
+     * Returns descriptions of the file's row groups, as they are now:  every
+     * sealed row group, followed by the open row group if it has any rows.
+     * The descriptions aren't affected by rows added afterward, so a scan
+     * can read the file as it was when the scan started.
+     *
+     * @return descriptions of the file's row groups
+     *
+     * @throws IOException if an IO error occurs while reading the directory
+     */
+    public List<RowGroupInfo> getRowGroups() throws IOException {
+        int numRowGroups;
+        int numOpenRows;
+        int directoryStart;
+        int directoryLength;
+        ColumnChunkInfo[] openChunks = new ColumnChunkInfo[schema.numColumns()];
+
+        DBPage headerPage = storageManager.loadDBPage(dbFile, 0);
+        try {
+            numRowGroups = HeaderPage.getNumRowGroups(headerPage);
+            numOpenRows = HeaderPage.getNumOpenRows(headerPage);
+            directoryStart = HeaderPage.getDirectoryStart(headerPage);
+            directoryLength = HeaderPage.getDirectoryLength(headerPage);
+
+            // The open row group's chunks are read now, since sealing the
+            // group writes over them.
+            for (int i = 0; numOpenRows > 0 && i < openChunks.length; i++) {
+                FilePointer start = HeaderPage.getChunkStart(headerPage, i);
+                byte[] data = PageChain.read(storageManager, dbFile, start,
+                    HeaderPage.getChunkLength(headerPage, i));
+                openChunks[i] =
+                    new ColumnChunkInfo(start, ColumnEncoding.PLAIN, data);
+            }
+        }
+        finally {
+            headerPage.unpin();
+        }
+
+        ArrayList<RowGroupInfo> rowGroups = new ArrayList<>(numRowGroups + 1);
+
+        byte[] directory = PageChain.read(storageManager, dbFile,
+            new FilePointer(directoryStart, PageChain.OFFSET_DATA_START),
+            directoryLength);
+        DataInputStream in =
+            new DataInputStream(new ByteArrayInputStream(directory));
+        for (int i = 0; i < numRowGroups; i++)
+            rowGroups.add(RowGroupInfo.read(in, schema));
+
+        if (numOpenRows > 0)
+            rowGroups.add(new RowGroupInfo(numOpenRows, openChunks, true));
+
+        return rowGroups;
+    }
+
+
+    /**
+     * Reads and decodes one column's chunk of a row group.
+     *
+     * @param rowGroup the row group to read the chunk of
+     * @param iCol the index of the column to read
+     *
+     * @return the values of the column in the row group
+     *
+     * @throws IOException if an IO error occurs while reading the chunk
+     */
+    public Object[] readColumn(RowGroupInfo rowGroup, int iCol)
+        throws IOException {
+
+        ColumnChunkInfo chunk = rowGroup.getChunk(iCol);
+        byte[] data = chunk.getData();
+        if (data == null) {
+            data = PageChain.read(storageManager, dbFile, chunk.getStart(),
+                chunk.getLength());
+        }
+
+        return ChunkCodec.decode(schema.getColumnInfo(iCol).getType(),
+            chunk.getEncoding(), data, rowGroup.getNumRows());
+    }
+
+
+    /** Reads and decodes every column of a row group. */
+    private Object[][] readAllColumns(RowGroupInfo rowGroup)
+        throws IOException {
+
+        Object[][] columns = new Object[schema.numColumns()][];
+        for (int i = 0; i < columns.length; i++)
+            columns[i] = readColumn(rowGroup, i);
+
+        return columns;
+    }
+
+
+    /**
+     * Returns the first tuple in the specified row group or a later one, or
+     * <tt>null</tt> if there are no more tuples.
+     */
+    private Tuple getFirstTupleFrom(List<RowGroupInfo> rowGroups,
+                                    int iRowGroup) throws IOException {
+        for (; iRowGroup < rowGroups.size(); iRowGroup++) {
+            RowGroupInfo rowGroup = rowGroups.get(iRowGroup);
+            if (rowGroup.getNumRows() > 0) {
+                return new ColumnarTuple(rowGroups, iRowGroup, 0,
+                    readAllColumns(rowGroup), 0);
+            }
+        }
+        return null;
+    }
+
+
+    /**
+     * Returns the first tuple in this tuple file, or <tt>null</tt> if there
+     * are no tuples in the file.  Scans that only need some of the columns
+     * should use a {@link ColumnarScan} instead, since this method decodes
+     * every column.
+     */
+    @Override
+    public Tuple getFirstTuple() throws IOException {
+        return getFirstTupleFrom(getRowGroups(), 0);
+    }
+
+
+    @Override
+    public Tuple getNextTuple(Tuple tup) throws IOException {
+        if (!(tup instanceof ColumnarTuple)) {
+            throw new IllegalArgumentException(
+                "Tuple must be of type ColumnarTuple; got " + tup.getClass());
+        }
+        ColumnarTuple ctup = (ColumnarTuple) tup;
+
+        int iRowGroup = ctup.getRowGroup();
+        int nextRow = ctup.getRow() + 1;
+
+        List<RowGroupInfo> rowGroups = ctup.getRowGroups();
+        if (rowGroups != null) {
+            // The rest of the tuple's row group has already been decoded.
+            if (nextRow < rowGroups.get(iRowGroup).getNumRows()) {
+                return new ColumnarTuple(rowGroups, iRowGroup, nextRow,
+                    ctup.getColumns(), nextRow);
+            }
+        }
+        else {
+            // The tuple was just added, so its row group must be read.
+            rowGroups = getRowGroups();
+            if (iRowGroup < rowGroups.size()) {
+                RowGroupInfo rowGroup = rowGroups.get(iRowGroup);
+                if (nextRow < rowGroup.getNumRows()) {
+                    return new ColumnarTuple(rowGroups, iRowGroup, nextRow,
+                        readAllColumns(rowGroup), nextRow);
+                }
+            }
+        }
+
+        return getFirstTupleFrom(rowGroups, iRowGroup + 1);
+    }
+
+
+    /**
+     * Returns the tuple that the file-pointer refers to, whose page number is
+     * the index of the tuple's row group and whose offset is the index of
+     * the row within the group.
+     */
+    @Override
+    public Tuple getTuple(FilePointer fptr)
+        throws InvalidFilePointerException, IOException {
+
+        List<RowGroupInfo> rowGroups = getRowGroups();
+
+        int iRowGroup = fptr.getPageNo();
+        int row = fptr.getOffset();
+        if (iRowGroup >= rowGroups.size() ||
+            row >= rowGroups.get(iRowGroup).getNumRows()) {
+            throw new InvalidFilePointerException("Row group " + iRowGroup +
+                " has no row " + row);
+        }
+
+        return new ColumnarTuple(rowGroups, iRowGroup, row,
+            readAllColumns(rowGroups.get(iRowGroup)), row);
+    }
+
+
+    @Override
+    public Tuple addTuple(Tuple tup) throws IOException {
+        return addTuples(Collections.singletonList(tup)).get(0);
+    }
+
+
+    /**
+     * Adds several tuples to the end of the file.  Each column's values for
+     * the tuples are appended to the column's chain together, so a column's
+     * pages are only visited once for all of the tuples in a row group,
+     * rather than once per tuple.  Row groups are sealed as they fill up.
+     *
+     * @param tuples the tuples to add
+     *
+     * @return the tuples as they are stored in the file
+     *
+     * @throws IOException if an IO error occurs while adding the tuples
+     */
+    public List<Tuple> addTuples(List<? extends Tuple> tuples)
+        throws IOException {
+
+        int numColumns = schema.numColumns();
+        ArrayList<Tuple> storedTuples = new ArrayList<>(tuples.size());
+
+        DBPage headerPage = storageManager.loadDBPage(dbFile, 0);
+        try {
+            int iTuple = 0;
+            while (iTuple < tuples.size()) {
+                int iRowGroup = HeaderPage.getNumRowGroups(headerPage);
+                int numOpenRows = HeaderPage.getNumOpenRows(headerPage);
+                int numRows = Math.min(tuples.size() - iTuple,
+                    ROWS_PER_GROUP - numOpenRows);
+
+                Object[][] columns = new Object[numColumns][numRows];
+                for (int i = 0; i < numRows; i++) {
+                    Tuple tup = tuples.get(iTuple + i);
+                    if (tup.getColumnCount() != numColumns) {
+                        throw new IllegalArgumentException(String.format(
+                            "Tuple has %d columns; expected %d",
+                            tup.getColumnCount(), numColumns));
+                    }
+
+                    for (int iCol = 0; iCol < numColumns; iCol++)
+                        columns[iCol][i] = tup.getColumnValue(iCol);
+                }
+
+                for (int iCol = 0; iCol < numColumns; iCol++) {
+                    byte[] data = ChunkCodec.encode(
+                        schema.getColumnInfo(iCol).getType(), columns[iCol],
+                        numRows, ColumnEncoding.PLAIN);
+
+                    FilePointer end = PageChain.write(storageManager, dbFile,
+                        HeaderPage.getColumnEnd(headerPage, iCol), data);
+                    HeaderPage.setColumnEnd(headerPage, iCol, end);
+                    HeaderPage.setChunkLength(headerPage, iCol,
+                        HeaderPage.getChunkLength(headerPage, iCol) + data.length);
+                }
+
+                for (int i = 0; i < numRows; i++) {
+                    storedTuples.add(new ColumnarTuple(null, iRowGroup,
+                        numOpenRows + i, columns, i));
+                }
+
+                numOpenRows += numRows;
+                HeaderPage.setNumOpenRows(headerPage, numOpenRows);
+                if (numOpenRows == ROWS_PER_GROUP)
+                    sealRowGroup(headerPage);
+
+                iTuple += numRows;
+            }
+
+            storageManager.logDBPageWrite(headerPage);
+        }
+        finally {
+            headerPage.unpin();
+        }
+
+        return storedTuples;
+    }
+
+
+    /**
+     * Seals the open row group:  each of its chunks is re-encoded with the
+     * smallest suitable encoding, and the row group's description is added
+     * to the directory.  The caller must log the header page.
+     *
+     * @param headerPage the header page of the file
+     *
+     * @throws IOException if an IO error occurs while sealing the row group
+     */
+    private void sealRowGroup(DBPage headerPage) throws IOException {
+        int numRows = HeaderPage.getNumOpenRows(headerPage);
+        int numColumns = schema.numColumns();
+
+        ColumnChunkInfo[] chunks = new ColumnChunkInfo[numColumns];
+        for (int iCol = 0; iCol < numColumns; iCol++) {
+            ColumnType colType = schema.getColumnInfo(iCol).getType();
+            FilePointer start = HeaderPage.getChunkStart(headerPage, iCol);
+
+            byte[] plain = PageChain.read(storageManager, dbFile, start,
+                HeaderPage.getChunkLength(headerPage, iCol));
+            Object[] values = ChunkCodec.decode(colType, ColumnEncoding.PLAIN,
+                plain, numRows);
+
+            ColumnEncoding encoding = ColumnEncoding.PLAIN;
+            byte[] data = plain;
+            for (ColumnEncoding candidate : ColumnEncoding.values()) {
+                if (candidate == ColumnEncoding.PLAIN ||
+                    !candidate.supports(colType.getBaseType())) {
+                    continue;
+                }
+
+                byte[] encoded =
+                    ChunkCodec.encode(colType, values, numRows, candidate);
+                if (encoded.length < data.length) {
+                    encoding = candidate;
+                    data = encoded;
+                }
+            }
+
+            // The encoded chunk is never larger than the plain chunk, so it
+            // can be written over it; the rest of the chain is reused by the
+            // next row group.
+            FilePointer end = HeaderPage.getColumnEnd(headerPage, iCol);
+            if (encoding != ColumnEncoding.PLAIN)
+                end = PageChain.write(storageManager, dbFile, start, data);
+
+            HeaderPage.setColumnEnd(headerPage, iCol, end);
+            HeaderPage.setChunkStart(headerPage, iCol, end);
+            HeaderPage.setChunkLength(headerPage, iCol, 0);
+
+            chunks[iCol] = ColumnChunkInfo.forValues(start, data.length,
+                encoding, values, numRows);
+        }
+
+        RowGroupInfo rowGroup = new RowGroupInfo(numRows, chunks, false);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        rowGroup.write(out, schema);
+        out.flush();
+        byte[] entry = bytes.toByteArray();
+
+        FilePointer directoryEnd = PageChain.write(storageManager, dbFile,
+            HeaderPage.getDirectoryEnd(headerPage), entry);
+        HeaderPage.setDirectoryEnd(headerPage, directoryEnd);
+        HeaderPage.setDirectoryLength(headerPage,
+            HeaderPage.getDirectoryLength(headerPage) + entry.length);
+
+        int numRowGroups = HeaderPage.getNumRowGroups(headerPage) + 1;
+        HeaderPage.setNumRowGroups(headerPage, numRowGroups);
+        HeaderPage.setNumOpenRows(headerPage, 0);
+
+        logger.debug(String.format("Sealed row group %d of %s with %d rows " +
+            "(%d bytes)", numRowGroups - 1, dbFile, numRows,
+            rowGroup.getDataSize()));
+    }
+
+
+    @Override
+    public void updateTuple(Tuple tup, Map<String, Object> newValues) {
+        throw new UnsupportedOperationException(
+            "Rows of columnar tables can't be updated");
+    }
+
+
+    @Override
+    public void deleteTuple(Tuple tup) {
+        throw new UnsupportedOperationException(
+            "Rows of columnar tables can't be deleted");
+    }
+
+
+    @Override
+    public void analyze() throws IOException {
+        analyze(null);
+    }
+
+
+    /**
+     * Analyzes the columnar file, updating its statistics.  If a sample is
+     * specified, row groups are chosen in a random order and every row of
+     * each chosen group is examined, until the sample is large enough; the
+     * row groups take the place of data pages in the sample's percentage.
+     * The tuple count and column statistics are then scaled up by the ratio
+     * of the number of row groups to the number sampled.
+     *
+     * @param sample how much of the file to examine, or <tt>null</tt> to
+     *        examine every row group
+     *
+     * @throws IOException if an IO error occurs while reading the file or
+     *         saving the statistics
+     */
+    @Override
+    public void analyze(AnalyzeSample sample) throws IOException {
+        int numColumns = schema.numColumns();
+        ColumnStatsCollector[] collectors = new ColumnStatsCollector[numColumns];
+        for (int i = 0; i < numColumns; i++) {
+            collectors[i] = new ColumnStatsCollector(
+                schema.getColumnInfo(i).getType().getBaseType());
+        }
+
+        List<RowGroupInfo> rowGroups = new ArrayList<>(getRowGroups());
+        int numRowGroups = rowGroups.size();
+        Random random = new Random();
+
+        int numSampled = 0;
+        long numTuples = 0;
+        long totalDataSize = 0;
+        while (numSampled < numRowGroups) {
+            if (sample != null) {
+                if (sample.isSatisfied(numSampled, numTuples, numRowGroups))
+                    break;
+
+                Collections.swap(rowGroups, numSampled, numSampled +
+                    random.nextInt(numRowGroups - numSampled));
+            }
+
+            RowGroupInfo rowGroup = rowGroups.get(numSampled);
+            numSampled++;
+
+            Object[][] columns = readAllColumns(rowGroup);
+            for (int i = 0; i < numColumns; i++) {
+                for (int row = 0; row < rowGroup.getNumRows(); row++)
+                    collectors[i].addValue(columns[i][row]);
+            }
+
+            numTuples += rowGroup.getNumRows();
+            totalDataSize += rowGroup.getDataSize();
+        }
+
+        double scale = 1;
+        if (numSampled > 0)
+            scale = (double) numRowGroups / numSampled;
+
+        float avgTupleSize = 0;
+        if (numTuples > 0)
+            avgTupleSize = (float) totalDataSize / numTuples;
+
+        ArrayList<ColumnStats> columnStats = new ArrayList<>(numColumns);
+        for (int i = 0; i < numColumns; i++)
+            columnStats.add(collectors[i].getColumnStats(scale));
+
+        // Page 0 is the header page; all others hold the file's page chains.
+        int numDataPages = Math.max(dbFile.getNumPages() - 1, 0);
+        stats = new TableStats(numDataPages, (int) Math.round(numTuples * scale),
+            avgTupleSize, columnStats);
+        columnarFileManager.saveMetadata(this);
+    }
+
+
+    /**
+     * Verifies that every chunk of every row group can be decoded, and that
+     * the statistics of each sealed chunk match its values.
+     */
+    @Override
+    public List<String> verify() throws IOException {
+        ArrayList<String> errors = new ArrayList<>();
+
+        List<RowGroupInfo> rowGroups = getRowGroups();
+        for (int iRowGroup = 0; iRowGroup < rowGroups.size(); iRowGroup++) {
+            RowGroupInfo rowGroup = rowGroups.get(iRowGroup);
+            for (int iCol = 0; iCol < schema.numColumns(); iCol++) {
+                String colName = schema.getColumnInfo(iCol).getName();
+                ColumnChunkInfo chunk = rowGroup.getChunk(iCol);
+
+                Object[] values;
+                try {
+                    values = readColumn(rowGroup, iCol);
+                }
+                catch (IOException e) {
+                    errors.add(String.format("Row group %d, column %s:  " +
+                        "couldn't decode chunk:  %s", iRowGroup, colName,
+                        e.getMessage()));
+                    continue;
+                }
+
+                if (!chunk.hasStatistics())
+                    continue;
+
+                ColumnChunkInfo actual = ColumnChunkInfo.forValues(
+                    chunk.getStart(), chunk.getLength(), chunk.getEncoding(),
+                    values, rowGroup.getNumRows());
+                if (actual.getNullCount() != chunk.getNullCount() ||
+                    !Objects.equals(actual.getMinValue(), chunk.getMinValue()) ||
+                    !Objects.equals(actual.getMaxValue(), chunk.getMaxValue())) {
+                    errors.add(String.format("Row group %d, column %s:  " +
+                        "chunk statistics %s don't match its values %s",
+                        iRowGroup, colName, chunk, actual));
+                }
+            }
+        }
+
+        return errors;
+    }
+
+
+    /**
+     * Optimizes the columnar file by sealing the open row group, so that
+     * its chunks are encoded and have statistics, even though it isn't
+     * full.
+     */
+    @Override
+    public void optimize() throws IOException {
+        DBPage headerPage = storageManager.loadDBPage(dbFile, 0);
+        try {
+            if (HeaderPage.getNumOpenRows(headerPage) > 0) {
+                sealRowGroup(headerPage);
+                storageManager.logDBPageWrite(headerPage);
+            }
+        }
+        finally {
+            headerPage.unpin();
+        }
+    }
+}
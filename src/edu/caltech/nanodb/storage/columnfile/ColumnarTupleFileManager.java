@@ -0,0 +1,200 @@
+package edu.caltech.nanodb.storage.columnfile;
+
+
+import java.io.IOException;
+
+import org.apache.log4j.Logger;
+
+import edu.caltech.nanodb.queryeval.TableStats;
+import edu.caltech.nanodb.relations.ColumnType;
+import edu.caltech.nanodb.relations.TableSchema;
+import edu.caltech.nanodb.storage.DBFile;
+import edu.caltech.nanodb.storage.DBPage;
+import edu.caltech.nanodb.storage.FilePointer;
+import edu.caltech.nanodb.storage.PageReader;
+import edu.caltech.nanodb.storage.PageWriter;
+import edu.caltech.nanodb.storage.SchemaWriter;
+import edu.caltech.nanodb.storage.StatsWriter;
+import edu.caltech.nanodb.storage.StorageManager;
+import edu.caltech.nanodb.storage.TupleFile;
+import edu.caltech.nanodb.storage.TupleFileManager;
+
+
+/**
+ * This class provides high-level operations on columnar tuple files.
+ */
+public class ColumnarTupleFileManager implements TupleFileManager {
+    /** A logging object for reporting anything interesting that happens. */
+    private static Logger logger =
+        Logger.getLogger(ColumnarTupleFileManager.class);
+
+
+    /** A reference to the storage manager. */
+    private StorageManager storageManager;
+
+
+    public ColumnarTupleFileManager(StorageManager storageManager) {
+        if (storageManager == null)
+            throw new IllegalArgumentException("storageManager cannot be null");
+
+        this.storageManager = storageManager;
+    }
+
+
+    /**
+     * Creates a columnar tuple file.  Page 0 is the header page; pages 1
+     * through <em>n</em> start the page chains of the table's <em>n</em>
+     * columns, and page <em>n</em> + 1 starts the chain of the row-group
+     * directory.
+     *
+     * @throws IllegalArgumentException if the table has a column whose type
+     *         can't be stored, or if the header page is too small for the
+     *         table's columns
+     */
+    @Override
+    public TupleFile createTupleFile(DBFile dbFile, TableSchema schema)
+        throws IOException {
+
+        int numColumns = schema.numColumns();
+        logger.info(String.format(
+            "Initializing new columnar tuple file %s with %d columns",
+            dbFile, numColumns));
+
+        for (int i = 0; i < numColumns; i++) {
+            ColumnType colType = schema.getColumnInfo(i).getType();
+            switch (colType.getBaseType()) {
+            case TINYINT:
+            case SMALLINT:
+            case INTEGER:
+            case BIGINT:
+            case FLOAT:
+            case DOUBLE:
+            case CHAR:
+            case VARCHAR:
+                break;
+
+            default:
+                throw new IllegalArgumentException(String.format(
+                    "Columnar tables can't store column %s of type %s",
+                    schema.getColumnInfo(i).getName(), colType));
+            }
+        }
+
+        if (HeaderPage.getSchemaStart(numColumns) >= dbFile.getPageSize()) {
+            throw new IllegalArgumentException(String.format(
+                "A columnar table with %d columns needs a larger page size " +
+                "than %d", numColumns, dbFile.getPageSize()));
+        }
+
+        DBPage headerPage = storageManager.loadDBPage(dbFile, 0);
+        try {
+            HeaderPage.setNumColumns(headerPage, numColumns);
+            HeaderPage.setNumRowGroups(headerPage, 0);
+            HeaderPage.setNumOpenRows(headerPage, 0);
+
+            for (int pageNo = 1; pageNo <= numColumns + 1; pageNo++) {
+                DBPage dbPage = storageManager.loadDBPage(dbFile, pageNo, true);
+                PageChain.initNewPage(dbPage);
+                storageManager.logDBPageWrite(dbPage);
+                dbPage.unpin();
+
+                FilePointer start =
+                    new FilePointer(pageNo, PageChain.OFFSET_DATA_START);
+                if (pageNo <= numColumns) {
+                    HeaderPage.setColumnEnd(headerPage, pageNo - 1, start);
+                    HeaderPage.setChunkStart(headerPage, pageNo - 1, start);
+                    HeaderPage.setChunkLength(headerPage, pageNo - 1, 0);
+                }
+                else {
+                    HeaderPage.setDirectoryStart(headerPage, pageNo);
+                    HeaderPage.setDirectoryEnd(headerPage, start);
+                    HeaderPage.setDirectoryLength(headerPage, 0);
+                }
+            }
+        }
+        finally {
+            headerPage.unpin();
+        }
+
+        TableStats stats = new TableStats(numColumns);
+        ColumnarTupleFile tupleFile = new ColumnarTupleFile(storageManager,
+            this, dbFile, schema, stats);
+        saveMetadata(tupleFile);
+        return tupleFile;
+    }
+
+
+    @Override
+    public TupleFile openTupleFile(DBFile dbFile) throws IOException {
+
+        logger.info("Opening existing columnar tuple file " + dbFile);
+
+        DBPage headerPage = storageManager.loadDBPage(dbFile, 0);
+        try {
+            PageReader hpReader = new PageReader(headerPage);
+            hpReader.setPosition(HeaderPage.getSchemaStart(
+                HeaderPage.getNumColumns(headerPage)));
+
+            SchemaWriter schemaWriter = new SchemaWriter();
+            TableSchema schema = schemaWriter.readTableSchema(hpReader);
+
+            StatsWriter statsWriter = new StatsWriter();
+            TableStats stats = statsWriter.readTableStats(hpReader, schema);
+
+            return new ColumnarTupleFile(storageManager, this, dbFile, schema,
+                stats);
+        }
+        finally {
+            headerPage.unpin();
+        }
+    }
+
+
+    @Override
+    public void saveMetadata(TupleFile tupleFile) throws IOException {
+
+        if (tupleFile == null)
+            throw new IllegalArgumentException("tupleFile cannot be null");
+
+        if (!(tupleFile instanceof ColumnarTupleFile)) {
+            throw new IllegalArgumentException(
+                "tupleFile must be an instance of ColumnarTupleFile");
+        }
+
+        DBFile dbFile = tupleFile.getDBFile();
+
+        TableSchema schema = tupleFile.getSchema();
+        TableStats stats = tupleFile.getStats();
+
+        // The schema follows the column states, and the statistics follow
+        // the schema.
+        DBPage headerPage = storageManager.loadDBPage(dbFile, 0);
+        try {
+            int schemaStart = HeaderPage.getSchemaStart(schema.numColumns());
+            PageWriter hpWriter = new PageWriter(headerPage);
+            hpWriter.setPosition(schemaStart);
+
+            SchemaWriter schemaWriter = new SchemaWriter();
+            schemaWriter.writeTableSchema(schema, hpWriter);
+
+            int schemaEndPos = hpWriter.getPosition();
+            HeaderPage.setSchemaSize(headerPage, schemaEndPos - schemaStart);
+
+            StatsWriter statsWriter = new StatsWriter();
+            statsWriter.writeTableStats(schema, stats, hpWriter);
+            int statsSize = hpWriter.getPosition() - schemaEndPos;
+            HeaderPage.setStatsSize(headerPage, statsSize);
+            storageManager.logDBPageWrite(headerPage);
+        }
+        finally {
+            headerPage.unpin();
+        }
+    }
+
+
+    @Override
+    public void deleteTupleFile(TupleFile tupleFile) throws IOException {
+        // TODO
+        throw new UnsupportedOperationException("NYI:  deleteTupleFile()");
+    }
+}
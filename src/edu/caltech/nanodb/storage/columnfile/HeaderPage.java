@@ -0,0 +1,295 @@
+package edu.caltech.nanodb.storage.columnfile;
+
+
+import edu.caltech.nanodb.storage.DBPage;
+import edu.caltech.nanodb.storage.FilePointer;
+
+
+/**
+ * <p>
+ * This class contains constants and basic functionality for accessing and
+ * manipulating the contents of the header page of a columnar tuple file.
+ * As with all <tt>DBFile</tt>s, the first two bytes of the header page are
+ * the file type and page size.  The header page is laid out as follows:
+ * </p>
+ * <ul>
+ *   <li>The sizes of the table's schema and statistics.</li>
+ *   <li>The number of sealed row groups in the file, and the number of rows
+ *       in the open row group that rows are currently being added to.</li>
+ *   <li>The first page of the row-group directory's page chain, the
+ *       position just past the end of the directory, and its length in
+ *       bytes.</li>
+ *   <li>The number of columns, followed by the state of each column's page
+ *       chain:  the position just past the end of the chain's data, and the
+ *       position and length of the column's chunk in the open row group.</li>
+ *   <li>Finally, the table's schema and statistics, as written by the
+ *       {@link edu.caltech.nanodb.storage.SchemaWriter} and
+ *       {@link edu.caltech.nanodb.storage.StatsWriter} classes.</li>
+ * </ul>
+ * <p>
+ * Positions in page chains are represented as {@link FilePointer}s, and are
+ * stored as two 32-bit integers, since a position may be just past the end
+ * of a 64KiB page.
+ * </p>
+ */
+public class HeaderPage {
+    /**
+     * The offset in the header page where the size of the table schema is
+     * stored.  This value is an unsigned short.
+     */
+    public static final int OFFSET_SCHEMA_SIZE = 2;
+
+
+    /**
+     * The offset in the header page where the size of the table statistics
+     * are stored.  This value is an unsigned short.
+     */
+    public static final int OFFSET_STATS_SIZE = 4;
+
+
+    /** The offset in the header page of the number of sealed row groups. */
+    public static final int OFFSET_NUM_ROW_GROUPS = 6;
+
+
+    /** The offset in the header page of the number of rows not yet sealed. */
+    public static final int OFFSET_NUM_OPEN_ROWS = 10;
+
+
+    /** The offset in the header page of the directory's first page. */
+    public static final int OFFSET_DIRECTORY_START = 14;
+
+
+    /** The offset in the header page of the end of the directory. */
+    public static final int OFFSET_DIRECTORY_END = 18;
+
+
+    /** The offset in the header page of the directory's length in bytes. */
+    public static final int OFFSET_DIRECTORY_LENGTH = 26;
+
+
+    /**
+     * The offset in the header page of the number of columns.  This value is
+     * an unsigned short.
+     */
+    public static final int OFFSET_NUM_COLUMNS = 30;
+
+
+    /** The offset in the header page where the column states start. */
+    public static final int OFFSET_COLUMN_STATES = 32;
+
+
+    /** The number of bytes of each column's state in the header page. */
+    public static final int COLUMN_STATE_SIZE = 20;
+
+
+    /** The offset of a column chain's end within the column's state. */
+    private static final int COLUMN_END = 0;
+
+
+    /** The offset of the open chunk's start within the column's state. */
+    private static final int COLUMN_CHUNK_START = 8;
+
+
+    /** The offset of the open chunk's length within the column's state. */
+    private static final int COLUMN_CHUNK_LENGTH = 16;
+
+
+    /**
+     * This helper method simply verifies that the data page provided to the
+     * <tt>HeaderPage</tt> class is in fact a header-page (i.e. page 0 in the
+     * data file).
+     *
+     * @param dbPage the page to check
+     *
+     * @throws IllegalArgumentException if <tt>dbPage</tt> is <tt>null</tt>, or
+     *         if it's not actually page 0 in the table file
+     */
+    private static void verifyIsHeaderPage(DBPage dbPage) {
+        if (dbPage == null)
+            throw new IllegalArgumentException("dbPage cannot be null");
+
+        if (dbPage.getPageNo() != 0) {
+            throw new IllegalArgumentException(
+                "Page 0 is the header page in this storage format; was given page " +
+                dbPage.getPageNo());
+        }
+    }
+
+
+    /**
+     * Returns the offset in the header page where the table schema starts,
+     * which follows the states of the table's columns.
+     *
+     * @param numColumns the number of columns in the table
+     *
+     * @return the offset in the header page where the table schema starts
+     */
+    public static int getSchemaStart(int numColumns) {
+        return OFFSET_COLUMN_STATES + numColumns * COLUMN_STATE_SIZE;
+    }
+
+
+    public static void setSchemaSize(DBPage dbPage, int numBytes) {
+        verifyIsHeaderPage(dbPage);
+        dbPage.writeShort(OFFSET_SCHEMA_SIZE, numBytes);
+    }
+
+
+    public static void setStatsSize(DBPage dbPage, int numBytes) {
+        verifyIsHeaderPage(dbPage);
+        dbPage.writeShort(OFFSET_STATS_SIZE, numBytes);
+    }
+
+
+    public static int getNumRowGroups(DBPage dbPage) {
+        verifyIsHeaderPage(dbPage);
+        return dbPage.readInt(OFFSET_NUM_ROW_GROUPS);
+    }
+
+
+    public static void setNumRowGroups(DBPage dbPage, int numRowGroups) {
+        verifyIsHeaderPage(dbPage);
+        dbPage.writeInt(OFFSET_NUM_ROW_GROUPS, numRowGroups);
+    }
+
+
+    public static int getNumOpenRows(DBPage dbPage) {
+        verifyIsHeaderPage(dbPage);
+        return dbPage.readInt(OFFSET_NUM_OPEN_ROWS);
+    }
+
+
+    public static void setNumOpenRows(DBPage dbPage, int numOpenRows) {
+        verifyIsHeaderPage(dbPage);
+        dbPage.writeInt(OFFSET_NUM_OPEN_ROWS, numOpenRows);
+    }
+
+
+    public static int getDirectoryStart(DBPage dbPage) {
+        verifyIsHeaderPage(dbPage);
+        return dbPage.readInt(OFFSET_DIRECTORY_START);
+    }
+
+
+    public static void setDirectoryStart(DBPage dbPage, int pageNo) {
+        verifyIsHeaderPage(dbPage);
+        dbPage.writeInt(OFFSET_DIRECTORY_START, pageNo);
+    }
+
+
+    public static FilePointer getDirectoryEnd(DBPage dbPage) {
+        verifyIsHeaderPage(dbPage);
+        return readPosition(dbPage, OFFSET_DIRECTORY_END);
+    }
+
+
+    public static void setDirectoryEnd(DBPage dbPage, FilePointer end) {
+        verifyIsHeaderPage(dbPage);
+        writePosition(dbPage, OFFSET_DIRECTORY_END, end);
+    }
+
+
+    public static int getDirectoryLength(DBPage dbPage) {
+        verifyIsHeaderPage(dbPage);
+        return dbPage.readInt(OFFSET_DIRECTORY_LENGTH);
+    }
+
+
+    public static void setDirectoryLength(DBPage dbPage, int length) {
+        verifyIsHeaderPage(dbPage);
+        dbPage.writeInt(OFFSET_DIRECTORY_LENGTH, length);
+    }
+
+
+    public static int getNumColumns(DBPage dbPage) {
+        verifyIsHeaderPage(dbPage);
+        return dbPage.readUnsignedShort(OFFSET_NUM_COLUMNS);
+    }
+
+
+    public static void setNumColumns(DBPage dbPage, int numColumns) {
+        verifyIsHeaderPage(dbPage);
+        dbPage.writeShort(OFFSET_NUM_COLUMNS, numColumns);
+    }
+
+
+    /**
+     * Returns the position just past the end of the data in a column's page
+     * chain, where the column's next value will be appended.
+     *
+     * @param dbPage the header page of the columnar tuple file
+     * @param iCol the index of the column
+     *
+     * @return the position just past the end of the column's data
+     */
+    public static FilePointer getColumnEnd(DBPage dbPage, int iCol) {
+        verifyIsHeaderPage(dbPage);
+        return readPosition(dbPage, getColumnState(iCol) + COLUMN_END);
+    }
+
+
+    public static void setColumnEnd(DBPage dbPage, int iCol, FilePointer end) {
+        verifyIsHeaderPage(dbPage);
+        writePosition(dbPage, getColumnState(iCol) + COLUMN_END, end);
+    }
+
+
+    /**
+     * Returns the position of the column's chunk in the open row group.
+     *
+     * @param dbPage the header page of the columnar tuple file
+     * @param iCol the index of the column
+     *
+     * @return the position of the column's chunk in the open row group
+     */
+    public static FilePointer getChunkStart(DBPage dbPage, int iCol) {
+        verifyIsHeaderPage(dbPage);
+        return readPosition(dbPage, getColumnState(iCol) + COLUMN_CHUNK_START);
+    }
+
+
+    public static void setChunkStart(DBPage dbPage, int iCol,
+                                     FilePointer start) {
+        verifyIsHeaderPage(dbPage);
+        writePosition(dbPage, getColumnState(iCol) + COLUMN_CHUNK_START, start);
+    }
+
+
+    /**
+     * Returns the number of bytes in the column's chunk in the open row
+     * group.
+     *
+     * @param dbPage the header page of the columnar tuple file
+     * @param iCol the index of the column
+     *
+     * @return the number of bytes in the column's chunk in the open row group
+     */
+    public static int getChunkLength(DBPage dbPage, int iCol) {
+        verifyIsHeaderPage(dbPage);
+        return dbPage.readInt(getColumnState(iCol) + COLUMN_CHUNK_LENGTH);
+    }
+
+
+    public static void setChunkLength(DBPage dbPage, int iCol, int length) {
+        verifyIsHeaderPage(dbPage);
+        dbPage.writeInt(getColumnState(iCol) + COLUMN_CHUNK_LENGTH, length);
+    }
+
+
+    private static int getColumnState(int iCol) {
+        return OFFSET_COLUMN_STATES + iCol * COLUMN_STATE_SIZE;
+    }
+
+
+    private static FilePointer readPosition(DBPage dbPage, int offset) {
+        return new FilePointer(dbPage.readInt(offset),
+            dbPage.readInt(offset + 4));
+    }
+
+
+    private static void writePosition(DBPage dbPage, int offset,
+                                      FilePointer position) {
+        dbPage.writeInt(offset, position.getPageNo());
+        dbPage.writeInt(offset + 4, position.getOffset());
+    }
+}
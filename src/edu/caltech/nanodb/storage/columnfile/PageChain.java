@@ -0,0 +1,154 @@
+package edu.caltech.nanodb.storage.columnfile;
+
+
+import java.io.IOException;
+
+import edu.caltech.nanodb.storage.DBFile;
+import edu.caltech.nanodb.storage.DBPage;
+import edu.caltech.nanodb.storage.FilePointer;
+import edu.caltech.nanodb.storage.StorageManager;
+
+
+/**
+ * <p>
+ * This class provides the operations on the page chains of a columnar tuple
+ * file.  The data of each column, and the row-group directory, are stored in
+ * their own chain of pages, as one stream of bytes that continues from the
+ * end of each page onto the next page of the chain.  Each page of a chain
+ * starts with the page number of the next page in the chain, or 0 if it is
+ * the last page; the rest of the page holds data.
+ * </p>
+ * <p>
+ * A position in a chain is a {@link FilePointer}, whose offset may be just
+ * past the end of its page when the data before it fills the page.  Data
+ * may be written over the end of a chain's data, in which case the pages
+ * already in the chain are reused before new pages are added to the end of
+ * the file.
+ * </p>
+ */
+public class PageChain {
+
+    /** The offset in each page of the number of the chain's next page. */
+    public static final int OFFSET_NEXT_PAGE = 0;
+
+
+    /** The offset in each page where the chain's data starts. */
+    public static final int OFFSET_DATA_START = 4;
+
+
+    /**
+     * Initializes a page as the last page of a chain.
+     *
+     * @param dbPage the page to initialize
+     */
+    public static void initNewPage(DBPage dbPage) {
+        dbPage.writeInt(OFFSET_NEXT_PAGE, 0);
+    }
+
+
+    /**
+     * Writes data to a chain, starting at the specified position, and
+     * records each page that is changed in the write-ahead log.  Pages are
+     * added to the end of the file if the chain runs out of pages.
+     *
+     * @param storageManager the storage manager to load pages through
+     * @param dbFile the file the chain is in
+     * @param position the position to start writing at
+     * @param data the data to write
+     *
+     * @return the position just past the end of the written data
+     *
+     * @throws IOException if an IO error occurs while writing the data
+     */
+    public static FilePointer write(StorageManager storageManager,
+        DBFile dbFile, FilePointer position, byte[] data) throws IOException {
+
+        if (data.length == 0)
+            return position;
+
+        int pageSize = dbFile.getPageSize();
+        int offset = position.getOffset();
+        DBPage dbPage = storageManager.loadDBPage(dbFile, position.getPageNo());
+        try {
+            int written = 0;
+            while (written < data.length) {
+                if (offset == pageSize) {
+                    DBPage nextPage;
+                    int nextPageNo = dbPage.readInt(OFFSET_NEXT_PAGE);
+                    if (nextPageNo == 0) {
+                        nextPageNo = dbFile.getNumPages();
+                        nextPage = storageManager.loadDBPage(dbFile,
+                            nextPageNo, true);
+                        initNewPage(nextPage);
+                        dbPage.writeInt(OFFSET_NEXT_PAGE, nextPageNo);
+                    }
+                    else {
+                        nextPage = storageManager.loadDBPage(dbFile, nextPageNo);
+                    }
+
+                    storageManager.logDBPageWrite(dbPage);
+                    dbPage.unpin();
+                    dbPage = nextPage;
+                    offset = OFFSET_DATA_START;
+                }
+
+                int numBytes = Math.min(data.length - written, pageSize - offset);
+                dbPage.write(offset, data, written, numBytes);
+                written += numBytes;
+                offset += numBytes;
+            }
+
+            storageManager.logDBPageWrite(dbPage);
+            return new FilePointer(dbPage.getPageNo(), offset);
+        }
+        finally {
+            dbPage.unpin();
+        }
+    }
+
+
+    /**
+     * Reads data from a chain, starting at the specified position.
+     *
+     * @param storageManager the storage manager to load pages through
+     * @param dbFile the file the chain is in
+     * @param position the position to start reading at
+     * @param length the number of bytes to read
+     *
+     * @return the data that was read
+     *
+     * @throws IOException if an IO error occurs while reading the data, or
+     *         if the chain ends before all of the data was read
+     */
+    public static byte[] read(StorageManager storageManager, DBFile dbFile,
+        FilePointer position, int length) throws IOException {
+
+        byte[] data = new byte[length];
+        int pageSize = dbFile.getPageSize();
+        int pageNo = position.getPageNo();
+        int offset = position.getOffset();
+        int numRead = 0;
+        while (numRead < length) {
+            DBPage dbPage = storageManager.loadDBPage(dbFile, pageNo);
+            try {
+                int numBytes = Math.min(length - numRead, pageSize - offset);
+                dbPage.read(offset, data, numRead, numBytes);
+                numRead += numBytes;
+
+                if (numRead < length) {
+                    pageNo = dbPage.readInt(OFFSET_NEXT_PAGE);
+                    offset = OFFSET_DATA_START;
+                    if (pageNo == 0) {
+                        throw new IOException(String.format("Page chain " +
+                            "of %s ends after %d of %d bytes", dbFile,
+                            numRead, length));
+                    }
+                }
+            }
+            finally {
+                dbPage.unpin();
+            }
+        }
+        return data;
+    }
+}
@@ -0,0 +1,118 @@
+package edu.caltech.nanodb.storage.columnfile;
+
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import edu.caltech.nanodb.relations.TableSchema;
+
+
+/**
+ * This class describes a row group of a columnar tuple file:  the number of
+ * rows in the group, and the chunk that holds each column's values for those
+ * rows.  The row-group directory of the file holds one of these descriptions
+ * for each sealed row group.
+ */
+public class RowGroupInfo {
+
+    /** The number of rows in the row group. */
+    private int numRows;
+
+
+    /** The chunk of each column in the row group. */
+    private ColumnChunkInfo[] chunks;
+
+
+    /** True if the row group is still having rows added to it. */
+    private boolean open;
+
+
+    public RowGroupInfo(int numRows, ColumnChunkInfo[] chunks, boolean open) {
+        if (chunks == null)
+            throw new IllegalArgumentException("chunks cannot be null");
+
+        this.numRows = numRows;
+        this.chunks = chunks;
+        this.open = open;
+    }
+
+
+    public int getNumRows() {
+        return numRows;
+    }
+
+
+    public int getNumColumns() {
+        return chunks.length;
+    }
+
+
+    public ColumnChunkInfo getChunk(int iCol) {
+        return chunks[iCol];
+    }
+
+
+    /**
+     * Returns true if this is the open row group, which is stored in the
+     * plain encoding and has no statistics.
+     *
+     * @return true if this is the open row group
+     */
+    public boolean isOpen() {
+        return open;
+    }
+
+
+    /**
+     * Returns the total number of bytes of data in the row group's chunks.
+     *
+     * @return the total number of bytes of data in the row group's chunks
+     */
+    public long getDataSize() {
+        long size = 0;
+        for (ColumnChunkInfo chunk : chunks)
+            size += chunk.getLength();
+
+        return size;
+    }
+
+
+    /**
+     * Writes the description of a sealed row group to the row-group
+     * directory.
+     *
+     * @param out the output to write the description to
+     * @param schema the schema of the table
+     *
+     * @throws IOException if the description couldn't be written
+     */
+    public void write(DataOutput out, TableSchema schema) throws IOException {
+        out.writeInt(numRows);
+        for (int i = 0; i < chunks.length; i++)
+            chunks[i].write(out, schema.getColumnInfo(i).getType());
+    }
+
+
+    /**
+     * Reads the description of a sealed row group that was written by
+     * {@link #write}.
+     *
+     * @param in the input to read the description from
+     * @param schema the schema of the table
+     *
+     * @return the description of the row group
+     *
+     * @throws IOException if the description couldn't be read
+     */
+    public static RowGroupInfo read(DataInput in, TableSchema schema)
+        throws IOException {
+
+        int numRows = in.readInt();
+        ColumnChunkInfo[] chunks = new ColumnChunkInfo[schema.numColumns()];
+        for (int i = 0; i < chunks.length; i++)
+            chunks[i] = ColumnChunkInfo.read(in, schema.getColumnInfo(i).getType());
+
+        return new RowGroupInfo(numRows, chunks, false);
+    }
+}
@@ -597,28 +597,15 @@ public class DataPage {
                 " slots, but slot " + slot + " was requested for deletion.");
         }
 
-        // Complete this implementation.
-
-        // delete the range and set the slot
+        // Delete the tuple's data range, and mark the slot as empty.
         deleteTupleDataRange(dbPage, getSlotValue(dbPage, slot),
                 getTupleLength(dbPage, slot));
         setSlotValue(dbPage, slot, EMPTY_SLOT);
-        // logger.warn(String.format("set slot value %d", slot));
-        // get the page
-        for(int i = slot; i < getNumSlots(dbPage); i++){
-            if(getSlotValue(dbPage, i) != EMPTY_SLOT){
-                logger.warn(String.format("got slot %d", slot));
-                return;
-            }
-        }
-        // logger.warn(String.format("setting num slots %d", slot-1));
-        // if no page set the slot
-        if(slot > 0)
-            setNumSlots(dbPage, (slot - 1));
-        else
-            setNumSlots(dbPage, 0);
-        // logger.warn(String.format("get num slots %d", getNumSlots(dbPage)));
 
+        // Reclaim any trailing slots that are now empty.
+        while (numSlots > 0 && getSlotValue(dbPage, numSlots - 1) == EMPTY_SLOT)
+            numSlots--;
 
+        setNumSlots(dbPage, numSlots);
     }
 }
@@ -35,7 +35,30 @@ public class HeapFilePageTuple extends PageTuple {
      */
     public HeapFilePageTuple(Schema schema, DBPage dbPage, int slot,
                              int pageOffset) {
-        super(dbPage, pageOffset, schema);
+        this(schema, dbPage, slot, pageOffset, null);
+    }
+
+
+    /**
+     * Construct a new tuple object that is backed by the data in the database
+     * page, using the precomputed offsets of a schema whose columns all have
+     * a fixed size.
+     *
+     * @param schema the schema of the tuple file the page is a part of
+     *
+     * @param dbPage the specific database page that holds the tuple
+     *
+     * @param slot the slot number of the tuple
+     *
+     * @param pageOffset the offset of the tuple's actual data in the page
+     *
+     * @param fixedValueOffsets the result of
+     *        {@link PageTuple#getFixedValueOffsets} for the schema, or
+     *        <tt>null</tt>
+     */
+    public HeapFilePageTuple(Schema schema, DBPage dbPage, int slot,
+                             int pageOffset, int[] fixedValueOffsets) {
+        super(dbPage, pageOffset, schema, fixedValueOffsets);
 
         if (slot < 0) {
             throw new IllegalArgumentException(
@@ -59,7 +82,7 @@ public class HeapFilePageTuple extends PageTuple {
      * @return a file-pointer that can be used to look up this tuple
      */
     public FilePointer getExternalReference() {
-        return new FilePointer(getDBPage().getPageNo(),
+        return new FilePointer(getPageNo(),
                                DataPage.getSlotOffset(slot));
     }
 
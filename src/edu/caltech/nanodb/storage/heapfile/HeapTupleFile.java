@@ -5,8 +5,10 @@ import java.io.EOFException;
 import java.io.IOException;
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 
 import edu.caltech.nanodb.relations.SQLDataType;
 import org.apache.log4j.Logger;
@@ -17,6 +19,7 @@ import edu.caltech.nanodb.queryeval.TableStats;
 import edu.caltech.nanodb.relations.TableSchema;
 import edu.caltech.nanodb.relations.Tuple;
 
+import edu.caltech.nanodb.storage.AnalyzeSample;
 import edu.caltech.nanodb.storage.DBFile;
 import edu.caltech.nanodb.storage.DBPage;
 import edu.caltech.nanodb.storage.FilePointer;
@@ -55,6 +58,15 @@ public class HeapTupleFile implements TupleFile {
     private TableSchema schema;
 
 
+    /**
+     * The offsets of the values in tuples with no <tt>NULL</tt> values, if
+     * every column of the schema has a fixed size; otherwise <tt>null</tt>.
+     *
+     * @see PageTuple#getFixedValueOffsets
+     */
+    private int[] fixedValueOffsets;
+
+
     /** Statistics for this tuple file. */
     private TableStats stats;
 
@@ -86,6 +98,8 @@ public class HeapTupleFile implements TupleFile {
         this.dbFile = dbFile;
         this.schema = schema;
         this.stats = stats;
+
+        fixedValueOffsets = PageTuple.getFixedValueOffsets(schema);
     }
 
 
@@ -117,15 +131,42 @@ public class HeapTupleFile implements TupleFile {
      */
     @Override
     public Tuple getFirstTuple() throws IOException {
+        // Header page is page 0, so first data page is page 1.
+        return getFirstTupleInRange(1, Integer.MAX_VALUE);
+    }
+
+
+    /**
+     * Returns the first tuple in the specified range of data pages, or
+     * <tt>null</tt> if there are no tuples in those pages.  Together with
+     * {@link #getNextTupleInRange}, this allows several workers to scan
+     * disjoint parts of the file in parallel.
+     *
+     * @param startPage the first data page to scan; data pages start at
+     *        page 1
+     *
+     * @param endPage the page number just past the last page to scan
+     *
+     * @return the first tuple in the range of pages, or <tt>null</tt> if
+     *         there is none
+     *
+     * @throws IOException if an IO error occurs while reading the pages
+     */
+    public Tuple getFirstTupleInRange(int startPage, int endPage)
+        throws IOException {
+
+        if (startPage < 1) {
+            throw new IllegalArgumentException(
+                "startPage must be at least 1; got " + startPage);
+        }
+
         HeapFilePageTuple first = null;
         try {
-            // Scan through the data pages until we hit the end of the table
-            // file.  It may be that the first run of data pages is empty,
-            // so just keep looking until we hit the end of the file.
-
-            // Header page is page 0, so first data page is page 1.
+            // Scan through the data pages until we hit the end of the range.
+            // It may be that the first run of data pages is empty, so just
+            // keep looking until we hit the end of the range or the file.
             page_scan:  // So we can break out of the outer loop from inside the inner one
-            for (int iPage = 1; /* nothing */ ; iPage++) {
+            for (int iPage = startPage; iPage < endPage; iPage++) {
                 // Look for data on this page.
                 DBPage dbPage = storageManager.loadDBPage(dbFile, iPage);
                 int numSlots = DataPage.getNumSlots(dbPage);
@@ -138,7 +179,8 @@ public class HeapTupleFile implements TupleFile {
 
                     // This is the first tuple in the file.  Build up the
                     // HeapFilePageTuple object and return it.
-                    first = new HeapFilePageTuple(schema, dbPage, iSlot, offset);
+                    first = new HeapFilePageTuple(schema, dbPage, iSlot, offset,
+                        fixedValueOffsets);
                     break page_scan;
                 }
             }
@@ -196,7 +238,8 @@ public class HeapTupleFile implements TupleFile {
                     " on page " + fptr.getPageNo() + " is empty.");
         }
 
-        return new HeapFilePageTuple(schema, dbPage, slot, offset);
+        return new HeapFilePageTuple(schema, dbPage, slot, offset,
+            fixedValueOffsets);
     }
 
 
@@ -210,6 +253,28 @@ public class HeapTupleFile implements TupleFile {
      */
     @Override
     public Tuple getNextTuple(Tuple tup) throws IOException {
+        return getNextTupleInRange(tup, Integer.MAX_VALUE);
+    }
+
+
+    /**
+     * Returns the tuple that follows the specified tuple, or {@code null} if
+     * there are no more tuples before the specified page.  Like
+     * {@link #getNextTuple}, this method operates correctly regardless of
+     * whether the input tuple is pinned or unpinned.
+     *
+     * @param tup the "previous tuple" that specifies where to start looking
+     *        for the next tuple
+     *
+     * @param endPage the page number just past the last page to scan
+     *
+     * @return the next tuple in the range of pages, or {@code null} if there
+     *         is none
+     *
+     * @throws IOException if an IO error occurs while reading the pages
+     */
+    public Tuple getNextTupleInRange(Tuple tup, int endPage)
+        throws IOException {
 
         /* Procedure:
          *   1)  Get slot index of current tuple.
@@ -228,10 +293,9 @@ public class HeapTupleFile implements TupleFile {
 
         // Retrieve the location info from the previous tuple.  Since the
         // tuple (and/or its backing page) may already have a pin-count of 0,
-        // we can't necessarily use the page itself.
-        DBPage prevDBPage = ptup.getDBPage();
-        DBFile dbFile = prevDBPage.getDBFile();
-        int prevPageNo = prevDBPage.getPageNo();
+        // we can't use the page itself:  if the page has been evicted, the
+        // page object no longer records its file or page number.
+        int prevPageNo = ptup.getPageNo();
         int prevSlot = ptup.getSlot();
 
         // Retrieve the page itself so that we can access the internal data.
@@ -254,7 +318,7 @@ public class HeapTupleFile implements TupleFile {
                 if (nextOffset != DataPage.EMPTY_SLOT) {
                     // Creating this tuple will pin the page a second time.
                     nextTup = new HeapFilePageTuple(schema, dbPage, nextSlot,
-                            nextOffset);
+                            nextOffset, fixedValueOffsets);
                     break page_scan;
                 }
 
@@ -265,8 +329,12 @@ public class HeapTupleFile implements TupleFile {
             // tuples.  Go on to the next data-page, and start with the first
             // tuple in that page.
 
+            int nextPageNo = dbPage.getPageNo() + 1;
+            if (nextPageNo >= endPage)
+                break;
+
             try {
-                dbPage = storageManager.loadDBPage(dbFile, dbPage.getPageNo() + 1);
+                dbPage = storageManager.loadDBPage(dbFile, nextPageNo);
                 nextSlot = 0;
             }
             catch (EOFException e) {
@@ -379,6 +447,106 @@ public class HeapTupleFile implements TupleFile {
     }
 
 
+    /**
+     * <p>
+     * Appends a batch of tuples to the end of the heap file, for bulk
+     * loading.  Unlike {@link #addTuple}, this method doesn't search the file
+     * for free space; the tuples are packed into the last page of the file,
+     * and then into new pages added after it.
+     * </p>
+     * <p>
+     * Each page is recorded in the write-ahead log only once, after all of
+     * its new tuples have been stored, rather than once per tuple.  Since a
+     * new page starts out empty, its log record holds an image of the whole
+     * page.
+     * </p>
+     *
+     * @param tuples the tuples to append to the file
+     *
+     * @return the stored tuples, in the same order as the tuples passed in.
+     *         Each stored tuple is pinned, and must be unpinned by the
+     *         caller when it is no longer needed.
+     *
+     * @throws IOException if a tuple is too large to fit in a page, or if an
+     *         IO error occurs while storing the tuples
+     */
+    public List<PageTuple> appendTuples(List<? extends Tuple> tuples)
+        throws IOException {
+
+        ArrayList<PageTuple> storedTuples = new ArrayList<>(tuples.size());
+        if (tuples.isEmpty())
+            return storedTuples;
+
+        // Pages past the current end of the file must be created.  Page 0
+        // is the header page, so it never holds tuples.
+        int numPages = dbFile.getNumPages();
+        int pageNo = Math.max(numPages - 1, 1);
+        DBPage dbPage = null;
+
+        for (Tuple tup : tuples) {
+            int tupSize = PageTuple.getTupleStorageSize(schema, tup);
+
+            // The "+ 2" is for the new slot entry we will also need.
+            if (tupSize + 2 > dbFile.getPageSize()) {
+                throw new IOException("Tuple size " + tupSize +
+                    " is larger than page size " + dbFile.getPageSize() + ".");
+            }
+
+            if (dbPage != null &&
+                DataPage.getFreeSpaceInPage(dbPage) < tupSize + 2) {
+                // The page is full, so log it and move on to a new page.
+                finishAppendPage(dbPage);
+                dbPage = null;
+                pageNo++;
+            }
+
+            if (dbPage == null) {
+                if (pageNo < numPages) {
+                    dbPage = storageManager.loadDBPage(dbFile, pageNo);
+                    if (DataPage.getFreeSpaceInPage(dbPage) < tupSize + 2) {
+                        // The last page of the file is already full.
+                        dbPage.unpin();
+                        pageNo++;
+                        dbPage = null;
+                    }
+                }
+
+                if (dbPage == null) {
+                    logger.debug("Creating new page " + pageNo +
+                        " to append tuples to.");
+                    dbPage = storageManager.loadDBPage(dbFile, pageNo, true);
+                    DataPage.initNewPage(dbPage);
+                }
+            }
+
+            int slot = DataPage.allocNewTuple(dbPage, tupSize);
+            int tupOffset = DataPage.getSlotValue(dbPage, slot);
+
+            storedTuples.add(HeapFilePageTuple.storeNewTuple(schema, dbPage,
+                slot, tupOffset, tup));
+        }
+
+        finishAppendPage(dbPage);
+
+        logger.debug(String.format("Appended %d tuples to heap file %s, " +
+            "ending at page %d.", storedTuples.size(), dbFile, pageNo));
+
+        return storedTuples;
+    }
+
+
+    /**
+     * Records a page that tuples were appended to in the write-ahead log,
+     * and releases the pin that {@link #appendTuples} held on it.  The page
+     * stays pinned by the tuples stored on it.
+     */
+    private void finishAppendPage(DBPage dbPage) throws IOException {
+        DataPage.sanityCheck(dbPage);
+        storageManager.logDBPageWrite(dbPage);
+        dbPage.unpin();
+    }
+
+
     // Inherit interface-method documentation.
     /**
      * @review (donnie) This method will fail if a tuple is modified in a way
@@ -433,42 +601,69 @@ public class HeapTupleFile implements TupleFile {
 
     @Override
     public void analyze() throws IOException {
-        // Initialize variables to collect table stats
-        int numTuples = 0;
-        int totalTupleSize = 0;
-        float avgTupleSize = 0;
+        analyze(null);
+    }
+
+
+    /**
+     * Analyzes the heap file, updating its statistics.  If a sample is
+     * specified, data pages are chosen in a random order and every tuple on
+     * each chosen page is examined, until the sample is large enough.  The
+     * tuple count and column statistics are then scaled up by the ratio of
+     * the number of data pages in the file to the number of pages sampled.
+     * The number of data pages is always exact, since it follows from the
+     * size of the file.
+     *
+     * @param sample how much of the file to examine, or <tt>null</tt> to
+     *        examine every data page
+     *
+     * @throws IOException if an IO error occurs while reading the file or
+     *         saving the statistics
+     */
+    @Override
+    public void analyze(AnalyzeSample sample) throws IOException {
         int numColumns = schema.numColumns();
-        // Create a ColumnStatsCollector for use at the end to create the ColumnStats object
-        ColumnStatsCollector[] columnStatsCollector = new ColumnStatsCollector[numColumns];
+        ColumnStatsCollector[] collectors = new ColumnStatsCollector[numColumns];
         for (int i = 0; i < numColumns; i++) {
             SQLDataType dataType = schema.getColumnInfo(i).getType().getBaseType();
-            columnStatsCollector[i] = new ColumnStatsCollector(dataType);
+            collectors[i] = new ColumnStatsCollector(dataType);
         }
-        HeapFilePageTuple tupleFile = null;
 
-        // Iterate through the pages of the table
-        int pageNo = 1;
-        DBPage dbPage = null;
-        while (true) {
-            // Try to load the page without creating a new one.
-            try {
-                dbPage = storageManager.loadDBPage(dbFile, pageNo);
-            }
-            catch (EOFException eofe) {
-                // Couldn't load the current page, because it doesn't exist.
-                // Break out of the loop.
-                logger.debug("Finished searching through blocks.");
-                break;
+        // Page 0 is the header page; all others are data pages.
+        int numDataPages = Math.max(dbFile.getNumPages() - 1, 0);
+
+        // Visit the pages sequentially for a full scan, or in a random order
+        // when sampling.  The random order is produced incrementally with a
+        // Fisher-Yates shuffle, so that only the pages read are shuffled.
+        int[] pageNos = new int[numDataPages];
+        for (int i = 0; i < numDataPages; i++)
+            pageNos[i] = i + 1;
+
+        Random random = new Random();
+
+        int numSampledPages = 0;
+        long numTuples = 0;
+        long totalTupleSize = 0;
+        while (numSampledPages < numDataPages) {
+            if (sample != null) {
+                if (sample.isSatisfied(numSampledPages, numTuples, numDataPages))
+                    break;
+
+                int swap = numSampledPages +
+                    random.nextInt(numDataPages - numSampledPages);
+                int tmp = pageNos[swap];
+                pageNos[swap] = pageNos[numSampledPages];
+                pageNos[numSampledPages] = tmp;
             }
 
-            // Add the total tuple size of the page to the overall total
-            totalTupleSize += DataPage.getTupleDataEnd(dbPage) - DataPage.getTupleDataStart(dbPage);
+            DBPage dbPage =
+                storageManager.loadDBPage(dbFile, pageNos[numSampledPages]);
+            numSampledPages++;
 
-            // Scan through the data pages until we hit the end of the table
-            // file.  It may be that the first run of data pages is empty,
-            // so just keep looking until we hit the end of the file.
+            // Add the total tuple size of the page to the overall total
+            totalTupleSize += DataPage.getTupleDataEnd(dbPage) -
+                DataPage.getTupleDataStart(dbPage);
 
-            // Look for data on this page.
             int numSlots = DataPage.getNumSlots(dbPage);
             for (int iSlot = 0; iSlot < numSlots; iSlot++) {
                 // Get the offset of the tuple in the page.  If it's 0 then
@@ -477,36 +672,43 @@ public class HeapTupleFile implements TupleFile {
                 if (offset == DataPage.EMPTY_SLOT)
                     continue;
 
-                tupleFile = new HeapFilePageTuple(schema, dbPage, iSlot, offset);
+                HeapFilePageTuple tuple =
+                    new HeapFilePageTuple(schema, dbPage, iSlot, offset,
+                        fixedValueOffsets);
 
-                numTuples += 1;
+                numTuples++;
 
                 // Collect column-by-column data in the collector
-                for (int i = 0; i < numColumns; i++) {
-                    columnStatsCollector[i].addValue(tupleFile.getColumnValue(i));
-                }
+                for (int i = 0; i < numColumns; i++)
+                    collectors[i].addValue(tuple.getColumnValue(i));
+
+                tuple.unpin();
             }
-            pageNo++;
+
+            dbPage.unpin();
         }
 
-        // Account for not counting the header page
-        int numDataPages = pageNo - 1;
+        // Scale the counts from the sampled pages up to the whole file.
+        double scale = 1;
+        if (numSampledPages > 0)
+            scale = (double) numDataPages / numSampledPages;
 
-        // If we have tuples then calculate average size
-        if (numTuples > 0) {
+        float avgTupleSize = 0;
+        if (numTuples > 0)
             avgTupleSize = (float) totalTupleSize / numTuples;
+
+        if (scale > 1) {
+            logger.debug(String.format("Sampled %d of %d data pages (%d " +
+                "tuples); scaling statistics by %.2f", numSampledPages,
+                numDataPages, numTuples, scale));
         }
 
-        // Create a columnStats object using the collector
         ArrayList<ColumnStats> columnStats = new ArrayList<>(numColumns);
+        for (int i = 0; i < numColumns; i++)
+            columnStats.add(collectors[i].getColumnStats(scale));
 
-        for (int i = 0; i < numColumns; i++) {
-            columnStats.add(columnStatsCollector[i].getColumnStats());
-        }
-
-        // Create a new TableStats object, set the TupleFile's stats to it, and save the metadata
-        TableStats tableStats = new TableStats(numDataPages, numTuples, avgTupleSize, columnStats);
-        this.stats = tableStats;
+        stats = new TableStats(numDataPages, (int) Math.round(numTuples * scale),
+            avgTupleSize, columnStats);
         heapFileManager.saveMetadata(this);
     }
 
@@ -519,8 +721,136 @@ public class HeapTupleFile implements TupleFile {
     }
 
 
+    /**
+     * Optimizes the heap file by compacting its tuples into as few pages as
+     * possible.  Since moving a tuple changes its file-pointer, this method
+     * refuses to run on a table with indexes; such tables must be optimized
+     * through {@link edu.caltech.nanodb.storage.TableManager#optimizeTable},
+     * which uses {@link #compact} and then updates the indexes.
+     *
+     * @throws IllegalStateException if the table has any indexes
+     */
     @Override
     public void optimize() throws IOException {
-        throw new UnsupportedOperationException("Not yet implemented!");
+        if (!schema.getIndexNames().isEmpty()) {
+            throw new IllegalStateException("Heap file " + dbFile +
+                " has indexes, so it must be optimized by the table manager");
+        }
+
+        compact();
+    }
+
+
+    /**
+     * <p>
+     * Compacts the heap file by moving tuples from the end of the file into
+     * free space in earlier pages, and then truncating the empty pages off
+     * the end of the file.  Tuples are moved one at a time, from the last
+     * page of the file, into the first page (at or after the start of the
+     * file) with enough space for the tuple.  Compaction stops when the two
+     * scans meet.
+     * </p>
+     * <p>
+     * Both pages involved in each move are recorded in the write-ahead log.
+     * The empty pages are only truncated once the enclosing transaction has
+     * committed, so a tuple can never be lost by dropping the page it used
+     * to live on.
+     * </p>
+     *
+     * @return a map from the old file-pointer of each moved tuple to its new
+     *         file-pointer, so that indexes on the table can be updated
+     *
+     * @throws IOException if an IO error occurs while compacting the file
+     */
+    public Map<FilePointer, FilePointer> compact() throws IOException {
+        LinkedHashMap<FilePointer, FilePointer> movedTuples =
+            new LinkedHashMap<>();
+
+        // Make sure the file's size reflects all pages that have been added
+        // to the file, since we scan backward from the end.
+        storageManager.getBufferManager().writeDBFile(dbFile, /* sync */ false);
+        int oldNumPages = dbFile.getNumPages();
+
+        int srcPageNo = oldNumPages - 1;
+        int dstPageNo = 1;
+
+        while (srcPageNo > dstPageNo) {
+            DBPage srcPage = storageManager.loadDBPage(dbFile, srcPageNo);
+
+            for (int srcSlot = 0; srcSlot < DataPage.getNumSlots(srcPage);
+                 srcSlot++) {
+
+                int srcOffset = DataPage.getSlotValue(srcPage, srcSlot);
+                if (srcOffset == DataPage.EMPTY_SLOT)
+                    continue;
+
+                int len = DataPage.getTupleLength(srcPage, srcSlot);
+
+                // Find an earlier page with room for this tuple.  (The "+ 2"
+                // is for the new slot entry we may also need.)
+                DBPage dstPage = null;
+                while (dstPageNo < srcPageNo) {
+                    dstPage = storageManager.loadDBPage(dbFile, dstPageNo);
+                    if (DataPage.getFreeSpaceInPage(dstPage) >= len + 2)
+                        break;
+
+                    dstPage.unpin();
+                    dstPage = null;
+                    dstPageNo++;
+                }
+
+                if (dstPage == null)
+                    break;  // The two scans have met.
+
+                // Copy the tuple's data into the destination page, then
+                // remove it from the source page.
+                int dstSlot = DataPage.allocNewTuple(dstPage, len);
+                int dstOffset = DataPage.getSlotValue(dstPage, dstSlot);
+
+                byte[] tupleData = new byte[len];
+                srcPage.read(srcOffset, tupleData);
+                dstPage.write(dstOffset, tupleData);
+
+                DataPage.deleteTuple(srcPage, srcSlot);
+
+                DataPage.sanityCheck(dstPage);
+                DataPage.sanityCheck(srcPage);
+                storageManager.logDBPageWrite(dstPage);
+                storageManager.logDBPageWrite(srcPage);
+                dstPage.unpin();
+
+                movedTuples.put(
+                    new FilePointer(srcPageNo, DataPage.getSlotOffset(srcSlot)),
+                    new FilePointer(dstPageNo, DataPage.getSlotOffset(dstSlot)));
+            }
+
+            srcPage.unpin();
+            srcPageNo--;
+        }
+
+        // Find the last page that still holds any tuples.  Everything after
+        // it can be truncated.
+        int lastPageNo = oldNumPages - 1;
+        while (lastPageNo >= 1) {
+            DBPage dbPage = storageManager.loadDBPage(dbFile, lastPageNo);
+            int numSlots = DataPage.getNumSlots(dbPage);
+            dbPage.unpin();
+
+            if (numSlots > 0)
+                break;
+
+            lastPageNo--;
+        }
+
+        stats.numDataPages = lastPageNo;
+        heapFileManager.saveMetadata(this);
+
+        storageManager.truncateDBFileOnCommit(dbFile, lastPageNo + 1);
+
+        logger.info(String.format("Compacted heap file %s from %d pages to " +
+            "%d pages; moved %d tuples", dbFile, oldNumPages, lastPageNo + 1,
+            movedTuples.size()));
+
+        return movedTuples;
     }
 }
@@ -5,6 +5,7 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.nio.Buffer;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.log4j.Logger;
@@ -321,6 +322,27 @@ public class TransactionManager implements BufferManagerObserver {
     }
 
 
+    /**
+     * Schedules the specified file to be truncated when the current
+     * transaction commits.  Truncation isn't recorded in the write-ahead log,
+     * so the pages being dropped must stay in the file until the
+     * transaction's changes can no longer be rolled back.  If the transaction
+     * is rolled back instead, the file is left as it is.
+     *
+     * @param dbFile the file to truncate
+     * @param numPages the number of pages to keep in the file
+     *
+     * @throws IllegalStateException if no transaction is in progress
+     */
+    public void truncateOnCommit(DBFile dbFile, int numPages) {
+        TransactionState txnState = SessionState.get().getTxnState();
+        if (!txnState.isTxnInProgress())
+            throw new IllegalStateException("No transaction is in progress!");
+
+        txnState.addPendingTruncation(dbFile, numPages);
+    }
+
+
     public void commitTransaction() throws TransactionException {
         SessionState state = SessionState.get();
         TransactionState txnState = state.getTxnState();
@@ -353,6 +375,20 @@ public class TransactionManager implements BufferManagerObserver {
                 "recording transaction-commit to WAL.");
         }
 
+        // The transaction's changes are now durable, so any files it asked to
+        // shrink can finally be truncated.  A failure here only leaves unused
+        // pages at the end of the file, so it doesn't fail the commit.
+        for (Map.Entry<DBFile, Integer> entry :
+             txnState.getPendingTruncations().entrySet()) {
+            try {
+                storageManager.truncateDBFile(entry.getKey(), entry.getValue());
+            }
+            catch (IOException e) {
+                logger.warn("Couldn't truncate file " + entry.getKey() +
+                    " after committing transaction " + txnID, e);
+            }
+        }
+
         // Now that the transaction is successfully committed, clear the current
         // transaction state.
         logger.debug("Transaction completed, resetting transaction state.");
@@ -1,6 +1,10 @@
 package edu.caltech.nanodb.transactions;
 
 
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import edu.caltech.nanodb.storage.DBFile;
 import edu.caltech.nanodb.storage.writeahead.LogSequenceNumber;
 
 
@@ -42,6 +46,16 @@ public class TransactionState {
     private LogSequenceNumber lastLSN = null;
 
 
+    /**
+     * Database files that should be truncated once the transaction commits,
+     * mapped to the number of pages to keep in each file.  Truncating a file
+     * isn't recorded in the write-ahead log, so it is put off until the
+     * transaction's changes can no longer be rolled back.
+     */
+    private LinkedHashMap<DBFile, Integer> pendingTruncations =
+        new LinkedHashMap<>();
+
+
     public int getTransactionID() {
         return transactionID;
     }
@@ -92,12 +106,31 @@ public class TransactionState {
     }
 
 
+    /**
+     * Records that the specified file should be truncated to the specified
+     * number of pages when the transaction commits.  If the file is already
+     * scheduled for truncation, the smaller page count is kept.
+     *
+     * @param dbFile the file to truncate
+     * @param numPages the number of pages to keep in the file
+     */
+    public void addPendingTruncation(DBFile dbFile, int numPages) {
+        pendingTruncations.merge(dbFile, numPages, Math::min);
+    }
+
+
+    public Map<DBFile, Integer> getPendingTruncations() {
+        return pendingTruncations;
+    }
+
+
     public void clear() {
         transactionID = NO_TRANSACTION;
         lastLSN = null;
         userStartedTxn = false;
         performedWrites = false;
         loggedTxnStart = false;
+        pendingTruncations.clear();
     }
 
 
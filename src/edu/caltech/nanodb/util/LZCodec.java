@@ -0,0 +1,267 @@
+package edu.caltech.nanodb.util;
+
+
+import java.io.IOException;
+import java.util.Arrays;
+
+
+/**
+ * <p>
+ * A small, pure-Java compressor from the LZ77 family, used to compress the
+ * pages of compressed database files.  The format follows the LZ4 block
+ * format:  the compressed data is a sequence of <em>sequences</em>, each of
+ * which is a token byte, a run of literal bytes, and a match that copies
+ * bytes from earlier in the output.
+ * </p>
+ * <ul>
+ *   <li>The high four bits of the token are the number of literals, and the
+ *       low four bits are the match length minus {@link #MIN_MATCH}.  If
+ *       either value is 15, it continues in the bytes that follow (the
+ *       literal length right after the token, the match length right after
+ *       the offset), each byte adding up to 255; a byte less than 255 ends
+ *       the value.</li>
+ *   <li>The literals follow the token and the literal length.</li>
+ *   <li>The match offset is a two-byte little-endian value from 1 to
+ *       65535, counting back from the current end of the output.  A match
+ *       can overlap the bytes it produces, so long runs of one value
+ *       compress to a few bytes.</li>
+ *   <li>The last sequence only has literals; the compressed data ends right
+ *       after them.</li>
+ * </ul>
+ * <p>
+ * The compressor finds matches with a hash table of the positions of
+ * earlier four-byte strings, trading some compression for speed.
+ * </p>
+ */
+public class LZCodec {
+
+    /** The shortest match that the compressor encodes. */
+    public static final int MIN_MATCH = 4;
+
+
+    /** The largest offset that a match can have. */
+    public static final int MAX_OFFSET = 65535;
+
+
+    /** The number of bits in the hash of a four-byte string. */
+    private static final int HASH_BITS = 12;
+
+
+    /**
+     * Returns the largest number of bytes that compressing <tt>length</tt>
+     * bytes can produce; data that doesn't compress grows a little.
+     *
+     * @param length the number of bytes to compress
+     *
+     * @return the largest possible size of the compressed data
+     */
+    public static int maxCompressedLength(int length) {
+        return length + length / 255 + 16;
+    }
+
+
+    private static int readInt(byte[] buf, int pos) {
+        return (buf[pos] & 0xFF) | (buf[pos + 1] & 0xFF) << 8 |
+            (buf[pos + 2] & 0xFF) << 16 | (buf[pos + 3] & 0xFF) << 24;
+    }
+
+
+    private static int hash(int value) {
+        return (value * -1640531535) >>> (32 - HASH_BITS);
+    }
+
+
+    /** Writes the continuation bytes of a length of 15 or more. */
+    private static int writeLength(byte[] out, int pos, int length) {
+        length -= 15;
+        while (length >= 255) {
+            out[pos++] = (byte) 255;
+            length -= 255;
+        }
+        out[pos++] = (byte) length;
+        return pos;
+    }
+
+
+    /**
+     * Writes a sequence of literals, followed by a match if
+     * <tt>matchLength</tt> is not 0.
+     *
+     * @return the position in the output after the sequence
+     */
+    private static int writeSequence(byte[] out, int pos, byte[] src,
+        int litStart, int litLength, int offset, int matchLength) {
+
+        int tokenPos = pos++;
+        int token = Math.min(litLength, 15) << 4;
+        if (litLength >= 15)
+            pos = writeLength(out, pos, litLength);
+
+        System.arraycopy(src, litStart, out, pos, litLength);
+        pos += litLength;
+
+        if (matchLength != 0) {
+            out[pos++] = (byte) offset;
+            out[pos++] = (byte) (offset >>> 8);
+
+            int length = matchLength - MIN_MATCH;
+            token |= Math.min(length, 15);
+            if (length >= 15)
+                pos = writeLength(out, pos, length);
+        }
+
+        out[tokenPos] = (byte) token;
+        return pos;
+    }
+
+
+    /**
+     * Compresses a range of bytes.
+     *
+     * @param src the array holding the data to compress
+     * @param off the index of the first byte to compress
+     * @param length the number of bytes to compress
+     *
+     * @return the compressed data; this may be longer than the original data
+     *         if the data doesn't compress
+     */
+    public static byte[] compress(byte[] src, int off, int length) {
+        if (src == null)
+            throw new IllegalArgumentException("src cannot be null");
+
+        if (off < 0 || length < 0 || off + length > src.length) {
+            throw new IllegalArgumentException(String.format(
+                "Range [%d, %d) is outside an array of length %d", off,
+                off + length, src.length));
+        }
+
+        byte[] out = new byte[maxCompressedLength(length)];
+        int pos = 0;
+
+        // The positions of earlier four-byte strings, plus one so that 0
+        // means no position.
+        int[] table = new int[1 << HASH_BITS];
+
+        int end = off + length;
+        int anchor = off;
+        int i = off;
+        while (i + MIN_MATCH <= end) {
+            int value = readInt(src, i);
+            int h = hash(value);
+            int ref = table[h] - 1;
+            table[h] = i + 1;
+
+            if (ref < 0 || i - ref > MAX_OFFSET || readInt(src, ref) != value) {
+                i++;
+                continue;
+            }
+
+            int matchLength = MIN_MATCH;
+            while (i + matchLength < end &&
+                   src[ref + matchLength] == src[i + matchLength]) {
+                matchLength++;
+            }
+
+            pos = writeSequence(out, pos, src, anchor, i - anchor, i - ref,
+                matchLength);
+
+            i += matchLength;
+            anchor = i;
+        }
+
+        pos = writeSequence(out, pos, src, anchor, end - anchor, 0, 0);
+        return Arrays.copyOf(out, pos);
+    }
+
+
+    /**
+     * Decompresses data produced by {@link #compress}.
+     *
+     * @param src the array holding the compressed data
+     * @param off the index of the first byte of compressed data
+     * @param length the number of bytes of compressed data
+     * @param dest the array to store the decompressed data into
+     * @param destOff the index in <tt>dest</tt> to store the first
+     *        decompressed byte at
+     * @param destLength the largest number of bytes to produce
+     *
+     * @return the number of bytes produced
+     *
+     * @throws IOException if the compressed data is malformed, or would
+     *         produce more than <tt>destLength</tt> bytes
+     */
+    public static int decompress(byte[] src, int off, int length, byte[] dest,
+                                 int destOff, int destLength)
+        throws IOException {
+
+        if (src == null)
+            throw new IllegalArgumentException("src cannot be null");
+
+        if (dest == null)
+            throw new IllegalArgumentException("dest cannot be null");
+
+        int end = off + length;
+        int destEnd = destOff + destLength;
+        int pos = off;
+        int destPos = destOff;
+
+        while (pos < end) {
+            int token = src[pos++] & 0xFF;
+
+            int litLength = token >>> 4;
+            if (litLength == 15) {
+                int b;
+                do {
+                    if (pos >= end)
+                        throw new IOException("Truncated literal length");
+                    b = src[pos++] & 0xFF;
+                    litLength += b;
+                }
+                while (b == 255);
+            }
+
+            if (litLength > end - pos || litLength > destEnd - destPos)
+                throw new IOException("Literals extend past the end of data");
+
+            System.arraycopy(src, pos, dest, destPos, litLength);
+            pos += litLength;
+            destPos += litLength;
+
+            // The last sequence only has literals.
+            if (pos == end)
+                break;
+
+            if (end - pos < 2)
+                throw new IOException("Truncated match offset");
+
+            int offset = (src[pos] & 0xFF) | (src[pos + 1] & 0xFF) << 8;
+            pos += 2;
+            if (offset == 0 || offset > destPos - destOff)
+                throw new IOException("Invalid match offset " + offset);
+
+            int matchLength = token & 0x0F;
+            if (matchLength == 15) {
+                int b;
+                do {
+                    if (pos >= end)
+                        throw new IOException("Truncated match length");
+                    b = src[pos++] & 0xFF;
+                    matchLength += b;
+                }
+                while (b == 255);
+            }
+            matchLength += MIN_MATCH;
+
+            if (matchLength > destEnd - destPos)
+                throw new IOException("Match extends past the end of data");
+
+            // Copy one byte at a time, since the match may overlap the bytes
+            // it produces.
+            int from = destPos - offset;
+            for (int i = 0; i < matchLength; i++)
+                dest[destPos++] = dest[from + i];
+        }
+
+        return destPos - destOff;
+    }
+}
@@ -0,0 +1,118 @@
+package edu.caltech.test.nanodb.expressions;
+
+
+import org.testng.annotations.*;
+
+import edu.caltech.nanodb.expressions.ColumnName;
+import edu.caltech.nanodb.expressions.ColumnValue;
+import edu.caltech.nanodb.expressions.Environment;
+import edu.caltech.nanodb.expressions.ExpressionException;
+import edu.caltech.nanodb.expressions.TupleLiteral;
+import edu.caltech.nanodb.relations.ColumnInfo;
+import edu.caltech.nanodb.relations.ColumnType;
+import edu.caltech.nanodb.relations.SQLDataType;
+import edu.caltech.nanodb.relations.Schema;
+
+
+/**
+ * This test class exercises the evaluation of
+ * {@link edu.caltech.nanodb.expressions.ColumnValue} expressions, both when
+ * they are looked up by name and when they are bound to tuple positions.
+ */
+@Test
+public class TestColumnValue {
+
+    private Schema makeSchema(String tableName, String... colNames) {
+        Schema schema = new Schema();
+        for (String colName : colNames) {
+            schema.addColumnInfo(new ColumnInfo(colName, tableName,
+                new ColumnType(SQLDataType.INTEGER)));
+        }
+        return schema;
+    }
+
+
+    /**
+     * This test binds column references to the two tuples of a join, and
+     * checks that they evaluate to the same values as unbound references.
+     */
+    public void testBoundColumns() {
+        Schema left = makeSchema("T1", "A", "B");
+        Schema right = makeSchema("T2", "C", "D");
+
+        Environment env = new Environment();
+        env.addTuple(left, new TupleLiteral(1, 2));
+        env.addTuple(right, new TupleLiteral(3, 4));
+
+        ColumnValue b = new ColumnValue(new ColumnName("B"));
+        ColumnValue t2d = new ColumnValue(new ColumnName("T2", "D"));
+
+        assert Integer.valueOf(2).equals(b.evaluate(env));
+        assert Integer.valueOf(4).equals(t2d.evaluate(env));
+
+        b.bindColumns(left, right);
+        t2d.bindColumns(left, right);
+
+        assert Integer.valueOf(2).equals(b.evaluate(env));
+        assert Integer.valueOf(4).equals(t2d.evaluate(env));
+    }
+
+
+    /**
+     * This test evaluates a bound column reference in an environment with
+     * different schemas, which must fall back to looking up the column by
+     * name.
+     */
+    public void testDifferentSchema() {
+        Schema bound = makeSchema("T1", "A", "B");
+        Schema other = makeSchema("T1", "B", "A");
+
+        ColumnValue a = new ColumnValue(new ColumnName("A"));
+        a.bindColumns(bound);
+
+        Environment env = new Environment();
+        env.addTuple(other, new TupleLiteral(5, 6));
+        assert Integer.valueOf(6).equals(a.evaluate(env));
+    }
+
+
+    /**
+     * This test binds a column reference that doesn't appear in the schema,
+     * as in a correlated subquery, and checks that it is still found in the
+     * parent environment.
+     */
+    public void testOuterReference() {
+        Schema inner = makeSchema("T2", "C");
+        Schema outer = makeSchema("T1", "A");
+
+        Environment parent = new Environment();
+        parent.addTuple(outer, new TupleLiteral((Object) 7));
+
+        Environment env = new Environment();
+        env.addParentEnvironment(parent);
+        env.addTuple(inner, new TupleLiteral((Object) 8));
+
+        ColumnValue a = new ColumnValue(new ColumnName("T1", "A"));
+        a.bindColumns(inner);
+        assert Integer.valueOf(7).equals(a.evaluate(env));
+    }
+
+
+    /**
+     * This test binds an ambiguous column reference, which must still be
+     * reported as ambiguous when it is evaluated.
+     */
+    @Test(expectedExceptions=ExpressionException.class)
+    public void testAmbiguousColumn() {
+        Schema left = makeSchema("T1", "A");
+        Schema right = makeSchema("T2", "A");
+
+        Environment env = new Environment();
+        env.addTuple(left, new TupleLiteral((Object) 1));
+        env.addTuple(right, new TupleLiteral((Object) 2));
+
+        ColumnValue a = new ColumnValue(new ColumnName("A"));
+        a.bindColumns(left, right);
+        a.evaluate(env);
+    }
+}
@@ -0,0 +1,266 @@
+package edu.caltech.test.nanodb.expressions;
+
+
+import org.testng.annotations.*;
+
+import edu.caltech.nanodb.expressions.ArithmeticOperator;
+import edu.caltech.nanodb.expressions.BooleanOperator;
+import edu.caltech.nanodb.expressions.ColumnName;
+import edu.caltech.nanodb.expressions.ColumnValue;
+import edu.caltech.nanodb.expressions.CompareOperator;
+import edu.caltech.nanodb.expressions.Environment;
+import edu.caltech.nanodb.expressions.Expression;
+import edu.caltech.nanodb.expressions.ExpressionCompiler;
+import edu.caltech.nanodb.expressions.IsNullOperator;
+import edu.caltech.nanodb.expressions.LiteralValue;
+import edu.caltech.nanodb.expressions.TupleLiteral;
+import edu.caltech.nanodb.relations.ColumnInfo;
+import edu.caltech.nanodb.relations.ColumnType;
+import edu.caltech.nanodb.relations.SQLDataType;
+import edu.caltech.nanodb.relations.Schema;
+import edu.caltech.nanodb.relations.TupleBatch;
+
+
+/**
+ * This test class checks that expressions compiled by
+ * {@link edu.caltech.nanodb.expressions.ExpressionCompiler} produce the
+ * same results as the interpreter.
+ */
+@Test
+public class TestExpressionCompiler {
+
+    /** Values of various types, including <tt>NULL</tt>, to test against. */
+    private static final Object[] VALUES = {
+        null, 3, 5, -2, 4L, 5L, 2.5, 5.0, 3.0f, "3", "abc", "abd"
+    };
+
+
+    private Schema schema;
+
+
+    @BeforeClass
+    public void makeSchema() {
+        schema = new Schema();
+        schema.addColumnInfo(new ColumnInfo("A", "T",
+            new ColumnType(SQLDataType.INTEGER)));
+        schema.addColumnInfo(new ColumnInfo("B", "T",
+            new ColumnType(SQLDataType.INTEGER)));
+    }
+
+
+    private Environment makeEnvironment(Object a, Object b) {
+        Environment env = new Environment();
+        env.addTuple(schema, new TupleLiteral(a, b));
+        return env;
+    }
+
+
+    private ColumnValue column(String name) {
+        ColumnValue col = new ColumnValue(new ColumnName(name));
+        col.bindColumns(schema);
+        return col;
+    }
+
+
+    /**
+     * Evaluates a predicate with the interpreter and the compiler, and
+     * checks that the results agree.  If the interpreter throws an
+     * exception, the compiled predicate must throw the same kind.
+     */
+    private void checkPredicate(Expression pred, Environment env) {
+        ExpressionCompiler.CompiledPredicate compiled =
+            ExpressionCompiler.compilePredicate(pred);
+
+        Boolean expected;
+        try {
+            expected = pred.evaluatePredicate(env);
+        }
+        catch (RuntimeException e) {
+            try {
+                compiled.evaluate(env);
+            }
+            catch (RuntimeException e2) {
+                assert e.getClass().equals(e2.getClass()) : pred.toString();
+                return;
+            }
+            assert false : "Compiled " + pred + " didn't throw " + e;
+            return;
+        }
+
+        assert expected == compiled.evaluate(env) : pred + " with " + env;
+    }
+
+
+    /**
+     * Evaluates an expression with the interpreter and the compiler, and
+     * checks that the results agree.
+     */
+    private void checkValue(Expression expr, Environment env) {
+        ExpressionCompiler.CompiledExpression compiled =
+            ExpressionCompiler.compile(expr);
+
+        Object expected = expr.evaluate(env);
+        Object actual = compiled.evaluate(env);
+        if (expected == null)
+            assert actual == null : expr.toString();
+        else
+            assert expected.equals(actual) : expr + ":  " + actual;
+    }
+
+
+    /**
+     * This test compares every pair of values with every comparison
+     * operator, both between columns and between a column and a literal.
+     */
+    public void testComparisons() {
+        for (CompareOperator.Type type : CompareOperator.Type.values()) {
+            for (Object a : VALUES) {
+                for (Object b : VALUES) {
+                    Environment env = makeEnvironment(a, b);
+
+                    checkPredicate(new CompareOperator(type, column("A"),
+                        column("B")), env);
+                    checkPredicate(new CompareOperator(type, column("A"),
+                        new LiteralValue(b)), env);
+                }
+            }
+        }
+    }
+
+
+    /** This test evaluates every arithmetic operator on numeric values. */
+    public void testArithmetic() {
+        Object[] numbers = { null, 7, -3, 4L, 9L, 2.5, 1.5f };
+
+        for (ArithmeticOperator.Type type : ArithmeticOperator.Type.values()) {
+            for (Object a : numbers) {
+                for (Object b : numbers) {
+                    Environment env = makeEnvironment(a, b);
+
+                    checkValue(new ArithmeticOperator(type, column("A"),
+                        column("B")), env);
+                    checkValue(new ArithmeticOperator(type, column("A"),
+                        new LiteralValue(b)), env);
+                }
+            }
+        }
+    }
+
+
+    /**
+     * This test evaluates <tt>AND</tt>, <tt>OR</tt>, <tt>NOT</tt> and
+     * <tt>IS NULL</tt> with <tt>NULL</tt> and non-<tt>NULL</tt> values.
+     */
+    public void testBooleans() {
+        Object[] values = { null, 1, 5 };
+
+        for (Object a : values) {
+            for (Object b : values) {
+                Environment env = makeEnvironment(a, b);
+
+                Expression aPos = new CompareOperator(
+                    CompareOperator.Type.GREATER_THAN, column("A"),
+                    new LiteralValue(2));
+                Expression bPos = new CompareOperator(
+                    CompareOperator.Type.GREATER_THAN, column("B"),
+                    new LiteralValue(2));
+
+                for (BooleanOperator.Type type :
+                     new BooleanOperator.Type[] { BooleanOperator.Type.AND_EXPR,
+                                                  BooleanOperator.Type.OR_EXPR }) {
+                    BooleanOperator op = new BooleanOperator(type);
+                    op.addTerm(aPos);
+                    op.addTerm(bPos);
+                    checkPredicate(op, env);
+
+                    op.addTerm(new IsNullOperator(column("A"), false));
+                    checkPredicate(op, env);
+                }
+
+                BooleanOperator not =
+                    new BooleanOperator(BooleanOperator.Type.NOT_EXPR);
+                not.addTerm(aPos);
+                checkPredicate(not, env);
+
+                checkPredicate(new IsNullOperator(column("B"), false), env);
+                checkPredicate(new IsNullOperator(column("B"), true), env);
+                checkPredicate(column("A"), env);
+            }
+        }
+    }
+
+
+    /**
+     * This test checks that compiled expressions still work when they are
+     * evaluated against a different schema than they were bound to.
+     */
+    public void testUnboundSchema() {
+        Schema other = new Schema();
+        other.addColumnInfo(new ColumnInfo("B", "T",
+            new ColumnType(SQLDataType.INTEGER)));
+        other.addColumnInfo(new ColumnInfo("A", "T",
+            new ColumnType(SQLDataType.INTEGER)));
+
+        Expression pred = new CompareOperator(CompareOperator.Type.EQUALS,
+            column("A"), new LiteralValue(10));
+
+        Environment env = new Environment();
+        env.addTuple(other, new TupleLiteral(20, 10));
+        assert ExpressionCompiler.compilePredicate(pred).evaluate(env);
+    }
+
+
+    /**
+     * This test filters a batch with column comparisons, <tt>IS NULL</tt>
+     * tests and other predicates, and checks that the selected rows are the
+     * ones the interpreter selects.
+     */
+    public void testBatchFilters() {
+        CompareOperator aGreater = new CompareOperator(
+            CompareOperator.Type.GREATER_THAN, column("A"), new LiteralValue(2));
+        CompareOperator bNotEqual = new CompareOperator(
+            CompareOperator.Type.NOT_EQUALS, column("B"), column("A"));
+
+        BooleanOperator and = new BooleanOperator(BooleanOperator.Type.AND_EXPR);
+        and.addTerm(aGreater);
+        and.addTerm(new IsNullOperator(column("B"), true));
+        and.addTerm(bNotEqual);
+
+        BooleanOperator or = new BooleanOperator(BooleanOperator.Type.OR_EXPR);
+        or.addTerm(aGreater);
+        or.addTerm(new IsNullOperator(column("B"), false));
+
+        Expression[] preds = { aGreater, bNotEqual, and, or,
+            new IsNullOperator(column("A"), false) };
+
+        for (Expression pred : preds) {
+            TupleBatch batch = new TupleBatch(2, VALUES.length * VALUES.length);
+            for (Object a : VALUES) {
+                for (Object b : VALUES) {
+                    // Comparing strings to numbers may fail.
+                    if (a instanceof String || b instanceof String)
+                        continue;
+
+                    batch.addTuple(new TupleLiteral(a, b));
+                }
+            }
+
+            int numRows = batch.getNumRows();
+            ExpressionCompiler.compileBatchPredicate(pred, schema).filter(
+                batch, new Environment());
+
+            int pos = 0;
+            for (int row = 0; row < numRows; row++) {
+                Object a = batch.getColumn(0)[row];
+                Object b = batch.getColumn(1)[row];
+
+                if (pred.evaluatePredicate(makeEnvironment(a, b))) {
+                    assert pos < batch.size() && batch.getRowIndex(pos) == row :
+                        pred + " should select " + a + ", " + b;
+                    pos++;
+                }
+            }
+            assert pos == batch.size() : pred.toString();
+        }
+    }
+}
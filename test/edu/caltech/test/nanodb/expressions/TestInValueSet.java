@@ -0,0 +1,79 @@
+package edu.caltech.test.nanodb.expressions;
+
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.testng.annotations.Test;
+
+import edu.caltech.nanodb.expressions.InValueSet;
+
+
+/**
+ * This test class exercises the {@link InValueSet} class, which holds the
+ * values of <tt>IN</tt> lists and uncorrelated <tt>IN</tt> subqueries.
+ */
+@Test
+public class TestInValueSet {
+
+    /**
+     * This test checks that numbers of different types are found when they
+     * are equal, and not found otherwise.
+     */
+    public void testNumericLookups() {
+        InValueSet set = new InValueSet(Arrays.asList(1, 2L, 3.0, 4.5f));
+
+        assert set.contains(1L) == Boolean.TRUE;
+        assert set.contains(1.0) == Boolean.TRUE;
+        assert set.contains(2) == Boolean.TRUE;
+        assert set.contains(3) == Boolean.TRUE;
+        assert set.contains(4.5) == Boolean.TRUE;
+        assert set.contains(4) == Boolean.FALSE;
+        assert set.contains(3.5) == Boolean.FALSE;
+        assert set.contains(null) == null;
+
+        // A string is compared the same way a comparison would compare it.
+        assert set.contains("2") == Boolean.TRUE;
+    }
+
+
+    /**
+     * This test checks the handling of <tt>NULL</tt>s in the set and of
+     * empty sets.
+     */
+    public void testNulls() {
+        InValueSet set = new InValueSet(Arrays.asList("a", null, "b"));
+        assert set.hasNull();
+        assert set.size() == 2;
+        assert set.contains("a") == Boolean.TRUE;
+        assert set.contains("c") == null;
+        assert set.contains(null) == null;
+
+        InValueSet empty = new InValueSet(Collections.emptyList());
+        assert empty.contains(1) == Boolean.FALSE;
+        assert empty.contains(null) == Boolean.FALSE;
+
+        InValueSet onlyNull = new InValueSet(Collections.singletonList(null));
+        assert onlyNull.contains(1) == null;
+    }
+
+
+    /**
+     * This test checks that the distinct values are produced in sorted
+     * order, so that they can be used as keys to probe.
+     */
+    public void testSortedValues() {
+        InValueSet set = new InValueSet(Arrays.asList(5, 1, 3.5, 5L, 1, -2));
+        assert set.isSorted();
+        assert set.getSortedValues().equals(Arrays.asList(-2, 1, 3.5, 5)) :
+            set.getSortedValues().toString();
+
+        InValueSet strings = new InValueSet(Arrays.asList("c", "a", "b", "a"));
+        assert strings.getSortedValues().equals(Arrays.asList("a", "b", "c"));
+
+        InValueSet mixed = new InValueSet(Arrays.asList(3, "4"));
+        assert !mixed.isSorted();
+        assert mixed.contains(3) == Boolean.TRUE;
+        assert mixed.contains("4") == Boolean.TRUE;
+    }
+}
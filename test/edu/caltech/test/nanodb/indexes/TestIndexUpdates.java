@@ -0,0 +1,116 @@
+package edu.caltech.test.nanodb.indexes;
+
+
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+import edu.caltech.nanodb.expressions.TupleLiteral;
+import edu.caltech.nanodb.indexes.IndexInfo;
+import edu.caltech.nanodb.indexes.IndexUtils;
+import edu.caltech.nanodb.relations.TableInfo;
+import edu.caltech.nanodb.server.CommandResult;
+import edu.caltech.nanodb.storage.StorageManager;
+
+import edu.caltech.test.nanodb.sql.SqlTestCase;
+
+
+/**
+ * This class makes sure that an index is kept up to date as rows are
+ * inserted into, updated in, and deleted from its table, so that queries
+ * that look values up through the index find the right rows.
+ */
+@Test
+public class TestIndexUpdates extends SqlTestCase {
+
+    public TestIndexUpdates() {
+        super("setup_testIndexUpdates");
+    }
+
+
+    /** Checks that every tuple of the table has exactly one index entry. */
+    private void verifyIndex() throws Exception {
+        StorageManager storageManager = server.getStorageManager();
+        TableInfo tableInfo = storageManager.getTableManager().openTable(
+            "TEST_INDEX_UPDATES");
+        IndexInfo indexInfo = storageManager.getIndexManager().openIndex(
+            tableInfo, "IDX_INDEX_UPDATES");
+
+        List<String> errors = IndexUtils.verifyIndex(tableInfo.getTupleFile(),
+            indexInfo.getTupleFile());
+        assert errors.isEmpty() : errors;
+    }
+
+
+    /**
+     * This test inserts, updates and deletes rows after the index has been
+     * created, and makes sure that lookups through the index see the
+     * changes.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testInsertUpdateDelete() throws Throwable {
+        tryDoCommand("INSERT INTO test_index_updates VALUES (1, 'one')");
+        tryDoCommand("INSERT INTO test_index_updates VALUES (2, 'two')");
+        tryDoCommand("INSERT INTO test_index_updates VALUES (3, 'three')");
+        tryDoCommand("INSERT INTO test_index_updates VALUES (4, 'four')");
+        tryDoCommand("INSERT INTO test_index_updates VALUES (5, 'five')");
+        verifyIndex();
+
+        CommandResult result = tryDoCommand(
+            "SELECT * FROM test_index_updates WHERE a = 3", true);
+        assert checkUnorderedResults(new TupleLiteral[] {
+            new TupleLiteral(3, "three")
+        }, result);
+
+        tryDoCommand("DELETE FROM test_index_updates WHERE b = 'two'");
+
+        // The new value is long enough that the tuple may have to move.
+        tryDoCommand("UPDATE test_index_updates " +
+            "SET a = 40, b = 'forty, which is a longer string' WHERE a = 4");
+        verifyIndex();
+
+        result = tryDoCommand(
+            "SELECT * FROM test_index_updates WHERE a = 2 OR a = 4", true);
+        assert checkUnorderedResults(new TupleLiteral[0], result);
+
+        result = tryDoCommand(
+            "SELECT * FROM test_index_updates WHERE a >= 3", true);
+        assert checkUnorderedResults(new TupleLiteral[] {
+            new TupleLiteral(3, "three"),
+            new TupleLiteral(5, "five"),
+            new TupleLiteral(40, "forty, which is a longer string")
+        }, result);
+    }
+
+
+    /**
+     * This test inserts several rows with <tt>NULL</tt> in a unique column,
+     * which never conflict with each other, and then creates a unique index
+     * on a column that already has several <tt>NULL</tt> values.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testUniqueNulls() throws Throwable {
+        tryDoCommand("INSERT INTO test_index_unique VALUES (1, 'one')");
+        tryDoCommand("INSERT INTO test_index_unique VALUES (NULL, NULL)");
+        tryDoCommand("INSERT INTO test_index_unique VALUES (NULL, NULL)");
+        tryDoCommand("INSERT INTO test_index_unique VALUES " +
+            "(NULL, 'two'), (NULL, 'three')");
+
+        assert server.doCommand(
+            "INSERT INTO test_index_unique VALUES (1, 'four')", false).failed();
+
+        CommandResult result = tryDoCommand(
+            "SELECT COUNT(*) FROM test_index_unique WHERE a IS NULL", true);
+        assert checkUnorderedResults(new TupleLiteral[] {
+            new TupleLiteral(4L)
+        }, result);
+
+        tryDoCommand("CREATE UNIQUE INDEX idx_index_unique_b " +
+            "ON test_index_unique (b)");
+        tryDoCommand("INSERT INTO test_index_unique VALUES (5, NULL)");
+        assert server.doCommand(
+            "INSERT INTO test_index_unique VALUES (6, 'two')", false).failed();
+    }
+}
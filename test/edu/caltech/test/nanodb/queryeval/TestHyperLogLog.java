@@ -0,0 +1,138 @@
+package edu.caltech.test.nanodb.queryeval;
+
+
+import org.testng.annotations.Test;
+
+import edu.caltech.nanodb.queryeval.ColumnStatsCollector;
+import edu.caltech.nanodb.queryeval.HyperLogLog;
+import edu.caltech.nanodb.queryeval.MostCommonValues;
+import edu.caltech.nanodb.relations.SQLDataType;
+
+
+/**
+ * This test class exercises the {@link HyperLogLog} distinct-value sketch,
+ * and its use by the {@link ColumnStatsCollector} class.
+ */
+@Test
+public class TestHyperLogLog {
+
+    private static void assertClose(long actual, long expected, double error) {
+        assert Math.abs(actual - expected) <= expected * error :
+            "Expected approximately " + expected + ", got " + actual;
+    }
+
+
+    public void testSmallCardinality() {
+        HyperLogLog hll = new HyperLogLog();
+        assert hll.estimate() == 0;
+
+        for (int i = 0; i < 10; i++) {
+            hll.add(i);
+            hll.add(i);
+        }
+
+        assertClose(hll.estimate(), 10, 0.1);
+    }
+
+
+    public void testLargeCardinality() {
+        HyperLogLog hll = new HyperLogLog();
+        for (int i = 0; i < 200000; i++)
+            hll.add("KEY" + i);
+
+        assertClose(hll.estimate(), 200000, 0.05);
+    }
+
+
+    public void testNumericTypesHashByValue() {
+        HyperLogLog hll = new HyperLogLog();
+        for (int i = 0; i < 1000; i++) {
+            hll.add(i);
+            hll.add((long) i);
+            hll.add((double) i);
+        }
+
+        assertClose(hll.estimate(), 1000, 0.05);
+    }
+
+
+    public void testMerge() {
+        HyperLogLog hll1 = new HyperLogLog();
+        HyperLogLog hll2 = new HyperLogLog();
+
+        // The two sketches overlap on the values [50000, 100000).
+        for (int i = 0; i < 100000; i++)
+            hll1.add(i);
+
+        for (int i = 50000; i < 150000; i++)
+            hll2.add(i);
+
+        hll1.merge(hll2);
+        assertClose(hll1.estimate(), 150000, 0.05);
+    }
+
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testMergeDifferentPrecisions() {
+        new HyperLogLog(10).merge(new HyperLogLog(12));
+    }
+
+
+    public void testCollectorExactBelowThreshold() {
+        ColumnStatsCollector collector =
+            new ColumnStatsCollector(SQLDataType.INTEGER);
+
+        int n = ColumnStatsCollector.MAX_EXACT_DISTINCT_VALUES - 1;
+        for (int i = 0; i < n; i++)
+            collector.addValue(i);
+
+        assert collector.getNumUniqueValues() == n;
+    }
+
+
+    public void testCollectorLargeTable() {
+        ColumnStatsCollector collector =
+            new ColumnStatsCollector(SQLDataType.INTEGER);
+
+        // Half of the rows have the value -1; the rest are all distinct.
+        for (int i = 0; i < 100000; i++)
+            collector.addValue(i % 2 == 0 ? -1 : i);
+
+        assertClose(collector.getNumUniqueValues(), 50001, 0.05);
+
+        // The dominant value must still be found, even though the value
+        // counters are approximate.
+        MostCommonValues mcv = collector.getMostCommonValues();
+        assert mcv != null;
+        assert mcv.getValue(0).equals(-1);
+        assertClose(mcv.getCount(0), 50000, 0.05);
+    }
+
+
+    public void testCollectorMerge() {
+        ColumnStatsCollector whole =
+            new ColumnStatsCollector(SQLDataType.INTEGER);
+        ColumnStatsCollector part1 =
+            new ColumnStatsCollector(SQLDataType.INTEGER);
+        ColumnStatsCollector part2 =
+            new ColumnStatsCollector(SQLDataType.INTEGER);
+
+        for (int i = 0; i < 20000; i++) {
+            Integer value = (i % 10 == 0) ? null : i % 3000;
+            whole.addValue(value);
+            if (i < 12000)
+                part1.addValue(value);
+            else
+                part2.addValue(value);
+        }
+
+        part1.merge(part2);
+
+        assert part1.getNumNullValues() == whole.getNumNullValues();
+        assert part1.getMinValue().equals(whole.getMinValue());
+        assert part1.getMaxValue().equals(whole.getMaxValue());
+        // Multiples of 10 are always NULL, so 2700 distinct values remain.
+        assertClose(part1.getNumUniqueValues(), 2700, 0.05);
+        assertClose(part1.getHistogram().getTotalCount(), 18000, 0.01);
+    }
+}
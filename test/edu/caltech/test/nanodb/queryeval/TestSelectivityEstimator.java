@@ -0,0 +1,251 @@
+package edu.caltech.test.nanodb.queryeval;
+
+
+import java.util.ArrayList;
+
+import org.testng.annotations.Test;
+
+import edu.caltech.nanodb.expressions.BooleanOperator;
+import edu.caltech.nanodb.expressions.ColumnName;
+import edu.caltech.nanodb.expressions.ColumnValue;
+import edu.caltech.nanodb.expressions.CompareOperator;
+import edu.caltech.nanodb.expressions.Expression;
+import edu.caltech.nanodb.expressions.InValuesOperator;
+import edu.caltech.nanodb.expressions.LiteralValue;
+import edu.caltech.nanodb.queryeval.ColumnStats;
+import edu.caltech.nanodb.queryeval.ColumnStatsCollector;
+import edu.caltech.nanodb.queryeval.Histogram;
+import edu.caltech.nanodb.queryeval.MostCommonValues;
+import edu.caltech.nanodb.queryeval.SelectivityEstimator;
+import edu.caltech.nanodb.relations.ColumnInfo;
+import edu.caltech.nanodb.relations.ColumnType;
+import edu.caltech.nanodb.relations.SQLDataType;
+import edu.caltech.nanodb.relations.Schema;
+
+
+/**
+ * This test class exercises the statistics-based estimates made by the
+ * {@link SelectivityEstimator} class.
+ */
+@Test
+public class TestSelectivityEstimator {
+
+    /** The schema that the test predicates are evaluated against. */
+    private Schema schema;
+
+
+    /** Column statistics corresponding to {@link #schema}. */
+    private ArrayList<ColumnStats> stats;
+
+
+    /**
+     * Sets up a single integer column "A" whose values are heavily skewed:
+     * 90% of the 10000 values are in the range [0, 100), and the rest are
+     * spread over [100, 10000).
+     */
+    private void makeSkewedStats() {
+        schema = new Schema();
+        schema.addColumnInfo(new ColumnInfo("A", "T",
+            new ColumnType(SQLDataType.INTEGER)));
+
+        ColumnStatsCollector collector =
+            new ColumnStatsCollector(SQLDataType.INTEGER);
+
+        for (int i = 0; i < 9000; i++)
+            collector.addValue(i % 100);
+
+        for (int i = 0; i < 1000; i++)
+            collector.addValue(100 + i * 9900 / 1000);
+
+        stats = new ArrayList<>();
+        stats.add(collector.getColumnStats());
+    }
+
+
+    private float estimate(Expression expr) {
+        return SelectivityEstimator.estimateSelectivity(expr, schema, stats);
+    }
+
+
+    private CompareOperator compare(CompareOperator.Type type, int value) {
+        return new CompareOperator(type,
+            new ColumnValue(new ColumnName("A")), new LiteralValue(value));
+    }
+
+
+    public void testHistogramBuild() {
+        makeSkewedStats();
+
+        Histogram histogram = stats.get(0).getHistogram();
+        assert histogram != null;
+        assert histogram.getNumBuckets() > 1;
+        assert histogram.getNumBuckets() <= ColumnStatsCollector.MAX_HISTOGRAM_BUCKETS;
+        assert histogram.getTotalCount() == 10000;
+        assert histogram.getLowerBound(0).equals(0);
+        assert histogram.getUpperBound(histogram.getNumBuckets() - 1).equals(9990);
+    }
+
+
+    public void testHistogramSingleValue() {
+        ColumnStatsCollector collector =
+            new ColumnStatsCollector(SQLDataType.INTEGER);
+        for (int i = 0; i < 50; i++)
+            collector.addValue(7);
+
+        Histogram histogram = collector.getHistogram();
+        assert histogram.getNumBuckets() == 1;
+        assert histogram.getCount(0) == 50;
+    }
+
+
+    public void testHistogramNotBuiltForStrings() {
+        ColumnStatsCollector collector =
+            new ColumnStatsCollector(SQLDataType.VARCHAR);
+        collector.addValue("abc");
+
+        assert collector.getColumnStats().getHistogram() == null;
+    }
+
+
+    public void testRangeSelectivity() {
+        makeSkewedStats();
+
+        // The uniform min/max estimate would be about 1%, but 90% of the
+        // values are below 100.
+        float sel = estimate(compare(CompareOperator.Type.LESS_THAN, 100));
+        assert Math.abs(sel - 0.9f) < 0.05f : "A < 100 estimated as " + sel;
+
+        sel = estimate(compare(CompareOperator.Type.GREATER_OR_EQUAL, 100));
+        assert Math.abs(sel - 0.1f) < 0.05f : "A >= 100 estimated as " + sel;
+
+        sel = estimate(compare(CompareOperator.Type.LESS_OR_EQUAL, 5050));
+        assert Math.abs(sel - 0.95f) < 0.05f : "A <= 5050 estimated as " + sel;
+
+        sel = estimate(compare(CompareOperator.Type.GREATER_THAN, 5050));
+        assert Math.abs(sel - 0.05f) < 0.05f : "A > 5050 estimated as " + sel;
+
+        assert estimate(compare(CompareOperator.Type.LESS_THAN, -1)) == 0.0f;
+        assert estimate(compare(CompareOperator.Type.GREATER_THAN, 20000)) == 0.0f;
+    }
+
+
+    public void testBetweenSelectivity() {
+        makeSkewedStats();
+
+        // This is how the parser represents "A BETWEEN 0 AND 49".
+        BooleanOperator between = new BooleanOperator(BooleanOperator.Type.AND_EXPR);
+        between.addTerm(compare(CompareOperator.Type.GREATER_OR_EQUAL, 0));
+        between.addTerm(compare(CompareOperator.Type.LESS_OR_EQUAL, 49));
+
+        float sel = estimate(between);
+        assert Math.abs(sel - 0.45f) < 0.05f : "A BETWEEN 0 AND 49 estimated as " + sel;
+
+        // An empty range must not be estimated as the product of the terms.
+        BooleanOperator empty = new BooleanOperator(BooleanOperator.Type.AND_EXPR);
+        empty.addTerm(compare(CompareOperator.Type.GREATER_THAN, 5000));
+        empty.addTerm(compare(CompareOperator.Type.LESS_THAN, 1000));
+
+        assert estimate(empty) == 0.0f;
+    }
+
+
+    public void testNullsReduceSelectivity() {
+        schema = new Schema();
+        schema.addColumnInfo(new ColumnInfo("A", "T",
+            new ColumnType(SQLDataType.INTEGER)));
+
+        ColumnStatsCollector collector =
+            new ColumnStatsCollector(SQLDataType.INTEGER);
+        for (int i = 0; i < 100; i++)
+            collector.addValue(i % 2 == 0 ? null : i);
+
+        stats = new ArrayList<>();
+        stats.add(collector.getColumnStats());
+
+        float sel = estimate(compare(CompareOperator.Type.GREATER_OR_EQUAL, 0));
+        assert Math.abs(sel - 0.5f) < 0.01f : "A >= 0 estimated as " + sel;
+    }
+
+
+    /**
+     * Sets up a single string column "S" with 10000 values where two values
+     * dominate:  "ACTIVE" is 70% of the rows, "CLOSED" is 20%, and the
+     * remaining 10% is spread evenly over 100 other values.
+     */
+    private void makeSkewedStringStats() {
+        schema = new Schema();
+        schema.addColumnInfo(new ColumnInfo("S", "T",
+            new ColumnType(SQLDataType.VARCHAR)));
+
+        ColumnStatsCollector collector =
+            new ColumnStatsCollector(SQLDataType.VARCHAR);
+
+        for (int i = 0; i < 7000; i++)
+            collector.addValue("ACTIVE");
+
+        for (int i = 0; i < 2000; i++)
+            collector.addValue("CLOSED");
+
+        for (int i = 0; i < 1000; i++)
+            collector.addValue("OTHER" + (i % 100));
+
+        stats = new ArrayList<>();
+        stats.add(collector.getColumnStats());
+    }
+
+
+    private CompareOperator compareString(CompareOperator.Type type,
+                                          String value) {
+        return new CompareOperator(type,
+            new ColumnValue(new ColumnName("S")), new LiteralValue(value));
+    }
+
+
+    public void testMostCommonValuesBuild() {
+        makeSkewedStringStats();
+
+        MostCommonValues mcv = stats.get(0).getMostCommonValues();
+        assert mcv != null;
+        assert mcv.getTotalCount() == 10000;
+
+        // Only the values that are more common than average are kept.
+        assert mcv.size() == 2;
+        assert mcv.getValue(0).equals("ACTIVE");
+        assert mcv.getCount(0) == 7000;
+        assert mcv.getValue(1).equals("CLOSED");
+        assert mcv.getCount(1) == 2000;
+    }
+
+
+    public void testEqualsSelectivity() {
+        makeSkewedStringStats();
+
+        // The uniform estimate would be 1/102 for every value.
+        float sel = estimate(compareString(CompareOperator.Type.EQUALS, "ACTIVE"));
+        assert Math.abs(sel - 0.7f) < 0.001f : "S = 'ACTIVE' estimated as " + sel;
+
+        sel = estimate(compareString(CompareOperator.Type.NOT_EQUALS, "ACTIVE"));
+        assert Math.abs(sel - 0.3f) < 0.001f : "S <> 'ACTIVE' estimated as " + sel;
+
+        // Other values share the remaining 10% of the rows.
+        sel = estimate(compareString(CompareOperator.Type.EQUALS, "OTHER5"));
+        assert Math.abs(sel - 0.001f) < 0.0001f : "S = 'OTHER5' estimated as " + sel;
+    }
+
+
+    public void testInValuesSelectivity() {
+        makeSkewedStringStats();
+
+        ArrayList<Expression> values = new ArrayList<>();
+        values.add(new LiteralValue("ACTIVE"));
+        values.add(new LiteralValue("CLOSED"));
+        values.add(new LiteralValue("OTHER1"));
+        values.add(new LiteralValue("ACTIVE"));
+
+        InValuesOperator in = new InValuesOperator(
+            new ColumnValue(new ColumnName("S")), values);
+
+        float sel = estimate(in);
+        assert Math.abs(sel - 0.901f) < 0.001f : "S IN (...) estimated as " + sel;
+    }
+}
@@ -0,0 +1,206 @@
+package edu.caltech.test.nanodb.server;
+
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+import edu.caltech.nanodb.expressions.TupleLiteral;
+import edu.caltech.nanodb.relations.Schema;
+import edu.caltech.nanodb.server.ClientSelector;
+import edu.caltech.nanodb.server.CommandState;
+import edu.caltech.nanodb.server.performance.PerformanceCounters;
+import edu.caltech.nanodb.server.protocol.MessageChannel;
+import edu.caltech.nanodb.server.protocol.WireProtocol;
+
+import edu.caltech.test.nanodb.sql.SqlTestCase;
+
+
+/**
+ * This class exercises the shared server's front end, which serves many
+ * clients with a small pool of worker threads, and limits the number of
+ * clients that may connect.
+ */
+@Test
+public class TestClientSelector extends SqlTestCase {
+
+    /**
+     * Sends a command over a channel, and returns the tuples of its results.
+     * Any error reported by the server fails the test.
+     */
+    private static List<TupleLiteral> doCommand(MessageChannel channel,
+        String command) throws IOException {
+
+        channel.send(command);
+        channel.flush();
+
+        ArrayList<TupleLiteral> tuples = new ArrayList<>();
+        while (true) {
+            Object obj = channel.receive();
+            if (obj == CommandState.COMMAND_COMPLETED)
+                break;
+
+            assert !(obj instanceof Throwable) :
+                "Command " + command + " failed:  " + obj;
+
+            if (obj instanceof TupleLiteral)
+                tuples.add((TupleLiteral) obj);
+            else
+                assert obj instanceof String || obj instanceof Schema;
+        }
+        return tuples;
+    }
+
+
+    /** Starts a front end for the test server on any available port. */
+    private ClientSelector startSelector() throws IOException {
+        ClientSelector selector = new ClientSelector(server, 0);
+        Thread t = new Thread(selector, "test-client-selector");
+        t.setDaemon(true);
+        t.start();
+        return selector;
+    }
+
+
+    /** Waits until the specified number of clients are connected. */
+    private static void waitForClients(ClientSelector selector, int numClients)
+        throws InterruptedException {
+
+        for (int i = 0; i < 100 && selector.getNumClients() != numClients; i++)
+            Thread.sleep(50);
+
+        assert selector.getNumClients() == numClients :
+            "Expected " + numClients + " clients, got " + selector.getNumClients();
+    }
+
+
+    /**
+     * Tests that more clients than there are worker threads can stay
+     * connected, and that their commands are all executed in their own
+     * sessions, whichever protocol they use.
+     */
+    public void testManyClients() throws Exception {
+        final int numClients = 20;
+
+        ClientSelector.setWorkerThreads(2);
+        ClientSelector selector;
+        try {
+            selector = startSelector();
+        }
+        finally {
+            System.clearProperty(ClientSelector.PROP_WORKER_THREADS);
+        }
+
+        try {
+            List<MessageChannel> channels = new ArrayList<>();
+            for (int i = 0; i < numClients; i++) {
+                channels.add(WireProtocol.connect("localhost",
+                    selector.getPort(), i % 4 != 0));
+            }
+            waitForClients(selector, numClients);
+            assert PerformanceCounters.get(
+                PerformanceCounters.SERVER_CONNECTIONS) >= numClients;
+
+            doCommand(channels.get(0),
+                "CREATE TABLE test_many_clients (id INTEGER, name VARCHAR(20));");
+
+            // Interleave the clients' commands, so that every client is
+            // connected while the others run theirs.
+            for (int i = 0; i < numClients; i++) {
+                doCommand(channels.get(i), String.format(
+                    "INSERT INTO test_many_clients VALUES (%d, 'client %d');",
+                    i, i));
+            }
+
+            for (int i = 0; i < numClients; i++) {
+                List<TupleLiteral> tuples = doCommand(channels.get(i),
+                    "SELECT name FROM test_many_clients WHERE id = " + i + ";");
+                assert tuples.size() == 1;
+                assert tuples.get(0).getColumnValue(0).equals("client " + i);
+            }
+
+            // Several commands sent at once are all answered, even though
+            // they may arrive in the same read.
+            MessageChannel channel = channels.get(1);
+            for (int i = 0; i < 5; i++)
+                channel.send("SELECT COUNT(*) FROM test_many_clients;");
+            channel.flush();
+
+            for (int i = 0; i < 5; i++) {
+                Object obj;
+                do {
+                    obj = channel.receive();
+                    if (obj instanceof TupleLiteral) {
+                        Object count = ((TupleLiteral) obj).getColumnValue(0);
+                        assert ((Number) count).intValue() == numClients;
+                    }
+                }
+                while (obj != CommandState.COMMAND_COMPLETED);
+            }
+
+            for (MessageChannel c : channels)
+                c.close();
+
+            waitForClients(selector, 0);
+            assert PerformanceCounters.get(
+                PerformanceCounters.SERVER_QUEUE_DEPTH) == 0;
+        }
+        finally {
+            selector.shutdown();
+        }
+    }
+
+
+    /**
+     * Tests that connections beyond the maximum are refused, and that
+     * clients can connect again once others have disconnected.
+     */
+    public void testMaxConnections() throws Exception {
+        ClientSelector selector = startSelector();
+        ClientSelector.setMaxConnections(3);
+        try {
+            List<MessageChannel> channels = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                channels.add(WireProtocol.connect("localhost",
+                    selector.getPort(), true));
+            }
+            waitForClients(selector, 3);
+
+            long rejected = PerformanceCounters.get(
+                PerformanceCounters.SERVER_CONNECTIONS_REJECTED);
+            try {
+                MessageChannel extra =
+                    WireProtocol.connect("localhost", selector.getPort(), true);
+                extra.close();
+                assert false : "Expected the connection to be refused";
+            }
+            catch (IOException e) {
+                // Success.
+            }
+            assert PerformanceCounters.get(
+                PerformanceCounters.SERVER_CONNECTIONS_REJECTED) == rejected + 1;
+
+            // The clients that were connected are unaffected.
+            List<TupleLiteral> tuples = doCommand(channels.get(2), "SELECT 1;");
+            assert tuples.size() == 1;
+
+            channels.remove(0).close();
+            waitForClients(selector, 2);
+
+            MessageChannel channel =
+                WireProtocol.connect("localhost", selector.getPort(), true);
+            channels.add(channel);
+            tuples = doCommand(channel, "SELECT 2;");
+            assert tuples.size() == 1;
+
+            for (MessageChannel c : channels)
+                c.close();
+        }
+        finally {
+            System.clearProperty(ClientSelector.PROP_MAX_CONNECTIONS);
+            selector.shutdown();
+        }
+    }
+}
@@ -0,0 +1,305 @@
+package edu.caltech.test.nanodb.server;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.math.BigDecimal;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+import org.testng.annotations.Test;
+
+import edu.caltech.nanodb.expressions.TupleLiteral;
+import edu.caltech.nanodb.relations.ColumnInfo;
+import edu.caltech.nanodb.relations.ColumnType;
+import edu.caltech.nanodb.relations.SQLDataType;
+import edu.caltech.nanodb.relations.Schema;
+import edu.caltech.nanodb.server.CommandState;
+import edu.caltech.nanodb.server.protocol.MessageChannel;
+import edu.caltech.nanodb.server.protocol.TupleCodec;
+import edu.caltech.nanodb.server.protocol.WireProtocol;
+import edu.caltech.nanodb.storage.FilePointer;
+
+
+/**
+ * This class exercises the binary client/server protocol:  the encoding of
+ * schemas and tuples, and the negotiation of the protocol between clients
+ * and servers that do and don't support it.
+ */
+@Test
+public class TestWireProtocol {
+
+    /** The number of tuples the test server sends for each command. */
+    private static final int NUM_TUPLES = 1000;
+
+
+    private static Schema makeSchema() {
+        ColumnType varchar = new ColumnType(SQLDataType.VARCHAR);
+        varchar.setLength(20);
+
+        ColumnType numeric = new ColumnType(SQLDataType.NUMERIC);
+        numeric.setPrecision(10);
+        numeric.setScale(2);
+
+        Schema schema = new Schema();
+        schema.addColumnInfo(new ColumnInfo("a", "t",
+            new ColumnType(SQLDataType.INTEGER)));
+        schema.addColumnInfo(new ColumnInfo("b", "t", varchar));
+        schema.addColumnInfo(new ColumnInfo("c", "t",
+            new ColumnType(SQLDataType.DOUBLE)));
+        schema.addColumnInfo(new ColumnInfo("d", null,
+            new ColumnType(SQLDataType.BIGINT)));
+        schema.addColumnInfo(new ColumnInfo("e", null,
+            new ColumnType(SQLDataType.FLOAT)));
+        schema.addColumnInfo(new ColumnInfo("f", null, numeric));
+        schema.addColumnInfo(new ColumnInfo("g", null,
+            new ColumnType(SQLDataType.SMALLINT)));
+        schema.addColumnInfo(new ColumnInfo("h", null,
+            new ColumnType(SQLDataType.TINYINT)));
+
+        return schema;
+    }
+
+
+    /** Checks that a received schema matches the test schema. */
+    private static void checkSchema(Schema schema) {
+        Schema expected = makeSchema();
+        assert schema.numColumns() == expected.numColumns();
+
+        for (int i = 0; i < expected.numColumns(); i++) {
+            ColumnInfo colInfo = schema.getColumnInfo(i);
+            ColumnInfo expectedInfo = expected.getColumnInfo(i);
+
+            assert colInfo.getName().equals(expectedInfo.getName());
+            assert Objects.equals(colInfo.getTableName(),
+                expectedInfo.getTableName());
+            assert colInfo.getType().equals(expectedInfo.getType());
+        }
+    }
+
+
+    private static TupleLiteral makeTuple(int i) {
+        return new TupleLiteral(i - 500, "row " + i + " \u00e9", i * 0.5,
+            (long) i << 40, i * 0.25f, new BigDecimal(i).movePointLeft(2),
+            (short) -i, (byte) i);
+    }
+
+
+    /**
+     * Tests that schemas and tuples are decoded to equal objects, including
+     * <tt>NULL</tt>s and values that aren't of their column's type.
+     */
+    public void testCodecRoundTrip() throws IOException {
+        Schema schema = makeSchema();
+
+        ArrayList<TupleLiteral> tuples = new ArrayList<>();
+        tuples.add(makeTuple(0));
+        tuples.add(makeTuple(12345));
+        tuples.add(new TupleLiteral(null, null, null, null, null, null,
+            null, null));
+        tuples.add(new TupleLiteral(Long.MAX_VALUE, 17, Boolean.TRUE,
+            Integer.MIN_VALUE, 2.5, new FilePointer(3, 4), null,
+            new ArrayList<>()));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        TupleCodec.writeSchema(schema, out);
+        for (TupleLiteral tuple : tuples)
+            TupleCodec.writeTuple(schema, tuple, out);
+
+        DataInputStream in = new DataInputStream(
+            new ByteArrayInputStream(bytes.toByteArray()));
+        Schema schema2 = TupleCodec.readSchema(in);
+        checkSchema(schema2);
+
+        for (TupleLiteral tuple : tuples) {
+            TupleLiteral tuple2 = TupleCodec.readTuple(schema2, in);
+            assert tuple2.equals(tuple) : "Expected " + tuple + ", got " + tuple2;
+        }
+        assert in.available() == 0;
+    }
+
+
+    /**
+     * Tests the encoding of integers, which must be compact for small values
+     * of either sign.
+     */
+    public void testVarLong() throws IOException {
+        long[] values = { 0, 1, -1, 63, -64, 64, 1000, -1000,
+            Integer.MAX_VALUE, Integer.MIN_VALUE, Long.MAX_VALUE, Long.MIN_VALUE };
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (long v : values)
+            TupleCodec.writeVarLong(v, out);
+
+        DataInputStream in = new DataInputStream(
+            new ByteArrayInputStream(bytes.toByteArray()));
+        for (long v : values)
+            assert TupleCodec.readVarLong(in) == v;
+
+        bytes.reset();
+        TupleCodec.writeVarLong(-64, out);
+        assert bytes.size() == 1;
+    }
+
+
+    /**
+     * Answers each command received over a channel with a schema, the test
+     * tuples, some text and the end of the command, until the client
+     * disconnects.
+     */
+    private static void serve(MessageChannel channel) throws IOException {
+        try {
+            while (true) {
+                String command = (String) channel.receive();
+
+                channel.send(makeSchema());
+                for (int i = 0; i < NUM_TUPLES; i++)
+                    channel.send(makeTuple(i));
+
+                channel.send("done: " + command);
+                channel.send(CommandState.COMMAND_COMPLETED);
+                channel.flush();
+            }
+        }
+        catch (IOException e) {
+            // The client disconnected.
+        }
+        finally {
+            channel.close();
+        }
+    }
+
+
+    /**
+     * Sends a command to a test server, and checks the messages that come
+     * back.
+     */
+    private static void checkCommand(MessageChannel channel) throws IOException {
+        channel.send("SELECT 1;");
+        channel.flush();
+
+        Object obj = channel.receive();
+        assert obj instanceof Schema;
+        checkSchema((Schema) obj);
+
+        for (int i = 0; i < NUM_TUPLES; i++) {
+            obj = channel.receive();
+            assert makeTuple(i).equals(obj) : "Expected tuple " + i + ", got " + obj;
+        }
+
+        assert "done: SELECT 1;".equals(channel.receive());
+        assert channel.receive() == CommandState.COMMAND_COMPLETED;
+    }
+
+
+    /**
+     * Starts a server thread that negotiates the protocol with each client
+     * that connects.
+     */
+    private static Thread startServer(ServerSocket serverSocket, int clients) {
+        Thread t = new Thread(() -> {
+            try {
+                for (int i = 0; i < clients; i++) {
+                    Socket sock = serverSocket.accept();
+                    serve(WireProtocol.acceptConnection(sock));
+                }
+            }
+            catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+        t.start();
+        return t;
+    }
+
+
+    /**
+     * Tests that a client and server that support the binary protocol use
+     * it, and that a client that asks for serialization gets it.
+     */
+    public void testNegotiation() throws Exception {
+        try (ServerSocket serverSocket = new ServerSocket(0)) {
+            Thread server = startServer(serverSocket, 2);
+
+            MessageChannel channel =
+                WireProtocol.connect("localhost", serverSocket.getLocalPort(), true);
+            assert channel.isBinary();
+            checkCommand(channel);
+            checkCommand(channel);
+            channel.close();
+
+            channel = WireProtocol.connect("localhost",
+                serverSocket.getLocalPort(), false);
+            assert !channel.isBinary();
+            checkCommand(channel);
+            channel.close();
+
+            server.join(10000);
+            assert !server.isAlive();
+        }
+    }
+
+
+    /**
+     * Tests that a client that supports the binary protocol falls back to
+     * serialization with a server that only supports serialization.
+     */
+    public void testFallbackToSerialization() throws Exception {
+        try (ServerSocket serverSocket = new ServerSocket(0)) {
+            List<String> received = new ArrayList<>();
+
+            // This server behaves like one that only knows serialization:
+            // it sends its stream header right away, and fails when the
+            // client's stream doesn't start with one.
+            Thread server = new Thread(() -> {
+                try {
+                    Socket sock = serverSocket.accept();
+                    new ObjectOutputStream(sock.getOutputStream());
+                    try {
+                        new ObjectInputStream(sock.getInputStream());
+                    }
+                    catch (IOException e) {
+                        sock.close();
+                    }
+
+                    sock = serverSocket.accept();
+                    ObjectOutputStream out =
+                        new ObjectOutputStream(sock.getOutputStream());
+                    ObjectInputStream in =
+                        new ObjectInputStream(sock.getInputStream());
+
+                    received.add((String) in.readObject());
+                    out.writeObject(CommandState.COMMAND_COMPLETED);
+                    out.flush();
+                    sock.close();
+                }
+                catch (Exception e) {
+                    e.printStackTrace();
+                }
+            });
+            server.start();
+
+            MessageChannel channel =
+                WireProtocol.connect("localhost", serverSocket.getLocalPort(), true);
+            assert !channel.isBinary();
+
+            channel.send("SELECT 1;");
+            channel.flush();
+            assert channel.receive() == CommandState.COMMAND_COMPLETED;
+            channel.close();
+
+            server.join(10000);
+            assert received.size() == 1 && received.get(0).equals("SELECT 1;");
+        }
+    }
+}
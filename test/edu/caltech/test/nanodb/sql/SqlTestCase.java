@@ -415,6 +415,33 @@ public class SqlTestCase {
     }
 
 
+    /**
+     * This helper function fills a test table of the form
+     * <tt>(a INTEGER, b VARCHAR, c INTEGER)</tt> with numbered rows.  Row
+     * <em>i</em> has <tt>a = i</tt>,
+     * <tt>b = groupPrefix || (i % numGroups)</tt>, and <tt>c = i % 100</tt>,
+     * except that <tt>c</tt> is <tt>NULL</tt> when <em>i</em> is a multiple
+     * of 10.
+     *
+     * @param tableName the name of the table to fill.
+     * @param numRows the number of rows to insert.
+     * @param groupPrefix the prefix of every value in column <tt>b</tt>.
+     * @param numGroups the number of distinct values in column <tt>b</tt>.
+     *
+     * @throws Exception if any of the inserts fails.
+     */
+    protected void insertNumberedRows(String tableName, int numRows,
+        String groupPrefix, int numGroups) throws Exception {
+
+        for (int i = 0; i < numRows; i++) {
+            String c = (i % 10 == 0) ? "NULL" : Integer.toString(i % 100);
+            tryDoCommand(String.format(
+                "INSERT INTO %s VALUES (%d, '%s%d', %s);",
+                tableName, i, groupPrefix, i % numGroups, c));
+        }
+    }
+
+
     /**
      * This helper function takes in an <tt>int</tt> value, and returns a
      * TupleLiteral containing just that <tt>int</tt> as a value. This is
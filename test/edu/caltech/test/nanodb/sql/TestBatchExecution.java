@@ -0,0 +1,132 @@
+package edu.caltech.test.nanodb.sql;
+
+
+import java.util.ArrayList;
+
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import edu.caltech.nanodb.expressions.TupleLiteral;
+import edu.caltech.nanodb.relations.TupleBatch;
+import edu.caltech.nanodb.server.CommandResult;
+
+
+/**
+ * This class exercises queries whose results are produced in batches of
+ * tuples, over a table large enough to need several batches.
+ */
+@Test
+public class TestBatchExecution extends SqlTestCase {
+
+    /** The number of rows in the test table. */
+    private static final int NUM_ROWS = 3 * TupleBatch.DEFAULT_CAPACITY - 17;
+
+
+    public TestBatchExecution() {
+        super("setup_testBatchExecution");
+    }
+
+
+    /**
+     * Fills the test table with {@link #NUM_ROWS} rows in 7 groups named
+     * <tt>'v<em>k</em>'</tt>.
+     *
+     * @see #insertNumberedRows
+     */
+    @BeforeClass(dependsOnMethods = "beforeClass")
+    public void fillTable() throws Exception {
+        insertNumberedRows("test_batch", NUM_ROWS, "v", 7);
+    }
+
+
+    /**
+     * This test runs a scan with no predicate, which must return every row.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testFullScan() throws Throwable {
+        CommandResult result = tryDoCommand("SELECT a FROM test_batch", true);
+
+        TupleLiteral[] expected = new TupleLiteral[NUM_ROWS];
+        for (int i = 0; i < NUM_ROWS; i++)
+            expected[i] = new TupleLiteral((Object) i);
+
+        assert checkUnorderedResults(expected, result);
+    }
+
+
+    /**
+     * This test filters the table with a conjunction of column comparisons
+     * and an <tt>IS NOT NULL</tt> test, and also an <tt>OR</tt>.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testFilters() throws Throwable {
+        ArrayList<TupleLiteral> expected = new ArrayList<>();
+        for (int i = 0; i < NUM_ROWS; i++) {
+            if (i >= 1000 && i < 2500 && i % 10 != 0 && i % 100 > 50)
+                expected.add(new TupleLiteral(i, i % 100));
+        }
+
+        CommandResult result = tryDoCommand("SELECT a, c FROM test_batch " +
+            "WHERE a >= 1000 AND a < 2500 AND c IS NOT NULL AND c > 50", true);
+        assert checkUnorderedResults(expected.toArray(new TupleLiteral[0]),
+            result);
+
+        result = tryDoCommand("SELECT a FROM test_batch " +
+            "WHERE a < 2 OR a > " + (NUM_ROWS - 3), true);
+        assert checkUnorderedResults(new TupleLiteral[] {
+            new TupleLiteral((Object) 0),
+            new TupleLiteral((Object) 1),
+            new TupleLiteral((Object) (NUM_ROWS - 2)),
+            new TupleLiteral((Object) (NUM_ROWS - 1))
+        }, result);
+    }
+
+
+    /**
+     * This test projects computed values, including a wildcard, over a
+     * filtered scan.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testProjection() throws Throwable {
+        CommandResult result = tryDoCommand("SELECT a * 2, *, b AS b2 " +
+            "FROM test_batch WHERE a % 1000 = 999", true);
+
+        assert checkUnorderedResults(new TupleLiteral[] {
+            new TupleLiteral(1998, 999, "v5", 99, "v5"),
+            new TupleLiteral(3998, 1999, "v4", 99, "v4"),
+            new TupleLiteral(5998, 2999, "v3", 99, "v3")
+        }, result);
+    }
+
+
+    /**
+     * This test computes grouped aggregates over the whole table.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testGroupedAggregates() throws Throwable {
+        TupleLiteral[] expected = new TupleLiteral[7];
+        for (int k = 0; k < 7; k++) {
+            int count = 0;
+            int max = 0;
+            for (int i = k; i < NUM_ROWS; i += 7) {
+                count++;
+                max = i;
+            }
+            expected[k] = new TupleLiteral("v" + k, count, k, max);
+        }
+
+        CommandResult result = tryDoCommand("SELECT b, COUNT(a), MIN(a), " +
+            "MAX(a) FROM test_batch GROUP BY b", true);
+        assert checkUnorderedResults(expected, result);
+
+        result = tryDoCommand("SELECT COUNT(c) FROM test_batch WHERE a < 100",
+            true);
+        assert checkUnorderedResults(new TupleLiteral[] {
+            new TupleLiteral((Object) 90)
+        }, result);
+    }
+}
@@ -0,0 +1,191 @@
+package edu.caltech.test.nanodb.sql;
+
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+import edu.caltech.nanodb.expressions.TupleLiteral;
+import edu.caltech.nanodb.server.CommandResult;
+import edu.caltech.nanodb.server.performance.PerformanceCounters;
+
+
+/**
+ * This class exercises tables created with the columnar storage format,
+ * including tables with enough rows to fill several row groups.
+ */
+@Test
+public class TestColumnarTables extends SqlTestCase {
+
+    /** The number of rows inserted into the larger test tables. */
+    private static final int NUM_ROWS = 2500;
+
+
+    public TestColumnarTables() {
+        super("setup_testColumnarTables");
+    }
+
+
+    /** Returns the value that the test tables store in column b of row i. */
+    private static Integer valueB(int i) {
+        return (i % 7 == 0) ? null : i * 2;
+    }
+
+
+    /** Returns the value that the test tables store in column c of row i. */
+    private static String valueC(int i) {
+        return "c" + (i % 5);
+    }
+
+
+    /**
+     * Inserts <tt>NUM_ROWS</tt> rows into the specified table, several
+     * hundred rows at a time.  Column a holds the row number, column b holds
+     * twice the row number or <tt>NULL</tt>, and column c holds one of a few
+     * strings.
+     */
+    private void insertRows(String tableName) throws Exception {
+        for (int start = 0; start < NUM_ROWS; start += 700) {
+            StringBuilder buf = new StringBuilder("INSERT INTO ");
+            buf.append(tableName).append(" VALUES ");
+            for (int i = start; i < Math.min(start + 700, NUM_ROWS); i++) {
+                if (i > start)
+                    buf.append(", ");
+                buf.append(String.format("(%d, %s, '%s')", i, valueB(i),
+                    valueC(i)));
+            }
+            tryDoCommand(buf.toString());
+        }
+    }
+
+
+    /**
+     * This test inserts enough rows to seal several row groups, and makes
+     * sure that every row reads back with the values it was inserted with.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testInsertAndScan() throws Throwable {
+        insertRows("test_columnar_scan");
+
+        TupleLiteral[] expected = new TupleLiteral[NUM_ROWS];
+        for (int i = 0; i < NUM_ROWS; i++)
+            expected[i] = new TupleLiteral(i, valueB(i), valueC(i));
+
+        CommandResult result =
+            tryDoCommand("SELECT * FROM test_columnar_scan", true);
+        assert checkOrderedResults(expected, result);
+
+        List<TupleLiteral> counts = getResultTuples(
+            "SELECT COUNT(*), COUNT(b) FROM test_columnar_scan");
+        TupleLiteral counted = counts.get(0);
+        assert ((Number) counted.getColumnValue(0)).intValue() == NUM_ROWS;
+        assert ((Number) counted.getColumnValue(1)).intValue() ==
+            NUM_ROWS - (NUM_ROWS + 6) / 7;
+    }
+
+
+    /**
+     * This test makes sure that a query with a selective predicate skips the
+     * row groups that can't hold any matching rows, and that projecting some
+     * of the columns returns the right values.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testProjectionAndPruning() throws Throwable {
+        insertRows("test_columnar_prune");
+
+        long skipped = PerformanceCounters.get(
+            PerformanceCounters.COLUMNAR_ROW_GROUPS_SKIPPED);
+
+        CommandResult result = tryDoCommand(
+            "SELECT a, c FROM test_columnar_prune WHERE a >= 2497", true);
+        assert checkUnorderedResults(new TupleLiteral[] {
+            new TupleLiteral(2497, valueC(2497)),
+            new TupleLiteral(2498, valueC(2498)),
+            new TupleLiteral(2499, valueC(2499))
+        }, result);
+
+        // The first two row groups are sealed, and can't hold a >= 2497.
+        assert PerformanceCounters.get(
+            PerformanceCounters.COLUMNAR_ROW_GROUPS_SKIPPED) - skipped == 2;
+
+        result = tryDoCommand("SELECT b FROM test_columnar_prune " +
+            "WHERE 10 > a AND c = 'c3'", true);
+        assert checkUnorderedResults(new TupleLiteral[] {
+            new TupleLiteral((Object) 6),
+            new TupleLiteral((Object) 16)
+        }, result);
+    }
+
+
+    /**
+     * This test makes sure that values of all supported types, including
+     * <tt>NULL</tt>s and strings of different lengths, survive being sealed
+     * into an encoded row group.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testTypesAndNulls() throws Throwable {
+        List<TupleLiteral> expected = new ArrayList<>();
+        StringBuilder buf =
+            new StringBuilder("INSERT INTO test_columnar_types VALUES ");
+        for (int i = 0; i < 1100; i++) {
+            if (i > 0)
+                buf.append(", ");
+
+            // A run of NULLs, then a constant, then a short repeating cycle.
+            Integer t = (i < 300) ? null : ((i < 600) ? 5 : i % 3);
+            Long l = 1000000L * i;
+            Double d = (i % 2 == 0) ? null : i / 4.0;
+            String s = (i % 11 == 0) ? "" : "value" + (i % 4);
+
+            buf.append(String.format("(%d, %s, %d, %s, '%s')", i, t, l, d, s));
+            expected.add(new TupleLiteral(i, t, l, d, s));
+        }
+        tryDoCommand(buf.toString());
+
+        CommandResult result = tryDoCommand(
+            "SELECT * FROM test_columnar_types WHERE id >= 0", true);
+        assert checkOrderedResults(expected.toArray(new TupleLiteral[0]),
+            result);
+
+        result = tryDoCommand("SELECT id FROM test_columnar_types " +
+            "WHERE t = 5 AND id < 302", true);
+        assert checkUnorderedResults(new TupleLiteral[] {
+            new TupleLiteral((Object) 300),
+            new TupleLiteral((Object) 301)
+        }, result);
+
+        tryDoCommand("ANALYZE test_columnar_types");
+    }
+
+
+    /**
+     * This test makes sure that the operations columnar tables don't
+     * support are reported as errors, and don't change the table.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testUnsupportedOperations() throws Throwable {
+        tryDoCommand("INSERT INTO test_columnar_small VALUES (1, 'one')");
+
+        assert server.doCommand(
+            "DELETE FROM test_columnar_small WHERE a = 1", false).failed();
+        assert server.doCommand(
+            "UPDATE test_columnar_small SET b = 'uno'", false).failed();
+        assert server.doCommand(
+            "CREATE INDEX idx_columnar_small ON test_columnar_small (a)",
+            false).failed();
+        assert server.doCommand(
+            "CREATE TABLE test_columnar_keys (a INTEGER PRIMARY KEY) " +
+            "PROPERTIES (storage = 'columnar')", false).failed();
+
+        CommandResult result =
+            tryDoCommand("SELECT * FROM test_columnar_small", true);
+        assert checkUnorderedResults(new TupleLiteral[] {
+            new TupleLiteral(1, "one")
+        }, result);
+    }
+}
@@ -0,0 +1,143 @@
+package edu.caltech.test.nanodb.sql;
+
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntPredicate;
+
+import org.testng.annotations.Test;
+
+import edu.caltech.nanodb.expressions.TupleLiteral;
+import edu.caltech.nanodb.server.CommandResult;
+import edu.caltech.nanodb.server.performance.PerformanceCounters;
+
+
+/**
+ * This class exercises tables whose files are compressed, including a heap
+ * table with an index and a B<sup>+</sup> tree table.
+ */
+@Test
+public class TestCompressedTables extends SqlTestCase {
+
+    /** The number of rows inserted into the test tables. */
+    private static final int NUM_ROWS = 1500;
+
+
+    public TestCompressedTables() {
+        super("setup_testCompressedTables");
+    }
+
+
+    /** Returns the value that the test tables store in column b of row i. */
+    private static String valueB(int i) {
+        return "compressed row " + (i % 10);
+    }
+
+
+    /**
+     * Inserts <tt>NUM_ROWS</tt> rows into the specified table, several
+     * hundred rows at a time, in an order that isn't sorted.
+     */
+    private void insertRows(String tableName) throws Exception {
+        for (int start = 0; start < NUM_ROWS; start += 500) {
+            StringBuilder buf = new StringBuilder("INSERT INTO ");
+            buf.append(tableName).append(" VALUES ");
+            for (int i = start; i < start + 500; i++) {
+                int a = (i * 7) % NUM_ROWS;
+                if (i > start)
+                    buf.append(", ");
+                buf.append(String.format("(%d, '%s')", a, valueB(a)));
+            }
+            tryDoCommand(buf.toString());
+        }
+    }
+
+
+    /**
+     * Checks that the table holds exactly the rows whose value of column a
+     * satisfies the filter.
+     */
+    private void checkRows(String tableName, IntPredicate filter)
+        throws Throwable {
+        List<TupleLiteral> expected = new ArrayList<>();
+        for (int i = 0; i < NUM_ROWS; i++) {
+            if (filter.test(i))
+                expected.add(new TupleLiteral(i, valueB(i)));
+        }
+
+        CommandResult result = tryDoCommand("SELECT * FROM " + tableName, true);
+        assert checkUnorderedResults(expected.toArray(new TupleLiteral[0]),
+            result);
+    }
+
+
+    /**
+     * This test fills a compressed heap table, makes sure that the writes
+     * were compressed, and that the rows read back correctly, also through
+     * the table's index.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testHeapTable() throws Throwable {
+        long bytesIn = PerformanceCounters.get(
+            PerformanceCounters.STORAGE_COMPRESSION_BYTES_IN);
+
+        insertRows("test_compressed_heap");
+        tryDoCommand("FLUSH");
+
+        long compressedIn = PerformanceCounters.get(
+            PerformanceCounters.STORAGE_COMPRESSION_BYTES_IN) - bytesIn;
+        assert compressedIn > 0;
+
+        checkRows("test_compressed_heap", i -> true);
+
+        CommandResult result = tryDoCommand(
+            "SELECT * FROM test_compressed_heap WHERE a = 1234", true);
+        assert checkUnorderedResults(new TupleLiteral[] {
+            new TupleLiteral(1234, valueB(1234))
+        }, result);
+
+        tryDoCommand("DELETE FROM test_compressed_heap WHERE a % 3 = 0");
+        tryDoCommand("FLUSH");
+
+        checkRows("test_compressed_heap", i -> i % 3 != 0);
+    }
+
+
+    /**
+     * This test fills a compressed B<sup>+</sup> tree table, which splits
+     * many of its pages, and makes sure that the rows read back in order.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testBTreeTable() throws Throwable {
+        insertRows("test_compressed_btree");
+        tryDoCommand("FLUSH");
+
+        TupleLiteral[] expected = new TupleLiteral[NUM_ROWS];
+        for (int i = 0; i < NUM_ROWS; i++)
+            expected[i] = new TupleLiteral(i, valueB(i));
+
+        CommandResult result =
+            tryDoCommand("SELECT * FROM test_compressed_btree", true);
+        assert checkOrderedResults(expected, result);
+
+        tryDoCommand("DELETE FROM test_compressed_btree WHERE a < 1000");
+        tryDoCommand("FLUSH");
+
+        checkRows("test_compressed_btree", i -> i >= 1000);
+    }
+
+
+    /**
+     * This test makes sure that an unknown compression type is reported as
+     * an error.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testUnknownCompression() throws Throwable {
+        assert server.doCommand(
+            "CREATE TABLE test_compressed_bad (a INTEGER) " +
+            "PROPERTIES (compression = 'zip')", false).failed();
+    }
+}
@@ -0,0 +1,172 @@
+package edu.caltech.test.nanodb.sql;
+
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.HashSet;
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+import edu.caltech.nanodb.commands.ExecutionException;
+import edu.caltech.nanodb.expressions.TupleLiteral;
+import edu.caltech.nanodb.server.CommandResult;
+
+
+/**
+ * This class exercises the <tt>COPY</tt> command, which bulk-loads the rows
+ * of a CSV file into a table.
+ */
+@Test
+public class TestCopy extends SqlTestCase {
+
+    public TestCopy() {
+        super("setup_testCopy");
+    }
+
+
+    /** Writes the specified lines to a temporary CSV file. */
+    private static String writeCsvFile(String... lines) throws IOException {
+        File file = File.createTempFile("test_copy", ".csv");
+        file.deleteOnExit();
+
+        try (PrintWriter writer = new PrintWriter(file)) {
+            for (String line : lines)
+                writer.println(line);
+        }
+        return file.getAbsolutePath();
+    }
+
+
+    /**
+     * This test loads a small file with a header line, quoted fields and
+     * empty fields, and makes sure the values are converted to the types of
+     * the table's columns.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testCopy() throws Throwable {
+        String path = writeCsvFile(
+            "a,b,c",
+            "1,one,1.5",
+            "2,\"two, or \"\"deux\"\"\",2.5",
+            "3,,",
+            "4,\"\",-4");
+
+        tryDoCommand("COPY test_copy FROM '" + path + "' HEADER");
+
+        CommandResult result = tryDoCommand("SELECT * FROM test_copy", true);
+        assert checkUnorderedResults(new TupleLiteral[] {
+            new TupleLiteral(1, "one", 1.5),
+            new TupleLiteral(2, "two, or \"deux\"", 2.5),
+            new TupleLiteral(3, null, null),
+            new TupleLiteral(4, "", -4.0)
+        }, result);
+    }
+
+
+    /**
+     * This test loads a file with another delimiter.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testCopyDelimiter() throws Throwable {
+        String path = writeCsvFile("10|ten", "20|twenty,ish");
+
+        tryDoCommand("COPY test_copy_keys FROM '" + path + "' DELIMITER '|'");
+
+        CommandResult result =
+            tryDoCommand("SELECT * FROM test_copy_keys", true);
+        assert checkUnorderedResults(new TupleLiteral[] {
+            new TupleLiteral(10, "ten"),
+            new TupleLiteral(20, "twenty,ish")
+        }, result);
+    }
+
+
+    /**
+     * This test loads enough rows to fill many pages and batches, after a
+     * row that was inserted normally, and makes sure every row is stored
+     * once and that the table can still be inserted into afterward.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testCopyManyRows() throws Throwable {
+        final int numRows = 5000;
+
+        StringBuilder filler = new StringBuilder();
+        for (int i = 0; i < 100; i++)
+            filler.append('x');
+
+        String[] lines = new String[numRows];
+        for (int i = 0; i < numRows; i++)
+            lines[i] = i + "," + filler;
+
+        tryDoCommand("COPY test_copy_big FROM '" + writeCsvFile(lines) + "'");
+        tryDoCommand("INSERT INTO test_copy_big VALUES (" + numRows +
+            ", 'inserted')");
+
+        HashSet<Integer> seen = new HashSet<>();
+        for (TupleLiteral tuple : getResultTuples("SELECT a FROM test_copy_big"))
+            assert seen.add((Integer) tuple.getColumnValue(0));
+
+        assert seen.size() == numRows + 2;
+        for (int i = -1; i <= numRows; i++)
+            assert seen.contains(i);
+
+        List<TupleLiteral> tuples = getResultTuples(
+            "SELECT b FROM test_copy_big WHERE a = 1234");
+        assert tuples.size() == 1;
+        assert tuples.get(0).getColumnValue(0).equals(filler.toString());
+    }
+
+
+    /**
+     * This test makes sure that NOT NULL constraints are enforced on the
+     * loaded rows.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testCopyNotNull() throws Throwable {
+        String path = writeCsvFile("1,one", ",two");
+        CommandResult result = server.doCommand(
+            "COPY test_copy_errors FROM '" + path + "'", false);
+
+        assert result.failed();
+        assert getResultTuples("SELECT * FROM test_copy_errors").isEmpty();
+    }
+
+
+    /**
+     * This test makes sure that a value that doesn't match its column's type
+     * is reported.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    @Test(expectedExceptions=ExecutionException.class)
+    public void testCopyBadValue() throws Throwable {
+        String path = writeCsvFile("1,one", "two,2");
+        try {
+            tryDoCommand("COPY test_copy_errors FROM '" + path + "'");
+        }
+        finally {
+            assert getResultTuples("SELECT * FROM test_copy_errors").isEmpty();
+        }
+    }
+
+
+    /**
+     * This test makes sure that rows with the same key are rejected even
+     * when they are loaded in the same batch.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testCopyDuplicateKey() throws Throwable {
+        String path = writeCsvFile("100,first", "101,second", "100,third");
+        CommandResult result = server.doCommand(
+            "COPY test_copy_keys FROM '" + path + "'", false);
+
+        assert result.failed();
+    }
+}
@@ -0,0 +1,195 @@
+package edu.caltech.test.nanodb.sql;
+
+
+import java.util.HashSet;
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+import edu.caltech.nanodb.commands.ExecutionException;
+import edu.caltech.nanodb.expressions.TupleLiteral;
+import edu.caltech.nanodb.server.CommandResult;
+
+
+/**
+ * This class exercises the <tt>DECLARE</tt>, <tt>FETCH</tt> and
+ * <tt>CLOSE</tt> commands, which retrieve the results of a query a few
+ * tuples at a time.
+ */
+@Test
+public class TestCursors extends SqlTestCase {
+
+    public TestCursors() {
+        super("setup_testCursors");
+    }
+
+
+    /**
+     * This test fetches the results of a query in several pieces, and makes
+     * sure that each fetch continues where the last one stopped.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testFetch() throws Throwable {
+        tryDoCommand("DECLARE c1 CURSOR FOR " +
+            "SELECT a, b FROM test_cursors WHERE a > 1");
+
+        CommandResult result = tryDoCommand("FETCH 2 FROM c1", true);
+        assert checkOrderedResults(new TupleLiteral[] {
+            new TupleLiteral(2, "two"),
+            new TupleLiteral(3, "three")
+        }, result);
+
+        result = tryDoCommand("FETCH c1", true);
+        assert checkOrderedResults(new TupleLiteral[] {
+            new TupleLiteral(4, "four")
+        }, result);
+
+        result = tryDoCommand("FETCH ALL IN c1", true);
+        assert result.getTuples().isEmpty();
+
+        tryDoCommand("CLOSE c1");
+    }
+
+
+    /**
+     * This test fetches a large result in batches, running other commands
+     * between the fetches, and makes sure every row is produced once.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testFetchInBatches() throws Throwable {
+        final int numRows = 2000;
+        final int batchSize = 150;
+
+        // Make the rows wide enough that the table spans many pages.
+        StringBuilder filler = new StringBuilder();
+        for (int i = 0; i < 150; i++)
+            filler.append('x');
+
+        for (int i = 0; i < numRows; i++) {
+            tryDoCommand(String.format(
+                "INSERT INTO test_cursors_big VALUES (%d, '%s')", i, filler));
+        }
+
+        tryDoCommand("DECLARE big CURSOR FOR SELECT a FROM test_cursors_big");
+
+        HashSet<Integer> seen = new HashSet<>();
+        while (true) {
+            List<TupleLiteral> tuples =
+                getResultTuples("FETCH " + batchSize + " FROM big");
+            assert tuples.size() <= batchSize;
+
+            for (TupleLiteral tuple : tuples)
+                assert seen.add((Integer) tuple.getColumnValue(0));
+
+            if (tuples.size() < batchSize)
+                break;
+
+            // Other commands can run while the cursor is suspended.
+            List<TupleLiteral> counts =
+                getResultTuples("SELECT COUNT(*) FROM test_cursors");
+            assert ((Number) counts.get(0).getColumnValue(0)).intValue() == 4;
+        }
+        assert seen.size() == numRows;
+
+        tryDoCommand("CLOSE big");
+    }
+
+
+    /**
+     * This test flushes the buffer manager between fetches, so that the
+     * pages holding the tuples a suspended plan last produced are evicted,
+     * and makes sure that a scan and a join both continue correctly.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testFetchAfterEviction() throws Throwable {
+        final int numRows = 500;
+        final int batchSize = 7;
+
+        StringBuilder filler = new StringBuilder();
+        for (int i = 0; i < 150; i++)
+            filler.append('x');
+
+        StringBuilder insert =
+            new StringBuilder("INSERT INTO test_cursors_evict VALUES ");
+        for (int i = 0; i < numRows; i++) {
+            if (i > 0)
+                insert.append(", ");
+            insert.append(String.format("(%d, '%s')", i, filler));
+        }
+        tryDoCommand(insert.toString());
+
+        tryDoCommand("DECLARE scan CURSOR FOR " +
+            "SELECT a FROM test_cursors_evict");
+        tryDoCommand("DECLARE joined CURSOR FOR " +
+            "SELECT e.a, c.b FROM test_cursors_evict e, test_cursors c " +
+            "WHERE c.a <= 2");
+
+        HashSet<Integer> seenScan = new HashSet<>();
+        HashSet<String> seenJoined = new HashSet<>();
+        boolean scanDone = false;
+        boolean joinedDone = false;
+        while (!scanDone || !joinedDone) {
+            if (!scanDone) {
+                List<TupleLiteral> tuples =
+                    getResultTuples("FETCH " + batchSize + " FROM scan");
+                for (TupleLiteral tuple : tuples)
+                    assert seenScan.add((Integer) tuple.getColumnValue(0));
+
+                scanDone = (tuples.size() < batchSize);
+            }
+
+            if (!joinedDone) {
+                List<TupleLiteral> tuples =
+                    getResultTuples("FETCH " + batchSize + " FROM joined");
+                for (TupleLiteral tuple : tuples) {
+                    assert seenJoined.add(tuple.getColumnValue(0) + ":" +
+                        tuple.getColumnValue(1));
+                }
+
+                joinedDone = (tuples.size() < batchSize);
+            }
+
+            // Evict every page, including those of the cursors' tuples.
+            tryDoCommand("FLUSH");
+        }
+        assert seenScan.size() == numRows;
+        assert seenJoined.size() == 2 * numRows;
+
+        tryDoCommand("CLOSE scan");
+        tryDoCommand("CLOSE joined");
+    }
+
+
+    /**
+     * This test makes sure that a cursor can't be used after it is closed.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    @Test(expectedExceptions=ExecutionException.class)
+    public void testFetchAfterClose() throws Throwable {
+        tryDoCommand("DECLARE c2 CURSOR FOR SELECT * FROM test_cursors");
+        tryDoCommand("FETCH 1 FROM c2");
+        tryDoCommand("CLOSE c2");
+        tryDoCommand("FETCH 1 FROM c2");
+    }
+
+
+    /**
+     * This test makes sure that two cursors can't have the same name.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    @Test(expectedExceptions=ExecutionException.class)
+    public void testDuplicateCursor() throws Throwable {
+        tryDoCommand("DECLARE c3 CURSOR FOR SELECT * FROM test_cursors");
+        try {
+            tryDoCommand("DECLARE c3 CURSOR FOR SELECT a FROM test_cursors");
+        }
+        finally {
+            tryDoCommand("CLOSE c3");
+        }
+    }
+}
@@ -89,4 +89,109 @@ public class TestInPredicates extends SqlTestCase {
         assert checkSizeResults(expected2, result);
         assert checkUnorderedResults(expected2, result);
     }
+
+
+    /**
+     * This method tests <tt>IN</tt> lists with many values, with values of
+     * different numeric types, and with <tt>NULL</tt>s.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testInValuesSet() throws Throwable {
+        CommandResult result;
+
+        StringBuilder buf = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            if (i > 0)
+                buf.append(", ");
+            buf.append(i * 3);
+        }
+
+        result = server.doCommand("SELECT a FROM test_exists_1 WHERE " +
+            "a IN (" + buf + ")", true);
+        assert checkUnorderedResults(new TupleLiteral[] {
+            createTupleFromNum(3)
+        }, result);
+
+        result = server.doCommand("SELECT a FROM test_exists_1 WHERE " +
+            "a IN (2.0, 4.5, 1 + 3)", true);
+        assert checkUnorderedResults(new TupleLiteral[] {
+            createTupleFromNum(2),
+            createTupleFromNum(4)
+        }, result);
+
+        result = server.doCommand("SELECT a FROM test_exists_1 WHERE " +
+            "a IN (NULL, 1)", true);
+        assert checkUnorderedResults(new TupleLiteral[] {
+            createTupleFromNum(1)
+        }, result);
+    }
+
+
+    /**
+     * This method tests that an uncorrelated <tt>IN</tt> subquery that is
+     * evaluated for each row sees changes to its table when a cached plan
+     * is executed again.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testInSubqueryReexecuted() throws Throwable {
+        tryDoCommand("CREATE TABLE test_in_values ( v INTEGER );");
+        tryDoCommand("INSERT INTO test_in_values VALUES (10);");
+
+        // The OR keeps the subquery from being turned into a semijoin.
+        String query = "SELECT a FROM test_exists_1 WHERE " +
+            "a * 10 IN (SELECT v FROM test_in_values) OR a = 4";
+
+        CommandResult result = tryDoCommand(query, true);
+        assert checkUnorderedResults(new TupleLiteral[] {
+            createTupleFromNum(1),
+            createTupleFromNum(4)
+        }, result);
+
+        tryDoCommand("INSERT INTO test_in_values VALUES (20);");
+
+        result = tryDoCommand(query, true);
+        assert checkUnorderedResults(new TupleLiteral[] {
+            createTupleFromNum(1),
+            createTupleFromNum(2),
+            createTupleFromNum(4)
+        }, result);
+
+        tryDoCommand("DROP TABLE test_in_values;");
+    }
+
+
+    /**
+     * This method tests that an uncorrelated <tt>IN</tt> subquery of a
+     * cursor's query keeps using the results it computed when the cursor
+     * was opened, even when other queries run between fetches.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testInSubqueryCursor() throws Throwable {
+        tryDoCommand("CREATE TABLE test_in_cursor ( v INTEGER );");
+        tryDoCommand("INSERT INTO test_in_cursor VALUES (10);");
+
+        // The OR keeps the subquery from being turned into a semijoin.
+        tryDoCommand("DECLARE c1 CURSOR FOR SELECT a FROM test_exists_1 " +
+            "WHERE a * 10 IN (SELECT v FROM test_in_cursor) OR a = 4");
+
+        CommandResult result = tryDoCommand("FETCH c1", true);
+        assert checkOrderedResults(new TupleLiteral[] {
+            createTupleFromNum(1)
+        }, result);
+
+        tryDoCommand("INSERT INTO test_in_cursor VALUES (20);");
+        tryDoCommand("INSERT INTO test_in_cursor VALUES (30);");
+        tryDoCommand("SELECT * FROM test_in_cursor;");
+
+        result = tryDoCommand("FETCH ALL IN c1", true);
+        assert checkOrderedResults(new TupleLiteral[] {
+            createTupleFromNum(4)
+        }, result);
+
+        tryDoCommand("CLOSE c1");
+        tryDoCommand("DROP TABLE test_in_cursor;");
+    }
 }
@@ -0,0 +1,129 @@
+package edu.caltech.test.nanodb.sql;
+
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import edu.caltech.nanodb.expressions.TupleLiteral;
+import edu.caltech.nanodb.queryeval.CostBasedJoinPlanner;
+import edu.caltech.nanodb.server.CommandResult;
+
+
+/**
+ * This class exercises the join planner with queries that join several
+ * tables, to see if the join orders it chooses produce the expected results
+ * with both the exhaustive and the greedy join enumerators.
+ */
+@Test
+public class TestJoinOrdering extends SqlTestCase {
+
+    /** A four-table chain join, connected by its <tt>WHERE</tt> clause. */
+    private static final String CHAIN_JOIN_QUERY =
+        "SELECT test_join_order_t1.a, test_join_order_t2.c, " +
+        "test_join_order_t4.e FROM test_join_order_t1, test_join_order_t2, " +
+        "test_join_order_t3, test_join_order_t4 " +
+        "WHERE test_join_order_t1.b = test_join_order_t2.b AND " +
+        "test_join_order_t2.c = test_join_order_t3.c AND " +
+        "test_join_order_t3.d = test_join_order_t4.d";
+
+
+    /** The expected results of {@link #CHAIN_JOIN_QUERY}. */
+    private static final TupleLiteral[] CHAIN_JOIN_RESULTS = {
+        new TupleLiteral(1, 100, 1),
+        new TupleLiteral(2, 200, 2),
+        new TupleLiteral(2, 201, 3)
+    };
+
+
+    public TestJoinOrdering() {
+        super("setup_testJoinOrdering");
+    }
+
+
+    @AfterMethod
+    public void resetGreedyThreshold() {
+        CostBasedJoinPlanner.setGreedyThreshold(
+            CostBasedJoinPlanner.DEFAULT_GREEDY_THRESHOLD);
+    }
+
+
+    /**
+     * This test joins four tables connected in a chain, using the exhaustive
+     * join enumerator.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testChainJoin() throws Throwable {
+        CommandResult result = server.doCommand(CHAIN_JOIN_QUERY, true);
+        assert checkUnorderedResults(CHAIN_JOIN_RESULTS, result);
+    }
+
+
+    /**
+     * This test joins four tables connected in a chain, using the greedy
+     * join enumerator.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testChainJoinGreedy() throws Throwable {
+        server.doCommand(String.format("SET VARIABLE '%s' = 2",
+            CostBasedJoinPlanner.PROP_GREEDY_THRESHOLD), false);
+        assert CostBasedJoinPlanner.getGreedyThreshold() == 2;
+
+        CommandResult result = server.doCommand(CHAIN_JOIN_QUERY, true);
+        assert checkUnorderedResults(CHAIN_JOIN_RESULTS, result);
+    }
+
+
+    /**
+     * This test joins tables where one table isn't connected to the others
+     * by any conjunct, so the plan must include a cross product.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testDisconnectedJoin() throws Throwable {
+        TupleLiteral[] expected = {
+            new TupleLiteral(1, 100, 7),
+            new TupleLiteral(1, 100, 8),
+            new TupleLiteral(2, 200, 7),
+            new TupleLiteral(2, 200, 8),
+            new TupleLiteral(2, 201, 7),
+            new TupleLiteral(2, 201, 8)
+        };
+
+        String query = "SELECT test_join_order_t1.a, test_join_order_t2.c, " +
+            "test_join_order_t5.f FROM test_join_order_t1, " +
+            "test_join_order_t5, test_join_order_t2 " +
+            "WHERE test_join_order_t1.b = test_join_order_t2.b";
+
+        CommandResult result = server.doCommand(query, true);
+        assert checkUnorderedResults(expected, result);
+
+        CostBasedJoinPlanner.setGreedyThreshold(1);
+        result = server.doCommand(query, true);
+        assert checkUnorderedResults(expected, result);
+    }
+
+
+    /**
+     * This test joins a sorted subquery with another table, and orders the
+     * results by the subquery's sort column, to see if the results come out
+     * in the right order whether or not the join preserves the ordering.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testOrderedJoin() throws Throwable {
+        TupleLiteral[] expected = {
+            new TupleLiteral(201, "z"),
+            new TupleLiteral(200, "y"),
+            new TupleLiteral(100, "x")
+        };
+
+        CommandResult result = server.doCommand(
+            "SELECT s.c, test_join_order_t3.d FROM " +
+            "(SELECT c FROM test_join_order_t2 ORDER BY c DESC) AS s, " +
+            "test_join_order_t3 WHERE s.c = test_join_order_t3.c " +
+            "ORDER BY s.c DESC", true);
+        assert checkOrderedResults(expected, result);
+    }
+}
@@ -0,0 +1,97 @@
+package edu.caltech.test.nanodb.sql;
+
+
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+import edu.caltech.nanodb.expressions.TupleLiteral;
+import edu.caltech.nanodb.server.CommandResult;
+
+
+/**
+ * This class exercises <tt>INSERT</tt> commands that insert many rows at
+ * once, either from several rows of values or from a query, which are
+ * inserted in batches.
+ */
+@Test
+public class TestMultiRowInsert extends SqlTestCase {
+
+    public TestMultiRowInsert() {
+        super("setup_testMultiRowInsert");
+    }
+
+
+    /**
+     * This test inserts several rows of values with one command.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testInsertValues() throws Throwable {
+        tryDoCommand("INSERT INTO test_multi_insert VALUES " +
+            "(1, 'one'), (2, 'two'), (3 + 0, NULL)");
+        tryDoCommand("INSERT INTO test_multi_insert (a, b) VALUES (4, 'four')");
+
+        CommandResult result =
+            tryDoCommand("SELECT * FROM test_multi_insert", true);
+        assert checkUnorderedResults(new TupleLiteral[] {
+            new TupleLiteral(1, "one"),
+            new TupleLiteral(2, "two"),
+            new TupleLiteral(3, null),
+            new TupleLiteral(4, "four")
+        }, result);
+    }
+
+
+    /**
+     * This test makes sure that no rows are inserted when any row of the
+     * command violates a constraint.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testConstraintViolations() throws Throwable {
+        CommandResult result = server.doCommand(
+            "INSERT INTO test_multi_insert_keys VALUES " +
+            "(1, 'one'), (2, 'two'), (1, 'uno')", false);
+        assert result.failed();
+
+        result = server.doCommand(
+            "INSERT INTO test_multi_insert_keys VALUES " +
+            "(5, 'five'), (NULL, 'none')", false);
+        assert result.failed();
+
+        assert getResultTuples("SELECT * FROM test_multi_insert_keys").isEmpty();
+    }
+
+
+    /**
+     * This test inserts the results of a query with more rows than fit in
+     * one batch.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testInsertSelect() throws Throwable {
+        final int numRows = 2500;
+
+        StringBuilder sql = new StringBuilder(
+            "INSERT INTO test_multi_insert_src VALUES ");
+        for (int i = 0; i < numRows; i++) {
+            if (i > 0)
+                sql.append(", ");
+            sql.append(String.format("(%d, 'row %d')", i, i));
+        }
+        tryDoCommand(sql.toString());
+
+        tryDoCommand("INSERT INTO test_multi_insert_dst " +
+            "SELECT a + 1, b FROM test_multi_insert_src");
+
+        List<TupleLiteral> tuples = getResultTuples(
+            "SELECT COUNT(*), COUNT(DISTINCT a), MIN(a), MAX(a) " +
+            "FROM test_multi_insert_dst");
+        TupleLiteral counts = tuples.get(0);
+        assert ((Number) counts.getColumnValue(0)).intValue() == numRows;
+        assert ((Number) counts.getColumnValue(1)).intValue() == numRows;
+        assert ((Number) counts.getColumnValue(2)).intValue() == 1;
+        assert ((Number) counts.getColumnValue(3)).intValue() == numRows;
+    }
+}
@@ -0,0 +1,134 @@
+package edu.caltech.test.nanodb.sql;
+
+
+import java.util.ArrayList;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import edu.caltech.nanodb.expressions.TupleLiteral;
+import edu.caltech.nanodb.plannodes.Parallelizer;
+import edu.caltech.nanodb.server.CommandResult;
+import edu.caltech.nanodb.server.performance.PerformanceCounters;
+
+
+/**
+ * This class exercises queries whose scans are run in parallel, over a table
+ * spanning several pages.  The parallel-execution properties are set so that
+ * even this small table is scanned by several workers.
+ */
+@Test
+public class TestParallelExecution extends SqlTestCase {
+
+    /** The number of rows in the test table. */
+    private static final int NUM_ROWS = 5000;
+
+
+    /** The number of distinct values in column <tt>b</tt>. */
+    private static final int NUM_GROUPS = 13;
+
+
+    public TestParallelExecution() {
+        super("setup_testParallelExecution");
+    }
+
+
+    /**
+     * Fills the test table with {@link #NUM_ROWS} rows in
+     * {@link #NUM_GROUPS} groups named <tt>'group-<em>k</em>'</tt>, and makes
+     * every scan of it parallel.
+     *
+     * @see #insertNumberedRows
+     */
+    @BeforeClass(dependsOnMethods = "beforeClass")
+    public void fillTable() throws Exception {
+        insertNumberedRows("test_parallel", NUM_ROWS, "group-", NUM_GROUPS);
+
+        Parallelizer.setMaxWorkers(4);
+        Parallelizer.setMinPagesPerWorker(1);
+    }
+
+
+    @AfterClass
+    public void resetProperties() {
+        System.clearProperty(Parallelizer.PROP_MAX_WORKERS);
+        System.clearProperty(Parallelizer.PROP_MIN_PAGES_PER_WORKER);
+    }
+
+
+    /**
+     * This test runs a filtered scan and a projection, which must return
+     * every matching row exactly once, and checks that workers were used.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testParallelScan() throws Throwable {
+        long workers = PerformanceCounters.get(PerformanceCounters.PARALLEL_WORKERS);
+
+        ArrayList<TupleLiteral> expected = new ArrayList<>();
+        for (int i = 0; i < NUM_ROWS; i++) {
+            if (i % 10 != 0 && i % 100 > 90)
+                expected.add(new TupleLiteral(i, i % 100));
+        }
+
+        CommandResult result = tryDoCommand(
+            "SELECT a, c FROM test_parallel WHERE c > 90", true);
+        assert checkUnorderedResults(expected.toArray(new TupleLiteral[0]),
+            result);
+
+        assert PerformanceCounters.get(PerformanceCounters.PARALLEL_WORKERS) >
+            workers : "Scan wasn't run in parallel";
+
+        expected.clear();
+        for (int i = 0; i < NUM_ROWS; i++)
+            expected.add(new TupleLiteral((Object) (i + 1)));
+
+        result = tryDoCommand("SELECT a + 1 FROM test_parallel", true);
+        assert checkUnorderedResults(expected.toArray(new TupleLiteral[0]),
+            result);
+    }
+
+
+    /**
+     * This test computes grouped and ungrouped aggregates, which are
+     * computed partially by each worker and then merged.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testParallelAggregates() throws Throwable {
+        TupleLiteral[] expected = new TupleLiteral[NUM_GROUPS];
+        for (int k = 0; k < NUM_GROUPS; k++) {
+            int count = 0;
+            int countC = 0;
+            int sum = 0;
+            int maxC = 0;
+            for (int i = k; i < NUM_ROWS; i += NUM_GROUPS) {
+                count++;
+                sum += i;
+                if (i % 10 != 0) {
+                    countC++;
+                    maxC = Math.max(maxC, i % 100);
+                }
+            }
+            expected[k] = new TupleLiteral("group-" + k, count, countC, sum,
+                k, maxC);
+        }
+
+        CommandResult result = tryDoCommand("SELECT b, COUNT(*), COUNT(c), " +
+            "SUM(a), MIN(a), MAX(c) FROM test_parallel GROUP BY b", true);
+        assert checkUnorderedResults(expected, result);
+
+        int sumC = 0;
+        for (int i = 0; i < NUM_ROWS; i++) {
+            if (i % 10 != 0)
+                sumC += i % 100;
+        }
+
+        result = tryDoCommand("SELECT COUNT(*), SUM(c) FROM test_parallel",
+            true);
+        assert checkUnorderedResults(new TupleLiteral[] {
+            new TupleLiteral(NUM_ROWS, sumC)
+        }, result);
+    }
+}
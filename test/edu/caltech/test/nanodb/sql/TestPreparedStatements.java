@@ -0,0 +1,140 @@
+package edu.caltech.test.nanodb.sql;
+
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import edu.caltech.nanodb.commands.ExecutionException;
+import edu.caltech.nanodb.expressions.TupleLiteral;
+import edu.caltech.nanodb.server.CommandResult;
+import edu.caltech.nanodb.server.performance.PerformanceCounters;
+
+
+/**
+ * This class exercises the <tt>PREPARE</tt>, <tt>EXECUTE</tt> and
+ * <tt>DEALLOCATE</tt> commands, and the plan cache that lets repeated
+ * statements reuse their plans.
+ */
+@Test
+public class TestPreparedStatements extends SqlTestCase {
+
+    public TestPreparedStatements() {
+        super("setup_testPreparedStatements");
+    }
+
+
+    @AfterMethod
+    public void deallocateStatements() throws Exception {
+        // Each test prepares a statement named "stmt"; remove it so that
+        // the next test can prepare its own.
+        server.doCommand("DEALLOCATE stmt", false);
+    }
+
+
+    /**
+     * This test prepares a <tt>SELECT</tt> with a <tt>?</tt> parameter, and
+     * executes it with several different values.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testExecuteSelect() throws Throwable {
+        tryDoCommand("PREPARE stmt AS " +
+            "SELECT a, b FROM test_prepared WHERE a >= ? ORDER BY a");
+
+        CommandResult result = tryDoCommand("EXECUTE stmt (2)", true);
+        assert checkOrderedResults(new TupleLiteral[] {
+            new TupleLiteral(2, "two"),
+            new TupleLiteral(3, "three")
+        }, result);
+
+        result = tryDoCommand("EXECUTE stmt (3)", true);
+        assert checkOrderedResults(new TupleLiteral[] {
+            new TupleLiteral(3, "three")
+        }, result);
+    }
+
+
+    /**
+     * This test prepares a <tt>SELECT</tt> with numbered parameters, one of
+     * which is used twice.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testNumberedParameters() throws Throwable {
+        tryDoCommand("PREPARE stmt AS SELECT b FROM test_prepared " +
+            "WHERE a = $2 OR b = $1 OR a = $2 + 1");
+
+        CommandResult result = tryDoCommand("EXECUTE stmt ('one', 2)", true);
+        assert checkUnorderedResults(new TupleLiteral[] {
+            new TupleLiteral("one"),
+            new TupleLiteral("two"),
+            new TupleLiteral("three")
+        }, result);
+    }
+
+
+    /**
+     * This test prepares an <tt>UPDATE</tt>, and makes sure that executing
+     * it modifies the table.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testExecuteUpdate() throws Throwable {
+        tryDoCommand("PREPARE stmt AS UPDATE test_prepared SET b = ? " +
+            "WHERE a = ?");
+        tryDoCommand("EXECUTE stmt ('TWO', 2)");
+        tryDoCommand("EXECUTE stmt ('two', 2)");
+
+        CommandResult result = tryDoCommand(
+            "SELECT b FROM test_prepared WHERE a = 2", true);
+        assert checkUnorderedResults(new TupleLiteral[] {
+            new TupleLiteral("two")
+        }, result);
+    }
+
+
+    /**
+     * This test makes sure that executing a prepared statement with the wrong
+     * number of arguments fails.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    @Test(expectedExceptions=ExecutionException.class)
+    public void testWrongArgumentCount() throws Throwable {
+        tryDoCommand("PREPARE stmt AS SELECT * FROM test_prepared WHERE a = ?");
+        tryDoCommand("EXECUTE stmt (1, 2)");
+    }
+
+
+    /**
+     * This test makes sure that repeated statements reuse their cached
+     * plans, and that the plans are discarded when tables are analyzed or
+     * optimized.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testPlanCache() throws Throwable {
+        TupleLiteral[] expected = { new TupleLiteral(1, "one") };
+
+        tryDoCommand("SELECT * FROM test_prepared WHERE a = 1");
+        long hits = PerformanceCounters.get(PerformanceCounters.PLAN_CACHE_HITS);
+
+        // Whitespace and keyword case don't affect the cache key.
+        CommandResult result = tryDoCommand(
+            "select *   from TEST_PREPARED where a = 1", true);
+        assert checkUnorderedResults(expected, result);
+        assert PerformanceCounters.get(PerformanceCounters.PLAN_CACHE_HITS) ==
+            hits + 1;
+
+        tryDoCommand("ANALYZE test_prepared");
+        assert server.getPlanCache().size() == 0;
+
+        result = tryDoCommand("SELECT * FROM test_prepared WHERE a = 1", true);
+        assert checkUnorderedResults(expected, result);
+        assert PerformanceCounters.get(PerformanceCounters.PLAN_CACHE_HITS) ==
+            hits + 1;
+
+        tryDoCommand("OPTIMIZE test_prepared");
+        assert server.getPlanCache().size() == 0;
+    }
+}
@@ -1,6 +1,8 @@
 package edu.caltech.test.nanodb.sql;
 
 
+import java.util.ArrayList;
+
 import org.testng.annotations.Test;
 
 import edu.caltech.nanodb.expressions.TupleLiteral;
@@ -168,4 +170,126 @@ public class TestStringMatch extends SqlTestCase {
         assert checkUnorderedResults(expected2, result);
     }
 
+
+    /**
+     * Test <tt>LIKE</tt> patterns without wildcards, which must match the
+     * whole string, and patterns containing regular-expression
+     * metacharacters, which must be matched literally.
+     *
+     * @throws Throwable if any query parsing or execution issues occur.
+     */
+    public void testLikeLiteralMatch() throws Throwable {
+        TupleLiteral[] expected = {
+            new TupleLiteral("pear")
+        };
+
+        CommandResult result;
+
+        result = server.doCommand(
+            "SELECT * FROM test_string_match WHERE s LIKE 'pear'", true);
+        assert checkUnorderedResults(expected, result);
+
+        result = server.doCommand(
+            "SELECT * FROM test_string_match WHERE s LIKE 'pea'", true);
+        assert checkUnorderedResults(new TupleLiteral[0], result);
+
+        result = server.doCommand(
+            "SELECT * FROM test_string_match WHERE s LIKE 'p.ar'", true);
+        assert checkUnorderedResults(new TupleLiteral[0], result);
+
+        result = server.doCommand(
+            "SELECT * FROM test_string_match WHERE s LIKE '%.*%'", true);
+        assert checkUnorderedResults(new TupleLiteral[0], result);
+
+        result = server.doCommand(
+            "SELECT * FROM test_string_match WHERE s LIKE NULL", true);
+        assert checkUnorderedResults(new TupleLiteral[0], result);
+    }
+
+
+    /**
+     * Test <tt>SIMILAR TO</tt> regular-expression matches.
+     *
+     * @throws Throwable if any query parsing or execution issues occur.
+     */
+    public void testSimilarTo() throws Throwable {
+        TupleLiteral[] expected = {
+            new TupleLiteral("peach"),
+            new TupleLiteral("pear"),
+            new TupleLiteral("plum")
+        };
+
+        CommandResult result = server.doCommand(
+            "SELECT * FROM test_string_match WHERE s SIMILAR TO 'p(ea|lu).*'",
+            true);
+        assert checkUnorderedResults(expected, result);
+    }
+
+
+    /**
+     * Test <tt>LIKE</tt> prefix matches, equality tests and <tt>IN</tt>
+     * lists against a column with an index, over enough rows that the
+     * matching keys span several index pages.
+     *
+     * @throws Throwable if any query parsing or execution issues occur.
+     */
+    public void testLikeIndexScan() throws Throwable {
+        tryDoCommand("CREATE TABLE test_like_index (a INTEGER, s VARCHAR(30));");
+
+        ArrayList<TupleLiteral> expectedPrefix = new ArrayList<>();
+        ArrayList<TupleLiteral> expectedContains = new ArrayList<>();
+        for (int i = 0; i < 1500; i++) {
+            String s = String.format("key%d-%04d", i % 7, i);
+            tryDoCommand(String.format(
+                "INSERT INTO test_like_index VALUES (%d, '%s');", i, s));
+
+            if (s.startsWith("key3"))
+                expectedPrefix.add(new TupleLiteral(i, s));
+
+            if (s.contains("-07"))
+                expectedContains.add(new TupleLiteral(i, s));
+        }
+        tryDoCommand("INSERT INTO test_like_index VALUES (-1, NULL);");
+        tryDoCommand("CREATE INDEX idx_like_s ON test_like_index (s);");
+
+        CommandResult result = tryDoCommand(
+            "SELECT * FROM test_like_index WHERE s LIKE 'key3%'", true);
+        assert checkUnorderedResults(
+            expectedPrefix.toArray(new TupleLiteral[0]), result);
+
+        result = tryDoCommand(
+            "SELECT * FROM test_like_index WHERE s LIKE '%-07%'", true);
+        assert checkUnorderedResults(
+            expectedContains.toArray(new TupleLiteral[0]), result);
+
+        result = tryDoCommand(
+            "SELECT * FROM test_like_index WHERE s LIKE 'key5-0%9'", true);
+        ArrayList<TupleLiteral> expected = new ArrayList<>();
+        for (int i = 5; i < 1000; i += 7) {
+            if (i % 10 == 9)
+                expected.add(new TupleLiteral(i, String.format("key5-%04d", i)));
+        }
+        assert checkUnorderedResults(
+            expected.toArray(new TupleLiteral[0]), result);
+
+        result = tryDoCommand(
+            "SELECT a FROM test_like_index WHERE s LIKE 'key1-0008'", true);
+        assert checkUnorderedResults(new TupleLiteral[] {
+            new TupleLiteral((Object) 8)
+        }, result);
+
+        result = tryDoCommand("SELECT a FROM test_like_index " +
+            "WHERE s IN ('key0-1400', 'key2-0002', 'key2-0003', 'zzz')", true);
+        assert checkUnorderedResults(new TupleLiteral[] {
+            new TupleLiteral((Object) 1400),
+            new TupleLiteral((Object) 2)
+        }, result);
+
+        result = tryDoCommand("SELECT a FROM test_like_index " +
+            "WHERE s > 'key6-1480' AND a < 1495", true);
+        assert checkUnorderedResults(new TupleLiteral[] {
+            new TupleLiteral((Object) 1483),
+            new TupleLiteral((Object) 1490)
+        }, result);
+    }
 }
@@ -0,0 +1,165 @@
+package edu.caltech.test.nanodb.sql;
+
+
+import org.testng.annotations.Test;
+
+import edu.caltech.nanodb.expressions.TupleLiteral;
+import edu.caltech.nanodb.server.CommandResult;
+
+
+/**
+ * This class exercises <tt>IN</tt>, <tt>NOT IN</tt>, <tt>EXISTS</tt> and
+ * <tt>NOT EXISTS</tt> predicates that the planner turns into semijoins and
+ * antijoins, including correlated subqueries and subqueries producing
+ * <tt>NULL</tt>s or no rows at all.
+ */
+@Test
+public class TestSubqueryJoins extends SqlTestCase {
+
+    public TestSubqueryJoins() {
+        super("setup_testSubqueryJoins");
+    }
+
+
+    /**
+     * This test checks uncorrelated <tt>IN</tt> and <tt>NOT IN</tt>
+     * subqueries, where <tt>NOT IN</tt> must return no rows when the
+     * subquery produces a <tt>NULL</tt>, and all rows when the subquery
+     * produces no rows.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testUncorrelatedIn() throws Throwable {
+        CommandResult result;
+
+        result = tryDoCommand("SELECT * FROM test_sq_outer WHERE " +
+            "a IN (SELECT c FROM test_sq_inner)", true);
+        assert checkUnorderedResults(new TupleLiteral[] {
+            new TupleLiteral(1, 10),
+            new TupleLiteral(3, 30)
+        }, result);
+
+        result = tryDoCommand("SELECT * FROM test_sq_outer WHERE " +
+            "a NOT IN (SELECT c FROM test_sq_inner)", true);
+        assert checkUnorderedResults(new TupleLiteral[0], result);
+
+        result = tryDoCommand("SELECT * FROM test_sq_outer WHERE " +
+            "a NOT IN (SELECT c FROM test_sq_inner WHERE c IS NOT NULL)", true);
+        assert checkUnorderedResults(new TupleLiteral[] {
+            new TupleLiteral(2, 20),
+            new TupleLiteral(4, null)
+        }, result);
+
+        result = tryDoCommand("SELECT * FROM test_sq_outer WHERE " +
+            "a IN (SELECT e FROM test_sq_empty)", true);
+        assert checkUnorderedResults(new TupleLiteral[0], result);
+
+        result = tryDoCommand("SELECT * FROM test_sq_outer WHERE " +
+            "a NOT IN (SELECT e FROM test_sq_empty)", true);
+        assert checkUnorderedResults(new TupleLiteral[] {
+            new TupleLiteral(1, 10),
+            new TupleLiteral(2, 20),
+            new TupleLiteral(3, 30),
+            new TupleLiteral(4, null),
+            new TupleLiteral(null, 50)
+        }, result);
+    }
+
+
+    /**
+     * This test checks correlated <tt>EXISTS</tt> and <tt>NOT EXISTS</tt>
+     * subqueries, with and without correlated conditions that aren't
+     * equalities.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testCorrelatedExists() throws Throwable {
+        CommandResult result;
+
+        result = tryDoCommand("SELECT * FROM test_sq_outer WHERE " +
+            "EXISTS (SELECT * FROM test_sq_inner WHERE c = a)", true);
+        assert checkUnorderedResults(new TupleLiteral[] {
+            new TupleLiteral(1, 10),
+            new TupleLiteral(3, 30)
+        }, result);
+
+        result = tryDoCommand("SELECT * FROM test_sq_outer WHERE " +
+            "NOT EXISTS (SELECT * FROM test_sq_inner WHERE c = a)", true);
+        assert checkUnorderedResults(new TupleLiteral[] {
+            new TupleLiteral(2, 20),
+            new TupleLiteral(4, null),
+            new TupleLiteral(null, 50)
+        }, result);
+
+        result = tryDoCommand("SELECT * FROM test_sq_outer WHERE " +
+            "EXISTS (SELECT * FROM test_sq_inner WHERE c = a AND d > b + 1)",
+            true);
+        assert checkUnorderedResults(new TupleLiteral[] {
+            new TupleLiteral(3, 30)
+        }, result);
+
+        result = tryDoCommand("SELECT * FROM test_sq_outer WHERE " +
+            "NOT EXISTS (SELECT * FROM test_sq_inner WHERE d < b)", true);
+        assert checkUnorderedResults(new TupleLiteral[] {
+            new TupleLiteral(1, 10),
+            new TupleLiteral(4, null)
+        }, result);
+    }
+
+
+    /**
+     * This test checks correlated <tt>IN</tt> and <tt>NOT IN</tt>
+     * subqueries.  A <tt>NOT IN</tt> subquery producing no rows for an
+     * outer row is true even if the outer value is <tt>NULL</tt>.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testCorrelatedIn() throws Throwable {
+        CommandResult result;
+
+        result = tryDoCommand("SELECT * FROM test_sq_outer WHERE " +
+            "b IN (SELECT d FROM test_sq_inner WHERE c = a)", true);
+        assert checkUnorderedResults(new TupleLiteral[] {
+            new TupleLiteral(1, 10)
+        }, result);
+
+        result = tryDoCommand("SELECT * FROM test_sq_outer WHERE " +
+            "b NOT IN (SELECT d FROM test_sq_inner WHERE c = a)", true);
+        assert checkUnorderedResults(new TupleLiteral[] {
+            new TupleLiteral(2, 20),
+            new TupleLiteral(3, 30),
+            new TupleLiteral(4, null),
+            new TupleLiteral(null, 50)
+        }, result);
+    }
+
+
+    /**
+     * This test checks <tt>EXISTS</tt> and <tt>IN</tt> subqueries applied
+     * to the results of a join, and uncorrelated <tt>EXISTS</tt>
+     * subqueries.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testSubqueriesWithJoins() throws Throwable {
+        CommandResult result;
+
+        result = tryDoCommand("SELECT a, d FROM test_sq_outer, test_sq_inner " +
+            "WHERE a = c AND b IN (SELECT d FROM test_sq_inner)", true);
+        assert checkUnorderedResults(new TupleLiteral[] {
+            new TupleLiteral(1, 10),
+            new TupleLiteral(1, 11)
+        }, result);
+
+        result = tryDoCommand("SELECT a FROM test_sq_outer WHERE " +
+            "EXISTS (SELECT * FROM test_sq_empty)", true);
+        assert checkUnorderedResults(new TupleLiteral[0], result);
+
+        result = tryDoCommand("SELECT a FROM test_sq_outer WHERE a > 2 AND " +
+            "NOT EXISTS (SELECT * FROM test_sq_empty)", true);
+        assert checkUnorderedResults(new TupleLiteral[] {
+            new TupleLiteral((Object) 3),
+            new TupleLiteral((Object) 4)
+        }, result);
+    }
+}
@@ -0,0 +1,139 @@
+package edu.caltech.test.nanodb.storage;
+
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import edu.caltech.nanodb.storage.BufferManager;
+import edu.caltech.nanodb.storage.DBFile;
+import edu.caltech.nanodb.storage.DBFileType;
+import edu.caltech.nanodb.storage.DBPage;
+import edu.caltech.nanodb.storage.FileManager;
+import edu.caltech.nanodb.storage.FileManagerImpl;
+
+
+/**
+ * This class exercises the buffer manager's handling of pages that are
+ * loaded by several threads at once.
+ */
+@Test
+public class TestBufferManager extends StorageTestCase {
+
+    private static final int PAGE_SIZE = 1024;
+
+
+    private FileManager fileMgr;
+
+
+    @BeforeClass
+    public void beforeClass() {
+        fileMgr = new FileManagerImpl(testBaseDir);
+    }
+
+
+    /**
+     * Creates a new file with one data page after its header page, deleting
+     * any old file of that name.
+     */
+    private DBFile createFile(String filename) throws IOException {
+        File f = new File(testBaseDir, filename);
+        if (f.exists())
+            f.delete();
+
+        DBFile dbf = fileMgr.createDBFile(filename,
+            DBFileType.HEAP_TUPLE_FILE, PAGE_SIZE);
+        fileMgr.savePage(dbf, 1, new byte[PAGE_SIZE]);
+        return dbf;
+    }
+
+
+    /**
+     * Starts a thread that retrieves page 1 of the file, and records the
+     * page it gets back, or the thread that gets to load the page.
+     */
+    private Thread startWaiter(BufferManager bufMgr, DBFile dbf,
+                               AtomicReference<Object> result) {
+        Thread waiter = new Thread(() -> {
+            try {
+                DBPage dbPage = bufMgr.getPageOrStartLoad(dbf, 1);
+                if (dbPage != null) {
+                    dbPage.unpin();
+                    result.set(dbPage);
+                }
+                else {
+                    result.set(Thread.currentThread());
+                    bufMgr.endLoad(dbf, 1);
+                }
+            }
+            catch (IOException e) {
+                result.set(e);
+            }
+        });
+        waiter.start();
+        return waiter;
+    }
+
+
+    /**
+     * This test makes sure that a thread wanting a page that another thread
+     * is loading waits for that load, and then gets the loaded page.
+     */
+    public void testWaitForLoad() throws Exception {
+        String filename = "TestBufferManager_testWaitForLoad";
+        DBFile dbf = createFile(filename);
+        BufferManager bufMgr = new BufferManager(null, fileMgr);
+
+        // This thread becomes the page's loader.
+        assert bufMgr.getPageOrStartLoad(dbf, 1) == null;
+
+        AtomicReference<Object> result = new AtomicReference<>();
+        Thread waiter = startWaiter(bufMgr, dbf, result);
+        waiter.join(200);
+        assert waiter.isAlive();
+
+        DBPage dbPage = new DBPage(bufMgr, dbf, 1);
+        fileMgr.loadPage(dbf, 1, dbPage.getPageData());
+        bufMgr.addPage(dbPage);
+        bufMgr.endLoad(dbf, 1);
+
+        waiter.join(10000);
+        assert !waiter.isAlive();
+        assert result.get() == dbPage;
+
+        dbPage.unpin();
+        bufMgr.flushDBFile(dbf);
+        fileMgr.deleteDBFile(dbf);
+    }
+
+
+    /**
+     * This test makes sure that if a page's load fails, a thread that was
+     * waiting for the page gets to load it instead.
+     */
+    public void testFailedLoad() throws Exception {
+        String filename = "TestBufferManager_testFailedLoad";
+        DBFile dbf = createFile(filename);
+        BufferManager bufMgr = new BufferManager(null, fileMgr);
+
+        assert bufMgr.getPageOrStartLoad(dbf, 1) == null;
+
+        AtomicReference<Object> result = new AtomicReference<>();
+        Thread waiter = startWaiter(bufMgr, dbf, result);
+        waiter.join(200);
+        assert waiter.isAlive();
+
+        // Give up on the load without adding the page.
+        bufMgr.endLoad(dbf, 1);
+
+        waiter.join(10000);
+        assert !waiter.isAlive();
+        assert result.get() == waiter;
+
+        bufMgr.flushDBFile(dbf);
+        fileMgr.deleteDBFile(dbf);
+    }
+}
@@ -0,0 +1,325 @@
+package edu.caltech.test.nanodb.storage;
+
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import edu.caltech.nanodb.server.performance.PerformanceCounters;
+
+import edu.caltech.nanodb.storage.BufferManager;
+import edu.caltech.nanodb.storage.DBFile;
+import edu.caltech.nanodb.storage.DBFileType;
+import edu.caltech.nanodb.storage.DBPage;
+import edu.caltech.nanodb.storage.FileManager;
+import edu.caltech.nanodb.storage.FileManagerImpl;
+import edu.caltech.nanodb.storage.PageMap;
+
+
+/**
+ * This class exercises compressed database files, whose pages are stored
+ * compressed and located through a page map, and the buffer manager's
+ * compressed frames.
+ */
+@Test
+public class TestCompressedFiles extends StorageTestCase {
+
+    private static final int PAGE_SIZE = 1024;
+
+
+    private FileManager fileMgr;
+
+
+    @BeforeClass
+    public void beforeClass() {
+        fileMgr = new FileManagerImpl(testBaseDir);
+    }
+
+
+    /** Creates a new compressed file, deleting any old file of that name. */
+    private DBFile createFile(String filename) throws IOException {
+        File f = new File(testBaseDir, filename);
+        if (f.exists())
+            f.delete();
+
+        return fileMgr.createDBFile(filename, DBFileType.HEAP_TUPLE_FILE,
+            PAGE_SIZE, /* compressed */ true);
+    }
+
+
+    /**
+     * Returns page data that holds the page-number in its first
+     * <tt>fill</tt> bytes, and zeros after that.
+     */
+    private static byte[] makePage(int pageNo, int fill) {
+        byte[] data = new byte[PAGE_SIZE];
+        for (int i = 0; i < fill; i++)
+            data[i] = (byte) (pageNo + i / 16);
+
+        return data;
+    }
+
+
+    public void testSaveAndReopen() throws IOException {
+        String filename = "TestCompressedFiles_testSaveAndReopen";
+        DBFile dbf = createFile(filename);
+
+        assert dbf.isCompressed();
+        assert dbf.getNumPages() == 1;
+
+        for (int pageNo = 1; pageNo <= 5; pageNo++)
+            fileMgr.savePage(dbf, pageNo, makePage(pageNo, 100 * pageNo));
+
+        assert dbf.getNumPages() == 6;
+
+        // The pages take much less space than they would uncompressed.
+        assert dbf.getDataFile().length() < 6 * PAGE_SIZE;
+        assert dbf.getPageMap().getStoredLength(1) < PAGE_SIZE / 2;
+
+        fileMgr.closeDBFile(dbf);
+
+        // Open the file with another file manager, so that the page map is
+        // read from the file.
+        FileManager fileMgr2 = new FileManagerImpl(testBaseDir);
+        DBFile dbf2 = fileMgr2.openDBFile(filename);
+        assert dbf2.isCompressed();
+        assert dbf2.getType() == DBFileType.HEAP_TUPLE_FILE;
+        assert dbf2.getPageSize() == PAGE_SIZE;
+        assert dbf2.getNumPages() == 6;
+
+        byte[] buffer = new byte[PAGE_SIZE];
+        fileMgr2.loadPage(dbf2, 0, buffer);
+        assert buffer[0] == DBFileType.HEAP_TUPLE_FILE.getID();
+        assert DBFile.decodePageSize(buffer[1]) == PAGE_SIZE;
+
+        for (int pageNo = 1; pageNo <= 5; pageNo++) {
+            fileMgr2.loadPage(dbf2, pageNo, buffer);
+            assert Arrays.equals(buffer, makePage(pageNo, 100 * pageNo));
+        }
+
+        fileMgr2.deleteDBFile(dbf2);
+    }
+
+
+    public void testRewritePages() throws IOException {
+        String filename = "TestCompressedFiles_testRewritePages";
+        DBFile dbf = createFile(filename);
+
+        fileMgr.savePage(dbf, 1, makePage(1, 10));
+        fileMgr.savePage(dbf, 2, makePage(2, 10));
+
+        // Page 1 grows, and doesn't compress at all, so it has to move.
+        byte[] random = new byte[PAGE_SIZE];
+        new Random(42).nextBytes(random);
+        fileMgr.savePage(dbf, 1, random);
+        assert dbf.getPageMap().getStoredLength(1) == PAGE_SIZE;
+
+        // Page 2 shrinks, and is rewritten in place; page 3 can reuse the
+        // space page 1 used to have.
+        long length = dbf.getDataFile().length();
+        fileMgr.savePage(dbf, 2, makePage(2, 0));
+        fileMgr.savePage(dbf, 3, makePage(3, 10));
+        assert dbf.getDataFile().length() == length;
+
+        byte[] buffer = new byte[PAGE_SIZE];
+        fileMgr.loadPage(dbf, 1, buffer);
+        assert Arrays.equals(buffer, random);
+        fileMgr.loadPage(dbf, 2, buffer);
+        assert Arrays.equals(buffer, makePage(2, 0));
+        fileMgr.loadPage(dbf, 3, buffer);
+        assert Arrays.equals(buffer, makePage(3, 10));
+
+        fileMgr.deleteDBFile(dbf);
+    }
+
+
+    /**
+     * Verifies that the space freed by moved and truncated pages is still
+     * reused after the file is reopened, when the page map has to be read
+     * from the file.
+     */
+    public void testReuseFreedSpaceAfterReopen() throws IOException {
+        String filename = "TestCompressedFiles_testReuseFreedSpaceAfterReopen";
+        DBFile dbf = createFile(filename);
+
+        for (int pageNo = 1; pageNo <= 4; pageNo++)
+            fileMgr.savePage(dbf, pageNo, makePage(pageNo, 10));
+
+        // Page 1 doesn't compress at all any more, so it has to move, and
+        // pages 3 and 4 are truncated away.
+        byte[] random = new byte[PAGE_SIZE];
+        new Random(42).nextBytes(random);
+        fileMgr.savePage(dbf, 1, random);
+        fileMgr.truncateDBFile(dbf, 3);
+        fileMgr.closeDBFile(dbf);
+
+        FileManager fileMgr2 = new FileManagerImpl(testBaseDir);
+        DBFile dbf2 = fileMgr2.openDBFile(filename);
+        long length = dbf2.getDataFile().length();
+
+        // The new pages fit in the extents the old pages used to have.
+        for (int pageNo = 3; pageNo <= 5; pageNo++)
+            fileMgr2.savePage(dbf2, pageNo, makePage(pageNo, 10));
+
+        assert dbf2.getDataFile().length() == length;
+
+        byte[] buffer = new byte[PAGE_SIZE];
+        fileMgr2.loadPage(dbf2, 1, buffer);
+        assert Arrays.equals(buffer, random);
+        fileMgr2.loadPage(dbf2, 2, buffer);
+        assert Arrays.equals(buffer, makePage(2, 10));
+        for (int pageNo = 3; pageNo <= 5; pageNo++) {
+            fileMgr2.loadPage(dbf2, pageNo, buffer);
+            assert Arrays.equals(buffer, makePage(pageNo, 10));
+        }
+
+        fileMgr2.deleteDBFile(dbf2);
+    }
+
+
+    public void testCreateAndTruncatePages() throws IOException {
+        String filename = "TestCompressedFiles_testCreateAndTruncatePages";
+        DBFile dbf = createFile(filename);
+
+        // Loading a page past the end of the file fails, unless the page is
+        // to be created.
+        byte[] buffer = new byte[PAGE_SIZE];
+        try {
+            fileMgr.loadPage(dbf, 3, buffer);
+            assert false : "Expected an IOException";
+        }
+        catch (IOException e) {
+            // Success.
+        }
+
+        Arrays.fill(buffer, (byte) 1);
+        fileMgr.loadPage(dbf, 3, buffer, /* create */ true);
+        assert Arrays.equals(buffer, new byte[PAGE_SIZE]);
+        assert dbf.getNumPages() == 4;
+
+        // Pages that were never written read back as zeros.
+        fileMgr.loadPage(dbf, 2, buffer);
+        assert Arrays.equals(buffer, new byte[PAGE_SIZE]);
+
+        for (int pageNo = 1; pageNo <= 3; pageNo++)
+            fileMgr.savePage(dbf, pageNo, makePage(pageNo, 200));
+
+        fileMgr.truncateDBFile(dbf, 2);
+        assert dbf.getNumPages() == 2;
+
+        try {
+            fileMgr.loadPage(dbf, 2, buffer);
+            assert false : "Expected an IOException";
+        }
+        catch (IOException e) {
+            // Success.
+        }
+
+        fileMgr.loadPage(dbf, 1, buffer);
+        assert Arrays.equals(buffer, makePage(1, 200));
+
+        fileMgr.deleteDBFile(dbf);
+    }
+
+
+    public void testCompressionCounters() throws IOException {
+        String filename = "TestCompressedFiles_testCompressionCounters";
+        DBFile dbf = createFile(filename);
+
+        long bytesIn = PerformanceCounters.get(
+            PerformanceCounters.STORAGE_COMPRESSION_BYTES_IN);
+        long bytesOut = PerformanceCounters.get(
+            PerformanceCounters.STORAGE_COMPRESSION_BYTES_OUT);
+
+        fileMgr.savePage(dbf, 1, makePage(1, 100));
+
+        assert PerformanceCounters.get(
+            PerformanceCounters.STORAGE_COMPRESSION_BYTES_IN) - bytesIn ==
+            PAGE_SIZE;
+        assert PerformanceCounters.get(
+            PerformanceCounters.STORAGE_COMPRESSION_BYTES_OUT) - bytesOut ==
+            dbf.getPageMap().getStoredLength(1);
+
+        assert dbf.getPageMap().getCodec() == PageMap.CODEC_LZ;
+
+        fileMgr.deleteDBFile(dbf);
+    }
+
+
+    /**
+     * Loads a page the way the storage manager does, and unpins it.
+     *
+     * @return true if the page was restored from a compressed frame
+     */
+    private boolean loadPage(BufferManager bufMgr, DBFile dbf, int pageNo)
+        throws IOException {
+
+        boolean restored = false;
+        DBPage dbPage = bufMgr.getPageOrStartLoad(dbf, pageNo);
+        if (dbPage == null) {
+            dbPage = new DBPage(bufMgr, dbf, pageNo);
+            restored = bufMgr.restoreCompressedFrame(dbPage);
+            if (!restored)
+                fileMgr.loadPage(dbf, pageNo, dbPage.getPageData());
+            bufMgr.addPage(dbPage);
+            bufMgr.endLoad(dbf, pageNo);
+        }
+
+        assert Arrays.equals(dbPage.getPageData(), makePage(pageNo, 100));
+        dbPage.unpin();
+
+        return restored;
+    }
+
+
+    public void testCompressedFrames() throws IOException {
+        String filename = "TestCompressedFiles_testCompressedFrames";
+        DBFile dbf = createFile(filename);
+        for (int pageNo = 1; pageNo <= 8; pageNo++)
+            fileMgr.savePage(dbf, pageNo, makePage(pageNo, 100));
+
+        // A cache that only holds a few decompressed pages.
+        BufferManager bufMgr;
+        System.setProperty(BufferManager.PROP_PAGECACHE_SIZE,
+            "" + (3 * PAGE_SIZE));
+        System.setProperty(BufferManager.PROP_PAGECACHE_MODE, "compressed");
+        try {
+            bufMgr = new BufferManager(null, fileMgr);
+        }
+        finally {
+            System.clearProperty(BufferManager.PROP_PAGECACHE_SIZE);
+            System.clearProperty(BufferManager.PROP_PAGECACHE_MODE);
+        }
+
+        long hits = PerformanceCounters.get(
+            PerformanceCounters.STORAGE_COMPRESSED_FRAME_HITS);
+
+        for (int pageNo = 1; pageNo <= 8; pageNo++)
+            assert !loadPage(bufMgr, dbf, pageNo);
+
+        // The evicted pages are kept as compressed frames, so loading them
+        // again doesn't need to read the file.
+        int restored = 0;
+        for (int pageNo = 1; pageNo <= 8; pageNo++) {
+            if (loadPage(bufMgr, dbf, pageNo))
+                restored++;
+        }
+
+        assert restored > 0;
+        assert PerformanceCounters.get(
+            PerformanceCounters.STORAGE_COMPRESSED_FRAME_HITS) - hits ==
+            restored;
+
+        // Flushing the file discards its frames.
+        bufMgr.flushDBFile(dbf);
+        for (int pageNo = 1; pageNo <= 8; pageNo++)
+            assert !loadPage(bufMgr, dbf, pageNo);
+
+        bufMgr.flushDBFile(dbf);
+        fileMgr.deleteDBFile(dbf);
+    }
+}
@@ -4,6 +4,7 @@ package edu.caltech.test.nanodb.storage.btreefile;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Random;
 
 import edu.caltech.nanodb.expressions.ColumnName;
@@ -11,11 +12,19 @@ import edu.caltech.nanodb.expressions.ColumnValue;
 import edu.caltech.nanodb.expressions.OrderByExpression;
 import edu.caltech.nanodb.expressions.TupleComparator;
 import edu.caltech.nanodb.expressions.TupleLiteral;
+import edu.caltech.nanodb.queryeval.TableStats;
 import edu.caltech.nanodb.relations.ColumnInfo;
 import edu.caltech.nanodb.relations.ColumnType;
 import edu.caltech.nanodb.relations.SQLDataType;
 import edu.caltech.nanodb.relations.Schema;
+import edu.caltech.nanodb.relations.TableInfo;
 import edu.caltech.nanodb.server.CommandResult;
+import edu.caltech.nanodb.storage.DBPage;
+import edu.caltech.nanodb.storage.PageReader;
+import edu.caltech.nanodb.storage.StatsWriter;
+import edu.caltech.nanodb.storage.TupleFile;
+import edu.caltech.nanodb.storage.btreefile.HeaderPage;
+import edu.caltech.nanodb.storage.btreefile.LeafPage;
 import org.testng.annotations.*;
 
 import edu.caltech.test.nanodb.sql.SqlTestCase;
@@ -204,4 +213,125 @@ public class TestBTreeFile extends SqlTestCase {
 
         runBTreeTest("btree_multi_level_del", 250000, 5000, 50, 400, 0.01);
     }
+
+
+    /**
+     * Exercises the <tt>OPTIMIZE</tt> command on B<sup>+</sup> tree tables
+     * that have had most or some of their rows deleted.
+     */
+    public void testBTreeTableOptimize() throws Exception {
+        // Leave a sparse scattering of rows throughout the file.
+        checkOptimize("btree_optimize", "a % 8 <> 0");
+
+        // Leave many leaves, which are scattered through the file by the
+        // splits of the random inserts.
+        checkOptimize("btree_optimize_wide", "a % 3 = 0");
+    }
+
+
+    /**
+     * Fills a B<sup>+</sup> tree table, deletes the rows matching the
+     * predicate, and optimizes the table.  The table's contents must be
+     * unchanged, the file must still pass verification, the file must
+     * shrink, and the leaves must be stored in key order from page 1 on.
+     */
+    private void checkOptimize(String tableName, String deletePredicate)
+        throws Exception {
+
+        tryDoCommand("CREATE TABLE " + tableName + " (a INTEGER, " +
+            "b VARCHAR(50)) PROPERTIES (storage = 'btree');", false);
+
+        runBTreeTest(tableName, 3000, 500, 20, 50, 0.0);
+
+        tryDoCommand("DELETE FROM " + tableName + " WHERE " +
+            deletePredicate + ";", false);
+
+        // Write out the table so that the file's size includes every page.
+        tryDoCommand("FLUSH;", false);
+
+        List<TupleLiteral> before =
+            getResultTuples("SELECT * FROM " + tableName + ";");
+
+        TableInfo tableInfo = server.getStorageManager().getTableManager()
+            .openTable(tableName.toUpperCase());
+        TupleFile tupleFile = tableInfo.getTupleFile();
+        int pagesBefore = tupleFile.getDBFile().getNumPages();
+
+        tryDoCommand("OPTIMIZE " + tableName + ";", false);
+
+        assert tupleFile.verify().isEmpty();
+        assert tupleFile.getDBFile().getNumPages() < pagesBefore;
+
+        DBPage dbpHeader = server.getStorageManager().loadDBPage(
+            tupleFile.getDBFile(), 0);
+        int leafPageNo = HeaderPage.getFirstLeafPageNo(dbpHeader);
+        dbpHeader.unpin();
+
+        int expectedPageNo = 1;
+        while (leafPageNo != 0) {
+            assert leafPageNo == expectedPageNo :
+                "Leaf " + expectedPageNo + " is stored at page " + leafPageNo;
+            expectedPageNo++;
+
+            DBPage dbpLeaf = server.getStorageManager().loadDBPage(
+                tupleFile.getDBFile(), leafPageNo);
+            leafPageNo = dbpLeaf.readUnsignedShort(LeafPage.OFFSET_NEXT_PAGE_NO);
+            dbpLeaf.unpin();
+        }
+        assert expectedPageNo > 2;
+
+        CommandResult result =
+            tryDoCommand("SELECT * FROM " + tableName + ";", true);
+        assert checkOrderedResults(before.toArray(new TupleLiteral[before.size()]), result);
+    }
+
+
+    public void testBTreeTableAnalyze() throws Exception {
+        tryDoCommand("CREATE TABLE btree_analyze (a INTEGER, b VARCHAR(50)) " +
+            "PROPERTIES (storage = 'btree');", false);
+
+        runBTreeTest("btree_analyze", 3000, 500, 20, 50, 0.0);
+        int numTuples = getResultTuples("SELECT * FROM btree_analyze;").size();
+
+        tryDoCommand("ANALYZE btree_analyze;", false);
+
+        TableInfo tableInfo = server.getStorageManager().getTableManager()
+            .openTable("BTREE_ANALYZE");
+        TupleFile tupleFile = tableInfo.getTupleFile();
+        TableStats stats = tupleFile.getStats();
+
+        assert stats.numTuples == numTuples;
+        assert stats.treeHeight >= 2;
+        assert stats.numLeafPages > 1;
+        assert stats.numDataPages > stats.numLeafPages;
+        assert stats.avgLeafFill > 0 && stats.avgLeafFill <= 1;
+        assert stats.getColumnStats(0).getNumUniqueValues() > 0;
+
+        // The statistics must also have been persisted in the header page.
+        DBPage dbpHeader = server.getStorageManager().loadDBPage(
+            tupleFile.getDBFile(), 0);
+        PageReader reader = new PageReader(dbpHeader);
+        reader.setPosition(HeaderPage.getStatsOffset(dbpHeader));
+        TableStats saved =
+            new StatsWriter().readTableStats(reader, tupleFile.getSchema());
+
+        // Statistics stored in an unknown format version must be ignored.
+        int statsOffset = HeaderPage.getStatsOffset(dbpHeader);
+        int version = dbpHeader.readUnsignedByte(statsOffset);
+        dbpHeader.writeByte(statsOffset, version + 1);
+        reader.setPosition(statsOffset);
+        TableStats unknown =
+            new StatsWriter().readTableStats(reader, tupleFile.getSchema());
+        dbpHeader.writeByte(statsOffset, version);
+        dbpHeader.unpin();
+
+        assert unknown.numTuples == 0;
+        assert unknown.getColumnStats(0).getNumUniqueValues() == -1;
+
+        assert saved.numTuples == stats.numTuples;
+        assert saved.numDataPages == stats.numDataPages;
+        assert saved.treeHeight == stats.treeHeight;
+        assert saved.numLeafPages == stats.numLeafPages;
+        assert saved.avgLeafFill == stats.avgLeafFill;
+    }
 }
@@ -1,10 +1,25 @@
 package edu.caltech.test.nanodb.storage.heapfile;
 
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.testng.annotations.Test;
 
 import edu.caltech.nanodb.expressions.TupleLiteral;
+import edu.caltech.nanodb.indexes.IndexInfo;
+import edu.caltech.nanodb.indexes.IndexUtils;
+import edu.caltech.nanodb.queryeval.AutoAnalyzer;
+import edu.caltech.nanodb.queryeval.TableStats;
+import edu.caltech.nanodb.relations.TableInfo;
 import edu.caltech.nanodb.server.CommandResult;
+import edu.caltech.nanodb.server.properties.PropertyRegistry;
+import edu.caltech.nanodb.storage.DBPage;
+import edu.caltech.nanodb.storage.PageReader;
+import edu.caltech.nanodb.storage.StatsWriter;
+import edu.caltech.nanodb.storage.StorageManager;
+import edu.caltech.nanodb.storage.TupleFile;
+import edu.caltech.nanodb.storage.heapfile.HeaderPage;
 import edu.caltech.test.nanodb.storage.TableFormatTestCase;
 
 
@@ -209,4 +224,279 @@ public class TestHeapTableFormat extends TableFormatTestCase {
         result = tryDoCommand("SELECT * FROM heap_update;", true);
         assert checkUnorderedResults(tuples, result);
     }
+
+
+    /**
+     * This test performs updates on a table whose columns all have a fixed
+     * size, so that tuples without <tt>NULL</tt> values find their values
+     * at precomputed offsets, and then sets values to and from
+     * <tt>NULL</tt>.
+     *
+     * @throws Exception if an IO error occurs, or if the test fails.
+     */
+    public void testFixedWidthUpdates() throws Exception {
+        CommandResult result;
+        TupleLiteral[] tuples = {
+            new TupleLiteral(1, 10L, "ab", 1.5, 3),
+            new TupleLiteral(2, null, "cd", 2.5, 4),
+            new TupleLiteral(3, 30L, null, null, 5)
+        };
+
+        tryDoCommand("CREATE TABLE heap_fixed (a INTEGER, b BIGINT, " +
+            "c CHAR(4), d DOUBLE, e INTEGER);");
+
+        tryDoCommand("INSERT INTO heap_fixed VALUES (1, 10, 'ab', 1.5, 3);");
+        tryDoCommand("INSERT INTO heap_fixed VALUES (2, NULL, 'cd', 2.5, 4);");
+        tryDoCommand("INSERT INTO heap_fixed VALUES (3, 30, NULL, NULL, 5);");
+
+        result = tryDoCommand("SELECT * FROM heap_fixed;", true);
+        assert checkUnorderedResults(tuples, result);
+
+        result = tryDoCommand("SELECT e, a FROM heap_fixed WHERE d > 2;", true);
+        assert checkUnorderedResults(new TupleLiteral[] {
+            new TupleLiteral(4, 2)
+        }, result);
+
+        tryDoCommand("UPDATE heap_fixed SET d = NULL, e = 7 WHERE a = 1;");
+        tryDoCommand("UPDATE heap_fixed SET b = 20 WHERE a = 2;");
+        tryDoCommand("UPDATE heap_fixed SET c = 'ef', d = 3.5 WHERE a = 3;");
+
+        tuples[0].setColumnValue(3, null);
+        tuples[0].setColumnValue(4, 7);
+        tuples[1].setColumnValue(1, 20L);
+        tuples[2].setColumnValue(2, "ef");
+        tuples[2].setColumnValue(3, 3.5);
+
+        result = tryDoCommand("SELECT * FROM heap_fixed;", true);
+        assert checkUnorderedResults(tuples, result);
+
+        result = tryDoCommand("SELECT e FROM heap_fixed WHERE b >= 20;", true);
+        assert checkUnorderedResults(new TupleLiteral[] {
+            new TupleLiteral((Object) 4),
+            new TupleLiteral((Object) 5)
+        }, result);
+    }
+
+
+    /**
+     * This test creates and scans a table with a column type that has no
+     * fixed storage size, so the table's tuples have no precomputed value
+     * offsets.
+     *
+     * @throws Exception if an IO error occurs, or if the test fails.
+     */
+    public void testNoFixedSizeColumns() throws Exception {
+        tryDoCommand("CREATE TABLE heap_date (a INTEGER, d DATE);");
+
+        CommandResult result = tryDoCommand("SELECT * FROM heap_date;", true);
+        assert result.getTuples().isEmpty();
+    }
+
+
+    /**
+     * This test selects a few columns of a wide table with variable-size
+     * and <tt>NULL</tt> values, so that only the projected columns and the
+     * columns used by the predicate are decoded by the scan.
+     *
+     * @throws Exception if an IO error occurs, or if the test fails.
+     */
+    public void testProjectedScans() throws Exception {
+        tryDoCommand("CREATE TABLE heap_wide (a INTEGER, b VARCHAR(20), " +
+            "c INTEGER, d VARCHAR(20), e INTEGER, f VARCHAR(20), g INTEGER);");
+
+        int numRows = 300;
+        for (int i = 0; i < numRows; i++) {
+            String b = (i % 3 == 0) ? "NULL" : "'" + makeRandomString(0, 20) + "'";
+            String d = (i % 5 == 0) ? "NULL" : "'d" + i + "'";
+            String e = (i % 7 == 0) ? "NULL" : Integer.toString(i * 2);
+            tryDoCommand(String.format("INSERT INTO heap_wide VALUES " +
+                "(%d, %s, %d, %s, %s, 'f%d', %d);", i, b, i % 10, d, e, i, -i));
+        }
+
+        TupleLiteral[] expected = new TupleLiteral[numRows];
+        for (int i = 0; i < numRows; i++)
+            expected[i] = new TupleLiteral(-i, (i % 5 == 0) ? null : "d" + i);
+
+        CommandResult result = tryDoCommand("SELECT g, d FROM heap_wide;", true);
+        assert checkUnorderedResults(expected, result);
+
+        ArrayList<TupleLiteral> filtered = new ArrayList<>();
+        for (int i = 0; i < numRows; i++) {
+            if (i % 10 == 4 && i % 7 != 0)
+                filtered.add(new TupleLiteral("f" + i, i * 2 + 1));
+        }
+
+        result = tryDoCommand("SELECT f, e + 1 FROM heap_wide " +
+            "WHERE c = 4 AND e IS NOT NULL;", true);
+        assert checkUnorderedResults(filtered.toArray(new TupleLiteral[0]),
+            result);
+    }
+
+
+    /**
+     * Deletes most of the rows from a multi-page table, and then uses the
+     * <tt>OPTIMIZE</tt> command to compact the table.  The table's contents
+     * must be unchanged, the file must shrink, and an index on the table
+     * must still reference exactly the table's tuples.
+     *
+     * @throws Exception if an IO error occurs, or if the test fails.
+     */
+    public void testHeapTableOptimize() throws Exception {
+        tryDoCommand("CREATE TABLE heap_optimize (a INTEGER, b VARCHAR(50)) " +
+            "PROPERTIES (storage = 'heap', pagesize = 4096);", false);
+
+        for (int i = 0; i < 1000; i++) {
+            tryDoCommand(String.format("INSERT INTO heap_optimize " +
+                "VALUES (%d, '%s');", i, makeRandomString(20, 50)), false);
+        }
+
+        // Leave a sparse scattering of rows throughout the file.
+        tryDoCommand("DELETE FROM heap_optimize WHERE a < 900 AND a % 5 <> 0;",
+            false);
+        tryDoCommand("CREATE INDEX idx_heap_optimize ON heap_optimize (a);", false);
+
+        CommandResult result = tryDoCommand("SELECT * FROM heap_optimize;", true);
+        List<TupleLiteral> before = result.getTuples();
+
+        StorageManager storageManager = server.getStorageManager();
+        TableInfo tableInfo =
+            storageManager.getTableManager().openTable("HEAP_OPTIMIZE");
+        TupleFile tupleFile = tableInfo.getTupleFile();
+        int pagesBefore = tupleFile.getDBFile().getNumPages();
+
+        tryDoCommand("OPTIMIZE heap_optimize;", false);
+
+        assert tupleFile.getDBFile().getNumPages() < pagesBefore;
+
+        result = tryDoCommand("SELECT * FROM heap_optimize;", true);
+        assert checkUnorderedResults(
+            before.toArray(new TupleLiteral[before.size()]), result);
+
+        IndexInfo indexInfo = storageManager.getIndexManager().openIndex(
+            tableInfo, "IDX_HEAP_OPTIMIZE");
+        assert IndexUtils.verifyIndex(tupleFile, indexInfo.getTupleFile()).isEmpty();
+    }
+
+
+    /**
+     * Analyzes a multi-page table both fully and with a sample of its pages.
+     * The full scan must produce exact counts, and the sampled analyses must
+     * produce estimates that are close to them.
+     *
+     * @throws Exception if an IO error occurs, or if the test fails.
+     */
+    public void testHeapTableSampledAnalyze() throws Exception {
+        tryDoCommand("CREATE TABLE heap_sample (a INTEGER, b VARCHAR(50)) " +
+            "PROPERTIES (storage = 'heap', pagesize = 4096);", false);
+
+        for (int i = 0; i < 2000; i++) {
+            tryDoCommand(String.format("INSERT INTO heap_sample " +
+                "VALUES (%d, '%s');", i, makeRandomString(20, 50)), false);
+        }
+
+        TupleFile tupleFile = server.getStorageManager().getTableManager()
+            .openTable("HEAP_SAMPLE").getTupleFile();
+
+        tryDoCommand("ANALYZE heap_sample;", false);
+        TableStats full = tupleFile.getStats();
+        assert full.numTuples == 2000;
+        assert Math.abs(full.getColumnStats(0).getNumUniqueValues() - 2000) <= 100;
+
+        tryDoCommand("ANALYZE heap_sample SAMPLE 50 PERCENT;", false);
+        TableStats sampled = tupleFile.getStats();
+        assert sampled.numDataPages == full.numDataPages;
+        assert Math.abs(sampled.numTuples - 2000) <= 200;
+        assert Math.abs(sampled.getColumnStats(0).getNumUniqueValues() - 2000) <= 300;
+        assert Math.abs(sampled.avgTupleSize - full.avgTupleSize) <= 5;
+
+        tryDoCommand("ANALYZE heap_sample SAMPLE 500 ROWS;", false);
+        sampled = tupleFile.getStats();
+        assert sampled.numDataPages == full.numDataPages;
+        assert Math.abs(sampled.numTuples - 2000) <= 400;
+    }
+
+
+    /**
+     * Inserts rows into a table with automatic analysis turned off and then
+     * on, verifying that modifications are counted and persisted, and that
+     * the table is re-analyzed in the background once enough rows change.
+     *
+     * @throws Exception if an IO error occurs, or if the test fails.
+     */
+    public void testHeapTableAutoAnalyze() throws Exception {
+        PropertyRegistry registry = server.getPropertyRegistry();
+        registry.setPropertyValue(AutoAnalyzer.PROP_AUTOANALYZE, false);
+        registry.setPropertyValue(AutoAnalyzer.PROP_AUTOANALYZE_THRESHOLD, 10);
+
+        tryDoCommand("CREATE TABLE heap_autoanalyze (a INTEGER, b VARCHAR(20)) " +
+            "PROPERTIES (storage = 'heap', pagesize = 4096);", false);
+
+        for (int i = 0; i < 100; i++) {
+            tryDoCommand(String.format("INSERT INTO heap_autoanalyze " +
+                "VALUES (%d, '%s');", i, makeRandomString(3, 20)), false);
+        }
+
+        StorageManager storageManager = server.getStorageManager();
+        TupleFile tupleFile = storageManager.getTableManager()
+            .openTable("HEAP_AUTOANALYZE").getTupleFile();
+
+        assert tupleFile.getStats().numTuples == 0;
+        assert tupleFile.getStats().numModifications == 100;
+
+        // The rows counted by a command that fails must be discarded.  This
+        // update changes the rows where a < 50, and then fails on the first
+        // row where it has to add a number to a string.
+        CommandResult result = server.doCommand("UPDATE heap_autoanalyze " +
+            "SET a = COALESCE(NULLIF(a < 50, a + b), a);", false);
+        assert result.failed();
+        assert tupleFile.getStats().numModifications == 100;
+
+        // The modification count is saved with the stats when data is
+        // flushed.  This can happen outside of any command, as it does when
+        // the server shuts down, and the header page must not stay pinned.
+        DBPage dbpHeader = storageManager.loadDBPage(tupleFile.getDBFile(), 0);
+        dbpHeader.unpin();
+        storageManager.flushAllData();
+        assert dbpHeader.getPinCount() == 0;
+        assert tupleFile.getStats().numModifications == 100;
+        dbpHeader = storageManager.loadDBPage(tupleFile.getDBFile(), 0);
+        PageReader reader = new PageReader(dbpHeader);
+        reader.setPosition(HeaderPage.getStatsOffset(dbpHeader));
+        TableStats saved =
+            new StatsWriter().readTableStats(reader, tupleFile.getSchema());
+        dbpHeader.unpin();
+        assert saved.numModifications == 100;
+
+        // Once automatic analysis is enabled, the next modification should
+        // cause the table to be analyzed in the background.
+        registry.setPropertyValue(AutoAnalyzer.PROP_AUTOANALYZE, true);
+        tryDoCommand("DELETE FROM heap_autoanalyze WHERE a = 0;", false);
+
+        long deadline = System.currentTimeMillis() + 10000;
+        while (tupleFile.getStats().numModifications > 0 &&
+               System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+
+        // Holding the write lock guarantees the analysis has finished.
+        server.getCommandLock().writeLock().lock();
+        try {
+            TableStats stats = tupleFile.getStats();
+            assert stats.numModifications == 0;
+            assert stats.numTuples == 99;
+        }
+        finally {
+            server.getCommandLock().writeLock().unlock();
+        }
+
+        // A manual ANALYZE also resets the count.
+        tryDoCommand("INSERT INTO heap_autoanalyze VALUES (100, 'x');", false);
+        assert tupleFile.getStats().numModifications == 1;
+        tryDoCommand("ANALYZE heap_autoanalyze;", false);
+        assert tupleFile.getStats().numModifications == 0;
+        assert tupleFile.getStats().numTuples == 100;
+
+        registry.setPropertyValue(AutoAnalyzer.PROP_AUTOANALYZE_THRESHOLD,
+            AutoAnalyzer.DEFAULT_AUTOANALYZE_THRESHOLD);
+    }
 }
@@ -0,0 +1,130 @@
+package edu.caltech.test.nanodb.util;
+
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.testng.annotations.Test;
+
+import edu.caltech.nanodb.util.LZCodec;
+
+
+/**
+ * This class exercises the LZ compressor used for compressed database files.
+ */
+@Test
+public class TestLZCodec {
+
+    /** Compresses the data, decompresses the result, and returns it. */
+    private static byte[] roundTrip(byte[] data) throws IOException {
+        byte[] compressed = LZCodec.compress(data, 0, data.length);
+        assert compressed.length <= LZCodec.maxCompressedLength(data.length);
+
+        byte[] result = new byte[data.length];
+        int length = LZCodec.decompress(compressed, 0, compressed.length,
+            result, 0, result.length);
+        assert length == data.length;
+
+        return result;
+    }
+
+
+    public void testEmptyAndShort() throws IOException {
+        assert roundTrip(new byte[0]).length == 0;
+
+        byte[] data = { 1, 2, 3 };
+        assert Arrays.equals(roundTrip(data), data);
+
+        data = new byte[] { 7, 7, 7, 7, 7, 7, 7, 7, 7, 7 };
+        assert Arrays.equals(roundTrip(data), data);
+    }
+
+
+    public void testRepetitiveData() throws IOException {
+        // A mostly-empty page compresses to a tiny fraction of its size.
+        byte[] data = new byte[8192];
+        data[0] = 3;
+        data[5000] = 42;
+        assert LZCodec.compress(data, 0, data.length).length < 100;
+        assert Arrays.equals(roundTrip(data), data);
+
+        // Text with many repeated words, including long matches.
+        StringBuilder buf = new StringBuilder();
+        for (int i = 0; i < 500; i++)
+            buf.append("row ").append(i % 37).append(" of the table; ");
+
+        data = buf.toString().getBytes();
+        assert LZCodec.compress(data, 0, data.length).length < data.length / 2;
+        assert Arrays.equals(roundTrip(data), data);
+    }
+
+
+    public void testRandomData() throws IOException {
+        Random rand = new Random(12345);
+        byte[] data = new byte[8192];
+        rand.nextBytes(data);
+
+        // Random data doesn't compress, but it must still round-trip.
+        assert Arrays.equals(roundTrip(data), data);
+
+        // Runs of random lengths, of a few random values.
+        int i = 0;
+        while (i < data.length) {
+            int run = Math.min(1 + rand.nextInt(300), data.length - i);
+            Arrays.fill(data, i, i + run, (byte) rand.nextInt(4));
+            i += run;
+        }
+        assert Arrays.equals(roundTrip(data), data);
+    }
+
+
+    public void testCompressRange() throws IOException {
+        byte[] data = "xxxxhello hello hello hello worldyyyy".getBytes();
+        byte[] compressed = LZCodec.compress(data, 4, data.length - 8);
+
+        byte[] result = new byte[40];
+        int length = LZCodec.decompress(compressed, 0, compressed.length,
+            result, 2, 30);
+        assert length == data.length - 8;
+        assert Arrays.equals(Arrays.copyOfRange(result, 2, 2 + length),
+            Arrays.copyOfRange(data, 4, data.length - 4));
+    }
+
+
+    public void testMalformedData() {
+        byte[] data = new byte[1000];
+        Arrays.fill(data, 500, 1000, (byte) 9);
+        byte[] compressed = LZCodec.compress(data, 0, data.length);
+
+        // The output is too small for the data.
+        try {
+            LZCodec.decompress(compressed, 0, compressed.length,
+                new byte[999], 0, 999);
+            assert false : "Expected an IOException";
+        }
+        catch (IOException e) {
+            // Success.
+        }
+
+        // A match that refers to bytes before the start of the output.
+        byte[] bad = { 0x10, 1, 5, 0 };
+        try {
+            LZCodec.decompress(bad, 0, bad.length, new byte[100], 0, 100);
+            assert false : "Expected an IOException";
+        }
+        catch (IOException e) {
+            // Success.
+        }
+
+        // A truncated match offset.
+        bad = new byte[] { 0x10, 1, 5 };
+        try {
+            LZCodec.decompress(bad, 0, bad.length, new byte[100], 0, 100);
+            assert false : "Expected an IOException";
+        }
+        catch (IOException e) {
+            // Success.
+        }
+    }
+}